@@ -33,10 +33,12 @@ import ca.uhn.fhir.model.api.annotation.Description;
 import ca.uhn.fhir.util.ValidateUtil;
 
 public abstract class BaseRuntimeDeclaredChildDefinition extends BaseRuntimeChildDefinition {
+	private static final org.slf4j.Logger ourLog = org.slf4j.LoggerFactory.getLogger(BaseRuntimeDeclaredChildDefinition.class);
 	private final IAccessor myAccessor;
 	private String myBindingValueSet;
 	private final String myElementName;
 	private final Field myField;
+	private IFieldAccess myFieldAccess;
 	private final String myFormalDefinition;
 	private final int myMax;
 	private final int myMin;
@@ -67,6 +69,7 @@ public abstract class BaseRuntimeDeclaredChildDefinition extends BaseRuntimeChil
 		}
 
 		myField.setAccessible(true);
+		myFieldAccess = new ReflectiveFieldAccess();
 		if (List.class.equals(myField.getType())) {
 			// TODO: verify that generic type is IElement
 			myAccessor = new FieldListAccessor();
@@ -135,6 +138,29 @@ public abstract class BaseRuntimeDeclaredChildDefinition extends BaseRuntimeChil
 		return mySummary;
 	}
 
+	/**
+	 * Replaces reflective access to the field backing this child with a generated
+	 * accessor class, if one can be generated
+	 * 
+	 * @see PerformanceOptionsEnum#GENERATED_ACCESSORS
+	 */
+	void generateFieldAccess() {
+		if (!(myFieldAccess instanceof ReflectiveFieldAccess)) {
+			return;
+		}
+		IFieldAccess generated;
+		try {
+			generated = FieldAccessGenerator.generate(myField);
+		} catch (NoClassDefFoundError e) {
+			// Javassist is an optional dependency
+			ourLog.debug("Unable to generate accessor for field {}.{}, Javassist is not available", myField.getDeclaringClass().getName(), myField.getName());
+			generated = null;
+		}
+		if (generated != null) {
+			myFieldAccess = generated;
+		}
+	}
+
 	void setBindingValueSet(String theBindingValueSet) {
 		myBindingValueSet = theBindingValueSet;
 	}
@@ -143,13 +169,38 @@ public abstract class BaseRuntimeDeclaredChildDefinition extends BaseRuntimeChil
 		myModifier = theModifier;
 	}
 
+	/**
+	 * Reads and writes the value of the field backing a child. Implementations of this interface
+	 * are generated at runtime when {@link PerformanceOptionsEnum#GENERATED_ACCESSORS} is enabled,
+	 * it is not intended to be used by client code.
+	 */
+	public interface IFieldAccess {
+
+		Object get(Object theTarget) throws Exception;
+
+		void set(Object theTarget, Object theValue) throws Exception;
+
+	}
+
+	private final class ReflectiveFieldAccess implements IFieldAccess {
+		@Override
+		public Object get(Object theTarget) throws Exception {
+			return myField.get(theTarget);
+		}
+
+		@Override
+		public void set(Object theTarget, Object theValue) throws Exception {
+			myField.set(theTarget, theValue);
+		}
+	}
+
 	private final class FieldListAccessor implements IAccessor {
 		@SuppressWarnings("unchecked")
 		@Override
 		public List<IBase> getValues(Object theTarget) {
 			List<IBase> retVal;
 			try {
-				retVal = (List<IBase>) myField.get(theTarget);
+				retVal = (List<IBase>) myFieldAccess.get(theTarget);
 			} catch (Exception e) {
 				throw new ConfigurationException("Failed to get value", e);
 			}
@@ -170,10 +221,10 @@ public abstract class BaseRuntimeDeclaredChildDefinition extends BaseRuntimeChil
 		private void addValue(Object theTarget, IBase theValue, boolean theClear) {
 			try {
 				@SuppressWarnings("unchecked")
-				List<IBase> existingList = (List<IBase>) myField.get(theTarget);
+				List<IBase> existingList = (List<IBase>) myFieldAccess.get(theTarget);
 				if (existingList == null) {
 					existingList = new ArrayList<IBase>(2);
-					myField.set(theTarget, existingList);
+					myFieldAccess.set(theTarget, existingList);
 				}
 				if (theClear) {
 					existingList.clear();
@@ -194,7 +245,7 @@ public abstract class BaseRuntimeDeclaredChildDefinition extends BaseRuntimeChil
 		@Override
 		public List<IBase> getValues(Object theTarget) {
 			try {
-				Object values = myField.get(theTarget);
+				Object values = myFieldAccess.get(theTarget);
 				if (values == null) {
 					return Collections.emptyList();
 				}
@@ -210,7 +261,7 @@ public abstract class BaseRuntimeDeclaredChildDefinition extends BaseRuntimeChil
 		@Override
 		public void addValue(Object theTarget, IBase theValue) {
 			try {
-				myField.set(theTarget, theValue);
+				myFieldAccess.set(theTarget, theValue);
 			} catch (Exception e) {
 				throw new ConfigurationException("Failed to set value", e);
 			}
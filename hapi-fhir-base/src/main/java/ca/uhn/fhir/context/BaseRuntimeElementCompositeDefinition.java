@@ -461,8 +461,12 @@ public abstract class BaseRuntimeElementCompositeDefinition<T extends IBase> ext
 		
 		super.sealAndInitialize(theContext, theClassToElementDefinitions);
 
+		boolean generateAccessors = theContext.getPerformanceOptions().contains(PerformanceOptionsEnum.GENERATED_ACCESSORS);
 		for (BaseRuntimeChildDefinition next : myChildren) {
 			next.sealAndInitialize(theContext, theClassToElementDefinitions);
+			if (generateAccessors && next instanceof BaseRuntimeDeclaredChildDefinition) {
+				((BaseRuntimeDeclaredChildDefinition) next).generateFieldAccess();
+			}
 		}
 
 		myNameToChild = new HashMap<String, BaseRuntimeChildDefinition>();
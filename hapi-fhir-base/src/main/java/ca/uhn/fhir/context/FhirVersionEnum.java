@@ -52,6 +52,7 @@ public enum FhirVersionEnum {
 	private final String myVersionClass;
 	private volatile IFhirVersion myVersionImplementation;
 	private String myFhirVersionString;
+	private volatile VersionModelTypes myModelTypes;
 
 	FhirVersionEnum(String theVersionClass, FhirVersionEnum theEquivalent, boolean theIsRi, IVersionProvider theVersionExtractor) {
 		myVersionClass = theVersionClass;
@@ -64,6 +65,19 @@ public enum FhirVersionEnum {
 		return myFhirVersionString;
 	}
 
+	/**
+	 * Returns the model types declared by this version's structures library, which are
+	 * loaded once and shared by all contexts for this version
+	 */
+	VersionModelTypes getModelTypes() {
+		VersionModelTypes retVal = myModelTypes;
+		if (retVal == null) {
+			retVal = VersionModelTypes.load(this);
+			myModelTypes = retVal;
+		}
+		return retVal;
+	}
+
 	public IFhirVersion getVersionImplementation() {
 		if (!isPresentOnClasspath()) {
 			throw new IllegalStateException("Version " + name() + " is not present on classpath");
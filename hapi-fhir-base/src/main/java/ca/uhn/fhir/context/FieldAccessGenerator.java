@@ -0,0 +1,118 @@
+package ca.uhn.fhir.context;
+
+/*
+ * #%L
+ * HAPI FHIR - Core Library
+ * %%
+ * Copyright (C) 2014 - 2017 University Health Network
+ * %%
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * #L%
+ */
+
+import java.lang.reflect.Field;
+import java.lang.reflect.Modifier;
+
+import javassist.ClassClassPath;
+import javassist.ClassPool;
+import javassist.CtClass;
+import javassist.CtNewConstructor;
+import javassist.CtNewMethod;
+import javassist.LoaderClassPath;
+
+import ca.uhn.fhir.context.BaseRuntimeDeclaredChildDefinition.IFieldAccess;
+
+/**
+ * Generates classes which read and write model fields directly, instead of through
+ * {@link Field#get(Object)} and {@link Field#set(Object, Object)}. This class uses
+ * Javassist, which is an optional dependency, so it must only be loaded when
+ * {@link PerformanceOptionsEnum#GENERATED_ACCESSORS} is enabled.
+ */
+final class FieldAccessGenerator {
+	private static final String CLASS_NAME_INFIX = "$$HapiFieldAccess$";
+	private static final org.slf4j.Logger ourLog = org.slf4j.LoggerFactory.getLogger(FieldAccessGenerator.class);
+
+	private FieldAccessGenerator() {
+		// non instantiable
+	}
+
+	/**
+	 * Returns a generated accessor for the given field, or <code>null</code> if one can not
+	 * be generated (e.g. because the field is private, in which case reflection must be used)
+	 */
+	static IFieldAccess generate(Field theField) {
+		Class<?> declaringClass = theField.getDeclaringClass();
+		int modifiers = theField.getModifiers();
+		if (Modifier.isPrivate(modifiers) || Modifier.isFinal(modifiers) || Modifier.isStatic(modifiers) || theField.getType().isPrimitive() || theField.getType().isArray()) {
+			return null;
+		}
+		ClassLoader classLoader = declaringClass.getClassLoader();
+		if (classLoader == null) {
+			return null;
+		}
+
+		/*
+		 * The generated class goes in the same package and class loader as the model class, so
+		 * that it can access protected and package private fields. If another context has
+		 * already generated it, it is reused.
+		 */
+		String className = declaringClass.getName() + CLASS_NAME_INFIX + theField.getName();
+		try {
+			return (IFieldAccess) Class.forName(className, true, classLoader).newInstance();
+		} catch (ClassNotFoundException e) {
+			// Not generated yet
+		} catch (Exception e) {
+			ourLog.debug("Failed to instantiate generated accessor " + className, e);
+			return null;
+		}
+
+		try {
+			return (IFieldAccess) defineClass(theField, className, classLoader).newInstance();
+		} catch (LinkageError e) {
+			// Another thread may have defined it first
+			try {
+				return (IFieldAccess) Class.forName(className, true, classLoader).newInstance();
+			} catch (Exception e2) {
+				ourLog.debug("Failed to generate accessor " + className, e);
+				return null;
+			}
+		} catch (Exception e) {
+			ourLog.debug("Failed to generate accessor " + className, e);
+			return null;
+		}
+	}
+
+	private static Class<?> defineClass(Field theField, String theClassName, ClassLoader theClassLoader) throws Exception {
+		Class<?> declaringClass = theField.getDeclaringClass();
+
+		ClassPool pool = new ClassPool(false);
+		pool.appendClassPath(new LoaderClassPath(theClassLoader));
+		pool.appendClassPath(new ClassClassPath(IFieldAccess.class));
+
+		CtClass ctClass = pool.makeClass(theClassName);
+		try {
+			ctClass.setModifiers(javassist.Modifier.PUBLIC | javassist.Modifier.FINAL);
+			ctClass.addInterface(pool.get(IFieldAccess.class.getName()));
+			ctClass.addConstructor(CtNewConstructor.defaultConstructor(ctClass));
+
+			String target = "((" + declaringClass.getName() + ") $1)." + theField.getName();
+			ctClass.addMethod(CtNewMethod.make("public Object get(Object theTarget) { return " + target + "; }", ctClass));
+			ctClass.addMethod(CtNewMethod.make("public void set(Object theTarget, Object theValue) { " + target + " = (" + theField.getType().getName() + ") $2; }", ctClass));
+
+			return ctClass.toClass(theClassLoader, declaringClass.getProtectionDomain());
+		} finally {
+			ctClass.detach();
+		}
+	}
+
+}
@@ -21,8 +21,6 @@ package ca.uhn.fhir.context;
  */
 import static org.apache.commons.lang3.StringUtils.isBlank;
 
-import java.io.IOException;
-import java.io.InputStream;
 import java.lang.annotation.Annotation;
 import java.lang.reflect.AnnotatedElement;
 import java.lang.reflect.Field;
@@ -31,7 +29,6 @@ import java.lang.reflect.Type;
 import java.util.*;
 import java.util.Map.Entry;
 
-import org.apache.commons.io.IOUtils;
 import org.hl7.fhir.instance.model.api.*;
 
 import ca.uhn.fhir.context.RuntimeSearchParam.RuntimeSearchParamStatusEnum;
@@ -492,69 +489,25 @@ class ModelScanner {
 
 	static Set<Class<? extends IBase>> scanVersionPropertyFile(Set<Class<? extends IBase>> theDatatypes, Map<String, Class<? extends IBaseResource>> theResourceTypes, FhirVersionEnum theVersion, Map<Class<? extends IBase>, BaseRuntimeElementDefinition<?>> theExistingElementDefinitions) {
 		Set<Class<? extends IBase>> retVal = new HashSet<Class<? extends IBase>>();
+		VersionModelTypes versionTypes = theVersion.getModelTypes();
 
-		InputStream str = theVersion.getVersionImplementation().getFhirVersionPropertiesFile();
-		Properties prop = new Properties();
-		try {
-			prop.load(str);
-			for (Entry<Object, Object> nextEntry : prop.entrySet()) {
-				String nextKey = nextEntry.getKey().toString();
-				String nextValue = nextEntry.getValue().toString();
-
-				if (nextKey.startsWith("datatype.")) {
-					if (theDatatypes != null) {
-						try {
-							// Datatypes
-
-							@SuppressWarnings("unchecked")
-							Class<? extends IBase> dtType = (Class<? extends IBase>) Class.forName(nextValue);
-							if (theExistingElementDefinitions.containsKey(dtType)) {
-								continue;
-							}
-							retVal.add(dtType);
-
-							if (IElement.class.isAssignableFrom(dtType)) {
-								@SuppressWarnings("unchecked")
-								Class<? extends IElement> nextClass = (Class<? extends IElement>) dtType;
-								theDatatypes.add(nextClass);
-							} else if (IBaseDatatype.class.isAssignableFrom(dtType)) {
-								@SuppressWarnings("unchecked")
-								Class<? extends IBaseDatatype> nextClass = (Class<? extends IBaseDatatype>) dtType;
-								theDatatypes.add(nextClass);
-							} else {
-								ourLog.warn("Class is not assignable from " + IElement.class.getSimpleName() + " or " + IBaseDatatype.class.getSimpleName() + ": " + nextValue);
-								continue;
-							}
-
-						} catch (ClassNotFoundException e) {
-							throw new ConfigurationException("Unknown class[" + nextValue + "] for data type definition: " + nextKey.substring("datatype.".length()), e);
-						}
-					}
-				} else if (nextKey.startsWith("resource.")) {
-					// Resources
-					String resName = nextKey.substring("resource.".length()).toLowerCase();
-					try {
-						@SuppressWarnings("unchecked")
-						Class<? extends IBaseResource> nextClass = (Class<? extends IBaseResource>) Class.forName(nextValue);
-						if (theExistingElementDefinitions.containsKey(nextClass)) {
-							continue;
-						}
-						if (!IBaseResource.class.isAssignableFrom(nextClass)) {
-							throw new ConfigurationException("Class is not assignable from " + IBaseResource.class.getSimpleName() + ": " + nextValue);
-						}
-
-						theResourceTypes.put(resName, nextClass);
-					} catch (ClassNotFoundException e) {
-						throw new ConfigurationException("Unknown class[" + nextValue + "] for resource definition: " + nextKey.substring("resource.".length()), e);
-					}
-				} else {
-					throw new ConfigurationException("Unexpected property in version property file: " + nextKey + "=" + nextValue);
+		if (theDatatypes != null) {
+			for (Class<? extends IBase> next : versionTypes.getDatatypes()) {
+				if (!theExistingElementDefinitions.containsKey(next)) {
+					retVal.add(next);
+				}
+			}
+			for (Class<? extends IBase> next : versionTypes.getScannableDatatypes()) {
+				if (!theExistingElementDefinitions.containsKey(next)) {
+					theDatatypes.add(next);
 				}
 			}
-		} catch (IOException e) {
-			throw new ConfigurationException("Failed to load model property file from classpath: " + "/ca/uhn/fhir/model/dstu/model.properties");
-		} finally {
-			IOUtils.closeQuietly(str);
+		}
+
+		for (Entry<String, Class<? extends IBaseResource>> nextEntry : versionTypes.getResourceNameToType().entrySet()) {
+			if (!theExistingElementDefinitions.containsKey(nextEntry.getValue())) {
+				theResourceTypes.put(nextEntry.getKey(), nextEntry.getValue());
+			}
 		}
 
 		return retVal;
@@ -39,6 +39,7 @@ import ca.uhn.fhir.parser.IParser;
  */
 public class ParserOptions {
 
+	private boolean myStreamingJsonParsing = false;
 	private boolean myStripVersionsFromReferences = true;
 	private Set<String> myDontStripVersionsFromReferencesAtPaths = Collections.emptySet();
 	
@@ -69,6 +70,43 @@ public class ParserOptions {
 		return this;
 	}
 	
+	/**
+	 * If set to <code>true</code>, JSON parsers created by this context will parse resources
+	 * directly from a stream of JSON tokens instead of first loading the complete JSON document
+	 * into an in-memory tree. This substantially reduces the memory required to parse large
+	 * resources (e.g. Bundles containing many entries). Default is <code>false</code>.
+	 * <p>
+	 * Note that when this mode is enabled, <code>_element</code> properties (which carry the
+	 * ID and extensions of primitive elements) are supported for primitive elements only, which is
+	 * where the FHIR specification permits them.
+	 * </p>
+	 * 
+	 * @see #setStreamingJsonParsing(boolean)
+	 */
+	public boolean isStreamingJsonParsing() {
+		return myStreamingJsonParsing;
+	}
+
+	/**
+	 * If set to <code>true</code>, JSON parsers created by this context will parse resources
+	 * directly from a stream of JSON tokens instead of first loading the complete JSON document
+	 * into an in-memory tree. This substantially reduces the memory required to parse large
+	 * resources (e.g. Bundles containing many entries). Default is <code>false</code>.
+	 * <p>
+	 * Note that when this mode is enabled, <code>_element</code> properties (which carry the
+	 * ID and extensions of primitive elements) are supported for primitive elements only, which is
+	 * where the FHIR specification permits them.
+	 * </p>
+	 * 
+	 * @param theStreamingJsonParsing
+	 *           Should streaming JSON parsing be used?
+	 * @return Returns a reference to <code>this</code> parser so that method calls can be chained together
+	 */
+	public ParserOptions setStreamingJsonParsing(boolean theStreamingJsonParsing) {
+		myStreamingJsonParsing = theStreamingJsonParsing;
+		return this;
+	}
+
 	/**
 	 * If set to <code>true<code> (which is the default), resource references containing a version
 	 * will have the version removed when the resource is encoded. This is generally good behaviour because
@@ -35,6 +35,19 @@ public enum PerformanceOptionsEnum {
 	 * Android or low powered devices.
 	 * </p> 
 	 */
-	DEFERRED_MODEL_SCANNING
-	
+	DEFERRED_MODEL_SCANNING,
+
+	/**
+	 * When this option is set, classes which read and write model fields directly are
+	 * generated (using <a href="http://jboss-javassist.github.io/javassist/">Javassist</a>)
+	 * when each model type is scanned, instead of using reflection to access the fields
+	 * whenever a resource is parsed, encoded or walked.
+	 * <p>
+	 * This option requires Javassist to be on the classpath. Fields which can not be accessed
+	 * by generated classes (e.g. private fields) and types for which generation fails continue
+	 * to use reflection, as they do when this option is not set.
+	 * </p>
+	 */
+	GENERATED_ACCESSORS
+
 }
@@ -0,0 +1,156 @@
+package ca.uhn.fhir.context;
+
+/*
+ * #%L
+ * HAPI FHIR - Core Library
+ * %%
+ * Copyright (C) 2014 - 2017 University Health Network
+ * %%
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * #L%
+ */
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Map.Entry;
+import java.util.Properties;
+
+import org.apache.commons.io.IOUtils;
+import org.hl7.fhir.instance.model.api.IBase;
+import org.hl7.fhir.instance.model.api.IBaseDatatype;
+import org.hl7.fhir.instance.model.api.IBaseResource;
+
+import ca.uhn.fhir.model.api.IElement;
+
+/**
+ * The model types declared in the version property file of a structures library
+ * (see {@link ca.uhn.fhir.model.api.IFhirVersion#getFhirVersionPropertiesFile()}). This is
+ * loaded once per {@link FhirVersionEnum} and shared by every {@link FhirContext} for that
+ * version, so that scanning a resource type does not need to read the property file and
+ * look up each class again.
+ */
+final class VersionModelTypes {
+	private static final org.slf4j.Logger ourLog = org.slf4j.LoggerFactory.getLogger(VersionModelTypes.class);
+
+	private volatile List<Class<? extends IBase>> myDatatypes;
+	private final Map<String, String> myDatatypeNameToClassName;
+	private volatile List<Class<? extends IBase>> myScannableDatatypes;
+	private final Map<String, Class<? extends IBaseResource>> myResourceNameToType;
+
+	private VersionModelTypes(Map<String, String> theDatatypeNameToClassName, Map<String, Class<? extends IBaseResource>> theResourceNameToType) {
+		myDatatypeNameToClassName = theDatatypeNameToClassName;
+		myResourceNameToType = Collections.unmodifiableMap(theResourceNameToType);
+	}
+
+	/**
+	 * Returns all datatypes declared in the property file
+	 */
+	List<Class<? extends IBase>> getDatatypes() {
+		if (myDatatypes == null) {
+			loadDatatypes();
+		}
+		return myDatatypes;
+	}
+
+	/**
+	 * Returns the resource types declared in the property file, keyed by lowercase resource name
+	 */
+	Map<String, Class<? extends IBaseResource>> getResourceNameToType() {
+		return myResourceNameToType;
+	}
+
+	/**
+	 * Returns the datatypes declared in the property file which can be scanned as model types
+	 */
+	List<Class<? extends IBase>> getScannableDatatypes() {
+		if (myScannableDatatypes == null) {
+			loadDatatypes();
+		}
+		return myScannableDatatypes;
+	}
+
+	/*
+	 * Datatypes are only loaded when they are first needed, since looking up the resource
+	 * types for another version doesn't need them
+	 */
+	private synchronized void loadDatatypes() {
+		if (myScannableDatatypes != null) {
+			return;
+		}
+		List<Class<? extends IBase>> datatypes = new ArrayList<Class<? extends IBase>>();
+		List<Class<? extends IBase>> scannableDatatypes = new ArrayList<Class<? extends IBase>>();
+		for (Entry<String, String> nextEntry : myDatatypeNameToClassName.entrySet()) {
+			String nextValue = nextEntry.getValue();
+			try {
+				@SuppressWarnings("unchecked")
+				Class<? extends IBase> dtType = (Class<? extends IBase>) Class.forName(nextValue);
+				datatypes.add(dtType);
+
+				if (IElement.class.isAssignableFrom(dtType) || IBaseDatatype.class.isAssignableFrom(dtType)) {
+					scannableDatatypes.add(dtType);
+				} else {
+					ourLog.warn("Class is not assignable from " + IElement.class.getSimpleName() + " or " + IBaseDatatype.class.getSimpleName() + ": " + nextValue);
+				}
+			} catch (ClassNotFoundException e) {
+				throw new ConfigurationException("Unknown class[" + nextValue + "] for data type definition: " + nextEntry.getKey(), e);
+			}
+		}
+		myDatatypes = Collections.unmodifiableList(datatypes);
+		myScannableDatatypes = Collections.unmodifiableList(scannableDatatypes);
+	}
+
+	static VersionModelTypes load(FhirVersionEnum theVersion) {
+		InputStream str = theVersion.getVersionImplementation().getFhirVersionPropertiesFile();
+		Properties prop = new Properties();
+		try {
+			prop.load(str);
+		} catch (IOException e) {
+			throw new ConfigurationException("Failed to load model property file from classpath: " + "/ca/uhn/fhir/model/dstu/model.properties");
+		} finally {
+			IOUtils.closeQuietly(str);
+		}
+
+		Map<String, String> datatypeNameToClassName = new HashMap<String, String>();
+		Map<String, Class<? extends IBaseResource>> resourceNameToType = new HashMap<String, Class<? extends IBaseResource>>();
+		for (Entry<Object, Object> nextEntry : prop.entrySet()) {
+			String nextKey = nextEntry.getKey().toString();
+			String nextValue = nextEntry.getValue().toString();
+
+			if (nextKey.startsWith("datatype.")) {
+				datatypeNameToClassName.put(nextKey.substring("datatype.".length()), nextValue);
+			} else if (nextKey.startsWith("resource.")) {
+				String resName = nextKey.substring("resource.".length()).toLowerCase();
+				try {
+					@SuppressWarnings("unchecked")
+					Class<? extends IBaseResource> nextClass = (Class<? extends IBaseResource>) Class.forName(nextValue);
+					if (!IBaseResource.class.isAssignableFrom(nextClass)) {
+						throw new ConfigurationException("Class is not assignable from " + IBaseResource.class.getSimpleName() + ": " + nextValue);
+					}
+					resourceNameToType.put(resName, nextClass);
+				} catch (ClassNotFoundException e) {
+					throw new ConfigurationException("Unknown class[" + nextValue + "] for resource definition: " + nextKey.substring("resource.".length()), e);
+				}
+			} else {
+				throw new ConfigurationException("Unexpected property in version property file: " + nextKey + "=" + nextValue);
+			}
+		}
+
+		return new VersionModelTypes(datatypeNameToClassName, resourceNameToType);
+	}
+
+}
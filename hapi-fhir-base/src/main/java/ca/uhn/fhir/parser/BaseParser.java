@@ -23,6 +23,10 @@ import static org.apache.commons.lang3.StringUtils.isBlank;
 import static org.apache.commons.lang3.StringUtils.isNotBlank;
 
 import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.io.OutputStream;
+import java.io.OutputStreamWriter;
 import java.io.Reader;
 import java.io.StringReader;
 import java.io.StringWriter;
@@ -93,6 +97,7 @@ public abstract class BaseParser implements IParser {
 	private IIdType myEncodeForceResourceId;
 	private IParserErrorHandler myErrorHandler;
 	private boolean myOmitResourceId;
+	private Set<String> myParseElements;
 	private List<Class<? extends IBaseResource>> myPreferTypes;
 	private String myServerBaseUrl;
 	private Boolean myStripVersionsFromReferences;
@@ -352,8 +357,26 @@ public abstract class BaseParser implements IParser {
 
 	protected abstract void doEncodeBundleToWriter(Bundle theBundle, Writer theWriter) throws IOException, DataFormatException;
 
+	/**
+	 * Encodes a resource as UTF-8 to the given stream. Subclasses may override this to
+	 * write bytes directly, the default implementation wraps the stream in a {@link Writer}.
+	 */
+	protected void doEncodeResourceToOutputStream(IBaseResource theResource, OutputStream theOutputStream) throws IOException, DataFormatException {
+		Writer writer = new OutputStreamWriter(theOutputStream, Constants.CHARSET_UTF8);
+		doEncodeResourceToWriter(theResource, writer);
+		writer.flush();
+	}
+
 	protected abstract void doEncodeResourceToWriter(IBaseResource theResource, Writer theWriter) throws IOException, DataFormatException;
 
+	/**
+	 * Parses a resource from the given stream. Subclasses may override this to read bytes directly,
+	 * the default implementation wraps the stream in a UTF-8 {@link Reader}.
+	 */
+	protected <T extends IBaseResource> T doParseResource(Class<T> theResourceType, InputStream theInputStream) throws DataFormatException {
+		return doParseResource(theResourceType, new InputStreamReader(theInputStream, Constants.CHARSET_UTF8));
+	}
+
 	protected abstract <T extends IBaseResource> T doParseResource(Class<T> theResourceType, Reader theReader) throws DataFormatException;
 
 	@Override
@@ -389,6 +412,19 @@ public abstract class BaseParser implements IParser {
 		return stringWriter.toString();
 	}
 
+	@Override
+	public final void encodeResourceToOutputStream(IBaseResource theResource, OutputStream theOutputStream) throws IOException, DataFormatException {
+		Validate.notNull(theResource, "theResource can not be null");
+		Validate.notNull(theOutputStream, "theOutputStream can not be null");
+
+		if (theResource.getStructureFhirVersionEnum() != myContext.getVersion().getVersion()) {
+			throw new IllegalArgumentException(
+					"This parser is for FHIR version " + myContext.getVersion().getVersion() + " - Can not encode a structure for version " + theResource.getStructureFhirVersionEnum());
+		}
+
+		doEncodeResourceToOutputStream(theResource, theOutputStream);
+	}
+
 	@Override
 	public final void encodeResourceToWriter(IBaseResource theResource, Writer theWriter) throws IOException, DataFormatException {
 		Validate.notNull(theResource, "theResource can not be null");
@@ -489,6 +525,26 @@ public abstract class BaseParser implements IParser {
 		return elementId;
 	}
 
+	/**
+	 * Copies the settings which affect encoding to another parser, so that it produces the same
+	 * output as this one
+	 */
+	void copyEncodeSettingsTo(BaseParser theTarget) {
+		theTarget.myDontEncodeElements = myDontEncodeElements;
+		theTarget.myDontEncodeElementsIncludesStars = myDontEncodeElementsIncludesStars;
+		theTarget.myDontStripVersionsFromReferencesAtPaths = myDontStripVersionsFromReferencesAtPaths;
+		theTarget.myEncodeElements = myEncodeElements;
+		theTarget.myEncodeElementsAppliesToResourceTypes = myEncodeElementsAppliesToResourceTypes;
+		theTarget.myEncodeElementsIncludesStars = myEncodeElementsIncludesStars;
+		theTarget.myEncodeForceResourceId = myEncodeForceResourceId;
+		theTarget.myErrorHandler = myErrorHandler;
+		theTarget.myOmitResourceId = myOmitResourceId;
+		theTarget.myServerBaseUrl = myServerBaseUrl;
+		theTarget.myStripVersionsFromReferences = myStripVersionsFromReferences;
+		theTarget.mySummaryMode = mySummaryMode;
+		theTarget.mySuppressNarratives = mySuppressNarratives;
+	}
+
 	ContainedResources getContainedResources() {
 		return myContainedResources;
 	}
@@ -528,6 +584,11 @@ public abstract class BaseParser implements IParser {
 		return tags;
 	}
 
+	@Override
+	public Set<String> getParseElements() {
+		return myParseElements;
+	}
+
 	@Override
 	public List<Class<? extends IBaseResource>> getPreferTypes() {
 		return myPreferTypes;
@@ -629,6 +690,25 @@ public abstract class BaseParser implements IParser {
 		return parseBundle(reader);
 	}
 
+	@Override
+	public <T extends IBaseResource> T parseResource(Class<T> theResourceType, InputStream theInputStream) throws DataFormatException {
+		Validate.notNull(theInputStream, "theInputStream can not be null");
+
+		/*
+		 * We do this so that the context can verify that the structure is for
+		 * the correct FHIR version
+		 */
+		if (theResourceType != null) {
+			myContext.getResourceDefinition(theResourceType);
+		}
+
+		// Actually do the parse
+		T retVal = doParseResource(theResourceType, theInputStream);
+
+		populateIdsFromBundleEntryFullUrls(retVal);
+		return retVal;
+	}
+
 	@Override
 	public <T extends IBaseResource> T parseResource(Class<T> theResourceType, Reader theReader) throws DataFormatException {
 
@@ -643,12 +723,17 @@ public abstract class BaseParser implements IParser {
 		// Actually do the parse
 		T retVal = doParseResource(theResourceType, theReader);
 
-		RuntimeResourceDefinition def = myContext.getResourceDefinition(retVal);
+		populateIdsFromBundleEntryFullUrls(retVal);
+		return retVal;
+	}
+
+	private void populateIdsFromBundleEntryFullUrls(IBaseResource theResource) {
+		RuntimeResourceDefinition def = myContext.getResourceDefinition(theResource);
 		if ("Bundle".equals(def.getName())) {
 
 			BaseRuntimeChildDefinition entryChild = def.getChildByName("entry");
 			BaseRuntimeElementCompositeDefinition<?> entryDef = (BaseRuntimeElementCompositeDefinition<?>) entryChild.getChildByName("entry");
-			List<IBase> entries = entryChild.getAccessor().getValues(retVal);
+			List<IBase> entries = entryChild.getAccessor().getValues(theResource);
 			if (entries != null) {
 				for (IBase nextEntry : entries) {
 
@@ -681,8 +766,6 @@ public abstract class BaseParser implements IParser {
 			}
 
 		}
-
-		return retVal;
 	}
 
 	@SuppressWarnings("cast")
@@ -846,6 +929,16 @@ public abstract class BaseParser implements IParser {
 		return this;
 	}
 
+	@Override
+	public IParser setParseElements(Set<String> theParseElements) {
+		if (theParseElements == null || theParseElements.isEmpty()) {
+			myParseElements = null;
+		} else {
+			myParseElements = theParseElements;
+		}
+		return this;
+	}
+
 	@Override
 	public IParser setParserErrorHandler(IParserErrorHandler theErrorHandler) {
 		Validate.notNull(theErrorHandler, "theErrorHandler must not be null");
@@ -910,6 +1003,23 @@ public abstract class BaseParser implements IParser {
 		return this;
 	}
 
+	/**
+	 * Would this parser encode the contents of the given stored body unchanged? If any
+	 * setting removes or rewrites content, the body needs to be parsed before encoding.
+	 */
+	protected boolean isLazyResourceBodyWritableDirectly(LazyResourceBody theBody) {
+		if (isSummaryMode() || isSuppressNarratives() || myEncodeElements != null || myDontEncodeElements != null) {
+			return false;
+		}
+		if (myContext.getNarrativeGenerator() != null) {
+			return false;
+		}
+		if (myServerBaseUrl != null && theBody.getJson().contains(myServerBaseUrl)) {
+			return false;
+		}
+		return theBody.isWritableDirectly();
+	}
+
 	protected boolean shouldAddSubsettedTag() {
 		return isSummaryMode() || isSuppressNarratives() || getEncodeElements() != null;
 	}
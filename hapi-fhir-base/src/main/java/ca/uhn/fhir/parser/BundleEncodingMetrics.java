@@ -0,0 +1,109 @@
+package ca.uhn.fhir.parser;
+
+/*
+ * #%L
+ * HAPI FHIR - Core Library
+ * %%
+ * Copyright (C) 2014 - 2017 University Health Network
+ * %%
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * #L%
+ */
+
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Counts the Bundles encoded by {@link JsonParser} and the time spent encoding them. An
+ * instance may be shared by any number of parsers, and is safe to use from multiple threads.
+ *
+ * @see JsonParser#setEncodingMetrics(BundleEncodingMetrics)
+ * @see JsonParser#setParallelEncoding(java.util.concurrent.ExecutorService, int)
+ */
+public class BundleEncodingMetrics {
+
+	private final AtomicLong myBundleCount = new AtomicLong();
+	private final AtomicLong myEncodingNanos = new AtomicLong();
+	private final AtomicLong myParallelBundleCount = new AtomicLong();
+	private final AtomicLong myParallelEntryCount = new AtomicLong();
+	private final AtomicLong myParallelEntryNanos = new AtomicLong();
+
+	void addBundle(boolean theParallel, long theNanos) {
+		myBundleCount.incrementAndGet();
+		myEncodingNanos.addAndGet(theNanos);
+		if (theParallel) {
+			myParallelBundleCount.incrementAndGet();
+		}
+	}
+
+	void addParallelEntry(long theNanos) {
+		myParallelEntryCount.incrementAndGet();
+		myParallelEntryNanos.addAndGet(theNanos);
+	}
+
+	/**
+	 * Resets all counters to zero
+	 */
+	public void clear() {
+		myBundleCount.set(0);
+		myEncodingNanos.set(0);
+		myParallelBundleCount.set(0);
+		myParallelEntryCount.set(0);
+		myParallelEntryNanos.set(0);
+	}
+
+	/**
+	 * Returns the number of Bundles which have been encoded
+	 */
+	public long getBundleCount() {
+		return myBundleCount.get();
+	}
+
+	/**
+	 * Returns the total time spent encoding Bundles, in milliseconds. This is the time spent by the
+	 * thread which requested the encoding, so entries which were encoded in parallel only count for
+	 * as long as that thread was waiting for them.
+	 */
+	public long getEncodingTimeMillis() {
+		return TimeUnit.NANOSECONDS.toMillis(myEncodingNanos.get());
+	}
+
+	/**
+	 * Returns the number of Bundles whose entries were encoded in parallel
+	 */
+	public long getParallelBundleCount() {
+		return myParallelBundleCount.get();
+	}
+
+	/**
+	 * Returns the number of Bundle entries which were encoded in parallel
+	 */
+	public long getParallelEntryCount() {
+		return myParallelEntryCount.get();
+	}
+
+	/**
+	 * Returns the time spent encoding Bundle entries in parallel, in milliseconds, summed across all
+	 * of the threads which did the work
+	 */
+	public long getParallelEntryEncodingTimeMillis() {
+		return TimeUnit.NANOSECONDS.toMillis(myParallelEntryNanos.get());
+	}
+
+	@Override
+	public String toString() {
+		return "BundleEncodingMetrics[bundles=" + getBundleCount() + ", encodingMillis=" + getEncodingTimeMillis() + ", parallelBundles=" + getParallelBundleCount() + ", parallelEntries="
+				+ getParallelEntryCount() + ", parallelEntryMillis=" + getParallelEntryEncodingTimeMillis() + "]";
+	}
+
+}
@@ -21,6 +21,8 @@ package ca.uhn.fhir.parser;
  */
 
 import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
 import java.io.Reader;
 import java.io.Writer;
 import java.util.Collection;
@@ -55,6 +57,16 @@ public interface IParser {
 
 	String encodeResourceToString(IBaseResource theResource) throws DataFormatException;
 
+	/**
+	 * Encodes a resource as UTF-8 bytes to the given stream. The stream is flushed but not closed
+	 * once the resource has been written.
+	 * <p>
+	 * For JSON this writes bytes directly to the stream instead of going through an
+	 * intermediate {@link Writer}.
+	 * </p>
+	 */
+	void encodeResourceToOutputStream(IBaseResource theResource, OutputStream theOutputStream) throws IOException, DataFormatException;
+
 	void encodeResourceToWriter(IBaseResource theResource, Writer theWriter) throws IOException, DataFormatException;
 
 	/**
@@ -107,6 +119,11 @@ public interface IParser {
 	 */
 	List<Class<? extends IBaseResource>> getPreferTypes();
 
+	/**
+	 * See {@link #setParseElements(Set)}
+	 */
+	Set<String> getParseElements();
+
 	/**
 	 * Returns true if resource IDs should be omitted
 	 * 
@@ -171,6 +188,22 @@ public interface IParser {
 	 */
 	<T extends IBaseResource> T parseResource(Class<T> theResourceType, Reader theReader) throws DataFormatException;
 
+	/**
+	 * Parses a resource from a stream of bytes. This can be faster than wrapping the stream in a
+	 * {@link Reader}, since the parser is able to decode the bytes itself. XML input is decoded using
+	 * the encoding declared in the document (defaulting to UTF-8), and JSON input is decoded as UTF-8.
+	 * 
+	 * @param theResourceType
+	 *           The resource type to use. This can be used to explicitly specify a class which extends a built-in type
+	 *           (e.g. a custom type extending the default Patient class)
+	 * @param theInputStream
+	 *           The stream to parse input from. Note that the stream will not be closed by the parser upon completion.
+	 * @return A parsed resource
+	 * @throws DataFormatException
+	 *            If the resource can not be parsed because the data is not recognized or invalid for any reason
+	 */
+	<T extends IBaseResource> T parseResource(Class<T> theResourceType, InputStream theInputStream) throws DataFormatException;
+
 	/**
 	 * Parses a resource
 	 * 
@@ -296,6 +329,32 @@ public interface IParser {
 	 */
 	IParser setOmitResourceId(boolean theOmitResourceId);
 
+	/**
+	 * If provided, specifies the elements which should be parsed, to the exclusion of all others. Any other
+	 * elements found in the input are skipped over without being parsed into the model. Valid values for
+	 * this field would include:
+	 * <ul>
+	 * <li><b>Patient</b> - Parse patient and all its children</li>
+	 * <li><b>Patient.name</b> - Parse only the patient's name</li>
+	 * <li><b>Patient.name.family</b> - Parse only the patient's family name</li>
+	 * <li><b>Observation.value</b> - Parse the observation's value, whichever datatype it has</li>
+	 * <li><b>*.meta</b> - Parse the meta element on any resource (only the very first position may contain a
+	 * wildcard)</li>
+	 * </ul>
+	 * <p>
+	 * Resource IDs and element IDs are always parsed. Each resource found in the input, including
+	 * contained resources and resources within a Bundle, is filtered using the paths for its own type. Resources
+	 * with a type that no path applies to are parsed in their entirety, so for example a search Bundle
+	 * may be parsed with the value <code>Observation.code</code> to read only the codes of the Observations
+	 * within it.
+	 * </p>
+	 *
+	 * @param theParseElements
+	 *           The elements to parse, or <code>null</code> (which is the default) to parse all elements
+	 * @return Returns a reference to <code>this</code> parser so that method calls can be chained together
+	 */
+	IParser setParseElements(Set<String> theParseElements);
+
 	/**
 	 * Registers an error handler which will be invoked when any parse errors are found
 	 * 
@@ -25,12 +25,20 @@ import static org.apache.commons.lang3.StringUtils.isBlank;
 import static org.apache.commons.lang3.StringUtils.isNotBlank;
 
 import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.io.OutputStream;
 import java.io.PushbackReader;
 import java.io.Reader;
+import java.io.StringWriter;
 import java.io.Writer;
 import java.math.BigDecimal;
 import java.util.*;
 import java.util.Map.Entry;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+import java.util.concurrent.RejectedExecutionException;
 
 import org.apache.commons.lang3.StringUtils;
 import org.apache.commons.lang3.Validate;
@@ -39,6 +47,12 @@ import org.hl7.fhir.instance.model.api.*;
 
 import com.google.gson.Gson;
 import com.google.gson.GsonBuilder;
+import com.google.gson.JsonArray;
+import com.google.gson.JsonElement;
+import com.google.gson.JsonObject;
+import com.google.gson.JsonParseException;
+import com.google.gson.stream.JsonReader;
+import com.google.gson.stream.JsonToken;
 
 import ca.uhn.fhir.context.*;
 import ca.uhn.fhir.context.BaseRuntimeElementDefinition.ChildTypeEnum;
@@ -53,10 +67,12 @@ import ca.uhn.fhir.parser.json.JsonLikeArray;
 import ca.uhn.fhir.parser.json.JsonLikeObject;
 import ca.uhn.fhir.parser.json.JsonLikeStructure;
 import ca.uhn.fhir.parser.json.JsonLikeValue;
+import ca.uhn.fhir.parser.json.DirectJsonWriter;
 import ca.uhn.fhir.parser.json.JsonLikeWriter;
 import ca.uhn.fhir.parser.json.JsonLikeValue.ScalarType;
 import ca.uhn.fhir.parser.json.JsonLikeValue.ValueType;
 import ca.uhn.fhir.rest.server.EncodingEnum;
+import ca.uhn.fhir.util.BundleUtil;
 import ca.uhn.fhir.util.ElementUtil;
 
 /**
@@ -67,6 +83,7 @@ public class JsonParser extends BaseParser implements IJsonLikeParser {
 
 	private static final Set<String> BUNDLE_TEXTNODE_CHILDREN_DSTU1;
 	private static final Set<String> BUNDLE_TEXTNODE_CHILDREN_DSTU2;
+	private static final com.google.gson.JsonParser ourGsonParser = new com.google.gson.JsonParser();
 	private static final org.slf4j.Logger ourLog = org.slf4j.LoggerFactory.getLogger(JsonParser.HeldExtension.class);
 
 	static {
@@ -86,6 +103,10 @@ public class JsonParser extends BaseParser implements IJsonLikeParser {
 	}
 
 	private FhirContext myContext;
+	private BundleEncodingMetrics myEncodingMetrics;
+	private ExecutorService myParallelEncodingExecutor;
+	private int myParallelEncodingThreshold;
+	private IdentityHashMap<IBaseResource, Future<String>> myPreEncodedResources;
 	private boolean myPrettyPrint;
 
 	/**
@@ -99,24 +120,38 @@ public class JsonParser extends BaseParser implements IJsonLikeParser {
 		myContext = theContext;
 	}
 
-	private boolean addToHeldComments(int valueIdx, List<String> theCommentsToAdd, ArrayList<ArrayList<String>> theListToAddTo) {
+	/**
+	 * Adds the given comments to the held list, creating the list if it is <code>null</code>.
+	 * Returns the list, which is still <code>null</code> if there was nothing to add.
+	 */
+	private ArrayList<ArrayList<String>> addToHeldComments(int valueIdx, List<String> theCommentsToAdd, ArrayList<ArrayList<String>> theListToAddTo) {
+		ArrayList<ArrayList<String>> retVal = theListToAddTo;
 		if (theCommentsToAdd.size() > 0) {
-			theListToAddTo.ensureCapacity(valueIdx);
-			while (theListToAddTo.size() <= valueIdx) {
-				theListToAddTo.add(null);
+			if (retVal == null) {
+				retVal = new ArrayList<ArrayList<String>>(valueIdx + 1);
 			}
-			if (theListToAddTo.get(valueIdx) == null) {
-				theListToAddTo.set(valueIdx, new ArrayList<String>());
+			retVal.ensureCapacity(valueIdx);
+			while (retVal.size() <= valueIdx) {
+				retVal.add(null);
 			}
-			theListToAddTo.get(valueIdx).addAll(theCommentsToAdd);
-			return true;
-		} else {
-			return false;
+			if (retVal.get(valueIdx) == null) {
+				retVal.set(valueIdx, new ArrayList<String>());
+			}
+			retVal.get(valueIdx).addAll(theCommentsToAdd);
 		}
+		return retVal;
 	}
 
-	private boolean addToHeldExtensions(int valueIdx, List<? extends IBaseExtension<?, ?>> ext, ArrayList<ArrayList<HeldExtension>> list, boolean theIsModifier, CompositeChildElement theChildElem) {
+	/**
+	 * Adds the given extensions to the held list, creating the list if it is <code>null</code>.
+	 * Returns the list, which is still <code>null</code> if there was nothing to add.
+	 */
+	private ArrayList<ArrayList<HeldExtension>> addToHeldExtensions(int valueIdx, List<? extends IBaseExtension<?, ?>> ext, ArrayList<ArrayList<HeldExtension>> theList, boolean theIsModifier, CompositeChildElement theChildElem) {
+		ArrayList<ArrayList<HeldExtension>> list = theList;
 		if (ext.size() > 0) {
+			if (list == null) {
+				list = new ArrayList<ArrayList<HeldExtension>>(valueIdx + 1);
+			}
 			list.ensureCapacity(valueIdx);
 			while (list.size() <= valueIdx) {
 				list.add(null);
@@ -127,20 +162,23 @@ public class JsonParser extends BaseParser implements IJsonLikeParser {
 			for (IBaseExtension<?, ?> next : ext) {
 				list.get(valueIdx).add(new HeldExtension(next, theIsModifier, theChildElem));
 			}
-			return true;
-		} else {
-			return false;
 		}
+		return list;
 	}
 
-	private void addToHeldIds(int theValueIdx, ArrayList<String> theListToAddTo, String theId) {
-		theListToAddTo.ensureCapacity(theValueIdx);
-		while (theListToAddTo.size() <= theValueIdx) {
-			theListToAddTo.add(null);
+	private ArrayList<String> addToHeldIds(int theValueIdx, ArrayList<String> theListToAddTo, String theId) {
+		ArrayList<String> retVal = theListToAddTo;
+		if (retVal == null) {
+			retVal = new ArrayList<String>(theValueIdx + 1);
 		}
-		if (theListToAddTo.get(theValueIdx) == null) {
-			theListToAddTo.set(theValueIdx, theId);
+		retVal.ensureCapacity(theValueIdx);
+		while (retVal.size() <= theValueIdx) {
+			retVal.add(null);
 		}
+		if (retVal.get(theValueIdx) == null) {
+			retVal.set(theValueIdx, theId);
+		}
+		return retVal;
 	}
 
 	private void assertObjectOfType(JsonLikeValue theResourceTypeObj, Object theValueType, String thePosition) {
@@ -162,9 +200,7 @@ public class JsonParser extends BaseParser implements IJsonLikeParser {
 	}
 
 	private JsonLikeWriter createJsonWriter(Writer theWriter) {
-		JsonLikeStructure jsonStructure = new GsonStructure();
-		JsonLikeWriter retVal = jsonStructure.getJsonLikeWriter(theWriter);
-		return retVal;
+		return new DirectJsonWriter(theWriter);
 	}
 
 	@Override
@@ -180,13 +216,26 @@ public class JsonParser extends BaseParser implements IJsonLikeParser {
 		theEventWriter.init();
 
 		if (myContext.getVersion().getVersion().isNewerThan(FhirVersionEnum.DSTU1)) {
-			encodeBundleToWriterInDstu2Format(theBundle, theEventWriter);
+			long start = System.nanoTime();
+			if (isParallelEncodingPossible(theEventWriter)) {
+				myPreEncodedResources = startParallelEncoding(theBundle.toListOfResources());
+			}
+			try {
+				encodeBundleToWriterInDstu2Format(theBundle, theEventWriter);
+			} finally {
+				finishBundleEncoding(start);
+			}
 		} else {
 			encodeBundleToWriterInDstu1Format(theBundle, theEventWriter);
 		}
 		theEventWriter.flush();
 	}
 
+	@Override
+	protected void doEncodeResourceToOutputStream(IBaseResource theResource, OutputStream theOutputStream) throws IOException {
+		doEncodeResourceToJsonLikeWriter(theResource, new DirectJsonWriter(theOutputStream));
+	}
+
 	@Override
 	protected void doEncodeResourceToWriter(IBaseResource theResource, Writer theWriter) throws IOException {
 		JsonLikeWriter eventWriter = createJsonWriter(theWriter);
@@ -200,12 +249,28 @@ public class JsonParser extends BaseParser implements IJsonLikeParser {
 		theEventWriter.init();
 
 		RuntimeResourceDefinition resDef = myContext.getResourceDefinition(theResource);
-		encodeResourceToJsonStreamWriter(resDef, theResource, theEventWriter, null, false, false);
+		if (theResource instanceof IBaseBundle) {
+			long start = System.nanoTime();
+			if (isParallelEncodingPossible(theEventWriter)) {
+				myPreEncodedResources = startParallelEncoding(BundleUtil.toListOfResources(myContext, (IBaseBundle) theResource));
+			}
+			try {
+				encodeResourceToJsonStreamWriter(resDef, theResource, theEventWriter, null, false, false);
+			} finally {
+				finishBundleEncoding(start);
+			}
+		} else {
+			encodeResourceToJsonStreamWriter(resDef, theResource, theEventWriter, null, false, false);
+		}
 		theEventWriter.flush();
 	}
 
 	@Override
 	public <T extends IBaseResource> T doParseResource(Class<T> theResourceType, Reader theReader) {
+		if (myContext.getParserOptions().isStreamingJsonParsing()) {
+			return doParseResourceStreaming(theResourceType, theReader);
+		}
+
 		JsonLikeStructure jsonStructure = new GsonStructure();
 		jsonStructure.load(theReader);
 		
@@ -238,6 +303,71 @@ public class JsonParser extends BaseParser implements IJsonLikeParser {
 			return retVal;
 	}
 
+	/**
+	 * Parses a resource directly from a stream of JSON tokens, without first loading the
+	 * complete document into a {@link JsonLikeStructure}
+	 * 
+	 * @see ca.uhn.fhir.context.ParserOptions#setStreamingJsonParsing(boolean)
+	 */
+	private <T extends IBaseResource> T doParseResourceStreaming(Class<T> theResourceType, Reader theReader) {
+		try {
+			PushbackReader pushbackReader = new PushbackReader(theReader);
+			int nextChar;
+			do {
+				nextChar = pushbackReader.read();
+			} while (nextChar != -1 && Character.isWhitespace(nextChar));
+			if (nextChar == -1) {
+				throw new DataFormatException("Failed to parse JSON content, error was: Did not find any content to parse");
+			}
+			if (nextChar != '{') {
+				throw new DataFormatException("Failed to parse JSON content, error was: Content does not appear to be FHIR JSON, first non-whitespace character was: '" + (char) nextChar + "' (must be '{')");
+			}
+			pushbackReader.unread(nextChar);
+
+			JsonReader reader = new JsonReader(pushbackReader);
+			reader.setLenient(true);
+
+			T retVal;
+			reader.beginObject();
+			String firstName = reader.hasNext() ? reader.nextName() : null;
+			if ("resourceType".equals(firstName) && reader.peek() == JsonToken.STRING) {
+				String resourceType = reader.nextString();
+				if (isBlank(resourceType)) {
+					throw new DataFormatException("Invalid JSON content detected, missing required element: 'resourceType'");
+				}
+
+				ParserState<? extends IBaseResource> state = ParserState.getPreResourceInstance(this, theResourceType, myContext, true, getErrorHandler());
+				state.enteringNewElement(null, resourceType);
+
+				streamChildren(reader, state);
+
+				state.endingElement();
+				state.endingElement();
+
+				@SuppressWarnings("unchecked")
+				T object = (T) state.getObject();
+				retVal = object;
+			} else {
+				// resourceType isn't the first property, so we can't stream this one
+				JsonObject object = streamBufferRemainingObject(reader, firstName);
+				retVal = doParseResource(theResourceType, new GsonStructure(object));
+			}
+
+			if (reader.peek() != JsonToken.END_DOCUMENT) {
+				throw new DataFormatException("Failed to parse JSON content, error was: JSON document was not fully consumed.");
+			}
+
+			return retVal;
+		} catch (IOException e) {
+			throw new DataFormatException("Failed to parse JSON encoded FHIR content: " + e.getMessage(), e);
+		} catch (JsonParseException e) {
+			throw new DataFormatException("Failed to parse JSON encoded FHIR content: " + e.getMessage(), e);
+		} catch (IllegalStateException e) {
+			// Thrown by JsonReader if the content has an unexpected structure
+			throw new DataFormatException("Failed to parse JSON encoded FHIR content: " + e.getMessage(), e);
+		}
+	}
+
 	@Override
 	public void encodeBundleToJsonLikeWriter(Bundle theBundle, JsonLikeWriter theJsonLikeWriter) throws IOException, DataFormatException {
 		Validate.notNull(theBundle, "theBundle must not be null");
@@ -354,8 +484,7 @@ public class JsonParser extends BaseParser implements IJsonLikeParser {
 			boolean deleted = nextEntry.getDeletedAt() != null && nextEntry.getDeletedAt().isEmpty() == false;
 			IResource resource = nextEntry.getResource();
 			if (resource != null && !resource.isEmpty() && !deleted) {
-				RuntimeResourceDefinition resDef = myContext.getResourceDefinition(resource);
-				encodeResourceToJsonStreamWriter(resDef, resource, theEventWriter, "resource", false, true);
+				encodeSubResourceToJsonStreamWriter(resource, theEventWriter, "resource");
 			}
 
 			if (nextEntry.getSearchMode().isEmpty() == false || nextEntry.getScore().isEmpty() == false) {
@@ -530,8 +659,7 @@ public class JsonParser extends BaseParser implements IJsonLikeParser {
 		}
 		case RESOURCE:
 			IBaseResource resource = (IBaseResource) theNextValue;
-			RuntimeResourceDefinition def = myContext.getResourceDefinition(resource);
-			encodeResourceToJsonStreamWriter(def, resource, theEventWriter, theChildName, false, true);
+			encodeSubResourceToJsonStreamWriter(resource, theEventWriter, theChildName);
 			break;
 		case UNDECL_EXT:
 		default:
@@ -601,10 +729,11 @@ public class JsonParser extends BaseParser implements IJsonLikeParser {
 			String currentChildName = null;
 			boolean inArray = false;
 
-			ArrayList<ArrayList<HeldExtension>> extensions = new ArrayList<ArrayList<HeldExtension>>(0);
-			ArrayList<ArrayList<HeldExtension>> modifierExtensions = new ArrayList<ArrayList<HeldExtension>>(0);
-			ArrayList<ArrayList<String>> comments = new ArrayList<ArrayList<String>>(0);
-			ArrayList<String> ids = new ArrayList<String>(0);
+			// These are only created if a value actually has something to hold, which most don't
+			ArrayList<ArrayList<HeldExtension>> extensions = null;
+			ArrayList<ArrayList<HeldExtension>> modifierExtensions = null;
+			ArrayList<ArrayList<String>> comments = null;
+			ArrayList<String> ids = null;
 
 			int valueIdx = 0;
 			for (IBase nextValue : values) {
@@ -636,30 +765,35 @@ public class JsonParser extends BaseParser implements IJsonLikeParser {
 				if (primitive) {
 					if (nextValue instanceof ISupportsUndeclaredExtensions) {
 						List<ExtensionDt> ext = ((ISupportsUndeclaredExtensions) nextValue).getUndeclaredExtensions();
-						force |= addToHeldExtensions(valueIdx, ext, extensions, false, nextChildElem);
+						force |= !ext.isEmpty();
+						extensions = addToHeldExtensions(valueIdx, ext, extensions, false, nextChildElem);
 
 						ext = ((ISupportsUndeclaredExtensions) nextValue).getUndeclaredModifierExtensions();
-						force |= addToHeldExtensions(valueIdx, ext, modifierExtensions, true, nextChildElem);
+						force |= !ext.isEmpty();
+						modifierExtensions = addToHeldExtensions(valueIdx, ext, modifierExtensions, true, nextChildElem);
 					} else {
 						if (nextValue instanceof IBaseHasExtensions) {
 							IBaseHasExtensions element = (IBaseHasExtensions) nextValue;
 							List<? extends IBaseExtension<?, ?>> ext = element.getExtension();
-							force |= addToHeldExtensions(valueIdx, ext, extensions, false, nextChildElem);
+							force |= !ext.isEmpty();
+							extensions = addToHeldExtensions(valueIdx, ext, extensions, false, nextChildElem);
 						}
 						if (nextValue instanceof IBaseHasModifierExtensions) {
 							IBaseHasModifierExtensions element = (IBaseHasModifierExtensions) nextValue;
 							List<? extends IBaseExtension<?, ?>> ext = element.getModifierExtension();
-							force |= addToHeldExtensions(valueIdx, ext, extensions, true, nextChildElem);
+							force |= !ext.isEmpty();
+							extensions = addToHeldExtensions(valueIdx, ext, extensions, true, nextChildElem);
 						}
 					}
 					if (nextValue.hasFormatComment()) {
-						force |= addToHeldComments(valueIdx, nextValue.getFormatCommentsPre(), comments);
-						force |= addToHeldComments(valueIdx, nextValue.getFormatCommentsPost(), comments);
+						force |= !nextValue.getFormatCommentsPre().isEmpty() || !nextValue.getFormatCommentsPost().isEmpty();
+						comments = addToHeldComments(valueIdx, nextValue.getFormatCommentsPre(), comments);
+						comments = addToHeldComments(valueIdx, nextValue.getFormatCommentsPost(), comments);
 					}
 					String elementId = getCompositeElementId(nextValue);
 					if (isNotBlank(elementId)) {
 						force = true;
-						addToHeldIds(valueIdx, ids, elementId);
+						ids = addToHeldIds(valueIdx, ids, elementId);
 					}
 				}
 
@@ -688,7 +822,7 @@ public class JsonParser extends BaseParser implements IJsonLikeParser {
 				theEventWriter.endArray();
 			}
 
-			if (!extensions.isEmpty() || !modifierExtensions.isEmpty() || !comments.isEmpty()) {
+			if (extensions != null || modifierExtensions != null || comments != null) {
 				if (inArray) {
 					// If this is a repeatable field, the extensions go in an array too
 					beginArray(theEventWriter, '_' + currentChildName);
@@ -701,18 +835,18 @@ public class JsonParser extends BaseParser implements IJsonLikeParser {
 
 					List<HeldExtension> heldExts = Collections.emptyList();
 					List<HeldExtension> heldModExts = Collections.emptyList();
-					if (extensions.size() > i && extensions.get(i) != null && extensions.get(i).isEmpty() == false) {
+					if (extensions != null && extensions.size() > i && extensions.get(i) != null && extensions.get(i).isEmpty() == false) {
 						haveContent = true;
 						heldExts = extensions.get(i);
 					}
 
-					if (modifierExtensions.size() > i && modifierExtensions.get(i) != null && modifierExtensions.get(i).isEmpty() == false) {
+					if (modifierExtensions != null && modifierExtensions.size() > i && modifierExtensions.get(i) != null && modifierExtensions.get(i).isEmpty() == false) {
 						haveContent = true;
 						heldModExts = modifierExtensions.get(i);
 					}
 
 					ArrayList<String> nextComments;
-					if (comments.size() > i) {
+					if (comments != null && comments.size() > i) {
 						nextComments = comments.get(i);
 					} else {
 						nextComments = null;
@@ -722,7 +856,7 @@ public class JsonParser extends BaseParser implements IJsonLikeParser {
 					}
 
 					String elementId = null;
-					if (ids.size() > i) {
+					if (ids != null && ids.size() > i) {
 						elementId = ids.get(i);
 						haveContent |= isNotBlank(elementId);
 					}
@@ -759,6 +893,22 @@ public class JsonParser extends BaseParser implements IJsonLikeParser {
 		}
 	}
 
+	/**
+	 * Encodes a resource which is the value of an element in another resource, such as a Bundle entry. If
+	 * the resource was encoded in parallel, the result is copied into the output.
+	 */
+	private void encodeSubResourceToJsonStreamWriter(IBaseResource theResource, JsonLikeWriter theEventWriter, String theObjectNameOrNull) throws IOException {
+		Future<String> preEncoded = myPreEncodedResources != null ? myPreEncodedResources.get(theResource) : null;
+		if (preEncoded != null) {
+			String json = getPreEncodedResource(preEncoded);
+			((DirectJsonWriter) theEventWriter).writeRaw(theObjectNameOrNull, json, 0, json.length());
+			return;
+		}
+
+		RuntimeResourceDefinition def = myContext.getResourceDefinition(theResource);
+		encodeResourceToJsonStreamWriter(def, theResource, theEventWriter, theObjectNameOrNull, false, true);
+	}
+
 	private void encodeCompositeElementToStreamWriter(RuntimeResourceDefinition theResDef, IBaseResource theResource, IBase theNextValue, JsonLikeWriter theEventWriter, boolean theContainedResource, CompositeChildElement theParent) throws IOException, DataFormatException {
 
 		writeCommentsPreAndPost(theNextValue, theEventWriter);
@@ -778,6 +928,11 @@ public class JsonParser extends BaseParser implements IJsonLikeParser {
 	}
 
 	private void encodeResourceToJsonStreamWriter(RuntimeResourceDefinition theResDef, IBaseResource theResource, JsonLikeWriter theEventWriter, String theObjectNameOrNull, boolean theContainedResource, boolean theSubResource) throws IOException {
+		LazyResourceBody lazyBody = LazyResourceBody.get(theResource);
+		if (lazyBody != null && !(theEventWriter instanceof DirectJsonWriter && !theEventWriter.isPrettyPrint() && isLazyResourceBodyWritableDirectly(lazyBody))) {
+			LazyResourceBody.ensureParsed(myContext, theResource);
+		}
+
 		IIdType resourceId = null;
 		//		if (theResource instanceof IResource) {
 		//			IResource res = (IResource) theResource;
@@ -913,6 +1068,15 @@ public class JsonParser extends BaseParser implements IJsonLikeParser {
 			encodeCompositeElementToStreamWriter(theResDef, theResource, theResource, theEventWriter, theContainedResource, new CompositeChildElement(resDef));
 		}
 
+		/*
+		 * A placeholder for an unparsed body only holds the ID and meta which were
+		 * written above, so the rest comes straight from the stored body
+		 */
+		LazyResourceBody lazyBody = LazyResourceBody.get(theResource);
+		if (lazyBody != null) {
+			lazyBody.writeMembers((DirectJsonWriter) theEventWriter);
+		}
+
 		theEventWriter.endObject();
 	}
 
@@ -1257,6 +1421,17 @@ public class JsonParser extends BaseParser implements IJsonLikeParser {
 		}
 	}
 
+	/**
+	 * Is the given property (or the element an <code>_element</code> property belongs to) excluded by the
+	 * {@link #setParseElements(Set) parse elements}, so that its value can be skipped without being parsed?
+	 */
+	private static boolean isExcludedByParseElements(ParserState<?> theState, String theName) {
+		if (theName.length() > 1 && theName.charAt(0) == '_') {
+			return theState.isChildExcluded(theName.substring(1));
+		}
+		return theState.isChildExcluded(theName);
+	}
+
 	private void parseChildren(JsonLikeObject theObject, ParserState<?> theState) {
 		Set<String> keySet = theObject.keySet();
 
@@ -1266,6 +1441,8 @@ public class JsonParser extends BaseParser implements IJsonLikeParser {
 		for (String nextName : keySet) {
 			if ("resourceType".equals(nextName)) {
 				continue;
+			} else if (isExcludedByParseElements(theState, nextName)) {
+				continue;
 			} else if ("extension".equals(nextName)) {
 				JsonLikeArray array = grabJsonArray(theObject, nextName, "extension");
 				parseExtension(theState, array, false);
@@ -1540,12 +1717,390 @@ public class JsonParser extends BaseParser implements IJsonLikeParser {
 		return state.getObject();
 	}
 
+	/**
+	 * Sets the metrics which the time spent encoding Bundles is added to. The default is
+	 * <code>null</code>, meaning that nothing is recorded.
+	 */
+	public IParser setEncodingMetrics(BundleEncodingMetrics theEncodingMetrics) {
+		myEncodingMetrics = theEncodingMetrics;
+		return this;
+	}
+
+	/**
+	 * Enables encoding the entries of large Bundles in parallel. Each entry resource is encoded
+	 * into its own buffer by a task submitted to the given executor, and the buffers are then
+	 * copied into the output in order, so the result is the same as encoding the whole Bundle
+	 * on the calling thread.
+	 * <p>
+	 * Entries are only encoded in parallel when the output is not pretty printed and is not
+	 * limited to specific elements (see {@link #setEncodeElements(Set)}).
+	 * </p>
+	 * 
+	 * @param theExecutor
+	 *           The executor which encodes the entries, or <code>null</code> to encode everything on the
+	 *           calling thread (this is the default)
+	 * @param theThreshold
+	 *           The minimum number of entry resources a Bundle must contain before they are encoded in
+	 *           parallel
+	 */
+	public IParser setParallelEncoding(ExecutorService theExecutor, int theThreshold) {
+		Validate.isTrue(theThreshold > 0, "theThreshold must be greater than 0");
+		myParallelEncodingExecutor = theExecutor;
+		myParallelEncodingThreshold = theThreshold;
+		return this;
+	}
+
 	@Override
 	public IParser setPrettyPrint(boolean thePrettyPrint) {
 		myPrettyPrint = thePrettyPrint;
 		return this;
 	}
 
+	/**
+	 * Starts encoding the given Bundle entry resources on the parallel encoding executor, if
+	 * there are enough of them. Returns <code>null</code> if they should be encoded on this
+	 * thread instead.
+	 */
+	private IdentityHashMap<IBaseResource, Future<String>> startParallelEncoding(List<? extends IBaseResource> theResources) {
+		if (theResources.size() < myParallelEncodingThreshold) {
+			return null;
+		}
+
+		IdentityHashMap<IBaseResource, Future<String>> retVal = new IdentityHashMap<IBaseResource, Future<String>>(theResources.size());
+		try {
+			for (IBaseResource next : theResources) {
+				if (next != null && !retVal.containsKey(next)) {
+					retVal.put(next, myParallelEncodingExecutor.submit(new EncodeSubResourceTask(next)));
+				}
+			}
+		} catch (RejectedExecutionException e) {
+			ourLog.warn("Parallel encoding task was rejected, encoding Bundle on the calling thread: {}", e.toString());
+			for (Future<String> next : retVal.values()) {
+				next.cancel(false);
+			}
+			return null;
+		}
+		return retVal;
+	}
+
+	private void finishBundleEncoding(long theStartNanos) {
+		boolean parallel = myPreEncodedResources != null;
+		if (parallel) {
+			// If encoding failed part way through, don't leave the remaining entries queued
+			for (Future<String> next : myPreEncodedResources.values()) {
+				next.cancel(false);
+			}
+			myPreEncodedResources = null;
+		}
+		if (myEncodingMetrics != null) {
+			myEncodingMetrics.addBundle(parallel, System.nanoTime() - theStartNanos);
+		}
+	}
+
+	private boolean isParallelEncodingPossible(JsonLikeWriter theEventWriter) {
+		return myParallelEncodingExecutor != null && !myPrettyPrint && theEventWriter instanceof DirectJsonWriter && getEncodeElements() == null;
+	}
+
+	private static String getPreEncodedResource(Future<String> theFuture) throws IOException {
+		try {
+			return theFuture.get();
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			throw new InterruptedIOException("Interrupted while waiting for a Bundle entry to be encoded");
+		} catch (ExecutionException e) {
+			Throwable cause = e.getCause();
+			if (cause instanceof IOException) {
+				throw (IOException) cause;
+			}
+			if (cause instanceof RuntimeException) {
+				throw (RuntimeException) cause;
+			}
+			throw new DataFormatException("Failed to encode Bundle entry", cause);
+		}
+	}
+
+	/**
+	 * Reads the next value from the token stream into a (small) Gson tree, so that it can be
+	 * handled by the same methods used by the tree based parser
+	 */
+	private static JsonElement streamBufferValue(JsonReader theReader) {
+		return ourGsonParser.parse(theReader);
+	}
+
+	/**
+	 * Reads the remainder of the current object into a Gson tree. The reader must be positioned
+	 * after the object's first name (or at the end of the object if it has no properties).
+	 */
+	private static JsonObject streamBufferRemainingObject(JsonReader theReader, String theFirstName) throws IOException {
+		JsonObject retVal = new JsonObject();
+		if (theFirstName != null) {
+			retVal.add(theFirstName, streamBufferValue(theReader));
+			while (theReader.hasNext()) {
+				String nextName = theReader.nextName();
+				retVal.add(nextName, streamBufferValue(theReader));
+			}
+		}
+		theReader.endObject();
+		return retVal;
+	}
+
+	private static JsonArray streamBufferRemainingArray(JsonReader theReader) throws IOException {
+		JsonArray retVal = new JsonArray();
+		while (theReader.hasNext()) {
+			retVal.add(streamBufferValue(theReader));
+		}
+		theReader.endArray();
+		return retVal;
+	}
+
+	private void streamArray(JsonReader theReader, ParserState<?> theState, String theName, JsonLikeValue theAlternateVal) throws IOException {
+		JsonLikeValue alternateVal = theAlternateVal;
+		if (alternateVal != null && alternateVal.isArray() == false) {
+			getErrorHandler().incorrectJsonType(null, '_' + theName, ValueType.ARRAY, null, alternateVal.getJsonType(), null);
+			alternateVal = null;
+		}
+
+		JsonLikeArray alternateArray = JsonLikeValue.asArray(alternateVal); // could be null
+		int index = 0;
+		while (theReader.hasNext()) {
+			JsonLikeValue nextAlternate = null;
+			if (alternateArray != null) {
+				nextAlternate = alternateArray.get(index);
+			}
+			streamValue(theReader, theState, theName, nextAlternate, true);
+			index++;
+		}
+		theReader.endArray();
+	}
+
+	/**
+	 * Streams the children of the current object into the parser state, and consumes the end of the object.
+	 * <p>
+	 * Primitive values are held until the end of the object so that they can be matched up with their
+	 * <code>_element</code> property regardless of the order the two appear in. Objects and arrays of objects
+	 * are streamed as soon as they are encountered.
+	 * </p>
+	 */
+	private void streamChildren(JsonReader theReader, ParserState<?> theState) throws IOException {
+		Map<String, JsonElement> primitives = null;
+		Map<String, JsonElement> alternates = null;
+		Set<String> streamedNames = null;
+
+		while (theReader.hasNext()) {
+			String nextName = theReader.nextName();
+			if ("resourceType".equals(nextName)) {
+				theReader.skipValue();
+				continue;
+			} else if (isExcludedByParseElements(theState, nextName)) {
+				theReader.skipValue();
+				continue;
+			} else if ("extension".equals(nextName)) {
+				streamExtensions(theReader, theState, nextName, false);
+				continue;
+			} else if ("modifierExtension".equals(nextName)) {
+				streamExtensions(theReader, theState, nextName, true);
+				continue;
+			} else if (nextName.equals("fhir_comments")) {
+				parseFhirComments(GsonStructure.wrap(streamBufferValue(theReader)), theState);
+				continue;
+			} else if (nextName.charAt(0) == '_') {
+				JsonElement alternate = streamBufferValue(theReader);
+				if (streamedNames != null && streamedNames.contains(nextName.substring(1))) {
+					// The element this belongs to has already been streamed, so it can't be applied
+					getErrorHandler().unknownElement(null, nextName);
+				} else {
+					if (alternates == null) {
+						alternates = new LinkedHashMap<String, JsonElement>();
+					}
+					alternates.put(nextName, alternate);
+				}
+				continue;
+			}
+
+			JsonToken token = theReader.peek();
+			if (token == JsonToken.BEGIN_OBJECT || token == JsonToken.BEGIN_ARRAY) {
+				streamCheckId(nextName, token);
+			}
+
+			if (token == JsonToken.BEGIN_ARRAY) {
+				theReader.beginArray();
+				if (!theReader.hasNext() || theReader.peek() != JsonToken.BEGIN_OBJECT) {
+					// Arrays of primitives are treated like primitives
+					if (primitives == null) {
+						primitives = new LinkedHashMap<String, JsonElement>();
+					}
+					primitives.put(nextName, streamBufferRemainingArray(theReader));
+					continue;
+				}
+			} else if (token != JsonToken.BEGIN_OBJECT) {
+				if (primitives == null) {
+					primitives = new LinkedHashMap<String, JsonElement>();
+				}
+				primitives.put(nextName, streamBufferValue(theReader));
+				continue;
+			}
+
+			JsonLikeValue alternateVal = null;
+			if (alternates != null) {
+				JsonElement alternate = alternates.remove('_' + nextName);
+				if (alternate != null) {
+					alternateVal = GsonStructure.wrap(alternate);
+				}
+			}
+			if (streamedNames == null) {
+				streamedNames = new HashSet<String>();
+			}
+			streamedNames.add(nextName);
+
+			if (token == JsonToken.BEGIN_ARRAY) {
+				streamArray(theReader, theState, nextName, alternateVal);
+			} else {
+				streamObject(theReader, theState, nextName, alternateVal, false);
+			}
+		}
+		theReader.endObject();
+
+		if (primitives != null) {
+			for (Entry<String, JsonElement> nextEntry : primitives.entrySet()) {
+				String nextName = nextEntry.getKey();
+				String alternateName = '_' + nextName;
+				JsonLikeValue alternateVal = null;
+				if (alternates != null) {
+					JsonElement alternate = alternates.remove(alternateName);
+					if (alternate != null) {
+						alternateVal = GsonStructure.wrap(alternate);
+					}
+				}
+				parseChildren(theState, nextName, GsonStructure.wrap(nextEntry.getValue()), alternateVal, alternateName, false);
+			}
+		}
+
+		/*
+		 * Any remaining "_element" properties have no corresponding element (see the
+		 * equivalent block in parseChildren(JsonLikeObject, ParserState))
+		 */
+		if (alternates != null) {
+			for (Entry<String, JsonElement> nextEntry : alternates.entrySet()) {
+				String alternateName = nextEntry.getKey();
+				if (alternateName.length() > 1) {
+					JsonLikeValue nextValue = GsonStructure.wrap(nextEntry.getValue());
+					if (nextValue.isObject()) {
+						theState.enteringNewElement(null, alternateName.substring(1));
+						parseAlternates(nextValue, theState, alternateName, alternateName);
+						theState.endingElement();
+					} else {
+						getErrorHandler().incorrectJsonType(null, alternateName, ValueType.OBJECT, null, nextValue.getJsonType(), null);
+					}
+				}
+			}
+		}
+	}
+
+	private void streamCheckId(String theName, JsonToken theToken) {
+		if (theName.equals("id")) {
+			getErrorHandler().incorrectJsonType(null, "id", ValueType.SCALAR, ScalarType.STRING, theToken == JsonToken.BEGIN_ARRAY ? ValueType.ARRAY : ValueType.OBJECT, null);
+		}
+	}
+
+	private void streamExtensions(JsonReader theReader, ParserState<?> theState, String theName, boolean theIsModifier) throws IOException {
+		JsonToken token = theReader.peek();
+		if (token == JsonToken.NULL) {
+			theReader.skipValue();
+			return;
+		}
+		if (token != JsonToken.BEGIN_ARRAY) {
+			JsonLikeValue value = GsonStructure.wrap(streamBufferValue(theReader));
+			throw new DataFormatException("Syntax error parsing JSON FHIR structure: Expected ARRAY at element '" + theName + "', found '" + value.getJsonType() + "'");
+		}
+
+		theReader.beginArray();
+		while (theReader.hasNext()) {
+			String firstName = null;
+			if (theReader.peek() == JsonToken.BEGIN_OBJECT) {
+				theReader.beginObject();
+				firstName = theReader.hasNext() ? theReader.nextName() : null;
+				if ("url".equals(firstName)) {
+					JsonToken urlToken = theReader.peek();
+					if (urlToken == JsonToken.STRING || urlToken == JsonToken.NUMBER) {
+						theState.enteringNewElementExtension(null, theReader.nextString(), theIsModifier);
+						while (theReader.hasNext()) {
+							String nextName = theReader.nextName();
+							if ("url".equals(nextName)) {
+								theReader.skipValue();
+							} else if ("extension".equals(nextName)) {
+								streamExtensions(theReader, theState, nextName, false);
+							} else if ("modifierExtension".equals(nextName)) {
+								streamExtensions(theReader, theState, nextName, true);
+							} else {
+								streamValue(theReader, theState, nextName, null, false);
+							}
+						}
+						theReader.endObject();
+						theState.endingElement();
+						continue;
+					}
+				}
+			}
+
+			/*
+			 * Extensions which don't start with their URL are buffered and handed to
+			 * the tree based parser
+			 */
+			JsonArray holder = new JsonArray();
+			if (firstName != null || theReader.peek() == JsonToken.END_OBJECT) {
+				holder.add(streamBufferRemainingObject(theReader, firstName));
+			} else {
+				holder.add(streamBufferValue(theReader));
+			}
+			parseExtension(theState, GsonStructure.wrap(holder).getAsArray(), theIsModifier);
+		}
+		theReader.endArray();
+	}
+
+	private void streamObject(JsonReader theReader, ParserState<?> theState, String theName, JsonLikeValue theAlternateVal, boolean theInArray) throws IOException {
+		if (!theInArray && theState.elementIsRepeating(theName)) {
+			getErrorHandler().incorrectJsonType(null, theName, ValueType.ARRAY, null, ValueType.OBJECT, null);
+		}
+
+		String alternateName = '_' + theName;
+		theState.enteringNewElement(null, theName);
+		parseAlternates(theAlternateVal, theState, alternateName, alternateName);
+		theReader.beginObject();
+		if (theState.isPreResource()) {
+			String firstName = theReader.hasNext() ? theReader.nextName() : null;
+			if ("resourceType".equals(firstName) && theReader.peek() == JsonToken.STRING) {
+				theState.enteringNewElement(null, theReader.nextString());
+				streamChildren(theReader, theState);
+			} else {
+				JsonLikeObject object = new GsonStructure(streamBufferRemainingObject(theReader, firstName)).getRootObject();
+				JsonLikeValue resType = object.get("resourceType");
+				if (resType == null || !resType.isString()) {
+					throw new DataFormatException("Missing required element 'resourceType' from JSON resource object, unable to parse");
+				}
+				theState.enteringNewElement(null, resType.getAsString());
+				parseChildren(object, theState);
+			}
+			theState.endingElement();
+		} else {
+			streamChildren(theReader, theState);
+		}
+		theState.endingElement();
+	}
+
+	private void streamValue(JsonReader theReader, ParserState<?> theState, String theName, JsonLikeValue theAlternateVal, boolean theInArray) throws IOException {
+		JsonToken token = theReader.peek();
+		if (token == JsonToken.BEGIN_OBJECT) {
+			streamCheckId(theName, token);
+			streamObject(theReader, theState, theName, theAlternateVal, theInArray);
+		} else if (token == JsonToken.BEGIN_ARRAY) {
+			streamCheckId(theName, token);
+			theReader.beginArray();
+			streamArray(theReader, theState, theName, theAlternateVal);
+		} else {
+			parseChildren(theState, theName, GsonStructure.wrap(streamBufferValue(theReader)), theAlternateVal, '_' + theName, theInArray);
+		}
+	}
+
 	private void write(JsonLikeWriter theEventWriter, String theChildName, Boolean theValue) throws IOException {
 		if (theValue != null) {
 			theEventWriter.write(theChildName, theValue.booleanValue());
@@ -1731,6 +2286,41 @@ public class JsonParser extends BaseParser implements IJsonLikeParser {
 		theWriter.write(theName, theValue);
 	}
 	
+	/**
+	 * Encodes one Bundle entry resource on the parallel encoding executor. The task has its own
+	 * parser with the same settings as the parser encoding the Bundle, since a parser can only
+	 * encode one resource at a time.
+	 */
+	private class EncodeSubResourceTask implements Callable<String> {
+		private final BundleEncodingMetrics myMetrics;
+		private final JsonParser myParser;
+		private final IBaseResource myResource;
+
+		EncodeSubResourceTask(IBaseResource theResource) {
+			myResource = theResource;
+			myMetrics = myEncodingMetrics;
+			myParser = new JsonParser(myContext, getErrorHandler());
+			copyEncodeSettingsTo(myParser);
+		}
+
+		@Override
+		public String call() throws IOException {
+			long start = System.nanoTime();
+
+			StringWriter writer = new StringWriter();
+			DirectJsonWriter eventWriter = new DirectJsonWriter(writer);
+			eventWriter.init();
+			RuntimeResourceDefinition def = myContext.getResourceDefinition(myResource);
+			myParser.encodeResourceToJsonStreamWriter(def, myResource, eventWriter, null, false, true);
+			eventWriter.flush();
+
+			if (myMetrics != null) {
+				myMetrics.addParallelEntry(System.nanoTime() - start);
+			}
+			return writer.toString();
+		}
+	}
+
 	private class HeldExtension implements Comparable<HeldExtension> {
 
 		private CompositeChildElement myChildElem;
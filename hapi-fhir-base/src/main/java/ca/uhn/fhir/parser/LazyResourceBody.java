@@ -0,0 +1,378 @@
+package ca.uhn.fhir.parser;
+
+/*
+ * #%L
+ * HAPI FHIR - Core Library
+ * %%
+ * Copyright (C) 2014 - 2017 University Health Network
+ * %%
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * #L%
+ */
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+
+import org.hl7.fhir.instance.model.api.IAnyResource;
+import org.hl7.fhir.instance.model.api.IBase;
+import org.hl7.fhir.instance.model.api.IBaseResource;
+
+import ca.uhn.fhir.context.BaseRuntimeChildDefinition;
+import ca.uhn.fhir.context.FhirContext;
+import ca.uhn.fhir.context.RuntimeResourceDefinition;
+import ca.uhn.fhir.model.api.IResource;
+import ca.uhn.fhir.model.api.ResourceMetadataKeyEnum;
+import ca.uhn.fhir.model.api.ResourceMetadataKeyEnum.ResourceMetadataKeySupportingAnyResource;
+import ca.uhn.fhir.parser.json.DirectJsonWriter;
+
+/**
+ * The stored JSON body of a resource which has not been parsed yet.
+ * <p>
+ * A body is attached to a placeholder resource which holds only the resource ID and the
+ * metadata which the server manages itself (version, last updated, tags, etc.). When the
+ * placeholder is encoded as JSON with no options that change the output, {@link JsonParser}
+ * writes the members of the stored body directly after the placeholder's own ID and
+ * metadata. Anything else that needs the contents must first call
+ * {@link #ensureParsed(FhirContext, IBaseResource)}, which parses the body and moves the
+ * result into the placeholder.
+ * </p>
+ * <p>
+ * The body must have been written by {@link JsonParser} without pretty printing.
+ * </p>
+ */
+public abstract class LazyResourceBody {
+
+	private static final ResourceMetadataKeySupportingAnyResource<LazyResourceBody, LazyResourceBody> LAZY_RESOURCE_BODY = new ResourceMetadataKeySupportingAnyResource<LazyResourceBody, LazyResourceBody>(
+			"LAZY_RESOURCE_BODY") {
+		private static final long serialVersionUID = 1L;
+
+		@Override
+		public LazyResourceBody get(IAnyResource theResource) {
+			return (LazyResourceBody) theResource.getUserData(name());
+		}
+
+		@Override
+		public LazyResourceBody get(IResource theResource) {
+			return (LazyResourceBody) theResource.getResourceMetadata().get(this);
+		}
+
+		@Override
+		public void put(IAnyResource theResource, LazyResourceBody theObject) {
+			theResource.setUserData(name(), theObject);
+		}
+
+		@Override
+		public void put(IResource theResource, LazyResourceBody theObject) {
+			if (theObject == null) {
+				theResource.getResourceMetadata().remove(this);
+			} else {
+				theResource.getResourceMetadata().put(this, theObject);
+			}
+		}
+	};
+
+	/**
+	 * Top level members which are written from the placeholder instead of from the body
+	 */
+	private static final Set<String> PLACEHOLDER_MEMBERS = new HashSet<String>(Arrays.asList("resourceType", "id", "_id", "meta"));
+
+	/**
+	 * Members of <code>meta</code> which are supplied by the placeholder. If the stored
+	 * meta has anything else in it the body can not be written directly.
+	 */
+	private static final Set<String> PLACEHOLDER_META_MEMBERS = new HashSet<String>(Arrays.asList("versionId", "lastUpdated", "profile", "security", "tag"));
+
+	private final String myJson;
+	private List<JsonMember> myMembers;
+	private boolean myScanned;
+
+	/**
+	 * Constructor
+	 *
+	 * @param theJson
+	 *           The stored resource body, encoded as JSON
+	 */
+	public LazyResourceBody(String theJson) {
+		myJson = theJson;
+	}
+
+	/**
+	 * Returns the stored resource body
+	 */
+	public String getJson() {
+		return myJson;
+	}
+
+	/**
+	 * Can the body be written directly, or does it need to be parsed first?
+	 */
+	boolean isWritableDirectly() {
+		if (!myScanned) {
+			myMembers = scanMembers(myJson);
+			myScanned = true;
+		}
+		return myMembers != null;
+	}
+
+	/**
+	 * Called with the freshly parsed body before its contents are moved into the placeholder.
+	 * Implementations should apply the ID and metadata which the placeholder was given, in
+	 * the same way that they were applied to the placeholder.
+	 */
+	protected abstract void populateParsedResource(IBaseResource theParsed);
+
+	/**
+	 * Writes the members of the body which are not supplied by the placeholder. Must only
+	 * be called if {@link #isWritableDirectly()} returned <code>true</code>.
+	 */
+	void writeMembers(DirectJsonWriter theWriter) throws IOException {
+		for (JsonMember next : myMembers) {
+			theWriter.writeRaw(next.myName, myJson, next.myValueStart, next.myValueEnd);
+		}
+	}
+
+	/**
+	 * Attaches a stored body to a placeholder resource
+	 */
+	public static void attach(IBaseResource thePlaceholder, LazyResourceBody theBody) {
+		put(thePlaceholder, theBody);
+	}
+
+	/**
+	 * If the given resource is a placeholder with a body which has not been parsed yet,
+	 * parses the body and moves its contents into the placeholder. Does nothing otherwise.
+	 */
+	public static void ensureParsed(FhirContext theContext, IBaseResource theResource) {
+		LazyResourceBody body = get(theResource);
+		if (body == null) {
+			return;
+		}
+
+		IBaseResource parsed = theContext.newJsonParser().parseResource(theResource.getClass(), body.getJson());
+		body.populateParsedResource(parsed);
+
+		RuntimeResourceDefinition def = theContext.getResourceDefinition(theResource);
+		for (BaseRuntimeChildDefinition nextChild : def.getChildren()) {
+			List<IBase> values = nextChild.getAccessor().getValues(parsed);
+			for (int i = 0; i < values.size(); i++) {
+				if (i == 0) {
+					nextChild.getMutator().setValue(theResource, values.get(i));
+				} else {
+					nextChild.getMutator().addValue(theResource, values.get(i));
+				}
+			}
+		}
+
+		if (theResource instanceof IResource) {
+			IResource resource = (IResource) theResource;
+			resource.setId(((IResource) parsed).getId());
+			resource.getResourceMetadata().putAll(((IResource) parsed).getResourceMetadata());
+		}
+
+		put(theResource, null);
+	}
+
+	/**
+	 * Returns the unparsed body attached to the given resource, or <code>null</code> if
+	 * there is none
+	 */
+	public static LazyResourceBody get(IBaseResource theResource) {
+		if (theResource instanceof IResource) {
+			return LAZY_RESOURCE_BODY.get((IResource) theResource);
+		} else if (theResource instanceof IAnyResource) {
+			return LAZY_RESOURCE_BODY.get((IAnyResource) theResource);
+		}
+		return null;
+	}
+
+	private static void put(IBaseResource theResource, LazyResourceBody theBody) {
+		if (theResource instanceof IResource) {
+			LAZY_RESOURCE_BODY.put((IResource) theResource, theBody);
+		} else {
+			LAZY_RESOURCE_BODY.put((IAnyResource) theResource, theBody);
+		}
+	}
+
+	/**
+	 * Returns the top level members of the body which should be written, or <code>null</code>
+	 * if the body can not be written directly
+	 */
+	private static List<JsonMember> scanMembers(String theJson) {
+		List<JsonMember> members = splitObject(theJson, 0, theJson.length());
+		if (members == null) {
+			return null;
+		}
+
+		List<JsonMember> retVal = new ArrayList<JsonMember>(members.size());
+		for (JsonMember next : members) {
+			if (next.myName.equals("meta")) {
+				List<JsonMember> metaMembers = splitObject(theJson, next.myValueStart, next.myValueEnd);
+				if (metaMembers == null) {
+					return null;
+				}
+				for (JsonMember nextMeta : metaMembers) {
+					if (!PLACEHOLDER_META_MEMBERS.contains(nextMeta.myName)) {
+						return null;
+					}
+				}
+			}
+			if (!PLACEHOLDER_MEMBERS.contains(next.myName)) {
+				retVal.add(next);
+			}
+		}
+		return retVal;
+	}
+
+	private static int skipString(String theJson, int thePos, int theEnd) {
+		for (int i = thePos + 1; i < theEnd; i++) {
+			char next = theJson.charAt(i);
+			if (next == '\\') {
+				i++;
+			} else if (next == '"') {
+				return i + 1;
+			}
+		}
+		return -1;
+	}
+
+	private static int skipValue(String theJson, int thePos, int theEnd) {
+		if (thePos >= theEnd) {
+			return -1;
+		}
+
+		char first = theJson.charAt(thePos);
+		if (first == '"') {
+			return skipString(theJson, thePos, theEnd);
+		}
+
+		if (first == '{' || first == '[') {
+			int depth = 0;
+			for (int i = thePos; i < theEnd; i++) {
+				char next = theJson.charAt(i);
+				if (next == '"') {
+					int stringEnd = skipString(theJson, i, theEnd);
+					if (stringEnd == -1) {
+						return -1;
+					}
+					i = stringEnd - 1;
+				} else if (next == '{' || next == '[') {
+					depth++;
+				} else if (next == '}' || next == ']') {
+					depth--;
+					if (depth == 0) {
+						return i + 1;
+					}
+				}
+			}
+			return -1;
+		}
+
+		// Number, boolean or null
+		int i = thePos;
+		while (i < theEnd) {
+			char next = theJson.charAt(i);
+			if (next == ',' || next == '}' || next == ']' || Character.isWhitespace(next)) {
+				break;
+			}
+			i++;
+		}
+		return i > thePos ? i : -1;
+	}
+
+	private static int skipWhitespace(String theJson, int thePos, int theEnd) {
+		int i = thePos;
+		while (i < theEnd && Character.isWhitespace(theJson.charAt(i))) {
+			i++;
+		}
+		return i;
+	}
+
+	/**
+	 * Splits a JSON object into its members without parsing the member values. This only
+	 * finds the boundaries of each value, so it relies on the input being well formed.
+	 * Returns <code>null</code> if the text is not a single object.
+	 */
+	private static List<JsonMember> splitObject(String theJson, int theStart, int theEnd) {
+		int pos = skipWhitespace(theJson, theStart, theEnd);
+		if (pos >= theEnd || theJson.charAt(pos) != '{') {
+			return null;
+		}
+
+		List<JsonMember> retVal = new ArrayList<JsonMember>();
+		pos = skipWhitespace(theJson, pos + 1, theEnd);
+		if (pos < theEnd && theJson.charAt(pos) == '}') {
+			pos++;
+		} else {
+			while (true) {
+				if (pos >= theEnd || theJson.charAt(pos) != '"') {
+					return null;
+				}
+				int nameEnd = skipString(theJson, pos, theEnd);
+				if (nameEnd == -1) {
+					return null;
+				}
+				String name = theJson.substring(pos + 1, nameEnd - 1);
+				if (name.indexOf('\\') != -1) {
+					return null;
+				}
+
+				pos = skipWhitespace(theJson, nameEnd, theEnd);
+				if (pos >= theEnd || theJson.charAt(pos) != ':') {
+					return null;
+				}
+				int valueStart = skipWhitespace(theJson, pos + 1, theEnd);
+				int valueEnd = skipValue(theJson, valueStart, theEnd);
+				if (valueEnd == -1) {
+					return null;
+				}
+				retVal.add(new JsonMember(name, valueStart, valueEnd));
+
+				pos = skipWhitespace(theJson, valueEnd, theEnd);
+				if (pos >= theEnd) {
+					return null;
+				}
+				char next = theJson.charAt(pos);
+				if (next == '}') {
+					pos++;
+					break;
+				}
+				if (next != ',') {
+					return null;
+				}
+				pos = skipWhitespace(theJson, pos + 1, theEnd);
+			}
+		}
+
+		if (skipWhitespace(theJson, pos, theEnd) != theEnd) {
+			return null;
+		}
+		return retVal;
+	}
+
+	private static class JsonMember {
+		private final String myName;
+		private final int myValueEnd;
+		private final int myValueStart;
+
+		JsonMember(String theName, int theValueStart, int theValueEnd) {
+			myName = theName;
+			myValueStart = theValueStart;
+			myValueEnd = theValueEnd;
+		}
+	}
+
+}
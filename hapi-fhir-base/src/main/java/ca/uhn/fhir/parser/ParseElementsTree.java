@@ -0,0 +1,106 @@
+package ca.uhn.fhir.parser;
+
+/*
+ * #%L
+ * HAPI FHIR - Core Library
+ * %%
+ * Copyright (C) 2014 - 2017 University Health Network
+ * %%
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * #L%
+ */
+
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Set;
+
+import org.apache.commons.lang3.StringUtils;
+
+/**
+ * The element paths supplied to {@link IParser#setParseElements(Set)} for a single
+ * resource type, arranged as a tree. Each node holds the names of the children which
+ * should be parsed, and a child which maps to <code>null</code> is parsed along with
+ * everything beneath it.
+ */
+class ParseElementsTree {
+
+	private final Map<String, ParseElementsTree> myChildren = new HashMap<String, ParseElementsTree>();
+
+	private void add(String[] theParts, int theIndex) {
+		String name = theParts[theIndex];
+		if (theIndex == theParts.length - 1) {
+			myChildren.put(name, null);
+			return;
+		}
+
+		ParseElementsTree child;
+		if (myChildren.containsKey(name)) {
+			child = myChildren.get(name);
+			if (child == null) {
+				// Already parsing the whole child
+				return;
+			}
+		} else {
+			child = new ParseElementsTree();
+			myChildren.put(name, child);
+		}
+		child.add(theParts, theIndex + 1);
+	}
+
+	/**
+	 * Returns the tree for the given child, or <code>null</code> if the child should be
+	 * parsed in its entirety. Only meaningful if {@link #includes(String)} returns true.
+	 */
+	public ParseElementsTree getChild(String theName) {
+		return myChildren.get(theName);
+	}
+
+	/**
+	 * Should the child with the given name be parsed? Element IDs are always parsed.
+	 */
+	public boolean includes(String theName) {
+		return "id".equals(theName) || myChildren.containsKey(theName);
+	}
+
+	/**
+	 * Builds the tree which applies to a given resource type
+	 *
+	 * @param thePaths
+	 *           The paths, e.g. <code>Patient.name</code> or <code>*.meta</code>
+	 * @param theResourceType
+	 *           The resource name, e.g. <code>Patient</code>
+	 * @return The tree, or <code>null</code> if the whole resource should be parsed (either because
+	 *         it is selected in its entirety, or because none of the paths apply to it)
+	 */
+	public static ParseElementsTree forResourceType(Set<String> thePaths, String theResourceType) {
+		ParseElementsTree retVal = null;
+		for (String next : thePaths) {
+			String[] parts = StringUtils.split(next, '.');
+			if (parts.length == 0) {
+				continue;
+			}
+			if (!parts[0].equals(theResourceType) && !parts[0].equals("*")) {
+				continue;
+			}
+			if (parts.length == 1) {
+				return null;
+			}
+			if (retVal == null) {
+				retVal = new ParseElementsTree();
+			}
+			retVal.add(parts, 1);
+		}
+		return retVal;
+	}
+
+}
@@ -58,6 +58,8 @@ class ParserState<T> {
 	private final IParserErrorHandler myErrorHandler;
 	private final boolean myJsonMode;
 	private T myObject;
+	private final Set<String> myParseElements;
+	private Map<String, ParseElementsTree> myParseElementsTrees;
 	private final IParser myParser;
 	private IBase myPreviousElement;
 	private BaseState myState;
@@ -67,6 +69,7 @@ class ParserState<T> {
 		myContext = theContext;
 		myJsonMode = theJsonMode;
 		myErrorHandler = theErrorHandler;
+		myParseElements = theParser != null ? theParser.getParseElements() : null;
 	}
 
 	public void attributeValue(String theName, String theValue) throws DataFormatException {
@@ -106,10 +109,47 @@ class ParserState<T> {
 		return myObject;
 	}
 
+	/**
+	 * Returns the {@link IParser#setParseElements(Set) parse elements} for the given resource type, or
+	 * <code>null</code> if the whole resource should be parsed
+	 */
+	private ParseElementsTree getParseElementsTree(String theResourceName) {
+		if (myParseElements == null) {
+			return null;
+		}
+		if (myParseElementsTrees == null) {
+			myParseElementsTrees = new HashMap<String, ParseElementsTree>();
+		}
+		if (myParseElementsTrees.containsKey(theResourceName)) {
+			return myParseElementsTrees.get(theResourceName);
+		}
+		ParseElementsTree retVal = ParseElementsTree.forResourceType(myParseElements, theResourceName);
+		myParseElementsTrees.put(theResourceName, retVal);
+		return retVal;
+	}
+
+	/**
+	 * Returns <code>true</code> if a child element with the given name would be discarded
+	 * because it is not selected by the {@link IParser#setParseElements(Set) parse elements},
+	 * meaning that the caller may skip over it (and anything it contains) entirely
+	 */
+	public boolean isChildExcluded(String theChildName) {
+		return myState.isChildExcluded(theChildName);
+	}
+
 	public boolean isPreResource() {
 		return myState.isPreResource();
 	}
 
+	/**
+	 * Returns <code>true</code> if the current state needs to be passed a copy of each XML
+	 * event via {@link #xmlEvent(XMLEvent)}. Parsers which don't otherwise create event objects
+	 * only need to create them while this is true.
+	 */
+	public boolean isWantingXmlEvents() {
+		return myState != null && myState.isWantingXmlEvents();
+	}
+
 	private Object newContainedDt(IResource theTarget) {
 		return ReflectionUtil.newInstance(theTarget.getStructureFhirVersionEnum().getVersionImplementation().getContainedType());
 	}
@@ -830,10 +870,19 @@ class ParserState<T> {
 			return myPreResourceState;
 		}
 
+		@SuppressWarnings("unused")
+		public boolean isChildExcluded(String theChildName) {
+			return false;
+		}
+
 		public boolean isPreResource() {
 			return false;
 		}
 
+		public boolean isWantingXmlEvents() {
+			return false;
+		}
+
 		protected void logAndSwallowUnexpectedElement(String theLocalPart) {
 			myErrorHandler.unknownElement(null, theLocalPart);
 			push(new SwallowChildrenWholeState(getPreResourceState()));
@@ -1509,6 +1558,7 @@ class ParserState<T> {
 		private BaseRuntimeElementCompositeDefinition<?> myDefinition;
 		private IBase myInstance;
 		private Set<String> myParsedNonRepeatableNames = new HashSet<String>();
+		private ParseElementsTree myParseElementsTree;
 
 		public ElementCompositeState(PreResourceState thePreResourceState, BaseRuntimeElementCompositeDefinition<?> theDef, IBase theInstance) {
 			super(thePreResourceState);
@@ -1570,6 +1620,16 @@ class ParserState<T> {
 				return;
 			}
 
+			ParseElementsTree childParseElementsTree = null;
+			if (myParseElementsTree != null) {
+				String parseElementsName = getParseElementsName(theChildName, child);
+				if (parseElementsName == null) {
+					push(new SwallowChildrenWholeState(getPreResourceState()));
+					return;
+				}
+				childParseElementsTree = myParseElementsTree.getChild(parseElementsName);
+			}
+
 			if ((child.getMax() == 0 || child.getMax() == 1) && !myParsedNonRepeatableNames.add(theChildName)) {
 				myErrorHandler.unexpectedRepeatingElement(null, theChildName);
 				push(new SwallowChildrenWholeState(getPreResourceState()));
@@ -1588,6 +1648,7 @@ class ParserState<T> {
 				ICompositeType newChildInstance = (ICompositeType) compositeTarget.newInstance(child.getInstanceConstructorArguments());
 				child.getMutator().addValue(myInstance, newChildInstance);
 				ParserState<T>.ElementCompositeState newState = new ElementCompositeState(getPreResourceState(), compositeTarget, newChildInstance);
+				newState.setParseElementsTree(childParseElementsTree);
 				push(newState);
 				return;
 			}
@@ -1606,6 +1667,7 @@ class ParserState<T> {
 				IBase newBlockInstance = blockTarget.newInstance();
 				child.getMutator().addValue(myInstance, newBlockInstance);
 				ElementCompositeState newState = new ElementCompositeState(getPreResourceState(), blockTarget, newBlockInstance);
+				newState.setParseElementsTree(childParseElementsTree);
 				push(newState);
 				return;
 			}
@@ -1665,6 +1727,11 @@ class ParserState<T> {
 
 		@Override
 		public void enteringNewElementExtension(StartElement theElement, String theUrlAttr, boolean theIsModifier) {
+			if (isExcludedByParseElements(theIsModifier ? "modifierExtension" : "extension")) {
+				push(new SwallowChildrenWholeState(getPreResourceState()));
+				return;
+			}
+
 			RuntimeChildDeclaredExtensionDefinition declaredExtension = myDefinition.getDeclaredExtension(theUrlAttr);
 			if (declaredExtension != null) {
 				BaseState newState = new DeclaredExtensionState(getPreResourceState(), declaredExtension, myInstance);
@@ -1679,6 +1746,48 @@ class ParserState<T> {
 			return myInstance;
 		}
 
+		/**
+		 * Returns the name under which the given child appears in the parse elements, or <code>null</code>
+		 * if it isn't selected. Choice children may be selected by either their base name (e.g. "value")
+		 * or their typed name (e.g. "valueQuantity").
+		 */
+		private String getParseElementsName(String theChildName, BaseRuntimeChildDefinition theChild) {
+			if (myParseElementsTree.includes(theChildName)) {
+				return theChildName;
+			}
+			if (theChild != null && myParseElementsTree.includes(theChild.getElementName())) {
+				return theChild.getElementName();
+			}
+			return null;
+		}
+
+		@Override
+		public boolean isChildExcluded(String theChildName) {
+			if (myParseElementsTree == null) {
+				return false;
+			}
+			if ("extension".equals(theChildName) || "modifierExtension".equals(theChildName)) {
+				return isExcludedByParseElements(theChildName);
+			}
+			BaseRuntimeChildDefinition child = myDefinition.getChildByName(theChildName);
+			if (child == null) {
+				// Let the normal handling report the unknown element
+				return false;
+			}
+			return getParseElementsName(theChildName, child) == null;
+		}
+
+		/**
+		 * Is the given name (as it appears in the parse elements) not selected for parsing?
+		 */
+		protected boolean isExcludedByParseElements(String theName) {
+			return myParseElementsTree != null && !myParseElementsTree.includes(theName);
+		}
+
+		public void setParseElementsTree(ParseElementsTree theParseElementsTree) {
+			myParseElementsTree = theParseElementsTree;
+		}
+
 	}
 
 	public class ElementIdState extends BaseState {
@@ -2011,10 +2120,15 @@ class ParserState<T> {
 			String resourceName = def.getName();
 			if ("Binary".equals(resourceName) && myContext.getVersion().getVersion() == FhirVersionEnum.DSTU1) {
 				push(new BinaryResourceStateForDstu1(getRootPreResourceState(), (IBaseBinary) myInstance));
-			} else if (myInstance instanceof IResource) {
-				push(new ResourceStateHapi(getRootPreResourceState(), def, (IResource) myInstance));
 			} else {
-				push(new ResourceStateHl7Org(getRootPreResourceState(), def, myInstance));
+				ElementCompositeState newState;
+				if (myInstance instanceof IResource) {
+					newState = new ResourceStateHapi(getRootPreResourceState(), def, (IResource) myInstance);
+				} else {
+					newState = new ResourceStateHl7Org(getRootPreResourceState(), def, myInstance);
+				}
+				newState.setParseElementsTree(getParseElementsTree(resourceName));
+				push(newState);
 			}
 		}
 		
@@ -2411,6 +2525,10 @@ class ParserState<T> {
 			if ("id".equals(theChildName)) {
 				push(new PrimitiveState(getPreResourceState(), myInstance.getId()));
 			} else if ("meta".equals(theChildName)) {
+				if (isExcludedByParseElements(theChildName)) {
+					push(new SwallowChildrenWholeState(getPreResourceState()));
+					return;
+				}
 				push(new MetaElementState(getPreResourceState(), myInstance.getResourceMetadata()));
 			} else {
 				super.enteringNewElement(theNamespace, theChildName);
@@ -2623,6 +2741,11 @@ class ParserState<T> {
 			return myDt;
 		}
 
+		@Override
+		public boolean isWantingXmlEvents() {
+			return true;
+		}
+
 		@Override
 		public void xmlEvent(XMLEvent theEvent) {
 			if (theEvent.isEndElement()) {
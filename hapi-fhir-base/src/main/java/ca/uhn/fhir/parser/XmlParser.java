@@ -24,6 +24,8 @@ import static org.apache.commons.lang3.StringUtils.isBlank;
 import static org.apache.commons.lang3.StringUtils.isNotBlank;
 
 import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
 import java.io.Reader;
 import java.io.StringWriter;
 import java.io.Writer;
@@ -36,6 +38,7 @@ import javax.xml.stream.FactoryConfigurationError;
 import javax.xml.stream.XMLEventReader;
 import javax.xml.stream.XMLStreamConstants;
 import javax.xml.stream.XMLStreamException;
+import javax.xml.stream.XMLStreamReader;
 import javax.xml.stream.XMLStreamWriter;
 import javax.xml.stream.events.Attribute;
 import javax.xml.stream.events.Characters;
@@ -44,6 +47,7 @@ import javax.xml.stream.events.EntityReference;
 import javax.xml.stream.events.Namespace;
 import javax.xml.stream.events.StartElement;
 import javax.xml.stream.events.XMLEvent;
+import javax.xml.stream.util.XMLEventAllocator;
 
 import ca.uhn.fhir.model.api.BaseBundle;
 import org.apache.commons.lang3.StringUtils;
@@ -128,6 +132,44 @@ public class XmlParser extends BaseParser implements IParser {
 		myContext = theContext;
 	}
 
+	private XMLEventAllocator createEventAllocator() {
+		try {
+			return XmlUtil.createXmlEventAllocator();
+		} catch (FactoryConfigurationError e1) {
+			throw new ConfigurationException("Failed to initialize STaX event factory", e1);
+		}
+	}
+
+	private XMLStreamReader createCursorReader(InputStream theInputStream) {
+		try {
+			return XmlUtil.createXmlStreamReader(theInputStream);
+		} catch (FactoryConfigurationError e1) {
+			throw new ConfigurationException("Failed to initialize STaX event factory", e1);
+		} catch (XMLStreamException e1) {
+			throw new DataFormatException(e1);
+		}
+	}
+
+	private XMLStreamReader createCursorReader(Reader theReader) {
+		try {
+			return XmlUtil.createXmlStreamReader(theReader);
+		} catch (FactoryConfigurationError e1) {
+			throw new ConfigurationException("Failed to initialize STaX event factory", e1);
+		} catch (XMLStreamException e1) {
+			throw new DataFormatException(e1);
+		}
+	}
+
+	private XMLEventReader createStreamReader(InputStream theInputStream) {
+		try {
+			return XmlUtil.createXmlReader(theInputStream);
+		} catch (FactoryConfigurationError e1) {
+			throw new ConfigurationException("Failed to initialize STaX event factory", e1);
+		} catch (XMLStreamException e1) {
+			throw new DataFormatException(e1);
+		}
+	}
+
 	private XMLEventReader createStreamReader(Reader theReader) {
 		try {
 			return XmlUtil.createXmlReader(theReader);
@@ -169,6 +211,19 @@ public class XmlParser extends BaseParser implements IParser {
 		}
 	}
 
+	@Override
+	protected void doEncodeResourceToOutputStream(IBaseResource theResource, OutputStream theOutputStream) throws DataFormatException {
+		XMLStreamWriter eventWriter;
+		try {
+			eventWriter = decorateStreamWriter(XmlUtil.createXmlStreamWriter(theOutputStream));
+
+			encodeResourceToXmlStreamWriter(theResource, eventWriter, false, false);
+			eventWriter.flush();
+		} catch (XMLStreamException e) {
+			throw new ConfigurationException("Failed to initialize STaX event factory", e);
+		}
+	}
+
 	@Override
 	public void doEncodeResourceToWriter(IBaseResource theResource, Writer theWriter) throws DataFormatException {
 		XMLStreamWriter eventWriter;
@@ -182,10 +237,109 @@ public class XmlParser extends BaseParser implements IParser {
 		}
 	}
 
+	@Override
+	protected <T extends IBaseResource> T doParseResource(Class<T> theResourceType, InputStream theInputStream) {
+		XMLEventAllocator allocator = createEventAllocator();
+		if (allocator == null) {
+			return parseResource(theResourceType, createStreamReader(theInputStream));
+		}
+		ParserState<T> parserState = ParserState.getPreResourceInstance(this, theResourceType, myContext, false, getErrorHandler());
+		return doXmlLoop(createCursorReader(theInputStream), allocator, parserState);
+	}
+
 	@Override
 	public <T extends IBaseResource> T doParseResource(Class<T> theResourceType, Reader theReader) {
-		XMLEventReader streamReader = createStreamReader(theReader);
-		return parseResource(theResourceType, streamReader);
+		XMLEventAllocator allocator = createEventAllocator();
+		if (allocator == null) {
+			return parseResource(theResourceType, createStreamReader(theReader));
+		}
+		ParserState<T> parserState = ParserState.getPreResourceInstance(this, theResourceType, myContext, false, getErrorHandler());
+		return doXmlLoop(createCursorReader(theReader), allocator, parserState);
+	}
+
+	/**
+	 * Equivalent to {@link #doXmlLoop(XMLEventReader, ParserState)}, but uses the cursor API so that event
+	 * objects only need to be created for the parts of the document (i.e. narratives) where the parser
+	 * state asks for them
+	 */
+	private <T> T doXmlLoop(XMLStreamReader theStreamReader, XMLEventAllocator theAllocator, ParserState<T> theParserState) {
+		ourLog.trace("Entering XML cursor parsing loop with state: {}", theParserState);
+
+		try {
+			List<String> heldComments = new ArrayList<String>(1);
+
+			while (theStreamReader.hasNext()) {
+				int eventType = theStreamReader.next();
+				try {
+
+					switch (eventType) {
+					case XMLStreamConstants.START_ELEMENT: {
+						String elementName = theStreamReader.getLocalName();
+
+						if (theParserState.isChildExcluded(elementName)) {
+							// Not selected by the parse elements, so skip over it without parsing anything
+							skipElement(theStreamReader);
+							heldComments.clear();
+							continue;
+						}
+
+						if ("extension".equals(elementName) || "modifierExtension".equals(elementName)) {
+							String url = theStreamReader.getAttributeValue(null, "url");
+							if (isBlank(url)) {
+								getErrorHandler().missingRequiredElement(new ParseLocation(elementName), "url");
+								url = null;
+							}
+							theParserState.enteringNewElementExtension(null, url, "modifierExtension".equals(elementName));
+						} else {
+							theParserState.enteringNewElement(StringUtils.defaultString(theStreamReader.getNamespaceURI()), elementName);
+						}
+
+						if (!heldComments.isEmpty()) {
+							for (String next : heldComments) {
+								theParserState.commentPre(next);
+							}
+							heldComments.clear();
+						}
+
+						for (int i = 0; i < theStreamReader.getAttributeCount(); i++) {
+							theParserState.attributeValue(theStreamReader.getAttributeLocalName(i), theStreamReader.getAttributeValue(i));
+						}
+
+						break;
+					}
+					case XMLStreamConstants.END_DOCUMENT:
+					case XMLStreamConstants.END_ELEMENT: {
+						if (!heldComments.isEmpty()) {
+							for (String next : heldComments) {
+								theParserState.commentPost(next);
+							}
+							heldComments.clear();
+						}
+						theParserState.endingElement();
+						break;
+					}
+					case XMLStreamConstants.CHARACTERS: {
+						theParserState.string(theStreamReader.getText());
+						break;
+					}
+					case XMLStreamConstants.COMMENT: {
+						heldComments.add(theStreamReader.getText());
+						break;
+					}
+					}
+
+					if (theParserState.isWantingXmlEvents()) {
+						theParserState.xmlEvent(theAllocator.allocate(theStreamReader));
+					}
+
+				} catch (DataFormatException e) {
+					throw new DataFormatException("DataFormatException at [" + theStreamReader.getLocation().toString() + "]: " + e.getMessage(), e);
+				}
+			}
+			return theParserState.getObject();
+		} catch (XMLStreamException e) {
+			throw new DataFormatException(e);
+		}
 	}
 
 	private <T> T doXmlLoop(XMLEventReader streamReader, ParserState<T> parserState) {
@@ -202,6 +356,13 @@ public class XmlParser extends BaseParser implements IParser {
 					case XMLStreamConstants.START_ELEMENT: {
 						StartElement elem = nextEvent.asStartElement();
 
+						if (parserState.isChildExcluded(elem.getName().getLocalPart())) {
+							// Not selected by the parse elements, so skip over it without parsing anything
+							skipElement(streamReader);
+							heldComments.clear();
+							break;
+						}
+
 						String namespaceURI = elem.getName().getNamespaceURI();
 
 						if ("extension".equals(elem.getName().getLocalPart())) {
@@ -283,6 +444,42 @@ public class XmlParser extends BaseParser implements IParser {
 		}
 	}
 
+	/**
+	 * Moves the cursor to the end of the element which it is currently at the start of
+	 */
+	private static void skipElement(XMLStreamReader theStreamReader) throws XMLStreamException {
+		int depth = 0;
+		while (theStreamReader.hasNext()) {
+			int eventType = theStreamReader.next();
+			if (eventType == XMLStreamConstants.START_ELEMENT) {
+				depth++;
+			} else if (eventType == XMLStreamConstants.END_ELEMENT) {
+				if (depth == 0) {
+					return;
+				}
+				depth--;
+			}
+		}
+	}
+
+	/**
+	 * Consumes events up to and including the end of the element which has just been started
+	 */
+	private static void skipElement(XMLEventReader theStreamReader) throws XMLStreamException {
+		int depth = 0;
+		while (theStreamReader.hasNext()) {
+			XMLEvent nextEvent = theStreamReader.nextEvent();
+			if (nextEvent.isStartElement()) {
+				depth++;
+			} else if (nextEvent.isEndElement()) {
+				if (depth == 0) {
+					return;
+				}
+				depth--;
+			}
+		}
+	}
+
 	@Override
 	public String encodeBundleToString(Bundle theBundle) throws DataFormatException {
 		StringWriter stringWriter = new StringWriter();
@@ -718,6 +915,8 @@ public class XmlParser extends BaseParser implements IParser {
 	}
 
 	private void encodeResourceToXmlStreamWriter(IBaseResource theResource, XMLStreamWriter theEventWriter, boolean theIncludedResource, boolean theSubResource) throws XMLStreamException, DataFormatException {
+		LazyResourceBody.ensureParsed(myContext, theResource);
+
 		IIdType resourceId = null;
 
 		if (StringUtils.isNotBlank(theResource.getIdElement().getIdPart())) {
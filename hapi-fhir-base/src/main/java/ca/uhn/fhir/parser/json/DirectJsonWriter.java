@@ -0,0 +1,591 @@
+package ca.uhn.fhir.parser.json;
+
+/*
+ * #%L
+ * HAPI FHIR - Core Library
+ * %%
+ * Copyright (C) 2014 - 2017 University Health Network
+ * %%
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * #L%
+ */
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.Writer;
+import java.math.BigDecimal;
+import java.math.BigInteger;
+import java.util.Arrays;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * A {@link JsonLikeWriter} which writes JSON text directly to a {@link Writer}, or as UTF-8
+ * bytes directly to an {@link OutputStream}, without going through a Gson
+ * {@link com.google.gson.stream.JsonWriter}. The output is identical to the output
+ * of {@link GsonWriter}.
+ * <p>
+ * Output is collected in a scratch buffer which is borrowed from the current thread
+ * when the document is started, and given back when it is flushed, so encoding many
+ * documents on the same thread does not allocate new buffers each time.
+ * </p>
+ */
+public class DirectJsonWriter extends JsonLikeWriter {
+	private static final int BUFFER_SIZE = 8192;
+	private static final int DANGLING_NAME = 4;
+	private static final int EMPTY_ARRAY = 1;
+	private static final int EMPTY_DOCUMENT = 6;
+	private static final int EMPTY_OBJECT = 3;
+	private static final int NONEMPTY_ARRAY = 2;
+	private static final int NONEMPTY_DOCUMENT = 7;
+	private static final int NONEMPTY_OBJECT = 5;
+	private static final ThreadLocal<byte[]> ourByteBuffer = new ThreadLocal<byte[]>();
+	private static final ThreadLocal<char[]> ourCharBuffer = new ThreadLocal<char[]>();
+	private static final Logger ourLog = LoggerFactory.getLogger(DirectJsonWriter.class);
+	private static final String[] REPLACEMENT_CHARS;
+
+	static {
+		REPLACEMENT_CHARS = new String[128];
+		for (int i = 0; i <= 0x1f; i++) {
+			REPLACEMENT_CHARS[i] = String.format("\\u%04x", i);
+		}
+		REPLACEMENT_CHARS['"'] = "\\\"";
+		REPLACEMENT_CHARS['\\'] = "\\\\";
+		REPLACEMENT_CHARS['\t'] = "\\t";
+		REPLACEMENT_CHARS['\b'] = "\\b";
+		REPLACEMENT_CHARS['\n'] = "\\n";
+		REPLACEMENT_CHARS['\r'] = "\\r";
+		REPLACEMENT_CHARS['\f'] = "\\f";
+	}
+
+	private byte[] myBytes;
+	private char[] myChars;
+	private String myDeferredName;
+	private final OutputStream myOutputStream;
+	private int myPos;
+	private int[] myStack = new int[32];
+	private int myStackSize;
+
+	/**
+	 * Constructor for a writer which writes UTF-8 bytes to the given stream
+	 */
+	public DirectJsonWriter(OutputStream theOutputStream) {
+		myOutputStream = theOutputStream;
+	}
+
+	/**
+	 * Constructor for a writer which writes characters to the given writer
+	 */
+	public DirectJsonWriter(Writer theWriter) {
+		myOutputStream = null;
+		setWriter(theWriter);
+	}
+
+	private void append(char theChar) throws IOException {
+		if (myPos == myChars.length) {
+			flushBuffer(false);
+		}
+		myChars[myPos++] = theChar;
+	}
+
+	private void append(String theString) throws IOException {
+		append(theString, 0, theString.length());
+	}
+
+	private void append(String theString, int theStart, int theEnd) throws IOException {
+		int start = theStart;
+		while (start < theEnd) {
+			if (myPos == myChars.length) {
+				flushBuffer(false);
+			}
+			int count = Math.min(theEnd - start, myChars.length - myPos);
+			theString.getChars(start, start + count, myChars, myPos);
+			myPos += count;
+			start += count;
+		}
+	}
+
+	private void beforeName() throws IOException {
+		int context = peek();
+		if (context == NONEMPTY_OBJECT) {
+			append(',');
+		} else if (context != EMPTY_OBJECT) {
+			throw new IllegalStateException("Nesting problem.");
+		}
+		newline();
+		myStack[myStackSize - 1] = DANGLING_NAME;
+	}
+
+	private void beforeValue() throws IOException {
+		switch (peek()) {
+		case NONEMPTY_DOCUMENT:
+			throw new IllegalStateException("JSON must have only one top-level value.");
+		case EMPTY_DOCUMENT:
+			myStack[myStackSize - 1] = NONEMPTY_DOCUMENT;
+			break;
+		case EMPTY_ARRAY:
+			myStack[myStackSize - 1] = NONEMPTY_ARRAY;
+			newline();
+			break;
+		case NONEMPTY_ARRAY:
+			append(',');
+			newline();
+			break;
+		case DANGLING_NAME:
+			if (isPrettyPrint()) {
+				append(": ");
+			} else {
+				append(':');
+			}
+			myStack[myStackSize - 1] = NONEMPTY_OBJECT;
+			break;
+		default:
+			throw new IllegalStateException("Nesting problem.");
+		}
+	}
+
+	@Override
+	public JsonLikeWriter beginArray() throws IOException {
+		return open(EMPTY_ARRAY, '[');
+	}
+
+	@Override
+	public JsonLikeWriter beginArray(String theName) throws IOException {
+		name(theName);
+		return open(EMPTY_ARRAY, '[');
+	}
+
+	@Override
+	public JsonLikeWriter beginObject() throws IOException {
+		return open(EMPTY_OBJECT, '{');
+	}
+
+	@Override
+	public JsonLikeWriter beginObject(String theName) throws IOException {
+		name(theName);
+		return open(EMPTY_OBJECT, '{');
+	}
+
+	@Override
+	public void close() throws IOException {
+		flushBuffer(true);
+		releaseBuffers();
+		if (myOutputStream != null) {
+			myOutputStream.close();
+		} else {
+			getWriter().close();
+		}
+		if (myStackSize > 1 || (myStackSize == 1 && myStack[0] != NONEMPTY_DOCUMENT)) {
+			throw new IOException("Incomplete document");
+		}
+	}
+
+	private JsonLikeWriter close(int theEmpty, int theNonEmpty, char theBracket) throws IOException {
+		int context = peek();
+		if (context != theNonEmpty && context != theEmpty) {
+			throw new IllegalStateException("Nesting problem.");
+		}
+		if (myDeferredName != null) {
+			throw new IllegalStateException("Dangling name: " + myDeferredName);
+		}
+		myStackSize--;
+		if (context == theNonEmpty) {
+			newline();
+		}
+		append(theBracket);
+		return this;
+	}
+
+	@Override
+	public JsonLikeWriter endArray() throws IOException {
+		int context = peek();
+		if (context == EMPTY_DOCUMENT || context == NONEMPTY_DOCUMENT) {
+			ourLog.error("JsonLikeStreamWriter.endArray(); called with no active JSON document");
+			return this;
+		}
+		if (context != EMPTY_ARRAY && context != NONEMPTY_ARRAY) {
+			ourLog.error("JsonLikeStreamWriter.endArray(); called outside a JSON array. (Use endObject() instead?)");
+			return close(EMPTY_OBJECT, NONEMPTY_OBJECT, '}');
+		}
+		return close(EMPTY_ARRAY, NONEMPTY_ARRAY, ']');
+	}
+
+	@Override
+	public JsonLikeWriter endBlock() throws IOException {
+		int context = peek();
+		if (context == EMPTY_DOCUMENT || context == NONEMPTY_DOCUMENT) {
+			ourLog.error("JsonLikeStreamWriter.endBlock(); called with no active JSON document");
+			return this;
+		}
+		if (context == EMPTY_ARRAY || context == NONEMPTY_ARRAY) {
+			return close(EMPTY_ARRAY, NONEMPTY_ARRAY, ']');
+		}
+		return close(EMPTY_OBJECT, NONEMPTY_OBJECT, '}');
+	}
+
+	@Override
+	public JsonLikeWriter endObject() throws IOException {
+		int context = peek();
+		if (context == EMPTY_DOCUMENT || context == NONEMPTY_DOCUMENT) {
+			ourLog.error("JsonLikeStreamWriter.endObject(); called with no active JSON document");
+			return this;
+		}
+		if (context == EMPTY_ARRAY || context == NONEMPTY_ARRAY) {
+			ourLog.error("JsonLikeStreamWriter.endObject(); called outside a JSON object. (Use endArray() instead?)");
+			return close(EMPTY_ARRAY, NONEMPTY_ARRAY, ']');
+		}
+		return close(EMPTY_OBJECT, NONEMPTY_OBJECT, '}');
+	}
+
+	@Override
+	public JsonLikeWriter flush() throws IOException {
+		if (myStackSize > 1) {
+			ourLog.error("JsonLikeStreamWriter.flush() called but JSON document is not finished");
+		}
+		flushBuffer(true);
+		releaseBuffers();
+		if (myOutputStream != null) {
+			myOutputStream.flush();
+		} else {
+			getWriter().flush();
+		}
+		return this;
+	}
+
+	/**
+	 * Writes the buffered characters to the underlying writer or stream
+	 * 
+	 * @param theFinal
+	 *           If <code>false</code> and the buffer ends with the first half of a surrogate pair, that
+	 *           character is kept in the buffer so that the pair can be encoded as UTF-8 together
+	 */
+	private void flushBuffer(boolean theFinal) throws IOException {
+		if (myChars == null || myPos == 0) {
+			return;
+		}
+
+		if (myOutputStream == null) {
+			getWriter().write(myChars, 0, myPos);
+			myPos = 0;
+			return;
+		}
+
+		int end = myPos;
+		if (!theFinal && Character.isHighSurrogate(myChars[end - 1])) {
+			end--;
+		}
+
+		byte[] bytes = myBytes;
+		int count = 0;
+		for (int i = 0; i < end; i++) {
+			char next = myChars[i];
+			if (next < 0x80) {
+				bytes[count++] = (byte) next;
+			} else if (next < 0x800) {
+				bytes[count++] = (byte) (0xc0 | (next >> 6));
+				bytes[count++] = (byte) (0x80 | (next & 0x3f));
+			} else if (next >= Character.MIN_SURROGATE && next <= Character.MAX_SURROGATE) {
+				if (Character.isHighSurrogate(next) && i + 1 < end && Character.isLowSurrogate(myChars[i + 1])) {
+					int codePoint = Character.toCodePoint(next, myChars[++i]);
+					bytes[count++] = (byte) (0xf0 | (codePoint >> 18));
+					bytes[count++] = (byte) (0x80 | ((codePoint >> 12) & 0x3f));
+					bytes[count++] = (byte) (0x80 | ((codePoint >> 6) & 0x3f));
+					bytes[count++] = (byte) (0x80 | (codePoint & 0x3f));
+				} else {
+					// Unpaired surrogate, which is what the JDK's UTF-8 encoder does too
+					bytes[count++] = '?';
+				}
+			} else {
+				bytes[count++] = (byte) (0xe0 | (next >> 12));
+				bytes[count++] = (byte) (0x80 | ((next >> 6) & 0x3f));
+				bytes[count++] = (byte) (0x80 | (next & 0x3f));
+			}
+		}
+		myOutputStream.write(bytes, 0, count);
+
+		if (end < myPos) {
+			myChars[0] = myChars[end];
+			myPos = 1;
+		} else {
+			myPos = 0;
+		}
+	}
+
+	@Override
+	public JsonLikeWriter init() throws IOException {
+		if (myChars == null) {
+			myChars = ourCharBuffer.get();
+			if (myChars == null) {
+				myChars = new char[BUFFER_SIZE];
+			} else {
+				// Borrow the buffer, so that a nested writer on this thread gets its own
+				ourCharBuffer.set(null);
+			}
+		}
+		if (myOutputStream != null && myBytes == null) {
+			myBytes = ourByteBuffer.get();
+			if (myBytes == null) {
+				myBytes = new byte[BUFFER_SIZE * 3];
+			} else {
+				ourByteBuffer.set(null);
+			}
+		}
+		myPos = 0;
+		myDeferredName = null;
+		myStackSize = 0;
+		push(EMPTY_DOCUMENT);
+		return this;
+	}
+
+	private void name(String theName) {
+		if (theName == null) {
+			throw new NullPointerException("name == null");
+		}
+		if (myDeferredName != null) {
+			throw new IllegalStateException();
+		}
+		if (myStackSize == 0) {
+			throw new IllegalStateException("JsonWriter is closed.");
+		}
+		myDeferredName = theName;
+	}
+
+	private void newline() throws IOException {
+		if (!isPrettyPrint()) {
+			return;
+		}
+		append('\n');
+		for (int i = 1; i < myStackSize; i++) {
+			append("  ");
+		}
+	}
+
+	private JsonLikeWriter open(int theEmpty, char theBracket) throws IOException {
+		writeDeferredName();
+		beforeValue();
+		push(theEmpty);
+		append(theBracket);
+		return this;
+	}
+
+	private int peek() {
+		if (myStackSize == 0) {
+			throw new IllegalStateException("JsonWriter is closed.");
+		}
+		return myStack[myStackSize - 1];
+	}
+
+	private void push(int theContext) {
+		if (myStackSize == myStack.length) {
+			myStack = Arrays.copyOf(myStack, myStackSize * 2);
+		}
+		myStack[myStackSize++] = theContext;
+	}
+
+	private void releaseBuffers() {
+		if (myChars != null) {
+			ourCharBuffer.set(myChars);
+			myChars = null;
+		}
+		if (myBytes != null) {
+			ourByteBuffer.set(myBytes);
+			myBytes = null;
+		}
+	}
+
+	private void string(String theValue) throws IOException {
+		append('"');
+		int last = 0;
+		int length = theValue.length();
+		for (int i = 0; i < length; i++) {
+			char next = theValue.charAt(i);
+			String replacement;
+			if (next < 128) {
+				replacement = REPLACEMENT_CHARS[next];
+				if (replacement == null) {
+					continue;
+				}
+			} else if (next == '\u2028') {
+				replacement = "\\u2028";
+			} else if (next == '\u2029') {
+				replacement = "\\u2029";
+			} else {
+				continue;
+			}
+			if (last < i) {
+				append(theValue, last, i);
+			}
+			append(replacement);
+			last = i + 1;
+		}
+		if (last < length) {
+			append(theValue, last, length);
+		}
+		append('"');
+	}
+
+	@Override
+	public JsonLikeWriter write(BigDecimal theValue) throws IOException {
+		return writeNumber(theValue);
+	}
+
+	@Override
+	public JsonLikeWriter write(BigInteger theValue) throws IOException {
+		return writeNumber(theValue);
+	}
+
+	@Override
+	public JsonLikeWriter write(boolean theValue) throws IOException {
+		writeDeferredName();
+		beforeValue();
+		append(theValue ? "true" : "false");
+		return this;
+	}
+
+	@Override
+	public JsonLikeWriter write(Boolean theValue) throws IOException {
+		if (theValue == null) {
+			return writeNull();
+		}
+		return write(theValue.booleanValue());
+	}
+
+	@Override
+	public JsonLikeWriter write(double theValue) throws IOException {
+		if (Double.isNaN(theValue) || Double.isInfinite(theValue)) {
+			throw new IllegalArgumentException("Numeric values must be finite, but was " + theValue);
+		}
+		writeDeferredName();
+		beforeValue();
+		append(Double.toString(theValue));
+		return this;
+	}
+
+	@Override
+	public JsonLikeWriter write(long theValue) throws IOException {
+		writeDeferredName();
+		beforeValue();
+		append(Long.toString(theValue));
+		return this;
+	}
+
+	@Override
+	public JsonLikeWriter write(String theValue) throws IOException {
+		if (theValue == null) {
+			return writeNull();
+		}
+		writeDeferredName();
+		beforeValue();
+		string(theValue);
+		return this;
+	}
+
+	@Override
+	public JsonLikeWriter write(String theName, BigDecimal theValue) throws IOException {
+		name(theName);
+		return write(theValue);
+	}
+
+	@Override
+	public JsonLikeWriter write(String theName, BigInteger theValue) throws IOException {
+		name(theName);
+		return write(theValue);
+	}
+
+	@Override
+	public JsonLikeWriter write(String theName, boolean theValue) throws IOException {
+		name(theName);
+		return write(theValue);
+	}
+
+	@Override
+	public JsonLikeWriter write(String theName, Boolean theValue) throws IOException {
+		name(theName);
+		return write(theValue);
+	}
+
+	@Override
+	public JsonLikeWriter write(String theName, double theValue) throws IOException {
+		name(theName);
+		return write(theValue);
+	}
+
+	@Override
+	public JsonLikeWriter write(String theName, long theValue) throws IOException {
+		name(theName);
+		return write(theValue);
+	}
+
+	@Override
+	public JsonLikeWriter write(String theName, String theValue) throws IOException {
+		name(theName);
+		return write(theValue);
+	}
+
+	/**
+	 * Writes a named value which is already encoded as JSON. The value is copied to the
+	 * output as is, so it must be well formed.
+	 *
+	 * @param theName
+	 *           The member name, or <code>null</code> if the value is an array element
+	 * @param theJson
+	 *           Text containing the encoded value
+	 * @param theStart
+	 *           The index of the first character of the value in <code>theJson</code>
+	 * @param theEnd
+	 *           The index after the last character of the value in <code>theJson</code>
+	 */
+	public JsonLikeWriter writeRaw(String theName, String theJson, int theStart, int theEnd) throws IOException {
+		if (theName != null) {
+			name(theName);
+			writeDeferredName();
+		}
+		beforeValue();
+		append(theJson, theStart, theEnd);
+		return this;
+	}
+
+	private void writeDeferredName() throws IOException {
+		if (myDeferredName != null) {
+			beforeName();
+			string(myDeferredName);
+			myDeferredName = null;
+		}
+	}
+
+	@Override
+	public JsonLikeWriter writeNull() throws IOException {
+		writeDeferredName();
+		beforeValue();
+		append("null");
+		return this;
+	}
+
+	@Override
+	public JsonLikeWriter writeNull(String theName) throws IOException {
+		name(theName);
+		return writeNull();
+	}
+
+	private JsonLikeWriter writeNumber(Number theValue) throws IOException {
+		if (theValue == null) {
+			return writeNull();
+		}
+		writeDeferredName();
+		beforeValue();
+		append(theValue.toString());
+		return this;
+	}
+
+}
@@ -28,6 +28,7 @@ import java.lang.reflect.InvocationTargetException;
 import java.lang.reflect.Method;
 import java.util.ArrayList;
 import java.util.Collection;
+import java.util.Collections;
 import java.util.HashSet;
 import java.util.List;
 import java.util.Set;
@@ -48,6 +49,7 @@ import ca.uhn.fhir.model.base.resource.BaseOperationOutcome;
 import ca.uhn.fhir.parser.IParser;
 import ca.uhn.fhir.rest.annotation.*;
 import ca.uhn.fhir.rest.api.MethodOutcome;
+import ca.uhn.fhir.rest.api.RequestTypeEnum;
 import ca.uhn.fhir.rest.api.RestOperationTypeEnum;
 import ca.uhn.fhir.rest.client.BaseHttpClientInvocation;
 import ca.uhn.fhir.rest.client.exceptions.NonFhirResponseException;
@@ -159,6 +161,40 @@ public abstract class BaseMethodBinding<T> implements IClientResponseHandler<T>
 		return myContext;
 	}
 
+	/**
+	 * Returns the operations (e.g. <code>_history</code> or <code>$everything</code>) which a request
+	 * must have for this method to match it, where <code>null</code> in the set means a request with
+	 * no operation. Returns <code>null</code> (the default) if this method may match any operation.
+	 * <p>
+	 * This is used by the server to narrow down which methods need to be checked using
+	 * {@link #incomingServerRequestMatchesMethod(RequestDetails)}, so it must never leave out an
+	 * operation that this method would match.
+	 * </p>
+	 */
+	public Set<String> getDispatchOperations() {
+		return null;
+	}
+
+	/**
+	 * Returns the parameters which a request must contain (either exactly as named, or with a
+	 * qualifier) for this method to match it. The default is an empty set.
+	 * 
+	 * @see #getDispatchOperations()
+	 */
+	public Set<String> getDispatchRequiredParameters() {
+		return Collections.emptySet();
+	}
+
+	/**
+	 * Returns the request types which this method can match, or <code>null</code> (the default)
+	 * if this method may match any request type.
+	 * 
+	 * @see #getDispatchOperations()
+	 */
+	public Set<RequestTypeEnum> getDispatchRequestTypes() {
+		return null;
+	}
+
 	public Set<String> getIncludes() {
 		Set<String> retVal = new TreeSet<String>();
 		for (IParameter next : myParameters) {
@@ -385,6 +385,7 @@ public abstract class BaseResourceReturningMethodBinding extends BaseMethodBindi
 				EncodingEnum linkEncoding = theRequest.getParameters().containsKey(Constants.PARAM_FORMAT) && responseEncoding != null ? responseEncoding.getEncoding() : null;
 
 				boolean prettyPrint = RestfulServerUtils.prettyPrintResponse(theServer, theRequest);
+				result = RestfulServerUtils.passThroughResourceBodiesIfPossible(theServer, theRequest, result);
 				bundleFactory.initializeBundleFromBundleProvider(theServer, result, linkEncoding, theRequest.getFhirServerBase(), linkSelf, prettyPrint, start, count, null, getResponseBundleType(),
 						includes);
 				Bundle bundle = bundleFactory.getDstu1Bundle();
@@ -24,8 +24,11 @@ import java.io.IOException;
 import java.io.Reader;
 import java.lang.reflect.Method;
 import java.lang.reflect.Modifier;
+import java.util.Collections;
+import java.util.EnumSet;
 import java.util.List;
 import java.util.Map;
+import java.util.Set;
 
 import org.hl7.fhir.instance.model.api.IBaseResource;
 
@@ -86,6 +89,16 @@ public class GetTagsMethodBinding extends BaseMethodBinding<TagList> {
 		return RestOperationTypeEnum.GET_TAGS;
 	}
 
+	@Override
+	public Set<String> getDispatchOperations() {
+		return Collections.singleton(Constants.PARAM_TAGS);
+	}
+
+	@Override
+	public Set<RequestTypeEnum> getDispatchRequestTypes() {
+		return EnumSet.of(RequestTypeEnum.GET);
+	}
+
 	@Override
 	public boolean incomingServerRequestMatchesMethod(RequestDetails theRequest) {
 		if (theRequest.getRequestType() != RequestTypeEnum.GET) {
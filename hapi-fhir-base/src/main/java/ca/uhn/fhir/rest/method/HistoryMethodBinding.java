@@ -24,8 +24,10 @@ import static org.apache.commons.lang3.StringUtils.isNotBlank;
 
 import java.lang.reflect.Method;
 import java.lang.reflect.Modifier;
+import java.util.Collections;
 import java.util.Date;
 import java.util.List;
+import java.util.Set;
 
 import org.apache.commons.lang3.StringUtils;
 import org.hl7.fhir.instance.model.api.IBaseResource;
@@ -102,6 +104,11 @@ public class HistoryMethodBinding extends BaseResourceReturningMethodBinding {
 		return ReturnTypeEnum.BUNDLE;
 	}
 
+	@Override
+	public Set<String> getDispatchOperations() {
+		return Collections.singleton(Constants.PARAM_HISTORY);
+	}
+
 	// ObjectUtils.equals is replaced by a JDK7 method..
 	@Override
 	public boolean incomingServerRequestMatchesMethod(RequestDetails theRequest) {
@@ -23,6 +23,8 @@ package ca.uhn.fhir.rest.method;
 import static org.apache.commons.lang3.StringUtils.isBlank;
 
 import java.lang.reflect.Method;
+import java.util.Collections;
+import java.util.EnumSet;
 import java.util.HashSet;
 import java.util.Set;
 
@@ -139,6 +141,7 @@ public class PageMethodBinding extends BaseResourceReturningMethodBinding {
 		if (responseEncoding != null) {
 			encodingEnum = responseEncoding.getEncoding();
 		}
+		resultList = RestfulServerUtils.passThroughResourceBodiesIfPossible(theServer, theRequest, resultList);
 		bundleFactory.initializeBundleFromBundleProvider(theServer, resultList, encodingEnum, theRequest.getFhirServerBase(), linkSelf, prettyPrint, start, count, thePagingAction, bundleType, includes);
 
 		Bundle bundle = bundleFactory.getDstu1Bundle();
@@ -179,6 +182,16 @@ public class PageMethodBinding extends BaseResourceReturningMethodBinding {
 		return RestOperationTypeEnum.GET_PAGE;
 	}
 
+	@Override
+	public Set<String> getDispatchRequiredParameters() {
+		return Collections.singleton(Constants.PARAM_PAGINGACTION);
+	}
+
+	@Override
+	public Set<RequestTypeEnum> getDispatchRequestTypes() {
+		return EnumSet.of(RequestTypeEnum.GET);
+	}
+
 	@Override
 	public boolean incomingServerRequestMatchesMethod(RequestDetails theRequest) {
 		String[] pageId = theRequest.getParameters().get(Constants.PARAM_PAGINGACTION);
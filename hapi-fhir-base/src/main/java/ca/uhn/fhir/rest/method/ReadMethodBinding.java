@@ -26,9 +26,13 @@ import java.io.IOException;
 import java.io.InputStream;
 import java.lang.reflect.Method;
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.Collections;
+import java.util.EnumSet;
+import java.util.HashSet;
 import java.util.List;
 import java.util.Map;
+import java.util.Set;
 
 import org.apache.commons.io.IOUtils;
 import org.apache.commons.lang3.StringUtils;
@@ -122,6 +126,16 @@ public class ReadMethodBinding extends BaseResourceReturningMethodBinding implem
 		return ReturnTypeEnum.RESOURCE;
 	}
 
+	@Override
+	public Set<String> getDispatchOperations() {
+		return new HashSet<String>(Arrays.asList(null, Constants.PARAM_HISTORY));
+	}
+
+	@Override
+	public Set<RequestTypeEnum> getDispatchRequestTypes() {
+		return EnumSet.of(RequestTypeEnum.GET);
+	}
+
 	@Override
 	public boolean incomingServerRequestMatchesMethod(RequestDetails theRequest) {
 		if (!theRequest.getResourceName().equals(getResourceName())) {
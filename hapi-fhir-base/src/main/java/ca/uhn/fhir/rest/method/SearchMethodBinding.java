@@ -24,7 +24,9 @@ import static org.apache.commons.lang3.StringUtils.isNotBlank;
 
 import java.lang.reflect.Method;
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.Collections;
+import java.util.EnumSet;
 import java.util.HashSet;
 import java.util.LinkedHashMap;
 import java.util.List;
@@ -133,6 +135,30 @@ public class SearchMethodBinding extends BaseResourceReturningMethodBinding {
 			return ReturnTypeEnum.BUNDLE;
 	}
 
+	@Override
+	public Set<String> getDispatchOperations() {
+		return new HashSet<String>(Arrays.asList(null, Constants.PARAM_SEARCH));
+	}
+
+	@Override
+	public Set<String> getDispatchRequiredParameters() {
+		Set<String> retVal = new HashSet<String>();
+		for (IParameter next : getParameters()) {
+			if (next instanceof BaseQueryParameter && ((BaseQueryParameter) next).isRequired()) {
+				retVal.add(((BaseQueryParameter) next).getName());
+			}
+		}
+		if (myQueryName != null) {
+			retVal.add(Constants.PARAM_QUERY);
+		}
+		return retVal;
+	}
+
+	@Override
+	public Set<RequestTypeEnum> getDispatchRequestTypes() {
+		return EnumSet.of(RequestTypeEnum.GET, RequestTypeEnum.POST);
+	}
+
 	@Override
 	public boolean incomingServerRequestMatchesMethod(RequestDetails theRequest) {
 		
@@ -0,0 +1,49 @@
+package ca.uhn.fhir.rest.server;
+
+/*
+ * #%L
+ * HAPI FHIR - Core Library
+ * %%
+ * Copyright (C) 2014 - 2017 University Health Network
+ * %%
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * #L%
+ */
+
+import java.util.List;
+
+import org.hl7.fhir.instance.model.api.IBaseResource;
+
+import ca.uhn.fhir.parser.LazyResourceBody;
+
+/**
+ * A bundle provider which is able to return resources without parsing their stored bodies.
+ * The server asks for these when nothing will look at the contents of the resources before
+ * they are encoded into the response, so the stored bodies can be copied into the response
+ * as is.
+ */
+public interface IPassThroughBundleProvider extends IBundleProvider {
+
+	/**
+	 * Behaves like {@link #getResources(int, int)}, except that any of the returned resources
+	 * may be a placeholder holding only its ID and metadata, with the stored body attached
+	 * as a {@link LazyResourceBody}.
+	 * 
+	 * @param theFromIndex
+	 *           The low index (inclusive) to return
+	 * @param theToIndex
+	 *           The high index (exclusive) to return
+	 */
+	List<IBaseResource> getResourcesWithLazyBodies(int theFromIndex, int theToIndex);
+
+}
@@ -0,0 +1,200 @@
+package ca.uhn.fhir.rest.server;
+
+/*
+ * #%L
+ * HAPI FHIR - Core Library
+ * %%
+ * Copyright (C) 2014 - 2017 University Health Network
+ * %%
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * #L%
+ */
+
+
+import static org.apache.commons.lang3.StringUtils.isBlank;
+
+import java.util.ArrayList;
+import java.util.BitSet;
+import java.util.EnumMap;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import ca.uhn.fhir.rest.api.RequestTypeEnum;
+import ca.uhn.fhir.rest.method.BaseMethodBinding;
+import ca.uhn.fhir.rest.method.RequestDetails;
+
+/**
+ * Narrows down the methods of a {@link ResourceBinding} which need to be checked against an incoming
+ * request, using the request type, operation and parameter names which each method declares it needs
+ * (see {@link BaseMethodBinding#getDispatchOperations()}).
+ * <p>
+ * The candidates are still checked in the order in which the methods were bound, so this always
+ * returns the same method that checking every method in turn would.
+ * </p>
+ */
+class MethodBindingDispatchIndex {
+
+	private static final org.slf4j.Logger ourLog = org.slf4j.LoggerFactory.getLogger(MethodBindingDispatchIndex.class);
+
+	private final Map<RequestTypeEnum, Map<String, Group>> myGroups = new EnumMap<RequestTypeEnum, Map<String, Group>>(RequestTypeEnum.class);
+	private final List<BaseMethodBinding<?>> myMethods;
+	private final Map<RequestTypeEnum, Group> myOtherOperationGroups = new EnumMap<RequestTypeEnum, Group>(RequestTypeEnum.class);
+
+	MethodBindingDispatchIndex(List<BaseMethodBinding<?>> theMethods) {
+		myMethods = new ArrayList<BaseMethodBinding<?>>(theMethods);
+
+		Set<String> operations = new HashSet<String>();
+		operations.add(null);
+		Map<String, Integer> parameterCounts = new HashMap<String, Integer>();
+		for (BaseMethodBinding<?> next : myMethods) {
+			Set<String> nextOperations = next.getDispatchOperations();
+			if (nextOperations != null) {
+				operations.addAll(nextOperations);
+			}
+			for (String nextParam : next.getDispatchRequiredParameters()) {
+				Integer count = parameterCounts.get(nextParam);
+				parameterCounts.put(nextParam, count == null ? 1 : count + 1);
+			}
+		}
+
+		for (RequestTypeEnum nextType : RequestTypeEnum.values()) {
+			Map<String, Group> groups = new HashMap<String, Group>();
+			for (String nextOperation : operations) {
+				groups.put(nextOperation, new Group(selectMethods(nextType, nextOperation, false), parameterCounts));
+			}
+			myGroups.put(nextType, groups);
+			myOtherOperationGroups.put(nextType, new Group(selectMethods(nextType, null, true), parameterCounts));
+		}
+	}
+
+	BaseMethodBinding<?> getMethod(RequestDetails theRequest) {
+		RequestTypeEnum requestType = theRequest.getRequestType();
+		String operation = theRequest.getOperation();
+		if (requestType == null || (operation != null && isBlank(operation))) {
+			return findFirstMatch(myMethods, theRequest);
+		}
+
+		Group group = myGroups.get(requestType).get(operation);
+		if (group == null) {
+			group = myOtherOperationGroups.get(requestType);
+		}
+		return group.getMethod(theRequest);
+	}
+
+	int getMethodCount() {
+		return myMethods.size();
+	}
+
+	/**
+	 * @param theOtherOperation
+	 *           If <code>true</code>, selects the methods which could match an operation that none of the methods
+	 *           name explicitly
+	 */
+	private List<BaseMethodBinding<?>> selectMethods(RequestTypeEnum theRequestType, String theOperation, boolean theOtherOperation) {
+		List<BaseMethodBinding<?>> retVal = new ArrayList<BaseMethodBinding<?>>();
+		for (BaseMethodBinding<?> next : myMethods) {
+			Set<RequestTypeEnum> requestTypes = next.getDispatchRequestTypes();
+			if (requestTypes != null && !requestTypes.contains(theRequestType)) {
+				continue;
+			}
+			Set<String> operations = next.getDispatchOperations();
+			if (operations != null && (theOtherOperation || !operations.contains(theOperation))) {
+				continue;
+			}
+			retVal.add(next);
+		}
+		return retVal;
+	}
+
+	static BaseMethodBinding<?> findFirstMatch(List<BaseMethodBinding<?>> theMethods, RequestDetails theRequest) {
+		for (BaseMethodBinding<?> rm : theMethods) {
+			if (rm.incomingServerRequestMatchesMethod(theRequest)) {
+				ourLog.debug("Handler {} matches", rm);
+				return rm;
+			} else {
+				ourLog.trace("Handler {} does not match", rm);
+			}
+		}
+		return null;
+	}
+
+	private static class Group {
+
+		/**
+		 * Methods with required parameters, keyed by the least common one
+		 */
+		private final Map<String, BitSet> myKeyedMethods = new HashMap<String, BitSet>();
+		private final List<BaseMethodBinding<?>> myMethods;
+		private final BitSet myUnkeyedMethods = new BitSet();
+
+		Group(List<BaseMethodBinding<?>> theMethods, Map<String, Integer> theParameterCounts) {
+			myMethods = theMethods;
+			for (int i = 0; i < theMethods.size(); i++) {
+				String key = null;
+				for (String nextParam : theMethods.get(i).getDispatchRequiredParameters()) {
+					if (key == null || theParameterCounts.get(nextParam) < theParameterCounts.get(key)) {
+						key = nextParam;
+					}
+				}
+				if (key == null) {
+					myUnkeyedMethods.set(i);
+				} else {
+					BitSet methods = myKeyedMethods.get(key);
+					if (methods == null) {
+						methods = new BitSet();
+						myKeyedMethods.put(key, methods);
+					}
+					methods.set(i);
+				}
+			}
+		}
+
+		private void addKeyedMethods(BitSet theCandidates, Map<String, ?> theParameters) {
+			if (theParameters == null) {
+				return;
+			}
+			for (String next : theParameters.keySet()) {
+				BitSet methods = myKeyedMethods.get(next);
+				if (methods != null) {
+					theCandidates.or(methods);
+				}
+			}
+		}
+
+		BaseMethodBinding<?> getMethod(RequestDetails theRequest) {
+			if (myKeyedMethods.isEmpty()) {
+				return findFirstMatch(myMethods, theRequest);
+			}
+
+			BitSet candidates = (BitSet) myUnkeyedMethods.clone();
+			addKeyedMethods(candidates, theRequest.getParameters());
+			addKeyedMethods(candidates, theRequest.getUnqualifiedToQualifiedNames());
+
+			for (int i = candidates.nextSetBit(0); i >= 0; i = candidates.nextSetBit(i + 1)) {
+				BaseMethodBinding<?> next = myMethods.get(i);
+				if (next.incomingServerRequestMatchesMethod(theRequest)) {
+					ourLog.debug("Handler {} matches", next);
+					return next;
+				} else {
+					ourLog.trace("Handler {} does not match", next);
+				}
+			}
+			return null;
+		}
+
+	}
+
+}
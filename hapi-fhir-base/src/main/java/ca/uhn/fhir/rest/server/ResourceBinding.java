@@ -35,6 +35,7 @@ public class ResourceBinding {
 
 	private String resourceName;
 	private List<BaseMethodBinding<?>> methods = new ArrayList<BaseMethodBinding<?>>();
+	private volatile MethodBindingDispatchIndex myDispatchIndex;
 
 	public ResourceBinding() {
 	}
@@ -51,15 +52,22 @@ public class ResourceBinding {
 		}
 
 		ourLog.debug("Looking for a handler for {}", theRequest);
-		for (BaseMethodBinding<?> rm : methods) {
-			if (rm.incomingServerRequestMatchesMethod(theRequest)) {
-				ourLog.debug("Handler {} matches", rm);
-				return rm;
-			} else {
-				ourLog.trace("Handler {} does not match", rm);
-			}
+		MethodBindingDispatchIndex dispatchIndex = myDispatchIndex;
+		if (dispatchIndex == null || dispatchIndex.getMethodCount() != methods.size()) {
+			dispatchIndex = buildDispatchIndex();
 		}
-		return null;
+		return dispatchIndex.getMethod(theRequest);
+	}
+
+	/**
+	 * Builds the index used by {@link #getMethod(RequestDetails)} to narrow down which methods need
+	 * to be checked against a request. This is called by the server once all of the providers are
+	 * registered, and is otherwise built on the first request after the methods change.
+	 */
+	MethodBindingDispatchIndex buildDispatchIndex() {
+		MethodBindingDispatchIndex retVal = new MethodBindingDispatchIndex(methods);
+		myDispatchIndex = retVal;
+		return retVal;
 	}
 
 	public String getResourceName() {
@@ -76,10 +84,12 @@ public class ResourceBinding {
 
 	public void setMethods(List<BaseMethodBinding<?>> methods) {
 		this.methods = methods;
+		myDispatchIndex = null;
 	}
 
 	public void addMethod(BaseMethodBinding<?> method) {
 		this.methods.add(method);
+		myDispatchIndex = null;
 	}
 
 	@Override
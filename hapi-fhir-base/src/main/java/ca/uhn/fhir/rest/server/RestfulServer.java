@@ -40,10 +40,25 @@ import java.util.List;
 import java.util.Map;
 import java.util.Map.Entry;
 import java.util.StringTokenizer;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReference;
 import java.util.concurrent.locks.Lock;
 import java.util.concurrent.locks.ReentrantLock;
 import java.util.jar.Manifest;
 
+import javax.servlet.AsyncContext;
+import javax.servlet.AsyncEvent;
+import javax.servlet.AsyncListener;
 import javax.servlet.ServletException;
 import javax.servlet.UnavailableException;
 import javax.servlet.http.HttpServlet;
@@ -60,6 +75,7 @@ import ca.uhn.fhir.context.ConfigurationException;
 import ca.uhn.fhir.context.FhirContext;
 import ca.uhn.fhir.context.ProvidedResourceScanner;
 import ca.uhn.fhir.context.RuntimeResourceDefinition;
+import ca.uhn.fhir.parser.BundleEncodingMetrics;
 import ca.uhn.fhir.parser.IParser;
 import ca.uhn.fhir.rest.annotation.Destroy;
 import ca.uhn.fhir.rest.annotation.IdParam;
@@ -79,6 +95,8 @@ import ca.uhn.fhir.rest.server.exceptions.ResourceNotFoundException;
 import ca.uhn.fhir.rest.server.interceptor.ExceptionHandlingInterceptor;
 import ca.uhn.fhir.rest.server.interceptor.IServerInterceptor;
 import ca.uhn.fhir.rest.server.interceptor.ResponseHighlighterInterceptor;
+import ca.uhn.fhir.rest.server.servlet.AsyncServletRequest;
+import ca.uhn.fhir.rest.server.servlet.BufferedServletResponse;
 import ca.uhn.fhir.rest.server.servlet.ServletRequestDetails;
 import ca.uhn.fhir.util.CoverageIgnore;
 import ca.uhn.fhir.util.ReflectionUtil;
@@ -94,6 +112,17 @@ public class RestfulServer extends HttpServlet implements IRestfulServer<Servlet
 	 */
 	public static final String REQUEST_START_TIME = RestfulServer.class.getName() + "REQUEST_START_TIME";
 
+	/**
+	 * Number of requests per thread which may wait for a thread of the executor created by
+	 * {@link #getAsyncRequestExecutor()}
+	 */
+	public static final int ASYNC_REQUEST_QUEUE_CAPACITY_PER_THREAD = 10;
+
+	/**
+	 * Default setting for {@link #setAsyncRequestTimeout(long) the asynchronous request timeout}: 60000 milliseconds
+	 */
+	public static final long DEFAULT_ASYNC_REQUEST_TIMEOUT = 60 * 1000L;
+
 	/**
 	 * Default setting for {@link #setETagSupport(ETagSupportEnum) ETag Support}: {@link ETagSupportEnum#ENABLED}
 	 */
@@ -109,6 +138,11 @@ public class RestfulServer extends HttpServlet implements IRestfulServer<Servlet
 	 * context, in order to avoid a dependency on Servlet-API 3.0+
 	 */
 	public static final String SERVLET_CONTEXT_ATTRIBUTE = "ca.uhn.fhir.rest.server.RestfulServer.servlet_context";
+	private transient ExecutorService myAsyncRequestExecutor;
+	private boolean myAsyncRequestExecutorCreated;
+	private boolean myAsyncRequestProcessing;
+	private long myAsyncRequestTimeout = DEFAULT_ASYNC_REQUEST_TIMEOUT;
+	private final BundleEncodingMetrics myBundleEncodingMetrics = new BundleEncodingMetrics();
 	private BundleInclusionRule myBundleInclusionRule = BundleInclusionRule.BASED_ON_INCLUDES;
 	private boolean myDefaultPrettyPrint = false;
 	private EncodingEnum myDefaultResponseEncoding = EncodingEnum.XML;
@@ -118,6 +152,9 @@ public class RestfulServer extends HttpServlet implements IRestfulServer<Servlet
 	private String myImplementationDescription;
 	private final List<IServerInterceptor> myInterceptors = new ArrayList<IServerInterceptor>();
 	private IPagingProvider myPagingProvider;
+	private transient ExecutorService myParallelBundleEncodingExecutor;
+	private boolean myParallelBundleEncodingExecutorCreated;
+	private int myParallelBundleEncodingThreshold;
 	private final List<Object> myPlainProviders = new ArrayList<Object>();
 	private Lock myProviderRegistrationMutex = new ReentrantLock();
 	private Map<String, ResourceBinding> myResourceNameToBinding = new HashMap<String, ResourceBinding>();
@@ -239,6 +276,18 @@ public class RestfulServer extends HttpServlet implements IRestfulServer<Servlet
 				invokeDestroy(next);
 			}
 		}
+		synchronized (this) {
+			if (myParallelBundleEncodingExecutorCreated) {
+				myParallelBundleEncodingExecutor.shutdown();
+				myParallelBundleEncodingExecutor = null;
+				myParallelBundleEncodingExecutorCreated = false;
+			}
+			if (myAsyncRequestExecutorCreated) {
+				myAsyncRequestExecutor.shutdown();
+				myAsyncRequestExecutor = null;
+				myAsyncRequestExecutorCreated = false;
+			}
+		}
 	}
 
 	public BaseMethodBinding<?> determineResourceMethod(RequestDetails requestDetails, String requestPath) {
@@ -378,6 +427,43 @@ public class RestfulServer extends HttpServlet implements IRestfulServer<Servlet
 		return myFhirContext.getAddProfileTagWhenEncoding();
 	}
 
+	/**
+	 * Returns the executor which processes requests when asynchronous request processing is
+	 * enabled. If none has been set, a pool with four threads per available processor is created
+	 * the first time this method is called. At most {@link #ASYNC_REQUEST_QUEUE_CAPACITY_PER_THREAD}
+	 * requests per thread wait in its queue, further requests are rejected with an HTTP 503.
+	 *
+	 * @see #setAsyncRequestProcessing(boolean)
+	 */
+	public synchronized ExecutorService getAsyncRequestExecutor() {
+		if (myAsyncRequestExecutor == null) {
+			int threads = Runtime.getRuntime().availableProcessors() * 4;
+			myAsyncRequestExecutor = newDaemonThreadPool("request-processor-", threads, new ArrayBlockingQueue<Runnable>(threads * ASYNC_REQUEST_QUEUE_CAPACITY_PER_THREAD));
+			myAsyncRequestExecutorCreated = true;
+		}
+		return myAsyncRequestExecutor;
+	}
+
+	/**
+	 * Returns the number of milliseconds an asynchronously processed request may take, including
+	 * writing the response to the client, before it is abandoned. Default is
+	 * {@link #DEFAULT_ASYNC_REQUEST_TIMEOUT}.
+	 *
+	 * @see #setAsyncRequestTimeout(long)
+	 */
+	public long getAsyncRequestTimeout() {
+		return myAsyncRequestTimeout;
+	}
+
+	/**
+	 * Returns the counts and timings of the Bundles this server has encoded as JSON
+	 *
+	 * @see #setParallelBundleEncodingThreshold(int)
+	 */
+	public BundleEncodingMetrics getBundleEncodingMetrics() {
+		return myBundleEncodingMetrics;
+	}
+
 	@Override
 	public BundleInclusionRule getBundleInclusionRule() {
 		return myBundleInclusionRule;
@@ -428,6 +514,31 @@ public class RestfulServer extends HttpServlet implements IRestfulServer<Servlet
 		return myPagingProvider;
 	}
 
+	/**
+	 * Returns the executor which encodes the entries of large Bundles in parallel. If none
+	 * has been set, a pool with one thread per available processor is created the first
+	 * time this method is called.
+	 *
+	 * @see #setParallelBundleEncodingThreshold(int)
+	 */
+	public synchronized ExecutorService getParallelBundleEncodingExecutor() {
+		if (myParallelBundleEncodingExecutor == null) {
+			myParallelBundleEncodingExecutor = newDaemonThreadPool("bundle-encoder-", Runtime.getRuntime().availableProcessors(), new LinkedBlockingQueue<Runnable>());
+			myParallelBundleEncodingExecutorCreated = true;
+		}
+		return myParallelBundleEncodingExecutor;
+	}
+
+	/**
+	 * Returns the minimum number of entry resources a Bundle must contain for its entries to
+	 * be encoded in parallel, or <code>0</code> if parallel encoding is disabled
+	 *
+	 * @see #setParallelBundleEncodingThreshold(int)
+	 */
+	public int getParallelBundleEncodingThreshold() {
+		return myParallelBundleEncodingThreshold;
+	}
+
 	/**
 	 * Provides the non-resource specific providers which implement method calls on this server
 	 *
@@ -897,6 +1008,15 @@ public class RestfulServer extends HttpServlet implements IRestfulServer<Servlet
 		}
 	}
 
+	/**
+	 * Returns <code>true</code> if requests are processed asynchronously
+	 *
+	 * @see #setAsyncRequestProcessing(boolean)
+	 */
+	public boolean isAsyncRequestProcessing() {
+		return myAsyncRequestProcessing;
+	}
+
 	/**
 	 * Should the server "pretty print" responses by default (requesting clients can always override this default by
 	 * supplying an <code>Accept</code> header in the request, or a <code>_pretty</code>
@@ -1119,6 +1239,14 @@ public class RestfulServer extends HttpServlet implements IRestfulServer<Servlet
 					}
 				}
 			}
+
+			/*
+			 * Index the bound methods now so that the first requests don't have to
+			 */
+			for (ResourceBinding next : myResourceNameToBinding.values()) {
+				next.buildDispatchIndex();
+			}
+			myServerBinding.buildDispatchIndex();
 		}
 	}
 
@@ -1186,7 +1314,113 @@ public class RestfulServer extends HttpServlet implements IRestfulServer<Servlet
 	@Override
 	protected void service(HttpServletRequest theReq, HttpServletResponse theResp) throws ServletException, IOException {
 		theReq.setAttribute(REQUEST_START_TIME, new Date());
-		
+
+		if (myAsyncRequestProcessing && theReq.isAsyncSupported()) {
+			serviceAsynchronously(theReq, theResp);
+		} else {
+			serviceSynchronously(theReq, theResp);
+		}
+	}
+
+	private void serviceAsynchronously(HttpServletRequest theReq, HttpServletResponse theResp) {
+		final AsyncServletRequest request = new AsyncServletRequest(theReq);
+		final BufferedServletResponse response = new BufferedServletResponse(theResp);
+		final AsyncContext asyncContext = theReq.startAsync(theReq, theResp);
+
+		/*
+		 * Whichever of the timeout listener and the response writer sets this first completes
+		 * the context, the other one leaves the response alone
+		 */
+		final AtomicBoolean completed = new AtomicBoolean();
+		final AtomicReference<Future<?>> future = new AtomicReference<Future<?>>();
+
+		asyncContext.setTimeout(myAsyncRequestTimeout);
+		asyncContext.addListener(new AsyncListener() {
+			@Override
+			public void onComplete(AsyncEvent theEvent) {
+				// nothing
+			}
+
+			@Override
+			public void onError(AsyncEvent theEvent) {
+				// nothing
+			}
+
+			@Override
+			public void onStartAsync(AsyncEvent theEvent) {
+				// nothing
+			}
+
+			@Override
+			public void onTimeout(AsyncEvent theEvent) throws IOException {
+				if (!completed.compareAndSet(false, true)) {
+					return;
+				}
+				ourLog.warn("Asynchronous request timed out after {}ms: {}", myAsyncRequestTimeout, request.getRequestURI());
+
+				// Stop the request from being processed, or from starting if it is still queued
+				Future<?> task = future.get();
+				if (task != null) {
+					task.cancel(true);
+				}
+
+				HttpServletResponse servletResponse = (HttpServletResponse) theEvent.getAsyncContext().getResponse();
+				if (!servletResponse.isCommitted()) {
+					servletResponse.sendError(Constants.STATUS_HTTP_500_INTERNAL_ERROR, "Request timed out");
+				}
+				theEvent.getAsyncContext().complete();
+			}
+		});
+
+		Runnable task = new Runnable() {
+			@Override
+			public void run() {
+				if (completed.get()) {
+					// Timed out before it started
+					return;
+				}
+				try {
+					serviceSynchronously(request, response);
+				} catch (Throwable e) {
+					if (completed.get()) {
+						ourLog.debug("Asynchronous request failed after it timed out", e);
+						return;
+					}
+					ourLog.error("Failure during asynchronous request processing", e);
+					response.resetBuffer();
+					response.setStatus(Constants.STATUS_HTTP_500_INTERNAL_ERROR);
+				}
+				if (completed.get()) {
+					// The response has already been completed by the timeout listener
+					return;
+				}
+				try {
+					response.writeNonBlocking(asyncContext, completed);
+				} catch (Throwable e) {
+					if (completed.compareAndSet(false, true)) {
+						ourLog.error("Failed to write response", e);
+						asyncContext.complete();
+					}
+				}
+			}
+		};
+
+		try {
+			future.set(getAsyncRequestExecutor().submit(task));
+		} catch (RejectedExecutionException e) {
+			ourLog.warn("Asynchronous request executor is full, rejecting request: {}", request.getRequestURI());
+			if (completed.compareAndSet(false, true)) {
+				try {
+					theResp.sendError(Constants.STATUS_HTTP_503_SERVICE_UNAVAILABLE, "Server is too busy to process the request");
+				} catch (IOException e1) {
+					ourLog.debug("Failed to send error response", e1);
+				}
+				asyncContext.complete();
+			}
+		}
+	}
+
+	private void serviceSynchronously(HttpServletRequest theReq, HttpServletResponse theResp) throws ServletException, IOException {
 		RequestTypeEnum method;
 		try {
 			method = RequestTypeEnum.valueOf(theReq.getMethod());
@@ -1259,6 +1493,58 @@ public class RestfulServer extends HttpServlet implements IRestfulServer<Servlet
 		myFhirContext.setAddProfileTagWhenEncoding(theAddProfileTag);
 	}
 
+	/**
+	 * Sets the executor which processes requests when asynchronous request processing is enabled.
+	 * If this is not set, the server creates its own pool when it is first needed and shuts it down
+	 * when the server is destroyed. An executor which is supplied here is never shut down by the
+	 * server. Requests which the executor rejects receive an HTTP 503.
+	 *
+	 * @see #setAsyncRequestProcessing(boolean)
+	 */
+	public synchronized void setAsyncRequestExecutor(ExecutorService theExecutor) {
+		if (myAsyncRequestExecutorCreated) {
+			myAsyncRequestExecutor.shutdown();
+			myAsyncRequestExecutorCreated = false;
+		}
+		myAsyncRequestExecutor = theExecutor;
+	}
+
+	/**
+	 * If set to <code>true</code> (the default is <code>false</code>), requests are processed
+	 * using Servlet 3.1 asynchronous processing. The container thread is released as soon as the
+	 * request arrives, the request is then processed (including all interceptor calls, the provider
+	 * method and the encoding of the response) on a thread from {@link #getAsyncRequestExecutor()},
+	 * and the response is written to the client using non-blocking I/O. This means that slow
+	 * providers and slow clients do not tie up container threads.
+	 * <p>
+	 * The servlet must be registered with async support enabled (e.g.
+	 * <code>&lt;async-supported&gt;true&lt;/async-supported&gt;</code> in <code>web.xml</code>),
+	 * otherwise requests continue to be processed on the container thread. Note that the response
+	 * body is held in memory until it has been fully produced, and that state held in thread locals
+	 * by servlet filters will not be visible to providers and interceptors.
+	 * </p>
+	 */
+	public void setAsyncRequestProcessing(boolean theAsyncRequestProcessing) {
+		myAsyncRequestProcessing = theAsyncRequestProcessing;
+	}
+
+	/**
+	 * Sets the number of milliseconds an asynchronously processed request may take, including
+	 * writing the response to the client, before it is abandoned (default is
+	 * {@link #DEFAULT_ASYNC_REQUEST_TIMEOUT}). When a request times out the client receives an
+	 * HTTP 500 if the response has not already been committed, and the connection is released
+	 * along with the buffered response body. A request which is still waiting for a thread is
+	 * never processed, and the thread processing a request which has started is interrupted.
+	 *
+	 * @param theAsyncRequestTimeout
+	 *           The timeout in milliseconds, must be greater than zero
+	 * @see #setAsyncRequestProcessing(boolean)
+	 */
+	public void setAsyncRequestTimeout(long theAsyncRequestTimeout) {
+		Validate.isTrue(theAsyncRequestTimeout > 0, "theAsyncRequestTimeout must be greater than 0");
+		myAsyncRequestTimeout = theAsyncRequestTimeout;
+	}
+
 	/**
 	 * Set how bundle factory should decide whether referenced resources should be included in bundles
 	 *
@@ -1368,6 +1654,40 @@ public class RestfulServer extends HttpServlet implements IRestfulServer<Servlet
 		myPagingProvider = thePagingProvider;
 	}
 
+	/**
+	 * Sets the executor which encodes the entries of large Bundles in parallel. If this is not
+	 * set, the server creates its own pool when it is first needed and shuts it down when the
+	 * server is destroyed. An executor which is supplied here is never shut down by the server.
+	 *
+	 * @see #setParallelBundleEncodingThreshold(int)
+	 */
+	public synchronized void setParallelBundleEncodingExecutor(ExecutorService theExecutor) {
+		if (myParallelBundleEncodingExecutorCreated) {
+			myParallelBundleEncodingExecutor.shutdown();
+			myParallelBundleEncodingExecutorCreated = false;
+		}
+		myParallelBundleEncodingExecutor = theExecutor;
+	}
+
+	/**
+	 * If set to a value greater than <code>0</code> (the default is <code>0</code>), JSON
+	 * responses containing a Bundle with at least this many entry resources will have those
+	 * entries encoded in parallel, using the executor returned by
+	 * {@link #getParallelBundleEncodingExecutor()}. The response is the same as it would be
+	 * without this setting, it is just produced sooner for large Bundles.
+	 * <p>
+	 * Parallel encoding only applies to responses which are not pretty printed and which are
+	 * not limited to specific elements using <code>_elements</code>, <code>_summary=text</code>
+	 * or <code>_summary=count</code>.
+	 * The time spent encoding Bundles is recorded in {@link #getBundleEncodingMetrics()}
+	 * whether or not this is enabled.
+	 * </p>
+	 */
+	public void setParallelBundleEncodingThreshold(int theParallelBundleEncodingThreshold) {
+		Validate.isTrue(theParallelBundleEncodingThreshold >= 0, "theParallelBundleEncodingThreshold must not be negative");
+		myParallelBundleEncodingThreshold = theParallelBundleEncodingThreshold;
+	}
+
 	/**
 	 * Sets the non-resource specific providers which implement method calls on this server.
 	 *
@@ -1561,6 +1881,19 @@ public class RestfulServer extends HttpServlet implements IRestfulServer<Servlet
 		theResponse.getWriter().write(theException.getMessage());
 	}
 
+	private static ExecutorService newDaemonThreadPool(final String theThreadNamePrefix, int theThreads, BlockingQueue<Runnable> theQueue) {
+		return new ThreadPoolExecutor(theThreads, theThreads, 0L, TimeUnit.MILLISECONDS, theQueue, new ThreadFactory() {
+			private final AtomicInteger myThreadIndex = new AtomicInteger();
+
+			@Override
+			public Thread newThread(Runnable theRunnable) {
+				Thread retVal = new Thread(theRunnable, theThreadNamePrefix + myThreadIndex.incrementAndGet());
+				retVal.setDaemon(true);
+				return retVal;
+			}
+		});
+	}
+
 	private static boolean partIsOperation(String nextString) {
 		return nextString.length() > 0 && (nextString.charAt(0) == '_' || nextString.charAt(0) == '$' || nextString.equals(Constants.URL_TOKEN_METADATA));
 	}
@@ -59,6 +59,7 @@ import ca.uhn.fhir.model.api.TagList;
 import ca.uhn.fhir.model.primitive.InstantDt;
 import ca.uhn.fhir.model.valueset.BundleTypeEnum;
 import ca.uhn.fhir.parser.IParser;
+import ca.uhn.fhir.parser.JsonParser;
 import ca.uhn.fhir.rest.api.PreferReturnEnum;
 import ca.uhn.fhir.rest.api.SummaryEnum;
 import ca.uhn.fhir.rest.client.api.IHttpRequest;
@@ -447,6 +448,15 @@ public class RestfulServerUtils {
 
 		configureResponseParser(theRequestDetails, parser);
 
+		if (parser instanceof JsonParser && theRequestDetails.getServer() instanceof RestfulServer) {
+			RestfulServer server = (RestfulServer) theRequestDetails.getServer();
+			JsonParser jsonParser = (JsonParser) parser;
+			jsonParser.setEncodingMetrics(server.getBundleEncodingMetrics());
+			if (server.getParallelBundleEncodingThreshold() > 0) {
+				jsonParser.setParallelEncoding(server.getParallelBundleEncodingExecutor(), server.getParallelBundleEncodingThreshold());
+			}
+		}
+
 		return parser;
 	}
 
@@ -531,6 +541,36 @@ public class RestfulServerUtils {
 		return null;
 	}
 
+	/**
+	 * Returns a bundle provider which supplies resources without parsing their stored bodies,
+	 * if the given provider is able to and nothing will need the contents of the resources
+	 * while responding to this request. This is the case when there are no interceptors, no
+	 * narrative generator, and the response is compact JSON with no <code>_summary</code> or
+	 * <code>_elements</code>. Otherwise the provider is returned unchanged.
+	 */
+	public static IBundleProvider passThroughResourceBodiesIfPossible(IRestfulServer<?> theServer, RequestDetails theRequest, IBundleProvider theProvider) {
+		IBundleProvider provider = theProvider;
+		if (provider instanceof PassThroughBundleProvider) {
+			// A stored result list from an earlier request, which might have had different parameters
+			provider = ((PassThroughBundleProvider) provider).myDelegate;
+		}
+
+		if (!(provider instanceof IPassThroughBundleProvider)) {
+			return provider;
+		}
+		if (!theServer.getInterceptors().isEmpty() || theServer.getFhirContext().getNarrativeGenerator() != null) {
+			return provider;
+		}
+		if (determineResponseEncodingWithDefault(theRequest).getEncoding() != EncodingEnum.JSON || prettyPrintResponse(theServer, theRequest)) {
+			return provider;
+		}
+		if (!determineSummaryMode(theRequest).equals(Collections.singleton(SummaryEnum.FALSE)) || ElementsParameter.getElementsValueOrNull(theRequest) != null) {
+			return provider;
+		}
+
+		return new PassThroughBundleProvider((IPassThroughBundleProvider) provider);
+	}
+
 	public static boolean prettyPrintResponse(IRestfulServerDefaults theServer, RequestDetails theRequest) {
 		Map<String, String[]> requestParams = theRequest.getParameters();
 		String[] pretty = requestParams.get(Constants.PARAM_PRETTY);
@@ -744,6 +784,44 @@ public class RestfulServerUtils {
 		}
 	}
 
+	/**
+	 * Wraps an {@link IPassThroughBundleProvider} so that the resources it returns for this
+	 * response carry their stored bodies unparsed. Returned by
+	 * {@link #passThroughResourceBodiesIfPossible(IRestfulServer, RequestDetails, IBundleProvider)}
+	 */
+	private static class PassThroughBundleProvider implements IBundleProvider {
+		private final IPassThroughBundleProvider myDelegate;
+
+		PassThroughBundleProvider(IPassThroughBundleProvider theDelegate) {
+			myDelegate = theDelegate;
+		}
+
+		@Override
+		public IPrimitiveType<Date> getPublished() {
+			return myDelegate.getPublished();
+		}
+
+		@Override
+		public List<IBaseResource> getResources(int theFromIndex, int theToIndex) {
+			return myDelegate.getResourcesWithLazyBodies(theFromIndex, theToIndex);
+		}
+
+		@Override
+		public String getUuid() {
+			return myDelegate.getUuid();
+		}
+
+		@Override
+		public Integer preferredPageSize() {
+			return myDelegate.preferredPageSize();
+		}
+
+		@Override
+		public int size() {
+			return myDelegate.size();
+		}
+	}
+
 	/**
 	 * Return type for {@link RestfulServerUtils#determineRequestEncodingNoDefault(RequestDetails)}
 	 */
@@ -0,0 +1,82 @@
+package ca.uhn.fhir.rest.server.servlet;
+
+/*
+ * #%L
+ * HAPI FHIR - Core Library
+ * %%
+ * Copyright (C) 2014 - 2017 University Health Network
+ * %%
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * #L%
+ */
+
+
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletRequestWrapper;
+
+/**
+ * Request wrapper used by servers which process requests asynchronously (see
+ * {@link ca.uhn.fhir.rest.server.RestfulServer#setAsyncRequestProcessing(boolean)}). Containers
+ * may reset the path information of a request once the thread which received it has returned
+ * (e.g. Jetty restores the servlet path when leaving the servlet), so this captures it up front.
+ */
+public class AsyncServletRequest extends HttpServletRequestWrapper {
+
+	private final String myContextPath;
+	private final String myPathInfo;
+	private final String myQueryString;
+	private final String myRequestUri;
+	private final String myRequestUrl;
+	private final String myServletPath;
+
+	public AsyncServletRequest(HttpServletRequest theRequest) {
+		super(theRequest);
+		myContextPath = theRequest.getContextPath();
+		myPathInfo = theRequest.getPathInfo();
+		myQueryString = theRequest.getQueryString();
+		myRequestUri = theRequest.getRequestURI();
+		myRequestUrl = theRequest.getRequestURL().toString();
+		myServletPath = theRequest.getServletPath();
+	}
+
+	@Override
+	public String getContextPath() {
+		return myContextPath;
+	}
+
+	@Override
+	public String getPathInfo() {
+		return myPathInfo;
+	}
+
+	@Override
+	public String getQueryString() {
+		return myQueryString;
+	}
+
+	@Override
+	public String getRequestURI() {
+		return myRequestUri;
+	}
+
+	@Override
+	public StringBuffer getRequestURL() {
+		return new StringBuffer(myRequestUrl);
+	}
+
+	@Override
+	public String getServletPath() {
+		return myServletPath;
+	}
+
+}
@@ -0,0 +1,202 @@
+package ca.uhn.fhir.rest.server.servlet;
+
+/*
+ * #%L
+ * HAPI FHIR - Core Library
+ * %%
+ * Copyright (C) 2014 - 2017 University Health Network
+ * %%
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * #L%
+ */
+
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.io.PrintWriter;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+import javax.servlet.AsyncContext;
+import javax.servlet.ServletOutputStream;
+import javax.servlet.WriteListener;
+import javax.servlet.http.HttpServletResponse;
+import javax.servlet.http.HttpServletResponseWrapper;
+
+import ca.uhn.fhir.rest.server.Constants;
+
+/**
+ * Response wrapper used by servers which process requests asynchronously (see
+ * {@link ca.uhn.fhir.rest.server.RestfulServer#setAsyncRequestProcessing(boolean)}). Headers and
+ * the status are passed straight through to the wrapped response, but the body is held in memory
+ * until the request has been processed, and is then written using non-blocking I/O so that no
+ * thread is held while a slow client reads it.
+ */
+public class BufferedServletResponse extends HttpServletResponseWrapper {
+
+	private static final int CHUNK_SIZE = 8192;
+	private static final org.slf4j.Logger ourLog = org.slf4j.LoggerFactory.getLogger(BufferedServletResponse.class);
+
+	private final ByteArrayOutputStream myBody = new ByteArrayOutputStream();
+	private ServletOutputStream myOutputStream;
+	private PrintWriter myWriter;
+
+	public BufferedServletResponse(HttpServletResponse theResponse) {
+		super(theResponse);
+	}
+
+	@Override
+	public void flushBuffer() throws IOException {
+		if (myWriter != null) {
+			myWriter.flush();
+		}
+	}
+
+	/**
+	 * Returns the body written so far
+	 */
+	public byte[] getBody() {
+		if (myWriter != null) {
+			myWriter.flush();
+		}
+		return myBody.toByteArray();
+	}
+
+	@Override
+	public ServletOutputStream getOutputStream() throws IOException {
+		if (myOutputStream == null) {
+			myOutputStream = new ServletOutputStream() {
+				@Override
+				public boolean isReady() {
+					return true;
+				}
+
+				@Override
+				public void setWriteListener(WriteListener theWriteListener) {
+					throw new IllegalStateException("Response body is buffered");
+				}
+
+				@Override
+				public void write(byte[] theBytes, int theOffset, int theLength) {
+					myBody.write(theBytes, theOffset, theLength);
+				}
+
+				@Override
+				public void write(int theByte) {
+					myBody.write(theByte);
+				}
+			};
+		}
+		if (myWriter != null) {
+			myWriter.flush();
+		}
+		return myOutputStream;
+	}
+
+	@Override
+	public PrintWriter getWriter() throws IOException {
+		if (myWriter == null) {
+			String charset = getCharacterEncoding() != null ? getCharacterEncoding() : Constants.CHARSET_NAME_UTF8;
+			myWriter = new PrintWriter(new OutputStreamWriter(getOutputStream(), charset));
+		}
+		return myWriter;
+	}
+
+	@Override
+	public void reset() {
+		super.reset();
+		resetBuffer();
+	}
+
+	@Override
+	public void resetBuffer() {
+		if (myWriter != null) {
+			myWriter.flush();
+		}
+		myBody.reset();
+	}
+
+	@Override
+	public void sendError(int theStatusCode) throws IOException {
+		sendError(theStatusCode, null);
+	}
+
+	@Override
+	public void sendError(int theStatusCode, String theMessage) throws IOException {
+		resetBuffer();
+		setStatus(theStatusCode);
+		if (theMessage != null) {
+			setContentType(Constants.CT_TEXT_WITH_UTF8);
+			getWriter().write(theMessage);
+		}
+	}
+
+	/**
+	 * Writes the buffered body to the wrapped response without blocking, and completes the
+	 * given context once it has all been written. Writing stops if the context has been
+	 * completed elsewhere (i.e. <code>theCompleted</code> has been set) in the meantime, and the
+	 * context is only completed here if <code>theCompleted</code> can be set.
+	 */
+	public void writeNonBlocking(AsyncContext theAsyncContext, AtomicBoolean theCompleted) throws IOException {
+		byte[] body = getBody();
+		HttpServletResponse response = (HttpServletResponse) getResponse();
+		if (!response.isCommitted()) {
+			response.setContentLength(body.length);
+		}
+		ServletOutputStream outputStream = response.getOutputStream();
+		outputStream.setWriteListener(new BodyWriteListener(theAsyncContext, theCompleted, outputStream, body));
+	}
+
+	private static class BodyWriteListener implements WriteListener {
+
+		private final AsyncContext myAsyncContext;
+		private final byte[] myBody;
+		private final AtomicBoolean myCompleted;
+		private final ServletOutputStream myOutputStream;
+		private int myPosition;
+
+		BodyWriteListener(AsyncContext theAsyncContext, AtomicBoolean theCompleted, ServletOutputStream theOutputStream, byte[] theBody) {
+			myAsyncContext = theAsyncContext;
+			myCompleted = theCompleted;
+			myOutputStream = theOutputStream;
+			myBody = theBody;
+		}
+
+		private void complete() {
+			if (myCompleted.compareAndSet(false, true)) {
+				myAsyncContext.complete();
+			}
+		}
+
+		@Override
+		public void onError(Throwable theThrowable) {
+			ourLog.debug("Failed to write response", theThrowable);
+			complete();
+		}
+
+		@Override
+		public void onWritePossible() throws IOException {
+			while (!myCompleted.get() && myOutputStream.isReady()) {
+				if (myPosition == myBody.length) {
+					complete();
+					return;
+				}
+				int length = Math.min(CHUNK_SIZE, myBody.length - myPosition);
+				myOutputStream.write(myBody, myPosition, length);
+				myPosition += length;
+			}
+		}
+
+	}
+
+}
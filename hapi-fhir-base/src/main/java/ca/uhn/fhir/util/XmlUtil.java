@@ -25,12 +25,15 @@ import java.util.HashMap;
 import java.util.Map;
 
 import javax.xml.stream.*;
+import javax.xml.stream.util.XMLEventAllocator;
 
 import org.apache.commons.lang3.StringEscapeUtils;
 import org.codehaus.stax2.XMLOutputFactory2;
 import org.codehaus.stax2.io.EscapingWriterFactory;
 
 import com.ctc.wstx.api.WstxInputProperties;
+import com.ctc.wstx.evt.DefaultEventAllocator;
+import com.ctc.wstx.stax.WstxInputFactory;
 import com.ctc.wstx.stax.WstxOutputFactory;
 
 import ca.uhn.fhir.context.ConfigurationException;
@@ -1537,12 +1540,45 @@ public class XmlUtil {
 		return outputFactory;
 	}
 
+	/**
+	 * Creates an allocator which can be used to create an event object for the current position of a
+	 * reader returned by {@link #createXmlStreamReader(Reader)} or {@link #createXmlStreamReader(InputStream)}.
+	 * Allocators may keep state, so a new one should be created for each document being read.
+	 * 
+	 * @return Returns the allocator, or <code>null</code> if the StAX implementation in use does not provide one
+	 */
+	public static XMLEventAllocator createXmlEventAllocator() throws FactoryConfigurationError {
+		XMLInputFactory inputFactory = getOrCreateInputFactory();
+		XMLEventAllocator retVal = inputFactory.getEventAllocator();
+		if (retVal == null) {
+			try {
+				Class.forName("com.ctc.wstx.stax.WstxInputFactory");
+				if (inputFactory instanceof WstxInputFactory) {
+					retVal = DefaultEventAllocator.getFastInstance();
+				}
+			} catch (ClassNotFoundException e) {
+				ourLog.debug("WstxInputFactory (Woodstox) not found on classpath");
+			}
+		}
+		if (retVal != null) {
+			retVal = retVal.newInstance();
+		}
+		return retVal;
+	}
+
 	public static XMLEventWriter createXmlFragmentWriter(Writer theWriter) throws FactoryConfigurationError, XMLStreamException {
 		XMLOutputFactory outputFactory = getOrCreateFragmentOutputFactory();
 		XMLEventWriter retVal = outputFactory.createXMLEventWriter(theWriter);
 		return retVal;
 	}
 
+	public static XMLEventReader createXmlReader(InputStream theInputStream) throws FactoryConfigurationError, XMLStreamException {
+		throwUnitTestExceptionIfConfiguredToDoSo();
+
+		XMLInputFactory inputFactory = getOrCreateInputFactory();
+		return inputFactory.createXMLEventReader(theInputStream);
+	}
+
 	public static XMLEventReader createXmlReader(Reader reader) throws FactoryConfigurationError, XMLStreamException {
 		throwUnitTestExceptionIfConfiguredToDoSo();
 		
@@ -1553,6 +1589,39 @@ public class XmlUtil {
 		return er;
 	}
 
+	/**
+	 * Creates a cursor based reader for the given bytes. The character encoding is detected from the
+	 * byte order mark or XML declaration if present, and is otherwise assumed to be UTF-8.
+	 */
+	public static XMLStreamReader createXmlStreamReader(InputStream theInputStream) throws FactoryConfigurationError, XMLStreamException {
+		throwUnitTestExceptionIfConfiguredToDoSo();
+
+		XMLInputFactory inputFactory = getOrCreateInputFactory();
+		return inputFactory.createXMLStreamReader(theInputStream);
+	}
+
+	/**
+	 * Creates a cursor based reader, which unlike the reader returned by {@link #createXmlReader(Reader)}
+	 * does not allocate an event object for each token that is read
+	 */
+	public static XMLStreamReader createXmlStreamReader(Reader theReader) throws FactoryConfigurationError, XMLStreamException {
+		throwUnitTestExceptionIfConfiguredToDoSo();
+
+		XMLInputFactory inputFactory = getOrCreateInputFactory();
+		return inputFactory.createXMLStreamReader(theReader);
+	}
+
+	/**
+	 * Creates a writer which writes UTF-8 directly to the given stream
+	 */
+	public static XMLStreamWriter createXmlStreamWriter(OutputStream theOutputStream) throws FactoryConfigurationError, XMLStreamException {
+		throwUnitTestExceptionIfConfiguredToDoSo();
+
+		XMLOutputFactory outputFactory = getOrCreateOutputFactory();
+		XMLStreamWriter retVal = outputFactory.createXMLStreamWriter(theOutputStream, "UTF-8");
+		return retVal;
+	}
+
 	public static XMLStreamWriter createXmlStreamWriter(Writer theWriter) throws FactoryConfigurationError, XMLStreamException {
 		throwUnitTestExceptionIfConfiguredToDoSo();
 		
@@ -1618,6 +1687,8 @@ public class XmlUtil {
 				if (inputFactory instanceof com.ctc.wstx.stax.WstxInputFactory) {
 					// inputFactory.setProperty(WstxInputFactory.IS_REPLACING_ENTITY_REFERENCES, false);
 					inputFactory.setProperty(WstxInputProperties.P_UNDECLARED_ENTITY_RESOLVER, XML_RESOLVER);
+					// Report malformed text from the cursor reader's next() rather than lazily from getText()
+					inputFactory.setProperty(WstxInputProperties.P_LAZY_PARSING, false);
 					try {
 						inputFactory.setProperty(WstxInputProperties.P_MAX_ATTRIBUTE_SIZE, "100000000");
 					} catch (IllegalArgumentException e) {
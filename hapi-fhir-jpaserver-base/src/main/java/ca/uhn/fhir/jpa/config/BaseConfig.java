@@ -37,8 +37,14 @@ import org.springframework.scheduling.concurrent.ConcurrentTaskScheduler;
 import org.springframework.scheduling.concurrent.ScheduledExecutorFactoryBean;
 import org.springframework.scheduling.config.ScheduledTaskRegistrar;
 
+import ca.uhn.fhir.jpa.dao.BinaryResourceSchemaSvc;
+import ca.uhn.fhir.jpa.dao.ForcedIdCacheSvc;
+import ca.uhn.fhir.jpa.dao.ResourceParsingExecutorSvc;
+import ca.uhn.fhir.jpa.dao.ResourceReadCacheSvc;
+import ca.uhn.fhir.jpa.dao.SubscriptionMatcherSvc;
 import ca.uhn.fhir.jpa.search.DatabaseBackedPagingProvider;
 import ca.uhn.fhir.jpa.search.StaleSearchDeletingSvc;
+import ca.uhn.fhir.jpa.search.StreamingSearchLoaderSvc;
 
 @Configuration
 @EnableScheduling
@@ -63,11 +69,41 @@ public class BaseConfig implements SchedulingConfigurer {
 		return retVal;
 	}
 
+	@Bean(autowire=Autowire.BY_TYPE)
+	public BinaryResourceSchemaSvc binaryResourceSchemaSvc() {
+		return new BinaryResourceSchemaSvc();
+	}
+
+	@Bean(autowire=Autowire.BY_TYPE)
+	public ForcedIdCacheSvc forcedIdCacheSvc() {
+		return new ForcedIdCacheSvc();
+	}
+
+	@Bean(autowire=Autowire.BY_TYPE)
+	public ResourceParsingExecutorSvc resourceParsingExecutorSvc() {
+		return new ResourceParsingExecutorSvc();
+	}
+
+	@Bean(autowire=Autowire.BY_TYPE)
+	public ResourceReadCacheSvc resourceReadCacheSvc() {
+		return new ResourceReadCacheSvc();
+	}
+
 	@Bean(autowire=Autowire.BY_TYPE)
 	public StaleSearchDeletingSvc staleSearchDeletingSvc() {
 		return new StaleSearchDeletingSvc();
 	}
 
+	@Bean(autowire=Autowire.BY_TYPE)
+	public StreamingSearchLoaderSvc streamingSearchLoaderSvc() {
+		return new StreamingSearchLoaderSvc();
+	}
+
+	@Bean(autowire=Autowire.BY_TYPE)
+	public SubscriptionMatcherSvc subscriptionMatcherSvc() {
+		return new SubscriptionMatcherSvc();
+	}
+
 	@Bean()
 	public ScheduledExecutorFactoryBean scheduledExecutorService() {
 		ScheduledExecutorFactoryBean b = new ScheduledExecutorFactoryBean();
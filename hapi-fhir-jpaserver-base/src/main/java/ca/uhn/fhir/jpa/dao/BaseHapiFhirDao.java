@@ -34,8 +34,13 @@ import java.util.HashSet;
 import java.util.Iterator;
 import java.util.List;
 import java.util.Map;
+import java.util.Map.Entry;
 import java.util.Set;
 import java.util.UUID;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
 
 import javax.persistence.EntityManager;
 import javax.persistence.NoResultException;
@@ -109,6 +114,8 @@ import ca.uhn.fhir.jpa.entity.SearchTypeEnum;
 import ca.uhn.fhir.jpa.entity.TagDefinition;
 import ca.uhn.fhir.jpa.entity.TagTypeEnum;
 import ca.uhn.fhir.jpa.search.PersistedJpaBundleProvider;
+import ca.uhn.fhir.jpa.search.StreamingSearchLoaderSvc;
+import ca.uhn.fhir.jpa.util.BinaryResourceCodec;
 import ca.uhn.fhir.jpa.util.DeleteConflict;
 import ca.uhn.fhir.model.api.IQueryParameterAnd;
 import ca.uhn.fhir.model.api.IQueryParameterType;
@@ -126,6 +133,7 @@ import ca.uhn.fhir.model.primitive.XhtmlDt;
 import ca.uhn.fhir.model.valueset.BundleEntryTransactionMethodEnum;
 import ca.uhn.fhir.parser.DataFormatException;
 import ca.uhn.fhir.parser.IParser;
+import ca.uhn.fhir.parser.LazyResourceBody;
 import ca.uhn.fhir.rest.api.RestOperationTypeEnum;
 import ca.uhn.fhir.rest.method.MethodUtil;
 import ca.uhn.fhir.rest.method.QualifiedParamList;
@@ -165,6 +173,11 @@ public abstract class BaseHapiFhirDao<T extends IBaseResource> implements IDao {
 	private static final Map<FhirVersionEnum, FhirContext> ourRetrievalContexts = new HashMap<FhirVersionEnum, FhirContext>();
 
 	private static final String PROCESSING_SUB_REQUEST = "BaseHapiFhirDao.processingSubRequest";
+
+	/**
+	 * Lists of at least this many resources will be parsed in parallel by {@link #toResources(List, boolean)}
+	 */
+	static final int PARALLEL_PARSE_THRESHOLD = 10;
 	/**
 	 * These are parameters which are supported by {@link BaseHapiFhirResourceDao#searchForIds(Map)}
 	 */
@@ -191,6 +204,9 @@ public abstract class BaseHapiFhirDao<T extends IBaseResource> implements IDao {
 		RESOURCE_META_PARAMS = Collections.unmodifiableMap(resourceMetaParams);
 		RESOURCE_META_AND_PARAMS = Collections.unmodifiableMap(resourceMetaAndParams);
 	}
+	@Autowired(required = false)
+	private BinaryResourceSchemaSvc myBinaryResourceSchemaSvc;
+
 	@Autowired(required = true)
 	private DaoConfig myConfig;
 
@@ -199,6 +215,9 @@ public abstract class BaseHapiFhirDao<T extends IBaseResource> implements IDao {
 	@PersistenceContext(type = PersistenceContextType.TRANSACTION)
 	protected EntityManager myEntityManager;
 
+	@Autowired(required = false)
+	private ForcedIdCacheSvc myForcedIdCacheSvc;
+
 	@Autowired
 	protected IForcedIdDao myForcedIdDao;
 
@@ -219,12 +238,24 @@ public abstract class BaseHapiFhirDao<T extends IBaseResource> implements IDao {
 	@Autowired
 	private ISearchParamExtractor mySearchParamExtractor;
 
+	@Autowired(required = false)
+	private ResourceParsingExecutorSvc myResourceParsingExecutorSvc;
+
+	@Autowired(required = false)
+	private ResourceReadCacheSvc myResourceReadCacheSvc;
+
 	@Autowired
 	private ISearchParamRegistry mySearchParamRegistry;
 
 	@Autowired
 	private ISearchResultDao mySearchResultDao;
 
+	@Autowired(required = false)
+	private StreamingSearchLoaderSvc myStreamingSearchLoaderSvc;
+
+	@Autowired(required = false)
+	private SubscriptionMatcherSvc mySubscriptionMatcherSvc;
+
 	protected void clearRequestAsProcessingSubRequest(ServletRequestDetails theRequestDetails) {
 		if (theRequestDetails != null) {
 			theRequestDetails.getUserData().remove(PROCESSING_SUB_REQUEST);
@@ -251,8 +282,11 @@ public abstract class BaseHapiFhirDao<T extends IBaseResource> implements IDao {
 		return InstantDt.withCurrentTime();
 	}
 
+	/**
+	 * @param theReferences The reference values found for each reference search parameter, as returned by {@link ExtractedSearchParams#getResourceLinks()}
+	 */
 	@SuppressWarnings("unchecked")
-	protected void extractResourceLinks(ResourceTable theEntity, IBaseResource theResource, Set<ResourceLink> theLinks) {
+	protected void extractResourceLinks(ResourceTable theEntity, IBaseResource theResource, Map<RuntimeSearchParam, List<PathAndRef>> theReferences, Set<ResourceLink> theLinks) {
 
 		/*
 		 * For now we don't try to load any of the links in a bundle if it's the actual bundle we're storing..
@@ -261,12 +295,8 @@ public abstract class BaseHapiFhirDao<T extends IBaseResource> implements IDao {
 			return;
 		}
 
-		RuntimeResourceDefinition def = getContext().getResourceDefinition(theResource);
-		for (RuntimeSearchParam nextSpDef : def.getSearchParams()) {
-
-			if (nextSpDef.getParamType() != RestSearchParameterTypeEnum.REFERENCE) {
-				continue;
-			}
+		for (Entry<RuntimeSearchParam, List<PathAndRef>> nextEntry : theReferences.entrySet()) {
+			RuntimeSearchParam nextSpDef = nextEntry.getKey();
 
 			String nextPathsUnsplit = nextSpDef.getPath();
 			if (isBlank(nextPathsUnsplit)) {
@@ -278,8 +308,7 @@ public abstract class BaseHapiFhirDao<T extends IBaseResource> implements IDao {
 				multiType = true;
 			}
 
-			List<PathAndRef> refs = mySearchParamExtractor.extractResourceLinks(theResource, nextSpDef);
-			for (PathAndRef nextPathAndRef : refs) {
+			for (PathAndRef nextPathAndRef : nextEntry.getValue()) {
 				Object nextObject = nextPathAndRef.getRef();
 
 				IIdType nextId;
@@ -510,6 +539,18 @@ public abstract class BaseHapiFhirDao<T extends IBaseResource> implements IDao {
 		return myConfig;
 	}
 
+	ResourceReadCacheSvc getResourceReadCacheSvc() {
+		return myResourceReadCacheSvc;
+	}
+
+	StreamingSearchLoaderSvc getStreamingSearchLoaderSvc() {
+		return myStreamingSearchLoaderSvc;
+	}
+
+	protected SubscriptionMatcherSvc getSubscriptionMatcherSvc() {
+		return mySubscriptionMatcherSvc;
+	}
+
 	@Override
 	public FhirContext getContext() {
 		return myContext;
@@ -670,6 +711,7 @@ public abstract class BaseHapiFhirDao<T extends IBaseResource> implements IDao {
 		theProvider.setPlatformTransactionManager(myPlatformTransactionManager);
 		theProvider.setSearchDao(mySearchDao);
 		theProvider.setSearchResultDao(mySearchResultDao);
+		theProvider.setStreamingSearchLoaderSvc(myStreamingSearchLoaderSvc);
 	}
 
 	protected void markRequestAsProcessingSubRequest(ServletRequestDetails theRequestDetails) {
@@ -747,16 +789,33 @@ public abstract class BaseHapiFhirDao<T extends IBaseResource> implements IDao {
 			}
 		}
 
-		String encoded = myConfig.getResourceEncoding().newParser(myContext).encodeResourceToString(theResource);
 		ResourceEncodingEnum encoding = myConfig.getResourceEncoding();
+		byte[] binary = null;
+		if (encoding == ResourceEncodingEnum.BJSON) {
+			BinaryResourceCodec codec = BinaryResourceCodec.forContext(myContext);
+			binary = codec.encode(theResource);
+			if (binary == null) {
+				// Not every resource can be represented by the binary encoding, see BinaryResourceCodec#encode
+				encoding = ResourceEncodingEnum.JSONC;
+			} else if (myBinaryResourceSchemaSvc != null) {
+				myBinaryResourceSchemaSvc.beforeStore(codec);
+			}
+		}
+
+		IParser parser = encoding.newParser(myContext);
 		theEntity.setEncoding(encoding);
 		theEntity.setFhirVersion(myContext.getVersion().getVersion());
 		switch (encoding) {
 		case JSON:
-			theEntity.setResource(encoded.getBytes(Charsets.UTF_8));
+			theEntity.setResource(parser.encodeResourceToString(theResource).getBytes(Charsets.UTF_8));
+			break;
+		case BJSON:
+			theEntity.setResource(binary);
 			break;
 		case JSONC:
-			theEntity.setResource(GZipUtil.compress(encoded));
+		case JSONS:
+		case JSOND:
+			theEntity.setResource(encoding.getCompressionCodec().compress(parser.encodeResourceToString(theResource)));
 			break;
 		}
 
@@ -962,6 +1021,16 @@ public abstract class BaseHapiFhirDao<T extends IBaseResource> implements IDao {
 
 	@Override
 	public <R extends IBaseResource> Set<Long> processMatchUrl(String theMatchUrl, Class<R> theResourceType) {
+		/*
+		 * Rows which are waiting to be written by a bulk transaction aren't visible to the
+		 * search, so write them first. Otherwise conditional operations and inline match URLs
+		 * wouldn't see the resources saved earlier in the same transaction.
+		 */
+		BulkTransactionWriter bulkWriter = BulkTransactionWriter.getActive();
+		if (bulkWriter != null && bulkWriter.hasPendingRows()) {
+			bulkWriter.flush(myEntityManager);
+		}
+
 		RuntimeResourceDefinition resourceDef = getContext().getResourceDefinition(theResourceType);
 
 		SearchParameterMap paramMap = translateMatchUrl(this, myContext, theMatchUrl, resourceDef);
@@ -1037,26 +1106,118 @@ public abstract class BaseHapiFhirDao<T extends IBaseResource> implements IDao {
 		return toResource(resourceType, theEntity, theForHistoryOperation);
 	}
 
-	@SuppressWarnings("unchecked")
 	@Override
 	public <R extends IBaseResource> R toResource(Class<R> theResourceType, BaseHasResource theEntity, boolean theForHistoryOperation) {
-		String resourceText = null;
-		switch (theEntity.getEncoding()) {
-		case JSON:
+		Class<R> resourceType = determineResourceType(theResourceType, theEntity);
+
+		R retVal;
+		try {
+			FhirContext context = getContext(theEntity.getFhirVersion());
+			prepareResourceBody(theEntity.getEncoding(), theEntity.getResource(), context);
+			retVal = parseResourceBody(resourceType, theEntity.getEncoding(), theEntity.getResource(), context);
+		} catch (Exception e) {
+			throw newResourceParseException(resourceType, theEntity, e);
+		}
+
+		return populateResourceMetadata(resourceType, theEntity, theForHistoryOperation, retVal);
+	}
+
+	/**
+	 * Converts a list of entities to resources, preserving order. Decompressing and parsing
+	 * the resource bodies is CPU bound, so for larger lists this is spread across the
+	 * threads of the {@link ResourceParsingExecutorSvc}. All access to the entities themselves (which may trigger
+	 * lazy loading) happens on the calling thread.
+	 */
+	@Override
+	public List<IBaseResource> toResources(List<? extends BaseHasResource> theEntities, boolean theForHistoryOperation) {
+		List<IBaseResource> retVal = new ArrayList<IBaseResource>(theEntities.size());
+		ExecutorService executor = null;
+		if (theEntities.size() >= PARALLEL_PARSE_THRESHOLD && myResourceParsingExecutorSvc != null) {
+			executor = myResourceParsingExecutorSvc.getExecutor();
+		}
+		if (executor == null) {
+			for (BaseHasResource next : theEntities) {
+				retVal.add(toResource(next, theForHistoryOperation));
+			}
+			return retVal;
+		}
+
+		List<Class<? extends IBaseResource>> types = new ArrayList<Class<? extends IBaseResource>>(theEntities.size());
+		List<Future<IBaseResource>> futures = new ArrayList<Future<IBaseResource>>(theEntities.size());
+		for (BaseHasResource next : theEntities) {
+			Class<? extends IBaseResource> implementingClass = myContext.getResourceDefinition(next.getResourceType()).getImplementingClass();
+			final Class<? extends IBaseResource> type = determineResourceType(implementingClass, next);
+			final ResourceEncodingEnum encoding = next.getEncoding();
+			final byte[] resourceBytes = next.getResource();
+			final FhirContext context = getContext(next.getFhirVersion());
 			try {
-				resourceText = new String(theEntity.getResource(), "UTF-8");
-			} catch (UnsupportedEncodingException e) {
-				throw new Error("Should not happen", e);
+				prepareResourceBody(encoding, resourceBytes, context);
+			} catch (Exception e) {
+				throw newResourceParseException(type, next, e);
 			}
-			break;
-		case JSONC:
-			resourceText = GZipUtil.decompress(theEntity.getResource());
-			break;
+			types.add(type);
+			futures.add(executor.submit(new Callable<IBaseResource>() {
+				@Override
+				public IBaseResource call() throws Exception {
+					return parseResourceBody(type, encoding, resourceBytes, context);
+				}
+			}));
 		}
 
-		/*
-		 * Use the appropriate custom type if one is specified in the context
-		 */
+		for (int i = 0; i < theEntities.size(); i++) {
+			BaseHasResource entity = theEntities.get(i);
+			@SuppressWarnings("unchecked")
+			Class<IBaseResource> type = (Class<IBaseResource>) types.get(i);
+			IBaseResource parsed;
+			try {
+				parsed = futures.get(i).get();
+			} catch (InterruptedException e) {
+				Thread.currentThread().interrupt();
+				throw new InternalErrorException(e);
+			} catch (ExecutionException e) {
+				throw newResourceParseException(type, entity, e.getCause());
+			}
+			retVal.add(populateResourceMetadata(type, entity, theForHistoryOperation, parsed));
+		}
+		return retVal;
+	}
+
+	@Override
+	public List<IBaseResource> toResourcesWithLazyBodies(List<? extends BaseHasResource> theEntities, final boolean theForHistoryOperation) {
+		List<IBaseResource> retVal = new ArrayList<IBaseResource>(theEntities.size());
+		for (final BaseHasResource next : theEntities) {
+			ResourceEncodingEnum encoding = next.getEncoding();
+			if (encoding == ResourceEncodingEnum.BJSON || next.getDeleted() != null || next.getFhirVersion() != myContext.getVersion().getVersion()) {
+				retVal.add(toResource(next, theForHistoryOperation));
+				continue;
+			}
+
+			Class<? extends IBaseResource> implementingClass = myContext.getResourceDefinition(next.getResourceType()).getImplementingClass();
+			@SuppressWarnings("unchecked")
+			final Class<IBaseResource> type = (Class<IBaseResource>) determineResourceType(implementingClass, next);
+			IBaseResource placeholder = populateResourceMetadata(type, next, theForHistoryOperation, myContext.getResourceDefinition(type).newInstance());
+
+			/*
+			 * The entity's tags and ID have been loaded by populating the placeholder, so
+			 * the entity can still be used to populate the parsed body outside of the session
+			 */
+			String resourceText = decodeResourceText(encoding, next.getResource());
+			LazyResourceBody.attach(placeholder, new LazyResourceBody(resourceText) {
+				@Override
+				protected void populateParsedResource(IBaseResource theParsed) {
+					populateResourceMetadata(type, next, theForHistoryOperation, theParsed);
+				}
+			});
+			retVal.add(placeholder);
+		}
+		return retVal;
+	}
+
+	/**
+	 * Use the appropriate custom type if one is specified in the context
+	 */
+	@SuppressWarnings("unchecked")
+	private <R extends IBaseResource> Class<R> determineResourceType(Class<R> theResourceType, BaseHasResource theEntity) {
 		Class<R> resourceType = theResourceType;
 		if (myContext.hasDefaultTypeForProfile()) {
 			for (BaseTag nextTag : theEntity.getTags()) {
@@ -1073,36 +1234,34 @@ public abstract class BaseHapiFhirDao<T extends IBaseResource> implements IDao {
 				}
 			}
 		}
+		return resourceType;
+	}
 
-		IParser parser = theEntity.getEncoding().newParser(getContext(theEntity.getFhirVersion()));
-		R retVal;
-		try {
-			retVal = parser.parseResource(resourceType, resourceText);
-		} catch (Exception e) {
-			StringBuilder b = new StringBuilder();
-			b.append("Failed to parse database resource[");
-			b.append(resourceType);
-			b.append("/");
-			b.append(theEntity.getIdDt().getIdPart());
-			b.append(" (pid ");
-			b.append(theEntity.getId());
-			b.append(", version ");
-			b.append(myContext.getVersion().getVersion());
-			b.append("): ");
-			b.append(e.getMessage());
-			String msg = b.toString();
-			ourLog.error(msg, e);
-			throw new DataFormatException(msg, e);
-		}
-
-		if (retVal instanceof IResource) {
-			IResource res = (IResource) retVal;
-			retVal = populateResourceMetadataHapi(resourceType, theEntity, theForHistoryOperation, res);
+	private DataFormatException newResourceParseException(Class<?> theResourceType, BaseHasResource theEntity, Throwable theCause) {
+		StringBuilder b = new StringBuilder();
+		b.append("Failed to parse database resource[");
+		b.append(theResourceType);
+		b.append("/");
+		b.append(theEntity.getIdDt().getIdPart());
+		b.append(" (pid ");
+		b.append(theEntity.getId());
+		b.append(", version ");
+		b.append(myContext.getVersion().getVersion());
+		b.append("): ");
+		b.append(theCause.getMessage());
+		String msg = b.toString();
+		ourLog.error(msg, theCause);
+		return new DataFormatException(msg, theCause);
+	}
+
+	private <R extends IBaseResource> R populateResourceMetadata(Class<R> theResourceType, BaseHasResource theEntity, boolean theForHistoryOperation, R theResource) {
+		if (theResource instanceof IResource) {
+			IResource res = (IResource) theResource;
+			return populateResourceMetadataHapi(theResourceType, theEntity, theForHistoryOperation, res);
 		} else {
-			IAnyResource res = (IAnyResource) retVal;
-			retVal = populateResourceMetadataRi(resourceType, theEntity, theForHistoryOperation, res);
+			IAnyResource res = (IAnyResource) theResource;
+			return populateResourceMetadataRi(theResourceType, theEntity, theForHistoryOperation, res);
 		}
-		return retVal;
 	}
 
 	protected String toResourceName(Class<? extends IBaseResource> theResourceType) {
@@ -1114,14 +1273,21 @@ public abstract class BaseHapiFhirDao<T extends IBaseResource> implements IDao {
 	}
 
 	protected Long translateForcedIdToPid(String theResourceName, String theResourceId) {
-		return translateForcedIdToPids(new IdDt(theResourceName, theResourceId), myForcedIdDao).get(0);
+		return translateForcedIdToPids(new IdDt(theResourceName, theResourceId)).get(0);
 	}
 
 	protected List<Long> translateForcedIdToPids(IIdType theId) {
+		if (myForcedIdCacheSvc != null) {
+			return myForcedIdCacheSvc.translateForcedIdToPids(theId);
+		}
 		return translateForcedIdToPids(theId, myForcedIdDao);
 	}
 
 	protected String translatePidIdToForcedId(String theResourceType, Long theId) {
+		if (myForcedIdCacheSvc != null) {
+			String forcedId = myForcedIdCacheSvc.translatePidToForcedId(theId);
+			return forcedId != null ? forcedId : theResourceType + '/' + theId.toString();
+		}
 		ForcedId forcedId = myForcedIdDao.findByResourcePid(theId);
 		if (forcedId != null) {
 			return forcedId.getResourceType() + '/' + forcedId.getForcedId();
@@ -1130,6 +1296,16 @@ public abstract class BaseHapiFhirDao<T extends IBaseResource> implements IDao {
 		}
 	}
 
+	/**
+	 * Loads the PIDs for the given resource IDs into the forced ID cache (if enabled) using
+	 * as few queries as possible, so that they can be translated without a lookup each
+	 */
+	protected void prewarmForcedIdCache(Collection<? extends IIdType> theIds) {
+		if (myForcedIdCacheSvc != null && !theIds.isEmpty()) {
+			myForcedIdCacheSvc.prewarm(theIds);
+		}
+	}
+
 	@SuppressWarnings("unchecked")
 	protected ResourceTable updateEntity(final IBaseResource theResource, ResourceTable theEntity, Date theDeletedTimestampOrNull, boolean thePerformIndexing,
 			boolean theUpdateVersion, Date theUpdateTime) {
@@ -1200,6 +1376,7 @@ public abstract class BaseHapiFhirDao<T extends IBaseResource> implements IDao {
 		Set<ResourceIndexedSearchParamUri> uriParams = null;
 		Set<ResourceIndexedSearchParamCoords> coordsParams = null;
 		Set<ResourceLink> links = null;
+		int keptLinkCount = 0;
 
 		if (theDeletedTimestampOrNull != null) {
 
@@ -1222,25 +1399,18 @@ public abstract class BaseHapiFhirDao<T extends IBaseResource> implements IDao {
 
 			if (thePerformIndexing) {
 
-				stringParams = extractSearchParamStrings(theEntity, theResource);
-				numberParams = extractSearchParamNumber(theEntity, theResource);
-				quantityParams = extractSearchParamQuantity(theEntity, theResource);
-				dateParams = extractSearchParamDates(theEntity, theResource);
-				uriParams = extractSearchParamUri(theEntity, theResource);
-				coordsParams = extractSearchParamCoords(theEntity, theResource);
+				ExtractedSearchParams extracted = mySearchParamExtractor.extractSearchParams(theEntity, theResource);
+				stringParams = extracted.getStringParams();
+				tokenParams = extracted.getTokenParams();
+				numberParams = extracted.getNumberParams();
+				quantityParams = extracted.getQuantityParams();
+				dateParams = extracted.getDateParams();
+				uriParams = extracted.getUriParams();
+				coordsParams = extracted.getCoordsParams();
 
 				// ourLog.info("Indexing resource: {}", entity.getId());
 				ourLog.trace("Storing date indexes: {}", dateParams);
 
-				tokenParams = new HashSet<ResourceIndexedSearchParamToken>();
-				for (BaseResourceIndexedSearchParam next : extractSearchParamTokens(theEntity, theResource)) {
-					if (next instanceof ResourceIndexedSearchParamToken) {
-						tokenParams.add((ResourceIndexedSearchParamToken) next);
-					} else {
-						stringParams.add((ResourceIndexedSearchParamString) next);
-					}
-				}
-
 				/*
 				 * Handle references within the resource that are match URLs, for example references like "Patient?identifier=foo". These match URLs are resolved and replaced with the ID of the
 				 * matching
@@ -1292,7 +1462,7 @@ public abstract class BaseHapiFhirDao<T extends IBaseResource> implements IDao {
 				}
 
 				links = new HashSet<ResourceLink>();
-				extractResourceLinks(theEntity, theResource, links);
+				extractResourceLinks(theEntity, theResource, extracted.getResourceLinks(), links);
 
 				/*
 				 * If the existing resource already has links and those match links we still want, use them instead of removing them and re adding them
@@ -1302,6 +1472,7 @@ public abstract class BaseHapiFhirDao<T extends IBaseResource> implements IDao {
 					if (links.remove(nextExisting)) {
 						existingLinkIter.remove();
 						links.add(nextExisting);
+						keptLinkCount++;
 					}
 				}
 
@@ -1351,6 +1522,9 @@ public abstract class BaseHapiFhirDao<T extends IBaseResource> implements IDao {
 
 			if (theEntity.getForcedId() != null) {
 				myEntityManager.persist(theEntity.getForcedId());
+				if (myForcedIdCacheSvc != null) {
+					myForcedIdCacheSvc.forcedIdCreated(theEntity.getForcedId(), theEntity.getId());
+				}
 			}
 
 			postPersist(theEntity, (T) theResource);
@@ -1368,7 +1542,12 @@ public abstract class BaseHapiFhirDao<T extends IBaseResource> implements IDao {
 			final ResourceHistoryTable historyEntry = theEntity.toHistory(null);
 
 			ourLog.info("Saving history entry {}", historyEntry.getIdDt());
-			myResourceHistoryTableDao.save(historyEntry);
+			BulkTransactionWriter bulkWriter = BulkTransactionWriter.getActive();
+			if (bulkWriter != null) {
+				bulkWriter.add(historyEntry);
+			} else {
+				myResourceHistoryTableDao.save(historyEntry);
+			}
 		}
 
 		/*
@@ -1376,73 +1555,63 @@ public abstract class BaseHapiFhirDao<T extends IBaseResource> implements IDao {
 		 */
 		if (thePerformIndexing) {
 
-			for (ResourceIndexedSearchParamString next : paramsString) {
-				myEntityManager.remove(next);
-			}
-			for (ResourceIndexedSearchParamString next : stringParams) {
-				myEntityManager.persist(next);
-			}
-
-			for (ResourceIndexedSearchParamToken next : paramsToken) {
-				myEntityManager.remove(next);
-			}
-			for (ResourceIndexedSearchParamToken next : tokenParams) {
-				myEntityManager.persist(next);
-			}
-
-			for (ResourceIndexedSearchParamNumber next : paramsNumber) {
-				myEntityManager.remove(next);
-			}
-			for (ResourceIndexedSearchParamNumber next : numberParams) {
-				myEntityManager.persist(next);
-			}
-
-			for (ResourceIndexedSearchParamQuantity next : paramsQuantity) {
-				myEntityManager.remove(next);
-			}
-			for (ResourceIndexedSearchParamQuantity next : quantityParams) {
-				myEntityManager.persist(next);
-			}
-
-			// Store date SP's
-			for (ResourceIndexedSearchParamDate next : paramsDate) {
-				myEntityManager.remove(next);
-			}
-			for (ResourceIndexedSearchParamDate next : dateParams) {
-				myEntityManager.persist(next);
-			}
-
-			// Store URI SP's
-			for (ResourceIndexedSearchParamUri next : paramsUri) {
-				myEntityManager.remove(next);
-			}
-			for (ResourceIndexedSearchParamUri next : uriParams) {
-				myEntityManager.persist(next);
-			}
-
-			// Store Coords SP's
-			for (ResourceIndexedSearchParamCoords next : paramsCoords) {
-				myEntityManager.remove(next);
-			}
-			for (ResourceIndexedSearchParamCoords next : coordsParams) {
-				myEntityManager.persist(next);
-			}
+			theEntity.clearIndexRowChanges();
+			stringParams = applyIndexDiff(theEntity, paramsString, stringParams);
+			tokenParams = applyIndexDiff(theEntity, paramsToken, tokenParams);
+			numberParams = applyIndexDiff(theEntity, paramsNumber, numberParams);
+			quantityParams = applyIndexDiff(theEntity, paramsQuantity, quantityParams);
+			dateParams = applyIndexDiff(theEntity, paramsDate, dateParams);
+			uriParams = applyIndexDiff(theEntity, paramsUri, uriParams);
+			coordsParams = applyIndexDiff(theEntity, paramsCoords, coordsParams);
+
+			// Make sure the entity refers to the rows we kept rather than the equivalent new ones
+			theEntity.setParamsString(stringParams);
+			theEntity.setParamsToken(tokenParams);
+			theEntity.setParamsNumber(numberParams);
+			theEntity.setParamsQuantity(quantityParams);
+			theEntity.setParamsDate(dateParams);
+			theEntity.setParamsUri(uriParams);
+			theEntity.setParamsCoords(coordsParams);
 
 			// Store resource links
 			for (ResourceLink next : existingResourceLinks) {
 				myEntityManager.remove(next);
 			}
 			for (ResourceLink next : links) {
-				myEntityManager.persist(next);
+				persistOrDefer(next);
 			}
 			// make sure links are indexed
 			theEntity.setResourceLinks(links);
+			theEntity.addIndexRowChanges(keptLinkCount, links.size() - keptLinkCount, existingResourceLinks.size());
 
 			theEntity.toString();
 
+			if (ourLog.isDebugEnabled()) {
+				ourLog.debug("Index rows for {}: {} kept, {} added, {} removed", new Object[] { theEntity.getIdDt().toUnqualifiedVersionless().getValue(), theEntity.getIndexRowsKept(), theEntity.getIndexRowsAdded(), theEntity.getIndexRowsRemoved() });
+			}
+
 		} // if thePerformIndexing
 
+		int indexRowsKept = theEntity.getIndexRowsKept();
+		int indexRowsAdded = theEntity.getIndexRowsAdded();
+		int indexRowsRemoved = theEntity.getIndexRowsRemoved();
 		theEntity = myEntityManager.merge(theEntity);
+		theEntity.clearIndexRowChanges();
+		theEntity.addIndexRowChanges(indexRowsKept, indexRowsAdded, indexRowsRemoved);
+
+		if (myResourceReadCacheSvc != null) {
+			myResourceReadCacheSvc.resourceWritten(theEntity);
+		}
+
+		/*
+		 * Match new versions against the active subscriptions (reindexing doesn't create
+		 * a new version, so it doesn't trigger subscriptions)
+		 */
+		if (mySubscriptionMatcherSvc != null && theUpdateVersion && thePerformIndexing && theDeletedTimestampOrNull == null && theResource != null) {
+			if (myConfig.isSubscriptionEnabled() && myConfig.isSubscriptionInMemoryMatchingEnabled()) {
+				mySubscriptionMatcherSvc.resourceWritten(this, theEntity, theResource);
+			}
+		}
 
 		if (theResource != null) {
 			populateResourceId(theResource, theEntity);
@@ -1451,6 +1620,69 @@ public abstract class BaseHapiFhirDao<T extends IBaseResource> implements IDao {
 		return theEntity;
 	}
 
+	/**
+	 * Removes only the existing index rows which are no longer present in the newly extracted rows, and
+	 * persists only the new rows which weren't already stored
+	 * 
+	 * @return The rows which should now be associated with the entity
+	 */
+	private <P extends BaseResourceIndexedSearchParam> Set<P> applyIndexDiff(ResourceTable theEntity, Collection<P> theExistingRows, Collection<P> theNewRows) {
+		SearchParamIndexDiff<P> diff = SearchParamIndexDiff.compare(theExistingRows, theNewRows);
+		for (P next : diff.getRowsToRemove()) {
+			myEntityManager.remove(next);
+		}
+		for (P next : diff.getRowsToAdd()) {
+			persistOrDefer(next);
+		}
+		theEntity.addIndexRowChanges(diff.getRowsToKeep().size(), diff.getRowsToAdd().size(), diff.getRowsToRemove().size());
+		return diff.getResultingRows();
+	}
+
+	/**
+	 * Persists a new row, or adds it to the {@link BulkTransactionWriter} for the current
+	 * transaction if there is one so that it is written along with the rest of the bundle
+	 */
+	private void persistOrDefer(Object theRow) {
+		BulkTransactionWriter bulkWriter = BulkTransactionWriter.getActive();
+		if (bulkWriter != null) {
+			bulkWriter.add(theRow);
+		} else {
+			myEntityManager.persist(theRow);
+		}
+	}
+
+	/**
+	 * If {@link DaoConfig#setBulkTransactionEnabled(boolean) bulk transactions} are enabled,
+	 * starts collecting the rows written in the current database transaction so that they can
+	 * be written together by {@link #flushBulkTransaction()}
+	 * 
+	 * @return Returns <code>true</code> if bulk mode was started, in which case the caller must
+	 *         call {@link #stopBulkTransaction()} when it is finished
+	 */
+	protected boolean startBulkTransaction() {
+		if (!myConfig.isBulkTransactionEnabled()) {
+			return false;
+		}
+		return BulkTransactionWriter.start(myConfig.getBulkTransactionBatchSize()) != null;
+	}
+
+	/**
+	 * Writes all of the rows collected since {@link #startBulkTransaction()} and flushes
+	 * the entity manager
+	 */
+	protected void flushBulkTransaction() {
+		BulkTransactionWriter bulkWriter = BulkTransactionWriter.getActive();
+		if (bulkWriter != null) {
+			bulkWriter.flush(myEntityManager);
+		} else {
+			myEntityManager.flush();
+		}
+	}
+
+	protected void stopBulkTransaction() {
+		BulkTransactionWriter.stop();
+	}
+
 	protected ResourceTable updateEntity(IBaseResource theResource, ResourceTable entity, Date theDeletedTimestampOrNull, Date theUpdateTime) {
 		return updateEntity(theResource, entity, theDeletedTimestampOrNull, true, true, theUpdateTime);
 	}
@@ -1629,6 +1861,52 @@ public abstract class BaseHapiFhirDao<T extends IBaseResource> implements IDao {
 		return new String(out).toUpperCase();
 	}
 
+	/**
+	 * Makes sure that a stored resource body can be parsed by {@link #parseResourceBody(Class, ResourceEncodingEnum, byte[], FhirContext)},
+	 * which for the binary encoding means registering the schema it was written with if that is not
+	 * the current one. This may use the database, so it must be called on the thread which owns the session.
+	 */
+	private void prepareResourceBody(ResourceEncodingEnum theEncoding, byte[] theResourceBytes, FhirContext theContext) {
+		if (theEncoding == ResourceEncodingEnum.BJSON && myBinaryResourceSchemaSvc != null) {
+			myBinaryResourceSchemaSvc.beforeDecode(BinaryResourceCodec.forContext(theContext), theResourceBytes);
+		}
+	}
+
+	/**
+	 * Decodes and parses a stored resource body. This method does not touch the entity,
+	 * so it is safe to call from a thread other than the one which owns the session.
+	 */
+	private static <R extends IBaseResource> R parseResourceBody(Class<R> theResourceType, ResourceEncodingEnum theEncoding, byte[] theResourceBytes, FhirContext theContext) {
+		if (theEncoding == ResourceEncodingEnum.BJSON) {
+			return BinaryResourceCodec.forContext(theContext).decode(theResourceType, theResourceBytes);
+		}
+
+		String resourceText = decodeResourceText(theEncoding, theResourceBytes);
+		IParser parser = theEncoding.newParser(theContext);
+		return parser.parseResource(theResourceType, resourceText);
+	}
+
+	/**
+	 * Returns the JSON text of a stored resource body which is not in a binary encoding
+	 */
+	private static String decodeResourceText(ResourceEncodingEnum theEncoding, byte[] theResourceBytes) {
+		switch (theEncoding) {
+		case JSON:
+			try {
+				return new String(theResourceBytes, "UTF-8");
+			} catch (UnsupportedEncodingException e) {
+				throw new Error("Should not happen", e);
+			}
+		case JSONC:
+		case JSONS:
+		case JSOND:
+			return theEncoding.getCompressionCodec().decompress(theResourceBytes);
+		case BJSON:
+		default:
+			throw new IllegalArgumentException("Not a text encoding: " + theEncoding);
+		}
+	}
+
 	private static String parseNarrativeTextIntoWords(IBaseResource theResource) {
 
 		StringBuilder b = new StringBuilder();
@@ -521,6 +521,10 @@ public abstract class BaseHapiFhirResourceDao<T extends IBaseResource> extends B
 			doMetaAdd(theMetaAdd, history);
 		}
 
+		if (getResourceReadCacheSvc() != null) {
+			getResourceReadCacheSvc().evict(entity.getId());
+		}
+
 		ourLog.info("Processed metaAddOperation on {} in {}ms", new Object[] { theResourceId, w.getMillisAndRestart() });
 
 		@SuppressWarnings("unchecked")
@@ -553,6 +557,10 @@ public abstract class BaseHapiFhirResourceDao<T extends IBaseResource> extends B
 
 		myEntityManager.flush();
 
+		if (getResourceReadCacheSvc() != null) {
+			getResourceReadCacheSvc().evict(entity.getId());
+		}
+
 		ourLog.info("Processed metaDeleteOperation on {} in {}ms", new Object[] { theResourceId.getValue(), w.getMillisAndRestart() });
 
 		@SuppressWarnings("unchecked")
@@ -785,7 +793,7 @@ public abstract class BaseHapiFhirResourceDao<T extends IBaseResource> extends B
 		}
 
 		StopWatch w = new StopWatch();
-		BaseHasResource entity = readEntity(theId);
+		BaseHasResource entity = readEntityUsingCache(theId);
 		validateResourceType(entity);
 
 		T retVal = toResource(myResourceType, entity, false);
@@ -818,7 +826,11 @@ public abstract class BaseHapiFhirResourceDao<T extends IBaseResource> extends B
 		validateResourceTypeAndThrowIllegalArgumentException(theId);
 
 		Long pid = translateForcedIdToPid(getResourceName(), theId.getIdPart());
-		BaseHasResource entity = myEntityManager.find(ResourceTable.class, pid);
+		return readEntity(theId, pid, theCheckForForcedId);
+	}
+
+	private BaseHasResource readEntity(IIdType theId, Long thePid, boolean theCheckForForcedId) {
+		BaseHasResource entity = myEntityManager.find(ResourceTable.class, thePid);
 
 		if (entity == null) {
 			throw new ResourceNotFoundException(theId);
@@ -837,7 +849,7 @@ public abstract class BaseHapiFhirResourceDao<T extends IBaseResource> extends B
 			if (theId.hasVersionIdPart()) {
 				TypedQuery<ResourceHistoryTable> q = myEntityManager
 						.createQuery("SELECT t from ResourceHistoryTable t WHERE t.myResourceId = :RID AND t.myResourceType = :RTYP AND t.myResourceVersion = :RVER", ResourceHistoryTable.class);
-				q.setParameter("RID", pid);
+				q.setParameter("RID", thePid);
 				q.setParameter("RTYP", myResourceName);
 				q.setParameter("RVER", theId.getVersionIdPartAsLong());
 				try {
@@ -856,6 +868,37 @@ public abstract class BaseHapiFhirResourceDao<T extends IBaseResource> extends B
 		return entity;
 	}
 
+	/**
+	 * Like {@link #readEntity(IIdType)}, but uses the read cache (if enabled). The returned
+	 * object may not be a persistent entity, so it must only be used for converting to a resource.
+	 */
+	private BaseHasResource readEntityUsingCache(IIdType theId) {
+		ResourceReadCacheSvc readCache = getResourceReadCacheSvc();
+		if (readCache == null || !getConfig().isResourceReadCacheEnabled()) {
+			return readEntity(theId);
+		}
+
+		Long version = null;
+		if (theId.hasVersionIdPart()) {
+			if (theId.isVersionIdPartValidLong() == false) {
+				return readEntity(theId);
+			}
+			version = theId.getVersionIdPartAsLong();
+		}
+
+		validateResourceTypeAndThrowIllegalArgumentException(theId);
+		Long pid = translateForcedIdToPid(getResourceName(), theId.getIdPart());
+		BaseHasResource cached = readCache.get(myResourceName, pid, version);
+		if (cached != null) {
+			validateGivenIdIsAppropriateToRetrieveResource(theId, cached);
+			return cached;
+		}
+
+		BaseHasResource entity = readEntity(theId, pid, true);
+		readCache.put(entity, entity instanceof ResourceTable);
+		return entity;
+	}
+
 	protected ResourceTable readEntityLatestVersion(IIdType theId) {
 		ResourceTable entity = myEntityManager.find(ResourceTable.class, translateForcedIdToPid(getResourceName(), theId.getIdPart()));
 		if (entity == null) {
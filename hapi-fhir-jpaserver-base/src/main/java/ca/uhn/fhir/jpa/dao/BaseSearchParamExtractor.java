@@ -20,10 +20,16 @@ package ca.uhn.fhir.jpa.dao;
  * #L%
  */
 
+import static org.apache.commons.lang3.StringUtils.isBlank;
+
 import java.util.ArrayList;
 import java.util.Collection;
 import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
 import java.util.List;
+import java.util.Map;
+import java.util.Set;
 import java.util.regex.Pattern;
 
 import org.apache.commons.lang3.ObjectUtils;
@@ -35,6 +41,15 @@ import com.google.common.annotations.VisibleForTesting;
 import ca.uhn.fhir.context.FhirContext;
 import ca.uhn.fhir.context.RuntimeResourceDefinition;
 import ca.uhn.fhir.context.RuntimeSearchParam;
+import ca.uhn.fhir.jpa.entity.BaseResourceIndexedSearchParam;
+import ca.uhn.fhir.jpa.entity.ResourceIndexedSearchParamDate;
+import ca.uhn.fhir.jpa.entity.ResourceIndexedSearchParamNumber;
+import ca.uhn.fhir.jpa.entity.ResourceIndexedSearchParamQuantity;
+import ca.uhn.fhir.jpa.entity.ResourceIndexedSearchParamString;
+import ca.uhn.fhir.jpa.entity.ResourceIndexedSearchParamToken;
+import ca.uhn.fhir.jpa.entity.ResourceIndexedSearchParamUri;
+import ca.uhn.fhir.jpa.entity.ResourceTable;
+import ca.uhn.fhir.rest.method.RestSearchParameterTypeEnum;
 import ca.uhn.fhir.util.FhirTerser;
 
 public abstract class BaseSearchParamExtractor implements ISearchParamExtractor {
@@ -56,14 +71,40 @@ public abstract class BaseSearchParamExtractor implements ISearchParamExtractor
 		myContext = theCtx;
 		mySearchParamRegistry = theSearchParamRegistry;
 	}
-	
+
+	protected abstract void collectDates(ResourceTable theEntity, IBaseResource theResource, RuntimeSearchParam theSearchParam, List<Object> theValues, Set<ResourceIndexedSearchParamDate> theRetVal);
+
+	protected abstract void collectNumbers(ResourceTable theEntity, IBaseResource theResource, RuntimeSearchParam theSearchParam, List<Object> theValues, Set<ResourceIndexedSearchParamNumber> theRetVal);
+
+	protected abstract void collectQuantities(ResourceTable theEntity, IBaseResource theResource, RuntimeSearchParam theSearchParam, List<Object> theValues, Set<ResourceIndexedSearchParamQuantity> theRetVal);
+
+	protected abstract void collectStrings(ResourceTable theEntity, IBaseResource theResource, RuntimeSearchParam theSearchParam, List<Object> theValues, Set<ResourceIndexedSearchParamString> theRetVal);
+
+	/**
+	 * Token parameters may also produce string rows (e.g. for <code>Coding.display</code>), so
+	 * both types are added to <code>theRetVal</code>
+	 */
+	protected abstract void collectTokens(ResourceTable theEntity, IBaseResource theResource, RuntimeSearchParam theSearchParam, List<Object> theValues, Set<BaseResourceIndexedSearchParam> theRetVal);
+
+	protected abstract void collectUris(ResourceTable theEntity, IBaseResource theResource, RuntimeSearchParam theSearchParam, List<Object> theValues, Set<ResourceIndexedSearchParamUri> theRetVal);
+
 	@Override
 	public List<PathAndRef> extractResourceLinks(IBaseResource theResource, RuntimeSearchParam theNextSpDef) {
+		return extractResourceLinks(theResource, theNextSpDef, new HashMap<String, List<Object>>());
+	}
+
+	private List<PathAndRef> extractResourceLinks(IBaseResource theResource, RuntimeSearchParam theNextSpDef, Map<String, List<Object>> thePathToValues) {
 		List<PathAndRef> refs = new ArrayList<PathAndRef>();
-		String[] nextPathsSplit = theNextSpDef.getPath().split("\\|");
-		for (String nextPath : nextPathsSplit) {
+		String nextPathsUnsplit = getExtractionPath(theNextSpDef);
+		if (isBlank(nextPathsUnsplit)) {
+			return refs;
+		}
+		for (String nextPath : SPLIT.split(nextPathsUnsplit)) {
 			nextPath = nextPath.trim();
-			for (Object nextObject : extractValues(nextPath, theResource)) {
+			if (isBlank(nextPath)) {
+				continue;
+			}
+			for (Object nextObject : extractValues(nextPath, theResource, thePathToValues)) {
 				if (nextObject == null) {
 					continue;
 				}
@@ -73,7 +114,139 @@ public abstract class BaseSearchParamExtractor implements ISearchParamExtractor
 		return refs;
 	}
 
-	protected List<Object> extractValues(String thePaths, IBaseResource theResource) {
+	@Override
+	public Set<ResourceIndexedSearchParamDate> extractSearchParamDates(ResourceTable theEntity, IBaseResource theResource) {
+		return extractSearchParams(theEntity, theResource, RestSearchParameterTypeEnum.DATE).getDateParams();
+	}
+
+	@Override
+	public Set<ResourceIndexedSearchParamNumber> extractSearchParamNumber(ResourceTable theEntity, IBaseResource theResource) {
+		return extractSearchParams(theEntity, theResource, RestSearchParameterTypeEnum.NUMBER).getNumberParams();
+	}
+
+	@Override
+	public Set<ResourceIndexedSearchParamQuantity> extractSearchParamQuantity(ResourceTable theEntity, IBaseResource theResource) {
+		return extractSearchParams(theEntity, theResource, RestSearchParameterTypeEnum.QUANTITY).getQuantityParams();
+	}
+
+	@Override
+	public Set<ResourceIndexedSearchParamString> extractSearchParamStrings(ResourceTable theEntity, IBaseResource theResource) {
+		return extractSearchParams(theEntity, theResource, RestSearchParameterTypeEnum.STRING).getStringParams();
+	}
+
+	@Override
+	public Set<BaseResourceIndexedSearchParam> extractSearchParamTokens(ResourceTable theEntity, IBaseResource theResource) {
+		ExtractedSearchParams extracted = extractSearchParams(theEntity, theResource, RestSearchParameterTypeEnum.TOKEN);
+		Set<BaseResourceIndexedSearchParam> retVal = new HashSet<BaseResourceIndexedSearchParam>();
+		retVal.addAll(extracted.getTokenParams());
+		retVal.addAll(extracted.getStringParams());
+		return retVal;
+	}
+
+	@Override
+	public Set<ResourceIndexedSearchParamUri> extractSearchParamUri(ResourceTable theEntity, IBaseResource theResource) {
+		return extractSearchParams(theEntity, theResource, RestSearchParameterTypeEnum.URI).getUriParams();
+	}
+
+	@Override
+	public ExtractedSearchParams extractSearchParams(ResourceTable theEntity, IBaseResource theResource) {
+		ExtractedSearchParams retVal = extractSearchParams(theEntity, theResource, null);
+		retVal.getCoordsParams().addAll(extractSearchParamCoords(theEntity, theResource));
+		return retVal;
+	}
+
+	/**
+	 * Evaluates the path of each active search parameter (or only those of the given type, if
+	 * <code>theOnlyType</code> is not null) against the resource, and hands the values to the
+	 * collector for the parameter's type. Paths which are shared by several parameters are
+	 * only evaluated once.
+	 */
+	private ExtractedSearchParams extractSearchParams(ResourceTable theEntity, IBaseResource theResource, RestSearchParameterTypeEnum theOnlyType) {
+		ExtractedSearchParams retVal = new ExtractedSearchParams();
+		Set<BaseResourceIndexedSearchParam> tokens = new HashSet<BaseResourceIndexedSearchParam>();
+		Map<String, List<Object>> pathToValues = new HashMap<String, List<Object>>();
+
+		for (RuntimeSearchParam nextSpDef : getSearchParams(theResource)) {
+			RestSearchParameterTypeEnum type = nextSpDef.getParamType();
+			if (type == null || (theOnlyType != null && type != theOnlyType)) {
+				continue;
+			}
+
+			switch (type) {
+			case DATE:
+				collectDates(theEntity, theResource, nextSpDef, extractValues(nextSpDef, theResource, pathToValues), retVal.getDateParams());
+				break;
+			case NUMBER:
+				collectNumbers(theEntity, theResource, nextSpDef, extractValues(nextSpDef, theResource, pathToValues), retVal.getNumberParams());
+				break;
+			case QUANTITY:
+				collectQuantities(theEntity, theResource, nextSpDef, extractValues(nextSpDef, theResource, pathToValues), retVal.getQuantityParams());
+				break;
+			case STRING:
+				collectStrings(theEntity, theResource, nextSpDef, extractValues(nextSpDef, theResource, pathToValues), retVal.getStringParams());
+				break;
+			case TOKEN:
+				collectTokens(theEntity, theResource, nextSpDef, extractValues(nextSpDef, theResource, pathToValues), tokens);
+				break;
+			case URI:
+				collectUris(theEntity, theResource, nextSpDef, extractValues(nextSpDef, theResource, pathToValues), retVal.getUriParams());
+				break;
+			case REFERENCE:
+				retVal.getResourceLinks().put(nextSpDef, extractResourceLinks(theResource, nextSpDef, pathToValues));
+				break;
+			default:
+				break;
+			}
+		}
+
+		for (BaseResourceIndexedSearchParam next : tokens) {
+			if (next instanceof ResourceIndexedSearchParamToken) {
+				retVal.getTokenParams().add((ResourceIndexedSearchParamToken) next);
+			} else {
+				retVal.getStringParams().add((ResourceIndexedSearchParamString) next);
+			}
+		}
+
+		return retVal;
+	}
+
+	/**
+	 * Returns the values for all of the (possibly "|" separated) paths of the given parameter
+	 */
+	private List<Object> extractValues(RuntimeSearchParam theSearchParam, IBaseResource theResource, Map<String, List<Object>> thePathToValues) {
+		String nextPathsUnsplit = getExtractionPath(theSearchParam);
+		if (isBlank(nextPathsUnsplit)) {
+			return Collections.emptyList();
+		}
+		String[] nextPathsSplit = SPLIT.split(nextPathsUnsplit);
+		if (nextPathsSplit.length == 1) {
+			return extractValues(nextPathsSplit[0].trim(), theResource, thePathToValues);
+		}
+		List<Object> retVal = new ArrayList<Object>();
+		for (String nextPath : nextPathsSplit) {
+			nextPath = nextPath.trim();
+			if (isBlank(nextPath)) {
+				continue;
+			}
+			retVal.addAll(extractValues(nextPath, theResource, thePathToValues));
+		}
+		return retVal;
+	}
+
+	/**
+	 * Returns the values found at a single path, evaluating it only if it has not
+	 * already been evaluated against this resource
+	 */
+	private List<Object> extractValues(String thePath, IBaseResource theResource, Map<String, List<Object>> thePathToValues) {
+		List<Object> retVal = thePathToValues.get(thePath);
+		if (retVal == null) {
+			retVal = Collections.unmodifiableList(doExtractValues(thePath, theResource));
+			thePathToValues.put(thePath, retVal);
+		}
+		return retVal;
+	}
+
+	protected List<Object> doExtractValues(String thePaths, IBaseResource theResource) {
 		List<Object> values = new ArrayList<Object>();
 		String[] nextPathsSplit = SPLIT.split(thePaths);
 		FhirTerser t = myContext.newTerser();
@@ -93,6 +266,15 @@ public abstract class BaseSearchParamExtractor implements ISearchParamExtractor
 		return myContext;
 	}
 
+	/**
+	 * Returns the path which is evaluated against resources to find the values for the given
+	 * parameter. Subclasses may override this if some parameter paths contain anything other
+	 * than the paths themselves.
+	 */
+	protected String getExtractionPath(RuntimeSearchParam theSearchParam) {
+		return theSearchParam.getPath();
+	}
+
 	protected Collection<RuntimeSearchParam> getSearchParams(IBaseResource theResource) {
 		RuntimeResourceDefinition def = getContext().getResourceDefinition(theResource);
 		Collection<RuntimeSearchParam> retVal = mySearchParamRegistry.getActiveSearchParams(def.getName()).values();
@@ -106,5 +288,4 @@ public abstract class BaseSearchParamExtractor implements ISearchParamExtractor
 		myContext = theContext;
 	}
 
-
 }
@@ -0,0 +1,109 @@
+package ca.uhn.fhir.jpa.dao;
+
+/*
+ * #%L
+ * HAPI FHIR JPA Server
+ * %%
+ * Copyright (C) 2014 - 2017 University Health Network
+ * %%
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * #L%
+ */
+
+import java.util.Collections;
+import java.util.Date;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.dao.DataIntegrityViolationException;
+import org.springframework.transaction.PlatformTransactionManager;
+import org.springframework.transaction.TransactionDefinition;
+import org.springframework.transaction.TransactionStatus;
+import org.springframework.transaction.support.TransactionCallbackWithoutResult;
+import org.springframework.transaction.support.TransactionTemplate;
+
+import ca.uhn.fhir.jpa.dao.data.IBinaryResourceSchemaDao;
+import ca.uhn.fhir.jpa.entity.BinaryResourceSchema;
+import ca.uhn.fhir.jpa.util.BinaryResourceCodec;
+
+/**
+ * Stores the schema of the structure definitions used to write resources with the
+ * {@link ca.uhn.fhir.jpa.entity.ResourceEncodingEnum#BJSON BJSON} encoding, and registers the
+ * stored schemas with the {@link BinaryResourceCodec} when resources which were written using
+ * other structure definitions (i.e. before the structures were upgraded) are read.
+ */
+public class BinaryResourceSchemaSvc {
+	private static final org.slf4j.Logger ourLog = org.slf4j.LoggerFactory.getLogger(BinaryResourceSchemaSvc.class);
+
+	@Autowired
+	private IBinaryResourceSchemaDao myBinaryResourceSchemaDao;
+
+	private final Set<Integer> myStoredFingerprints = Collections.newSetFromMap(new ConcurrentHashMap<Integer, Boolean>());
+
+	@Autowired
+	private PlatformTransactionManager myTxManager;
+
+	/**
+	 * Should be called before content which was encoded using the given codec is read, so that the
+	 * schema it was encoded with is registered if needed. Content whose schema is unknown is left
+	 * for the codec to reject.
+	 */
+	public void beforeDecode(BinaryResourceCodec theCodec, byte[] theEncoded) {
+		int fingerprint = theCodec.getFingerprint(theEncoded);
+		if (theCodec.canDecode(fingerprint)) {
+			return;
+		}
+
+		BinaryResourceSchema schema = myBinaryResourceSchemaDao.findOne(fingerprint);
+		if (schema != null) {
+			theCodec.registerSchema(schema.getSchema());
+		}
+	}
+
+	/**
+	 * Should be called before content which was encoded using the given codec is stored, so
+	 * that the schema of the codec is stored before any content which needs it
+	 */
+	public void beforeStore(BinaryResourceCodec theCodec) {
+		final int fingerprint = theCodec.getFingerprint();
+		if (myStoredFingerprints.contains(fingerprint)) {
+			return;
+		}
+
+		final byte[] schema = theCodec.getSchema();
+		TransactionTemplate txTemplate = new TransactionTemplate(myTxManager);
+		txTemplate.setPropagationBehavior(TransactionDefinition.PROPAGATION_REQUIRES_NEW);
+		try {
+			txTemplate.execute(new TransactionCallbackWithoutResult() {
+				@Override
+				protected void doInTransactionWithoutResult(TransactionStatus theStatus) {
+					if (myBinaryResourceSchemaDao.exists(fingerprint)) {
+						return;
+					}
+					BinaryResourceSchema entity = new BinaryResourceSchema();
+					entity.setFingerprint(fingerprint);
+					entity.setSchema(schema);
+					entity.setCreated(new Date());
+					myBinaryResourceSchemaDao.save(entity);
+					ourLog.info("Stored binary resource schema {} ({} bytes)", fingerprint, schema.length);
+				}
+			});
+		} catch (DataIntegrityViolationException e) {
+			// Another server stored it at the same time
+			ourLog.debug("Binary resource schema {} was stored concurrently", fingerprint);
+		}
+		myStoredFingerprints.add(fingerprint);
+	}
+
+}
@@ -0,0 +1,141 @@
+package ca.uhn.fhir.jpa.dao;
+
+/*
+ * #%L
+ * HAPI FHIR JPA Server
+ * %%
+ * Copyright (C) 2014 - 2017 University Health Network
+ * %%
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * #L%
+ */
+
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+import javax.persistence.EntityManager;
+
+import org.hibernate.Session;
+import org.springframework.transaction.support.TransactionSynchronizationAdapter;
+import org.springframework.transaction.support.TransactionSynchronizationManager;
+
+/**
+ * Collects the rows which are created while a transaction bundle is processed in bulk mode
+ * (see {@link DaoConfig#setBulkTransactionEnabled(boolean)}) so that they can be persisted
+ * together once the whole bundle has been processed.
+ * <p>
+ * Hibernate sends consecutive inserts into the same table as a single JDBC batch, so the rows
+ * are persisted grouped by entity type and then flushed using a large batch size. The writer
+ * is bound to the current database transaction and is discarded when it completes.
+ * </p>
+ * <p>
+ * The writer is also flushed before any match URL is searched (see
+ * {@link BaseHapiFhirDao#processMatchUrl(String, Class)}), since the search would not
+ * otherwise see the rows which are still pending.
+ * </p>
+ */
+class BulkTransactionWriter {
+
+	private static final org.slf4j.Logger ourLog = org.slf4j.LoggerFactory.getLogger(BulkTransactionWriter.class);
+	private static final Object ourTransactionResourceKey = new Object();
+
+	private final int myBatchSize;
+	private final Map<Class<?>, List<Object>> myRows = new LinkedHashMap<Class<?>, List<Object>>();
+
+	private BulkTransactionWriter(int theBatchSize) {
+		myBatchSize = theBatchSize;
+	}
+
+	/**
+	 * Adds a new row which will be persisted when the writer is flushed
+	 */
+	void add(Object theRow) {
+		List<Object> rows = myRows.get(theRow.getClass());
+		if (rows == null) {
+			rows = new ArrayList<Object>();
+			myRows.put(theRow.getClass(), rows);
+		}
+		rows.add(theRow);
+	}
+
+	/**
+	 * Returns <code>true</code> if any rows have been added since the writer was last flushed
+	 */
+	boolean hasPendingRows() {
+		return !myRows.isEmpty();
+	}
+
+	/**
+	 * Persists all of the collected rows grouped by type, and flushes the entity manager
+	 * using the configured JDBC batch size
+	 */
+	void flush(EntityManager theEntityManager) {
+		int count = 0;
+		for (List<Object> nextRows : myRows.values()) {
+			for (Object next : nextRows) {
+				theEntityManager.persist(next);
+			}
+			count += nextRows.size();
+		}
+		myRows.clear();
+
+		Session session = theEntityManager.unwrap(Session.class);
+		Integer previousBatchSize = session.getJdbcBatchSize();
+		session.setJdbcBatchSize(myBatchSize);
+		try {
+			theEntityManager.flush();
+		} finally {
+			session.setJdbcBatchSize(previousBatchSize);
+		}
+		ourLog.debug("Flushed {} deferred rows", count);
+	}
+
+	/**
+	 * Returns the writer bound to the current transaction, or <code>null</code> if none
+	 */
+	static BulkTransactionWriter getActive() {
+		if (!TransactionSynchronizationManager.isSynchronizationActive()) {
+			return null;
+		}
+		return (BulkTransactionWriter) TransactionSynchronizationManager.getResource(ourTransactionResourceKey);
+	}
+
+	/**
+	 * Binds a new writer to the current transaction. Returns <code>null</code> if there is no
+	 * active transaction, or if a writer is already bound to it.
+	 */
+	static BulkTransactionWriter start(int theBatchSize) {
+		if (!TransactionSynchronizationManager.isSynchronizationActive() || TransactionSynchronizationManager.hasResource(ourTransactionResourceKey)) {
+			return null;
+		}
+		BulkTransactionWriter retVal = new BulkTransactionWriter(theBatchSize);
+		TransactionSynchronizationManager.bindResource(ourTransactionResourceKey, retVal);
+		TransactionSynchronizationManager.registerSynchronization(new TransactionSynchronizationAdapter() {
+			@Override
+			public void afterCompletion(int theStatus) {
+				TransactionSynchronizationManager.unbindResourceIfPossible(ourTransactionResourceKey);
+			}
+		});
+		return retVal;
+	}
+
+	/**
+	 * Unbinds the writer from the current transaction, if one is bound
+	 */
+	static void stop() {
+		TransactionSynchronizationManager.unbindResourceIfPossible(ourTransactionResourceKey);
+	}
+
+}
@@ -43,6 +43,22 @@ public class DaoConfig {
 	private boolean myAllowInlineMatchUrlReferences = false;
 
 	private boolean myAllowMultipleDelete;
+
+	// ***
+	// update setter javadoc if default changes
+	// ***
+	private int myBatchBundleThreadCount = 1;
+
+	// ***
+	// update setter javadoc if default changes
+	// ***
+	private int myBulkTransactionBatchSize = 500;
+
+	// ***
+	// update setter javadoc if default changes
+	// ***
+	private boolean myBulkTransactionEnabled = false;
+
 	private boolean myDefaultSearchParamsCanBeOverridden = false;
 	// ***
 	// update setter javadoc if default changes
@@ -55,6 +71,16 @@ public class DaoConfig {
 	// ***
 	private long myExpireSearchResultsAfterMillis = DateUtils.MILLIS_PER_HOUR;
 
+	// ***
+	// update setter javadoc if default changes
+	// ***
+	private int myExpireSearchResultsBatchSize = 100;
+
+	// ***
+	// update setter javadoc if default changes
+	// ***
+	private int myExpireSearchResultsRowBatchSize = 1000;
+
 	private int myHardTagListLimit = 1000;
 
 	private int myIncludeLimit = 2000;
@@ -72,16 +98,75 @@ public class DaoConfig {
 
 	private ResourceEncodingEnum myResourceEncoding = ResourceEncodingEnum.JSONC;
 
+	// ***
+	// update setter javadoc if default changes
+	// ***
+	private int myResourceParsingThreadCount = Runtime.getRuntime().availableProcessors();
+
+	// ***
+	// update setter javadoc if default changes
+	// ***
+	private boolean myResourceReadCacheClusterSafe = true;
+
+	// ***
+	// update setter javadoc if default changes
+	// ***
+	private boolean myResourceReadCacheEnabled = false;
+
+	// ***
+	// update setter javadoc if default changes
+	// ***
+	private long myResourceReadCacheMaxBytes = 32 * 1024 * 1024;
+
 	private boolean mySchedulingDisabled;
 
+	// ***
+	// update setter javadoc if default changes
+	// ***
+	private boolean myStreamingSearchEnabled = false;
+
+	// ***
+	// update setter javadoc if default changes
+	// ***
+	private int myStreamingSearchFirstPageSize = 100;
+
 	private boolean mySubscriptionEnabled;
 
+	// ***
+	// update setter javadoc if default changes
+	// ***
+	private boolean mySubscriptionInMemoryMatchingEnabled = false;
+
 	private long mySubscriptionPollDelay = 1000;
 
 	private Long mySubscriptionPurgeInactiveAfterMillis;
 
+	// ***
+	// update setter javadoc if default changes
+	// ***
+	private boolean mySubscriptionWebsocketPushEnabled = false;
+
+	// ***
+	// update setter javadoc if default changes
+	// ***
+	private int mySubscriptionWebsocketQueueCapacity = 1000;
+
 	private Set<String> myTreatBaseUrlsAsLocal = new HashSet<String>();
 
+	/**
+	 * See {@link #setBatchBundleThreadCount(int)}
+	 */
+	public int getBatchBundleThreadCount() {
+		return myBatchBundleThreadCount;
+	}
+
+	/**
+	 * See {@link #setBulkTransactionBatchSize(int)}
+	 */
+	public int getBulkTransactionBatchSize() {
+		return myBulkTransactionBatchSize;
+	}
+
 	/**
 	 * When a code system is added that contains more than this number of codes,
 	 * the code system will be indexed later in an incremental process in order to
@@ -114,6 +199,20 @@ public class DaoConfig {
 		return myExpireSearchResultsAfterMillis;
 	}
 
+	/**
+	 * See {@link #setExpireSearchResultsBatchSize(int)}
+	 */
+	public int getExpireSearchResultsBatchSize() {
+		return myExpireSearchResultsBatchSize;
+	}
+
+	/**
+	 * See {@link #setExpireSearchResultsRowBatchSize(int)}
+	 */
+	public int getExpireSearchResultsRowBatchSize() {
+		return myExpireSearchResultsRowBatchSize;
+	}
+
 	/**
 	 * Gets the maximum number of results to return in a GetTags query (DSTU1 only)
 	 */
@@ -151,6 +250,27 @@ public class DaoConfig {
 		return myResourceEncoding;
 	}
 
+	/**
+	 * See {@link #setResourceParsingThreadCount(int)}
+	 */
+	public int getResourceParsingThreadCount() {
+		return myResourceParsingThreadCount;
+	}
+
+	/**
+	 * See {@link #setResourceReadCacheMaxBytes(long)}
+	 */
+	public long getResourceReadCacheMaxBytes() {
+		return myResourceReadCacheMaxBytes;
+	}
+
+	/**
+	 * See {@link #setStreamingSearchFirstPageSize(int)}
+	 */
+	public int getStreamingSearchFirstPageSize() {
+		return myStreamingSearchFirstPageSize;
+	}
+
 	public long getSubscriptionPollDelay() {
 		return mySubscriptionPollDelay;
 	}
@@ -159,6 +279,13 @@ public class DaoConfig {
 		return mySubscriptionPurgeInactiveAfterMillis;
 	}
 
+	/**
+	 * See {@link #setSubscriptionWebsocketQueueCapacity(int)}
+	 */
+	public int getSubscriptionWebsocketQueueCapacity() {
+		return mySubscriptionWebsocketQueueCapacity;
+	}
+
 	/**
 	 * This setting may be used to advise the server that any references found in
 	 * resources that have any of the base URLs given here will be replaced with
@@ -214,6 +341,13 @@ public class DaoConfig {
 		return myAllowMultipleDelete;
 	}
 
+	/**
+	 * See {@link #setBulkTransactionEnabled(boolean)}
+	 */
+	public boolean isBulkTransactionEnabled() {
+		return myBulkTransactionEnabled;
+	}
+
 	/**
 	 * If set to {@code true} the default search params (i.e. the search parameters that are
 	 * defined by the FHIR specification itself) may be overridden by uploading search
@@ -254,6 +388,27 @@ public class DaoConfig {
 		return mySchedulingDisabled;
 	}
 
+	/**
+	 * See {@link #setResourceReadCacheClusterSafe(boolean)}
+	 */
+	public boolean isResourceReadCacheClusterSafe() {
+		return myResourceReadCacheClusterSafe;
+	}
+
+	/**
+	 * See {@link #setResourceReadCacheEnabled(boolean)}
+	 */
+	public boolean isResourceReadCacheEnabled() {
+		return myResourceReadCacheEnabled;
+	}
+
+	/**
+	 * See {@link #setStreamingSearchEnabled(boolean)}
+	 */
+	public boolean isStreamingSearchEnabled() {
+		return myStreamingSearchEnabled;
+	}
+
 	/**
 	 * See {@link #setSubscriptionEnabled(boolean)}
 	 */
@@ -261,6 +416,20 @@ public class DaoConfig {
 		return mySubscriptionEnabled;
 	}
 
+	/**
+	 * See {@link #setSubscriptionInMemoryMatchingEnabled(boolean)}
+	 */
+	public boolean isSubscriptionInMemoryMatchingEnabled() {
+		return mySubscriptionInMemoryMatchingEnabled;
+	}
+
+	/**
+	 * See {@link #setSubscriptionWebsocketPushEnabled(boolean)}
+	 */
+	public boolean isSubscriptionWebsocketPushEnabled() {
+		return mySubscriptionWebsocketPushEnabled;
+	}
+
 	/**
 	 * If set to <code>true</code> (default is <code>false</code>) the server will allow
 	 * resources to have references to external servers. For example if this server is
@@ -309,6 +478,59 @@ public class DaoConfig {
 		myAllowMultipleDelete = theAllowMultipleDelete;
 	}
 
+	/**
+	 * Sets the number of threads which will be used to process the entries of a
+	 * <code>batch</code> Bundle. Each entry of a batch is processed in its own database
+	 * transaction, so when this is greater than 1 the entries are processed in parallel,
+	 * each worker thread using its own database connection (the connection pool should be sized
+	 * accordingly). Entries in the response are always returned in the same order as the request.
+	 * The worker threads are shared by all batch requests on the server, and each request only
+	 * queues a small number of entries ahead of the workers at a time.
+	 * <p>
+	 * Note that when this is greater than 1, server interceptors may be notified about
+	 * several entries of the same batch at the same time.
+	 * </p>
+	 * <p>
+	 * Defaults to 1, meaning that entries are processed sequentially by the request thread.
+	 * </p>
+	 */
+	public void setBatchBundleThreadCount(int theBatchBundleThreadCount) {
+		Validate.isTrue(theBatchBundleThreadCount > 0, "theBatchBundleThreadCount must be > 0");
+		myBatchBundleThreadCount = theBatchBundleThreadCount;
+	}
+
+	/**
+	 * When {@link #setBulkTransactionEnabled(boolean) bulk transactions} are enabled, this is the
+	 * maximum number of rows which will be sent to the database in a single JDBC batch when the
+	 * transaction is written. Defaults to 500.
+	 */
+	public void setBulkTransactionBatchSize(int theBulkTransactionBatchSize) {
+		Validate.isTrue(theBulkTransactionBatchSize > 0, "theBulkTransactionBatchSize must be > 0");
+		myBulkTransactionBatchSize = theBulkTransactionBatchSize;
+	}
+
+	/**
+	 * If set to <code>true</code> (default is <code>false</code>), the rows created while processing
+	 * a transaction bundle (resource versions, search index rows and resource links) are collected
+	 * for the whole bundle and written together at the end of the transaction, grouped by table
+	 * and sent to the database as JDBC batches. This greatly reduces the number of statements
+	 * needed to process large transactions.
+	 * <p>
+	 * The rows collected so far are also written before any match URL is resolved (i.e. for
+	 * conditional creates, updates and deletes, and for inline match URL references) so that
+	 * these see the resources saved earlier in the bundle. Bundles which use many match URLs
+	 * will therefore see less of a benefit from this setting.
+	 * </p>
+	 * <p>
+	 * This setting currently applies to DSTU3 transactions.
+	 * </p>
+	 *
+	 * @see #setBulkTransactionBatchSize(int)
+	 */
+	public void setBulkTransactionEnabled(boolean theBulkTransactionEnabled) {
+		myBulkTransactionEnabled = theBulkTransactionEnabled;
+	}
+
 	/**
 	 * If set to {@code true} the default search params (i.e. the search parameters that are
 	 * defined by the FHIR specification itself) may be overridden by uploading search
@@ -368,6 +590,29 @@ public class DaoConfig {
 		myExpireSearchResultsAfterMillis = theExpireSearchResultsAfterMillis;
 	}
 
+	/**
+	 * Sets the maximum number of expired searches which will be deleted together by the stale
+	 * search deletion task. Expired searches are deleted oldest first, one chunk at a time. The
+	 * results and includes of a chunk are deleted in transactions of at most
+	 * {@link #setExpireSearchResultsRowBatchSize(int)} rows, and then the searches themselves are
+	 * deleted in one more transaction. Defaults to 100.
+	 */
+	public void setExpireSearchResultsBatchSize(int theExpireSearchResultsBatchSize) {
+		Validate.isTrue(theExpireSearchResultsBatchSize > 0, "theExpireSearchResultsBatchSize must be > 0");
+		myExpireSearchResultsBatchSize = theExpireSearchResultsBatchSize;
+	}
+
+	/**
+	 * Sets the maximum number of search result (or search include) rows which the stale search
+	 * deletion task will delete in a single database transaction. A smaller value means shorter
+	 * transactions and locks at the cost of more statements. Values above 1000 may exceed the
+	 * maximum size of an <code>IN</code> list on some databases. Defaults to 1000.
+	 */
+	public void setExpireSearchResultsRowBatchSize(int theExpireSearchResultsRowBatchSize) {
+		Validate.isTrue(theExpireSearchResultsRowBatchSize > 0, "theExpireSearchResultsRowBatchSize must be > 0");
+		myExpireSearchResultsRowBatchSize = theExpireSearchResultsRowBatchSize;
+	}
+
 	/**
 	 * Do not call this method, it exists only for legacy reasons. It
 	 * will be removed in a future version. Configure the page size on your
@@ -439,14 +684,114 @@ public class DaoConfig {
 		myMaximumExpansionSize = theMaximumExpansionSize;
 	}
 
+	/**
+	 * Sets the encoding used to store resource bodies in the database. Resources which have already been
+	 * stored keep their original encoding, and can still be read after this setting is changed.
+	 * <p>
+	 * The default is {@link ResourceEncodingEnum#JSONC}. {@link ResourceEncodingEnum#BJSON} is smaller
+	 * than JSONC and faster to read. Resources which BJSON can not represent are stored as JSONC.
+	 * </p>
+	 * <p>
+	 * BJSON content depends on the version of the structure definitions (the <code>hapi-fhir-structures</code>
+	 * library) which wrote it, so a description of those definitions is stored in the
+	 * <code>HFJ_BINARY_SCHEMA</code> table the first time it is used. After the structures are upgraded,
+	 * rows written before the upgrade are read using the stored description: elements are matched by
+	 * name, and the values of elements which no longer exist are dropped with a warning. Rows are written
+	 * using the current structures whenever the resource is updated, so to migrate old rows completely,
+	 * update (or re-save) those resources. The <code>HFJ_BINARY_SCHEMA</code> table must be kept, and copied
+	 * along with the resource tables, for as long as rows written using older structures exist.
+	 * </p>
+	 * <p>
+	 * {@link ResourceEncodingEnum#JSONS} and {@link ResourceEncodingEnum#JSOND} use alternate
+	 * compression codecs, see {@link ResourceEncodingEnum#getCompressionCodec()}.
+	 * </p>
+	 */
 	public void setResourceEncoding(ResourceEncodingEnum theResourceEncoding) {
 		myResourceEncoding = theResourceEncoding;
 	}
 
+	/**
+	 * Sets the number of threads which are used to decompress and parse the stored bodies of
+	 * resources when a page of search or history results is loaded. The threads are shared by
+	 * all requests on the server. If set to 1, resources are parsed sequentially by the request
+	 * thread.
+	 * <p>
+	 * Defaults to the number of available processors.
+	 * </p>
+	 */
+	public void setResourceParsingThreadCount(int theResourceParsingThreadCount) {
+		Validate.isTrue(theResourceParsingThreadCount > 0, "theResourceParsingThreadCount must be > 0");
+		myResourceParsingThreadCount = theResourceParsingThreadCount;
+	}
+
+	/**
+	 * When the {@link #setResourceReadCacheEnabled(boolean) read cache} is enabled and this is set
+	 * to <code>true</code> (which is the default), a <code>read</code> (but not a <code>vread</code>)
+	 * checks the current version of the resource in the database before using a cached copy. This
+	 * check is a small query which doesn't load the resource body.
+	 * <p>
+	 * If set to <code>false</code>, reads of cached resources don't touch the database at all,
+	 * but changes to a resource will only be seen if they were made through this server. Only
+	 * set this to <code>false</code> if this is the only server using the database.
+	 * </p>
+	 */
+	public void setResourceReadCacheClusterSafe(boolean theResourceReadCacheClusterSafe) {
+		myResourceReadCacheClusterSafe = theResourceReadCacheClusterSafe;
+	}
+
+	/**
+	 * If set to <code>true</code> (default is <code>false</code>), the stored form of resources
+	 * which are read or written is cached by resource type, ID and version, so that reads of
+	 * frequently accessed resources don't need to load the resource from the database.
+	 * 
+	 * @see #setResourceReadCacheClusterSafe(boolean)
+	 * @see #setResourceReadCacheMaxBytes(long)
+	 */
+	public void setResourceReadCacheEnabled(boolean theResourceReadCacheEnabled) {
+		myResourceReadCacheEnabled = theResourceReadCacheEnabled;
+	}
+
+	/**
+	 * Sets the approximate maximum size in bytes of the stored resources held by the
+	 * {@link #setResourceReadCacheEnabled(boolean) read cache}. Defaults to 32MB. Changes to this
+	 * setting take effect when the server is started.
+	 */
+	public void setResourceReadCacheMaxBytes(long theResourceReadCacheMaxBytes) {
+		Validate.isTrue(theResourceReadCacheMaxBytes > 0, "theResourceReadCacheMaxBytes must be > 0");
+		myResourceReadCacheMaxBytes = theResourceReadCacheMaxBytes;
+	}
+
 	public void setSchedulingDisabled(boolean theSchedulingDisabled) {
 		mySchedulingDisabled = theSchedulingDisabled;
 	}
 
+	/**
+	 * If set to <code>true</code> (default is <code>false</code>) simple searches (searches with
+	 * a single search parameter and no sort, such as <code>Observation?code=foo</code>) will
+	 * be executed using a database cursor. The first page of results is stored and returned
+	 * to the client as soon as it is available, and the remaining results are loaded into the
+	 * search result table in a background thread after the search transaction commits.
+	 * <p>
+	 * This avoids holding the complete set of matching resource IDs in memory for searches
+	 * which match a very large number of resources.
+	 * </p>
+	 * 
+	 * @see #setStreamingSearchFirstPageSize(int)
+	 */
+	public void setStreamingSearchEnabled(boolean theStreamingSearchEnabled) {
+		myStreamingSearchEnabled = theStreamingSearchEnabled;
+	}
+
+	/**
+	 * When {@link #setStreamingSearchEnabled(boolean) streaming search} is enabled, this is the
+	 * number of results which will be loaded synchronously before the search returns. Any
+	 * results beyond this number are loaded in the background. Defaults to 100.
+	 */
+	public void setStreamingSearchFirstPageSize(int theStreamingSearchFirstPageSize) {
+		Validate.isTrue(theStreamingSearchFirstPageSize > 0, "theStreamingSearchFirstPageSize must be > 0");
+		myStreamingSearchFirstPageSize = theStreamingSearchFirstPageSize;
+	}
+
 	/**
 	 * If set to true, the server will enable support for subscriptions. Subscriptions
 	 * will by default be handled via a polling task. Note that if this is enabled, you must also include Spring task scanning to your XML
@@ -456,6 +801,21 @@ public class DaoConfig {
 		mySubscriptionEnabled = theSubscriptionEnabled;
 	}
 
+	/**
+	 * If set to <code>true</code> (default is <code>false</code>) and {@link #setSubscriptionEnabled(boolean) subscriptions}
+	 * are enabled, resources are matched against the criteria of the active subscriptions as they are
+	 * created and updated, and the matches are flagged when the writing transaction commits. The polling
+	 * task then no longer needs to search for new resources for each subscription.
+	 * <p>
+	 * Token, string, date and (unchained) reference parameters are evaluated in memory against the
+	 * index rows of the resource which was just written. Any other criteria are checked with a
+	 * search which is restricted to the written resource.
+	 * </p>
+	 */
+	public void setSubscriptionInMemoryMatchingEnabled(boolean theSubscriptionInMemoryMatchingEnabled) {
+		mySubscriptionInMemoryMatchingEnabled = theSubscriptionInMemoryMatchingEnabled;
+	}
+
 	public void setSubscriptionPollDelay(long theSubscriptionPollDelay) {
 		mySubscriptionPollDelay = theSubscriptionPollDelay;
 	}
@@ -471,6 +831,33 @@ public class DaoConfig {
 		setSubscriptionPurgeInactiveAfterMillis(theSeconds * DateUtils.MILLIS_PER_SECOND);
 	}
 
+	/**
+	 * If set to <code>true</code> (default is <code>false</code>) and {@link #setSubscriptionInMemoryMatchingEnabled(boolean) in-memory
+	 * subscription matching} is enabled, resources matching a subscription which is bound to a websocket
+	 * connection are pushed to a queue for that connection as soon as they are written, instead of
+	 * being flagged in the database and polled for by the connection.
+	 * <p>
+	 * Only resources written by this server are pushed, so this should not be enabled if several
+	 * servers share the same database.
+	 * </p>
+	 * 
+	 * @see #setSubscriptionWebsocketQueueCapacity(int)
+	 */
+	public void setSubscriptionWebsocketPushEnabled(boolean theSubscriptionWebsocketPushEnabled) {
+		mySubscriptionWebsocketPushEnabled = theSubscriptionWebsocketPushEnabled;
+	}
+
+	/**
+	 * When {@link #setSubscriptionWebsocketPushEnabled(boolean) websocket push} is enabled, this is the maximum
+	 * number of resources which may be waiting to be sent to a single websocket connection. A newer version
+	 * of a resource which is already waiting replaces the older one, and if the queue is still full the
+	 * oldest waiting resource is dropped. Defaults to 1000.
+	 */
+	public void setSubscriptionWebsocketQueueCapacity(int theSubscriptionWebsocketQueueCapacity) {
+		Validate.isTrue(theSubscriptionWebsocketQueueCapacity > 0, "theSubscriptionWebsocketQueueCapacity must be > 0");
+		mySubscriptionWebsocketQueueCapacity = theSubscriptionWebsocketQueueCapacity;
+	}
+
 	/**
 	 * This setting may be used to advise the server that any references found in
 	 * resources that have any of the base URLs given here will be replaced with
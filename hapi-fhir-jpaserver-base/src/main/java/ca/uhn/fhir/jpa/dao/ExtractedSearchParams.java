@@ -0,0 +1,94 @@
+package ca.uhn.fhir.jpa.dao;
+
+/*
+ * #%L
+ * HAPI FHIR JPA Server
+ * %%
+ * Copyright (C) 2014 - 2017 University Health Network
+ * %%
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * #L%
+ */
+
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import ca.uhn.fhir.context.RuntimeSearchParam;
+import ca.uhn.fhir.jpa.entity.ResourceIndexedSearchParamCoords;
+import ca.uhn.fhir.jpa.entity.ResourceIndexedSearchParamDate;
+import ca.uhn.fhir.jpa.entity.ResourceIndexedSearchParamNumber;
+import ca.uhn.fhir.jpa.entity.ResourceIndexedSearchParamQuantity;
+import ca.uhn.fhir.jpa.entity.ResourceIndexedSearchParamString;
+import ca.uhn.fhir.jpa.entity.ResourceIndexedSearchParamToken;
+import ca.uhn.fhir.jpa.entity.ResourceIndexedSearchParamUri;
+
+/**
+ * Holds all of the search parameter index rows, and the reference values, extracted from a single resource
+ * by {@link ISearchParamExtractor#extractSearchParams(ca.uhn.fhir.jpa.entity.ResourceTable, org.hl7.fhir.instance.model.api.IBaseResource)}
+ */
+public class ExtractedSearchParams {
+
+	private final Set<ResourceIndexedSearchParamCoords> myCoordsParams = new HashSet<ResourceIndexedSearchParamCoords>();
+	private final Set<ResourceIndexedSearchParamDate> myDateParams = new HashSet<ResourceIndexedSearchParamDate>();
+	private final Set<ResourceIndexedSearchParamNumber> myNumberParams = new HashSet<ResourceIndexedSearchParamNumber>();
+	private final Set<ResourceIndexedSearchParamQuantity> myQuantityParams = new HashSet<ResourceIndexedSearchParamQuantity>();
+	private final Map<RuntimeSearchParam, List<PathAndRef>> myResourceLinks = new LinkedHashMap<RuntimeSearchParam, List<PathAndRef>>();
+	private final Set<ResourceIndexedSearchParamString> myStringParams = new HashSet<ResourceIndexedSearchParamString>();
+	private final Set<ResourceIndexedSearchParamToken> myTokenParams = new HashSet<ResourceIndexedSearchParamToken>();
+	private final Set<ResourceIndexedSearchParamUri> myUriParams = new HashSet<ResourceIndexedSearchParamUri>();
+
+	public Set<ResourceIndexedSearchParamCoords> getCoordsParams() {
+		return myCoordsParams;
+	}
+
+	public Set<ResourceIndexedSearchParamDate> getDateParams() {
+		return myDateParams;
+	}
+
+	public Set<ResourceIndexedSearchParamNumber> getNumberParams() {
+		return myNumberParams;
+	}
+
+	public Set<ResourceIndexedSearchParamQuantity> getQuantityParams() {
+		return myQuantityParams;
+	}
+
+	/**
+	 * Returns the values found for each reference search parameter. These are the reference
+	 * elements within the resource itself, so any changes made to them afterward (such as
+	 * replacing inline match URLs) are seen when they are turned into links.
+	 */
+	public Map<RuntimeSearchParam, List<PathAndRef>> getResourceLinks() {
+		return myResourceLinks;
+	}
+
+	/**
+	 * Note that this also includes the string rows (e.g. <code>Coding.display</code>) which
+	 * are produced while extracting token parameters
+	 */
+	public Set<ResourceIndexedSearchParamString> getStringParams() {
+		return myStringParams;
+	}
+
+	public Set<ResourceIndexedSearchParamToken> getTokenParams() {
+		return myTokenParams;
+	}
+
+	public Set<ResourceIndexedSearchParamUri> getUriParams() {
+		return myUriParams;
+	}
+
+}
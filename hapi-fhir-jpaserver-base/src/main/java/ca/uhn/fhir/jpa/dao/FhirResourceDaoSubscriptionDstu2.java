@@ -123,6 +123,16 @@ public class FhirResourceDaoSubscriptionDstu2 extends FhirResourceDaoDstu2<Subsc
 		}
 		ourLog.trace("Beginning pollForNewUndeliveredResources()");
 
+		SubscriptionMatcherSvc matcherSvc = getSubscriptionMatcherSvc();
+		if (getConfig().isSubscriptionInMemoryMatchingEnabled() && matcherSvc != null) {
+			/*
+			 * New resources are flagged as they are written, so there is nothing to search for. Reload
+			 * the subscriptions in case they have been changed by another server.
+			 */
+			matcherSvc.refreshSubscriptions();
+			return matcherSvc.getAndResetFlaggedCount();
+		}
+
 		// SubscriptionCandidateResource
 
 		TransactionTemplate txTemplate = new TransactionTemplate(myTxManager);
@@ -276,6 +286,10 @@ public class FhirResourceDaoSubscriptionDstu2 extends FhirResourceDaoDstu2<Subsc
 			Date theUpdateTime) {
 		ResourceTable retVal = super.updateEntity(theResource, theEntity, theDeletedTimestampOrNull, thePerformIndexing, theUpdateVersion, theUpdateTime);
 
+		if (getSubscriptionMatcherSvc() != null) {
+			getSubscriptionMatcherSvc().subscriptionChanged();
+		}
+
 		Subscription resource = (Subscription) theResource;
 		Long resourceId = theEntity.getId();
 		if (theDeletedTimestampOrNull != null) {
@@ -464,10 +464,30 @@ public class FhirSystemDaoDstu2 extends BaseHapiFhirSystemDao<Bundle, MetaDt> {
 		validateDeleteConflictsEmptyOrThrowException(deleteConflicts);
 
 		/*
-		 * Perform ID substitutions and then index each resource we have saved
+		 * Look up all of the forced IDs referred to by the resources in the bundle
+		 * together, instead of one at a time while indexing each resource
 		 */
 
 		FhirTerser terser = getContext().newTerser();
+		List<IIdType> referencedIds = new ArrayList<IIdType>();
+		for (DaoMethodOutcome nextOutcome : idToPersistedOutcome.values()) {
+			IResource nextResource = (IResource) nextOutcome.getResource();
+			if (nextResource == null) {
+				continue;
+			}
+			for (BaseResourceReferenceDt nextRef : terser.getAllPopulatedChildElementsOfType(nextResource, BaseResourceReferenceDt.class)) {
+				IIdType nextId = nextRef.getReference();
+				if (nextId.hasIdPart() && !idSubstitutions.containsKey(nextId)) {
+					referencedIds.add(nextId);
+				}
+			}
+		}
+		prewarmForcedIdCache(referencedIds);
+
+		/*
+		 * Perform ID substitutions and then index each resource we have saved
+		 */
+
 		for (DaoMethodOutcome nextOutcome : idToPersistedOutcome.values()) {
 			IResource nextResource = (IResource) nextOutcome.getResource();
 			if (nextResource == null) {
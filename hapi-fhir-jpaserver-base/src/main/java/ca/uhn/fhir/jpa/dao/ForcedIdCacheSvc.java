@@ -0,0 +1,286 @@
+package ca.uhn.fhir.jpa.dao;
+
+/*
+ * #%L
+ * HAPI FHIR JPA Server
+ * %%
+ * Copyright (C) 2014 - 2017 University Health Network
+ * %%
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * #L%
+ */
+
+import static org.apache.commons.lang3.StringUtils.isBlank;
+import static org.apache.commons.lang3.StringUtils.isNotBlank;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Map.Entry;
+import java.util.Set;
+import java.util.concurrent.atomic.AtomicLong;
+
+import javax.annotation.PostConstruct;
+
+import org.apache.commons.lang3.Validate;
+import org.hl7.fhir.instance.model.api.IIdType;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.transaction.support.TransactionSynchronizationAdapter;
+import org.springframework.transaction.support.TransactionSynchronizationManager;
+
+import com.google.common.cache.Cache;
+import com.google.common.cache.CacheBuilder;
+
+import ca.uhn.fhir.jpa.dao.data.IForcedIdDao;
+import ca.uhn.fhir.jpa.entity.ForcedId;
+
+/**
+ * Caches the translation between client assigned ("forced") resource IDs and the
+ * internal resource PIDs, in both directions.
+ * <p>
+ * A forced ID is assigned when a resource is created and never changes afterwards, so
+ * cached entries never need to be invalidated. Mappings which are found or created
+ * within a transaction are only visible to that transaction until it commits, so
+ * a mapping which is rolled back is never cached.
+ * </p>
+ */
+public class ForcedIdCacheSvc {
+
+	/**
+	 * Cached value for a PID which has no forced ID
+	 */
+	private static final String NO_FORCED_ID = "";
+	private static final int PREWARM_BATCH_SIZE = 500;
+	private static final org.slf4j.Logger ourLog = org.slf4j.LoggerFactory.getLogger(ForcedIdCacheSvc.class);
+
+	@Autowired
+	private IForcedIdDao myForcedIdDao;
+
+	private Cache<String, Long> myForcedIdToPid;
+	private final AtomicLong myHitCount = new AtomicLong();
+	private int myMaxSize = 100000;
+	private final AtomicLong myMissCount = new AtomicLong();
+	private Cache<Long, String> myPidToForcedId;
+	private final Object myTransactionResourceKey = new Object();
+
+	/**
+	 * Removes all entries from the cache
+	 */
+	public void clear() {
+		myForcedIdToPid.invalidateAll();
+		myPidToForcedId.invalidateAll();
+	}
+
+	/**
+	 * Should be called when a forced ID is created, so that it can be used without a
+	 * lookup (within the current transaction, and by everything else once it commits)
+	 */
+	public void forcedIdCreated(ForcedId theForcedId, Long theResourcePid) {
+		record(theForcedId.getResourceType(), theForcedId.getForcedId(), theResourcePid);
+	}
+
+	/**
+	 * Returns the number of lookups which were answered from the cache
+	 */
+	public long getHitCount() {
+		return myHitCount.get();
+	}
+
+	/**
+	 * Returns the number of lookups which required a database query
+	 */
+	public long getMissCount() {
+		return myMissCount.get();
+	}
+
+	/**
+	 * Returns the number of entries currently in the cache (in both directions)
+	 */
+	public long getSize() {
+		return myForcedIdToPid.size() + myPidToForcedId.size();
+	}
+
+	private TransactionEntries getTransactionEntries(boolean theCreate) {
+		if (!TransactionSynchronizationManager.isSynchronizationActive()) {
+			return null;
+		}
+		TransactionEntries retVal = (TransactionEntries) TransactionSynchronizationManager.getResource(myTransactionResourceKey);
+		if (retVal == null && theCreate) {
+			final TransactionEntries entries = new TransactionEntries();
+			TransactionSynchronizationManager.bindResource(myTransactionResourceKey, entries);
+			TransactionSynchronizationManager.registerSynchronization(new TransactionSynchronizationAdapter() {
+				@Override
+				public void afterCompletion(int theStatus) {
+					TransactionSynchronizationManager.unbindResourceIfPossible(myTransactionResourceKey);
+					if (theStatus == STATUS_COMMITTED) {
+						myForcedIdToPid.putAll(entries.myForcedIdToPid);
+						myPidToForcedId.putAll(entries.myPidToForcedId);
+					}
+				}
+			});
+			retVal = entries;
+		}
+		return retVal;
+	}
+
+	private Long lookupPid(String theKey) {
+		Long retVal = myForcedIdToPid.getIfPresent(theKey);
+		if (retVal == null) {
+			TransactionEntries entries = getTransactionEntries(false);
+			if (entries != null) {
+				retVal = entries.myForcedIdToPid.get(theKey);
+			}
+		}
+		return retVal;
+	}
+
+	/**
+	 * Loads the PIDs for any of the given IDs which are forced IDs and aren't already cached,
+	 * using one query per resource type (per {@value #PREWARM_BATCH_SIZE} IDs) instead of one query
+	 * per ID. IDs which are not found are ignored.
+	 */
+	public void prewarm(Collection<? extends IIdType> theIds) {
+		Map<String, Set<String>> typeToForcedIds = new HashMap<String, Set<String>>();
+		for (IIdType next : theIds) {
+			if (next == null || !next.hasIdPart() || !next.hasResourceType() || isNotBlank(next.getBaseUrl()) || BaseHapiFhirDao.isValidPid(next)) {
+				continue;
+			}
+			if (lookupPid(toKey(next.getResourceType(), next.getIdPart())) != null) {
+				continue;
+			}
+			Set<String> forcedIds = typeToForcedIds.get(next.getResourceType());
+			if (forcedIds == null) {
+				forcedIds = new LinkedHashSet<String>();
+				typeToForcedIds.put(next.getResourceType(), forcedIds);
+			}
+			forcedIds.add(next.getIdPart());
+		}
+
+		for (Entry<String, Set<String>> nextEntry : typeToForcedIds.entrySet()) {
+			List<String> forcedIds = new ArrayList<String>(nextEntry.getValue());
+			for (int i = 0; i < forcedIds.size(); i += PREWARM_BATCH_SIZE) {
+				List<String> batch = forcedIds.subList(i, Math.min(forcedIds.size(), i + PREWARM_BATCH_SIZE));
+				for (ForcedId next : myForcedIdDao.findByTypeAndForcedIds(nextEntry.getKey(), batch)) {
+					record(next.getResourceType(), next.getForcedId(), next.getResourcePid());
+				}
+			}
+			ourLog.debug("Prewarmed {} forced IDs of type {}", forcedIds.size(), nextEntry.getKey());
+		}
+	}
+
+	private void record(String theResourceType, String theForcedId, Long thePid) {
+		String key = toKey(theResourceType, theForcedId);
+		TransactionEntries entries = getTransactionEntries(true);
+		if (entries != null) {
+			entries.myForcedIdToPid.put(key, thePid);
+			entries.myPidToForcedId.put(thePid, key);
+		} else {
+			myForcedIdToPid.put(key, thePid);
+			myPidToForcedId.put(thePid, key);
+		}
+	}
+
+	private void recordNoForcedId(Long thePid) {
+		TransactionEntries entries = getTransactionEntries(true);
+		if (entries != null) {
+			entries.myPidToForcedId.put(thePid, NO_FORCED_ID);
+		} else {
+			myPidToForcedId.put(thePid, NO_FORCED_ID);
+		}
+	}
+
+	/**
+	 * Sets the maximum number of entries to cache in each direction. Changes take
+	 * effect when the service is started. Default is 100000.
+	 */
+	public void setMaxSize(int theMaxSize) {
+		Validate.isTrue(theMaxSize > 0, "theMaxSize must be > 0");
+		myMaxSize = theMaxSize;
+	}
+
+	@PostConstruct
+	public void start() {
+		myForcedIdToPid = CacheBuilder.newBuilder().maximumSize(myMaxSize).build();
+		myPidToForcedId = CacheBuilder.newBuilder().maximumSize(myMaxSize).build();
+	}
+
+	/**
+	 * Translates a resource ID (which may be a PID or a forced ID) into the matching PIDs
+	 * 
+	 * @throws ca.uhn.fhir.rest.server.exceptions.ResourceNotFoundException
+	 *            If no resource has the given ID
+	 */
+	public List<Long> translateForcedIdToPids(IIdType theId) {
+		Validate.isTrue(theId.hasIdPart());
+
+		if (BaseHapiFhirDao.isValidPid(theId) || !theId.hasResourceType()) {
+			return BaseHapiFhirDao.translateForcedIdToPids(theId, myForcedIdDao);
+		}
+
+		String key = toKey(theId.getResourceType(), theId.getIdPart());
+		Long pid = lookupPid(key);
+		if (pid != null) {
+			myHitCount.incrementAndGet();
+			return Collections.singletonList(pid);
+		}
+
+		myMissCount.incrementAndGet();
+		List<Long> retVal = BaseHapiFhirDao.translateForcedIdToPids(theId, myForcedIdDao);
+		if (retVal.size() == 1) {
+			record(theId.getResourceType(), theId.getIdPart(), retVal.get(0));
+		}
+		return retVal;
+	}
+
+	/**
+	 * Returns the forced ID for the given PID, in the form <code>ResourceType/forcedid</code>, or
+	 * <code>null</code> if the resource does not have a forced ID
+	 */
+	public String translatePidToForcedId(Long thePid) {
+		String retVal = myPidToForcedId.getIfPresent(thePid);
+		if (retVal == null) {
+			TransactionEntries entries = getTransactionEntries(false);
+			if (entries != null) {
+				retVal = entries.myPidToForcedId.get(thePid);
+			}
+		}
+		if (retVal != null) {
+			myHitCount.incrementAndGet();
+			return isBlank(retVal) ? null : retVal;
+		}
+
+		myMissCount.incrementAndGet();
+		ForcedId forcedId = myForcedIdDao.findByResourcePid(thePid);
+		if (forcedId != null) {
+			record(forcedId.getResourceType(), forcedId.getForcedId(), thePid);
+			return toKey(forcedId.getResourceType(), forcedId.getForcedId());
+		}
+		recordNoForcedId(thePid);
+		return null;
+	}
+
+	private static String toKey(String theResourceType, String theForcedId) {
+		return theResourceType + '/' + theForcedId;
+	}
+
+	private static class TransactionEntries {
+		private final Map<String, Long> myForcedIdToPid = new LinkedHashMap<String, Long>();
+		private final Map<Long, String> myPidToForcedId = new LinkedHashMap<Long, String>();
+	}
+
+}
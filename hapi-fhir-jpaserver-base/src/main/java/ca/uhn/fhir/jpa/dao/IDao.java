@@ -1,6 +1,7 @@
 package ca.uhn.fhir.jpa.dao;
 
 import java.util.Collection;
+import java.util.List;
 import java.util.Set;
 
 import org.hl7.fhir.instance.model.api.IAnyResource;
@@ -75,6 +76,18 @@ public interface IDao {
 
 	<R extends IBaseResource> R toResource(Class<R> theResourceType, BaseHasResource theEntity, boolean theForHistoryOperation);
 
+	/**
+	 * Converts a list of entities to resources, returning them in the same order
+	 */
+	List<IBaseResource> toResources(List<? extends BaseHasResource> theEntities, boolean theForHistoryOperation);
+
+	/**
+	 * Converts a list of entities to resources, returning them in the same order. Resources
+	 * whose bodies are stored as JSON text are not parsed, and are instead returned as
+	 * placeholders with a {@link ca.uhn.fhir.parser.LazyResourceBody} attached.
+	 */
+	List<IBaseResource> toResourcesWithLazyBodies(List<? extends BaseHasResource> theEntities, boolean theForHistoryOperation);
+
 	void populateFullTextFields(IBaseResource theResource, ResourceTable theEntity);
 
 	RuntimeSearchParam getSearchParamByName(RuntimeResourceDefinition theResourceDef, String theParamName);
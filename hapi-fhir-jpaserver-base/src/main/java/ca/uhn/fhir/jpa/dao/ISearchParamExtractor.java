@@ -54,4 +54,11 @@ public interface ISearchParamExtractor {
 
 	public abstract List<PathAndRef> extractResourceLinks(IBaseResource theResource, RuntimeSearchParam theNextSpDef);
 
+	/**
+	 * Extracts all of the index types, and the values of reference parameters, for the given resource
+	 * in a single pass. Each distinct search parameter path is only evaluated once against the resource,
+	 * and the values are then handed to the extractor for each parameter which uses that path.
+	 */
+	public abstract ExtractedSearchParams extractSearchParams(ResourceTable theEntity, IBaseResource theResource);
+
 }
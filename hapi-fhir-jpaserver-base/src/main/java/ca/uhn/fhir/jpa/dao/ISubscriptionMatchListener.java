@@ -0,0 +1,41 @@
+package ca.uhn.fhir.jpa.dao;
+
+/*
+ * #%L
+ * HAPI FHIR JPA Server
+ * %%
+ * Copyright (C) 2014 - 2017 University Health Network
+ * %%
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * #L%
+ */
+
+
+import org.hl7.fhir.instance.model.api.IBaseResource;
+
+/**
+ * Receives the resources which match a subscription as soon as the transaction
+ * which wrote them commits.
+ * 
+ * @see SubscriptionMatcherSvc#registerListener(Long, ISubscriptionMatchListener)
+ */
+public interface ISubscriptionMatchListener {
+
+	/**
+	 * Called (in the thread which committed the write) when a new version of a resource
+	 * matches the subscription. Implementations should return quickly and must not
+	 * modify the resource.
+	 */
+	void resourceMatched(IBaseResource theResource);
+
+}
@@ -0,0 +1,96 @@
+package ca.uhn.fhir.jpa.dao;
+
+/*
+ * #%L
+ * HAPI FHIR JPA Server
+ * %%
+ * Copyright (C) 2014 - 2017 University Health Network
+ * %%
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * #L%
+ */
+
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import javax.annotation.PreDestroy;
+
+import org.springframework.beans.factory.annotation.Autowired;
+
+/**
+ * Owns the pool of threads which {@link BaseHapiFhirDao#toResources(java.util.List, boolean)}
+ * uses to decompress and parse stored resource bodies in parallel. The pool is shared by
+ * all of the DAOs of a server, and is sized by
+ * {@link DaoConfig#setResourceParsingThreadCount(int)}.
+ */
+public class ResourceParsingExecutorSvc {
+
+	@Autowired
+	private DaoConfig myDaoConfig;
+
+	private volatile ThreadPoolExecutor myExecutor;
+
+	/**
+	 * Returns the executor to parse resources with, or <code>null</code> if resources
+	 * should be parsed sequentially by the calling thread
+	 */
+	public ExecutorService getExecutor() {
+		int threadCount = myDaoConfig.getResourceParsingThreadCount();
+		if (threadCount < 2) {
+			return null;
+		}
+
+		ThreadPoolExecutor retVal = myExecutor;
+		if (retVal == null || retVal.getCorePoolSize() != threadCount) {
+			synchronized (this) {
+				retVal = myExecutor;
+				if (retVal == null || retVal.getCorePoolSize() != threadCount) {
+					/*
+					 * A previous executor is not shut down here, since other threads may still be
+					 * submitting to it. Its threads time out once it has drained.
+					 */
+					retVal = newExecutor(threadCount);
+					myExecutor = retVal;
+				}
+			}
+		}
+		return retVal;
+	}
+
+	private static ThreadPoolExecutor newExecutor(int theThreadCount) {
+		final AtomicInteger threadIndex = new AtomicInteger();
+		ThreadPoolExecutor retVal = new ThreadPoolExecutor(theThreadCount, theThreadCount, 60, TimeUnit.SECONDS, new LinkedBlockingQueue<Runnable>(), new ThreadFactory() {
+			@Override
+			public Thread newThread(Runnable theRunnable) {
+				Thread retVal = new Thread(theRunnable, "resource-parser-" + threadIndex.incrementAndGet());
+				retVal.setDaemon(true);
+				return retVal;
+			}
+		});
+		retVal.allowCoreThreadTimeOut(true);
+		return retVal;
+	}
+
+	@PreDestroy
+	public synchronized void stop() {
+		if (myExecutor != null) {
+			myExecutor.shutdown();
+			myExecutor = null;
+		}
+	}
+
+}
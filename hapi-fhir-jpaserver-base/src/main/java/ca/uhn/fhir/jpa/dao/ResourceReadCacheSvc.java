@@ -0,0 +1,465 @@
+package ca.uhn.fhir.jpa.dao;
+
+/*
+ * #%L
+ * HAPI FHIR JPA Server
+ * %%
+ * Copyright (C) 2014 - 2017 University Health Network
+ * %%
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * #L%
+ */
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentMap;
+
+import javax.annotation.PostConstruct;
+import javax.persistence.EntityManager;
+import javax.persistence.NoResultException;
+import javax.persistence.PersistenceContext;
+import javax.persistence.PersistenceContextType;
+import javax.persistence.TypedQuery;
+
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.transaction.support.TransactionSynchronizationAdapter;
+import org.springframework.transaction.support.TransactionSynchronizationManager;
+
+import com.google.common.cache.Cache;
+import com.google.common.cache.CacheBuilder;
+import com.google.common.cache.CacheStats;
+import com.google.common.cache.RemovalListener;
+import com.google.common.cache.RemovalNotification;
+import com.google.common.cache.Weigher;
+
+import ca.uhn.fhir.jpa.entity.BaseHasResource;
+import ca.uhn.fhir.jpa.entity.BaseTag;
+import ca.uhn.fhir.jpa.entity.ForcedId;
+import ca.uhn.fhir.jpa.entity.TagDefinition;
+import ca.uhn.fhir.model.primitive.IdDt;
+
+/**
+ * Caches the stored (encoded) form of resources by resource type, PID and version, so
+ * that reads of frequently accessed resources don't need to load the resource row
+ * from the database (see {@link DaoConfig#setResourceReadCacheEnabled(boolean)}).
+ * <p>
+ * A specific version of a resource never changes once it has been stored, so a
+ * <code>vread</code> can always be served from the cache. For a plain <code>read</code>
+ * the current version of the resource must be known first:
+ * </p>
+ * <ul>
+ * <li>In cluster safe mode (the default), the current version is looked up using a
+ * small query which does not touch the resource body or any other tables.</li>
+ * <li>Otherwise, the cache keeps track of the current version of each resource it holds,
+ * and relies on all updates going through this server to keep that up to date. Reads can
+ * then be served with no database access at all, but changes made by other servers
+ * sharing the same database will not be seen.</li>
+ * </ul>
+ * <p>
+ * Entries are only added once the transaction which wrote or read them has committed,
+ * so content from a transaction which is rolled back is never cached.
+ * </p>
+ */
+public class ResourceReadCacheSvc {
+
+	/**
+	 * Approximate per-entry overhead in addition to the resource body, used for weighing entries
+	 */
+	private static final int ENTRY_OVERHEAD_BYTES = 256;
+	private static final org.slf4j.Logger ourLog = org.slf4j.LoggerFactory.getLogger(ResourceReadCacheSvc.class);
+
+	private Cache<Key, CachedResource> myCache;
+	private Cache<Long, Long> myCurrentVersions;
+
+	/**
+	 * The keys in {@link #myCache} for each PID, so that evicting a resource doesn't need
+	 * to scan the whole cache. Guarded by its own lock.
+	 */
+	private final Map<Long, Set<Key>> myPidToKeys = new HashMap<Long, Set<Key>>();
+
+	@Autowired
+	private DaoConfig myDaoConfig;
+
+	@PersistenceContext(type = PersistenceContextType.TRANSACTION)
+	private EntityManager myEntityManager;
+
+	private final Object myTransactionResourceKey = new Object();
+
+	/**
+	 * Removes all entries from the cache
+	 */
+	public void clear() {
+		synchronized (myPidToKeys) {
+			myCache.invalidateAll();
+			myPidToKeys.clear();
+		}
+		myCurrentVersions.invalidateAll();
+	}
+
+	/**
+	 * Removes all cached versions of the given resource. This should be called when
+	 * something about a stored version changes without creating a new version
+	 * (e.g. <code>$meta-add</code>).
+	 */
+	public void evict(final Long thePid) {
+		evictNow(thePid);
+		if (TransactionSynchronizationManager.isSynchronizationActive()) {
+			markDirtyInCurrentTransaction(thePid);
+			// Also remove anything which was cached by another transaction while this one was in progress
+			TransactionSynchronizationManager.registerSynchronization(new TransactionSynchronizationAdapter() {
+				@Override
+				public void afterCommit() {
+					evictNow(thePid);
+				}
+			});
+		}
+	}
+
+	private void evictNow(Long thePid) {
+		myCurrentVersions.invalidate(thePid);
+		synchronized (myPidToKeys) {
+			Set<Key> keys = myPidToKeys.remove(thePid);
+			if (keys != null) {
+				myCache.invalidateAll(keys);
+			}
+		}
+	}
+
+	/**
+	 * Returns the cached copy of the given resource version, or <code>null</code> if it is not cached.
+	 * If <code>theVersion</code> is <code>null</code>, the current version is returned.
+	 * <p>
+	 * The returned object is not a persistent entity, but it may be passed to
+	 * {@link IDao#toResource(BaseHasResource, boolean)}.
+	 * </p>
+	 */
+	public BaseHasResource get(String theResourceType, Long thePid, Long theVersion) {
+		if (!myDaoConfig.isResourceReadCacheEnabled() || isDirtyInCurrentTransaction(thePid)) {
+			return null;
+		}
+
+		Long version = theVersion;
+		if (version == null) {
+			if (myDaoConfig.isResourceReadCacheClusterSafe()) {
+				version = loadCurrentVersion(thePid);
+			} else {
+				version = myCurrentVersions.getIfPresent(thePid);
+			}
+			if (version == null) {
+				// Record the lookup as a miss
+				myCache.getIfPresent(new Key(theResourceType, thePid, -1L));
+				return null;
+			}
+		}
+
+		return myCache.getIfPresent(new Key(theResourceType, thePid, version));
+	}
+
+	/**
+	 * Returns the number of entries currently in the cache
+	 */
+	public long getSize() {
+		return myCache.size();
+	}
+
+	/**
+	 * Returns the hit, miss and eviction counts for the cache
+	 */
+	public CacheStats getStats() {
+		return myCache.stats();
+	}
+
+	private boolean isDirtyInCurrentTransaction(Long thePid) {
+		@SuppressWarnings("unchecked")
+		Set<Long> dirty = (Set<Long>) TransactionSynchronizationManager.getResource(myTransactionResourceKey);
+		return dirty != null && dirty.contains(thePid);
+	}
+
+	private Long loadCurrentVersion(Long thePid) {
+		TypedQuery<Long> q = myEntityManager.createQuery("SELECT r.myVersion FROM ResourceTable r WHERE r.myId = :pid", Long.class);
+		q.setParameter("pid", thePid);
+		try {
+			return q.getSingleResult();
+		} catch (NoResultException e) {
+			return null;
+		}
+	}
+
+	/**
+	 * Makes sure that reads later in the current transaction don't use cache entries
+	 * which don't reflect changes made earlier in the same transaction
+	 */
+	private void markDirtyInCurrentTransaction(Long thePid) {
+		if (!TransactionSynchronizationManager.isSynchronizationActive()) {
+			return;
+		}
+		@SuppressWarnings("unchecked")
+		Set<Long> dirty = (Set<Long>) TransactionSynchronizationManager.getResource(myTransactionResourceKey);
+		if (dirty == null) {
+			dirty = new HashSet<Long>();
+			TransactionSynchronizationManager.bindResource(myTransactionResourceKey, dirty);
+			TransactionSynchronizationManager.registerSynchronization(new TransactionSynchronizationAdapter() {
+				@Override
+				public void afterCompletion(int theStatus) {
+					TransactionSynchronizationManager.unbindResourceIfPossible(myTransactionResourceKey);
+				}
+			});
+		}
+		dirty.add(thePid);
+	}
+
+	/**
+	 * Adds a resource version which has been read from the database to the cache, once the
+	 * current transaction (if any) has committed. If <code>theCurrentVersion</code> is <code>true</code>,
+	 * the entity is the current version of the resource.
+	 */
+	public void put(BaseHasResource theEntity, boolean theCurrentVersion) {
+		if (!myDaoConfig.isResourceReadCacheEnabled() || theEntity.getResource() == null || theEntity.getId() == null) {
+			return;
+		}
+		if (isDirtyInCurrentTransaction(theEntity.getId())) {
+			return;
+		}
+		putAfterCommit(new CachedResource(theEntity), theCurrentVersion);
+	}
+
+	private void putAfterCommit(final CachedResource theCached, final boolean theCurrentVersion) {
+		if (TransactionSynchronizationManager.isSynchronizationActive()) {
+			TransactionSynchronizationManager.registerSynchronization(new TransactionSynchronizationAdapter() {
+				@Override
+				public void afterCommit() {
+					putNow(theCached, theCurrentVersion);
+				}
+			});
+		} else {
+			putNow(theCached, theCurrentVersion);
+		}
+	}
+
+	private void putNow(CachedResource theCached, boolean theCurrentVersion) {
+		Key key = new Key(theCached.getResourceType(), theCached.getId(), theCached.getVersion());
+		synchronized (myPidToKeys) {
+			Set<Key> keys = myPidToKeys.get(key.myPid);
+			if (keys == null) {
+				keys = new HashSet<Key>();
+				myPidToKeys.put(key.myPid, keys);
+			}
+			keys.add(key);
+			myCache.put(key, theCached);
+		}
+		if (theCurrentVersion) {
+			updateCurrentVersion(theCached.getId(), theCached.getVersion());
+		}
+	}
+
+	/**
+	 * Records that a resource has been written (created, updated or deleted) in the current transaction.
+	 * Once the transaction commits, the written version becomes the cached current version.
+	 */
+	public void resourceWritten(BaseHasResource theEntity) {
+		if (theEntity.getId() == null) {
+			return;
+		}
+		if (!myDaoConfig.isResourceReadCacheEnabled() || theEntity.getResource() == null) {
+			// Make sure a stale current version isn't used if the cache is enabled later
+			myCurrentVersions.invalidate(theEntity.getId());
+			return;
+		}
+		CachedResource cached = new CachedResource(theEntity);
+		markDirtyInCurrentTransaction(theEntity.getId());
+		putAfterCommit(cached, true);
+	}
+
+	@PostConstruct
+	public void start() {
+		long maxBytes = myDaoConfig.getResourceReadCacheMaxBytes();
+		ourLog.info("Resource read cache will hold up to {} bytes", maxBytes);
+
+		myCache = CacheBuilder
+				.newBuilder()
+				.maximumWeight(maxBytes)
+				.weigher(new Weigher<Key, CachedResource>() {
+					@Override
+					public int weigh(Key theKey, CachedResource theValue) {
+						return theValue.getResource().length + ENTRY_OVERHEAD_BYTES;
+					}
+				})
+				.removalListener(new RemovalListener<Key, CachedResource>() {
+					@Override
+					public void onRemoval(RemovalNotification<Key, CachedResource> theNotification) {
+						// Explicit removals are taken out of the index by whatever removed them
+						if (theNotification.wasEvicted()) {
+							removeFromIndex(theNotification.getKey());
+						}
+					}
+				})
+				.recordStats()
+				.build();
+
+		// Entries here are tiny, so just bound them to a generous multiple of the body cache
+		myCurrentVersions = CacheBuilder
+				.newBuilder()
+				.maximumSize(Math.max(1000, maxBytes / ENTRY_OVERHEAD_BYTES))
+				.build();
+	}
+
+	private void removeFromIndex(Key theKey) {
+		synchronized (myPidToKeys) {
+			if (myCache.asMap().containsKey(theKey)) {
+				// The same version has been cached again since it was evicted
+				return;
+			}
+			Set<Key> keys = myPidToKeys.get(theKey.myPid);
+			if (keys != null) {
+				keys.remove(theKey);
+				if (keys.isEmpty()) {
+					myPidToKeys.remove(theKey.myPid);
+				}
+			}
+		}
+	}
+
+	/**
+	 * Versions only ever increase, so never replace a newer current version with an older one (which
+	 * can happen if a read transaction which started before an update commits after it)
+	 */
+	private void updateCurrentVersion(Long thePid, long theVersion) {
+		ConcurrentMap<Long, Long> map = myCurrentVersions.asMap();
+		Long newVersion = Long.valueOf(theVersion);
+		while (true) {
+			Long existing = map.putIfAbsent(thePid, newVersion);
+			if (existing == null || existing.longValue() >= theVersion || map.replace(thePid, existing, newVersion)) {
+				return;
+			}
+		}
+	}
+
+	/**
+	 * A detached copy of the stored fields of a resource version, which holds no
+	 * references to persistent entities
+	 */
+	private static class CachedResource extends BaseHasResource {
+
+		private final Long myId;
+		private final IdDt myIdDt;
+		private final String myResourceType;
+		private final List<BaseTag> myTags;
+		private final long myVersion;
+
+		public CachedResource(BaseHasResource theEntity) {
+			myId = theEntity.getId();
+			myIdDt = theEntity.getIdDt();
+			myResourceType = theEntity.getResourceType();
+			myVersion = theEntity.getVersion();
+
+			setDeleted(theEntity.getDeleted());
+			setEncoding(theEntity.getEncoding());
+			setFhirVersion(theEntity.getFhirVersion());
+			setHasTags(theEntity.isHasTags());
+			setPublished(theEntity.getPublished() != null ? theEntity.getPublished().getValue() : null);
+			setResource(theEntity.getResource());
+			setTitle(theEntity.getTitle());
+			setUpdated(theEntity.getUpdatedDate());
+
+			if (theEntity.getForcedId() != null) {
+				ForcedId forcedId = new ForcedId();
+				forcedId.setForcedId(theEntity.getForcedId().getForcedId());
+				forcedId.setResourceType(theEntity.getForcedId().getResourceType());
+				setForcedId(forcedId);
+			}
+
+			if (theEntity.isHasTags()) {
+				Collection<? extends BaseTag> tags = theEntity.getTags();
+				List<BaseTag> copies = new ArrayList<BaseTag>(tags.size());
+				for (BaseTag next : tags) {
+					TagDefinition def = next.getTag();
+					BaseTag copy = new BaseTag();
+					copy.setTag(new TagDefinition(def.getTagType(), def.getSystem(), def.getCode(), def.getDisplay()));
+					copies.add(copy);
+				}
+				myTags = Collections.unmodifiableList(copies);
+			} else {
+				myTags = Collections.emptyList();
+			}
+		}
+
+		@Override
+		public BaseTag addTag(TagDefinition theDef) {
+			throw new UnsupportedOperationException();
+		}
+
+		@Override
+		public Long getId() {
+			return myId;
+		}
+
+		@Override
+		public IdDt getIdDt() {
+			return myIdDt;
+		}
+
+		@Override
+		public String getResourceType() {
+			return myResourceType;
+		}
+
+		@Override
+		public Collection<? extends BaseTag> getTags() {
+			return myTags;
+		}
+
+		@Override
+		public long getVersion() {
+			return myVersion;
+		}
+
+	}
+
+	private static final class Key {
+		private final int myHashCode;
+		private final Long myPid;
+		private final String myResourceType;
+		private final long myVersion;
+
+		public Key(String theResourceType, Long thePid, long theVersion) {
+			myResourceType = theResourceType;
+			myPid = thePid;
+			myVersion = theVersion;
+			myHashCode = (31 * (31 * theResourceType.hashCode() + thePid.hashCode())) + (int) (theVersion ^ (theVersion >>> 32));
+		}
+
+		@Override
+		public boolean equals(Object theObj) {
+			if (this == theObj) {
+				return true;
+			}
+			if (!(theObj instanceof Key)) {
+				return false;
+			}
+			Key other = (Key) theObj;
+			return myVersion == other.myVersion && myPid.equals(other.myPid) && myResourceType.equals(other.myResourceType);
+		}
+
+		@Override
+		public int hashCode() {
+			return myHashCode;
+		}
+	}
+
+}
@@ -38,6 +38,7 @@ import javax.persistence.criteria.*;
 import org.apache.commons.lang3.ObjectUtils;
 import org.apache.commons.lang3.StringUtils;
 import org.apache.commons.lang3.tuple.Pair;
+import org.hibernate.jpa.QueryHints;
 import org.hl7.fhir.instance.model.api.IAnyResource;
 import org.hl7.fhir.instance.model.api.IBaseResource;
 import org.hl7.fhir.instance.model.api.IIdType;
@@ -58,6 +59,7 @@ import ca.uhn.fhir.jpa.entity.*;
 import ca.uhn.fhir.jpa.search.PersistedJpaBundleProvider;
 import ca.uhn.fhir.jpa.term.IHapiTerminologySvc;
 import ca.uhn.fhir.jpa.term.VersionIndependentConcept;
+import ca.uhn.fhir.jpa.util.LongHashSet;
 import ca.uhn.fhir.jpa.util.StopWatch;
 import ca.uhn.fhir.model.api.*;
 import ca.uhn.fhir.model.base.composite.BaseCodingDt;
@@ -81,6 +83,10 @@ import ca.uhn.fhir.rest.server.exceptions.ResourceNotFoundException;
 import ca.uhn.fhir.util.UrlUtil;
 
 public class SearchBuilder {
+	/**
+	 * The maximum number of PIDs in a single IN clause when loading resources
+	 */
+	static final int MAX_PIDS_PER_LOAD_QUERY = 800;
 	private static final org.slf4j.Logger ourLog = org.slf4j.LoggerFactory.getLogger(SearchBuilder.class);
 
 	private BaseHapiFhirDao<?> myCallingDao;
@@ -97,6 +103,7 @@ public class SearchBuilder {
 	private Search mySearchEntity;
 	private ISearchResultDao mySearchResultDao;
 	private ISearchParamRegistry mySerarchParamRegistry;
+	private boolean myStreamingAllowed;
 
 	private IHapiTerminologySvc myTerminologySvc;
 
@@ -181,8 +188,7 @@ public class SearchBuilder {
 
 		cq.where(builder.and(toArray(predicates)));
 
-		TypedQuery<Long> q = myEntityManager.createQuery(cq);
-		doSetPids(q.getResultList());
+		doSetPids(cq, from.get("myResourcePid").as(Long.class));
 	}
 
 	private void addPredicateHas(List<List<? extends IQueryParameterType>> theHasParameters, DateRangeParam theLastUpdated) {
@@ -405,8 +411,7 @@ public class SearchBuilder {
 
 		cq.where(builder.and(toArray(predicates)));
 
-		TypedQuery<Long> q = myEntityManager.createQuery(cq);
-		doSetPids(q.getResultList());
+		doSetPids(cq, from.get("myResourcePid").as(Long.class));
 	}
 
 	private void addPredicateParamMissing(String joinName, String theParamName, Class<? extends BaseResourceIndexedSearchParam> theParamTable) {
@@ -459,7 +464,7 @@ public class SearchBuilder {
 
 		TypedQuery<Long> q = myEntityManager.createQuery(cq);
 		List<Long> resultList = q.getResultList();
-		doSetPids(new HashSet<Long>(resultList));
+		doSetPids(new LongHashSet(resultList));
 	}
 
 	private void addPredicateQuantity(String theParamName, List<? extends IQueryParameterType> theList) {
@@ -492,8 +497,7 @@ public class SearchBuilder {
 
 		cq.where(builder.and(toArray(predicates)));
 
-		TypedQuery<Long> q = myEntityManager.createQuery(cq);
-		doSetPids(new HashSet<Long>(q.getResultList()));
+		doSetPids(cq, from.get("myResourcePid").as(Long.class));
 	}
 
 	private void addPredicateReference(String theParamName, List<? extends IQueryParameterType> theList) {
@@ -664,8 +668,7 @@ public class SearchBuilder {
 
 		cq.where(builder.and(toArray(predicates)));
 
-		TypedQuery<Long> q = myEntityManager.createQuery(cq);
-		doSetPids(new HashSet<Long>(q.getResultList()));
+		doSetPids(cq, from.get("mySourceResourcePid").as(Long.class));
 	}
 
 	private void addPredicateString(String theParamName, List<? extends IQueryParameterType> theList) {
@@ -700,8 +703,7 @@ public class SearchBuilder {
 
 		cq.where(builder.and(toArray(predicates)));
 
-		TypedQuery<Long> q = myEntityManager.createQuery(cq);
-		doSetPids(new HashSet<Long>(q.getResultList()));
+		doSetPids(cq, from.get("myResourcePid").as(Long.class));
 	}
 
 	private void addPredicateTag(List<List<? extends IQueryParameterType>> theList, String theParamName, DateRangeParam theLastUpdated) {
@@ -850,7 +852,7 @@ public class SearchBuilder {
 				cq.where(toArray(andPredicates));
 
 				TypedQuery<Long> q = myEntityManager.createQuery(cq);
-				Set<Long> pids = new HashSet<Long>(q.getResultList());
+				Set<Long> pids = new LongHashSet(q.getResultList());
 				doSetPids(pids);
 				continue;
 			}
@@ -880,7 +882,7 @@ public class SearchBuilder {
 			cq.where(masterCodePredicate);
 
 			TypedQuery<Long> q = myEntityManager.createQuery(cq);
-			Set<Long> pids = new HashSet<Long>(q.getResultList());
+			Set<Long> pids = new LongHashSet(q.getResultList());
 			doSetPids(pids);
 		}
 
@@ -907,6 +909,7 @@ public class SearchBuilder {
 			if (nextOr instanceof TokenParam) {
 				TokenParam id = (TokenParam) nextOr;
 				if (id.isText()) {
+					myStreamingAllowed = false;
 					addPredicateString(theParamName, theList);
 					continue;
 				}
@@ -932,8 +935,7 @@ public class SearchBuilder {
 
 		cq.where(builder.and(toArray(predicates)));
 
-		TypedQuery<Long> q = myEntityManager.createQuery(cq);
-		doSetPids(new HashSet<Long>(q.getResultList()));
+		doSetPids(cq, from.get("myResourcePid").as(Long.class));
 	}
 
 	private void addPredicateUri(String theParamName, List<? extends IQueryParameterType> theList) {
@@ -1008,7 +1010,7 @@ public class SearchBuilder {
 		}
 
 		if (codePredicates.isEmpty()) {
-			doSetPids(new HashSet<Long>());
+			doSetPids(new LongHashSet());
 			return;
 		}
 
@@ -1020,8 +1022,7 @@ public class SearchBuilder {
 
 		cq.where(builder.and(toArray(predicates)));
 
-		TypedQuery<Long> q = myEntityManager.createQuery(cq);
-		doSetPids(new HashSet<Long>(q.getResultList()));
+		doSetPids(cq, from.get("myResourcePid").as(Long.class));
 	}
 
 	private Predicate createCompositeParamPart(CriteriaBuilder builder, Root<ResourceTable> from, RuntimeSearchParam left, IQueryParameterType leftValue) {
@@ -1390,7 +1391,7 @@ public class SearchBuilder {
 		return createResourceLinkPathPredicate(myCallingDao, myContext, theParamName, from, myResourceType);
 	}
 
-	private TypedQuery<Long> createSearchAllByTypeQuery(DateRangeParam theLastUpdated) {
+	private void addPredicateSearchAllByType(DateRangeParam theLastUpdated) {
 		CriteriaBuilder builder = myEntityManager.getCriteriaBuilder();
 		CriteriaQuery<Long> cq = builder.createQuery(Long.class);
 		Root<ResourceTable> from = cq.from(ResourceTable.class);
@@ -1405,8 +1406,7 @@ public class SearchBuilder {
 
 		cq.where(toArray(predicates));
 
-		TypedQuery<Long> query = myEntityManager.createQuery(cq);
-		return query;
+		doSetPids(cq, from.get("myId").as(Long.class));
 	}
 
 	private void createSort(CriteriaBuilder theBuilder, Root<ResourceTable> theFrom, SortSpec theSort, List<Order> theOrders, List<Predicate> thePredicates) {
@@ -1535,15 +1535,15 @@ public class SearchBuilder {
 
 	public Set<Long> doGetPids() {
 		if (myParams.isPersistResults()) {
-			HashSet<Long> retVal = new HashSet<Long>();
+			LongHashSet retVal = new LongHashSet();
 
 			for (SearchResult next : mySearchResultDao.findWithSearchUuid(mySearchEntity)) {
-				retVal.add(next.getResourcePid());
+				retVal.add(next.getResourcePid().longValue());
 			}
 			return retVal;
 
 		} else {
-			return new HashSet<Long>(myPids);
+			return new LongHashSet(myPids);
 		}
 	}
 
@@ -1600,6 +1600,64 @@ public class SearchBuilder {
 		}
 	}
 
+	/**
+	 * Executes a query selecting matching resource PIDs and uses the results as the
+	 * current result set. If the search is eligible for streaming (see
+	 * {@link DaoConfig#setStreamingSearchEnabled(boolean)}), only the first page of
+	 * results is loaded here and the remainder is read from a cursor in the background
+	 * once the current transaction has committed.
+	 */
+	private void doSetPids(CriteriaQuery<Long> theQuery, Expression<Long> thePidExpression) {
+		if (!myStreamingAllowed || mySearchEntity.getTotalCount() != -1) {
+			TypedQuery<Long> q = myEntityManager.createQuery(theQuery);
+			doSetPids(new LongHashSet(q.getResultList()));
+			return;
+		}
+		myStreamingAllowed = false;
+
+		CriteriaBuilder builder = myEntityManager.getCriteriaBuilder();
+		theQuery.distinct(true);
+		theQuery.orderBy(builder.asc(thePidExpression));
+
+		int firstPageSize = myCallingDao.getConfig().getStreamingSearchFirstPageSize();
+		TypedQuery<Long> q = myEntityManager.createQuery(theQuery);
+		q.setMaxResults(firstPageSize + 1);
+		List<Long> firstPage = q.getResultList();
+		if (firstPage.size() <= firstPageSize) {
+			doSetPids(firstPage);
+			return;
+		}
+
+		/*
+		 * Count the total number of matches so that the bundle provider can report it
+		 * before the background load has completed. The query is temporarily switched
+		 * to a count and then restored for use by the background loader.
+		 */
+		theQuery.distinct(false);
+		theQuery.orderBy(new ArrayList<Order>());
+		theQuery.select(builder.countDistinct(thePidExpression));
+		Long totalCount = myEntityManager.createQuery(theQuery).getSingleResult();
+		theQuery.select(thePidExpression);
+		theQuery.distinct(true);
+		theQuery.orderBy(builder.asc(thePidExpression));
+
+		// The background loader continues after the last PID in the first page
+		Long lastPid = firstPage.get(firstPageSize - 1);
+		Predicate afterFirstPage = builder.greaterThan(thePidExpression, lastPid);
+		if (theQuery.getRestriction() != null) {
+			afterFirstPage = builder.and(theQuery.getRestriction(), afterFirstPage);
+		}
+		theQuery.where(afterFirstPage);
+
+		doSetPids(firstPage.subList(0, firstPageSize));
+		mySearchEntity.setTotalCount(totalCount.intValue());
+		mySearchEntity = myEntityManager.merge(mySearchEntity);
+		myEntityManager.flush();
+
+		ourLog.info("Streaming search {} has {} results, loading {} in the background", new Object[] { mySearchEntity.getUuid(), totalCount, totalCount - firstPageSize });
+		myCallingDao.getStreamingSearchLoaderSvc().loadRemainingResults(mySearchEntity, theQuery, firstPageSize);
+	}
+
 	private void filterResourceIdsByLastUpdated(final DateRangeParam theLastUpdated) {
 		CriteriaBuilder builder = myEntityManager.getCriteriaBuilder();
 		CriteriaQuery<Long> cq = builder.createQuery(Long.class);
@@ -1616,6 +1674,28 @@ public class SearchBuilder {
 		doSetPids(resultList);
 	}
 
+	/**
+	 * Streaming is only used for searches which will be satisfied by a single query
+	 * (i.e. a single search parameter with no additional AND values, no sort and
+	 * no _lastUpdated filter), since any further processing would need the complete
+	 * result set
+	 */
+	private boolean isStreamingPossible(SearchParameterMap theParams) {
+		if (!myCallingDao.getConfig().isStreamingSearchEnabled() || myCallingDao.getStreamingSearchLoaderSvc() == null) {
+			return false;
+		}
+		if (!theParams.isPersistResults() || theParams.getEverythingMode() != null || theParams.getSort() != null || theParams.getLastUpdated() != null) {
+			return false;
+		}
+		if (theParams.containsKey(Constants.PARAM_CONTENT) || theParams.containsKey(Constants.PARAM_TEXT)) {
+			return false;
+		}
+		if (theParams.isEmpty()) {
+			return true;
+		}
+		return theParams.size() == 1 && theParams.values().iterator().next().size() == 1;
+	}
+
 	private void loadResourcesByPid(Collection<Long> theIncludePids, List<IBaseResource> theResourceListToPopulate, Set<Long> theRevIncludedPids, boolean theForHistoryOperation) {
 		EntityManager entityManager = myEntityManager;
 		FhirContext context = myContext;
@@ -1643,24 +1723,26 @@ public class SearchBuilder {
 				// TODO: why do we need the existing list for this join to work?
 				Collection<Long> originalPids = doGetPids();
 
-				LinkedHashSet<Long> loadPids = new LinkedHashSet<Long>();
+				LongHashSet loadPids = new LongHashSet();
 				cq.multiselect(from.get("myId").as(Long.class));
 				cq.where(toArray(predicates));
 				cq.orderBy(orders);
 
 				TypedQuery<Tuple> query = myEntityManager.createQuery(cq);
 
+				ArrayList<Long> pids = new ArrayList<Long>();
 				for (Tuple next : query.getResultList()) {
-					loadPids.add(next.get(0, Long.class));
+					Long nextPid = next.get(0, Long.class);
+					if (loadPids.add(nextPid.longValue())) {
+						pids.add(nextPid);
+					}
 				}
 
-				ourLog.debug("Sort PID order is now: {}", loadPids);
-
-				ArrayList<Long> pids = new ArrayList<Long>(loadPids);
+				ourLog.debug("Sort PID order is now: {}", pids);
 
 				// Any ressources which weren't matched by the sort get added to the bottom
 				for (Long next : originalPids) {
-					if (loadPids.contains(next) == false) {
+					if (loadPids.contains(next.longValue()) == false) {
 						pids.add(next);
 					}
 				}
@@ -1700,6 +1782,7 @@ public class SearchBuilder {
 		StopWatch w = new StopWatch();
 
 		doInitializeSearch();
+		myStreamingAllowed = isStreamingPossible(theParams);
 
 		DateRangeParam lu = theParams.getLastUpdated();
 
@@ -1709,7 +1792,7 @@ public class SearchBuilder {
 			Long pid = null;
 			if (theParams.get(BaseResource.SP_RES_ID) != null) {
 				StringParam idParm = (StringParam) theParams.get(BaseResource.SP_RES_ID).get(0).get(0);
-				pid = BaseHapiFhirDao.translateForcedIdToPid(myResourceName, idParm.getValue(), myForcedIdDao);
+				pid = myCallingDao.translateForcedIdToPid(myResourceName, idParm.getValue());
 			}
 
 			if (theParams.containsKey(Constants.PARAM_CONTENT) || theParams.containsKey(Constants.PARAM_TEXT)) {
@@ -1736,12 +1819,12 @@ public class SearchBuilder {
 				cq.multiselect(from.get("myId").as(Long.class), join.get("mySourceResourcePid").as(Long.class));
 
 				TypedQuery<Tuple> query = myEntityManager.createQuery(cq);
-				Set<Long> pids = new HashSet<Long>();
+				LongHashSet pids = new LongHashSet();
 				for (Tuple next : query.getResultList()) {
-					pids.add(next.get(0, Long.class));
+					pids.add(next.get(0, Long.class).longValue());
 					Long nextLong = next.get(1, Long.class);
 					if (nextLong != null) {
-						pids.add(nextLong);
+						pids.add(nextLong.longValue());
 					}
 				}
 				doSetPids(pids);
@@ -1750,8 +1833,7 @@ public class SearchBuilder {
 
 		} else if (theParams.isEmpty()) {
 
-			TypedQuery<Long> query = createSearchAllByTypeQuery(lu);
-			doSetPids(query.getResultList());
+			addPredicateSearchAllByType(lu);
 
 		} else {
 
@@ -1826,7 +1908,7 @@ public class SearchBuilder {
 					continue;
 				} else {
 					for (List<? extends IQueryParameterType> nextValue : nextParamEntry.getValue()) {
-						Set<Long> joinPids = new HashSet<Long>();
+						LongHashSet joinPids = new LongHashSet();
 						if (nextValue == null || nextValue.size() == 0) {
 							continue;
 						} else {
@@ -1845,7 +1927,7 @@ public class SearchBuilder {
 								}
 							}
 							if (joinPids.isEmpty()) {
-								doSetPids(new HashSet<Long>());
+								doSetPids(new LongHashSet());
 								return;
 							}
 						}
@@ -2065,6 +2147,15 @@ public class SearchBuilder {
 	}
 
 	public static void loadResourcesByPid(Collection<Long> theIncludePids, List<IBaseResource> theResourceListToPopulate, Set<Long> theRevIncludedPids, boolean theForHistoryOperation, EntityManager entityManager, FhirContext context, IDao theDao) {
+		loadResourcesByPid(theIncludePids, theResourceListToPopulate, theRevIncludedPids, theForHistoryOperation, entityManager, context, theDao, false);
+	}
+
+	/**
+	 * @param theLazyBodies
+	 *           If <code>true</code>, resources are returned with their stored bodies unparsed where possible (see
+	 *           {@link IDao#toResourcesWithLazyBodies(List, boolean)})
+	 */
+	public static void loadResourcesByPid(Collection<Long> theIncludePids, List<IBaseResource> theResourceListToPopulate, Set<Long> theRevIncludedPids, boolean theForHistoryOperation, EntityManager entityManager, FhirContext context, IDao theDao, boolean theLazyBodies) {
 		if (theIncludePids.isEmpty()) {
 			return;
 		}
@@ -2075,20 +2166,42 @@ public class SearchBuilder {
 			theResourceListToPopulate.add(null);
 		}
 
-		CriteriaBuilder builder = entityManager.getCriteriaBuilder();
-		CriteriaQuery<ResourceTable> cq = builder.createQuery(ResourceTable.class);
-		Root<ResourceTable> from = cq.from(ResourceTable.class);
-		cq.where(from.get("myId").in(theIncludePids));
-		TypedQuery<ResourceTable> q = entityManager.createQuery(cq);
+		/*
+		 * Load the entities in bounded batches so that very large pages don't
+		 * produce an IN clause which exceeds what the database can handle
+		 */
+		List<ResourceTable> entities = new ArrayList<ResourceTable>(theIncludePids.size());
+		List<Long> pids = new ArrayList<Long>(theIncludePids);
+		for (int fromIndex = 0; fromIndex < pids.size(); fromIndex += MAX_PIDS_PER_LOAD_QUERY) {
+			List<Long> nextBatch = pids.subList(fromIndex, Math.min(pids.size(), fromIndex + MAX_PIDS_PER_LOAD_QUERY));
 
-		for (ResourceTable next : q.getResultList()) {
-			Class<? extends IBaseResource> resourceType = context.getResourceDefinition(next.getResourceType()).getImplementingClass();
-			IBaseResource resource = (IBaseResource) theDao.toResource(resourceType, next, theForHistoryOperation);
-			Integer index = position.get(next.getId());
-			if (index == null) {
-				ourLog.warn("Got back unexpected resource PID {}", next.getId());
-				continue;
+			CriteriaBuilder builder = entityManager.getCriteriaBuilder();
+			CriteriaQuery<ResourceTable> cq = builder.createQuery(ResourceTable.class);
+			Root<ResourceTable> from = cq.from(ResourceTable.class);
+			cq.where(from.get("myId").in(nextBatch));
+			TypedQuery<ResourceTable> q = entityManager.createQuery(cq);
+			q.setHint(QueryHints.HINT_FETCH_SIZE, nextBatch.size());
+
+			for (ResourceTable next : q.getResultList()) {
+				if (!position.containsKey(next.getId())) {
+					ourLog.warn("Got back unexpected resource PID {}", next.getId());
+					continue;
+				}
+				entities.add(next);
 			}
+		}
+
+		List<IBaseResource> resources;
+		if (theLazyBodies) {
+			resources = theDao.toResourcesWithLazyBodies(entities, theForHistoryOperation);
+		} else {
+			resources = theDao.toResources(entities, theForHistoryOperation);
+		}
+
+		for (int i = 0; i < entities.size(); i++) {
+			ResourceTable next = entities.get(i);
+			IBaseResource resource = resources.get(i);
+			Integer index = position.get(next.getId());
 
 			if (resource instanceof IResource) {
 				if (theRevIncludedPids.contains(next.getId())) {
@@ -2109,22 +2222,22 @@ public class SearchBuilder {
 	}
 
 	/**
-	 * THIS SHOULD RETURN HASHSET and not jsut Set because we add to it later (so it can't be Collections.emptySet())
+	 * THIS SHOULD RETURN A MUTABLE SET and not jsut Set because we add to it later (so it can't be Collections.emptySet())
 	 * 
 	 * @param theLastUpdated
 	 */
-	public static HashSet<Long> loadReverseIncludes(IDao theCallingDao, FhirContext theContext, EntityManager theEntityManager, Collection<Long> theMatches, Set<Include> theRevIncludes, boolean theReverseMode, DateRangeParam theLastUpdated) {
+	public static LongHashSet loadReverseIncludes(IDao theCallingDao, FhirContext theContext, EntityManager theEntityManager, Collection<Long> theMatches, Set<Include> theRevIncludes, boolean theReverseMode, DateRangeParam theLastUpdated) {
 		if (theMatches.size() == 0) {
-			return new HashSet<Long>();
+			return new LongHashSet();
 		}
 		if (theRevIncludes == null || theRevIncludes.isEmpty()) {
-			return new HashSet<Long>();
+			return new LongHashSet();
 		}
 		String searchFieldName = theReverseMode ? "myTargetResourcePid" : "mySourceResourcePid";
 
 		Collection<Long> nextRoundMatches = theMatches;
-		HashSet<Long> allAdded = new HashSet<Long>();
-		HashSet<Long> original = new HashSet<Long>(theMatches);
+		LongHashSet allAdded = new LongHashSet();
+		LongHashSet original = new LongHashSet(theMatches);
 		ArrayList<Include> includes = new ArrayList<Include>(theRevIncludes);
 
 		int roundCounts = 0;
@@ -2134,8 +2247,8 @@ public class SearchBuilder {
 		do {
 			roundCounts++;
 
-			HashSet<Long> pidsToInclude = new HashSet<Long>();
-			Set<Long> nextRoundOmit = new HashSet<Long>();
+			LongHashSet pidsToInclude = new LongHashSet();
+			LongHashSet nextRoundOmit = new LongHashSet();
 
 			for (Iterator<Include> iter = includes.iterator(); iter.hasNext();) {
 				Include nextInclude = iter.next();
@@ -2158,9 +2271,9 @@ public class SearchBuilder {
 							// nextRoundOmit.add(resourceLink.getSourceResourcePid());
 							// }
 							// }
-							pidsToInclude.add(resourceLink.getSourceResourcePid());
+							pidsToInclude.add(resourceLink.getSourceResourcePid().longValue());
 						} else {
-							pidsToInclude.add(resourceLink.getTargetResourcePid());
+							pidsToInclude.add(resourceLink.getTargetResourcePid().longValue());
 						}
 					}
 				} else {
@@ -2218,12 +2331,12 @@ public class SearchBuilder {
 							if (theReverseMode) {
 								Long pid = resourceLink.getSourceResourcePid();
 								if (pid != null) {
-									pidsToInclude.add(pid);
+									pidsToInclude.add(pid.longValue());
 								}
 							} else {
 								Long pid = resourceLink.getTargetResourcePid();
 								if (pid != null) {
-									pidsToInclude.add(pid);
+									pidsToInclude.add(pid.longValue());
 								}
 							}
 						}
@@ -2232,9 +2345,9 @@ public class SearchBuilder {
 			}
 
 			if (theLastUpdated != null && (theLastUpdated.getLowerBoundAsInstant() != null || theLastUpdated.getUpperBoundAsInstant() != null)) {
-				pidsToInclude = new HashSet<Long>(filterResourceIdsByLastUpdated(theEntityManager, theLastUpdated, pidsToInclude));
+				pidsToInclude = new LongHashSet(filterResourceIdsByLastUpdated(theEntityManager, theLastUpdated, pidsToInclude));
 			}
-			for (Long next : pidsToInclude) {
+			for (long next : pidsToInclude.toLongArray()) {
 				if (original.contains(next) == false && allAdded.contains(next) == false) {
 					theMatches.add(next);
 				}
@@ -2256,16 +2369,18 @@ public class SearchBuilder {
 	}
 
 	private final class BundleProviderInMemory implements IBundleProvider {
-		private final ArrayList<Long> myPids;
+		private final long[] myPids;
 
 		private BundleProviderInMemory(Collection<Long> thePids) {
-			final ArrayList<Long> pids;
-			if (!(thePids instanceof List)) {
-				pids = new ArrayList<Long>(thePids);
+			if (thePids instanceof LongHashSet) {
+				myPids = ((LongHashSet) thePids).toLongArray();
 			} else {
-				pids = (ArrayList<Long>) thePids;
+				myPids = new long[thePids.size()];
+				int index = 0;
+				for (Long next : thePids) {
+					myPids[index++] = next;
+				}
 			}
-			myPids = pids;
 		}
 
 		@Override
@@ -2279,12 +2394,13 @@ public class SearchBuilder {
 			return template.execute(new TransactionCallback<List<IBaseResource>>() {
 				@Override
 				public List<IBaseResource> doInTransaction(TransactionStatus theStatus) {
-					List<Long> pidsSubList = myPids.subList(theFromIndex, theToIndex);
+					List<Long> pidsSubList = new ArrayList<Long>(theToIndex - theFromIndex);
+					for (int i = theFromIndex; i < theToIndex; i++) {
+						pidsSubList.add(myPids[i]);
+					}
 
 					// Load includes
-					pidsSubList = new ArrayList<Long>(pidsSubList);
-
-					Set<Long> revIncludedPids = new HashSet<Long>();
+					LongHashSet revIncludedPids = new LongHashSet();
 					if (myParams.getEverythingMode() == null) {
 						revIncludedPids.addAll(loadReverseIncludes(myCallingDao, myContext, myEntityManager, pidsSubList, myParams.getRevIncludes(), true, myParams.getLastUpdated()));
 					}
@@ -2307,7 +2423,7 @@ public class SearchBuilder {
 
 		@Override
 		public int size() {
-			return myPids.size();
+			return myPids.length;
 		}
 
 		@Override
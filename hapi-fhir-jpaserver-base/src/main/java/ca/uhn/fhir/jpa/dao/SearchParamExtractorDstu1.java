@@ -25,7 +25,6 @@ import static org.apache.commons.lang3.StringUtils.isNotBlank;
 
 import java.math.BigDecimal;
 import java.util.ArrayList;
-import java.util.Collection;
 import java.util.Collections;
 import java.util.HashSet;
 import java.util.List;
@@ -65,7 +64,6 @@ import ca.uhn.fhir.model.primitive.BaseDateTimeDt;
 import ca.uhn.fhir.model.primitive.IntegerDt;
 import ca.uhn.fhir.model.primitive.StringDt;
 import ca.uhn.fhir.model.primitive.UriDt;
-import ca.uhn.fhir.rest.method.RestSearchParameterTypeEnum;
 
 public class SearchParamExtractorDstu1 extends BaseSearchParamExtractor implements ISearchParamExtractor {
 
@@ -75,401 +73,345 @@ public class SearchParamExtractorDstu1 extends BaseSearchParamExtractor implemen
 	}
 
 	@Override
-	public Set<ResourceIndexedSearchParamDate> extractSearchParamDates(ResourceTable theEntity, IBaseResource theResource) {
-		HashSet<ResourceIndexedSearchParamDate> retVal = new HashSet<ResourceIndexedSearchParamDate>();
+	protected void collectDates(ResourceTable theEntity, IBaseResource theResource, RuntimeSearchParam theSearchParam, List<Object> theValues, Set<ResourceIndexedSearchParamDate> theRetVal) {
+		String nextPath = theSearchParam.getPath();
+		if (isBlank(nextPath)) {
+			return;
+		}
 
-		Collection<RuntimeSearchParam> searchParams = getSearchParams(theResource);
-		for (RuntimeSearchParam nextSpDef : searchParams) {
-			if (nextSpDef.getParamType() != RestSearchParameterTypeEnum.DATE) {
-				continue;
-			}
+		boolean multiType = false;
+		if (nextPath.endsWith("[x]")) {
+			multiType = true;
+		}
 
-			String nextPath = nextSpDef.getPath();
-			if (isBlank(nextPath)) {
+		for (Object nextObject : theValues) {
+			if (nextObject == null) {
 				continue;
 			}
 
-			boolean multiType = false;
-			if (nextPath.endsWith("[x]")) {
-				multiType = true;
-			}
-
-			for (Object nextObject : extractValues(nextPath, theResource)) {
-				if (nextObject == null) {
+			ResourceIndexedSearchParamDate nextEntity;
+			if (nextObject instanceof BaseDateTimeDt) {
+				BaseDateTimeDt nextValue = (BaseDateTimeDt) nextObject;
+				if (nextValue.isEmpty()) {
 					continue;
 				}
-
-				ResourceIndexedSearchParamDate nextEntity;
-				if (nextObject instanceof BaseDateTimeDt) {
-					BaseDateTimeDt nextValue = (BaseDateTimeDt) nextObject;
-					if (nextValue.isEmpty()) {
-						continue;
-					}
-					nextEntity = new ResourceIndexedSearchParamDate(nextSpDef.getName(), nextValue.getValue(), nextValue.getValue());
-				} else if (nextObject instanceof PeriodDt) {
-					PeriodDt nextValue = (PeriodDt) nextObject;
-					if (nextValue.isEmpty()) {
-						continue;
-					}
-					nextEntity = new ResourceIndexedSearchParamDate(nextSpDef.getName(), nextValue.getStart().getValue(), nextValue.getEnd().getValue());
-				} else {
-					if (!multiType) {
-						throw new ConfigurationException("Search param " + nextSpDef.getName() + " is of unexpected datatype: " + nextObject.getClass());
-					} else {
-						continue;
-					}
+				nextEntity = new ResourceIndexedSearchParamDate(theSearchParam.getName(), nextValue.getValue(), nextValue.getValue());
+			} else if (nextObject instanceof PeriodDt) {
+				PeriodDt nextValue = (PeriodDt) nextObject;
+				if (nextValue.isEmpty()) {
+					continue;
 				}
-				if (nextEntity != null) {
-					nextEntity.setResource(theEntity);
-					retVal.add(nextEntity);
+				nextEntity = new ResourceIndexedSearchParamDate(theSearchParam.getName(), nextValue.getStart().getValue(), nextValue.getEnd().getValue());
+			} else {
+				if (!multiType) {
+					throw new ConfigurationException("Search param " + theSearchParam.getName() + " is of unexpected datatype: " + nextObject.getClass());
+				} else {
+					continue;
 				}
 			}
+			if (nextEntity != null) {
+				nextEntity.setResource(theEntity);
+				theRetVal.add(nextEntity);
+			}
 		}
-
-		return retVal;
 	}
 
 
 	@Override
-	public HashSet<ResourceIndexedSearchParamNumber> extractSearchParamNumber(ResourceTable theEntity, IBaseResource theResource) {
-		HashSet<ResourceIndexedSearchParamNumber> retVal = new HashSet<ResourceIndexedSearchParamNumber>();
+	protected void collectNumbers(ResourceTable theEntity, IBaseResource theResource, RuntimeSearchParam theSearchParam, List<Object> theValues, Set<ResourceIndexedSearchParamNumber> theRetVal) {
+		String nextPath = theSearchParam.getPath();
+		if (isBlank(nextPath)) {
+			return;
+		}
 
-		Collection<RuntimeSearchParam> searchParams = getSearchParams(theResource);
-		for (RuntimeSearchParam nextSpDef : searchParams) {
-			if (nextSpDef.getParamType() != RestSearchParameterTypeEnum.NUMBER) {
+		for (Object nextObject : theValues) {
+			if (nextObject == null || ((IDatatype) nextObject).isEmpty()) {
 				continue;
 			}
 
-			String nextPath = nextSpDef.getPath();
-			if (isBlank(nextPath)) {
-				continue;
+			String resourceName = theSearchParam.getName();
+			boolean multiType = false;
+			if (nextPath.endsWith("[x]")) {
+				multiType = true;
 			}
 
-			for (Object nextObject : extractValues(nextPath, theResource)) {
-				if (nextObject == null || ((IDatatype) nextObject).isEmpty()) {
+			if (nextObject instanceof DurationDt) {
+				DurationDt nextValue = (DurationDt) nextObject;
+				if (nextValue.getValue().isEmpty()) {
 					continue;
 				}
 
-				String resourceName = nextSpDef.getName();
-				boolean multiType = false;
-				if (nextPath.endsWith("[x]")) {
-					multiType = true;
-				}
-
-				if (nextObject instanceof DurationDt) {
-					DurationDt nextValue = (DurationDt) nextObject;
-					if (nextValue.getValue().isEmpty()) {
-						continue;
-					}
-
-					if (new UriDt(BaseHapiFhirDao.UCUM_NS).equals(nextValue.getSystem())) {
-						if (isNotBlank(nextValue.getCode().getValue())) {
-
-							Unit<? extends Quantity> unit = Unit.valueOf(nextValue.getCode().getValue());
-							javax.measure.converter.UnitConverter dayConverter = unit.getConverterTo(NonSI.DAY);
-							double dayValue = dayConverter.convert(nextValue.getValue().getValue().doubleValue());
-							DurationDt newValue = new DurationDt();
-							newValue.setSystem(BaseHapiFhirDao.UCUM_NS);
-							newValue.setCode(NonSI.DAY.toString());
-							newValue.setValue(dayValue);
-							nextValue = newValue;
-
-							/*
-							 * @SuppressWarnings("unchecked") PhysicsUnit<? extends
-							 * org.unitsofmeasurement.quantity.Quantity<?>> unit = (PhysicsUnit<? extends
-							 * org.unitsofmeasurement.quantity.Quantity<?>>)
-							 * UCUMFormat.getCaseInsensitiveInstance().parse(nextValue.getCode().getValue(), null); if
-							 * (unit.isCompatible(UCUM.DAY)) {
-							 * 
-							 * @SuppressWarnings("unchecked") PhysicsUnit<org.unitsofmeasurement.quantity.Time> timeUnit
-							 * = (PhysicsUnit<Time>) unit; UnitConverter conv = timeUnit.getConverterTo(UCUM.DAY);
-							 * double dayValue = conv.convert(nextValue.getValue().getValue().doubleValue()); DurationDt
-							 * newValue = new DurationDt(); newValue.setSystem(UCUM_NS);
-							 * newValue.setCode(UCUM.DAY.getSymbol()); newValue.setValue(dayValue); nextValue=newValue;
-							 * }
-							 */
-						}
-					}
-
-					ResourceIndexedSearchParamNumber nextEntity = new ResourceIndexedSearchParamNumber(resourceName, nextValue.getValue().getValue());
-					nextEntity.setResource(theEntity);
-					retVal.add(nextEntity);
-				} else if (nextObject instanceof QuantityDt) {
-					QuantityDt nextValue = (QuantityDt) nextObject;
-					if (nextValue.getValue().isEmpty()) {
-						continue;
-					}
-
-					ResourceIndexedSearchParamNumber nextEntity = new ResourceIndexedSearchParamNumber(resourceName, nextValue.getValue().getValue());
-					nextEntity.setResource(theEntity);
-					retVal.add(nextEntity);
-				} else if (nextObject instanceof IntegerDt) {
-					IntegerDt nextValue = (IntegerDt) nextObject;
-					if (nextValue.getValue() == null) {
-						continue;
-					}
-
-					ResourceIndexedSearchParamNumber nextEntity = new ResourceIndexedSearchParamNumber(resourceName, new BigDecimal(nextValue.getValue()));
-					nextEntity.setResource(theEntity);
-					retVal.add(nextEntity);
-				} else {
-					if (!multiType) {
-						throw new ConfigurationException("Search param " + resourceName + " is of unexpected datatype: " + nextObject.getClass());
-					} else {
-						continue;
+				if (new UriDt(BaseHapiFhirDao.UCUM_NS).equals(nextValue.getSystem())) {
+					if (isNotBlank(nextValue.getCode().getValue())) {
+
+						Unit<? extends Quantity> unit = Unit.valueOf(nextValue.getCode().getValue());
+						javax.measure.converter.UnitConverter dayConverter = unit.getConverterTo(NonSI.DAY);
+						double dayValue = dayConverter.convert(nextValue.getValue().getValue().doubleValue());
+						DurationDt newValue = new DurationDt();
+						newValue.setSystem(BaseHapiFhirDao.UCUM_NS);
+						newValue.setCode(NonSI.DAY.toString());
+						newValue.setValue(dayValue);
+						nextValue = newValue;
+
+						/*
+						 * @SuppressWarnings("unchecked") PhysicsUnit<? extends
+						 * org.unitsofmeasurement.quantity.Quantity<?>> unit = (PhysicsUnit<? extends
+						 * org.unitsofmeasurement.quantity.Quantity<?>>)
+						 * UCUMFormat.getCaseInsensitiveInstance().parse(nextValue.getCode().getValue(), null); if
+						 * (unit.isCompatible(UCUM.DAY)) {
+						 * 
+						 * @SuppressWarnings("unchecked") PhysicsUnit<org.unitsofmeasurement.quantity.Time> timeUnit
+						 * = (PhysicsUnit<Time>) unit; UnitConverter conv = timeUnit.getConverterTo(UCUM.DAY);
+						 * double dayValue = conv.convert(nextValue.getValue().getValue().doubleValue()); DurationDt
+						 * newValue = new DurationDt(); newValue.setSystem(UCUM_NS);
+						 * newValue.setCode(UCUM.DAY.getSymbol()); newValue.setValue(dayValue); nextValue=newValue;
+						 * }
+						 */
 					}
 				}
-			}
-		}
-
-		return retVal;
-	}
-
-	@Override
-	public Set<ResourceIndexedSearchParamQuantity> extractSearchParamQuantity(ResourceTable theEntity, IBaseResource theResource) {
-		HashSet<ResourceIndexedSearchParamQuantity> retVal = new HashSet<ResourceIndexedSearchParamQuantity>();
 
-		Collection<RuntimeSearchParam> searchParams = getSearchParams(theResource);
-		for (RuntimeSearchParam nextSpDef : searchParams) {
-			if (nextSpDef.getParamType() != RestSearchParameterTypeEnum.QUANTITY) {
-				continue;
-			}
-
-			String nextPath = nextSpDef.getPath();
-			if (isBlank(nextPath)) {
-				continue;
-			}
-
-			for (Object nextObject : extractValues(nextPath, theResource)) {
-				if (nextObject == null || ((IDatatype) nextObject).isEmpty()) {
+				ResourceIndexedSearchParamNumber nextEntity = new ResourceIndexedSearchParamNumber(resourceName, nextValue.getValue().getValue());
+				nextEntity.setResource(theEntity);
+				theRetVal.add(nextEntity);
+			} else if (nextObject instanceof QuantityDt) {
+				QuantityDt nextValue = (QuantityDt) nextObject;
+				if (nextValue.getValue().isEmpty()) {
 					continue;
 				}
 
-				String resourceName = nextSpDef.getName();
-				boolean multiType = false;
-				if (nextPath.endsWith("[x]")) {
-					multiType = true;
+				ResourceIndexedSearchParamNumber nextEntity = new ResourceIndexedSearchParamNumber(resourceName, nextValue.getValue().getValue());
+				nextEntity.setResource(theEntity);
+				theRetVal.add(nextEntity);
+			} else if (nextObject instanceof IntegerDt) {
+				IntegerDt nextValue = (IntegerDt) nextObject;
+				if (nextValue.getValue() == null) {
+					continue;
 				}
 
-				if (nextObject instanceof QuantityDt) {
-					QuantityDt nextValue = (QuantityDt) nextObject;
-					if (nextValue.getValue().isEmpty()) {
-						continue;
-					}
-
-					ResourceIndexedSearchParamQuantity nextEntity = new ResourceIndexedSearchParamQuantity(resourceName, nextValue.getValue().getValue(), nextValue.getSystem().getValueAsString(), nextValue.getUnits().getValue());
-					nextEntity.setResource(theEntity);
-					retVal.add(nextEntity);
+				ResourceIndexedSearchParamNumber nextEntity = new ResourceIndexedSearchParamNumber(resourceName, new BigDecimal(nextValue.getValue()));
+				nextEntity.setResource(theEntity);
+				theRetVal.add(nextEntity);
+			} else {
+				if (!multiType) {
+					throw new ConfigurationException("Search param " + resourceName + " is of unexpected datatype: " + nextObject.getClass());
 				} else {
-					if (!multiType) {
-						throw new ConfigurationException("Search param " + resourceName + " is of unexpected datatype: " + nextObject.getClass());
-					} else {
-						continue;
-					}
+					continue;
 				}
 			}
 		}
-
-		return retVal;
 	}
 
 	@Override
-	public Set<ResourceIndexedSearchParamString> extractSearchParamStrings(ResourceTable theEntity, IBaseResource theResource) {
-		HashSet<ResourceIndexedSearchParamString> retVal = new HashSet<ResourceIndexedSearchParamString>();
+	protected void collectQuantities(ResourceTable theEntity, IBaseResource theResource, RuntimeSearchParam theSearchParam, List<Object> theValues, Set<ResourceIndexedSearchParamQuantity> theRetVal) {
+		String nextPath = theSearchParam.getPath();
+		if (isBlank(nextPath)) {
+			return;
+		}
 
-		Collection<RuntimeSearchParam> searchParams = getSearchParams(theResource);
-		for (RuntimeSearchParam nextSpDef : searchParams) {
-			if (nextSpDef.getParamType() != RestSearchParameterTypeEnum.STRING) {
+		for (Object nextObject : theValues) {
+			if (nextObject == null || ((IDatatype) nextObject).isEmpty()) {
 				continue;
 			}
 
-			String nextPath = nextSpDef.getPath();
-			if (isBlank(nextPath)) {
-				// TODO: implement phoenetic, and any others that have no path
-				continue;
+			String resourceName = theSearchParam.getName();
+			boolean multiType = false;
+			if (nextPath.endsWith("[x]")) {
+				multiType = true;
 			}
 
-			for (Object nextObject : extractValues(nextPath, theResource)) {
-				if (nextObject == null || ((IDatatype) nextObject).isEmpty()) {
+			if (nextObject instanceof QuantityDt) {
+				QuantityDt nextValue = (QuantityDt) nextObject;
+				if (nextValue.getValue().isEmpty()) {
 					continue;
 				}
 
-				String resourceName = nextSpDef.getName();
-				boolean multiType = false;
-				if (nextPath.endsWith("[x]")) {
-					multiType = true;
-				}
-
-				if (nextObject instanceof IPrimitiveDatatype<?>) {
-					IPrimitiveDatatype<?> nextValue = (IPrimitiveDatatype<?>) nextObject;
-					String searchTerm = nextValue.getValueAsString();
-					if (searchTerm.length() > ResourceIndexedSearchParamString.MAX_LENGTH) {
-						searchTerm = searchTerm.substring(0, ResourceIndexedSearchParamString.MAX_LENGTH);
-					}
-
-					ResourceIndexedSearchParamString nextEntity = new ResourceIndexedSearchParamString(resourceName, BaseHapiFhirDao.normalizeString(searchTerm), searchTerm);
-					nextEntity.setResource(theEntity);
-					retVal.add(nextEntity);
+				ResourceIndexedSearchParamQuantity nextEntity = new ResourceIndexedSearchParamQuantity(resourceName, nextValue.getValue().getValue(), nextValue.getSystem().getValueAsString(), nextValue.getUnits().getValue());
+				nextEntity.setResource(theEntity);
+				theRetVal.add(nextEntity);
+			} else {
+				if (!multiType) {
+					throw new ConfigurationException("Search param " + resourceName + " is of unexpected datatype: " + nextObject.getClass());
 				} else {
-					if (nextObject instanceof BaseHumanNameDt) {
-						ArrayList<StringDt> allNames = new ArrayList<StringDt>();
-						HumanNameDt nextHumanName = (HumanNameDt) nextObject;
-						allNames.addAll(nextHumanName.getFamily());
-						allNames.addAll(nextHumanName.getGiven());
-						for (StringDt nextName : allNames) {
-							if (nextName.isEmpty()) {
-								continue;
-							}
-							ResourceIndexedSearchParamString nextEntity = new ResourceIndexedSearchParamString(resourceName, BaseHapiFhirDao.normalizeString(nextName.getValueAsString()), nextName.getValueAsString());
-							nextEntity.setResource(theEntity);
-							retVal.add(nextEntity);
-						}
-					} else if (nextObject instanceof AddressDt) {
-						ArrayList<StringDt> allNames = new ArrayList<StringDt>();
-						AddressDt nextAddress = (AddressDt) nextObject;
-						allNames.addAll(nextAddress.getLine());
-						allNames.add(nextAddress.getCity());
-						allNames.add(nextAddress.getState());
-						allNames.add(nextAddress.getCountry());
-						allNames.add(nextAddress.getZip());
-						for (StringDt nextName : allNames) {
-							if (nextName.isEmpty()) {
-								continue;
-							}
-							ResourceIndexedSearchParamString nextEntity = new ResourceIndexedSearchParamString(resourceName, BaseHapiFhirDao.normalizeString(nextName.getValueAsString()), nextName.getValueAsString());
-							nextEntity.setResource(theEntity);
-							retVal.add(nextEntity);
-						}
-					} else if (nextObject instanceof ContactDt) {
-						ContactDt nextContact = (ContactDt) nextObject;
-						if (nextContact.getValue().isEmpty() == false) {
-							ResourceIndexedSearchParamString nextEntity = new ResourceIndexedSearchParamString(resourceName, BaseHapiFhirDao.normalizeString(nextContact.getValue().getValueAsString()), nextContact.getValue().getValueAsString());
-							nextEntity.setResource(theEntity);
-							retVal.add(nextEntity);
-						}
-					} else {
-						if (!multiType) {
-							throw new ConfigurationException("Search param " + resourceName + " is of unexpected datatype: " + nextObject.getClass());
-						}
-					}
+					continue;
 				}
 			}
 		}
-
-		return retVal;
 	}
 
 	@Override
-	public Set<BaseResourceIndexedSearchParam> extractSearchParamTokens(ResourceTable theEntity, IBaseResource theResource) {
-		HashSet<BaseResourceIndexedSearchParam> retVal = new HashSet<BaseResourceIndexedSearchParam>();
-
-		Collection<RuntimeSearchParam> searchParams = getSearchParams(theResource);
-		for (RuntimeSearchParam nextSpDef : searchParams) {
-			if (nextSpDef.getParamType() != RestSearchParameterTypeEnum.TOKEN) {
-				continue;
-			}
+	protected void collectStrings(ResourceTable theEntity, IBaseResource theResource, RuntimeSearchParam theSearchParam, List<Object> theValues, Set<ResourceIndexedSearchParamString> theRetVal) {
+		String nextPath = theSearchParam.getPath();
+		if (isBlank(nextPath)) {
+			// TODO: implement phoenetic, and any others that have no path
+			return;
+		}
 
-			String nextPath = nextSpDef.getPath();
-			if (isBlank(nextPath)) {
+		for (Object nextObject : theValues) {
+			if (nextObject == null || ((IDatatype) nextObject).isEmpty()) {
 				continue;
 			}
 
+			String resourceName = theSearchParam.getName();
 			boolean multiType = false;
 			if (nextPath.endsWith("[x]")) {
 				multiType = true;
 			}
 
-			List<String> systems = new ArrayList<String>();
-			List<String> codes = new ArrayList<String>();
+			if (nextObject instanceof IPrimitiveDatatype<?>) {
+				IPrimitiveDatatype<?> nextValue = (IPrimitiveDatatype<?>) nextObject;
+				String searchTerm = nextValue.getValueAsString();
+				if (searchTerm.length() > ResourceIndexedSearchParamString.MAX_LENGTH) {
+					searchTerm = searchTerm.substring(0, ResourceIndexedSearchParamString.MAX_LENGTH);
+				}
 
-			for (Object nextObject : extractValues(nextPath, theResource)) {
-				if (nextObject instanceof IdentifierDt) {
-					IdentifierDt nextValue = (IdentifierDt) nextObject;
-					if (nextValue.isEmpty()) {
-						continue;
-					}
-					systems.add(nextValue.getSystem().getValueAsString());
-					codes.add(nextValue.getValue().getValue());
-				} else if (nextObject instanceof IPrimitiveDatatype<?>) {
-					IPrimitiveDatatype<?> nextValue = (IPrimitiveDatatype<?>) nextObject;
-					if (nextValue.isEmpty()) {
-						continue;
-					}
-					systems.add(null);
-					codes.add(nextValue.getValueAsString());
-				} else if (nextObject instanceof CodeableConceptDt) {
-					CodeableConceptDt nextCC = (CodeableConceptDt) nextObject;
-					if (!nextCC.getText().isEmpty()) {
-						ResourceIndexedSearchParamString nextEntity = new ResourceIndexedSearchParamString(nextSpDef.getName(), BaseHapiFhirDao.normalizeString(nextCC.getText().getValue()), nextCC.getText().getValue());
+				ResourceIndexedSearchParamString nextEntity = new ResourceIndexedSearchParamString(resourceName, BaseHapiFhirDao.normalizeString(searchTerm), searchTerm);
+				nextEntity.setResource(theEntity);
+				theRetVal.add(nextEntity);
+			} else {
+				if (nextObject instanceof BaseHumanNameDt) {
+					ArrayList<StringDt> allNames = new ArrayList<StringDt>();
+					HumanNameDt nextHumanName = (HumanNameDt) nextObject;
+					allNames.addAll(nextHumanName.getFamily());
+					allNames.addAll(nextHumanName.getGiven());
+					for (StringDt nextName : allNames) {
+						if (nextName.isEmpty()) {
+							continue;
+						}
+						ResourceIndexedSearchParamString nextEntity = new ResourceIndexedSearchParamString(resourceName, BaseHapiFhirDao.normalizeString(nextName.getValueAsString()), nextName.getValueAsString());
 						nextEntity.setResource(theEntity);
-						retVal.add(nextEntity);
+						theRetVal.add(nextEntity);
 					}
-
-					for (CodingDt nextCoding : nextCC.getCoding()) {
-						if (nextCoding.isEmpty()) {
+				} else if (nextObject instanceof AddressDt) {
+					ArrayList<StringDt> allNames = new ArrayList<StringDt>();
+					AddressDt nextAddress = (AddressDt) nextObject;
+					allNames.addAll(nextAddress.getLine());
+					allNames.add(nextAddress.getCity());
+					allNames.add(nextAddress.getState());
+					allNames.add(nextAddress.getCountry());
+					allNames.add(nextAddress.getZip());
+					for (StringDt nextName : allNames) {
+						if (nextName.isEmpty()) {
 							continue;
 						}
-
-						String nextSystem = nextCoding.getSystem().getValueAsString();
-						String nextCode = nextCoding.getCode().getValue();
-						if (isNotBlank(nextSystem) || isNotBlank(nextCode)) {
-							systems.add(nextSystem);
-							codes.add(nextCode);
-						}
-
-						if (!nextCoding.getDisplay().isEmpty()) {
-							systems.add(null);
-							codes.add(nextCoding.getDisplay().getValue());
-						}
-
+						ResourceIndexedSearchParamString nextEntity = new ResourceIndexedSearchParamString(resourceName, BaseHapiFhirDao.normalizeString(nextName.getValueAsString()), nextName.getValueAsString());
+						nextEntity.setResource(theEntity);
+						theRetVal.add(nextEntity);
+					}
+				} else if (nextObject instanceof ContactDt) {
+					ContactDt nextContact = (ContactDt) nextObject;
+					if (nextContact.getValue().isEmpty() == false) {
+						ResourceIndexedSearchParamString nextEntity = new ResourceIndexedSearchParamString(resourceName, BaseHapiFhirDao.normalizeString(nextContact.getValue().getValueAsString()), nextContact.getValue().getValueAsString());
+						nextEntity.setResource(theEntity);
+						theRetVal.add(nextEntity);
 					}
 				} else {
 					if (!multiType) {
-						throw new ConfigurationException("Search param " + nextSpDef.getName() + " is of unexpected datatype: " + nextObject.getClass());
-					} else {
-						continue;
+						throw new ConfigurationException("Search param " + resourceName + " is of unexpected datatype: " + nextObject.getClass());
 					}
 				}
 			}
+		}
+	}
 
-			assert systems.size() == codes.size() : "Systems contains " + systems + ", codes contains: " + codes;
+	@Override
+	protected void collectTokens(ResourceTable theEntity, IBaseResource theResource, RuntimeSearchParam theSearchParam, List<Object> theValues, Set<BaseResourceIndexedSearchParam> theRetVal) {
+		String nextPath = theSearchParam.getPath();
+		if (isBlank(nextPath)) {
+			return;
+		}
 
-			Set<Pair<String, String>> haveValues = new HashSet<Pair<String, String>>();
-			for (int i = 0; i < systems.size(); i++) {
-				String system = systems.get(i);
-				String code = codes.get(i);
-				if (isBlank(system) && isBlank(code)) {
+		boolean multiType = false;
+		if (nextPath.endsWith("[x]")) {
+			multiType = true;
+		}
+
+		List<String> systems = new ArrayList<String>();
+		List<String> codes = new ArrayList<String>();
+
+		for (Object nextObject : theValues) {
+			if (nextObject instanceof IdentifierDt) {
+				IdentifierDt nextValue = (IdentifierDt) nextObject;
+				if (nextValue.isEmpty()) {
 					continue;
 				}
-
-				if (system != null && system.length() > ResourceIndexedSearchParamToken.MAX_LENGTH) {
-					system = system.substring(0, ResourceIndexedSearchParamToken.MAX_LENGTH);
+				systems.add(nextValue.getSystem().getValueAsString());
+				codes.add(nextValue.getValue().getValue());
+			} else if (nextObject instanceof IPrimitiveDatatype<?>) {
+				IPrimitiveDatatype<?> nextValue = (IPrimitiveDatatype<?>) nextObject;
+				if (nextValue.isEmpty()) {
+					continue;
 				}
-				if (code != null && code.length() > ResourceIndexedSearchParamToken.MAX_LENGTH) {
-					code = code.substring(0, ResourceIndexedSearchParamToken.MAX_LENGTH);
+				systems.add(null);
+				codes.add(nextValue.getValueAsString());
+			} else if (nextObject instanceof CodeableConceptDt) {
+				CodeableConceptDt nextCC = (CodeableConceptDt) nextObject;
+				if (!nextCC.getText().isEmpty()) {
+					ResourceIndexedSearchParamString nextEntity = new ResourceIndexedSearchParamString(theSearchParam.getName(), BaseHapiFhirDao.normalizeString(nextCC.getText().getValue()), nextCC.getText().getValue());
+					nextEntity.setResource(theEntity);
+					theRetVal.add(nextEntity);
 				}
 
-				Pair<String, String> nextPair = Pair.of(system, code);
-				if (haveValues.contains(nextPair)) {
+				for (CodingDt nextCoding : nextCC.getCoding()) {
+					if (nextCoding.isEmpty()) {
+						continue;
+					}
+
+					String nextSystem = nextCoding.getSystem().getValueAsString();
+					String nextCode = nextCoding.getCode().getValue();
+					if (isNotBlank(nextSystem) || isNotBlank(nextCode)) {
+						systems.add(nextSystem);
+						codes.add(nextCode);
+					}
+
+					if (!nextCoding.getDisplay().isEmpty()) {
+						systems.add(null);
+						codes.add(nextCoding.getDisplay().getValue());
+					}
+
+				}
+			} else {
+				if (!multiType) {
+					throw new ConfigurationException("Search param " + theSearchParam.getName() + " is of unexpected datatype: " + nextObject.getClass());
+				} else {
 					continue;
 				}
-				haveValues.add(nextPair);
+			}
+		}
 
-				ResourceIndexedSearchParamToken nextEntity;
-				nextEntity = new ResourceIndexedSearchParamToken(nextSpDef.getName(), system, code);
-				nextEntity.setResource(theEntity);
-				retVal.add(nextEntity);
+		assert systems.size() == codes.size() : "Systems contains " + systems + ", codes contains: " + codes;
+
+		Set<Pair<String, String>> haveValues = new HashSet<Pair<String, String>>();
+		for (int i = 0; i < systems.size(); i++) {
+			String system = systems.get(i);
+			String code = codes.get(i);
+			if (isBlank(system) && isBlank(code)) {
+				continue;
+			}
 
+			if (system != null && system.length() > ResourceIndexedSearchParamToken.MAX_LENGTH) {
+				system = system.substring(0, ResourceIndexedSearchParamToken.MAX_LENGTH);
+			}
+			if (code != null && code.length() > ResourceIndexedSearchParamToken.MAX_LENGTH) {
+				code = code.substring(0, ResourceIndexedSearchParamToken.MAX_LENGTH);
 			}
 
-		}
+			Pair<String, String> nextPair = Pair.of(system, code);
+			if (haveValues.contains(nextPair)) {
+				continue;
+			}
+			haveValues.add(nextPair);
+
+			ResourceIndexedSearchParamToken nextEntity;
+			nextEntity = new ResourceIndexedSearchParamToken(theSearchParam.getName(), system, code);
+			nextEntity.setResource(theEntity);
+			theRetVal.add(nextEntity);
 
-		return retVal;
+		}
 	}
 
 	@Override
-	public Set<ResourceIndexedSearchParamUri> extractSearchParamUri(ResourceTable theEntity, IBaseResource theResource) {
-		return Collections.emptySet();
+	protected void collectUris(ResourceTable theEntity, IBaseResource theResource, RuntimeSearchParam theSearchParam, List<Object> theValues, Set<ResourceIndexedSearchParamUri> theRetVal) {
+		// nothing
 	}
 
 }
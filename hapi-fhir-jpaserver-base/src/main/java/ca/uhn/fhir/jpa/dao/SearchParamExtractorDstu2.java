@@ -24,7 +24,6 @@ import static org.apache.commons.lang3.StringUtils.isNotBlank;
 
 import java.math.BigDecimal;
 import java.util.ArrayList;
-import java.util.Collection;
 import java.util.Collections;
 import java.util.HashSet;
 import java.util.List;
@@ -77,7 +76,6 @@ import ca.uhn.fhir.model.primitive.BoundCodeDt;
 import ca.uhn.fhir.model.primitive.IntegerDt;
 import ca.uhn.fhir.model.primitive.StringDt;
 import ca.uhn.fhir.model.primitive.UriDt;
-import ca.uhn.fhir.rest.method.RestSearchParameterTypeEnum;
 
 public class SearchParamExtractorDstu2 extends BaseSearchParamExtractor implements ISearchParamExtractor {
 
@@ -111,521 +109,439 @@ public class SearchParamExtractorDstu2 extends BaseSearchParamExtractor implemen
 		return Collections.emptySet();
 	}
 
-	/*
-	 * (non-Javadoc)
-	 * 
-	 * @see ca.uhn.fhir.jpa.dao.ISearchParamExtractor#extractSearchParamDates(ca.uhn.fhir.jpa.entity.ResourceTable,
-	 * ca.uhn.fhir.model.api.IResource)
-	 */
 	@Override
-	public Set<ResourceIndexedSearchParamDate> extractSearchParamDates(ResourceTable theEntity, IBaseResource theResource) {
-		HashSet<ResourceIndexedSearchParamDate> retVal = new HashSet<ResourceIndexedSearchParamDate>();
+	protected void collectDates(ResourceTable theEntity, IBaseResource theResource, RuntimeSearchParam theSearchParam, List<Object> theValues, Set<ResourceIndexedSearchParamDate> theRetVal) {
+		String nextPath = theSearchParam.getPath();
+		if (isBlank(nextPath)) {
+			return;
+		}
 
-		Collection<RuntimeSearchParam> searchParams = getSearchParams(theResource);
-		for (RuntimeSearchParam nextSpDef : searchParams) {
-			if (nextSpDef.getParamType() != RestSearchParameterTypeEnum.DATE) {
-				continue;
-			}
+		boolean multiType = false;
+		if (nextPath.endsWith("[x]")) {
+			multiType = true;
+		}
 
-			String nextPath = nextSpDef.getPath();
-			if (isBlank(nextPath)) {
+		for (Object nextObject : theValues) {
+			if (nextObject == null) {
 				continue;
 			}
 
-			boolean multiType = false;
-			if (nextPath.endsWith("[x]")) {
-				multiType = true;
-			}
-
-			for (Object nextObject : extractValues(nextPath, theResource)) {
-				if (nextObject == null) {
+			ResourceIndexedSearchParamDate nextEntity;
+			if (nextObject instanceof BaseDateTimeDt) {
+				BaseDateTimeDt nextValue = (BaseDateTimeDt) nextObject;
+				if (nextValue.isEmpty()) {
 					continue;
 				}
-
-				ResourceIndexedSearchParamDate nextEntity;
-				if (nextObject instanceof BaseDateTimeDt) {
-					BaseDateTimeDt nextValue = (BaseDateTimeDt) nextObject;
-					if (nextValue.isEmpty()) {
-						continue;
-					}
-					nextEntity = new ResourceIndexedSearchParamDate(nextSpDef.getName(), nextValue.getValue(), nextValue.getValue());
-				} else if (nextObject instanceof PeriodDt) {
-					PeriodDt nextValue = (PeriodDt) nextObject;
-					if (nextValue.isEmpty()) {
-						continue;
-					}
-					nextEntity = new ResourceIndexedSearchParamDate(nextSpDef.getName(), nextValue.getStart(), nextValue.getEnd());
-				} else {
-					if (!multiType) {
-						throw new ConfigurationException("Search param " + nextSpDef.getName() + " is of unexpected datatype: " + nextObject.getClass());
-					} else {
-						continue;
-					}
+				nextEntity = new ResourceIndexedSearchParamDate(theSearchParam.getName(), nextValue.getValue(), nextValue.getValue());
+			} else if (nextObject instanceof PeriodDt) {
+				PeriodDt nextValue = (PeriodDt) nextObject;
+				if (nextValue.isEmpty()) {
+					continue;
 				}
-				if (nextEntity != null) {
-					nextEntity.setResource(theEntity);
-					retVal.add(nextEntity);
+				nextEntity = new ResourceIndexedSearchParamDate(theSearchParam.getName(), nextValue.getStart(), nextValue.getEnd());
+			} else {
+				if (!multiType) {
+					throw new ConfigurationException("Search param " + theSearchParam.getName() + " is of unexpected datatype: " + nextObject.getClass());
+				} else {
+					continue;
 				}
 			}
+			if (nextEntity != null) {
+				nextEntity.setResource(theEntity);
+				theRetVal.add(nextEntity);
+			}
 		}
-
-		return retVal;
 	}
 
-	/*
-	 * (non-Javadoc)
-	 * 
-	 * @see ca.uhn.fhir.jpa.dao.ISearchParamExtractor#extractSearchParamNumber(ca.uhn.fhir.jpa.entity.ResourceTable,
-	 * ca.uhn.fhir.model.api.IResource)
-	 */
 	@Override
-	public HashSet<ResourceIndexedSearchParamNumber> extractSearchParamNumber(ResourceTable theEntity, IBaseResource theResource) {
-		HashSet<ResourceIndexedSearchParamNumber> retVal = new HashSet<ResourceIndexedSearchParamNumber>();
+	protected void collectNumbers(ResourceTable theEntity, IBaseResource theResource, RuntimeSearchParam theSearchParam, List<Object> theValues, Set<ResourceIndexedSearchParamNumber> theRetVal) {
+		String nextPath = theSearchParam.getPath();
+		if (isBlank(nextPath)) {
+			return;
+		}
 
-		Collection<RuntimeSearchParam> searchParams = getSearchParams(theResource);
-		for (RuntimeSearchParam nextSpDef : searchParams) {
-			if (nextSpDef.getParamType() != RestSearchParameterTypeEnum.NUMBER) {
+		for (Object nextObject : theValues) {
+			if (nextObject == null || ((IDatatype) nextObject).isEmpty()) {
 				continue;
 			}
 
-			String nextPath = nextSpDef.getPath();
-			if (isBlank(nextPath)) {
-				continue;
+			String resourceName = theSearchParam.getName();
+			boolean multiType = false;
+			if (nextPath.endsWith("[x]")) {
+				multiType = true;
 			}
 
-			for (Object nextObject : extractValues(nextPath, theResource)) {
-				if (nextObject == null || ((IDatatype) nextObject).isEmpty()) {
+			if (nextObject instanceof DurationDt) {
+				DurationDt nextValue = (DurationDt) nextObject;
+				if (nextValue.getValueElement().isEmpty()) {
 					continue;
 				}
 
-				String resourceName = nextSpDef.getName();
-				boolean multiType = false;
-				if (nextPath.endsWith("[x]")) {
-					multiType = true;
-				}
-
-				if (nextObject instanceof DurationDt) {
-					DurationDt nextValue = (DurationDt) nextObject;
-					if (nextValue.getValueElement().isEmpty()) {
-						continue;
-					}
-
-					if (new UriDt(BaseHapiFhirDao.UCUM_NS).equals(nextValue.getSystemElement())) {
-						if (isNotBlank(nextValue.getCode())) {
-
-							Unit<? extends Quantity> unit = Unit.valueOf(nextValue.getCode());
-							javax.measure.converter.UnitConverter dayConverter = unit.getConverterTo(NonSI.DAY);
-							double dayValue = dayConverter.convert(nextValue.getValue().doubleValue());
-							DurationDt newValue = new DurationDt();
-							newValue.setSystem(BaseHapiFhirDao.UCUM_NS);
-							newValue.setCode(NonSI.DAY.toString());
-							newValue.setValue(dayValue);
-							nextValue = newValue;
-
-							/*
-							 * @SuppressWarnings("unchecked") PhysicsUnit<? extends
-							 * org.unitsofmeasurement.quantity.Quantity<?>> unit = (PhysicsUnit<? extends
-							 * org.unitsofmeasurement.quantity.Quantity<?>>)
-							 * UCUMFormat.getCaseInsensitiveInstance().parse(nextValue.getCode().getValue(), null); if
-							 * (unit.isCompatible(UCUM.DAY)) {
-							 * 
-							 * @SuppressWarnings("unchecked") PhysicsUnit<org.unitsofmeasurement.quantity.Time> timeUnit =
-							 * (PhysicsUnit<Time>) unit; UnitConverter conv = timeUnit.getConverterTo(UCUM.DAY); double
-							 * dayValue = conv.convert(nextValue.getValue().getValue().doubleValue()); DurationDt newValue =
-							 * new DurationDt(); newValue.setSystem(UCUM_NS); newValue.setCode(UCUM.DAY.getSymbol());
-							 * newValue.setValue(dayValue); nextValue=newValue; }
-							 */
-						}
+				if (new UriDt(BaseHapiFhirDao.UCUM_NS).equals(nextValue.getSystemElement())) {
+					if (isNotBlank(nextValue.getCode())) {
+
+						Unit<? extends Quantity> unit = Unit.valueOf(nextValue.getCode());
+						javax.measure.converter.UnitConverter dayConverter = unit.getConverterTo(NonSI.DAY);
+						double dayValue = dayConverter.convert(nextValue.getValue().doubleValue());
+						DurationDt newValue = new DurationDt();
+						newValue.setSystem(BaseHapiFhirDao.UCUM_NS);
+						newValue.setCode(NonSI.DAY.toString());
+						newValue.setValue(dayValue);
+						nextValue = newValue;
+
+						/*
+						 * @SuppressWarnings("unchecked") PhysicsUnit<? extends
+						 * org.unitsofmeasurement.quantity.Quantity<?>> unit = (PhysicsUnit<? extends
+						 * org.unitsofmeasurement.quantity.Quantity<?>>)
+						 * UCUMFormat.getCaseInsensitiveInstance().parse(nextValue.getCode().getValue(), null); if
+						 * (unit.isCompatible(UCUM.DAY)) {
+						 * 
+						 * @SuppressWarnings("unchecked") PhysicsUnit<org.unitsofmeasurement.quantity.Time> timeUnit =
+						 * (PhysicsUnit<Time>) unit; UnitConverter conv = timeUnit.getConverterTo(UCUM.DAY); double
+						 * dayValue = conv.convert(nextValue.getValue().getValue().doubleValue()); DurationDt newValue =
+						 * new DurationDt(); newValue.setSystem(UCUM_NS); newValue.setCode(UCUM.DAY.getSymbol());
+						 * newValue.setValue(dayValue); nextValue=newValue; }
+						 */
 					}
+				}
 
-					ResourceIndexedSearchParamNumber nextEntity = new ResourceIndexedSearchParamNumber(resourceName, nextValue.getValue());
-					nextEntity.setResource(theEntity);
-					retVal.add(nextEntity);
-				} else if (nextObject instanceof QuantityDt) {
-					QuantityDt nextValue = (QuantityDt) nextObject;
-					if (nextValue.getValueElement().isEmpty()) {
-						continue;
-					}
+				ResourceIndexedSearchParamNumber nextEntity = new ResourceIndexedSearchParamNumber(resourceName, nextValue.getValue());
+				nextEntity.setResource(theEntity);
+				theRetVal.add(nextEntity);
+			} else if (nextObject instanceof QuantityDt) {
+				QuantityDt nextValue = (QuantityDt) nextObject;
+				if (nextValue.getValueElement().isEmpty()) {
+					continue;
+				}
 
-					ResourceIndexedSearchParamNumber nextEntity = new ResourceIndexedSearchParamNumber(resourceName, nextValue.getValue());
-					nextEntity.setResource(theEntity);
-					retVal.add(nextEntity);
-				} else if (nextObject instanceof IntegerDt) {
-					IntegerDt nextValue = (IntegerDt) nextObject;
-					if (nextValue.getValue() == null) {
-						continue;
-					}
+				ResourceIndexedSearchParamNumber nextEntity = new ResourceIndexedSearchParamNumber(resourceName, nextValue.getValue());
+				nextEntity.setResource(theEntity);
+				theRetVal.add(nextEntity);
+			} else if (nextObject instanceof IntegerDt) {
+				IntegerDt nextValue = (IntegerDt) nextObject;
+				if (nextValue.getValue() == null) {
+					continue;
+				}
 
-					ResourceIndexedSearchParamNumber nextEntity = new ResourceIndexedSearchParamNumber(resourceName, new BigDecimal(nextValue.getValue()));
-					nextEntity.setResource(theEntity);
-					retVal.add(nextEntity);
+				ResourceIndexedSearchParamNumber nextEntity = new ResourceIndexedSearchParamNumber(resourceName, new BigDecimal(nextValue.getValue()));
+				nextEntity.setResource(theEntity);
+				theRetVal.add(nextEntity);
+			} else {
+				if (!multiType) {
+					throw new ConfigurationException("Search param " + resourceName + " is of unexpected datatype: " + nextObject.getClass());
 				} else {
-					if (!multiType) {
-						throw new ConfigurationException("Search param " + resourceName + " is of unexpected datatype: " + nextObject.getClass());
-					} else {
-						continue;
-					}
+					continue;
 				}
 			}
 		}
-
-		return retVal;
 	}
 
-	/*
-	 * (non-Javadoc)
-	 * 
-	 * @see ca.uhn.fhir.jpa.dao.ISearchParamExtractor#extractSearchParamQuantity(ca.uhn.fhir.jpa.entity.ResourceTable,
-	 * ca.uhn.fhir.model.api.IResource)
-	 */
 	@Override
-	public Set<ResourceIndexedSearchParamQuantity> extractSearchParamQuantity(ResourceTable theEntity, IBaseResource theResource) {
-		HashSet<ResourceIndexedSearchParamQuantity> retVal = new HashSet<ResourceIndexedSearchParamQuantity>();
+	protected void collectQuantities(ResourceTable theEntity, IBaseResource theResource, RuntimeSearchParam theSearchParam, List<Object> theValues, Set<ResourceIndexedSearchParamQuantity> theRetVal) {
+		String nextPath = theSearchParam.getPath();
+		if (isBlank(nextPath)) {
+			return;
+		}
 
-		Collection<RuntimeSearchParam> searchParams = getSearchParams(theResource);
-		for (RuntimeSearchParam nextSpDef : searchParams) {
-			if (nextSpDef.getParamType() != RestSearchParameterTypeEnum.QUANTITY) {
+		for (Object nextObject : theValues) {
+			if (nextObject == null || ((IDatatype) nextObject).isEmpty()) {
 				continue;
 			}
 
-			String nextPath = nextSpDef.getPath();
-			if (isBlank(nextPath)) {
-				continue;
+			String resourceName = theSearchParam.getName();
+			boolean multiType = false;
+			if (nextPath.endsWith("[x]")) {
+				multiType = true;
 			}
 
-			for (Object nextObject : extractValues(nextPath, theResource)) {
-				if (nextObject == null || ((IDatatype) nextObject).isEmpty()) {
+			if (nextObject instanceof QuantityDt) {
+				QuantityDt nextValue = (QuantityDt) nextObject;
+				if (nextValue.getValueElement().isEmpty()) {
 					continue;
 				}
 
-				String resourceName = nextSpDef.getName();
-				boolean multiType = false;
-				if (nextPath.endsWith("[x]")) {
-					multiType = true;
-				}
-
-				if (nextObject instanceof QuantityDt) {
-					QuantityDt nextValue = (QuantityDt) nextObject;
-					if (nextValue.getValueElement().isEmpty()) {
-						continue;
-					}
-
-					ResourceIndexedSearchParamQuantity nextEntity = new ResourceIndexedSearchParamQuantity(resourceName, nextValue.getValueElement().getValue(), nextValue.getSystemElement().getValueAsString(), nextValue.getCode());
-					nextEntity.setResource(theEntity);
-					retVal.add(nextEntity);
+				ResourceIndexedSearchParamQuantity nextEntity = new ResourceIndexedSearchParamQuantity(resourceName, nextValue.getValueElement().getValue(), nextValue.getSystemElement().getValueAsString(), nextValue.getCode());
+				nextEntity.setResource(theEntity);
+				theRetVal.add(nextEntity);
+			} else {
+				if (!multiType) {
+					throw new ConfigurationException("Search param " + resourceName + " is of unexpected datatype: " + nextObject.getClass());
 				} else {
-					if (!multiType) {
-						throw new ConfigurationException("Search param " + resourceName + " is of unexpected datatype: " + nextObject.getClass());
-					} else {
-						continue;
-					}
+					continue;
 				}
 			}
 		}
-
-		return retVal;
 	}
 
-	/*
-	 * (non-Javadoc)
-	 * 
-	 * @see ca.uhn.fhir.jpa.dao.ISearchParamExtractor#extractSearchParamStrings(ca.uhn.fhir.jpa.entity.ResourceTable,
-	 * ca.uhn.fhir.model.api.IResource)
-	 */
 	@Override
-	public Set<ResourceIndexedSearchParamString> extractSearchParamStrings(ResourceTable theEntity, IBaseResource theResource) {
-		HashSet<ResourceIndexedSearchParamString> retVal = new HashSet<ResourceIndexedSearchParamString>();
-
+	protected void collectStrings(ResourceTable theEntity, IBaseResource theResource, RuntimeSearchParam theSearchParam, List<Object> theValues, Set<ResourceIndexedSearchParamString> theRetVal) {
 		String resourceName = getContext().getResourceDefinition(theResource).getName();
 		
-		Collection<RuntimeSearchParam> searchParams = getSearchParams(theResource);
-		for (RuntimeSearchParam nextSpDef : searchParams) {
-			if (nextSpDef.getParamType() != RestSearchParameterTypeEnum.STRING) {
-				continue;
-			}
+		String nextPath = theSearchParam.getPath();
+		String nextSpName = theSearchParam.getName();
 
-			String nextPath = nextSpDef.getPath();
-			String nextSpName = nextSpDef.getName();
+		if (isBlank(nextPath)) {
 
-			if (isBlank(nextPath)) {
+			// TODO: implement phonetic, and any others that have no path
 
-				// TODO: implement phonetic, and any others that have no path
+			if ("Questionnaire".equals(resourceName) && theSearchParam.getName().equals("title")) {
+				Questionnaire q = (Questionnaire) theResource;
+				String title = q.getGroup().getTitle();
+				addSearchTerm(theEntity, theRetVal, nextSpName, title);
+			}
+			return;
+		}
 
-				if ("Questionnaire".equals(resourceName) && nextSpDef.getName().equals("title")) {
-					Questionnaire q = (Questionnaire) theResource;
-					String title = q.getGroup().getTitle();
-					addSearchTerm(theEntity, retVal, nextSpName, title);
-				}
+		for (Object nextObject : theValues) {
+			if (nextObject == null || ((IDatatype) nextObject).isEmpty()) {
 				continue;
 			}
 
-			for (Object nextObject : extractValues(nextPath, theResource)) {
-				if (nextObject == null || ((IDatatype) nextObject).isEmpty()) {
-					continue;
-				}
-
-				boolean multiType = false;
-				if (nextPath.endsWith("[x]")) {
-					multiType = true;
-				}
+			boolean multiType = false;
+			if (nextPath.endsWith("[x]")) {
+				multiType = true;
+			}
 
-				if (nextObject instanceof IPrimitiveDatatype<?>) {
-					IPrimitiveDatatype<?> nextValue = (IPrimitiveDatatype<?>) nextObject;
-					String searchTerm = nextValue.getValueAsString();
-					addSearchTerm(theEntity, retVal, nextSpName, searchTerm);
+			if (nextObject instanceof IPrimitiveDatatype<?>) {
+				IPrimitiveDatatype<?> nextValue = (IPrimitiveDatatype<?>) nextObject;
+				String searchTerm = nextValue.getValueAsString();
+				addSearchTerm(theEntity, theRetVal, nextSpName, searchTerm);
+			} else {
+				if (nextObject instanceof BaseHumanNameDt) {
+					ArrayList<StringDt> allNames = new ArrayList<StringDt>();
+					HumanNameDt nextHumanName = (HumanNameDt) nextObject;
+					allNames.addAll(nextHumanName.getFamily());
+					allNames.addAll(nextHumanName.getGiven());
+					for (StringDt nextName : allNames) {
+						addSearchTerm(theEntity, theRetVal, nextSpName, nextName.getValue());
+					}
+				} else if (nextObject instanceof AddressDt) {
+					ArrayList<StringDt> allNames = new ArrayList<StringDt>();
+					AddressDt nextAddress = (AddressDt) nextObject;
+					allNames.addAll(nextAddress.getLine());
+					allNames.add(nextAddress.getCityElement());
+					allNames.add(nextAddress.getStateElement());
+					allNames.add(nextAddress.getCountryElement());
+					allNames.add(nextAddress.getPostalCodeElement());
+					for (StringDt nextName : allNames) {
+						addSearchTerm(theEntity, theRetVal, nextSpName, nextName.getValue());
+					}
+				} else if (nextObject instanceof ContactPointDt) {
+					ContactPointDt nextContact = (ContactPointDt) nextObject;
+					if (nextContact.getValueElement().isEmpty() == false) {
+						addSearchTerm(theEntity, theRetVal, nextSpName, nextContact.getValue());
+					}
 				} else {
-					if (nextObject instanceof BaseHumanNameDt) {
-						ArrayList<StringDt> allNames = new ArrayList<StringDt>();
-						HumanNameDt nextHumanName = (HumanNameDt) nextObject;
-						allNames.addAll(nextHumanName.getFamily());
-						allNames.addAll(nextHumanName.getGiven());
-						for (StringDt nextName : allNames) {
-							addSearchTerm(theEntity, retVal, nextSpName, nextName.getValue());
-						}
-					} else if (nextObject instanceof AddressDt) {
-						ArrayList<StringDt> allNames = new ArrayList<StringDt>();
-						AddressDt nextAddress = (AddressDt) nextObject;
-						allNames.addAll(nextAddress.getLine());
-						allNames.add(nextAddress.getCityElement());
-						allNames.add(nextAddress.getStateElement());
-						allNames.add(nextAddress.getCountryElement());
-						allNames.add(nextAddress.getPostalCodeElement());
-						for (StringDt nextName : allNames) {
-							addSearchTerm(theEntity, retVal, nextSpName, nextName.getValue());
-						}
-					} else if (nextObject instanceof ContactPointDt) {
-						ContactPointDt nextContact = (ContactPointDt) nextObject;
-						if (nextContact.getValueElement().isEmpty() == false) {
-							addSearchTerm(theEntity, retVal, nextSpName, nextContact.getValue());
-						}
-					} else {
-						if (!multiType) {
-							throw new ConfigurationException("Search param " + nextSpName + " is of unexpected datatype: " + nextObject.getClass());
-						}
+					if (!multiType) {
+						throw new ConfigurationException("Search param " + nextSpName + " is of unexpected datatype: " + nextObject.getClass());
 					}
 				}
 			}
 		}
-
-		return retVal;
 	}
 
-	/*
-	 * (non-Javadoc)
-	 * 
-	 * @see ca.uhn.fhir.jpa.dao.ISearchParamExtractor#extractSearchParamTokens(ca.uhn.fhir.jpa.entity.ResourceTable,
-	 * ca.uhn.fhir.model.api.IResource)
-	 */
 	@Override
-	public Set<BaseResourceIndexedSearchParam> extractSearchParamTokens(ResourceTable theEntity, IBaseResource theResource) {
-		HashSet<BaseResourceIndexedSearchParam> retVal = new HashSet<BaseResourceIndexedSearchParam>();
-
+	protected void collectTokens(ResourceTable theEntity, IBaseResource theResource, RuntimeSearchParam theSearchParam, List<Object> theValues, Set<BaseResourceIndexedSearchParam> theRetVal) {
 		String useSystem = null;
 		if (theResource instanceof ValueSet) {
 			ValueSet vs = (ValueSet) theResource;
 			useSystem = vs.getCodeSystem().getSystem();
 		}
 
-		Collection<RuntimeSearchParam> searchParams = getSearchParams(theResource);
-		for (RuntimeSearchParam nextSpDef : searchParams) {
-			if (nextSpDef.getParamType() != RestSearchParameterTypeEnum.TOKEN) {
-				continue;
-			}
+		String nextPath = theSearchParam.getPath();
+		if (isBlank(nextPath)) {
+			return;
+		}
 
-			String nextPath = nextSpDef.getPath();
-			if (isBlank(nextPath)) {
-				continue;
-			}
+		boolean multiType = false;
+		if (nextPath.endsWith("[x]")) {
+			multiType = true;
+		}
 
-			boolean multiType = false;
-			if (nextPath.endsWith("[x]")) {
-				multiType = true;
-			}
+		List<String> systems = new ArrayList<String>();
+		List<String> codes = new ArrayList<String>();
 
-			List<String> systems = new ArrayList<String>();
-			List<String> codes = new ArrayList<String>();
+		String needContactPointSystem = null;
+		if (nextPath.endsWith("(system=phone)")) {
+			nextPath = nextPath.substring(0, nextPath.length() - "(system=phone)".length());
+			needContactPointSystem = "phone";
+		}
+		if (nextPath.endsWith("(system=email)")) {
+			nextPath = nextPath.substring(0, nextPath.length() - "(system=email)".length());
+			needContactPointSystem = "email";
+		}
 
-			String needContactPointSystem = null;
-			if (nextPath.endsWith("(system=phone)")) {
-				nextPath = nextPath.substring(0, nextPath.length() - "(system=phone)".length());
-				needContactPointSystem = "phone";
-			}
-			if (nextPath.endsWith("(system=email)")) {
-				nextPath = nextPath.substring(0, nextPath.length() - "(system=email)".length());
-				needContactPointSystem = "email";
-			}
+		for (Object nextObject : theValues) {
 
-			for (Object nextObject : extractValues(nextPath, theResource)) {
+			// Patient:language
+			if (nextObject instanceof Patient.Communication) {
+				Communication nextValue = (Patient.Communication) nextObject;
+				nextObject = nextValue.getLanguage();
+			}
 
-				// Patient:language
-				if (nextObject instanceof Patient.Communication) {
-					Communication nextValue = (Patient.Communication) nextObject;
-					nextObject = nextValue.getLanguage();
+			if (nextObject instanceof IdentifierDt) {
+				IdentifierDt nextValue = (IdentifierDt) nextObject;
+				if (nextValue.isEmpty()) {
+					continue;
+				}
+				String system = StringUtils.defaultIfBlank(nextValue.getSystemElement().getValueAsString(), null);
+				String value = nextValue.getValueElement().getValue();
+				if (isNotBlank(value)) {
+					systems.add(system);
+					codes.add(value);
 				}
 
-				if (nextObject instanceof IdentifierDt) {
-					IdentifierDt nextValue = (IdentifierDt) nextObject;
-					if (nextValue.isEmpty()) {
-						continue;
-					}
-					String system = StringUtils.defaultIfBlank(nextValue.getSystemElement().getValueAsString(), null);
-					String value = nextValue.getValueElement().getValue();
-					if (isNotBlank(value)) {
-						systems.add(system);
-						codes.add(value);
-					}
-
-					if (isNotBlank(nextValue.getType().getText())) {
-						addStringParam(theEntity, retVal, nextSpDef, nextValue.getType().getText());
-					}
-
-				} else if (nextObject instanceof ContactPointDt) {
-					ContactPointDt nextValue = (ContactPointDt) nextObject;
-					if (nextValue.isEmpty()) {
-						continue;
-					}
-					if (isNotBlank(needContactPointSystem)) {
-						if (!needContactPointSystem.equals(nextValue.getSystemElement().getValueAsString())) {
-							continue;
-						}
-					}
-					systems.add(nextValue.getSystemElement().getValueAsString());
-					codes.add(nextValue.getValueElement().getValue());
-				} else if (nextObject instanceof BoundCodeDt) {
-					BoundCodeDt<?> obj = (BoundCodeDt<?>) nextObject;
-					String system = extractSystem(obj);
-					String code = obj.getValue();
-					if (isNotBlank(code)) {
-						systems.add(system);
-						codes.add(code);
-					}
-				} else if (nextObject instanceof IPrimitiveDatatype<?>) {
-					IPrimitiveDatatype<?> nextValue = (IPrimitiveDatatype<?>) nextObject;
-					if (nextValue.isEmpty()) {
-						continue;
-					}
-					if ("ValueSet.codeSystem.concept.code".equals(nextPath)) {
-						systems.add(useSystem);
-					} else {
-						systems.add(null);
-					}
-					codes.add(nextValue.getValueAsString());
-				} else if (nextObject instanceof CodingDt) {
-					CodingDt nextValue = (CodingDt) nextObject;
-					extractTokensFromCoding(systems, codes, theEntity, retVal, nextSpDef, nextValue);
-				} else if (nextObject instanceof CodeableConceptDt) {
-					CodeableConceptDt nextCC = (CodeableConceptDt) nextObject;
-					if (!nextCC.getTextElement().isEmpty()) {
-						addStringParam(theEntity, retVal, nextSpDef, nextCC.getTextElement().getValue());
-					}
+				if (isNotBlank(nextValue.getType().getText())) {
+					addStringParam(theEntity, theRetVal, theSearchParam, nextValue.getType().getText());
+				}
 
-					extractTokensFromCodeableConcept(systems, codes, nextCC, theEntity, retVal, nextSpDef);
-				} else if (nextObject instanceof RestSecurity) {
-					// Conformance.security search param points to something kind of useless right now - This should probably
-					// be fixed.
-					RestSecurity sec = (RestSecurity) nextObject;
-					for (BoundCodeableConceptDt<RestfulSecurityServiceEnum> nextCC : sec.getService()) {
-						extractTokensFromCodeableConcept(systems, codes, nextCC, theEntity, retVal, nextSpDef);
-					}
-				} else if (nextObject instanceof Location.Position) {
-					ourLog.warn("Position search not currently supported, not indexing location");
+			} else if (nextObject instanceof ContactPointDt) {
+				ContactPointDt nextValue = (ContactPointDt) nextObject;
+				if (nextValue.isEmpty()) {
 					continue;
-				} else {
-					if (!multiType) {
-						throw new ConfigurationException("Search param " + nextSpDef.getName() + " is of unexpected datatype: " + nextObject.getClass());
-					} else {
+				}
+				if (isNotBlank(needContactPointSystem)) {
+					if (!needContactPointSystem.equals(nextValue.getSystemElement().getValueAsString())) {
 						continue;
 					}
 				}
-			}
-
-			assert systems.size() == codes.size() : "Systems contains " + systems + ", codes contains: " + codes;
-
-			Set<Pair<String, String>> haveValues = new HashSet<Pair<String, String>>();
-			for (int i = 0; i < systems.size(); i++) {
-				String system = systems.get(i);
-				String code = codes.get(i);
-				if (isBlank(system) && isBlank(code)) {
+				systems.add(nextValue.getSystemElement().getValueAsString());
+				codes.add(nextValue.getValueElement().getValue());
+			} else if (nextObject instanceof BoundCodeDt) {
+				BoundCodeDt<?> obj = (BoundCodeDt<?>) nextObject;
+				String system = extractSystem(obj);
+				String code = obj.getValue();
+				if (isNotBlank(code)) {
+					systems.add(system);
+					codes.add(code);
+				}
+			} else if (nextObject instanceof IPrimitiveDatatype<?>) {
+				IPrimitiveDatatype<?> nextValue = (IPrimitiveDatatype<?>) nextObject;
+				if (nextValue.isEmpty()) {
 					continue;
 				}
-
-				if (system != null && system.length() > ResourceIndexedSearchParamToken.MAX_LENGTH) {
-					system = system.substring(0, ResourceIndexedSearchParamToken.MAX_LENGTH);
+				if ("ValueSet.codeSystem.concept.code".equals(nextPath)) {
+					systems.add(useSystem);
+				} else {
+					systems.add(null);
 				}
-				if (code != null && code.length() > ResourceIndexedSearchParamToken.MAX_LENGTH) {
-					code = code.substring(0, ResourceIndexedSearchParamToken.MAX_LENGTH);
+				codes.add(nextValue.getValueAsString());
+			} else if (nextObject instanceof CodingDt) {
+				CodingDt nextValue = (CodingDt) nextObject;
+				extractTokensFromCoding(systems, codes, theEntity, theRetVal, theSearchParam, nextValue);
+			} else if (nextObject instanceof CodeableConceptDt) {
+				CodeableConceptDt nextCC = (CodeableConceptDt) nextObject;
+				if (!nextCC.getTextElement().isEmpty()) {
+					addStringParam(theEntity, theRetVal, theSearchParam, nextCC.getTextElement().getValue());
 				}
 
-				Pair<String, String> nextPair = Pair.of(system, code);
-				if (haveValues.contains(nextPair)) {
+				extractTokensFromCodeableConcept(systems, codes, nextCC, theEntity, theRetVal, theSearchParam);
+			} else if (nextObject instanceof RestSecurity) {
+				// Conformance.security search param points to something kind of useless right now - This should probably
+				// be fixed.
+				RestSecurity sec = (RestSecurity) nextObject;
+				for (BoundCodeableConceptDt<RestfulSecurityServiceEnum> nextCC : sec.getService()) {
+					extractTokensFromCodeableConcept(systems, codes, nextCC, theEntity, theRetVal, theSearchParam);
+				}
+			} else if (nextObject instanceof Location.Position) {
+				ourLog.warn("Position search not currently supported, not indexing location");
+				continue;
+			} else {
+				if (!multiType) {
+					throw new ConfigurationException("Search param " + theSearchParam.getName() + " is of unexpected datatype: " + nextObject.getClass());
+				} else {
 					continue;
 				}
-				haveValues.add(nextPair);
+			}
+		}
 
-				ResourceIndexedSearchParamToken nextEntity;
-				nextEntity = new ResourceIndexedSearchParamToken(nextSpDef.getName(), system, code);
-				nextEntity.setResource(theEntity);
-				retVal.add(nextEntity);
+		assert systems.size() == codes.size() : "Systems contains " + systems + ", codes contains: " + codes;
 
+		Set<Pair<String, String>> haveValues = new HashSet<Pair<String, String>>();
+		for (int i = 0; i < systems.size(); i++) {
+			String system = systems.get(i);
+			String code = codes.get(i);
+			if (isBlank(system) && isBlank(code)) {
+				continue;
 			}
 
-		}
+			if (system != null && system.length() > ResourceIndexedSearchParamToken.MAX_LENGTH) {
+				system = system.substring(0, ResourceIndexedSearchParamToken.MAX_LENGTH);
+			}
+			if (code != null && code.length() > ResourceIndexedSearchParamToken.MAX_LENGTH) {
+				code = code.substring(0, ResourceIndexedSearchParamToken.MAX_LENGTH);
+			}
 
-		return retVal;
+			Pair<String, String> nextPair = Pair.of(system, code);
+			if (haveValues.contains(nextPair)) {
+				continue;
+			}
+			haveValues.add(nextPair);
+
+			ResourceIndexedSearchParamToken nextEntity;
+			nextEntity = new ResourceIndexedSearchParamToken(theSearchParam.getName(), system, code);
+			nextEntity.setResource(theEntity);
+			theRetVal.add(nextEntity);
+
+		}
 	}
 
 	@Override
-	public Set<ResourceIndexedSearchParamUri> extractSearchParamUri(ResourceTable theEntity, IBaseResource theResource) {
-		HashSet<ResourceIndexedSearchParamUri> retVal = new HashSet<ResourceIndexedSearchParamUri>();
+	protected void collectUris(ResourceTable theEntity, IBaseResource theResource, RuntimeSearchParam theSearchParam, List<Object> theValues, Set<ResourceIndexedSearchParamUri> theRetVal) {
+		String nextPath = theSearchParam.getPath();
+		if (isBlank(nextPath)) {
+			return;
+		}
 
-		Collection<RuntimeSearchParam> searchParams = getSearchParams(theResource);
-		for (RuntimeSearchParam nextSpDef : searchParams) {
-			if (nextSpDef.getParamType() != RestSearchParameterTypeEnum.URI) {
+		for (Object nextObject : theValues) {
+			if (nextObject == null || ((IDatatype) nextObject).isEmpty()) {
 				continue;
 			}
 
-			String nextPath = nextSpDef.getPath();
-			if (isBlank(nextPath)) {
-				continue;
+			String resourceName = theSearchParam.getName();
+			boolean multiType = false;
+			if (nextPath.endsWith("[x]")) {
+				multiType = true;
 			}
 
-			for (Object nextObject : extractValues(nextPath, theResource)) {
-				if (nextObject == null || ((IDatatype) nextObject).isEmpty()) {
+			if (nextObject instanceof UriDt) {
+				UriDt nextValue = (UriDt) nextObject;
+				if (isBlank(nextValue.getValue())) {
 					continue;
 				}
 
-				String resourceName = nextSpDef.getName();
-				boolean multiType = false;
-				if (nextPath.endsWith("[x]")) {
-					multiType = true;
-				}
-
-				if (nextObject instanceof UriDt) {
-					UriDt nextValue = (UriDt) nextObject;
-					if (isBlank(nextValue.getValue())) {
-						continue;
-					}
-
-					ourLog.trace("Adding param: {}, {}", resourceName, nextValue.getValue());
+				ourLog.trace("Adding param: {}, {}", resourceName, nextValue.getValue());
 
-					ResourceIndexedSearchParamUri nextEntity = new ResourceIndexedSearchParamUri(resourceName, nextValue.getValue());
+				ResourceIndexedSearchParamUri nextEntity = new ResourceIndexedSearchParamUri(resourceName, nextValue.getValue());
 
-					nextEntity.setResource(theEntity);
-					retVal.add(nextEntity);
+				nextEntity.setResource(theEntity);
+				theRetVal.add(nextEntity);
+			} else {
+				if (!multiType) {
+					throw new ConfigurationException("Search param " + resourceName + " is of unexpected datatype: " + nextObject.getClass());
 				} else {
-					if (!multiType) {
-						throw new ConfigurationException("Search param " + resourceName + " is of unexpected datatype: " + nextObject.getClass());
-					} else {
-						continue;
-					}
+					continue;
 				}
 			}
 		}
+	}
+
 
+	/**
+	 * The DSTU2 telecom token parameters have paths such as <code>Patient.telecom(system=phone)</code>,
+	 * where the suffix is a filter applied by {@link #collectTokens} rather than part of the path
+	 */
+	@Override
+	protected String getExtractionPath(RuntimeSearchParam theSearchParam) {
+		String retVal = theSearchParam.getPath();
+		for (String nextSuffix : new String[] { "(system=phone)", "(system=email)" }) {
+			if (retVal != null && retVal.endsWith(nextSuffix)) {
+				retVal = retVal.substring(0, retVal.length() - nextSuffix.length());
+			}
+		}
 		return retVal;
 	}
 
-
 	private void extractTokensFromCodeableConcept(List<String> theSystems, List<String> theCodes, CodeableConceptDt theCodeableConcept, ResourceTable theEntity, Set<BaseResourceIndexedSearchParam> theListToPopulate, RuntimeSearchParam theParameterDef) {
 		for (CodingDt nextCoding : theCodeableConcept.getCoding()) {
 			extractTokensFromCoding(theSystems, theCodes, theEntity, theListToPopulate, theParameterDef, nextCoding);
@@ -0,0 +1,123 @@
+package ca.uhn.fhir.jpa.dao;
+
+/*
+ * #%L
+ * HAPI FHIR JPA Server
+ * %%
+ * Copyright (C) 2014 - 2017 University Health Network
+ * %%
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * #L%
+ */
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import ca.uhn.fhir.jpa.entity.BaseResourceIndexedSearchParam;
+
+/**
+ * Compares the index rows currently stored for a resource with the rows freshly extracted
+ * from a new version of it, so that only rows which have actually changed need to be
+ * deleted and inserted.
+ * <p>
+ * Rows are matched using {@link BaseResourceIndexedSearchParam#getHashIdentity()} and
+ * then confirmed with {@link BaseResourceIndexedSearchParam#isIdentityEqual(BaseResourceIndexedSearchParam)}.
+ * </p>
+ */
+public class SearchParamIndexDiff<T extends BaseResourceIndexedSearchParam> {
+
+	private final List<T> myRowsToAdd = new ArrayList<T>();
+	private final List<T> myRowsToKeep = new ArrayList<T>();
+	private final List<T> myRowsToRemove = new ArrayList<T>();
+
+	private SearchParamIndexDiff() {
+		super();
+	}
+
+	/**
+	 * Returns the rows which are not already stored and must be persisted
+	 */
+	public List<T> getRowsToAdd() {
+		return myRowsToAdd;
+	}
+
+	/**
+	 * Returns the existing (stored) rows which are still valid and can be left alone
+	 */
+	public List<T> getRowsToKeep() {
+		return myRowsToKeep;
+	}
+
+	/**
+	 * Returns the existing rows which are no longer valid and must be removed
+	 */
+	public List<T> getRowsToRemove() {
+		return myRowsToRemove;
+	}
+
+	/**
+	 * Returns the full set of rows which should be associated with the resource once the diff
+	 * has been applied, i.e. the kept rows plus the added rows
+	 */
+	public Set<T> getResultingRows() {
+		Set<T> retVal = new HashSet<T>(myRowsToKeep.size() + myRowsToAdd.size());
+		retVal.addAll(myRowsToKeep);
+		retVal.addAll(myRowsToAdd);
+		return retVal;
+	}
+
+	public static <T extends BaseResourceIndexedSearchParam> SearchParamIndexDiff<T> compare(Collection<T> theExistingRows, Collection<T> theNewRows) {
+		SearchParamIndexDiff<T> retVal = new SearchParamIndexDiff<T>();
+
+		Map<Long, List<T>> existingByHash = new HashMap<Long, List<T>>();
+		for (T next : theExistingRows) {
+			Long hash = next.getHashIdentity();
+			List<T> list = existingByHash.get(hash);
+			if (list == null) {
+				list = new ArrayList<T>(1);
+				existingByHash.put(hash, list);
+			}
+			list.add(next);
+		}
+
+		for (T nextNew : theNewRows) {
+			T match = null;
+			List<T> candidates = existingByHash.get(nextNew.getHashIdentity());
+			if (candidates != null) {
+				for (int i = 0; i < candidates.size(); i++) {
+					if (candidates.get(i).isIdentityEqual(nextNew)) {
+						match = candidates.remove(i);
+						break;
+					}
+				}
+			}
+			if (match != null) {
+				retVal.myRowsToKeep.add(match);
+			} else {
+				retVal.myRowsToAdd.add(nextNew);
+			}
+		}
+
+		for (List<T> nextUnmatched : existingByHash.values()) {
+			retVal.myRowsToRemove.addAll(nextUnmatched);
+		}
+
+		return retVal;
+	}
+
+}
@@ -0,0 +1,381 @@
+package ca.uhn.fhir.jpa.dao;
+
+/*
+ * #%L
+ * HAPI FHIR JPA Server
+ * %%
+ * Copyright (C) 2014 - 2017 University Health Network
+ * %%
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * #L%
+ */
+
+
+import static org.apache.commons.lang3.StringUtils.isBlank;
+import static org.apache.commons.lang3.StringUtils.isNotBlank;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Date;
+import java.util.List;
+import java.util.Map.Entry;
+
+import org.hl7.fhir.instance.model.api.IIdType;
+
+import ca.uhn.fhir.context.RuntimeResourceDefinition;
+import ca.uhn.fhir.context.RuntimeSearchParam;
+import ca.uhn.fhir.jpa.entity.ResourceIndexedSearchParamDate;
+import ca.uhn.fhir.jpa.entity.ResourceIndexedSearchParamString;
+import ca.uhn.fhir.jpa.entity.ResourceIndexedSearchParamToken;
+import ca.uhn.fhir.jpa.entity.ResourceLink;
+import ca.uhn.fhir.jpa.entity.ResourceTable;
+import ca.uhn.fhir.model.api.IQueryParameterType;
+import ca.uhn.fhir.model.primitive.IdDt;
+import ca.uhn.fhir.rest.param.DateParam;
+import ca.uhn.fhir.rest.param.DateRangeParam;
+import ca.uhn.fhir.rest.param.ParamPrefixEnum;
+import ca.uhn.fhir.rest.param.ReferenceParam;
+import ca.uhn.fhir.rest.param.StringParam;
+import ca.uhn.fhir.rest.param.TokenParam;
+import ca.uhn.fhir.rest.server.exceptions.ResourceNotFoundException;
+
+/**
+ * The criteria of a single subscription, compiled so that they can be evaluated against the
+ * index rows of a resource which has just been written instead of by searching the database.
+ * <p>
+ * Token, string, date and (unchained) reference parameters are evaluated in memory, using the
+ * same rules as {@link SearchBuilder}. Any other parameters (and any parameters using modifiers
+ * which aren't supported here) can only be evaluated by the database, in which case
+ * {@link #matches(BaseHapiFhirDao, ResourceTable)} returns <code>null</code> if all of the parameters
+ * which could be evaluated in memory matched.
+ * </p>
+ */
+class SubscriptionCriteriaMatcher {
+
+	private final String myCriteria;
+	private final List<AndCriterion> myInMemoryCriteria;
+	private final boolean myRequiresDatabase;
+	private final String myResourceType;
+	private final Long mySubscriptionTablePid;
+
+	private SubscriptionCriteriaMatcher(Long theSubscriptionTablePid, String theCriteria, String theResourceType, List<AndCriterion> theInMemoryCriteria, boolean theRequiresDatabase) {
+		mySubscriptionTablePid = theSubscriptionTablePid;
+		myCriteria = theCriteria;
+		myResourceType = theResourceType;
+		myInMemoryCriteria = theInMemoryCriteria;
+		myRequiresDatabase = theRequiresDatabase;
+	}
+
+	public String getCriteria() {
+		return myCriteria;
+	}
+
+	public String getResourceType() {
+		return myResourceType;
+	}
+
+	public Long getSubscriptionTablePid() {
+		return mySubscriptionTablePid;
+	}
+
+	/**
+	 * Returns <code>true</code> if at least one of the parameters in the criteria can only be
+	 * evaluated by the database
+	 */
+	public boolean isRequiresDatabase() {
+		return myRequiresDatabase;
+	}
+
+	/**
+	 * Evaluates the criteria against the current index rows of the given resource
+	 * 
+	 * @return Returns {@link Boolean#TRUE} if the resource matches, {@link Boolean#FALSE} if it does
+	 *         not, or <code>null</code> if the parameters which could be evaluated in memory all
+	 *         matched but the remaining ones need to be checked by the database
+	 */
+	public Boolean matches(BaseHapiFhirDao<?> theCallingDao, ResourceTable theEntity) {
+		for (AndCriterion next : myInMemoryCriteria) {
+			if (!next.matches(theCallingDao, theEntity)) {
+				return Boolean.FALSE;
+			}
+		}
+		if (myRequiresDatabase) {
+			return null;
+		}
+		return Boolean.TRUE;
+	}
+
+	/**
+	 * Compiles the given subscription criteria (e.g. <code>Observation?code=http://loinc.org|1234-5</code>)
+	 * 
+	 * @throws ca.uhn.fhir.rest.server.exceptions.InvalidRequestException
+	 *            If the criteria can not be parsed
+	 */
+	public static SubscriptionCriteriaMatcher compile(BaseHapiFhirDao<?> theCallingDao, Long theSubscriptionTablePid, String theCriteria) {
+		String resourceType = theCriteria.substring(0, theCriteria.indexOf('?'));
+		RuntimeResourceDefinition resourceDef = theCallingDao.getContext().getResourceDefinition(resourceType);
+		SearchParameterMap map = BaseHapiFhirDao.translateMatchUrl(theCallingDao, theCallingDao.getContext(), theCriteria, resourceDef);
+
+		boolean requiresDatabase = map.getLastUpdated() != null;
+		List<AndCriterion> inMemoryCriteria = new ArrayList<AndCriterion>();
+		for (Entry<String, List<List<? extends IQueryParameterType>>> nextEntry : map.entrySet()) {
+			String nextParamName = nextEntry.getKey();
+			RuntimeSearchParam nextParam = null;
+			if (!nextParamName.startsWith("_")) {
+				nextParam = theCallingDao.getSearchParamByName(resourceDef, nextParamName);
+			}
+			for (List<? extends IQueryParameterType> nextAnd : nextEntry.getValue()) {
+				if (nextAnd == null || nextAnd.isEmpty()) {
+					continue;
+				}
+				if (nextParam == null || !isSupportedInMemory(nextParam, nextAnd)) {
+					requiresDatabase = true;
+					continue;
+				}
+				inMemoryCriteria.add(new AndCriterion(nextParam, nextAnd));
+			}
+		}
+
+		return new SubscriptionCriteriaMatcher(theSubscriptionTablePid, theCriteria, resourceDef.getName(), Collections.unmodifiableList(inMemoryCriteria), requiresDatabase);
+	}
+
+	private static boolean isSupportedInMemory(RuntimeSearchParam theParam, List<? extends IQueryParameterType> theOrValues) {
+		for (IQueryParameterType next : theOrValues) {
+			if (next.getMissing() != null) {
+				return false;
+			}
+			switch (theParam.getParamType()) {
+			case TOKEN:
+				if (!(next instanceof TokenParam) || ((TokenParam) next).getModifier() != null || ((TokenParam) next).isText()) {
+					return false;
+				}
+				break;
+			case STRING:
+				if (!(next instanceof StringParam) || ((StringParam) next).isContains()) {
+					return false;
+				}
+				String value = ((StringParam) next).getValue();
+				if (value == null || value.length() > ResourceIndexedSearchParamString.MAX_LENGTH || value.indexOf('%') != -1 || value.indexOf('_') != -1) {
+					// Wildcards are interpreted by the database's LIKE operator
+					return false;
+				}
+				break;
+			case DATE:
+				if (next instanceof DateParam) {
+					if (((DateParam) next).isEmpty()) {
+						return false;
+					}
+				} else if (!(next instanceof DateRangeParam)) {
+					return false;
+				}
+				break;
+			case REFERENCE:
+				if (!(next instanceof ReferenceParam) || isNotBlank(((ReferenceParam) next).getChain())) {
+					return false;
+				}
+				break;
+			default:
+				return false;
+			}
+		}
+		return true;
+	}
+
+	private static boolean matchesDate(ResourceIndexedSearchParamDate theRow, DateRangeParam theRange) {
+		Date lowerBound = theRange.getLowerBoundAsInstant();
+		Date upperBound = theRange.getUpperBoundAsInstant();
+		Date low = theRow.getValueLow();
+		Date high = theRow.getValueHigh();
+
+		if (lowerBound != null) {
+			boolean lowMatches = low != null && !low.before(lowerBound);
+			boolean highMatches = high != null && !high.before(lowerBound);
+			ParamPrefixEnum prefix = theRange.getLowerBound().getPrefix();
+			if (prefix == ParamPrefixEnum.STARTS_AFTER || prefix == ParamPrefixEnum.EQUAL) {
+				if (!lowMatches) {
+					return false;
+				}
+			} else if (!lowMatches && !highMatches) {
+				return false;
+			}
+		}
+
+		if (upperBound != null) {
+			boolean lowMatches = low != null && !low.after(upperBound);
+			boolean highMatches = high != null && !high.after(upperBound);
+			ParamPrefixEnum prefix = theRange.getUpperBound().getPrefix();
+			if (prefix == ParamPrefixEnum.ENDS_BEFORE || prefix == ParamPrefixEnum.EQUAL) {
+				if (!highMatches) {
+					return false;
+				}
+			} else if (!lowMatches && !highMatches) {
+				return false;
+			}
+		}
+
+		return true;
+	}
+
+	private static boolean matchesString(ResourceIndexedSearchParamString theRow, StringParam theParam) {
+		String normalized = BaseHapiFhirDao.normalizeString(theParam.getValue());
+		if (theRow.getValueNormalized() == null || !theRow.getValueNormalized().startsWith(normalized)) {
+			return false;
+		}
+		if (theParam.isExact() && !theParam.getValue().equals(theRow.getValueExact())) {
+			return false;
+		}
+		return true;
+	}
+
+	private static boolean matchesToken(ResourceIndexedSearchParamToken theRow, TokenParam theParam) {
+		String system = theParam.getSystem();
+		if (isNotBlank(system)) {
+			if (!system.equals(theRow.getSystem())) {
+				return false;
+			}
+		} else if (system != null) {
+			// If the system is "", we only match on null systems
+			if (theRow.getSystem() != null) {
+				return false;
+			}
+		}
+
+		String code = theParam.getValue();
+		if (isNotBlank(code) && !code.equals(theRow.getValue())) {
+			return false;
+		}
+		return true;
+	}
+
+	/**
+	 * One repetition of a parameter in the criteria, which matches if any of its
+	 * values match
+	 */
+	private static class AndCriterion {
+
+		private final List<? extends IQueryParameterType> myOrValues;
+		private final RuntimeSearchParam myParam;
+
+		public AndCriterion(RuntimeSearchParam theParam, List<? extends IQueryParameterType> theOrValues) {
+			myParam = theParam;
+			myOrValues = theOrValues;
+		}
+
+		public boolean matches(BaseHapiFhirDao<?> theCallingDao, ResourceTable theEntity) {
+			String paramName = myParam.getName();
+			switch (myParam.getParamType()) {
+			case TOKEN:
+				if (theEntity.isParamsTokenPopulated()) {
+					for (ResourceIndexedSearchParamToken nextRow : theEntity.getParamsToken()) {
+						if (paramName.equals(nextRow.getParamName())) {
+							for (IQueryParameterType nextOr : myOrValues) {
+								if (matchesToken(nextRow, (TokenParam) nextOr)) {
+									return true;
+								}
+							}
+						}
+					}
+				}
+				return false;
+			case STRING:
+				if (theEntity.isParamsStringPopulated()) {
+					for (ResourceIndexedSearchParamString nextRow : theEntity.getParamsString()) {
+						if (paramName.equals(nextRow.getParamName())) {
+							for (IQueryParameterType nextOr : myOrValues) {
+								if (matchesString(nextRow, (StringParam) nextOr)) {
+									return true;
+								}
+							}
+						}
+					}
+				}
+				return false;
+			case DATE:
+				if (theEntity.isParamsDatePopulated()) {
+					for (ResourceIndexedSearchParamDate nextRow : theEntity.getParamsDate()) {
+						if (paramName.equals(nextRow.getParamName())) {
+							for (IQueryParameterType nextOr : myOrValues) {
+								DateRangeParam range;
+								if (nextOr instanceof DateParam) {
+									range = new DateRangeParam((DateParam) nextOr);
+								} else {
+									range = (DateRangeParam) nextOr;
+								}
+								if (matchesDate(nextRow, range)) {
+									return true;
+								}
+							}
+						}
+					}
+				}
+				return false;
+			case REFERENCE:
+				if (theEntity.isHasLinks()) {
+					return matchesReference(theCallingDao, theEntity.getResourceLinks());
+				}
+				return false;
+			default:
+				throw new IllegalStateException("Can not evaluate parameter " + paramName + " in memory");
+			}
+		}
+
+		private boolean matchesReference(BaseHapiFhirDao<?> theCallingDao, Collection<ResourceLink> theLinks) {
+			List<String> paths = myParam.getPathsSplit();
+			List<ResourceLink> links = new ArrayList<ResourceLink>();
+			for (ResourceLink next : theLinks) {
+				if (paths.contains(next.getSourcePath())) {
+					links.add(next);
+				}
+			}
+			if (links.isEmpty()) {
+				return false;
+			}
+
+			for (IQueryParameterType nextOr : myOrValues) {
+				ReferenceParam ref = (ReferenceParam) nextOr;
+				if (isBlank(ref.getIdPart())) {
+					continue;
+				}
+				IIdType dt = new IdDt(ref.getBaseUrl(), ref.getResourceType(), ref.getIdPart(), null);
+				if (dt.hasBaseUrl()) {
+					if (theCallingDao.getConfig().getTreatBaseUrlsAsLocal().contains(dt.getBaseUrl())) {
+						dt = dt.toUnqualified();
+					} else {
+						for (ResourceLink nextLink : links) {
+							if (dt.getValue().equals(nextLink.getTargetResourceUrl())) {
+								return true;
+							}
+						}
+						continue;
+					}
+				}
+
+				List<Long> targetPids;
+				try {
+					targetPids = theCallingDao.translateForcedIdToPids(dt);
+				} catch (ResourceNotFoundException e) {
+					continue;
+				}
+				for (ResourceLink nextLink : links) {
+					if (nextLink.getTargetResourcePid() != null && targetPids.contains(nextLink.getTargetResourcePid())) {
+						return true;
+					}
+				}
+			}
+			return false;
+		}
+
+	}
+
+}
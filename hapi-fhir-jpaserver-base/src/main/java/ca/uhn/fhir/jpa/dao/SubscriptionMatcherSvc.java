@@ -0,0 +1,368 @@
+package ca.uhn.fhir.jpa.dao;
+
+/*
+ * #%L
+ * HAPI FHIR JPA Server
+ * %%
+ * Copyright (C) 2014 - 2017 University Health Network
+ * %%
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * #L%
+ */
+
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import javax.persistence.EntityManager;
+import javax.persistence.PersistenceContext;
+import javax.persistence.PersistenceContextType;
+
+import org.hl7.fhir.instance.model.api.IBaseResource;
+import org.hl7.fhir.instance.model.api.IPrimitiveType;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.transaction.support.TransactionSynchronizationAdapter;
+import org.springframework.transaction.support.TransactionSynchronizationManager;
+
+import ca.uhn.fhir.context.FhirContext;
+import ca.uhn.fhir.context.RuntimeResourceDefinition;
+import ca.uhn.fhir.jpa.dao.data.ISubscriptionTableDao;
+import ca.uhn.fhir.jpa.entity.ResourceTable;
+import ca.uhn.fhir.jpa.entity.SubscriptionFlaggedResource;
+import ca.uhn.fhir.jpa.entity.SubscriptionTable;
+import ca.uhn.fhir.model.dstu.resource.BaseResource;
+import ca.uhn.fhir.model.dstu2.valueset.SubscriptionStatusEnum;
+import ca.uhn.fhir.parser.IParser;
+import ca.uhn.fhir.rest.param.StringParam;
+import ca.uhn.fhir.rest.server.exceptions.BaseServerResponseException;
+
+/**
+ * Matches resources against the criteria of the active subscriptions as they are written,
+ * and flags the matching resources for delivery when the writing transaction commits. This
+ * replaces searching for new resources for every subscription on each poll.
+ * <p>
+ * The compiled criteria of the active subscriptions are cached. The cache is reloaded
+ * after a subscription is changed on this server, and after each call to
+ * {@link #refreshSubscriptions()} so that changes made elsewhere are also picked up.
+ * </p>
+ * <p>
+ * Matches for a subscription which has a {@link #registerListener(Long, ISubscriptionMatchListener) listener}
+ * registered are passed to the listener once the transaction commits instead of being
+ * flagged in the database.
+ * </p>
+ * 
+ * @see DaoConfig#setSubscriptionInMemoryMatchingEnabled(boolean)
+ */
+public class SubscriptionMatcherSvc {
+
+	private static final org.slf4j.Logger ourLog = org.slf4j.LoggerFactory.getLogger(SubscriptionMatcherSvc.class);
+
+	private volatile Map<String, List<SubscriptionCriteriaMatcher>> myActiveSubscriptions;
+	private final AtomicInteger myDatabaseCheckCount = new AtomicInteger();
+
+	@PersistenceContext(type = PersistenceContextType.TRANSACTION)
+	private EntityManager myEntityManager;
+
+	private final AtomicInteger myFlaggedCount = new AtomicInteger();
+	private long myGeneration;
+	private final ConcurrentHashMap<Long, List<ISubscriptionMatchListener>> myListeners = new ConcurrentHashMap<Long, List<ISubscriptionMatchListener>>();
+
+	@Autowired
+	private ISubscriptionTableDao mySubscriptionTableDao;
+
+	private final Object myTransactionResourceKey = new Object();
+
+	private int flagMatches(TransactionEntries theEntries) {
+		BaseHapiFhirDao<?> callingDao = theEntries.myCallingDao;
+		Map<String, List<SubscriptionCriteriaMatcher>> activeSubscriptions;
+		try {
+			activeSubscriptions = getActiveSubscriptions(callingDao);
+		} catch (Exception e) {
+			ourLog.error("Failed to load active subscriptions, written resources will not be matched", e);
+			return 0;
+		}
+
+		int retVal = 0;
+		IParser parser = null;
+		for (ResourceTable nextEntity : theEntries.myWrittenResources.values()) {
+			if (nextEntity.getDeleted() != null) {
+				continue;
+			}
+			List<SubscriptionCriteriaMatcher> subscriptions = activeSubscriptions.get(nextEntity.getResourceType());
+			if (subscriptions == null) {
+				continue;
+			}
+
+			String encoded = null;
+			for (SubscriptionCriteriaMatcher nextSubscription : subscriptions) {
+				try {
+					Boolean matches = nextSubscription.matches(callingDao, nextEntity);
+					if (matches == null) {
+						matches = matchesInDatabase(callingDao, nextSubscription, nextEntity);
+					}
+					if (!matches) {
+						continue;
+					}
+
+					List<ISubscriptionMatchListener> listeners = myListeners.get(nextSubscription.getSubscriptionTablePid());
+					if (listeners != null && !listeners.isEmpty()) {
+						/*
+						 * The listeners are notified after the commit, by which time the caller may have
+						 * modified the resource it wrote, so each listener gets its own copy of the resource
+						 * as it was when the transaction committed
+						 */
+						if (encoded == null) {
+							if (parser == null) {
+								parser = callingDao.getContext().newJsonParser();
+							}
+							encoded = parser.encodeResourceToString(theEntries.myWrittenResourceBodies.get(nextEntity.getId()));
+						}
+						ourLog.debug("Resource {} matches subscription {}, will notify {} listeners", new Object[] { nextEntity.getIdDt().toUnqualified().getValue(), nextSubscription.getSubscriptionTablePid(), listeners.size() });
+						for (ISubscriptionMatchListener nextListener : listeners) {
+							theEntries.myListenerMatches.add(new ListenerMatch(nextListener, callingDao.getContext(), encoded));
+						}
+						continue;
+					}
+
+					SubscriptionTable subscriptionTable = myEntityManager.find(SubscriptionTable.class, nextSubscription.getSubscriptionTablePid());
+					if (subscriptionTable == null) {
+						ourLog.debug("Subscription {} no longer exists", nextSubscription.getSubscriptionTablePid());
+						continue;
+					}
+
+					ourLog.debug("Resource {} matches subscription {}", nextEntity.getIdDt().toUnqualified().getValue(), nextSubscription.getSubscriptionTablePid());
+					SubscriptionFlaggedResource nextFlag = new SubscriptionFlaggedResource();
+					nextFlag.setResource(nextEntity);
+					nextFlag.setSubscription(subscriptionTable);
+					nextFlag.setVersion(nextEntity.getVersion());
+					myEntityManager.persist(nextFlag);
+					retVal++;
+				} catch (Exception e) {
+					ourLog.error("Failed to match resource " + nextEntity.getIdDt().toUnqualified().getValue() + " against subscription " + nextSubscription.getSubscriptionTablePid(), e);
+				}
+			}
+		}
+		return retVal;
+	}
+
+	private Map<String, List<SubscriptionCriteriaMatcher>> getActiveSubscriptions(BaseHapiFhirDao<?> theCallingDao) {
+		Map<String, List<SubscriptionCriteriaMatcher>> retVal = myActiveSubscriptions;
+		if (retVal != null) {
+			return retVal;
+		}
+
+		long generation;
+		synchronized (this) {
+			generation = myGeneration;
+		}
+
+		retVal = new HashMap<String, List<SubscriptionCriteriaMatcher>>();
+		for (SubscriptionTable next : mySubscriptionTableDao.findByStatus(SubscriptionStatusEnum.ACTIVE.getCode())) {
+			String criteria = null;
+			SubscriptionCriteriaMatcher matcher;
+			try {
+				IBaseResource subscription = theCallingDao.toResource(next.getSubscriptionResource(), false);
+				IPrimitiveType<?> criteriaElement = theCallingDao.getContext().newTerser().getSingleValueOrNull(subscription, "criteria", IPrimitiveType.class);
+				criteria = criteriaElement != null ? criteriaElement.getValueAsString() : null;
+				matcher = SubscriptionCriteriaMatcher.compile(theCallingDao, next.getId(), criteria);
+			} catch (BaseServerResponseException e) {
+				ourLog.warn("Unable to compile criteria {} of subscription {}: {}", new Object[] { criteria, next.getId(), e.toString() });
+				continue;
+			} catch (Exception e) {
+				ourLog.error("Unable to load subscription " + next.getId(), e);
+				continue;
+			}
+
+			List<SubscriptionCriteriaMatcher> matchers = retVal.get(matcher.getResourceType());
+			if (matchers == null) {
+				matchers = new ArrayList<SubscriptionCriteriaMatcher>();
+				retVal.put(matcher.getResourceType(), matchers);
+			}
+			matchers.add(matcher);
+		}
+		ourLog.debug("Loaded criteria for subscriptions to {} resource types", retVal.size());
+
+		synchronized (this) {
+			// Don't cache the subscriptions if they changed while we were loading them
+			if (generation == myGeneration) {
+				myActiveSubscriptions = retVal;
+			}
+		}
+		return retVal;
+	}
+
+	/**
+	 * Returns the number of times a resource had to be checked against a subscription's criteria
+	 * using the database, because the criteria could not be evaluated completely in memory
+	 */
+	public int getDatabaseCheckCount() {
+		return myDatabaseCheckCount.get();
+	}
+
+	/**
+	 * Returns the number of resources which have been flagged for delivery since the
+	 * last call to this method, and resets the count
+	 */
+	public int getAndResetFlaggedCount() {
+		return myFlaggedCount.getAndSet(0);
+	}
+
+	private TransactionEntries getTransactionEntries() {
+		TransactionEntries retVal = (TransactionEntries) TransactionSynchronizationManager.getResource(myTransactionResourceKey);
+		if (retVal == null) {
+			final TransactionEntries entries = new TransactionEntries();
+			TransactionSynchronizationManager.bindResource(myTransactionResourceKey, entries);
+			TransactionSynchronizationManager.registerSynchronization(new TransactionSynchronizationAdapter() {
+				@Override
+				public void afterCompletion(int theStatus) {
+					TransactionSynchronizationManager.unbindResourceIfPossible(myTransactionResourceKey);
+					if (theStatus == STATUS_COMMITTED) {
+						myFlaggedCount.addAndGet(entries.myFlaggedCount);
+						notifyListeners(entries);
+					}
+				}
+
+				@Override
+				public void beforeCommit(boolean theReadOnly) {
+					entries.myFlaggedCount = flagMatches(entries);
+				}
+			});
+			retVal = entries;
+		}
+		return retVal;
+	}
+
+	private boolean matchesInDatabase(BaseHapiFhirDao<?> theCallingDao, SubscriptionCriteriaMatcher theSubscription, ResourceTable theEntity) {
+		myDatabaseCheckCount.incrementAndGet();
+		RuntimeResourceDefinition resourceDef = theCallingDao.getContext().getResourceDefinition(theSubscription.getResourceType());
+		SearchParameterMap map = BaseHapiFhirDao.translateMatchUrl(theCallingDao, theCallingDao.getContext(), theSubscription.getCriteria(), resourceDef);
+		map.add(BaseResource.SP_RES_ID, new StringParam(theEntity.getIdDt().getIdPart()));
+
+		IFhirResourceDao<? extends IBaseResource> dao = theCallingDao.getDao(resourceDef.getImplementingClass());
+		Set<Long> pids = dao.searchForIdsWithAndOr(map);
+		return pids.contains(theEntity.getId());
+	}
+
+	private void notifyListeners(TransactionEntries theEntries) {
+		for (ListenerMatch next : theEntries.myListenerMatches) {
+			try {
+				IBaseResource resource = next.myContext.newJsonParser().parseResource(next.myEncodedResource);
+				next.myListener.resourceMatched(resource);
+			} catch (Exception e) {
+				ourLog.error("Failure in subscription match listener", e);
+			}
+		}
+	}
+
+	/**
+	 * Discards the cached subscription criteria, so that they are reloaded from the
+	 * database the next time a resource is written
+	 */
+	public void refreshSubscriptions() {
+		synchronized (this) {
+			myGeneration++;
+			myActiveSubscriptions = null;
+		}
+	}
+
+	/**
+	 * Registers a listener which will receive the resources matching the given subscription
+	 * instead of them being flagged for delivery in the database
+	 */
+	public void registerListener(Long theSubscriptionTablePid, ISubscriptionMatchListener theListener) {
+		List<ISubscriptionMatchListener> listeners = myListeners.get(theSubscriptionTablePid);
+		if (listeners == null) {
+			myListeners.putIfAbsent(theSubscriptionTablePid, new CopyOnWriteArrayList<ISubscriptionMatchListener>());
+			listeners = myListeners.get(theSubscriptionTablePid);
+		}
+		listeners.add(theListener);
+	}
+
+	/**
+	 * Should be called when a new version of a resource has been written, so that it is
+	 * matched against the active subscriptions when the current transaction commits
+	 */
+	public void resourceWritten(BaseHapiFhirDao<?> theCallingDao, ResourceTable theEntity, IBaseResource theResource) {
+		if (!TransactionSynchronizationManager.isSynchronizationActive()) {
+			TransactionEntries entries = new TransactionEntries();
+			entries.myCallingDao = theCallingDao;
+			entries.myWrittenResources.put(theEntity.getId(), theEntity);
+			entries.myWrittenResourceBodies.put(theEntity.getId(), theResource);
+			myFlaggedCount.addAndGet(flagMatches(entries));
+			notifyListeners(entries);
+			return;
+		}
+
+		TransactionEntries entries = getTransactionEntries();
+		if (entries.myCallingDao == null) {
+			entries.myCallingDao = theCallingDao;
+		}
+		entries.myWrittenResources.put(theEntity.getId(), theEntity);
+		entries.myWrittenResourceBodies.put(theEntity.getId(), theResource);
+	}
+
+	/**
+	 * Should be called when a subscription is created, updated or deleted. The cached
+	 * criteria are discarded once the current transaction commits.
+	 */
+	public void subscriptionChanged() {
+		if (!TransactionSynchronizationManager.isSynchronizationActive()) {
+			refreshSubscriptions();
+			return;
+		}
+		TransactionSynchronizationManager.registerSynchronization(new TransactionSynchronizationAdapter() {
+			@Override
+			public void afterCompletion(int theStatus) {
+				refreshSubscriptions();
+			}
+		});
+	}
+
+	/**
+	 * Removes a listener which was added using {@link #registerListener(Long, ISubscriptionMatchListener)}
+	 */
+	public void unregisterListener(Long theSubscriptionTablePid, ISubscriptionMatchListener theListener) {
+		List<ISubscriptionMatchListener> listeners = myListeners.get(theSubscriptionTablePid);
+		if (listeners != null) {
+			listeners.remove(theListener);
+		}
+	}
+
+	private static class ListenerMatch {
+		private final FhirContext myContext;
+		private final String myEncodedResource;
+		private final ISubscriptionMatchListener myListener;
+
+		public ListenerMatch(ISubscriptionMatchListener theListener, FhirContext theContext, String theEncodedResource) {
+			myListener = theListener;
+			myContext = theContext;
+			myEncodedResource = theEncodedResource;
+		}
+	}
+
+	private static class TransactionEntries {
+		private BaseHapiFhirDao<?> myCallingDao;
+		private int myFlaggedCount;
+		private final List<ListenerMatch> myListenerMatches = new ArrayList<ListenerMatch>();
+		private final Map<Long, IBaseResource> myWrittenResourceBodies = new HashMap<Long, IBaseResource>();
+		private final Map<Long, ResourceTable> myWrittenResources = new LinkedHashMap<Long, ResourceTable>();
+	}
+
+}
@@ -2,6 +2,7 @@ package ca.uhn.fhir.jpa.dao.data;
 
 import java.util.Collection;
 import java.util.Date;
+import java.util.List;
 
 /*
  * #%L
@@ -23,7 +24,9 @@ import java.util.Date;
  * #L%
  */
 
+import org.springframework.data.domain.Pageable;
 import org.springframework.data.jpa.repository.JpaRepository;
+import org.springframework.data.jpa.repository.Modifying;
 import org.springframework.data.jpa.repository.Query;
 import org.springframework.data.repository.query.Param;
 
@@ -37,4 +40,11 @@ public interface ISearchDao extends JpaRepository<Search, Long> {
 	@Query("SELECT s FROM Search s WHERE s.myCreated < :cutoff")
 	public Collection<Search> findWhereCreatedBefore(@Param("cutoff") Date theCutoff);
 
+	@Query("SELECT s.myId FROM Search s WHERE s.myCreated < :cutoff ORDER BY s.myCreated ASC, s.myId ASC")
+	public List<Long> findIdsWhereCreatedBefore(@Param("cutoff") Date theCutoff, Pageable thePage);
+
+	@Modifying
+	@Query("DELETE FROM Search s WHERE s.myId IN :ids")
+	public int deleteByIds(@Param("ids") Collection<Long> theSearchPids);
+
 }
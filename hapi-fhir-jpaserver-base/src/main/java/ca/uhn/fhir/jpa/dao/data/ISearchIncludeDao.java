@@ -20,6 +20,10 @@ package ca.uhn.fhir.jpa.dao.data;
  * #L%
  */
 
+import java.util.Collection;
+import java.util.List;
+
+import org.springframework.data.domain.Pageable;
 import org.springframework.data.jpa.repository.JpaRepository;
 import org.springframework.data.jpa.repository.Modifying;
 import org.springframework.data.jpa.repository.Query;
@@ -32,4 +36,15 @@ public interface ISearchIncludeDao  extends JpaRepository<SearchInclude, Long> {
 	@Modifying
 	@Query(value="DELETE FROM SearchInclude r WHERE r.mySearchPid = :search")
 	void deleteForSearch(@Param("search") Long theSearchPid);
+
+	@Modifying
+	@Query(value="DELETE FROM SearchInclude r WHERE r.mySearchPid IN :searches")
+	int deleteForSearches(@Param("searches") Collection<Long> theSearchPids);
+
+	@Query(value="SELECT r.myId FROM SearchInclude r WHERE r.mySearchPid IN :searches")
+	List<Long> findIdsForSearches(@Param("searches") Collection<Long> theSearchPids, Pageable thePage);
+
+	@Modifying
+	@Query(value="DELETE FROM SearchInclude r WHERE r.myId IN :ids")
+	int deleteByIds(@Param("ids") Collection<Long> theIds);
 }
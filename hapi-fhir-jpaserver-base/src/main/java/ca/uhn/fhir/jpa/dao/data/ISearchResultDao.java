@@ -1,6 +1,7 @@
 package ca.uhn.fhir.jpa.dao.data;
 
 import java.util.Collection;
+import java.util.List;
 
 import org.springframework.data.domain.Page;
 import org.springframework.data.domain.Pageable;
@@ -44,4 +45,15 @@ public interface ISearchResultDao  extends JpaRepository<SearchResult, Long> {
 	@Modifying
 	@Query(value="DELETE FROM SearchResult r WHERE r.mySearchPid = :search")
 	void deleteForSearch(@Param("search") Long theSearchPid);
+
+	@Modifying
+	@Query(value="DELETE FROM SearchResult r WHERE r.mySearchPid IN :searches")
+	int deleteForSearches(@Param("searches") Collection<Long> theSearchPids);
+
+	@Query(value="SELECT r.myId FROM SearchResult r WHERE r.mySearchPid IN :searches")
+	List<Long> findIdsForSearches(@Param("searches") Collection<Long> theSearchPids, Pageable thePage);
+
+	@Modifying
+	@Query(value="DELETE FROM SearchResult r WHERE r.myId IN :ids")
+	int deleteByIds(@Param("ids") Collection<Long> theIds);
 }
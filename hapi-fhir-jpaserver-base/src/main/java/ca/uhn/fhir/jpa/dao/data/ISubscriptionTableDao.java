@@ -46,6 +46,9 @@ public interface ISubscriptionTableDao extends JpaRepository<SubscriptionTable,
 	@Query("SELECT t FROM SubscriptionTable t WHERE t.myLastClientPoll < :cutoff OR (t.myLastClientPoll IS NULL AND t.myCreated < :cutoff)")
 	public Collection<SubscriptionTable> findInactiveBeforeCutoff(@Param("cutoff") Date theCutoff);
 
+	@Query("SELECT t FROM SubscriptionTable t WHERE t.myStatus = :status")
+	public Collection<SubscriptionTable> findByStatus(@Param("status") String theStatus);
+
 	@Query("SELECT t.myId FROM SubscriptionTable t WHERE t.myStatus = :status AND t.myNextCheck <= :next_check")
 	public Collection<Long> findSubscriptionsWhichNeedToBeChecked(@Param("status") String theStatus, @Param("next_check") Date theNextCheck);
 }
@@ -52,6 +52,7 @@ import ca.uhn.fhir.jpa.dao.IDao;
 import ca.uhn.fhir.jpa.dao.IFhirResourceDao;
 import ca.uhn.fhir.jpa.dao.IFhirResourceDaoSubscription;
 import ca.uhn.fhir.jpa.dao.SearchParameterMap;
+import ca.uhn.fhir.jpa.dao.SubscriptionMatcherSvc;
 import ca.uhn.fhir.jpa.dao.data.ISubscriptionFlaggedResourceDataDao;
 import ca.uhn.fhir.jpa.dao.data.ISubscriptionTableDao;
 import ca.uhn.fhir.jpa.entity.ResourceTable;
@@ -128,6 +129,16 @@ public class FhirResourceDaoSubscriptionDstu3 extends FhirResourceDaoDstu3<Subsc
 		}
 		ourLog.trace("Beginning pollForNewUndeliveredResources()");
 
+		SubscriptionMatcherSvc matcherSvc = getSubscriptionMatcherSvc();
+		if (getConfig().isSubscriptionInMemoryMatchingEnabled() && matcherSvc != null) {
+			/*
+			 * New resources are flagged as they are written, so there is nothing to search for. Reload
+			 * the subscriptions in case they have been changed by another server.
+			 */
+			matcherSvc.refreshSubscriptions();
+			return matcherSvc.getAndResetFlaggedCount();
+		}
+
 		// SubscriptionCandidateResource
 
 		TransactionTemplate txTemplate = new TransactionTemplate(myTxManager);
@@ -282,6 +293,10 @@ public class FhirResourceDaoSubscriptionDstu3 extends FhirResourceDaoDstu3<Subsc
 			Date theUpdateTime) {
 		ResourceTable retVal = super.updateEntity(theResource, theEntity, theDeletedTimestampOrNull, thePerformIndexing, theUpdateVersion, theUpdateTime);
 
+		if (getSubscriptionMatcherSvc() != null) {
+			getSubscriptionMatcherSvc().subscriptionChanged();
+		}
+
 		Subscription resource = (Subscription) theResource;
 		Long resourceId = theEntity.getId();
 		if (theDeletedTimestampOrNull != null) {
@@ -25,7 +25,18 @@ import static org.apache.commons.lang3.StringUtils.isNotBlank;
 
 import java.util.*;
 import java.util.Map.Entry;
-
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import javax.annotation.PreDestroy;
 import javax.persistence.TypedQuery;
 
 import org.apache.http.NameValuePair;
@@ -79,6 +90,9 @@ import ca.uhn.fhir.util.UrlUtil.UrlParts;
 public class FhirSystemDaoDstu3 extends BaseHapiFhirSystemDao<Bundle, Meta> {
 	private static final org.slf4j.Logger ourLog = org.slf4j.LoggerFactory.getLogger(FhirSystemDaoDstu3.class);
 
+	private ExecutorService myBatchExecutor;
+	private int myBatchExecutorThreadCount;
+
 	@Autowired
 	private PlatformTransactionManager myTxManager;
 
@@ -98,59 +112,159 @@ public class FhirSystemDaoDstu3 extends BaseHapiFhirSystemDao<Bundle, Meta> {
 		 * For batch, we handle each entry as a mini-transaction in its own database transaction so that if one fails, it doesn't prevent others
 		 */
 
-		for (final BundleEntryComponent nextRequestEntry : theRequest.getEntry()) {
+		List<BundleEntryComponent> requestEntries = theRequest.getEntry();
+		BundleEntryComponent[] responseEntries = new BundleEntryComponent[requestEntries.size()];
+		int threadCount = getConfig().getBatchBundleThreadCount();
+		if (threadCount > 1 && requestEntries.size() > 1) {
+			batchInParallel(txTemplate, theRequestDetails, requestEntries, responseEntries, threadCount);
+		} else {
+			for (int i = 0; i < requestEntries.size(); i++) {
+				responseEntries[i] = batchEntry(txTemplate, theRequestDetails, requestEntries.get(i));
+			}
+		}
+		for (BundleEntryComponent next : responseEntries) {
+			resp.addEntry(next);
+		}
 
-			TransactionCallback<Bundle> callback = new TransactionCallback<Bundle>() {
-				@Override
-				public Bundle doInTransaction(TransactionStatus theStatus) {
-					Bundle subRequestBundle = new Bundle();
-					subRequestBundle.setType(BundleType.TRANSACTION);
-					subRequestBundle.addEntry(nextRequestEntry);
+		long delay = System.currentTimeMillis() - start;
+		ourLog.info("Batch completed in {}ms", new Object[] { delay });
+		ooResp.addIssue().setSeverity(IssueSeverity.INFORMATION).setDiagnostics("Batch completed in " + delay + "ms");
 
-					Bundle subResponseBundle = transaction((ServletRequestDetails) theRequestDetails, subRequestBundle, "Batch sub-request");
-					return subResponseBundle;
-				}
-			};
+		return resp;
+	}
 
-			BaseServerResponseException caughtEx;
-			try {
-				Bundle nextResponseBundle = txTemplate.execute(callback);
-				caughtEx = null;
+	private BundleEntryComponent batchEntry(TransactionTemplate theTxTemplate, final RequestDetails theRequestDetails, final BundleEntryComponent theRequestEntry) {
+		TransactionCallback<Bundle> callback = new TransactionCallback<Bundle>() {
+			@Override
+			public Bundle doInTransaction(TransactionStatus theStatus) {
+				Bundle subRequestBundle = new Bundle();
+				subRequestBundle.setType(BundleType.TRANSACTION);
+				subRequestBundle.addEntry(theRequestEntry);
 
-				BundleEntryComponent subResponseEntry = nextResponseBundle.getEntry().get(0);
-				resp.addEntry(subResponseEntry);
 				/*
-				 * If the individual entry didn't have a resource in its response, bring the sub-transaction's OperationOutcome across so the client can see it
+				 * The request is already marked as processing sub-requests for the whole batch, so
+				 * we don't mark and clear it here since other entries may be processed concurrently
 				 */
-				if (subResponseEntry.getResource() == null) {
-					subResponseEntry.setResource(nextResponseBundle.getEntry().get(0).getResource());
-				}
+				Bundle subResponseBundle = doTransaction((ServletRequestDetails) theRequestDetails, subRequestBundle, "Batch sub-request");
+				return subResponseBundle;
+			}
+		};
 
-			} catch (BaseServerResponseException e) {
-				caughtEx = e;
-			} catch (Throwable t) {
-				ourLog.error("Failure during BATCH sub transaction processing", t);
-				caughtEx = new InternalErrorException(t);
+		BaseServerResponseException caughtEx;
+		try {
+			Bundle nextResponseBundle = theTxTemplate.execute(callback);
+
+			BundleEntryComponent subResponseEntry = nextResponseBundle.getEntry().get(0);
+			/*
+			 * If the individual entry didn't have a resource in its response, bring the sub-transaction's OperationOutcome across so the client can see it
+			 */
+			if (subResponseEntry.getResource() == null) {
+				subResponseEntry.setResource(nextResponseBundle.getEntry().get(0).getResource());
 			}
+			return subResponseEntry;
+
+		} catch (BaseServerResponseException e) {
+			caughtEx = e;
+		} catch (Throwable t) {
+			ourLog.error("Failure during BATCH sub transaction processing", t);
+			caughtEx = new InternalErrorException(t);
+		}
 
-			if (caughtEx != null) {
-				BundleEntryComponent nextEntry = resp.addEntry();
+		BundleEntryComponent nextEntry = new BundleEntryComponent();
 
-				OperationOutcome oo = new OperationOutcome();
-				oo.addIssue().setSeverity(IssueSeverity.ERROR).setDiagnostics(caughtEx.getMessage());
-				nextEntry.setResource(oo);
+		OperationOutcome oo = new OperationOutcome();
+		oo.addIssue().setSeverity(IssueSeverity.ERROR).setDiagnostics(caughtEx.getMessage());
+		nextEntry.setResource(oo);
 
-				BundleEntryResponseComponent nextEntryResp = nextEntry.getResponse();
-				nextEntryResp.setStatus(toStatusString(caughtEx.getStatusCode()));
+		BundleEntryResponseComponent nextEntryResp = nextEntry.getResponse();
+		nextEntryResp.setStatus(toStatusString(caughtEx.getStatusCode()));
+
+		return nextEntry;
+	}
+
+	/**
+	 * Processes the entries of a batch using the batch worker threads. At most two entries per
+	 * thread are queued at any time, so a very large batch waits for the workers instead of
+	 * queueing all of its entries at once.
+	 */
+	private void batchInParallel(final TransactionTemplate theTxTemplate, final RequestDetails theRequestDetails, List<BundleEntryComponent> theRequestEntries, final BundleEntryComponent[] theResponseEntries,
+			int theThreadCount) {
+		ExecutorService executor = getBatchExecutor(theThreadCount);
+		final Semaphore permits = new Semaphore(theThreadCount * 2);
+		List<Future<?>> futures = new ArrayList<Future<?>>(theRequestEntries.size());
+
+		try {
+			for (int i = 0; i < theRequestEntries.size(); i++) {
+				final int index = i;
+				final BundleEntryComponent nextRequestEntry = theRequestEntries.get(i);
+				final RequestDetails nextRequestDetails = copyRequestDetails((ServletRequestDetails) theRequestDetails);
+				permits.acquire();
+				try {
+					futures.add(executor.submit(new Runnable() {
+						@Override
+						public void run() {
+							try {
+								theResponseEntries[index] = batchEntry(theTxTemplate, nextRequestDetails, nextRequestEntry);
+							} finally {
+								permits.release();
+							}
+						}
+					}));
+				} catch (RejectedExecutionException e) {
+					permits.release();
+					theResponseEntries[index] = batchEntry(theTxTemplate, nextRequestDetails, nextRequestEntry);
+				}
 			}
 
+			for (Future<?> next : futures) {
+				next.get();
+			}
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			for (Future<?> next : futures) {
+				next.cancel(false);
+			}
+			throw new InternalErrorException("Interrupted while processing batch", e);
+		} catch (ExecutionException e) {
+			throw new InternalErrorException(e.getCause());
 		}
+	}
 
-		long delay = System.currentTimeMillis() - start;
-		ourLog.info("Batch completed in {}ms", new Object[] { delay });
-		ooResp.addIssue().setSeverity(IssueSeverity.INFORMATION).setDiagnostics("Batch completed in " + delay + "ms");
+	/**
+	 * Entries of a batch which are processed in parallel each get their own copy of the request details,
+	 * since interceptors and the DAOs may modify them (e.g. the user data) while processing an entry
+	 */
+	private static ServletRequestDetails copyRequestDetails(final ServletRequestDetails theRequestDetails) {
+		if (theRequestDetails == null) {
+			return null;
+		}
 
-		return resp;
+		ServletRequestDetails retVal = new ServletRequestDetails() {
+			@Override
+			protected byte[] getByteStreamRequestContents() {
+				// The body has already been read from the servlet request
+				return theRequestDetails.loadRequestContents();
+			}
+		};
+		retVal.setServer(theRequestDetails.getServer());
+		retVal.setServletRequest(theRequestDetails.getServletRequest());
+		retVal.setServletResponse(theRequestDetails.getServletResponse());
+		retVal.setCompartmentName(theRequestDetails.getCompartmentName());
+		retVal.setCompleteUrl(theRequestDetails.getCompleteUrl());
+		retVal.setFhirServerBase(theRequestDetails.getFhirServerBase());
+		retVal.setId(theRequestDetails.getId());
+		retVal.setOperation(theRequestDetails.getOperation());
+		if (theRequestDetails.getParameters() != null) {
+			retVal.setParameters(new HashMap<String, String[]>(theRequestDetails.getParameters()));
+		}
+		retVal.setRequestPath(theRequestDetails.getRequestPath());
+		retVal.setRequestType(theRequestDetails.getRequestType());
+		retVal.setResourceName(theRequestDetails.getResourceName());
+		retVal.setRespondGzip(theRequestDetails.isRespondGzip());
+		retVal.setRestOperationType(theRequestDetails.getRestOperationType());
+		retVal.setSecondaryOperation(theRequestDetails.getSecondaryOperation());
+		retVal.getUserData().putAll(theRequestDetails.getUserData());
+		return retVal;
 	}
 
 	private String extractTransactionUrlOrThrowException(BundleEntryComponent nextEntry, HTTPVerb verb) {
@@ -183,6 +297,29 @@ public class FhirSystemDaoDstu3 extends BaseHapiFhirSystemDao<Bundle, Meta> {
 		return retVal;
 	}
 
+	private synchronized ExecutorService getBatchExecutor(int theThreadCount) {
+		if (myBatchExecutor == null || myBatchExecutorThreadCount != theThreadCount) {
+			/*
+			 * If the thread count was changed we don't shut the previous executor down, since
+			 * other batches may still have entries queued on it. Its threads time out once those
+			 * have been processed.
+			 */
+			final AtomicInteger threadIndex = new AtomicInteger();
+			ThreadPoolExecutor executor = new ThreadPoolExecutor(theThreadCount, theThreadCount, 60, TimeUnit.SECONDS, new LinkedBlockingQueue<Runnable>(), new ThreadFactory() {
+				@Override
+				public Thread newThread(Runnable theRunnable) {
+					Thread retVal = new Thread(theRunnable, "batch-bundle-" + threadIndex.incrementAndGet());
+					retVal.setDaemon(true);
+					return retVal;
+				}
+			});
+			executor.allowCoreThreadTimeOut(true);
+			myBatchExecutor = executor;
+			myBatchExecutorThreadCount = theThreadCount;
+		}
+		return myBatchExecutor;
+	}
+
 	@Override
 	public Meta metaGetOperation(RequestDetails theRequestDetails) {
 		// Notify interceptors
@@ -241,6 +378,14 @@ public class FhirSystemDaoDstu3 extends BaseHapiFhirSystemDao<Bundle, Meta> {
 		return dao;
 	}
 
+	@PreDestroy
+	public synchronized void stop() {
+		if (myBatchExecutor != null) {
+			myBatchExecutor.shutdown();
+			myBatchExecutor = null;
+		}
+	}
+
 	@Transactional(propagation = Propagation.REQUIRED)
 	@Override
 	public Bundle transaction(RequestDetails theRequestDetails, Bundle theRequest) {
@@ -262,7 +407,6 @@ public class FhirSystemDaoDstu3 extends BaseHapiFhirSystemDao<Bundle, Meta> {
 		}
 	}
 	
-	@SuppressWarnings("unchecked")
 	private Bundle doTransaction(ServletRequestDetails theRequestDetails, Bundle theRequest, String theActionName) {
 		BundleType transactionType = theRequest.getTypeElement().getValue();
 		if (transactionType == BundleType.BATCH) {
@@ -280,12 +424,25 @@ public class FhirSystemDaoDstu3 extends BaseHapiFhirSystemDao<Bundle, Meta> {
 
 		ourLog.info("Beginning {} with {} resources", theActionName, theRequest.getEntry().size());
 
+		boolean bulkTransaction = startBulkTransaction();
+		try {
+			return doTransactionEntries(theRequestDetails, theRequest, theActionName);
+		} finally {
+			if (bulkTransaction) {
+				stopBulkTransaction();
+			}
+		}
+	}
+
+	@SuppressWarnings("unchecked")
+	private Bundle doTransactionEntries(ServletRequestDetails theRequestDetails, Bundle theRequest, String theActionName) {
 		long start = System.currentTimeMillis();
 		Date updateTime = new Date();
 
 		Set<IdType> allIds = new LinkedHashSet<IdType>();
 		Map<IdType, IdType> idSubstitutions = new HashMap<IdType, IdType>();
-		Map<IdType, DaoMethodOutcome> idToPersistedOutcome = new HashMap<IdType, DaoMethodOutcome>();
+		// Keeps the processing order, so that entries are indexed in the order they were saved in
+		Map<IdType, DaoMethodOutcome> idToPersistedOutcome = new LinkedHashMap<IdType, DaoMethodOutcome>();
 
 		// Do all entries have a verb?
 		for (int i = 0; i < theRequest.getEntry().size(); i++) {
@@ -460,10 +617,30 @@ public class FhirSystemDaoDstu3 extends BaseHapiFhirSystemDao<Bundle, Meta> {
 		validateDeleteConflictsEmptyOrThrowException(deleteConflicts);
 
 		/*
-		 * Perform ID substitutions and then index each resource we have saved
+		 * Look up all of the forced IDs referred to by the resources in the bundle
+		 * together, instead of one at a time while indexing each resource
 		 */
 
 		FhirTerser terser = getContext().newTerser();
+		List<IIdType> referencedIds = new ArrayList<IIdType>();
+		for (DaoMethodOutcome nextOutcome : idToPersistedOutcome.values()) {
+			IBaseResource nextResource = nextOutcome.getResource();
+			if (nextResource == null) {
+				continue;
+			}
+			for (IBaseReference nextRef : terser.getAllPopulatedChildElementsOfType(nextResource, IBaseReference.class)) {
+				IIdType nextId = nextRef.getReferenceElement();
+				if (nextId.hasIdPart() && !idSubstitutions.containsKey(nextId)) {
+					referencedIds.add(nextId);
+				}
+			}
+		}
+		prewarmForcedIdCache(referencedIds);
+
+		/*
+		 * Perform ID substitutions and then index each resource we have saved
+		 */
+
 		for (DaoMethodOutcome nextOutcome : idToPersistedOutcome.values()) {
 			IBaseResource nextResource = nextOutcome.getResource();
 			if (nextResource == null) {
@@ -495,7 +672,7 @@ public class FhirSystemDaoDstu3 extends BaseHapiFhirSystemDao<Bundle, Meta> {
 			}
 		}
 
-		myEntityManager.flush();
+		flushBulkTransaction();
 
 		/*
 		 * Double check we didn't allow any duplicates we shouldn't have
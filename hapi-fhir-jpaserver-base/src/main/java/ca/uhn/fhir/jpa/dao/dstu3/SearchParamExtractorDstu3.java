@@ -24,13 +24,13 @@ import static org.apache.commons.lang3.StringUtils.isNotBlank;
 
 import java.math.BigDecimal;
 import java.util.ArrayList;
-import java.util.Collection;
 import java.util.Collections;
 import java.util.Date;
 import java.util.HashSet;
 import java.util.List;
 import java.util.Set;
 import java.util.TreeSet;
+import java.util.concurrent.ConcurrentHashMap;
 
 import javax.measure.unit.NonSI;
 import javax.measure.unit.Unit;
@@ -62,6 +62,7 @@ import org.hl7.fhir.dstu3.model.Range;
 import org.hl7.fhir.dstu3.model.SimpleQuantity;
 import org.hl7.fhir.dstu3.model.StringType;
 import org.hl7.fhir.dstu3.model.Timing;
+import org.hl7.fhir.dstu3.model.ExpressionNode;
 import org.hl7.fhir.dstu3.model.UriType;
 import org.hl7.fhir.dstu3.utils.FHIRPathEngine;
 import org.hl7.fhir.exceptions.FHIRException;
@@ -79,7 +80,6 @@ import ca.uhn.fhir.jpa.dao.BaseHapiFhirDao;
 import ca.uhn.fhir.jpa.dao.BaseSearchParamExtractor;
 import ca.uhn.fhir.jpa.dao.ISearchParamExtractor;
 import ca.uhn.fhir.jpa.dao.ISearchParamRegistry;
-import ca.uhn.fhir.jpa.dao.PathAndRef;
 import ca.uhn.fhir.jpa.entity.BaseResourceIndexedSearchParam;
 import ca.uhn.fhir.jpa.entity.ResourceIndexedSearchParamCoords;
 import ca.uhn.fhir.jpa.entity.ResourceIndexedSearchParamDate;
@@ -89,7 +89,6 @@ import ca.uhn.fhir.jpa.entity.ResourceIndexedSearchParamString;
 import ca.uhn.fhir.jpa.entity.ResourceIndexedSearchParamToken;
 import ca.uhn.fhir.jpa.entity.ResourceIndexedSearchParamUri;
 import ca.uhn.fhir.jpa.entity.ResourceTable;
-import ca.uhn.fhir.rest.method.RestSearchParameterTypeEnum;
 import ca.uhn.fhir.rest.server.exceptions.InternalErrorException;
 
 public class SearchParamExtractorDstu3 extends BaseSearchParamExtractor implements ISearchParamExtractor {
@@ -98,6 +97,9 @@ public class SearchParamExtractorDstu3 extends BaseSearchParamExtractor implemen
 
 	@Autowired
 	private org.hl7.fhir.dstu3.hapi.validation.IValidationSupport myValidationSupport;
+
+	private volatile FHIRPathEngine myFhirPathEngine;
+	private final ConcurrentHashMap<String, List<ExpressionNode>> myParsedPaths = new ConcurrentHashMap<String, List<ExpressionNode>>();
 	
 	/**
 	 * Constructor
@@ -139,233 +141,185 @@ public class SearchParamExtractorDstu3 extends BaseSearchParamExtractor implemen
 		return Collections.emptySet();
 	}
 
-	/*
-	 * (non-Javadoc)
-	 * 
-	 * @see ca.uhn.fhir.jpa.dao.ISearchParamExtractor#extractSearchParamDates(ca.uhn.fhir.jpa.entity.ResourceTable, ca.uhn.fhir.model.api.IBaseResource)
-	 */
 	@Override
-	public Set<ResourceIndexedSearchParamDate> extractSearchParamDates(ResourceTable theEntity, IBaseResource theResource) {
-		HashSet<ResourceIndexedSearchParamDate> retVal = new HashSet<ResourceIndexedSearchParamDate>();
+	protected void collectDates(ResourceTable theEntity, IBaseResource theResource, RuntimeSearchParam theSearchParam, List<Object> theValues, Set<ResourceIndexedSearchParamDate> theRetVal) {
+		String nextPath = theSearchParam.getPath();
+		if (isBlank(nextPath)) {
+			return;
+		}
 
-		Collection<RuntimeSearchParam> searchParams = getSearchParams(theResource);
-		for (RuntimeSearchParam nextSpDef : searchParams) {
-			if (nextSpDef.getParamType() != RestSearchParameterTypeEnum.DATE) {
-				continue;
-			}
+		boolean multiType = false;
+		if (nextPath.endsWith("[x]")) {
+			multiType = true;
+		}
 
-			String nextPath = nextSpDef.getPath();
-			if (isBlank(nextPath)) {
+		for (Object nextObject : theValues) {
+			if (nextObject == null) {
 				continue;
 			}
 
-			boolean multiType = false;
-			if (nextPath.endsWith("[x]")) {
-				multiType = true;
-			}
-
-			for (Object nextObject : extractValues(nextPath, theResource)) {
-				if (nextObject == null) {
+			ResourceIndexedSearchParamDate nextEntity;
+			if (nextObject instanceof BaseDateTimeType) {
+				BaseDateTimeType nextValue = (BaseDateTimeType) nextObject;
+				if (nextValue.isEmpty()) {
 					continue;
 				}
-
-				ResourceIndexedSearchParamDate nextEntity;
-				if (nextObject instanceof BaseDateTimeType) {
-					BaseDateTimeType nextValue = (BaseDateTimeType) nextObject;
-					if (nextValue.isEmpty()) {
-						continue;
-					}
-					nextEntity = new ResourceIndexedSearchParamDate(nextSpDef.getName(), nextValue.getValue(), nextValue.getValue());
-				} else if (nextObject instanceof Period) {
-					Period nextValue = (Period) nextObject;
-					if (nextValue.isEmpty()) {
-						continue;
-					}
-					nextEntity = new ResourceIndexedSearchParamDate(nextSpDef.getName(), nextValue.getStart(), nextValue.getEnd());
-				} else if (nextObject instanceof Timing) {
-					Timing nextValue = (Timing) nextObject;
-					if (nextValue.isEmpty()) {
-						continue;
-					}
-					TreeSet<Date> dates = new TreeSet<Date>();
-					for (DateTimeType nextEvent : nextValue.getEvent()) {
-						if (nextEvent.getValue() != null) {
-							dates.add(nextEvent.getValue());
-						}
-					}
-					if (dates.isEmpty()) {
-						continue;
-					}
-
-					nextEntity = new ResourceIndexedSearchParamDate(nextSpDef.getName(), dates.first(), dates.last());
-				} else if (nextObject instanceof StringType) {
-					// CarePlan.activitydate can be a string
+				nextEntity = new ResourceIndexedSearchParamDate(theSearchParam.getName(), nextValue.getValue(), nextValue.getValue());
+			} else if (nextObject instanceof Period) {
+				Period nextValue = (Period) nextObject;
+				if (nextValue.isEmpty()) {
 					continue;
-				} else {
-					if (!multiType) {
-						throw new ConfigurationException("Search param " + nextSpDef.getName() + " is of unexpected datatype: " + nextObject.getClass());
-					} else {
-						continue;
+				}
+				nextEntity = new ResourceIndexedSearchParamDate(theSearchParam.getName(), nextValue.getStart(), nextValue.getEnd());
+			} else if (nextObject instanceof Timing) {
+				Timing nextValue = (Timing) nextObject;
+				if (nextValue.isEmpty()) {
+					continue;
+				}
+				TreeSet<Date> dates = new TreeSet<Date>();
+				for (DateTimeType nextEvent : nextValue.getEvent()) {
+					if (nextEvent.getValue() != null) {
+						dates.add(nextEvent.getValue());
 					}
 				}
-				if (nextEntity != null) {
-					nextEntity.setResource(theEntity);
-					retVal.add(nextEntity);
+				if (dates.isEmpty()) {
+					continue;
+				}
+
+				nextEntity = new ResourceIndexedSearchParamDate(theSearchParam.getName(), dates.first(), dates.last());
+			} else if (nextObject instanceof StringType) {
+				// CarePlan.activitydate can be a string
+				continue;
+			} else {
+				if (!multiType) {
+					throw new ConfigurationException("Search param " + theSearchParam.getName() + " is of unexpected datatype: " + nextObject.getClass());
+				} else {
+					continue;
 				}
 			}
+			if (nextEntity != null) {
+				nextEntity.setResource(theEntity);
+				theRetVal.add(nextEntity);
+			}
 		}
-
-		return retVal;
 	}
 
-	/*
-	 * (non-Javadoc)
-	 * 
-	 * @see ca.uhn.fhir.jpa.dao.ISearchParamExtractor#extractSearchParamNumber(ca.uhn.fhir.jpa.entity.ResourceTable, ca.uhn.fhir.model.api.IBaseResource)
-	 */
 	@Override
-	public HashSet<ResourceIndexedSearchParamNumber> extractSearchParamNumber(ResourceTable theEntity, IBaseResource theResource) {
-		HashSet<ResourceIndexedSearchParamNumber> retVal = new HashSet<ResourceIndexedSearchParamNumber>();
+	protected void collectNumbers(ResourceTable theEntity, IBaseResource theResource, RuntimeSearchParam theSearchParam, List<Object> theValues, Set<ResourceIndexedSearchParamNumber> theRetVal) {
+		String nextPath = theSearchParam.getPath();
+		if (isBlank(nextPath)) {
+			return;
+		}
 
-		Collection<RuntimeSearchParam> searchParams = getSearchParams(theResource);
-		for (RuntimeSearchParam nextSpDef : searchParams) {
-			if (nextSpDef.getParamType() != RestSearchParameterTypeEnum.NUMBER) {
+		for (Object nextObject : theValues) {
+			if (nextObject == null || ((IBase) nextObject).isEmpty()) {
 				continue;
 			}
 
-			String nextPath = nextSpDef.getPath();
-			if (isBlank(nextPath)) {
-				continue;
+			String resourceName = theSearchParam.getName();
+			boolean multiType = false;
+			if (nextPath.endsWith("[x]")) {
+				multiType = true;
 			}
 
-			for (Object nextObject : extractValues(nextPath, theResource)) {
-				if (nextObject == null || ((IBase) nextObject).isEmpty()) {
+			if (nextObject instanceof Duration) {
+				Duration nextValue = (Duration) nextObject;
+				if (nextValue.getValueElement().isEmpty()) {
 					continue;
 				}
 
-				String resourceName = nextSpDef.getName();
-				boolean multiType = false;
-				if (nextPath.endsWith("[x]")) {
-					multiType = true;
-				}
-
-				if (nextObject instanceof Duration) {
-					Duration nextValue = (Duration) nextObject;
-					if (nextValue.getValueElement().isEmpty()) {
-						continue;
-					}
-
-					if (BaseHapiFhirDao.UCUM_NS.equals(nextValue.getSystem())) {
-						if (isNotBlank(nextValue.getCode())) {
-
-							Unit<? extends javax.measure.quantity.Quantity> unit = Unit.valueOf(nextValue.getCode());
-							javax.measure.converter.UnitConverter dayConverter = unit.getConverterTo(NonSI.DAY);
-							double dayValue = dayConverter.convert(nextValue.getValue().doubleValue());
-							Duration newValue = new Duration();
-							newValue.setSystem(BaseHapiFhirDao.UCUM_NS);
-							newValue.setCode(NonSI.DAY.toString());
-							newValue.setValue(dayValue);
-							nextValue = newValue;
-
-							/*
-							 * @SuppressWarnings("unchecked") PhysicsUnit<? extends org.unitsofmeasurement.quantity.Quantity<?>> unit = (PhysicsUnit<? extends org.unitsofmeasurement.quantity.Quantity<?>>)
-							 * UCUMFormat.getCaseInsensitiveInstance().parse(nextValue.getCode().getValue(), null); if (unit.isCompatible(UCUM.DAY)) {
-							 * 
-							 * @SuppressWarnings("unchecked") PhysicsUnit<org.unitsofmeasurement.quantity.Time> timeUnit = (PhysicsUnit<Time>) unit; UnitConverter conv = timeUnit.getConverterTo(UCUM.DAY);
-							 * double dayValue = conv.convert(nextValue.getValue().getValue().doubleValue()); Duration newValue = new Duration(); newValue.setSystem(UCUM_NS);
-							 * newValue.setCode(UCUM.DAY.getSymbol()); newValue.setValue(dayValue); nextValue=newValue; }
-							 */
-						}
+				if (BaseHapiFhirDao.UCUM_NS.equals(nextValue.getSystem())) {
+					if (isNotBlank(nextValue.getCode())) {
+
+						Unit<? extends javax.measure.quantity.Quantity> unit = Unit.valueOf(nextValue.getCode());
+						javax.measure.converter.UnitConverter dayConverter = unit.getConverterTo(NonSI.DAY);
+						double dayValue = dayConverter.convert(nextValue.getValue().doubleValue());
+						Duration newValue = new Duration();
+						newValue.setSystem(BaseHapiFhirDao.UCUM_NS);
+						newValue.setCode(NonSI.DAY.toString());
+						newValue.setValue(dayValue);
+						nextValue = newValue;
+
+						/*
+						 * @SuppressWarnings("unchecked") PhysicsUnit<? extends org.unitsofmeasurement.quantity.Quantity<?>> unit = (PhysicsUnit<? extends org.unitsofmeasurement.quantity.Quantity<?>>)
+						 * UCUMFormat.getCaseInsensitiveInstance().parse(nextValue.getCode().getValue(), null); if (unit.isCompatible(UCUM.DAY)) {
+						 * 
+						 * @SuppressWarnings("unchecked") PhysicsUnit<org.unitsofmeasurement.quantity.Time> timeUnit = (PhysicsUnit<Time>) unit; UnitConverter conv = timeUnit.getConverterTo(UCUM.DAY);
+						 * double dayValue = conv.convert(nextValue.getValue().getValue().doubleValue()); Duration newValue = new Duration(); newValue.setSystem(UCUM_NS);
+						 * newValue.setCode(UCUM.DAY.getSymbol()); newValue.setValue(dayValue); nextValue=newValue; }
+						 */
 					}
+				}
 
-					ResourceIndexedSearchParamNumber nextEntity = new ResourceIndexedSearchParamNumber(resourceName, nextValue.getValue());
-					nextEntity.setResource(theEntity);
-					retVal.add(nextEntity);
-				} else if (nextObject instanceof Quantity) {
-					Quantity nextValue = (Quantity) nextObject;
-					if (nextValue.getValueElement().isEmpty()) {
-						continue;
-					}
+				ResourceIndexedSearchParamNumber nextEntity = new ResourceIndexedSearchParamNumber(resourceName, nextValue.getValue());
+				nextEntity.setResource(theEntity);
+				theRetVal.add(nextEntity);
+			} else if (nextObject instanceof Quantity) {
+				Quantity nextValue = (Quantity) nextObject;
+				if (nextValue.getValueElement().isEmpty()) {
+					continue;
+				}
 
-					ResourceIndexedSearchParamNumber nextEntity = new ResourceIndexedSearchParamNumber(resourceName, nextValue.getValue());
-					nextEntity.setResource(theEntity);
-					retVal.add(nextEntity);
-				} else if (nextObject instanceof IntegerType) {
-					IntegerType nextValue = (IntegerType) nextObject;
-					if (nextValue.getValue() == null) {
-						continue;
-					}
+				ResourceIndexedSearchParamNumber nextEntity = new ResourceIndexedSearchParamNumber(resourceName, nextValue.getValue());
+				nextEntity.setResource(theEntity);
+				theRetVal.add(nextEntity);
+			} else if (nextObject instanceof IntegerType) {
+				IntegerType nextValue = (IntegerType) nextObject;
+				if (nextValue.getValue() == null) {
+					continue;
+				}
 
-					ResourceIndexedSearchParamNumber nextEntity = new ResourceIndexedSearchParamNumber(resourceName, new BigDecimal(nextValue.getValue()));
-					nextEntity.setResource(theEntity);
-					retVal.add(nextEntity);
+				ResourceIndexedSearchParamNumber nextEntity = new ResourceIndexedSearchParamNumber(resourceName, new BigDecimal(nextValue.getValue()));
+				nextEntity.setResource(theEntity);
+				theRetVal.add(nextEntity);
+			} else {
+				if (!multiType) {
+					throw new ConfigurationException("Search param " + resourceName + " is of unexpected datatype: " + nextObject.getClass());
 				} else {
-					if (!multiType) {
-						throw new ConfigurationException("Search param " + resourceName + " is of unexpected datatype: " + nextObject.getClass());
-					} else {
-						continue;
-					}
+					continue;
 				}
 			}
 		}
-
-		return retVal;
 	}
 
-	/*
-	 * (non-Javadoc)
-	 * 
-	 * @see ca.uhn.fhir.jpa.dao.ISearchParamExtractor#extractSearchParamQuantity(ca.uhn.fhir.jpa.entity.ResourceTable, ca.uhn.fhir.model.api.IBaseResource)
-	 */
 	@Override
-	public Set<ResourceIndexedSearchParamQuantity> extractSearchParamQuantity(ResourceTable theEntity, IBaseResource theResource) {
-		HashSet<ResourceIndexedSearchParamQuantity> retVal = new HashSet<ResourceIndexedSearchParamQuantity>();
+	protected void collectQuantities(ResourceTable theEntity, IBaseResource theResource, RuntimeSearchParam theSearchParam, List<Object> theValues, Set<ResourceIndexedSearchParamQuantity> theRetVal) {
+		String nextPath = theSearchParam.getPath();
+		if (isBlank(nextPath)) {
+			return;
+		}
 
-		Collection<RuntimeSearchParam> searchParams = getSearchParams(theResource);
-		for (RuntimeSearchParam nextSpDef : searchParams) {
-			if (nextSpDef.getParamType() != RestSearchParameterTypeEnum.QUANTITY) {
+		for (Object nextObject : theValues) {
+			if (nextObject == null || ((IBase) nextObject).isEmpty()) {
 				continue;
 			}
 
-			String nextPath = nextSpDef.getPath();
-			if (isBlank(nextPath)) {
-				continue;
+			String resourceName = theSearchParam.getName();
+			boolean multiType = false;
+			if (nextPath.endsWith("[x]")) {
+				multiType = true;
 			}
 
-			for (Object nextObject : extractValues(nextPath, theResource)) {
-				if (nextObject == null || ((IBase) nextObject).isEmpty()) {
-					continue;
-				}
-
-				String resourceName = nextSpDef.getName();
-				boolean multiType = false;
-				if (nextPath.endsWith("[x]")) {
-					multiType = true;
-				}
-
-				if (nextObject instanceof Quantity) {
-					Quantity nextValue = (Quantity) nextObject;
-					addQuantity(theEntity, retVal, resourceName, nextValue);
-				} else if (nextObject instanceof Range) {
-					Range nextValue = (Range)nextObject;
-					addQuantity(theEntity, retVal, resourceName, nextValue.getLow());
-					addQuantity(theEntity, retVal, resourceName, nextValue.getHigh());
-				} else if (nextObject instanceof LocationPositionComponent) {
-					continue;
+			if (nextObject instanceof Quantity) {
+				Quantity nextValue = (Quantity) nextObject;
+				addQuantity(theEntity, theRetVal, resourceName, nextValue);
+			} else if (nextObject instanceof Range) {
+				Range nextValue = (Range)nextObject;
+				addQuantity(theEntity, theRetVal, resourceName, nextValue.getLow());
+				addQuantity(theEntity, theRetVal, resourceName, nextValue.getHigh());
+			} else if (nextObject instanceof LocationPositionComponent) {
+				continue;
+			} else {
+				if (!multiType) {
+					throw new ConfigurationException("Search param " + resourceName + " is of unexpected datatype: " + nextObject.getClass());
 				} else {
-					if (!multiType) {
-						throw new ConfigurationException("Search param " + resourceName + " is of unexpected datatype: " + nextObject.getClass());
-					} else {
-						continue;
-					}
+					continue;
 				}
 			}
 		}
-
-		return retVal;
 	}
 
-	private void addQuantity(ResourceTable theEntity, HashSet<ResourceIndexedSearchParamQuantity> retVal, String resourceName, Quantity nextValue) {
+	private void addQuantity(ResourceTable theEntity, Set<ResourceIndexedSearchParamQuantity> retVal, String resourceName, Quantity nextValue) {
 		if (!nextValue.getValueElement().isEmpty()) {
 			BigDecimal nextValueValue = nextValue.getValueElement().getValue();
 			String nextValueString = nextValue.getSystemElement().getValueAsString();
@@ -376,322 +330,276 @@ public class SearchParamExtractorDstu3 extends BaseSearchParamExtractor implemen
 		}
 	}
 
-	/*
-	 * (non-Javadoc)
-	 * 
-	 * @see ca.uhn.fhir.jpa.dao.ISearchParamExtractor#extractSearchParamStrings(ca.uhn.fhir.jpa.entity.ResourceTable, ca.uhn.fhir.model.api.IBaseResource)
-	 */
 	@Override
-	public Set<ResourceIndexedSearchParamString> extractSearchParamStrings(ResourceTable theEntity, IBaseResource theResource) {
-		HashSet<ResourceIndexedSearchParamString> retVal = new HashSet<ResourceIndexedSearchParamString>();
+	protected void collectStrings(ResourceTable theEntity, IBaseResource theResource, RuntimeSearchParam theSearchParam, List<Object> theValues, Set<ResourceIndexedSearchParamString> theRetVal) {
+		String nextPath = theSearchParam.getPath();
+		String nextSpName = theSearchParam.getName();
 
-		String resourceName = getContext().getResourceDefinition(theResource).getName();
-
-		Collection<RuntimeSearchParam> searchParams = getSearchParams(theResource);
-		for (RuntimeSearchParam nextSpDef : searchParams) {
-			if (nextSpDef.getParamType() != RestSearchParameterTypeEnum.STRING) {
-				continue;
-			}
-
-			String nextPath = nextSpDef.getPath();
-			String nextSpName = nextSpDef.getName();
-
-			if (isBlank(nextPath)) {
+		if (isBlank(nextPath)) {
 
 //				// TODO: implement phonetic, and any others that have no path
 //
 //				// TODO: do we still need this check?
-//				if ("Questionnaire".equals(nextSpName) && nextSpDef.getName().equals("title")) {
+//				if ("Questionnaire".equals(nextSpName) && theSearchParam.getName().equals("title")) {
 //					Questionnaire q = (Questionnaire) theResource;
 //					String title = "";// q.getGroup().getTitle();
-//					addSearchTerm(theEntity, retVal, nextSpName, title);
+//					addSearchTerm(theEntity, theRetVal, nextSpName, title);
 //				}
-				
+			
+			return;
+		}
+
+		for (Object nextObject : theValues) {
+			if (nextObject == null || ((IBase) nextObject).isEmpty()) {
 				continue;
 			}
 
-			for (Object nextObject : extractValues(nextPath, theResource)) {
-				if (nextObject == null || ((IBase) nextObject).isEmpty()) {
-					continue;
-				}
-
-				boolean multiType = false;
-				if (nextPath.endsWith("[x]")) {
-					multiType = true;
-				}
+			boolean multiType = false;
+			if (nextPath.endsWith("[x]")) {
+				multiType = true;
+			}
 
-				if (nextObject instanceof IPrimitiveType<?>) {
-					IPrimitiveType<?> nextValue = (IPrimitiveType<?>) nextObject;
-					String searchTerm = nextValue.getValueAsString();
-					addSearchTerm(theEntity, retVal, nextSpName, searchTerm);
-				} else {
-					if (nextObject instanceof HumanName) {
-						ArrayList<StringType> allNames = new ArrayList<StringType>();
-						HumanName nextHumanName = (HumanName) nextObject;
-						if (isNotBlank(nextHumanName.getFamily())) {
-							allNames.add(nextHumanName.getFamilyElement());
-						}
-						allNames.addAll(nextHumanName.getGiven());
-						for (StringType nextName : allNames) {
-							addSearchTerm(theEntity, retVal, nextSpName, nextName.getValue());
-						}
-					} else if (nextObject instanceof Address) {
-						ArrayList<StringType> allNames = new ArrayList<StringType>();
-						Address nextAddress = (Address) nextObject;
-						allNames.addAll(nextAddress.getLine());
-						allNames.add(nextAddress.getCityElement());
-						allNames.add(nextAddress.getStateElement());
-						allNames.add(nextAddress.getCountryElement());
-						allNames.add(nextAddress.getPostalCodeElement());
-						for (StringType nextName : allNames) {
-							addSearchTerm(theEntity, retVal, nextSpName, nextName.getValue());
-						}
-					} else if (nextObject instanceof ContactPoint) {
-						ContactPoint nextContact = (ContactPoint) nextObject;
-						if (nextContact.getValueElement().isEmpty() == false) {
-							addSearchTerm(theEntity, retVal, nextSpName, nextContact.getValue());
-						}
-					} else if (nextObject instanceof Quantity) {
-						BigDecimal value = ((Quantity) nextObject).getValue();
+			if (nextObject instanceof IPrimitiveType<?>) {
+				IPrimitiveType<?> nextValue = (IPrimitiveType<?>) nextObject;
+				String searchTerm = nextValue.getValueAsString();
+				addSearchTerm(theEntity, theRetVal, nextSpName, searchTerm);
+			} else {
+				if (nextObject instanceof HumanName) {
+					ArrayList<StringType> allNames = new ArrayList<StringType>();
+					HumanName nextHumanName = (HumanName) nextObject;
+					if (isNotBlank(nextHumanName.getFamily())) {
+						allNames.add(nextHumanName.getFamilyElement());
+					}
+					allNames.addAll(nextHumanName.getGiven());
+					for (StringType nextName : allNames) {
+						addSearchTerm(theEntity, theRetVal, nextSpName, nextName.getValue());
+					}
+				} else if (nextObject instanceof Address) {
+					ArrayList<StringType> allNames = new ArrayList<StringType>();
+					Address nextAddress = (Address) nextObject;
+					allNames.addAll(nextAddress.getLine());
+					allNames.add(nextAddress.getCityElement());
+					allNames.add(nextAddress.getStateElement());
+					allNames.add(nextAddress.getCountryElement());
+					allNames.add(nextAddress.getPostalCodeElement());
+					for (StringType nextName : allNames) {
+						addSearchTerm(theEntity, theRetVal, nextSpName, nextName.getValue());
+					}
+				} else if (nextObject instanceof ContactPoint) {
+					ContactPoint nextContact = (ContactPoint) nextObject;
+					if (nextContact.getValueElement().isEmpty() == false) {
+						addSearchTerm(theEntity, theRetVal, nextSpName, nextContact.getValue());
+					}
+				} else if (nextObject instanceof Quantity) {
+					BigDecimal value = ((Quantity) nextObject).getValue();
+					if (value != null) {
+						addSearchTerm(theEntity, theRetVal, nextSpName, value.toPlainString());
+					}
+				} else if (nextObject instanceof Range) {
+					SimpleQuantity low = ((Range) nextObject).getLow();
+					if (low != null) {
+						BigDecimal value = low.getValue();
 						if (value != null) {
-							addSearchTerm(theEntity, retVal, nextSpName, value.toPlainString());
-						}
-					} else if (nextObject instanceof Range) {
-						SimpleQuantity low = ((Range) nextObject).getLow();
-						if (low != null) {
-							BigDecimal value = low.getValue();
-							if (value != null) {
-								addSearchTerm(theEntity, retVal, nextSpName, value.toPlainString());
-							}
-						}
-					} else {
-						if (!multiType) {
-							throw new ConfigurationException("Search param " + nextSpName + " is of unexpected datatype: " + nextObject.getClass());
+							addSearchTerm(theEntity, theRetVal, nextSpName, value.toPlainString());
 						}
 					}
+				} else {
+					if (!multiType) {
+						throw new ConfigurationException("Search param " + nextSpName + " is of unexpected datatype: " + nextObject.getClass());
+					}
 				}
 			}
 		}
-
-		return retVal;
 	}
 
-	/*
-	 * (non-Javadoc)
-	 * 
-	 * @see ca.uhn.fhir.jpa.dao.ISearchParamExtractor#extractSearchParamTokens(ca.uhn.fhir.jpa.entity.ResourceTable, ca.uhn.fhir.model.api.IBaseResource)
-	 */
 	@Override
-	public Set<BaseResourceIndexedSearchParam> extractSearchParamTokens(ResourceTable theEntity, IBaseResource theResource) {
-		HashSet<BaseResourceIndexedSearchParam> retVal = new HashSet<BaseResourceIndexedSearchParam>();
-
+	protected void collectTokens(ResourceTable theEntity, IBaseResource theResource, RuntimeSearchParam theSearchParam, List<Object> theValues, Set<BaseResourceIndexedSearchParam> theRetVal) {
 		String useSystem = null;
 		if (theResource instanceof CodeSystem) {
 			CodeSystem cs = (CodeSystem) theResource;
 			useSystem = cs.getUrl();
 		}
 
-		Collection<RuntimeSearchParam> searchParams = getSearchParams(theResource);
-		for (RuntimeSearchParam nextSpDef : searchParams) {
-			if (nextSpDef.getParamType() != RestSearchParameterTypeEnum.TOKEN) {
-				continue;
+		String nextPath = theSearchParam.getPath();
+		if (isBlank(nextPath)) {
+			return;
+		}
+
+		boolean multiType = false;
+		if (nextPath.endsWith("[x]")) {
+			multiType = true;
+		}
+
+		List<String> systems = new ArrayList<String>();
+		List<String> codes = new ArrayList<String>();
+
+		// String needContactPointSystem = null;
+		// if (nextPath.contains(".where(system='phone')")) {
+		// nextPath = nextPath.replace(".where(system='phone')", "");
+		// needContactPointSystem = "phone";
+		// }
+		// if (nextPath.contains(".where(system='email')")) {
+		// nextPath = nextPath.replace(".where(system='email')", "");
+		// needContactPointSystem = "email";
+		// }
+
+		for (Object nextObject : theValues) {
+			
+			if (nextObject instanceof Extension) {
+				Extension nextExtension = (Extension)nextObject;
+				nextObject  = nextExtension.getValue();
 			}
 
-			String nextPath = nextSpDef.getPath();
-			if (isBlank(nextPath)) {
+			if (nextObject == null) {
 				continue;
 			}
-
-			boolean multiType = false;
-			if (nextPath.endsWith("[x]")) {
-				multiType = true;
+			
+			// Patient:language
+			if (nextObject instanceof PatientCommunicationComponent) {
+				PatientCommunicationComponent nextValue = (PatientCommunicationComponent) nextObject;
+				nextObject = nextValue.getLanguage();
 			}
 
-			List<String> systems = new ArrayList<String>();
-			List<String> codes = new ArrayList<String>();
-
-			// String needContactPointSystem = null;
-			// if (nextPath.contains(".where(system='phone')")) {
-			// nextPath = nextPath.replace(".where(system='phone')", "");
-			// needContactPointSystem = "phone";
-			// }
-			// if (nextPath.contains(".where(system='email')")) {
-			// nextPath = nextPath.replace(".where(system='email')", "");
-			// needContactPointSystem = "email";
-			// }
-
-			for (Object nextObject : extractValues(nextPath, theResource)) {
-				
-				if (nextObject instanceof Extension) {
-					Extension nextExtension = (Extension)nextObject;
-					nextObject  = nextExtension.getValue();
-				}
-
-				if (nextObject == null) {
+			if (nextObject instanceof Identifier) {
+				Identifier nextValue = (Identifier) nextObject;
+				if (nextValue.isEmpty()) {
 					continue;
 				}
-				
-				// Patient:language
-				if (nextObject instanceof PatientCommunicationComponent) {
-					PatientCommunicationComponent nextValue = (PatientCommunicationComponent) nextObject;
-					nextObject = nextValue.getLanguage();
+				String system = StringUtils.defaultIfBlank(nextValue.getSystemElement().getValueAsString(), null);
+				String value = nextValue.getValueElement().getValue();
+				if (isNotBlank(value)) {
+					systems.add(system);
+					codes.add(value);
 				}
 
-				if (nextObject instanceof Identifier) {
-					Identifier nextValue = (Identifier) nextObject;
-					if (nextValue.isEmpty()) {
-						continue;
-					}
-					String system = StringUtils.defaultIfBlank(nextValue.getSystemElement().getValueAsString(), null);
-					String value = nextValue.getValueElement().getValue();
-					if (isNotBlank(value)) {
-						systems.add(system);
-						codes.add(value);
-					}
-
-					if (isNotBlank(nextValue.getType().getText())) {
-						addStringParam(theEntity, retVal, nextSpDef, nextValue.getType().getText());
-					}
-
-				} else if (nextObject instanceof ContactPoint) {
-					ContactPoint nextValue = (ContactPoint) nextObject;
-					if (nextValue.isEmpty()) {
-						continue;
-					}
-					systems.add(nextValue.getSystemElement().getValueAsString());
-					codes.add(nextValue.getValueElement().getValue());
-				} else if (nextObject instanceof Enumeration<?>) {
-					Enumeration<?> obj = (Enumeration<?>) nextObject;
-					String system = extractSystem(obj);
-					String code = obj.getValueAsString();
-					if (isNotBlank(code)) {
-						systems.add(system);
-						codes.add(code);
-					}
-				} else if (nextObject instanceof IPrimitiveType<?>) {
-					IPrimitiveType<?> nextValue = (IPrimitiveType<?>) nextObject;
-					if (nextValue.isEmpty()) {
-						continue;
-					}
-					if ("CodeSystem.concept.code".equals(nextPath)) {
-						systems.add(useSystem);
-					} else {
-						systems.add(null);
-					}
-					codes.add(nextValue.getValueAsString());
-				} else if (nextObject instanceof Coding) {
-					Coding nextValue = (Coding) nextObject;
-					extractTokensFromCoding(systems, codes, theEntity, retVal, nextSpDef, nextValue);
-				} else if (nextObject instanceof CodeableConcept) {
-					CodeableConcept nextCC = (CodeableConcept) nextObject;
-					if (!nextCC.getTextElement().isEmpty()) {
-						addStringParam(theEntity, retVal, nextSpDef, nextCC.getTextElement().getValue());
-					}
+				if (isNotBlank(nextValue.getType().getText())) {
+					addStringParam(theEntity, theRetVal, theSearchParam, nextValue.getType().getText());
+				}
 
-					extractTokensFromCodeableConcept(systems, codes, nextCC, theEntity, retVal, nextSpDef);
-				} else if (nextObject instanceof ConformanceRestSecurityComponent) {
-					// Conformance.security search param points to something kind of useless right now - This should probably
-					// be fixed.
-					ConformanceRestSecurityComponent sec = (ConformanceRestSecurityComponent) nextObject;
-					for (CodeableConcept nextCC : sec.getService()) {
-						extractTokensFromCodeableConcept(systems, codes, nextCC, theEntity, retVal, nextSpDef);
-					}
-				} else if (nextObject instanceof LocationPositionComponent) {
-					ourLog.warn("Position search not currently supported, not indexing location");
+			} else if (nextObject instanceof ContactPoint) {
+				ContactPoint nextValue = (ContactPoint) nextObject;
+				if (nextValue.isEmpty()) {
 					continue;
-				} else {
-					if (!multiType) {
-						throw new ConfigurationException("Search param " + nextSpDef.getName() + " is of unexpected datatype: " + nextObject.getClass());
-					} else {
-						continue;
-					}
 				}
-			}
-
-			assert systems.size() == codes.size() : "Systems contains " + systems + ", codes contains: " + codes;
-
-			Set<Pair<String, String>> haveValues = new HashSet<Pair<String, String>>();
-			for (int i = 0; i < systems.size(); i++) {
-				String system = systems.get(i);
-				String code = codes.get(i);
-				if (isBlank(system) && isBlank(code)) {
+				systems.add(nextValue.getSystemElement().getValueAsString());
+				codes.add(nextValue.getValueElement().getValue());
+			} else if (nextObject instanceof Enumeration<?>) {
+				Enumeration<?> obj = (Enumeration<?>) nextObject;
+				String system = extractSystem(obj);
+				String code = obj.getValueAsString();
+				if (isNotBlank(code)) {
+					systems.add(system);
+					codes.add(code);
+				}
+			} else if (nextObject instanceof IPrimitiveType<?>) {
+				IPrimitiveType<?> nextValue = (IPrimitiveType<?>) nextObject;
+				if (nextValue.isEmpty()) {
 					continue;
 				}
-
-				if (system != null && system.length() > ResourceIndexedSearchParamToken.MAX_LENGTH) {
-					system = system.substring(0, ResourceIndexedSearchParamToken.MAX_LENGTH);
+				if ("CodeSystem.concept.code".equals(nextPath)) {
+					systems.add(useSystem);
+				} else {
+					systems.add(null);
 				}
-				if (code != null && code.length() > ResourceIndexedSearchParamToken.MAX_LENGTH) {
-					code = code.substring(0, ResourceIndexedSearchParamToken.MAX_LENGTH);
+				codes.add(nextValue.getValueAsString());
+			} else if (nextObject instanceof Coding) {
+				Coding nextValue = (Coding) nextObject;
+				extractTokensFromCoding(systems, codes, theEntity, theRetVal, theSearchParam, nextValue);
+			} else if (nextObject instanceof CodeableConcept) {
+				CodeableConcept nextCC = (CodeableConcept) nextObject;
+				if (!nextCC.getTextElement().isEmpty()) {
+					addStringParam(theEntity, theRetVal, theSearchParam, nextCC.getTextElement().getValue());
 				}
 
-				Pair<String, String> nextPair = Pair.of(system, code);
-				if (haveValues.contains(nextPair)) {
+				extractTokensFromCodeableConcept(systems, codes, nextCC, theEntity, theRetVal, theSearchParam);
+			} else if (nextObject instanceof ConformanceRestSecurityComponent) {
+				// Conformance.security search param points to something kind of useless right now - This should probably
+				// be fixed.
+				ConformanceRestSecurityComponent sec = (ConformanceRestSecurityComponent) nextObject;
+				for (CodeableConcept nextCC : sec.getService()) {
+					extractTokensFromCodeableConcept(systems, codes, nextCC, theEntity, theRetVal, theSearchParam);
+				}
+			} else if (nextObject instanceof LocationPositionComponent) {
+				ourLog.warn("Position search not currently supported, not indexing location");
+				continue;
+			} else {
+				if (!multiType) {
+					throw new ConfigurationException("Search param " + theSearchParam.getName() + " is of unexpected datatype: " + nextObject.getClass());
+				} else {
 					continue;
 				}
-				haveValues.add(nextPair);
+			}
+		}
 
-				ResourceIndexedSearchParamToken nextEntity;
-				nextEntity = new ResourceIndexedSearchParamToken(nextSpDef.getName(), system, code);
-				nextEntity.setResource(theEntity);
-				retVal.add(nextEntity);
+		assert systems.size() == codes.size() : "Systems contains " + systems + ", codes contains: " + codes;
 
+		Set<Pair<String, String>> haveValues = new HashSet<Pair<String, String>>();
+		for (int i = 0; i < systems.size(); i++) {
+			String system = systems.get(i);
+			String code = codes.get(i);
+			if (isBlank(system) && isBlank(code)) {
+				continue;
 			}
 
-		}
+			if (system != null && system.length() > ResourceIndexedSearchParamToken.MAX_LENGTH) {
+				system = system.substring(0, ResourceIndexedSearchParamToken.MAX_LENGTH);
+			}
+			if (code != null && code.length() > ResourceIndexedSearchParamToken.MAX_LENGTH) {
+				code = code.substring(0, ResourceIndexedSearchParamToken.MAX_LENGTH);
+			}
 
-		return retVal;
+			Pair<String, String> nextPair = Pair.of(system, code);
+			if (haveValues.contains(nextPair)) {
+				continue;
+			}
+			haveValues.add(nextPair);
+
+			ResourceIndexedSearchParamToken nextEntity;
+			nextEntity = new ResourceIndexedSearchParamToken(theSearchParam.getName(), system, code);
+			nextEntity.setResource(theEntity);
+			theRetVal.add(nextEntity);
+
+		}
 	}
 
 	@Override
-	public Set<ResourceIndexedSearchParamUri> extractSearchParamUri(ResourceTable theEntity, IBaseResource theResource) {
-		HashSet<ResourceIndexedSearchParamUri> retVal = new HashSet<ResourceIndexedSearchParamUri>();
+	protected void collectUris(ResourceTable theEntity, IBaseResource theResource, RuntimeSearchParam theSearchParam, List<Object> theValues, Set<ResourceIndexedSearchParamUri> theRetVal) {
+		String nextPath = theSearchParam.getPath();
+		if (isBlank(nextPath)) {
+			return;
+		}
 
-		Collection<RuntimeSearchParam> searchParams = getSearchParams(theResource);
-		for (RuntimeSearchParam nextSpDef : searchParams) {
-			if (nextSpDef.getParamType() != RestSearchParameterTypeEnum.URI) {
+		for (Object nextObject : theValues) {
+			if (nextObject == null || ((IBase) nextObject).isEmpty()) {
 				continue;
 			}
 
-			String nextPath = nextSpDef.getPath();
-			if (isBlank(nextPath)) {
-				continue;
+			String resourceName = theSearchParam.getName();
+			boolean multiType = false;
+			if (nextPath.endsWith("[x]")) {
+				multiType = true;
 			}
 
-			for (Object nextObject : extractValues(nextPath, theResource)) {
-				if (nextObject == null || ((IBase) nextObject).isEmpty()) {
+			if (nextObject instanceof UriType) {
+				UriType nextValue = (UriType) nextObject;
+				if (isBlank(nextValue.getValue())) {
 					continue;
 				}
 
-				String resourceName = nextSpDef.getName();
-				boolean multiType = false;
-				if (nextPath.endsWith("[x]")) {
-					multiType = true;
-				}
+				ourLog.trace("Adding param: {}, {}", resourceName, nextValue.getValue());
 
-				if (nextObject instanceof UriType) {
-					UriType nextValue = (UriType) nextObject;
-					if (isBlank(nextValue.getValue())) {
-						continue;
-					}
-
-					ourLog.trace("Adding param: {}, {}", resourceName, nextValue.getValue());
+				ResourceIndexedSearchParamUri nextEntity = new ResourceIndexedSearchParamUri(resourceName, nextValue.getValue());
 
-					ResourceIndexedSearchParamUri nextEntity = new ResourceIndexedSearchParamUri(resourceName, nextValue.getValue());
-
-					nextEntity.setResource(theEntity);
-					retVal.add(nextEntity);
+				nextEntity.setResource(theEntity);
+				theRetVal.add(nextEntity);
+			} else {
+				if (!multiType) {
+					throw new ConfigurationException("Search param " + resourceName + " is of unexpected datatype: " + nextObject.getClass());
 				} else {
-					if (!multiType) {
-						throw new ConfigurationException("Search param " + resourceName + " is of unexpected datatype: " + nextObject.getClass());
-					} else {
-						continue;
-					}
+					continue;
 				}
 			}
 		}
-
-		return retVal;
 	}
 
 	private void extractTokensFromCodeableConcept(List<String> theSystems, List<String> theCodes, CodeableConcept theCodeableConcept, ResourceTable theEntity,
@@ -723,14 +631,12 @@ public class SearchParamExtractorDstu3 extends BaseSearchParamExtractor implemen
 	 * Override parent because we're using FHIRPath here
 	 */
 	@Override
-	protected List<Object> extractValues(String thePaths, IBaseResource theResource) {
-		IWorkerContext worker = new org.hl7.fhir.dstu3.hapi.validation.HapiWorkerContext(getContext(), myValidationSupport);
-		FHIRPathEngine fp = new FHIRPathEngine(worker);
+	protected List<Object> doExtractValues(String thePaths, IBaseResource theResource) {
+		FHIRPathEngine fp = getFhirPathEngine();
 
 		List<Object> values = new ArrayList<Object>();
 		try {
-			String[] nextPathsSplit = SPLIT.split(thePaths);
-			for (String nextPath : nextPathsSplit) {
+			for (ExpressionNode nextPath : getParsedPaths(fp, thePaths)) {
 				List<Base> allValues = fp.evaluate((Base) theResource, nextPath);
 				if (allValues.isEmpty() == false) {
 					values.addAll(allValues);
@@ -742,26 +648,53 @@ public class SearchParamExtractorDstu3 extends BaseSearchParamExtractor implemen
 		return values;
 	}
 
-	@Override
-	public List<PathAndRef> extractResourceLinks(IBaseResource theResource, RuntimeSearchParam theNextSpDef) {
-		ArrayList<PathAndRef> retVal = new ArrayList<PathAndRef>();
-
-		String[] nextPathsSplit = SPLIT.split(theNextSpDef.getPath());
-		for (String path : nextPathsSplit) {
-			path = path.trim();
-			if (isNotBlank(path)) {
-				for (Object next : extractValues(path, theResource)) {
-					retVal.add(new PathAndRef(path, next));
+	/**
+	 * The engine is expensive to create (it indexes every structure definition known to the
+	 * worker context) but holds no per-evaluation state that we use, so a single instance
+	 * is shared by all indexing threads.
+	 */
+	private FHIRPathEngine getFhirPathEngine() {
+		FHIRPathEngine retVal = myFhirPathEngine;
+		if (retVal == null) {
+			synchronized (this) {
+				retVal = myFhirPathEngine;
+				if (retVal == null) {
+					IWorkerContext worker = new org.hl7.fhir.dstu3.hapi.validation.HapiWorkerContext(getContext(), myValidationSupport);
+					retVal = new FHIRPathEngine(worker);
+					myFhirPathEngine = retVal;
 				}
 			}
 		}
+		return retVal;
+	}
 
+	/**
+	 * Returns the compiled expressions for a (possibly "|" separated) search parameter path,
+	 * parsing and caching them on first use
+	 */
+	private List<ExpressionNode> getParsedPaths(FHIRPathEngine theEngine, String thePaths) throws FHIRException {
+		List<ExpressionNode> retVal = myParsedPaths.get(thePaths);
+		if (retVal == null) {
+			String[] nextPathsSplit = SPLIT.split(thePaths);
+			retVal = new ArrayList<ExpressionNode>(nextPathsSplit.length);
+			for (String nextPath : nextPathsSplit) {
+				retVal.add(theEngine.parse(nextPath));
+			}
+			retVal = Collections.unmodifiableList(retVal);
+			myParsedPaths.putIfAbsent(thePaths, retVal);
+		}
 		return retVal;
 	}
 
+	@VisibleForTesting
+	int getParsedPathCountForUnitTest() {
+		return myParsedPaths.size();
+	}
+
 	@VisibleForTesting
 	void setValidationSupportForTesting(org.hl7.fhir.dstu3.hapi.validation.IValidationSupport theValidationSupport) {
 		myValidationSupport = theValidationSupport;
+		myFhirPathEngine = null;
 	}
 
 	private static <T extends Enum<?>> String extractSystem(Enumeration<T> theBoundCode) {
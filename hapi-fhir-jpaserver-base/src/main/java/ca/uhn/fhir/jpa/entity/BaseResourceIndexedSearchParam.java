@@ -21,6 +21,10 @@ package ca.uhn.fhir.jpa.entity;
  */
 
 import java.io.Serializable;
+import java.math.BigDecimal;
+import java.util.ArrayList;
+import java.util.Date;
+import java.util.List;
 
 import javax.persistence.Column;
 import javax.persistence.GeneratedValue;
@@ -29,6 +33,7 @@ import javax.persistence.Id;
 import javax.persistence.JoinColumn;
 import javax.persistence.ManyToOne;
 import javax.persistence.MappedSuperclass;
+import javax.persistence.Transient;
 
 import org.hibernate.search.annotations.ContainedIn;
 import org.hibernate.search.annotations.Field;
@@ -56,8 +61,44 @@ public abstract class BaseResourceIndexedSearchParam implements Serializable {
 	@Column(name = "RES_TYPE", nullable = false)
 	private String myResourceType;
 
+	@Transient
+	private transient Long myHashIdentity;
+
+	/**
+	 * Subclasses should add the values which identify this index row within its resource. Values
+	 * must be normalized so that a row loaded from the database produces the same values as a
+	 * freshly extracted row with the same contents (e.g. dates should be added as milliseconds).
+	 */
+	protected abstract void addIdentityValues(List<Object> theValues);
+
+	/**
+	 * Returns a hash of the parameter name and the values which identify this index row within
+	 * its resource. The owning resource is not part of the hash. The hash is calculated the first
+	 * time it is requested and then kept, so this should not be called until the row is fully
+	 * populated.
+	 */
+	public long getHashIdentity() {
+		Long retVal = myHashIdentity;
+		if (retVal == null) {
+			long hash = 17;
+			for (Object next : getIdentityValues()) {
+				hash = hash * 31 + (next != null ? next.hashCode() : 0);
+			}
+			retVal = hash;
+			myHashIdentity = retVal;
+		}
+		return retVal;
+	}
+
 	protected abstract Long getId();
 
+	private List<Object> getIdentityValues() {
+		List<Object> retVal = new ArrayList<Object>();
+		retVal.add(getParamName());
+		addIdentityValues(retVal);
+		return retVal;
+	}
+
 	public String getParamName() {
 		return myParamName;
 	}
@@ -74,6 +115,21 @@ public abstract class BaseResourceIndexedSearchParam implements Serializable {
 		return myResourceType;
 	}
 
+	/**
+	 * Returns <code>true</code> if the given row indexes the same parameter with the same values as
+	 * this one. Unlike {@link #equals(Object)} the owning resource is not compared, and values are
+	 * compared in their normalized form.
+	 */
+	public boolean isIdentityEqual(BaseResourceIndexedSearchParam theOther) {
+		if (theOther == null || theOther.getClass() != getClass()) {
+			return false;
+		}
+		if (theOther.getHashIdentity() != getHashIdentity()) {
+			return false;
+		}
+		return getIdentityValues().equals(theOther.getIdentityValues());
+	}
+
 	public void setParamName(String theName) {
 		myParamName = theName;
 	}
@@ -83,4 +139,21 @@ public abstract class BaseResourceIndexedSearchParam implements Serializable {
 		myResourceType = theResource.getResourceType();
 	}
 
+	protected static Object normalizeForIdentity(BigDecimal theValue) {
+		if (theValue == null) {
+			return null;
+		}
+		if (theValue.signum() == 0) {
+			return BigDecimal.ZERO;
+		}
+		return theValue.stripTrailingZeros();
+	}
+
+	protected static Object normalizeForIdentity(Date theValue) {
+		if (theValue == null) {
+			return null;
+		}
+		return theValue.getTime();
+	}
+
 }
@@ -0,0 +1,82 @@
+package ca.uhn.fhir.jpa.entity;
+
+/*
+ * #%L
+ * HAPI FHIR JPA Server
+ * %%
+ * Copyright (C) 2014 - 2017 University Health Network
+ * %%
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * #L%
+ */
+
+import java.io.Serializable;
+import java.util.Date;
+
+import javax.persistence.Column;
+import javax.persistence.Entity;
+import javax.persistence.Id;
+import javax.persistence.Lob;
+import javax.persistence.Table;
+import javax.persistence.Temporal;
+import javax.persistence.TemporalType;
+
+/**
+ * The description of the structure definitions which were used to write resources
+ * using the {@link ResourceEncodingEnum#BJSON BJSON} encoding, so that they can still
+ * be read after the structures have been upgraded
+ *
+ * @see ca.uhn.fhir.jpa.util.BinaryResourceCodec#getSchema()
+ */
+@Entity
+@Table(name = "HFJ_BINARY_SCHEMA")
+public class BinaryResourceSchema implements Serializable {
+	private static final long serialVersionUID = 1L;
+
+	@Temporal(TemporalType.TIMESTAMP)
+	@Column(name = "CREATED", nullable = false, updatable = false)
+	private Date myCreated;
+
+	@Id
+	@Column(name = "FINGERPRINT")
+	private Integer myFingerprint;
+
+	@Column(name = "SCHEMA_BYTES", length = Integer.MAX_VALUE - 1, nullable = false, updatable = false)
+	@Lob()
+	private byte[] mySchema;
+
+	public Date getCreated() {
+		return myCreated;
+	}
+
+	public Integer getFingerprint() {
+		return myFingerprint;
+	}
+
+	public byte[] getSchema() {
+		return mySchema;
+	}
+
+	public void setCreated(Date theCreated) {
+		myCreated = theCreated;
+	}
+
+	public void setFingerprint(Integer theFingerprint) {
+		myFingerprint = theFingerprint;
+	}
+
+	public void setSchema(byte[] theSchema) {
+		mySchema = theSchema;
+	}
+
+}
@@ -21,15 +21,45 @@ package ca.uhn.fhir.jpa.entity;
  */
 
 import ca.uhn.fhir.context.FhirContext;
+import ca.uhn.fhir.jpa.util.compress.DeflateDictionaryCompressionCodec;
+import ca.uhn.fhir.jpa.util.compress.GZipCompressionCodec;
+import ca.uhn.fhir.jpa.util.compress.IResourceCompressionCodec;
+import ca.uhn.fhir.jpa.util.compress.SnappyCompressionCodec;
 import ca.uhn.fhir.parser.IParser;
 
 public enum ResourceEncodingEnum {
 
 	/** Json */
-	JSON,
+	JSON(null),
 	
 	/** Json Compressed */
-	JSONC;
+	JSONC(new GZipCompressionCodec()),
+
+	/**
+	 * Binary encoding driven by the structure definitions (see {@link ca.uhn.fhir.jpa.util.BinaryResourceCodec}), smaller than {@link #JSONC}.
+	 * See {@link ca.uhn.fhir.jpa.dao.DaoConfig#setResourceEncoding(ResourceEncodingEnum)} for how upgrades of the structures are handled.
+	 */
+	BJSON(null),
+
+	/** Json compressed using Snappy (faster than {@link #JSONC}, but larger) */
+	JSONS(new SnappyCompressionCodec()),
+
+	/** Json compressed using deflate with a dictionary of common FHIR strings (smaller than {@link #JSONC} for small resources) */
+	JSOND(new DeflateDictionaryCompressionCodec());
+
+	private final IResourceCompressionCodec myCompressionCodec;
+
+	private ResourceEncodingEnum(IResourceCompressionCodec theCompressionCodec) {
+		myCompressionCodec = theCompressionCodec;
+	}
+
+	/**
+	 * Returns the codec used to compress the JSON text for this encoding, or <code>null</code>
+	 * if this encoding does not store compressed JSON text
+	 */
+	public IResourceCompressionCodec getCompressionCodec() {
+		return myCompressionCodec;
+	}
 
 	public IParser newParser(FhirContext theContext) {
 		return theContext.newJsonParser();
@@ -20,6 +20,8 @@ package ca.uhn.fhir.jpa.entity;
  * #L%
  */
 
+import java.util.List;
+
 import javax.persistence.Column;
 import javax.persistence.Embeddable;
 import javax.persistence.Entity;
@@ -73,6 +75,12 @@ public class ResourceIndexedSearchParamCoords extends BaseResourceIndexedSearchP
 		setLongitude(theLongitude);
 	}
 
+	@Override
+	protected void addIdentityValues(List<Object> theValues) {
+		theValues.add(getLatitude());
+		theValues.add(getLongitude());
+	}
+
 	@Override
 	public boolean equals(Object theObj) {
 		if (this == theObj) {
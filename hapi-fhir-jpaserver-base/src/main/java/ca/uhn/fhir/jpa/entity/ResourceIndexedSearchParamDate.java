@@ -21,6 +21,7 @@ package ca.uhn.fhir.jpa.entity;
  */
 
 import java.util.Date;
+import java.util.List;
 
 import javax.persistence.Column;
 import javax.persistence.Embeddable;
@@ -85,6 +86,12 @@ public class ResourceIndexedSearchParamDate extends BaseResourceIndexedSearchPar
 		setValueHigh(theHigh);
 	}
 
+	@Override
+	protected void addIdentityValues(List<Object> theValues) {
+		theValues.add(normalizeForIdentity(getValueLow()));
+		theValues.add(normalizeForIdentity(getValueHigh()));
+	}
+
 	@Override
 	public boolean equals(Object theObj) {
 		if (this == theObj) {
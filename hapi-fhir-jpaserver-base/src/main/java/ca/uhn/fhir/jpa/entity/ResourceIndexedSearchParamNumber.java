@@ -21,6 +21,7 @@ package ca.uhn.fhir.jpa.entity;
  */
 
 import java.math.BigDecimal;
+import java.util.List;
 
 import javax.persistence.Column;
 import javax.persistence.Embeddable;
@@ -74,6 +75,11 @@ public class ResourceIndexedSearchParamNumber extends BaseResourceIndexedSearchP
 		setValue(theValue);
 	}
 
+	@Override
+	protected void addIdentityValues(List<Object> theValues) {
+		theValues.add(normalizeForIdentity(getValue()));
+	}
+
 	@Override
 	public boolean equals(Object theObj) {
 		if (this == theObj) {
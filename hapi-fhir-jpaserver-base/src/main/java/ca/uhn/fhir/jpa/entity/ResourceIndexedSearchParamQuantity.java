@@ -21,6 +21,7 @@ package ca.uhn.fhir.jpa.entity;
  */
 
 import java.math.BigDecimal;
+import java.util.List;
 
 import javax.persistence.Column;
 import javax.persistence.Embeddable;
@@ -87,6 +88,13 @@ public class ResourceIndexedSearchParamQuantity extends BaseResourceIndexedSearc
 		setUnits(theUnits);
 	}
 
+	@Override
+	protected void addIdentityValues(List<Object> theValues) {
+		theValues.add(getSystem());
+		theValues.add(getUnits());
+		theValues.add(normalizeForIdentity(getValue()));
+	}
+
 	@Override
 	public boolean equals(Object theObj) {
 		if (this == theObj) {
@@ -20,6 +20,8 @@ package ca.uhn.fhir.jpa.entity;
  * #L%
  */
 
+import java.util.List;
+
 import javax.persistence.Column;
 import javax.persistence.Embeddable;
 import javax.persistence.Entity;
@@ -139,6 +141,11 @@ public class ResourceIndexedSearchParamString extends BaseResourceIndexedSearchP
 		setValueExact(theValueExact);
 	}
 
+	@Override
+	protected void addIdentityValues(List<Object> theValues) {
+		theValues.add(getValueExact());
+	}
+
 	@Override
 	public boolean equals(Object theObj) {
 		if (this == theObj) {
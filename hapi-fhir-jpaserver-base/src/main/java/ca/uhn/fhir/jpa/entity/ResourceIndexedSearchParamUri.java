@@ -20,6 +20,8 @@ package ca.uhn.fhir.jpa.entity;
  * #L%
  */
 
+import java.util.List;
+
 import javax.persistence.Column;
 import javax.persistence.Embeddable;
 import javax.persistence.Entity;
@@ -72,6 +74,11 @@ public class ResourceIndexedSearchParamUri extends BaseResourceIndexedSearchPara
 		setUri(theUri);
 	}
 
+	@Override
+	protected void addIdentityValues(List<Object> theValues) {
+		theValues.add(getUri());
+	}
+
 	@Override
 	public boolean equals(Object theObj) {
 		if (this == theObj) {
@@ -162,6 +162,19 @@ public class ResourceTable extends BaseHasResource implements Serializable {
 	@OneToMany(mappedBy = "myTargetResource", cascade = {}, fetch = FetchType.LAZY, orphanRemoval = false)
 	private Collection<ResourceLink> myIncomingResourceLinks;
 
+	/**
+	 * Counts of the index rows kept, added and removed by the most recent update of this
+	 * resource - Not stored in the DB
+	 */
+	@Transient()
+	private transient int myIndexRowsAdded;
+
+	@Transient()
+	private transient int myIndexRowsKept;
+
+	@Transient()
+	private transient int myIndexRowsRemoved;
+
 	@Column(name = "SP_INDEX_STATUS", nullable = true)
 	private Long myIndexStatus;
 
@@ -239,6 +252,12 @@ public class ResourceTable extends BaseHasResource implements Serializable {
 	@Column(name = "RES_VER")
 	private long myVersion;
 
+	public void addIndexRowChanges(int theKept, int theAdded, int theRemoved) {
+		myIndexRowsKept += theKept;
+		myIndexRowsAdded += theAdded;
+		myIndexRowsRemoved += theRemoved;
+	}
+
 	@Override
 	public ResourceTag addTag(TagDefinition theTag) {
 		ResourceTag tag = new ResourceTag(this, theTag);
@@ -246,6 +265,12 @@ public class ResourceTable extends BaseHasResource implements Serializable {
 		return tag;
 	}
 
+	public void clearIndexRowChanges() {
+		myIndexRowsKept = 0;
+		myIndexRowsAdded = 0;
+		myIndexRowsRemoved = 0;
+	}
+
 	@Override
 	public Long getId() {
 		return myId;
@@ -261,6 +286,30 @@ public class ResourceTable extends BaseHasResource implements Serializable {
 		}
 	}
 
+	/**
+	 * Returns the number of search parameter index and resource link rows which were inserted
+	 * by the most recent update of this resource
+	 */
+	public int getIndexRowsAdded() {
+		return myIndexRowsAdded;
+	}
+
+	/**
+	 * Returns the number of existing search parameter index and resource link rows which were left
+	 * unchanged by the most recent update of this resource
+	 */
+	public int getIndexRowsKept() {
+		return myIndexRowsKept;
+	}
+
+	/**
+	 * Returns the number of search parameter index and resource link rows which were deleted
+	 * by the most recent update of this resource
+	 */
+	public int getIndexRowsRemoved() {
+		return myIndexRowsRemoved;
+	}
+
 	public Long getIndexStatus() {
 		return myIndexStatus;
 	}
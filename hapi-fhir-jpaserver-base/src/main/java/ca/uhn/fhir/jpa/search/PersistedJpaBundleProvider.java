@@ -29,6 +29,7 @@ import javax.persistence.criteria.CriteriaQuery;
 import javax.persistence.criteria.Predicate;
 import javax.persistence.criteria.Root;
 
+import org.apache.commons.lang3.time.DateUtils;
 import org.hl7.fhir.instance.model.api.IBaseResource;
 import org.springframework.data.domain.Page;
 import org.springframework.data.domain.PageRequest;
@@ -44,10 +45,13 @@ import ca.uhn.fhir.jpa.dao.SearchBuilder;
 import ca.uhn.fhir.jpa.dao.data.ISearchDao;
 import ca.uhn.fhir.jpa.dao.data.ISearchResultDao;
 import ca.uhn.fhir.jpa.entity.*;
+import ca.uhn.fhir.jpa.util.LongHashSet;
 import ca.uhn.fhir.model.primitive.InstantDt;
-import ca.uhn.fhir.rest.server.IBundleProvider;
+import ca.uhn.fhir.rest.server.IPassThroughBundleProvider;
 
-public final class PersistedJpaBundleProvider implements IBundleProvider {
+public final class PersistedJpaBundleProvider implements IPassThroughBundleProvider {
+
+	private static final long STREAMING_WAIT_MILLIS = 60 * DateUtils.MILLIS_PER_SECOND;
 
 	private FhirContext myContext;
 	private IDao myDao;
@@ -56,6 +60,7 @@ public final class PersistedJpaBundleProvider implements IBundleProvider {
 	private ISearchDao mySearchDao;
 	private Search mySearchEntity;
 	private ISearchResultDao mySearchResultDao;
+	private StreamingSearchLoaderSvc myStreamingSearchLoaderSvc;
 	private String myUuid;
 
 	public PersistedJpaBundleProvider(String theSearchUuid, IDao theDao) {
@@ -112,24 +117,38 @@ public final class PersistedJpaBundleProvider implements IBundleProvider {
 		return retVal;
 	}
 
-	protected List<IBaseResource> doSearchOrEverythingInTransaction(final int theFromIndex, final int theToIndex) {
+	protected List<IBaseResource> doSearchOrEverythingInTransaction(final int theFromIndex, final int theToIndex, boolean theLazyBodies) {
 
 		Pageable page = toPage(theFromIndex, theToIndex);
 		if (page == null) {
 			return Collections.emptyList();
 		}
 
-		Page<SearchResult> search = mySearchResultDao.findWithSearchUuid(mySearchEntity, page);
-
-		List<Long> pidsSubList = new ArrayList<Long>();
-		for (SearchResult next : search) {
-			pidsSubList.add(next.getResourcePid());
+		List<Long> pidsSubList = loadPids(page);
+
+		/*
+		 * If this is a streaming search, the requested page may not have been
+		 * fully loaded yet by the background loader
+		 */
+		if (myStreamingSearchLoaderSvc != null) {
+			int expected = Math.min(theToIndex, mySearchEntity.getTotalCount()) - theFromIndex;
+			long deadline = System.currentTimeMillis() + STREAMING_WAIT_MILLIS;
+			while (pidsSubList.size() < expected && System.currentTimeMillis() < deadline) {
+				boolean loading = myStreamingSearchLoaderSvc.isLoading(myUuid);
+				if (loading) {
+					myStreamingSearchLoaderSvc.awaitProgress(100);
+				}
+				pidsSubList = loadPids(page);
+				if (!loading) {
+					break;
+				}
+			}
 		}
 
 		// Load includes
 		pidsSubList = new ArrayList<Long>(pidsSubList);
 
-		Set<Long> revIncludedPids = new HashSet<Long>();
+		LongHashSet revIncludedPids = new LongHashSet();
 		if (mySearchEntity.getSearchType() == SearchTypeEnum.SEARCH) {
 			revIncludedPids.addAll(SearchBuilder.loadReverseIncludes(myDao, myContext, myEntityManager, pidsSubList, mySearchEntity.toRevIncludesList(), true, mySearchEntity.getLastUpdated()));
 		}
@@ -137,11 +156,21 @@ public final class PersistedJpaBundleProvider implements IBundleProvider {
 
 		// Execute the query and make sure we return distinct results
 		List<IBaseResource> resources = new ArrayList<IBaseResource>();
-		SearchBuilder.loadResourcesByPid(pidsSubList, resources, revIncludedPids, false, myEntityManager, myContext, myDao);
+		SearchBuilder.loadResourcesByPid(pidsSubList, resources, revIncludedPids, false, myEntityManager, myContext, myDao, theLazyBodies);
 
 		return resources;
 	}
 
+	private List<Long> loadPids(Pageable thePage) {
+		Page<SearchResult> search = mySearchResultDao.findWithSearchUuid(mySearchEntity, thePage);
+
+		List<Long> retVal = new ArrayList<Long>();
+		for (SearchResult next : search) {
+			retVal.add(next.getResourcePid());
+		}
+		return retVal;
+	}
+
 	/**
 	 * Returns false if the entity can't be found
 	 */
@@ -188,6 +217,10 @@ public final class PersistedJpaBundleProvider implements IBundleProvider {
 
 	@Override
 	public List<IBaseResource> getResources(final int theFromIndex, final int theToIndex) {
+		return getResources(theFromIndex, theToIndex, false);
+	}
+
+	private List<IBaseResource> getResources(final int theFromIndex, final int theToIndex, final boolean theLazyBodies) {
 		ensureDependenciesInjected();
 
 		TransactionTemplate template = new TransactionTemplate(myPlatformTransactionManager);
@@ -203,13 +236,22 @@ public final class PersistedJpaBundleProvider implements IBundleProvider {
 				case SEARCH:
 				case EVERYTHING:
 				default:
-					return doSearchOrEverythingInTransaction(theFromIndex, theToIndex);
+					return doSearchOrEverythingInTransaction(theFromIndex, theToIndex, theLazyBodies);
 				}
 			}
 
 		});
 	}
 
+	/**
+	 * Search and $everything results are returned with unparsed bodies. History is always
+	 * parsed, since it includes deleted versions which have no body.
+	 */
+	@Override
+	public List<IBaseResource> getResourcesWithLazyBodies(int theFromIndex, int theToIndex) {
+		return getResources(theFromIndex, theToIndex, true);
+	}
+
 	public String getUuid() {
 		return myUuid;
 	}
@@ -240,6 +282,10 @@ public final class PersistedJpaBundleProvider implements IBundleProvider {
 		mySearchResultDao = theSearchResultDao;
 	}
 
+	public void setStreamingSearchLoaderSvc(StreamingSearchLoaderSvc theStreamingSearchLoaderSvc) {
+		myStreamingSearchLoaderSvc = theStreamingSearchLoaderSvc;
+	}
+
 	@Override
 	public int size() {
 		ensureSearchEntityLoaded();
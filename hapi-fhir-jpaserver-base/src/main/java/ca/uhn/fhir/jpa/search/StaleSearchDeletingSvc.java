@@ -20,27 +20,36 @@ package ca.uhn.fhir.jpa.search;
  * #L%
  */
 
-import java.util.Collection;
 import java.util.Date;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicLong;
 
 import org.apache.commons.lang3.time.DateUtils;
 import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.data.domain.PageRequest;
 import org.springframework.scheduling.annotation.Scheduled;
 import org.springframework.transaction.PlatformTransactionManager;
 import org.springframework.transaction.TransactionStatus;
 import org.springframework.transaction.annotation.Propagation;
 import org.springframework.transaction.annotation.Transactional;
-import org.springframework.transaction.support.TransactionCallbackWithoutResult;
+import org.springframework.transaction.support.TransactionCallback;
 import org.springframework.transaction.support.TransactionTemplate;
 
 import ca.uhn.fhir.jpa.dao.DaoConfig;
 import ca.uhn.fhir.jpa.dao.data.ISearchDao;
 import ca.uhn.fhir.jpa.dao.data.ISearchIncludeDao;
 import ca.uhn.fhir.jpa.dao.data.ISearchResultDao;
-import ca.uhn.fhir.jpa.entity.Search;
 
 /**
  * Deletes old searches
+ * <p>
+ * Expired searches are deleted oldest first, in chunks of
+ * {@link DaoConfig#getExpireSearchResultsBatchSize()} searches. The results and includes of
+ * each chunk are deleted in short transactions of at most
+ * {@link DaoConfig#getExpireSearchResultsRowBatchSize()} rows, followed by the searches
+ * themselves, so that the deletion never holds locks for long while searches are running,
+ * even when a chunk of searches has a very large number of results.
+ * </p>
  */
 public class StaleSearchDeletingSvc {
 	private static final org.slf4j.Logger ourLog = org.slf4j.LoggerFactory.getLogger(StaleSearchDeletingSvc.class);
@@ -60,6 +69,89 @@ public class StaleSearchDeletingSvc {
 	@Autowired
 	private PlatformTransactionManager myTransactionManager;
 
+	private final AtomicLong myExpiredSearchCount = new AtomicLong();
+	private final AtomicLong myExpiredSearchIncludeCount = new AtomicLong();
+	private final AtomicLong myExpiredSearchResultCount = new AtomicLong();
+
+	/**
+	 * Deletes the given searches along with their results and includes. The results and
+	 * includes are deleted first, in transactions of at most
+	 * {@link DaoConfig#getExpireSearchResultsRowBatchSize()} rows each, and the searches
+	 * are then deleted in one final transaction.
+	 * 
+	 * @return Returns the number of search result rows which were deleted
+	 */
+	protected int deleteSearches(final List<Long> theSearchPids) {
+		final int rowBatchSize = myDaoConfig.getExpireSearchResultsRowBatchSize();
+		TransactionTemplate tt = new TransactionTemplate(myTransactionManager);
+
+		int resultCount = 0;
+		while (true) {
+			int deleted = tt.execute(new TransactionCallback<Integer>() {
+				@Override
+				public Integer doInTransaction(TransactionStatus theStatus) {
+					List<Long> ids = mySearchResultDao.findIdsForSearches(theSearchPids, new PageRequest(0, rowBatchSize));
+					return ids.isEmpty() ? 0 : mySearchResultDao.deleteByIds(ids);
+				}
+			});
+			resultCount += deleted;
+			myExpiredSearchResultCount.addAndGet(deleted);
+			ourLog.debug("Deleted {} search results ({} so far for this chunk)", deleted, resultCount);
+			if (deleted < rowBatchSize) {
+				break;
+			}
+		}
+
+		while (true) {
+			int deleted = tt.execute(new TransactionCallback<Integer>() {
+				@Override
+				public Integer doInTransaction(TransactionStatus theStatus) {
+					List<Long> ids = mySearchIncludeDao.findIdsForSearches(theSearchPids, new PageRequest(0, rowBatchSize));
+					return ids.isEmpty() ? 0 : mySearchIncludeDao.deleteByIds(ids);
+				}
+			});
+			myExpiredSearchIncludeCount.addAndGet(deleted);
+			if (deleted < rowBatchSize) {
+				break;
+			}
+		}
+
+		// Rows added since the loops above finished (which should be none) are removed along with the searches
+		return resultCount + tt.execute(new TransactionCallback<Integer>() {
+			@Override
+			public Integer doInTransaction(TransactionStatus theStatus) {
+				int includes = mySearchIncludeDao.deleteForSearches(theSearchPids);
+				int results = mySearchResultDao.deleteForSearches(theSearchPids);
+				int searches = mySearchDao.deleteByIds(theSearchPids);
+				myExpiredSearchIncludeCount.addAndGet(includes);
+				myExpiredSearchResultCount.addAndGet(results);
+				myExpiredSearchCount.addAndGet(searches);
+				return results;
+			}
+		});
+	}
+
+	/**
+	 * Returns the total number of searches which have been expired since this service was started
+	 */
+	public long getExpiredSearchCount() {
+		return myExpiredSearchCount.get();
+	}
+
+	/**
+	 * Returns the total number of search include rows which have been expired since this service was started
+	 */
+	public long getExpiredSearchIncludeCount() {
+		return myExpiredSearchIncludeCount.get();
+	}
+
+	/**
+	 * Returns the total number of search result rows which have been expired since this service was started
+	 */
+	public long getExpiredSearchResultCount() {
+		return myExpiredSearchResultCount.get();
+	}
+
 	@Scheduled(fixedDelay = 10 * DateUtils.MILLIS_PER_SECOND)
 	@Transactional(propagation = Propagation.NOT_SUPPORTED)
 	public synchronized void pollForStaleSearches() {
@@ -67,31 +159,34 @@ public class StaleSearchDeletingSvc {
 			Date cutoff = new Date(System.currentTimeMillis() - myDaoConfig.getExpireSearchResultsAfterMillis());
 			ourLog.debug("Searching for searches which are before {}", cutoff);
 
-			Collection<Search> toDelete = mySearchDao.findWhereCreatedBefore(cutoff);
-			if (toDelete.isEmpty()) {
-				return;
+			int batchSize = myDaoConfig.getExpireSearchResultsBatchSize();
+			long start = System.currentTimeMillis();
+			int searches = 0;
+			long results = 0;
+			int chunks = 0;
+			while (true) {
+				List<Long> toDelete = mySearchDao.findIdsWhereCreatedBefore(cutoff, new PageRequest(0, batchSize));
+				if (toDelete.isEmpty()) {
+					break;
+				}
+
+				results += deleteSearches(toDelete);
+				searches += toDelete.size();
+				chunks++;
+				ourLog.debug("Expired chunk {} containing {} searches ({} searches / {} results so far)", new Object[] { chunks, toDelete.size(), searches, results });
+
+				if (toDelete.size() < batchSize) {
+					break;
+				}
 			}
 
-			for (final Search next : toDelete) {
-				deleteSearch(next);
+			if (searches == 0) {
+				return;
 			}
 
-			ourLog.info("Deleted {} searches, {} remaining", toDelete.size(), mySearchDao.count());
+			long delay = System.currentTimeMillis() - start;
+			ourLog.info("Deleted {} searches and {} search results in {} chunks in {}ms, {} remaining", new Object[] { searches, results, chunks, delay, mySearchDao.count() });
 		}
 	}
 
-	protected void deleteSearch(final Search next) {
-		TransactionTemplate tt = new TransactionTemplate(myTransactionManager);
-		tt.execute(new TransactionCallbackWithoutResult() {
-			@Override
-			protected void doInTransactionWithoutResult(TransactionStatus theArg0) {
-				Search searchToDelete = mySearchDao.findOne(next.getId());
-				ourLog.info("Expiring stale search {} / {}", searchToDelete.getId(), searchToDelete.getUuid());
-				mySearchIncludeDao.deleteForSearch(searchToDelete.getId());
-				mySearchResultDao.deleteForSearch(searchToDelete.getId());
-				mySearchDao.delete(searchToDelete);
-			}
-		});
-	}
-
 }
@@ -0,0 +1,239 @@
+package ca.uhn.fhir.jpa.search;
+
+/*
+ * #%L
+ * HAPI FHIR JPA Server
+ * %%
+ * Copyright (C) 2014 - 2017 University Health Network
+ * %%
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * #L%
+ */
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import javax.annotation.PostConstruct;
+import javax.annotation.PreDestroy;
+import javax.persistence.EntityManager;
+import javax.persistence.PersistenceContext;
+import javax.persistence.PersistenceContextType;
+import javax.persistence.TypedQuery;
+import javax.persistence.criteria.CriteriaQuery;
+
+import org.apache.commons.lang3.Validate;
+import org.hibernate.ScrollMode;
+import org.hibernate.ScrollableResults;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.transaction.PlatformTransactionManager;
+import org.springframework.transaction.TransactionDefinition;
+import org.springframework.transaction.TransactionStatus;
+import org.springframework.transaction.support.TransactionCallbackWithoutResult;
+import org.springframework.transaction.support.TransactionSynchronizationAdapter;
+import org.springframework.transaction.support.TransactionSynchronizationManager;
+import org.springframework.transaction.support.TransactionTemplate;
+
+import ca.uhn.fhir.jpa.dao.data.ISearchResultDao;
+import ca.uhn.fhir.jpa.entity.Search;
+import ca.uhn.fhir.jpa.entity.SearchResult;
+import ca.uhn.fhir.jpa.util.StopWatch;
+
+/**
+ * Loads the remaining results of a streaming search (see
+ * {@link ca.uhn.fhir.jpa.dao.DaoConfig#setStreamingSearchEnabled(boolean)}) into the
+ * search result table in a background thread, reading them from a database cursor
+ * instead of holding the complete set of matching IDs in memory.
+ */
+public class StreamingSearchLoaderSvc {
+	private static final int BATCH_SIZE = 1000;
+	private static final org.slf4j.Logger ourLog = org.slf4j.LoggerFactory.getLogger(StreamingSearchLoaderSvc.class);
+
+	@PersistenceContext(type = PersistenceContextType.TRANSACTION)
+	private EntityManager myEntityManager;
+
+	private ExecutorService myExecutor;
+
+	private final Set<String> myLoadingSearchUuids = Collections.newSetFromMap(new ConcurrentHashMap<String, Boolean>());
+
+	private final Object myProgressMonitor = new Object();
+
+	@Autowired
+	private ISearchResultDao mySearchResultDao;
+
+	private int myThreadCount = 2;
+
+	@Autowired
+	private PlatformTransactionManager myTransactionManager;
+
+	/**
+	 * Blocks for up to the given number of milliseconds, or until more results
+	 * have been stored for any search which is currently loading
+	 */
+	public void awaitProgress(long theMillis) {
+		synchronized (myProgressMonitor) {
+			try {
+				myProgressMonitor.wait(theMillis);
+			} catch (InterruptedException e) {
+				Thread.currentThread().interrupt();
+			}
+		}
+	}
+
+	/**
+	 * Returns <code>true</code> if results are still being loaded for the search with the given UUID
+	 */
+	public boolean isLoading(String theSearchUuid) {
+		return myLoadingSearchUuids.contains(theSearchUuid);
+	}
+
+	/**
+	 * Schedules the remaining results of a search to be loaded. The query should
+	 * select only the results which have not already been stored, and these will be
+	 * stored with <code>theFirstOrder</code> onwards as their order.
+	 * <p>
+	 * If a transaction is active, loading begins only once it has committed (since the
+	 * search entity is not visible to other transactions before then).
+	 * </p>
+	 */
+	public void loadRemainingResults(final Search theSearch, final CriteriaQuery<Long> theQuery, final int theFirstOrder) {
+		final String uuid = theSearch.getUuid();
+		final Long searchPid = theSearch.getId();
+		myLoadingSearchUuids.add(uuid);
+
+		final Runnable task = new Runnable() {
+			@Override
+			public void run() {
+				try {
+					doLoadRemainingResults(searchPid, uuid, theQuery, theFirstOrder);
+				} catch (RuntimeException e) {
+					ourLog.error("Failed to load results for search " + uuid, e);
+				} finally {
+					myLoadingSearchUuids.remove(uuid);
+					notifyProgress();
+				}
+			}
+		};
+
+		if (TransactionSynchronizationManager.isSynchronizationActive()) {
+			TransactionSynchronizationManager.registerSynchronization(new TransactionSynchronizationAdapter() {
+				@Override
+				public void afterCompletion(int theStatus) {
+					if (theStatus == STATUS_COMMITTED) {
+						myExecutor.submit(task);
+					} else {
+						myLoadingSearchUuids.remove(uuid);
+					}
+				}
+			});
+		} else {
+			myExecutor.submit(task);
+		}
+	}
+
+	private void doLoadRemainingResults(final Long theSearchPid, String theSearchUuid, final CriteriaQuery<Long> theQuery, final int theFirstOrder) {
+		StopWatch sw = new StopWatch();
+
+		TransactionTemplate readTemplate = new TransactionTemplate(myTransactionManager);
+		readTemplate.setReadOnly(true);
+
+		final TransactionTemplate writeTemplate = new TransactionTemplate(myTransactionManager);
+		writeTemplate.setPropagationBehavior(TransactionDefinition.PROPAGATION_REQUIRES_NEW);
+
+		final AtomicInteger count = new AtomicInteger();
+		readTemplate.execute(new TransactionCallbackWithoutResult() {
+			@Override
+			protected void doInTransactionWithoutResult(TransactionStatus theStatus) {
+				TypedQuery<Long> query = myEntityManager.createQuery(theQuery);
+
+				ScrollableResults scroll = query.unwrap(org.hibernate.query.Query.class).scroll(ScrollMode.FORWARD_ONLY);
+				try {
+					List<Long> batch = new ArrayList<Long>(BATCH_SIZE);
+					while (scroll.next()) {
+						batch.add(((Number) scroll.get(0)).longValue());
+						if (batch.size() >= BATCH_SIZE) {
+							storeBatch(writeTemplate, theSearchPid, theFirstOrder + count.get(), batch);
+							count.addAndGet(batch.size());
+							batch.clear();
+						}
+					}
+					if (batch.size() > 0) {
+						storeBatch(writeTemplate, theSearchPid, theFirstOrder + count.get(), batch);
+						count.addAndGet(batch.size());
+					}
+				} finally {
+					scroll.close();
+				}
+			}
+		});
+
+		ourLog.info("Loaded {} remaining results for search {} in {}ms", new Object[] { count.get(), theSearchUuid, sw.getMillis() });
+	}
+
+	private void notifyProgress() {
+		synchronized (myProgressMonitor) {
+			myProgressMonitor.notifyAll();
+		}
+	}
+
+	public void setThreadCount(int theThreadCount) {
+		Validate.isTrue(theThreadCount > 0, "theThreadCount must be > 0");
+		myThreadCount = theThreadCount;
+	}
+
+	@PostConstruct
+	public void start() {
+		final AtomicInteger threadIndex = new AtomicInteger();
+		myExecutor = Executors.newFixedThreadPool(myThreadCount, new ThreadFactory() {
+			@Override
+			public Thread newThread(Runnable theRunnable) {
+				Thread retVal = new Thread(theRunnable, "search-loader-" + threadIndex.incrementAndGet());
+				retVal.setDaemon(true);
+				return retVal;
+			}
+		});
+	}
+
+	@PreDestroy
+	public void stop() throws InterruptedException {
+		myExecutor.shutdownNow();
+		myExecutor.awaitTermination(10, TimeUnit.SECONDS);
+	}
+
+	private void storeBatch(TransactionTemplate theWriteTemplate, final Long theSearchPid, final int theFirstOrder, final List<Long> theBatch) {
+		theWriteTemplate.execute(new TransactionCallbackWithoutResult() {
+			@Override
+			protected void doInTransactionWithoutResult(TransactionStatus theStatus) {
+				Search search = myEntityManager.getReference(Search.class, theSearchPid);
+				List<SearchResult> results = new ArrayList<SearchResult>(theBatch.size());
+				int order = theFirstOrder;
+				for (Long next : theBatch) {
+					SearchResult nextResult = new SearchResult(search);
+					nextResult.setResourcePid(next);
+					nextResult.setOrder(order++);
+					results.add(nextResult);
+				}
+				mySearchResultDao.save(results);
+			}
+		});
+		notifyProgress();
+	}
+
+}
@@ -0,0 +1,237 @@
+package ca.uhn.fhir.jpa.subscription;
+
+/*
+ * #%L
+ * HAPI FHIR JPA Server
+ * %%
+ * Copyright (C) 2014 - 2017 University Health Network
+ * %%
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * #L%
+ */
+
+
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map.Entry;
+
+import org.apache.commons.lang3.Validate;
+import org.hl7.fhir.instance.model.api.IBaseResource;
+import org.hl7.fhir.instance.model.api.IIdType;
+
+/**
+ * A bounded queue of resources waiting to be delivered to a single subscriber. Adding a
+ * resource never blocks, regardless of how slowly the subscriber consumes them:
+ * <ul>
+ * <li>If a version of the same resource is already waiting, it is replaced by the new version
+ * (keeping its place in the queue)</li>
+ * <li>Otherwise, if the queue is full, the oldest waiting resource is dropped</li>
+ * </ul>
+ * <p>
+ * Only one {@link #drain(int, IConsumer) drain} runs at a time. {@link #offer(IBaseResource)} returns
+ * <code>true</code> when the caller needs to schedule one.
+ * </p>
+ */
+public class SubscriptionDeliveryQueue {
+
+	private final int myCapacity;
+	private long myCoalescedCount;
+	private long myDeliveredCount;
+	private long myDroppedCount;
+	private boolean myDrainScheduled;
+	private long myEnqueuedCount;
+	private int myMaxDepth;
+	private long myMaxLatencyMillis;
+	private final LinkedHashMap<Object, Pending> myPending = new LinkedHashMap<Object, Pending>();
+	private long myTotalLatencyMillis;
+
+	public SubscriptionDeliveryQueue(int theCapacity) {
+		Validate.isTrue(theCapacity > 0, "theCapacity must be > 0");
+		myCapacity = theCapacity;
+	}
+
+	/**
+	 * Delivers the waiting resources to the consumer, in batches of at most the given size,
+	 * until the queue is empty
+	 */
+	public void drain(int theMaxBatchSize, IConsumer theConsumer) {
+		while (true) {
+			List<Pending> batch = new ArrayList<Pending>();
+			synchronized (this) {
+				for (Iterator<Pending> iter = myPending.values().iterator(); iter.hasNext() && batch.size() < theMaxBatchSize;) {
+					batch.add(iter.next());
+					iter.remove();
+				}
+				if (batch.isEmpty()) {
+					myDrainScheduled = false;
+					return;
+				}
+			}
+
+			List<IBaseResource> resources = new ArrayList<IBaseResource>(batch.size());
+			for (Pending next : batch) {
+				resources.add(next.myResource);
+			}
+			try {
+				theConsumer.deliver(resources);
+			} catch (RuntimeException e) {
+				synchronized (this) {
+					myDrainScheduled = false;
+				}
+				throw e;
+			}
+
+			long now = System.currentTimeMillis();
+			synchronized (this) {
+				for (Pending next : batch) {
+					long latency = now - next.myEnqueuedMillis;
+					myTotalLatencyMillis += latency;
+					myMaxLatencyMillis = Math.max(myMaxLatencyMillis, latency);
+				}
+				myDeliveredCount += batch.size();
+			}
+		}
+	}
+
+	/**
+	 * Returns the average time in milliseconds between a resource being added to the
+	 * queue and it being delivered
+	 */
+	public synchronized long getAverageLatencyMillis() {
+		if (myDeliveredCount == 0) {
+			return 0;
+		}
+		return myTotalLatencyMillis / myDeliveredCount;
+	}
+
+	public int getCapacity() {
+		return myCapacity;
+	}
+
+	/**
+	 * Returns the number of resources which replaced an older version of the same resource
+	 * that was still waiting
+	 */
+	public synchronized long getCoalescedCount() {
+		return myCoalescedCount;
+	}
+
+	public synchronized long getDeliveredCount() {
+		return myDeliveredCount;
+	}
+
+	/**
+	 * Returns the number of resources currently waiting to be delivered
+	 */
+	public synchronized int getDepth() {
+		return myPending.size();
+	}
+
+	/**
+	 * Returns the number of resources which were dropped because the queue was full
+	 */
+	public synchronized long getDroppedCount() {
+		return myDroppedCount;
+	}
+
+	public synchronized long getEnqueuedCount() {
+		return myEnqueuedCount;
+	}
+
+	/**
+	 * Returns the largest number of resources which have been waiting at the same time
+	 */
+	public synchronized int getMaxDepth() {
+		return myMaxDepth;
+	}
+
+	/**
+	 * Returns the longest time in milliseconds between a resource being added to the queue
+	 * and it being delivered
+	 */
+	public synchronized long getMaxLatencyMillis() {
+		return myMaxLatencyMillis;
+	}
+
+	/**
+	 * Adds a resource to the queue
+	 * 
+	 * @return Returns <code>true</code> if the caller must schedule a call to {@link #drain(int, IConsumer)}, or
+	 *         <code>false</code> if one is already scheduled or running
+	 */
+	public synchronized boolean offer(IBaseResource theResource) {
+		myEnqueuedCount++;
+
+		Object key = toKey(theResource);
+		Pending existing = myPending.get(key);
+		if (existing != null) {
+			existing.myResource = theResource;
+			myCoalescedCount++;
+		} else {
+			if (myPending.size() >= myCapacity) {
+				Iterator<Entry<Object, Pending>> oldest = myPending.entrySet().iterator();
+				oldest.next();
+				oldest.remove();
+				myDroppedCount++;
+			}
+			myPending.put(key, new Pending(theResource));
+			myMaxDepth = Math.max(myMaxDepth, myPending.size());
+		}
+
+		if (myDrainScheduled) {
+			return false;
+		}
+		myDrainScheduled = true;
+		return true;
+	}
+
+	@Override
+	public synchronized String toString() {
+		StringBuilder b = new StringBuilder();
+		b.append("depth=").append(myPending.size());
+		b.append(", maxDepth=").append(myMaxDepth);
+		b.append(", enqueued=").append(myEnqueuedCount);
+		b.append(", delivered=").append(myDeliveredCount);
+		b.append(", coalesced=").append(myCoalescedCount);
+		b.append(", dropped=").append(myDroppedCount);
+		b.append(", avgLatencyMillis=").append(myDeliveredCount > 0 ? myTotalLatencyMillis / myDeliveredCount : 0);
+		b.append(", maxLatencyMillis=").append(myMaxLatencyMillis);
+		return b.toString();
+	}
+
+	private static Object toKey(IBaseResource theResource) {
+		IIdType id = theResource.getIdElement();
+		if (id == null || !id.hasIdPart()) {
+			return new Object();
+		}
+		return id.toUnqualifiedVersionless().getValue();
+	}
+
+	public interface IConsumer {
+
+		void deliver(List<IBaseResource> theResources);
+
+	}
+
+	private static class Pending {
+		private final long myEnqueuedMillis = System.currentTimeMillis();
+		private IBaseResource myResource;
+
+		public Pending(IBaseResource theResource) {
+			myResource = theResource;
+		}
+	}
+
+}
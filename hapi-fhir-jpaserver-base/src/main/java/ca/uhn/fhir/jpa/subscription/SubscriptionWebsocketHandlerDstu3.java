@@ -21,6 +21,7 @@ package ca.uhn.fhir.jpa.subscription;
  */
 
 import java.io.IOException;
+import java.util.Date;
 import java.util.List;
 import java.util.concurrent.ScheduledFuture;
 
@@ -44,13 +45,18 @@ import org.springframework.web.socket.WebSocketSession;
 import org.springframework.web.socket.handler.TextWebSocketHandler;
 
 import ca.uhn.fhir.context.FhirContext;
+import ca.uhn.fhir.jpa.dao.DaoConfig;
 import ca.uhn.fhir.jpa.dao.IFhirResourceDaoSubscription;
+import ca.uhn.fhir.jpa.dao.ISubscriptionMatchListener;
+import ca.uhn.fhir.jpa.dao.SubscriptionMatcherSvc;
 import ca.uhn.fhir.rest.server.Constants;
 import ca.uhn.fhir.rest.server.EncodingEnum;
 import ca.uhn.fhir.rest.server.exceptions.ResourceNotFoundException;
 import ca.uhn.fhir.rest.server.exceptions.UnprocessableEntityException;
 
 public class SubscriptionWebsocketHandlerDstu3 extends TextWebSocketHandler implements ISubscriptionWebsocketHandler, Runnable {
+	private static final int DELIVERY_BATCH_SIZE = 100;
+
 	private static FhirContext ourCtx;
 
 	private static final org.slf4j.Logger ourLog = org.slf4j.LoggerFactory.getLogger(SubscriptionWebsocketHandlerDstu3.class);
@@ -59,12 +65,22 @@ public class SubscriptionWebsocketHandlerDstu3 extends TextWebSocketHandler impl
 
 	private ScheduledFuture<?> myScheduleFuture;
 
+	@Autowired
+	private DaoConfig myDaoConfig;
+
+	private volatile SubscriptionDeliveryQueue myDeliveryQueue;
+
+	private ISubscriptionMatchListener myMatchListener;
+
 	private IState myState = new InitialState();
 
 	private IIdType mySubscriptionId;
 
 	private Long mySubscriptionPid;
 
+	@Autowired(required = false)
+	private SubscriptionMatcherSvc mySubscriptionMatcherSvc;
+
 	@Autowired
 	@Qualifier("websocketTaskSchedulerDstu3")
 	private TaskScheduler myTaskScheduler;
@@ -72,6 +88,7 @@ public class SubscriptionWebsocketHandlerDstu3 extends TextWebSocketHandler impl
 	public void afterConnectionClosed(WebSocketSession theSession, CloseStatus theStatus) throws Exception {
 		super.afterConnectionClosed(theSession, theStatus);
 		ourLog.info("Closing WebSocket connection from {}", theSession.getRemoteAddress());
+		stopPushDelivery();
 	}
 
 	@Override
@@ -80,6 +97,20 @@ public class SubscriptionWebsocketHandlerDstu3 extends TextWebSocketHandler impl
 		ourLog.info("Incoming WebSocket connection from {}", theSession.getRemoteAddress());
 	}
 
+	private void drainDeliveryQueue() {
+		SubscriptionDeliveryQueue queue = myDeliveryQueue;
+		if (queue == null) {
+			return;
+		}
+		queue.drain(DELIVERY_BATCH_SIZE, new SubscriptionDeliveryQueue.IConsumer() {
+			@Override
+			public void deliver(List<IBaseResource> theResources) {
+				myState.deliver(theResources);
+			}
+		});
+		ourLog.debug("Subscription {} delivery queue: {}", mySubscriptionPid, queue);
+	}
+
 	protected void handleFailure(Exception theE) {
 		ourLog.error("Failure during communication", theE);
 	}
@@ -107,6 +138,7 @@ public class SubscriptionWebsocketHandlerDstu3 extends TextWebSocketHandler impl
 	public void preDescroy() {
 		ourLog.info("Cancelling scheduled task for subscription websocket connection");
 		myScheduleFuture.cancel(true);
+		stopPushDelivery();
 		IState state = myState;
 		if (state != null) {
 			state.closing();
@@ -116,7 +148,7 @@ public class SubscriptionWebsocketHandlerDstu3 extends TextWebSocketHandler impl
 	@Override
 	public void run() {
 		Long subscriptionPid = mySubscriptionPid;
-		if (subscriptionPid == null) {
+		if (subscriptionPid == null || myDeliveryQueue != null) {
 			return;
 		}
 
@@ -128,6 +160,63 @@ public class SubscriptionWebsocketHandlerDstu3 extends TextWebSocketHandler impl
 		}
 	}
 
+	private void scheduleDrain() {
+		myTaskScheduler.schedule(new Runnable() {
+			@Override
+			public void run() {
+				drainDeliveryQueue();
+			}
+		}, new Date());
+	}
+
+	/**
+	 * If websocket push is enabled, registers for the resources matching the bound subscription so
+	 * that they are delivered as soon as they are written instead of being polled for
+	 */
+	private void startPushDelivery() {
+		if (mySubscriptionMatcherSvc == null || !myDaoConfig.isSubscriptionInMemoryMatchingEnabled() || !myDaoConfig.isSubscriptionWebsocketPushEnabled()) {
+			return;
+		}
+
+		final SubscriptionDeliveryQueue queue = new SubscriptionDeliveryQueue(myDaoConfig.getSubscriptionWebsocketQueueCapacity());
+		myMatchListener = new ISubscriptionMatchListener() {
+			@Override
+			public void resourceMatched(IBaseResource theResource) {
+				if (queue.offer(theResource)) {
+					scheduleDrain();
+				}
+			}
+		};
+		mySubscriptionMatcherSvc.registerListener(mySubscriptionPid, myMatchListener);
+		myDeliveryQueue = queue;
+		ourLog.info("Subscription {} websocket delivery is push based", mySubscriptionPid);
+
+		/*
+		 * Anything which was flagged before we registered still needs to be delivered
+		 */
+		boolean drainNeeded = false;
+		List<IBaseResource> backlog;
+		do {
+			backlog = ourSubscriptionDao.getUndeliveredResourcesAndPurge(mySubscriptionPid);
+			for (IBaseResource next : backlog) {
+				drainNeeded |= queue.offer(next);
+			}
+		} while (backlog.isEmpty() == false);
+		if (drainNeeded) {
+			scheduleDrain();
+		}
+	}
+
+	private void stopPushDelivery() {
+		SubscriptionDeliveryQueue queue = myDeliveryQueue;
+		if (queue == null) {
+			return;
+		}
+		mySubscriptionMatcherSvc.unregisterListener(mySubscriptionPid, myMatchListener);
+		myDeliveryQueue = null;
+		ourLog.info("Subscription {} websocket delivery stopped: {}", mySubscriptionPid, queue);
+	}
+
 	public static void setCtx(FhirContext theCtx) {
 		ourCtx = theCtx;
 	}
@@ -331,6 +420,8 @@ public class SubscriptionWebsocketHandlerDstu3 extends TextWebSocketHandler impl
 					handleFailure(e);
 				}
 
+				startPushDelivery();
+
 			}
 		}
 
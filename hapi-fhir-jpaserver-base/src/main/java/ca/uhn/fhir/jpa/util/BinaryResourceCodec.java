@@ -0,0 +1,1060 @@
+package ca.uhn.fhir.jpa.util;
+
+/*
+ * #%L
+ * HAPI FHIR JPA Server
+ * %%
+ * Copyright (C) 2014 - 2017 University Health Network
+ * %%
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * #L%
+ */
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.IdentityHashMap;
+import java.util.LinkedList;
+import java.util.List;
+import java.util.Map;
+import java.util.Properties;
+import java.util.Set;
+import java.util.TreeSet;
+import java.util.WeakHashMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.zip.CRC32;
+import java.util.zip.Deflater;
+import java.util.zip.Inflater;
+
+import org.apache.commons.io.IOUtils;
+import org.hl7.fhir.instance.model.api.IBase;
+import org.hl7.fhir.instance.model.api.IBaseElement;
+import org.hl7.fhir.instance.model.api.IBaseExtension;
+import org.hl7.fhir.instance.model.api.IBaseHasExtensions;
+import org.hl7.fhir.instance.model.api.IBaseReference;
+import org.hl7.fhir.instance.model.api.IBaseResource;
+import org.hl7.fhir.instance.model.api.IIdType;
+import org.hl7.fhir.instance.model.api.IPrimitiveType;
+
+import com.google.common.base.Charsets;
+
+import ca.uhn.fhir.context.BaseRuntimeChildDefinition;
+import ca.uhn.fhir.context.BaseRuntimeElementCompositeDefinition;
+import ca.uhn.fhir.context.BaseRuntimeElementDefinition;
+import ca.uhn.fhir.context.FhirContext;
+import ca.uhn.fhir.context.ParserOptions;
+import ca.uhn.fhir.context.RuntimeResourceDefinition;
+import ca.uhn.fhir.parser.DataFormatException;
+import ca.uhn.fhir.rest.server.exceptions.InternalErrorException;
+
+/**
+ * Encodes resources in the compact binary form which is stored by the JPA server for the
+ * {@link ca.uhn.fhir.jpa.entity.ResourceEncodingEnum#BJSON BJSON} encoding.
+ * <p>
+ * The encoding is driven by the model definitions of the {@link FhirContext} instead of by
+ * a text format. Each populated child of an element is written as its index in
+ * {@link BaseRuntimeElementCompositeDefinition#getChildren()} followed by the number of values,
+ * the datatype of a choice child (e.g. <code>value[x]</code>) is written as an index into the
+ * sorted names of that child, and the type of a resource as an index into the sorted resource
+ * names of the FHIR version. Element names are never stored, so the encoded form is made up
+ * almost entirely of primitive values, and it is then compressed using raw deflate.
+ * </p>
+ * <p>
+ * This means that content can only be decoded using a description of the structure definitions
+ * that were used to encode it. A fingerprint of the definitions is written at the start of the
+ * content. Content with the fingerprint of the codec's own definitions is decoded directly. Content
+ * encoded using other (e.g. older) definitions can be decoded once the description of those
+ * definitions, as returned by {@link #getSchema()} for them, has been passed to
+ * {@link #registerSchema(byte[])}. Elements are then matched to the current definitions by name,
+ * and values of elements which no longer exist are dropped with a warning, in the same way that the
+ * parsers ignore unknown elements. Content with an unknown fingerprint is rejected with a
+ * {@link DataFormatException} instead of being decoded incorrectly.
+ * </p>
+ * <p>
+ * Only the HL7.org RI structures are supported. Resources containing content which can not be
+ * represented by this encoding cause {@link #encode(IBaseResource)} to return <code>null</code>,
+ * and should be stored using a text encoding instead.
+ * </p>
+ */
+public class BinaryResourceCodec {
+
+	static final byte FORMAT_VERSION = 2;
+	static final byte MAGIC = 'B';
+	static final byte SCHEMA_MAGIC = 'S';
+
+	private static final int FLAG_EXTENSIONS = 4;
+	private static final int FLAG_ID = 2;
+	private static final int FLAG_VALUE = 1;
+	private static final int HEADER_LENGTH = 6;
+	private static final int KIND_COMPOSITE = 1;
+	private static final int KIND_PRIMITIVE = 0;
+	private static final int KIND_RESOURCE = 2;
+	private static final int KIND_UNSUPPORTED = 3;
+	private static final org.slf4j.Logger ourLog = org.slf4j.LoggerFactory.getLogger(BinaryResourceCodec.class);
+	private static final Map<FhirContext, BinaryResourceCodec> ourContextToCodec = new WeakHashMap<FhirContext, BinaryResourceCodec>();
+
+	private final List<CompositeSchema> myCompositeSchemas;
+	private final FhirContext myContext;
+	private final int myFingerprint;
+	private final Map<Integer, LegacySchema> myLegacySchemas = new ConcurrentHashMap<Integer, LegacySchema>();
+	private final List<String> myResourceNames;
+	private final Map<String, Integer> myResourceNameToIndex;
+	private volatile byte[] mySchema;
+	private final Map<BaseRuntimeElementDefinition<?>, CompositeSchema> mySchemas;
+
+	private BinaryResourceCodec(FhirContext theContext) {
+		myContext = theContext;
+		myCompositeSchemas = new ArrayList<CompositeSchema>();
+		myResourceNames = new ArrayList<String>();
+		myResourceNameToIndex = new HashMap<String, Integer>();
+		mySchemas = new IdentityHashMap<BaseRuntimeElementDefinition<?>, CompositeSchema>();
+
+		if (!theContext.getVersion().getVersion().isRi()) {
+			myFingerprint = 0;
+			return;
+		}
+
+		CRC32 fingerprint = new CRC32();
+		updateFingerprint(fingerprint, theContext.getVersion().getVersion().name());
+
+		LinkedList<BaseRuntimeElementCompositeDefinition<?>> toScan = new LinkedList<BaseRuntimeElementCompositeDefinition<?>>();
+		for (String next : loadResourceNames(theContext)) {
+			updateFingerprint(fingerprint, next);
+			myResourceNameToIndex.put(next, myResourceNames.size());
+			myResourceNames.add(next);
+			toScan.add(theContext.getResourceDefinition(next));
+		}
+
+		while (!toScan.isEmpty()) {
+			BaseRuntimeElementCompositeDefinition<?> nextDef = toScan.removeFirst();
+			if (mySchemas.containsKey(nextDef)) {
+				continue;
+			}
+			CompositeSchema schema = new CompositeSchema(nextDef, myCompositeSchemas.size());
+			mySchemas.put(nextDef, schema);
+			myCompositeSchemas.add(schema);
+
+			updateFingerprint(fingerprint, nextDef.getName());
+			for (ChildSchema nextChild : schema.myChildren) {
+				updateFingerprint(fingerprint, nextChild.myChild.getElementName());
+				for (int i = 0; i < nextChild.myNames.length; i++) {
+					updateFingerprint(fingerprint, nextChild.myNames[i]);
+					BaseRuntimeElementDefinition<?> childDef = nextChild.myDefs[i];
+					if (childDef instanceof BaseRuntimeElementCompositeDefinition && !(childDef instanceof RuntimeResourceDefinition)) {
+						toScan.add((BaseRuntimeElementCompositeDefinition<?>) childDef);
+					}
+				}
+			}
+		}
+
+		myFingerprint = (int) fingerprint.getValue();
+		ourLog.debug("Built binary encoding schema for {} with {} element types, fingerprint {}", theContext.getVersion().getVersion(), mySchemas.size(), myFingerprint);
+	}
+
+	/**
+	 * Returns <code>true</code> if content encoded with the given fingerprint can be decoded,
+	 * because it is the fingerprint of this codec's definitions or because a schema with that
+	 * fingerprint has been {@link #registerSchema(byte[]) registered}
+	 */
+	public boolean canDecode(int theFingerprint) {
+		return theFingerprint == myFingerprint || myLegacySchemas.containsKey(theFingerprint);
+	}
+
+	/**
+	 * Decodes a resource which was encoded using {@link #encode(IBaseResource)}
+	 *
+	 * @throws DataFormatException
+	 *            If the content is not valid, or was encoded using different structure definitions
+	 */
+	public <T extends IBaseResource> T decode(Class<T> theResourceType, byte[] theEncoded) {
+		if (mySchemas.isEmpty()) {
+			throw new DataFormatException("Binary resource encoding is not supported for FHIR version " + myContext.getVersion().getVersion());
+		}
+		int fingerprint = readHeader(theEncoded, MAGIC, "a binary encoded resource");
+
+		IBaseResource retVal;
+		Input input;
+		if (fingerprint == myFingerprint) {
+			input = new Input(inflate(theEncoded));
+			retVal = readResource(input);
+		} else {
+			LegacySchema schema = myLegacySchemas.get(fingerprint);
+			if (schema == null) {
+				throw new DataFormatException("Binary resource was encoded using different structure definitions (fingerprint " + fingerprint + ", expected " + myFingerprint + ") and no schema has been registered for them");
+			}
+			input = new Input(inflate(theEncoded));
+			retVal = readLegacyResource(input, schema);
+			if (retVal == null) {
+				throw new DataFormatException("Binary resource has a type which no longer exists");
+			}
+		}
+		if (input.myPos != input.myBytes.length) {
+			throw new DataFormatException("Unexpected content after end of binary resource");
+		}
+		if (!theResourceType.isInstance(retVal)) {
+			throw new DataFormatException("Binary resource has type " + retVal.getClass().getName() + " but " + theResourceType.getName() + " was expected");
+		}
+		return theResourceType.cast(retVal);
+	}
+
+	private byte[] deflate(Output theOutput, byte theMagic) {
+		Deflater deflater = new Deflater(Deflater.BEST_COMPRESSION, true);
+		try {
+			deflater.setInput(theOutput.getBuffer(), 0, theOutput.size());
+			deflater.finish();
+
+			Output retVal = new Output(theOutput.size() / 2 + 16);
+			retVal.write(theMagic);
+			retVal.write(FORMAT_VERSION);
+			retVal.write(myFingerprint >>> 24);
+			retVal.write(myFingerprint >>> 16);
+			retVal.write(myFingerprint >>> 8);
+			retVal.write(myFingerprint);
+			retVal.writeVarint(theOutput.size());
+			byte[] buffer = new byte[4096];
+			while (!deflater.finished()) {
+				int count = deflater.deflate(buffer);
+				retVal.write(buffer, 0, count);
+			}
+			return retVal.toByteArray();
+		} finally {
+			deflater.end();
+		}
+	}
+
+	/**
+	 * Encodes a resource
+	 *
+	 * @return The encoded resource, or <code>null</code> if the resource can not be represented
+	 *         by this encoding. This is the case for versions other than the HL7.org RI structures,
+	 *         custom resource and datatype classes, references which hold a resource instead of a
+	 *         reference string, and contexts with a narrative generator (which the text encodings
+	 *         use to populate narratives when encoding).
+	 */
+	public byte[] encode(IBaseResource theResource) {
+		if (mySchemas.isEmpty() || myContext.getNarrativeGenerator() != null) {
+			return null;
+		}
+
+		ParserOptions parserOptions = myContext.getParserOptions();
+		boolean trackPaths = parserOptions.isStripVersionsFromReferences() && !parserOptions.getDontStripVersionsFromReferencesAtPaths().isEmpty();
+
+		Output output = new Output(1024);
+		try {
+			writeResource(output, theResource, trackPaths);
+		} catch (UnsupportedContentException e) {
+			ourLog.debug("Can not use binary encoding for resource {}: {}", theResource.getIdElement().getValue(), e.getMessage());
+			return null;
+		}
+		return deflate(output, MAGIC);
+	}
+
+	/**
+	 * Returns the fingerprint of the structure definitions used by this codec
+	 */
+	public int getFingerprint() {
+		return myFingerprint;
+	}
+
+	/**
+	 * Returns the fingerprint of the structure definitions which were used to encode the
+	 * given content
+	 *
+	 * @throws DataFormatException
+	 *            If the content is not a binary encoded resource
+	 */
+	public int getFingerprint(byte[] theEncoded) {
+		return readHeader(theEncoded, MAGIC, "a binary encoded resource");
+	}
+
+	/**
+	 * Returns a description of the structure definitions used by this codec, which can be stored
+	 * and passed to {@link #registerSchema(byte[])} after an upgrade of the structures, so that
+	 * content encoded before the upgrade can still be decoded. The description starts with the
+	 * same fingerprint as the content, and is compressed.
+	 */
+	public byte[] getSchema() {
+		if (mySchemas.isEmpty()) {
+			throw new IllegalStateException("Binary resource encoding is not supported for FHIR version " + myContext.getVersion().getVersion());
+		}
+
+		byte[] retVal = mySchema;
+		if (retVal == null) {
+			Output output = new Output(65536);
+			output.writeString(myContext.getVersion().getVersion().name());
+			output.writeVarint(myResourceNames.size());
+			for (String next : myResourceNames) {
+				output.writeString(next);
+				output.writeVarint(mySchemas.get(myContext.getResourceDefinition(next)).myIndex);
+			}
+
+			CompositeSchema extensionSchema = mySchemas.get(myContext.getElementDefinition("Extension"));
+			output.writeVarint(extensionSchema != null ? extensionSchema.myIndex + 1 : 0);
+
+			output.writeVarint(myCompositeSchemas.size());
+			for (CompositeSchema nextComposite : myCompositeSchemas) {
+				output.writeString(nextComposite.myDef.getName());
+				output.writeVarint(nextComposite.myChildren.length);
+				for (ChildSchema nextChild : nextComposite.myChildren) {
+					output.writeString(nextChild.myChild.getElementName());
+					output.writeVarint(nextChild.myNames.length);
+					for (int i = 0; i < nextChild.myNames.length; i++) {
+						output.writeString(nextChild.myNames[i]);
+						int kind = toKind(nextChild.myDefs[i]);
+						output.write(kind);
+						if (kind == KIND_COMPOSITE) {
+							output.writeVarint(mySchemas.get(nextChild.myDefs[i]).myIndex);
+						}
+					}
+				}
+			}
+			retVal = deflate(output, SCHEMA_MAGIC);
+			mySchema = retVal;
+		}
+		return retVal;
+	}
+
+	private void dropped(String theName, String theReason) {
+		ourLog.warn("Dropping value of {} while decoding binary resource: {}", theName, theReason);
+	}
+
+	private byte[] inflate(byte[] theEncoded) {
+		Input header = new Input(theEncoded);
+		header.myPos = HEADER_LENGTH;
+		int length = header.readVarint();
+
+		Inflater inflater = new Inflater(true);
+		try {
+			/*
+			 * Raw inflate may need one extra byte past the end of the
+			 * data, so pass in a padded copy
+			 */
+			byte[] input = new byte[theEncoded.length - header.myPos + 1];
+			System.arraycopy(theEncoded, header.myPos, input, 0, theEncoded.length - header.myPos);
+			inflater.setInput(input);
+
+			byte[] retVal = new byte[length];
+			int offset = 0;
+			while (offset < length) {
+				int count = inflater.inflate(retVal, offset, length - offset);
+				if (count == 0 && (inflater.finished() || inflater.needsInput() || inflater.needsDictionary())) {
+					throw new DataFormatException("Unexpected end of binary resource content");
+				}
+				offset += count;
+			}
+			return retVal;
+		} catch (java.util.zip.DataFormatException e) {
+			throw new DataFormatException("Failed to decompress binary resource content", e);
+		} finally {
+			inflater.end();
+		}
+	}
+
+	private boolean isStripVersionsFromReferences(String thePath) {
+		ParserOptions parserOptions = myContext.getParserOptions();
+		if (!parserOptions.isStripVersionsFromReferences()) {
+			return false;
+		}
+		return thePath == null || !parserOptions.getDontStripVersionsFromReferencesAtPaths().contains(thePath);
+	}
+
+	private void readComposite(Input theInput, CompositeSchema theSchema, IBase theElement) {
+		int childIndex;
+		while ((childIndex = theInput.readVarint()) != 0) {
+			if (childIndex > theSchema.myChildren.length) {
+				throw new DataFormatException("Invalid child index " + childIndex + " for element " + theSchema.myDef.getName());
+			}
+			ChildSchema child = theSchema.myChildren[childIndex - 1];
+			int count = theInput.readVarint();
+			for (int i = 0; i < count; i++) {
+				int nameIndex = 0;
+				if (child.myNames.length > 1) {
+					nameIndex = theInput.readVarint();
+					if (nameIndex >= child.myNames.length) {
+						throw new DataFormatException("Invalid type index " + nameIndex + " for element " + theSchema.myDef.getName() + "." + child.myChild.getElementName());
+					}
+				}
+				IBase value = readValue(theInput, child, child.myDefs[nameIndex]);
+				child.myChild.getMutator().addValue(theElement, value);
+			}
+		}
+	}
+
+	/**
+	 * Reads a composite using a registered schema. If <code>theSchema</code> is <code>null</code>
+	 * the element no longer exists and its content is skipped.
+	 */
+	private void readLegacyComposite(Input theInput, LegacySchema theLegacySchema, LegacyComposite theLegacyComposite, CompositeSchema theSchema, IBase theElement) {
+		int childIndex;
+		while ((childIndex = theInput.readVarint()) != 0) {
+			if (childIndex > theLegacyComposite.myChildren.length) {
+				throw new DataFormatException("Invalid child index " + childIndex + " for element " + theLegacyComposite.myName);
+			}
+			LegacyChild legacyChild = theLegacyComposite.myChildren[childIndex - 1];
+			String name = theLegacyComposite.myName + "." + legacyChild.myElementName;
+			ChildSchema child = null;
+			if (theSchema != null) {
+				child = theSchema.myElementNameToChild.get(legacyChild.myElementName);
+				if (child == null) {
+					dropped(name, "element no longer exists");
+				}
+			}
+
+			int count = theInput.readVarint();
+			for (int i = 0; i < count; i++) {
+				int nameIndex = 0;
+				if (legacyChild.myNames.length > 1) {
+					nameIndex = theInput.readVarint();
+					if (nameIndex >= legacyChild.myNames.length) {
+						throw new DataFormatException("Invalid type index " + nameIndex + " for element " + name);
+					}
+				}
+
+				BaseRuntimeElementDefinition<?> def = null;
+				if (child != null) {
+					Integer index = child.myNameToIndex.get(legacyChild.myNames[nameIndex]);
+					if (index != null && toKind(child.myDefs[index]) == legacyChild.myKinds[nameIndex]) {
+						def = child.myDefs[index];
+					} else {
+						dropped(name, "type " + legacyChild.myNames[nameIndex] + " is no longer valid");
+					}
+				}
+
+				IBase value = readLegacyValue(theInput, theLegacySchema, legacyChild, nameIndex, child, def);
+				if (value != null) {
+					child.myChild.getMutator().addValue(theElement, value);
+				}
+			}
+		}
+	}
+
+	private void readLegacyPrimitive(Input theInput, LegacySchema theLegacySchema, IPrimitiveType<?> thePrimitive, String theName) {
+		int flags = theInput.readByte();
+		if ((flags & FLAG_VALUE) != 0) {
+			String value = theInput.readString();
+			if (thePrimitive != null) {
+				thePrimitive.setValueAsString(value);
+			}
+		}
+		if ((flags & FLAG_ID) != 0) {
+			String id = theInput.readString();
+			if (thePrimitive instanceof IBaseElement) {
+				((IBaseElement) thePrimitive).setId(id);
+			} else if (thePrimitive != null) {
+				dropped(theName, "element can no longer have an ID");
+			}
+		}
+		if ((flags & FLAG_EXTENSIONS) != 0) {
+			if (theLegacySchema.myExtension == null) {
+				throw new DataFormatException("Schema " + theLegacySchema.myFingerprint + " has no extension type");
+			}
+			if (thePrimitive != null && !(thePrimitive instanceof IBaseHasExtensions)) {
+				dropped(theName, "element can no longer have extensions");
+			}
+			int count = theInput.readVarint();
+			for (int i = 0; i < count; i++) {
+				if (thePrimitive instanceof IBaseHasExtensions) {
+					IBaseExtension<?, ?> extension = ((IBaseHasExtensions) thePrimitive).addExtension();
+					CompositeSchema schema = mySchemas.get(myContext.getElementDefinition(extension.getClass()));
+					if (schema == null) {
+						throw new DataFormatException("Unknown extension type " + extension.getClass().getName());
+					}
+					readLegacyComposite(theInput, theLegacySchema, theLegacySchema.myExtension, schema, extension);
+				} else {
+					readLegacyComposite(theInput, theLegacySchema, theLegacySchema.myExtension, null, null);
+				}
+			}
+		}
+	}
+
+	/**
+	 * Reads a resource using a registered schema, returning <code>null</code> if its type
+	 * no longer exists
+	 */
+	private IBaseResource readLegacyResource(Input theInput, LegacySchema theLegacySchema) {
+		int index = theInput.readVarint();
+		if (index >= theLegacySchema.myResourceNames.length) {
+			throw new DataFormatException("Invalid resource type index " + index);
+		}
+		String resourceName = theLegacySchema.myResourceNames[index];
+		LegacyComposite legacyComposite = theLegacySchema.myResources[index];
+
+		if (!myResourceNameToIndex.containsKey(resourceName)) {
+			dropped(resourceName, "resource type no longer exists");
+			readLegacyComposite(theInput, theLegacySchema, legacyComposite, null, null);
+			return null;
+		}
+
+		RuntimeResourceDefinition def = myContext.getResourceDefinition(resourceName);
+		IBaseResource retVal = def.newInstance();
+		readLegacyComposite(theInput, theLegacySchema, legacyComposite, mySchemas.get(def), retVal);
+		return retVal;
+	}
+
+	private IBase readLegacyValue(Input theInput, LegacySchema theLegacySchema, LegacyChild theLegacyChild, int theNameIndex, ChildSchema theChild, BaseRuntimeElementDefinition<?> theDef) {
+		switch (theLegacyChild.myKinds[theNameIndex]) {
+		case KIND_PRIMITIVE: {
+			IPrimitiveType<?> retVal = null;
+			if (theDef != null) {
+				retVal = (IPrimitiveType<?>) theDef.newInstance(theChild.myChild.getInstanceConstructorArguments());
+			}
+			readLegacyPrimitive(theInput, theLegacySchema, retVal, theLegacyChild.myElementName);
+			return retVal;
+		}
+		case KIND_COMPOSITE: {
+			LegacyComposite legacyComposite = theLegacySchema.myComposites[theLegacyChild.myTargets[theNameIndex]];
+			if (theDef == null) {
+				readLegacyComposite(theInput, theLegacySchema, legacyComposite, null, null);
+				return null;
+			}
+			IBase retVal = theDef.newInstance(theChild.myChild.getInstanceConstructorArguments());
+			readLegacyComposite(theInput, theLegacySchema, legacyComposite, mySchemas.get(theDef), retVal);
+			return retVal;
+		}
+		case KIND_RESOURCE: {
+			IBaseResource retVal = readLegacyResource(theInput, theLegacySchema);
+			return theDef != null ? retVal : null;
+		}
+		default:
+			throw new DataFormatException("Unsupported element type in binary resource");
+		}
+	}
+
+	private void readPrimitive(Input theInput, IPrimitiveType<?> thePrimitive) {
+		int flags = theInput.readByte();
+		if ((flags & FLAG_VALUE) != 0) {
+			thePrimitive.setValueAsString(theInput.readString());
+		}
+		if ((flags & FLAG_ID) != 0) {
+			if (!(thePrimitive instanceof IBaseElement)) {
+				throw new DataFormatException("Element of type " + thePrimitive.getClass().getName() + " can not have an ID");
+			}
+			((IBaseElement) thePrimitive).setId(theInput.readString());
+		}
+		if ((flags & FLAG_EXTENSIONS) != 0) {
+			if (!(thePrimitive instanceof IBaseHasExtensions)) {
+				throw new DataFormatException("Element of type " + thePrimitive.getClass().getName() + " can not have extensions");
+			}
+			int count = theInput.readVarint();
+			for (int i = 0; i < count; i++) {
+				IBaseExtension<?, ?> extension = ((IBaseHasExtensions) thePrimitive).addExtension();
+				CompositeSchema schema = mySchemas.get(myContext.getElementDefinition(extension.getClass()));
+				if (schema == null) {
+					throw new DataFormatException("Unknown extension type " + extension.getClass().getName());
+				}
+				readComposite(theInput, schema, extension);
+			}
+		}
+	}
+
+	private IBaseResource readResource(Input theInput) {
+		int index = theInput.readVarint();
+		if (index >= myResourceNames.size()) {
+			throw new DataFormatException("Invalid resource type index " + index);
+		}
+		RuntimeResourceDefinition def = myContext.getResourceDefinition(myResourceNames.get(index));
+		IBaseResource retVal = def.newInstance();
+		readComposite(theInput, mySchemas.get(def), retVal);
+		return retVal;
+	}
+
+	private IBase readValue(Input theInput, ChildSchema theChild, BaseRuntimeElementDefinition<?> theDef) {
+		switch (theDef.getChildType()) {
+		case PRIMITIVE_DATATYPE:
+		case ID_DATATYPE:
+		case PRIMITIVE_XHTML_HL7ORG: {
+			IPrimitiveType<?> retVal = (IPrimitiveType<?>) theDef.newInstance(theChild.myChild.getInstanceConstructorArguments());
+			readPrimitive(theInput, retVal);
+			return retVal;
+		}
+		case COMPOSITE_DATATYPE:
+		case RESOURCE_BLOCK: {
+			IBase retVal = theDef.newInstance(theChild.myChild.getInstanceConstructorArguments());
+			readComposite(theInput, mySchemas.get(theDef), retVal);
+			return retVal;
+		}
+		case RESOURCE:
+		case CONTAINED_RESOURCE_LIST:
+			return readResource(theInput);
+		default:
+			throw new DataFormatException("Unsupported element type " + theDef.getChildType() + " in binary resource");
+		}
+	}
+
+	/**
+	 * Registers the description of other structure definitions (as returned by {@link #getSchema()}
+	 * using those definitions), so that content encoded using them can be decoded
+	 *
+	 * @throws DataFormatException
+	 *            If the schema is not valid
+	 */
+	public void registerSchema(byte[] theSchema) {
+		int fingerprint = readHeader(theSchema, SCHEMA_MAGIC, "a binary resource schema");
+		if (canDecode(fingerprint)) {
+			return;
+		}
+
+		Input input = new Input(inflate(theSchema));
+		String version = input.readString();
+
+		int resourceCount = input.readVarint();
+		String[] resourceNames = new String[resourceCount];
+		int[] resourceComposites = new int[resourceCount];
+		for (int i = 0; i < resourceCount; i++) {
+			resourceNames[i] = input.readString();
+			resourceComposites[i] = input.readVarint();
+		}
+		int extensionComposite = input.readVarint() - 1;
+
+		LegacyComposite[] composites = new LegacyComposite[input.readVarint()];
+		List<int[]> targets = new ArrayList<int[]>();
+		for (int i = 0; i < composites.length; i++) {
+			LegacyComposite composite = new LegacyComposite(input.readString(), input.readVarint());
+			for (int j = 0; j < composite.myChildren.length; j++) {
+				LegacyChild child = new LegacyChild(input.readString(), input.readVarint());
+				for (int k = 0; k < child.myNames.length; k++) {
+					child.myNames[k] = input.readString();
+					child.myKinds[k] = input.readByte();
+					if (child.myKinds[k] == KIND_COMPOSITE) {
+						child.myTargets[k] = input.readVarint();
+					}
+				}
+				targets.add(child.myTargets);
+				composite.myChildren[j] = child;
+			}
+			composites[i] = composite;
+		}
+
+		for (int[] nextTargets : targets) {
+			for (int next : nextTargets) {
+				if (next >= composites.length) {
+					throw new DataFormatException("Invalid element type index " + next + " in binary resource schema");
+				}
+			}
+		}
+		for (int next : resourceComposites) {
+			if (next >= composites.length) {
+				throw new DataFormatException("Invalid element type index " + next + " in binary resource schema");
+			}
+		}
+		if (extensionComposite >= composites.length) {
+			throw new DataFormatException("Invalid element type index " + extensionComposite + " in binary resource schema");
+		}
+
+		LegacySchema schema = new LegacySchema();
+		schema.myFingerprint = fingerprint;
+		schema.myComposites = composites;
+		schema.myExtension = extensionComposite >= 0 ? composites[extensionComposite] : null;
+		schema.myResourceNames = resourceNames;
+		schema.myResources = new LegacyComposite[resourceCount];
+		for (int i = 0; i < resourceCount; i++) {
+			schema.myResources[i] = composites[resourceComposites[i]];
+		}
+		myLegacySchemas.put(fingerprint, schema);
+		ourLog.info("Registered binary resource schema {} for {} with {} element types", new Object[] { fingerprint, version, composites.length });
+	}
+
+	private void writeComposite(Output theOutput, CompositeSchema theSchema, IBase theElement, String thePath) throws UnsupportedContentException {
+		IBaseReference reference = null;
+		if (theElement instanceof IBaseReference) {
+			reference = (IBaseReference) theElement;
+			if (reference.getResource() != null) {
+				throw new UnsupportedContentException("Reference at " + theSchema.myDef.getName() + " holds a resource");
+			}
+		}
+
+		for (int i = 0; i < theSchema.myChildren.length; i++) {
+			ChildSchema child = theSchema.myChildren[i];
+			List<? extends IBase> values = child.myChild.getAccessor().getValues(theElement);
+			if (values == null || values.isEmpty()) {
+				continue;
+			}
+
+			int count = 0;
+			for (IBase next : values) {
+				if (next != null && !next.isEmpty()) {
+					count++;
+				}
+			}
+			if (count == 0) {
+				continue;
+			}
+
+			String childPath = null;
+			if (thePath != null) {
+				childPath = thePath + '.' + child.myChild.getElementName();
+			}
+
+			/*
+			 * Versions are stripped from references in the same way as
+			 * the parser does when encoding
+			 */
+			if (reference != null && "reference".equals(child.myChild.getElementName())) {
+				IIdType referenceId = reference.getReferenceElement();
+				if (referenceId.hasVersionIdPart() && isStripVersionsFromReferences(thePath)) {
+					values = Collections.singletonList(referenceId.toVersionless());
+				}
+			}
+
+			theOutput.writeVarint(i + 1);
+			theOutput.writeVarint(count);
+			for (IBase next : values) {
+				if (next == null || next.isEmpty()) {
+					continue;
+				}
+				int nameIndex = child.getNameIndex(next);
+				if (child.myNames.length > 1) {
+					theOutput.writeVarint(nameIndex);
+				}
+				writeValue(theOutput, child, child.myDefs[nameIndex], next, childPath);
+			}
+		}
+		theOutput.writeVarint(0);
+	}
+
+	private void writePrimitive(Output theOutput, IPrimitiveType<?> thePrimitive, boolean theResourceId, String thePath) throws UnsupportedContentException {
+		String value;
+		if (theResourceId) {
+			value = ((IIdType) thePrimitive).getIdPart();
+		} else {
+			value = thePrimitive.getValueAsString();
+		}
+
+		String id = null;
+		if (thePrimitive instanceof IBaseElement) {
+			id = ((IBaseElement) thePrimitive).getId();
+		}
+
+		List<IBaseExtension<?, ?>> extensions = Collections.emptyList();
+		if (thePrimitive instanceof IBaseHasExtensions && ((IBaseHasExtensions) thePrimitive).hasExtension()) {
+			extensions = new ArrayList<IBaseExtension<?, ?>>();
+			for (IBaseExtension<?, ?> next : ((IBaseHasExtensions) thePrimitive).getExtension()) {
+				if (next != null && !next.isEmpty()) {
+					extensions.add(next);
+				}
+			}
+		}
+
+		int flags = 0;
+		if (value != null) {
+			flags |= FLAG_VALUE;
+		}
+		if (id != null) {
+			flags |= FLAG_ID;
+		}
+		if (!extensions.isEmpty()) {
+			flags |= FLAG_EXTENSIONS;
+		}
+		theOutput.write(flags);
+
+		if (value != null) {
+			theOutput.writeString(value);
+		}
+		if (id != null) {
+			theOutput.writeString(id);
+		}
+		if (!extensions.isEmpty()) {
+			theOutput.writeVarint(extensions.size());
+			for (IBaseExtension<?, ?> next : extensions) {
+				CompositeSchema schema = mySchemas.get(myContext.getElementDefinition(next.getClass()));
+				if (schema == null) {
+					throw new UnsupportedContentException("Unknown extension type " + next.getClass().getName());
+				}
+				writeComposite(theOutput, schema, next, thePath);
+			}
+		}
+	}
+
+	private void writeResource(Output theOutput, IBaseResource theResource, boolean theTrackPaths) throws UnsupportedContentException {
+		RuntimeResourceDefinition def = myContext.getResourceDefinition(theResource);
+		Integer index = myResourceNameToIndex.get(def.getName());
+		CompositeSchema schema = mySchemas.get(def);
+		if (index == null || schema == null) {
+			throw new UnsupportedContentException("Resource type " + theResource.getClass().getName() + " is not a standard resource type");
+		}
+
+		theOutput.writeVarint(index);
+		writeComposite(theOutput, schema, theResource, theTrackPaths ? def.getName() : null);
+	}
+
+	private void writeValue(Output theOutput, ChildSchema theChild, BaseRuntimeElementDefinition<?> theDef, IBase theValue, String thePath) throws UnsupportedContentException {
+		switch (theDef.getChildType()) {
+		case PRIMITIVE_DATATYPE:
+		case ID_DATATYPE:
+		case PRIMITIVE_XHTML_HL7ORG:
+			writePrimitive(theOutput, (IPrimitiveType<?>) theValue, theChild.myResourceId, thePath);
+			break;
+		case COMPOSITE_DATATYPE:
+		case RESOURCE_BLOCK:
+			if (myContext.getElementDefinition(theValue.getClass()) != theDef) {
+				throw new UnsupportedContentException("Element of type " + theValue.getClass().getName() + " is not a standard " + theDef.getName());
+			}
+			writeComposite(theOutput, mySchemas.get(theDef), theValue, thePath);
+			break;
+		case RESOURCE:
+		case CONTAINED_RESOURCE_LIST:
+			writeResource(theOutput, (IBaseResource) theValue, thePath != null);
+			break;
+		default:
+			throw new UnsupportedContentException("Unsupported element type " + theDef.getChildType());
+		}
+	}
+
+	/**
+	 * Returns the codec for the given context, creating it (and scanning all of the
+	 * resource types of the context's FHIR version) the first time it is requested
+	 */
+	public static BinaryResourceCodec forContext(FhirContext theContext) {
+		synchronized (ourContextToCodec) {
+			BinaryResourceCodec retVal = ourContextToCodec.get(theContext);
+			if (retVal == null) {
+				retVal = new BinaryResourceCodec(theContext);
+				ourContextToCodec.put(theContext, retVal);
+			}
+			return retVal;
+		}
+	}
+
+	/**
+	 * Returns the resource names declared in the version property file, which (unlike the
+	 * definitions the context has scanned so far) do not depend on what the context has been
+	 * used for
+	 */
+	private static Set<String> loadResourceNames(FhirContext theContext) {
+		Properties properties = new Properties();
+		InputStream stream = theContext.getVersion().getFhirVersionPropertiesFile();
+		try {
+			properties.load(stream);
+		} catch (IOException e) {
+			throw new InternalErrorException("Failed to load version property file", e);
+		} finally {
+			IOUtils.closeQuietly(stream);
+		}
+
+		Set<String> retVal = new TreeSet<String>();
+		for (Object next : properties.keySet()) {
+			String key = (String) next;
+			if (key.startsWith("resource.")) {
+				retVal.add(key.substring("resource.".length()));
+			}
+		}
+		return retVal;
+	}
+
+	private static int readHeader(byte[] theEncoded, byte theMagic, String theDescription) {
+		if (theEncoded.length < HEADER_LENGTH || theEncoded[0] != theMagic) {
+			throw new DataFormatException("Content is not " + theDescription);
+		}
+		if (theEncoded[1] != FORMAT_VERSION) {
+			throw new DataFormatException("Unsupported binary resource format version: " + theEncoded[1]);
+		}
+		return ((theEncoded[2] & 0xFF) << 24) | ((theEncoded[3] & 0xFF) << 16) | ((theEncoded[4] & 0xFF) << 8) | (theEncoded[5] & 0xFF);
+	}
+
+	private static int toKind(BaseRuntimeElementDefinition<?> theDef) {
+		switch (theDef.getChildType()) {
+		case PRIMITIVE_DATATYPE:
+		case ID_DATATYPE:
+		case PRIMITIVE_XHTML_HL7ORG:
+			return KIND_PRIMITIVE;
+		case COMPOSITE_DATATYPE:
+		case RESOURCE_BLOCK:
+			return KIND_COMPOSITE;
+		case RESOURCE:
+		case CONTAINED_RESOURCE_LIST:
+			return KIND_RESOURCE;
+		default:
+			return KIND_UNSUPPORTED;
+		}
+	}
+
+	private static void updateFingerprint(CRC32 theFingerprint, String theValue) {
+		theFingerprint.update(theValue.getBytes(Charsets.UTF_8));
+		theFingerprint.update(0);
+	}
+
+	private class ChildSchema {
+		private final BaseRuntimeChildDefinition myChild;
+		private final BaseRuntimeElementDefinition<?>[] myDefs;
+		private final String[] myNames;
+		private final Map<String, Integer> myNameToIndex;
+		private final boolean myResourceId;
+
+		ChildSchema(BaseRuntimeElementCompositeDefinition<?> theParent, BaseRuntimeChildDefinition theChild) {
+			myChild = theChild;
+			myNames = new TreeSet<String>(theChild.getValidChildNames()).toArray(new String[0]);
+			myDefs = new BaseRuntimeElementDefinition<?>[myNames.length];
+			myNameToIndex = new HashMap<String, Integer>();
+			for (int i = 0; i < myNames.length; i++) {
+				myDefs[i] = theChild.getChildByName(myNames[i]);
+				myNameToIndex.put(myNames[i], i);
+			}
+			myResourceId = theParent instanceof RuntimeResourceDefinition && "id".equals(theChild.getElementName());
+		}
+
+		int getNameIndex(IBase theValue) throws UnsupportedContentException {
+			if (myNames.length == 1) {
+				return 0;
+			}
+
+			Class<? extends IBase> type = theValue.getClass();
+			String name = myChild.getChildNameByDatatype(type);
+			if (name == null && "code".equals(myContext.getElementDefinition(type).getName())) {
+				// RI Enumeration values use the "code" type name, as in BaseParser#getChildNameAndDef
+				name = myChild.getChildNameByDatatype(myContext.getElementDefinition("code").getImplementingClass());
+			}
+
+			Integer retVal = name != null ? myNameToIndex.get(name) : null;
+			if (retVal == null) {
+				throw new UnsupportedContentException("Element of type " + type.getName() + " is not valid for " + myChild.getElementName());
+			}
+			return retVal;
+		}
+	}
+
+	private class CompositeSchema {
+		private final ChildSchema[] myChildren;
+		private final BaseRuntimeElementCompositeDefinition<?> myDef;
+		private final Map<String, ChildSchema> myElementNameToChild;
+		private final int myIndex;
+
+		CompositeSchema(BaseRuntimeElementCompositeDefinition<?> theDef, int theIndex) {
+			myDef = theDef;
+			myIndex = theIndex;
+			List<BaseRuntimeChildDefinition> children = theDef.getChildren();
+			myChildren = new ChildSchema[children.size()];
+			myElementNameToChild = new HashMap<String, ChildSchema>();
+			for (int i = 0; i < myChildren.length; i++) {
+				myChildren[i] = new ChildSchema(theDef, children.get(i));
+				myElementNameToChild.put(myChildren[i].myChild.getElementName(), myChildren[i]);
+			}
+		}
+	}
+
+	private static class Input {
+		private final byte[] myBytes;
+		private int myPos;
+
+		Input(byte[] theBytes) {
+			myBytes = theBytes;
+		}
+
+		int readByte() {
+			if (myPos >= myBytes.length) {
+				throw new DataFormatException("Unexpected end of binary resource content");
+			}
+			return myBytes[myPos++] & 0xFF;
+		}
+
+		String readString() {
+			int length = readVarint();
+			if (length > myBytes.length - myPos) {
+				throw new DataFormatException("Unexpected end of binary resource content");
+			}
+			String retVal = new String(myBytes, myPos, length, Charsets.UTF_8);
+			myPos += length;
+			return retVal;
+		}
+
+		int readVarint() {
+			int retVal = 0;
+			for (int shift = 0; shift < 32; shift += 7) {
+				int next = readByte();
+				retVal |= (next & 0x7F) << shift;
+				if ((next & 0x80) == 0) {
+					return retVal;
+				}
+			}
+			throw new DataFormatException("Invalid number in binary resource content");
+		}
+	}
+
+	/**
+	 * A child of an element in a registered schema
+	 */
+	private static class LegacyChild {
+		private final String myElementName;
+		private final int[] myKinds;
+		private final String[] myNames;
+		private final int[] myTargets;
+
+		LegacyChild(String theElementName, int theNameCount) {
+			myElementName = theElementName;
+			myNames = new String[theNameCount];
+			myKinds = new int[theNameCount];
+			myTargets = new int[theNameCount];
+		}
+	}
+
+	/**
+	 * An element type in a registered schema
+	 */
+	private static class LegacyComposite {
+		private final LegacyChild[] myChildren;
+		private final String myName;
+
+		LegacyComposite(String theName, int theChildCount) {
+			myName = theName;
+			myChildren = new LegacyChild[theChildCount];
+		}
+	}
+
+	/**
+	 * The structure definitions described by a schema passed to {@link BinaryResourceCodec#registerSchema(byte[])}
+	 */
+	private static class LegacySchema {
+		private LegacyComposite[] myComposites;
+		private LegacyComposite myExtension;
+		private int myFingerprint;
+		private String[] myResourceNames;
+		private LegacyComposite[] myResources;
+	}
+
+	private static class Output extends ByteArrayOutputStream {
+
+		Output(int theSize) {
+			super(theSize);
+		}
+
+		byte[] getBuffer() {
+			return buf;
+		}
+
+		void writeString(String theValue) {
+			byte[] bytes = theValue.getBytes(Charsets.UTF_8);
+			writeVarint(bytes.length);
+			write(bytes, 0, bytes.length);
+		}
+
+		void writeVarint(int theValue) {
+			int value = theValue;
+			while ((value & ~0x7F) != 0) {
+				write((value & 0x7F) | 0x80);
+				value >>>= 7;
+			}
+			write(value);
+		}
+	}
+
+	private static class UnsupportedContentException extends Exception {
+		private static final long serialVersionUID = 1L;
+
+		UnsupportedContentException(String theMessage) {
+			super(theMessage);
+		}
+	}
+
+}
@@ -0,0 +1,355 @@
+package ca.uhn.fhir.jpa.util;
+
+/*
+ * #%L
+ * HAPI FHIR JPA Server
+ * %%
+ * Copyright (C) 2014 - 2017 University Health Network
+ * %%
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * #L%
+ */
+
+import java.util.AbstractSet;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Iterator;
+import java.util.NoSuchElementException;
+
+/**
+ * A set of primitive <code>long</code> values (typically resource PIDs), stored in an
+ * open-addressing hash table with linear probing.
+ * <p>
+ * Each entry uses 8-16 bytes of memory, compared with roughly 50 bytes for a
+ * boxed {@link Long} in a {@link java.util.HashSet}. This class implements {@link java.util.Set Set&lt;Long&gt;}
+ * so that it can be passed anywhere a collection of PIDs is expected (including as a
+ * JPA query parameter), but callers should prefer the primitive methods
+ * ({@link #add(long)}, {@link #contains(long)}, {@link #remove(long)}) where possible in
+ * order to avoid boxing.
+ * </p>
+ * <p>
+ * The iterator returned by this class does not support {@link Iterator#remove()}. This class
+ * is not thread safe.
+ * </p>
+ */
+public class LongHashSet extends AbstractSet<Long> {
+
+	private static final int DEFAULT_CAPACITY = 16;
+	private static final long FREE = 0L;
+	private static final float LOAD_FACTOR = 0.6f;
+
+	/**
+	 * The free marker value can not be stored in the table, so it is tracked separately
+	 */
+	private boolean myContainsFree;
+	private int myMask;
+	private int myResizeThreshold;
+	private int mySize;
+	private long[] myTable;
+
+	/**
+	 * Constructor
+	 */
+	public LongHashSet() {
+		this(DEFAULT_CAPACITY);
+	}
+
+	/**
+	 * Constructor
+	 * 
+	 * @param theExpectedSize
+	 *           The number of elements the set is expected to hold without resizing
+	 */
+	public LongHashSet(int theExpectedSize) {
+		allocate(tableSizeFor(theExpectedSize));
+	}
+
+	/**
+	 * Copy constructor
+	 */
+	public LongHashSet(Collection<Long> theValues) {
+		this(theValues.size());
+		addAll(theValues);
+	}
+
+	@Override
+	public boolean add(Long theValue) {
+		return add(theValue.longValue());
+	}
+
+	/**
+	 * Adds a value to this set
+	 * 
+	 * @return Returns <code>true</code> if the value was not already present
+	 */
+	public boolean add(long theValue) {
+		if (theValue == FREE) {
+			if (myContainsFree) {
+				return false;
+			}
+			myContainsFree = true;
+			mySize++;
+			return true;
+		}
+
+		int index = indexOf(theValue);
+		if (myTable[index] == theValue) {
+			return false;
+		}
+		myTable[index] = theValue;
+		mySize++;
+		if (mySize > myResizeThreshold) {
+			rehash(myTable.length * 2);
+		}
+		return true;
+	}
+
+	@Override
+	public boolean addAll(Collection<? extends Long> theValues) {
+		boolean retVal = false;
+		if (theValues instanceof LongHashSet) {
+			LongHashSet other = (LongHashSet) theValues;
+			if (other.myContainsFree) {
+				retVal |= add(FREE);
+			}
+			for (long next : other.myTable) {
+				if (next != FREE) {
+					retVal |= add(next);
+				}
+			}
+		} else {
+			for (Long next : theValues) {
+				retVal |= add(next.longValue());
+			}
+		}
+		return retVal;
+	}
+
+	private void allocate(int theTableSize) {
+		myTable = new long[theTableSize];
+		myMask = theTableSize - 1;
+		myResizeThreshold = (int) (theTableSize * LOAD_FACTOR);
+	}
+
+	@Override
+	public void clear() {
+		Arrays.fill(myTable, FREE);
+		myContainsFree = false;
+		mySize = 0;
+	}
+
+	/**
+	 * Returns <code>true</code> if this set contains the given value
+	 */
+	public boolean contains(long theValue) {
+		if (theValue == FREE) {
+			return myContainsFree;
+		}
+		return myTable[indexOf(theValue)] == theValue;
+	}
+
+	@Override
+	public boolean contains(Object theValue) {
+		if (!(theValue instanceof Long)) {
+			return false;
+		}
+		return contains(((Long) theValue).longValue());
+	}
+
+	/**
+	 * Returns the slot containing the given value, or the free slot where it would be inserted
+	 */
+	private int indexOf(long theValue) {
+		int index = hash(theValue) & myMask;
+		while (true) {
+			long existing = myTable[index];
+			if (existing == FREE || existing == theValue) {
+				return index;
+			}
+			index = (index + 1) & myMask;
+		}
+	}
+
+	@Override
+	public boolean isEmpty() {
+		return mySize == 0;
+	}
+
+	@Override
+	public Iterator<Long> iterator() {
+		return new Iterator<Long>() {
+			private int myIndex = -1;
+			private boolean myReturnedFree = !myContainsFree;
+			private int myRemaining = mySize;
+
+			@Override
+			public boolean hasNext() {
+				return myRemaining > 0;
+			}
+
+			@Override
+			public Long next() {
+				if (myRemaining <= 0) {
+					throw new NoSuchElementException();
+				}
+				myRemaining--;
+				if (!myReturnedFree) {
+					myReturnedFree = true;
+					return FREE;
+				}
+				do {
+					myIndex++;
+				} while (myTable[myIndex] == FREE);
+				return myTable[myIndex];
+			}
+
+			@Override
+			public void remove() {
+				throw new UnsupportedOperationException();
+			}
+		};
+	}
+
+	private void rehash(int theNewTableSize) {
+		long[] oldTable = myTable;
+		allocate(theNewTableSize);
+		for (long next : oldTable) {
+			if (next != FREE) {
+				myTable[indexOf(next)] = next;
+			}
+		}
+	}
+
+	/**
+	 * Removes a value from this set
+	 * 
+	 * @return Returns <code>true</code> if the value was present
+	 */
+	public boolean remove(long theValue) {
+		if (theValue == FREE) {
+			if (!myContainsFree) {
+				return false;
+			}
+			myContainsFree = false;
+			mySize--;
+			return true;
+		}
+
+		int index = indexOf(theValue);
+		if (myTable[index] != theValue) {
+			return false;
+		}
+
+		/*
+		 * Shift any following entries in the same probe sequence back so that
+		 * lookups for them don't stop early at the slot we just freed
+		 */
+		int free = index;
+		int next = (index + 1) & myMask;
+		while (myTable[next] != FREE) {
+			int home = hash(myTable[next]) & myMask;
+			boolean canMove = free <= next ? (home <= free || home > next) : (home <= free && home > next);
+			if (canMove) {
+				myTable[free] = myTable[next];
+				free = next;
+			}
+			next = (next + 1) & myMask;
+		}
+		myTable[free] = FREE;
+		mySize--;
+		return true;
+	}
+
+	@Override
+	public boolean remove(Object theValue) {
+		if (!(theValue instanceof Long)) {
+			return false;
+		}
+		return remove(((Long) theValue).longValue());
+	}
+
+	@Override
+	public boolean removeAll(Collection<?> theValues) {
+		boolean retVal = false;
+		for (Object next : theValues) {
+			retVal |= remove(next);
+		}
+		return retVal;
+	}
+
+	/**
+	 * Removes any values which are not also in the given collection. If the
+	 * argument is also a {@link LongHashSet} no boxing takes place.
+	 */
+	@Override
+	public boolean retainAll(Collection<?> theValues) {
+		LongHashSet other;
+		if (theValues instanceof LongHashSet) {
+			other = (LongHashSet) theValues;
+		} else {
+			other = new LongHashSet(theValues.size());
+			for (Object next : theValues) {
+				if (next instanceof Long) {
+					other.add(((Long) next).longValue());
+				}
+			}
+		}
+
+		int oldSize = mySize;
+		long[] values = toLongArray();
+		clear();
+		for (long next : values) {
+			if (other.contains(next)) {
+				add(next);
+			}
+		}
+		return mySize != oldSize;
+	}
+
+	@Override
+	public int size() {
+		return mySize;
+	}
+
+	/**
+	 * Returns the contents of this set as a primitive array, in no particular order
+	 */
+	public long[] toLongArray() {
+		long[] retVal = new long[mySize];
+		int index = 0;
+		if (myContainsFree) {
+			retVal[index++] = FREE;
+		}
+		for (long next : myTable) {
+			if (next != FREE) {
+				retVal[index++] = next;
+			}
+		}
+		return retVal;
+	}
+
+	private static int hash(long theValue) {
+		long h = theValue * 0x9E3779B97F4A7C15L;
+		return (int) (h ^ (h >>> 32));
+	}
+
+	private static int tableSizeFor(int theExpectedSize) {
+		int minimum = (int) Math.ceil(Math.max(theExpectedSize, 1) / LOAD_FACTOR) + 1;
+		int retVal = DEFAULT_CAPACITY;
+		while (retVal < minimum) {
+			retVal <<= 1;
+		}
+		return retVal;
+	}
+
+}
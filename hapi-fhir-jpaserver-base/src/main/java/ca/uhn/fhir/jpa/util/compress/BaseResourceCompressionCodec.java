@@ -0,0 +1,74 @@
+package ca.uhn.fhir.jpa.util.compress;
+
+/*
+ * #%L
+ * HAPI FHIR JPA Server
+ * %%
+ * Copyright (C) 2014 - 2017 University Health Network
+ * %%
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * #L%
+ */
+
+import java.io.IOException;
+
+import com.google.common.base.Charsets;
+
+import ca.uhn.fhir.parser.DataFormatException;
+
+/**
+ * Base class for codecs, which takes care of text encoding and of
+ * recording {@link CompressionCodecMetrics metrics}
+ */
+public abstract class BaseResourceCompressionCodec implements IResourceCompressionCodec {
+
+	private final CompressionCodecMetrics myMetrics = new CompressionCodecMetrics();
+
+	@Override
+	public byte[] compress(String theEncoded) {
+		long start = System.nanoTime();
+		byte[] input = theEncoded.getBytes(Charsets.UTF_8);
+		byte[] retVal;
+		try {
+			retVal = doCompress(input);
+		} catch (IOException e) {
+			throw new DataFormatException("Failed to compress contents", e);
+		}
+		myMetrics.addCompress(input.length, retVal.length, System.nanoTime() - start);
+		return retVal;
+	}
+
+	@Override
+	public String decompress(byte[] theCompressed) {
+		long start = System.nanoTime();
+		byte[] output;
+		try {
+			output = doDecompress(theCompressed);
+		} catch (IOException e) {
+			throw new DataFormatException("Failed to decompress contents", e);
+		}
+		String retVal = new String(output, Charsets.UTF_8);
+		myMetrics.addDecompress(System.nanoTime() - start);
+		return retVal;
+	}
+
+	protected abstract byte[] doCompress(byte[] theInput) throws IOException;
+
+	protected abstract byte[] doDecompress(byte[] theInput) throws IOException;
+
+	@Override
+	public CompressionCodecMetrics getMetrics() {
+		return myMetrics;
+	}
+
+}
@@ -0,0 +1,132 @@
+package ca.uhn.fhir.jpa.util.compress;
+
+/*
+ * #%L
+ * HAPI FHIR JPA Server
+ * %%
+ * Copyright (C) 2014 - 2017 University Health Network
+ * %%
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * #L%
+ */
+
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.apache.commons.lang3.builder.ToStringBuilder;
+import org.apache.commons.lang3.builder.ToStringStyle;
+
+/**
+ * Running totals for a single {@link IResourceCompressionCodec}. All counters are
+ * cumulative since the codec was created (or since {@link #reset()} was called).
+ */
+public class CompressionCodecMetrics {
+
+	private final AtomicLong myCompressCount = new AtomicLong();
+	private final AtomicLong myCompressedBytes = new AtomicLong();
+	private final AtomicLong myCompressNanos = new AtomicLong();
+	private final AtomicLong myDecompressCount = new AtomicLong();
+	private final AtomicLong myDecompressNanos = new AtomicLong();
+	private final AtomicLong myUncompressedBytes = new AtomicLong();
+
+	void addCompress(long theUncompressedBytes, long theCompressedBytes, long theNanos) {
+		myCompressCount.incrementAndGet();
+		myUncompressedBytes.addAndGet(theUncompressedBytes);
+		myCompressedBytes.addAndGet(theCompressedBytes);
+		myCompressNanos.addAndGet(theNanos);
+	}
+
+	void addDecompress(long theNanos) {
+		myDecompressCount.incrementAndGet();
+		myDecompressNanos.addAndGet(theNanos);
+	}
+
+	/**
+	 * Returns the number of times content has been compressed
+	 */
+	public long getCompressCount() {
+		return myCompressCount.get();
+	}
+
+	/**
+	 * Returns the total size in bytes of all compressed output
+	 */
+	public long getCompressedBytes() {
+		return myCompressedBytes.get();
+	}
+
+	/**
+	 * Returns the ratio of the uncompressed (UTF-8) size to the compressed size of all content
+	 * compressed so far, e.g. <code>4.0</code> means the compressed output is a quarter
+	 * of the original size. Returns <code>0</code> if nothing has been compressed.
+	 */
+	public double getCompressionRatio() {
+		long compressed = myCompressedBytes.get();
+		if (compressed == 0) {
+			return 0;
+		}
+		return (double) myUncompressedBytes.get() / compressed;
+	}
+
+	/**
+	 * Returns the total time in milliseconds spent compressing
+	 */
+	public long getCompressMillis() {
+		return TimeUnit.NANOSECONDS.toMillis(myCompressNanos.get());
+	}
+
+	/**
+	 * Returns the number of times content has been decompressed
+	 */
+	public long getDecompressCount() {
+		return myDecompressCount.get();
+	}
+
+	/**
+	 * Returns the total time in milliseconds spent decompressing
+	 */
+	public long getDecompressMillis() {
+		return TimeUnit.NANOSECONDS.toMillis(myDecompressNanos.get());
+	}
+
+	/**
+	 * Returns the total size in bytes (UTF-8) of all content passed in for compression
+	 */
+	public long getUncompressedBytes() {
+		return myUncompressedBytes.get();
+	}
+
+	/**
+	 * Resets all counters to zero
+	 */
+	public void reset() {
+		myCompressCount.set(0);
+		myCompressedBytes.set(0);
+		myCompressNanos.set(0);
+		myDecompressCount.set(0);
+		myDecompressNanos.set(0);
+		myUncompressedBytes.set(0);
+	}
+
+	@Override
+	public String toString() {
+		ToStringBuilder b = new ToStringBuilder(this, ToStringStyle.SHORT_PREFIX_STYLE);
+		b.append("compressCount", getCompressCount());
+		b.append("compressMillis", getCompressMillis());
+		b.append("ratio", String.format("%.2f", getCompressionRatio()));
+		b.append("decompressCount", getDecompressCount());
+		b.append("decompressMillis", getDecompressMillis());
+		return b.toString();
+	}
+
+}
@@ -0,0 +1,164 @@
+package ca.uhn.fhir.jpa.util.compress;
+
+/*
+ * #%L
+ * HAPI FHIR JPA Server
+ * %%
+ * Copyright (C) 2014 - 2017 University Health Network
+ * %%
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * #L%
+ */
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.util.zip.DataFormatException;
+import java.util.zip.Deflater;
+import java.util.zip.Inflater;
+
+import org.apache.commons.lang3.Validate;
+
+import com.google.common.base.Charsets;
+
+/**
+ * Raw deflate compression using a preset dictionary. Most stored resources are small,
+ * and a plain compressor spends much of such a resource learning the property names and
+ * code system URLs which appear in nearly every FHIR resource. Priming the compressor with
+ * a dictionary of these strings gives a noticeably better ratio for small resources, and
+ * skipping the GZIP header and checksum saves a little time and space.
+ * <p>
+ * The first byte of the compressed output is the ID of the dictionary which was used, so
+ * that content is never inflated using the wrong dictionary. A dictionary must never be
+ * modified once content has been stored using it; instead a new dictionary should be
+ * created with a new ID.
+ * </p>
+ * <p>
+ * This is the codec used by the {@link ca.uhn.fhir.jpa.entity.ResourceEncodingEnum#JSOND JSOND}
+ * encoding, using the {@link #DEFAULT_DICTIONARY default dictionary}.
+ * </p>
+ */
+public class DeflateDictionaryCompressionCodec extends BaseResourceCompressionCodec {
+
+	/**
+	 * Strings which are common in JSON encoded FHIR resources. Deflate favours matches which are
+	 * closer to the data being compressed, so the most common strings are at the end.
+	 */
+	public static final String DEFAULT_DICTIONARY = ""
+			+ "\"http://hl7.org/fhir/StructureDefinition/\"http://hl7.org/fhir/ValueSet/\"http://loinc.org\""
+			+ "\"http://snomed.info/sct\"http://unitsofmeasure.org\"http://www.nlm.nih.gov/research/umls/rxnorm\""
+			+ "\"http://hl7.org/fhir/v2/0203\"http://hl7.org/fhir/v3/ActCode\"http://hl7.org/fhir/observation-category\""
+			+ "\"effectiveDateTime\":\"\",\"issued\":\"\",\"performer\":[{\"reference\":\"Practitioner/\"}],\"encounter\":{\"reference\":\"Encounter/"
+			+ "\"interpretation\":{\"coding\":[{\"system\":\"\",\"referenceRange\":[{\"low\":{\"value\":\"high\":{\"value\":"
+			+ "\"valueQuantity\":{\"value\":,\"unit\":\"\",\"system\":\"http://unitsofmeasure.org\",\"code\":\""
+			+ "\"valueString\":\"\"valueCodeableConcept\":{\"valueBoolean\":true\"valueDateTime\":\"\"valueReference\":{\"reference\":\""
+			+ "\"telecom\":[{\"system\":\"phone\",\"value\":\"\",\"use\":\"home\"},{\"system\":\"email\",\"value\":\"\",\"use\":\"work\"}]"
+			+ "\"address\":[{\"use\":\"home\",\"line\":[\"\"],\"city\":\"\",\"state\":\"\",\"postalCode\":\"\",\"country\":\"\"}]"
+			+ "\"gender\":\"male\"\"gender\":\"female\",\"birthDate\":\"\"deceasedBoolean\":false\"managingOrganization\":{\"reference\":\"Organization/"
+			+ "\"name\":[{\"use\":\"official\",\"family\":\"\",\"given\":[\"\"]}]\"identifier\":[{\"use\":\"usual\",\"type\":{\"coding\":[{\"system\":\""
+			+ "\"extension\":[{\"url\":\"\",\"valueCoding\":{\"system\":\"\",\"modifierExtension\":[{\"url\":\""
+			+ "\"text\":{\"status\":\"generated\",\"div\":\"<div xmlns=\\\"http://www.w3.org/1999/xhtml\\\">\"</div>\"},"
+			+ "\"status\":\"final\"\"status\":\"active\"\"status\":\"completed\"\"active\":true,\"category\":[{\"coding\":[{\"system\":\""
+			+ "\"meta\":{\"versionId\":\"1\",\"lastUpdated\":\"\",\"profile\":[\"\"],\"security\":[{\"system\":\"\",\"tag\":[{\"system\":\""
+			+ "\"subject\":{\"reference\":\"Patient/\",\"display\":\"\"},\"patient\":{\"reference\":\"Patient/"
+			+ "\"code\":{\"coding\":[{\"system\":\"\",\"code\":\"\",\"display\":\"\"}],\"text\":\"\"},\"id\":\"\",\"value\":\""
+			+ "{\"resourceType\":\"Observation\"{\"resourceType\":\"Patient\",\"id\":\"";
+
+	/**
+	 * The ID of {@link #DEFAULT_DICTIONARY}
+	 */
+	public static final byte DEFAULT_DICTIONARY_ID = 1;
+
+	private final byte[] myDictionary;
+	private final byte myDictionaryId;
+	private final int myLevel;
+
+	/**
+	 * Constructor which uses the default dictionary
+	 */
+	public DeflateDictionaryCompressionCodec() {
+		this(DEFAULT_DICTIONARY_ID, DEFAULT_DICTIONARY.getBytes(Charsets.UTF_8), Deflater.DEFAULT_COMPRESSION);
+	}
+
+	/**
+	 * Constructor
+	 * 
+	 * @param theDictionaryId
+	 *           The ID which is written with all compressed content, and checked when decompressing
+	 * @param theDictionary
+	 *           The preset dictionary. See {@link Deflater#setDictionary(byte[])} for details.
+	 * @param theLevel
+	 *           The compression level, e.g. {@link Deflater#BEST_SPEED}
+	 */
+	public DeflateDictionaryCompressionCodec(byte theDictionaryId, byte[] theDictionary, int theLevel) {
+		Validate.notNull(theDictionary, "theDictionary must not be null");
+		myDictionaryId = theDictionaryId;
+		myDictionary = theDictionary.clone();
+		myLevel = theLevel;
+	}
+
+	@Override
+	protected byte[] doCompress(byte[] theInput) throws IOException {
+		Deflater deflater = new Deflater(myLevel, true);
+		try {
+			deflater.setDictionary(myDictionary);
+			deflater.setInput(theInput);
+			deflater.finish();
+
+			ByteArrayOutputStream os = new ByteArrayOutputStream(theInput.length / 3 + 16);
+			os.write(myDictionaryId);
+			byte[] buffer = new byte[4096];
+			while (!deflater.finished()) {
+				int count = deflater.deflate(buffer);
+				os.write(buffer, 0, count);
+			}
+			return os.toByteArray();
+		} finally {
+			deflater.end();
+		}
+	}
+
+	@Override
+	protected byte[] doDecompress(byte[] theInput) throws IOException {
+		if (theInput.length == 0 || theInput[0] != myDictionaryId) {
+			throw new IOException("Content was not compressed using dictionary " + myDictionaryId);
+		}
+
+		Inflater inflater = new Inflater(true);
+		try {
+			inflater.setDictionary(myDictionary);
+			/*
+			 * Raw inflate may need one extra byte past the end of the
+			 * data, so pass in a padded copy
+			 */
+			byte[] input = new byte[theInput.length];
+			System.arraycopy(theInput, 1, input, 0, theInput.length - 1);
+			inflater.setInput(input);
+
+			ByteArrayOutputStream os = new ByteArrayOutputStream(theInput.length * 4);
+			byte[] buffer = new byte[4096];
+			while (!inflater.finished()) {
+				int count = inflater.inflate(buffer);
+				if (count == 0 && (inflater.needsInput() || inflater.needsDictionary())) {
+					throw new IOException("Unexpected end of compressed content");
+				}
+				os.write(buffer, 0, count);
+			}
+			return os.toByteArray();
+		} catch (DataFormatException e) {
+			throw new IOException(e);
+		} finally {
+			inflater.end();
+		}
+	}
+
+}
@@ -0,0 +1,56 @@
+package ca.uhn.fhir.jpa.util.compress;
+
+/*
+ * #%L
+ * HAPI FHIR JPA Server
+ * %%
+ * Copyright (C) 2014 - 2017 University Health Network
+ * %%
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * #L%
+ */
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.util.zip.GZIPInputStream;
+import java.util.zip.GZIPOutputStream;
+
+import org.apache.commons.io.IOUtils;
+
+/**
+ * Standard GZIP compression. This is the codec used by the
+ * {@link ca.uhn.fhir.jpa.entity.ResourceEncodingEnum#JSONC JSONC} encoding.
+ */
+public class GZipCompressionCodec extends BaseResourceCompressionCodec {
+
+	@Override
+	protected byte[] doCompress(byte[] theInput) throws IOException {
+		ByteArrayOutputStream os = new ByteArrayOutputStream();
+		GZIPOutputStream gos = new GZIPOutputStream(os);
+		gos.write(theInput);
+		gos.close();
+		return os.toByteArray();
+	}
+
+	@Override
+	protected byte[] doDecompress(byte[] theInput) throws IOException {
+		GZIPInputStream is = new GZIPInputStream(new ByteArrayInputStream(theInput));
+		try {
+			return IOUtils.toByteArray(is);
+		} finally {
+			is.close();
+		}
+	}
+
+}
@@ -0,0 +1,49 @@
+package ca.uhn.fhir.jpa.util.compress;
+
+/*
+ * #%L
+ * HAPI FHIR JPA Server
+ * %%
+ * Copyright (C) 2014 - 2017 University Health Network
+ * %%
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * #L%
+ */
+
+/**
+ * Compresses and decompresses the encoded text of a resource for storage
+ * in the database.
+ * <p>
+ * Implementations must be thread safe, and must always be able to decompress
+ * content which they have previously written, since stored rows are never
+ * rewritten when an implementation changes.
+ * </p>
+ */
+public interface IResourceCompressionCodec {
+
+	/**
+	 * Compresses the given encoded resource text
+	 */
+	byte[] compress(String theEncoded);
+
+	/**
+	 * Decompresses content previously returned by {@link #compress(String)}
+	 */
+	String decompress(byte[] theCompressed);
+
+	/**
+	 * Returns the running totals for this codec
+	 */
+	CompressionCodecMetrics getMetrics();
+
+}
@@ -0,0 +1,54 @@
+package ca.uhn.fhir.jpa.util.compress;
+
+/*
+ * #%L
+ * HAPI FHIR JPA Server
+ * %%
+ * Copyright (C) 2014 - 2017 University Health Network
+ * %%
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * #L%
+ */
+
+import java.io.IOException;
+
+import org.iq80.snappy.CorruptionException;
+import org.iq80.snappy.Snappy;
+
+/**
+ * <a href="https://google.github.io/snappy/">Snappy</a> compression, using a pure
+ * Java implementation. Snappy is an LZ77 style codec which gives up some compression
+ * ratio compared to GZIP in exchange for much faster compression and decompression.
+ * This is the codec used by the {@link ca.uhn.fhir.jpa.entity.ResourceEncodingEnum#JSONS JSONS}
+ * encoding.
+ */
+public class SnappyCompressionCodec extends BaseResourceCompressionCodec {
+
+	@Override
+	protected byte[] doCompress(byte[] theInput) throws IOException {
+		return Snappy.compress(theInput);
+	}
+
+	@Override
+	protected byte[] doDecompress(byte[] theInput) throws IOException {
+		try {
+			return Snappy.uncompress(theInput, 0, theInput.length);
+		} catch (CorruptionException e) {
+			throw new IOException(e);
+		} catch (IndexOutOfBoundsException e) {
+			// Thrown by the decoder for some types of truncated or corrupt content
+			throw new IOException(e);
+		}
+	}
+
+}
@@ -0,0 +1,107 @@
+package ca.uhn.fhir.jpa.dao.dstu3;
+
+import static org.junit.Assert.*;
+
+import org.hl7.fhir.dstu3.model.Bundle;
+import org.hl7.fhir.dstu3.model.Bundle.BundleType;
+import org.hl7.fhir.dstu3.model.Bundle.HTTPVerb;
+import org.hl7.fhir.dstu3.model.IdType;
+import org.hl7.fhir.dstu3.model.Observation;
+import org.hl7.fhir.dstu3.model.Patient;
+import org.hl7.fhir.dstu3.model.Reference;
+import org.hl7.fhir.instance.model.api.IIdType;
+import org.junit.AfterClass;
+import org.junit.Test;
+
+import ca.uhn.fhir.rest.server.exceptions.InvalidRequestException;
+import ca.uhn.fhir.rest.server.exceptions.ResourceNotFoundException;
+import ca.uhn.fhir.util.TestUtil;
+
+public class FhirResourceDaoDstu3ForcedIdCacheTest extends BaseJpaDstu3Test {
+
+	private IIdType createPatientWithForcedId(String theId) {
+		Patient p = new Patient();
+		p.setId("Patient/" + theId);
+		p.addName().setFamily(theId);
+		return myPatientDao.update(p, mySrd).getId().toUnqualifiedVersionless();
+	}
+
+	@Test
+	public void testCreatedForcedIdIsCached() {
+		IIdType id = createPatientWithForcedId("testCreatedForcedIdIsCached");
+
+		long hits = myForcedIdCacheSvc.getHitCount();
+		long misses = myForcedIdCacheSvc.getMissCount();
+		assertEquals("testCreatedForcedIdIsCached", myPatientDao.read(id, mySrd).getNameFirstRep().getFamily());
+		assertTrue(myForcedIdCacheSvc.getHitCount() > hits);
+		assertEquals(misses, myForcedIdCacheSvc.getMissCount());
+	}
+
+	@Test
+	public void testReadLooksUpOnce() {
+		IIdType id = createPatientWithForcedId("testReadLooksUpOnce");
+		myForcedIdCacheSvc.clear();
+
+		long hits = myForcedIdCacheSvc.getHitCount();
+		long misses = myForcedIdCacheSvc.getMissCount();
+		myPatientDao.read(id, mySrd);
+		myPatientDao.read(id, mySrd);
+		myPatientDao.read(id, mySrd);
+		assertEquals(misses + 1, myForcedIdCacheSvc.getMissCount());
+		assertTrue(myForcedIdCacheSvc.getHitCount() >= hits + 2);
+	}
+
+	@Test
+	public void testRolledBackForcedIdIsNotCached() {
+		Bundle request = new Bundle();
+		request.setType(BundleType.TRANSACTION);
+		Patient p = new Patient();
+		p.setId("Patient/testRolledBack");
+		request.addEntry().setResource(p).getRequest().setMethod(HTTPVerb.PUT).setUrl("Patient/testRolledBack");
+		Observation o = new Observation();
+		o.setSubject(new Reference("Patient/DOESNT_EXIST"));
+		request.addEntry().setResource(o).getRequest().setMethod(HTTPVerb.POST).setUrl("Observation");
+		try {
+			mySystemDao.transaction(mySrd, request);
+			fail();
+		} catch (InvalidRequestException e) {
+			// good
+		}
+
+		try {
+			myPatientDao.read(new IdType("Patient/testRolledBack"), mySrd);
+			fail();
+		} catch (ResourceNotFoundException e) {
+			// good
+		}
+	}
+
+	@Test
+	public void testTransactionPrewarmsReferences() {
+		int count = 20;
+		for (int i = 0; i < count; i++) {
+			createPatientWithForcedId("testPrewarm" + i);
+		}
+		myForcedIdCacheSvc.clear();
+
+		Bundle request = new Bundle();
+		request.setType(BundleType.TRANSACTION);
+		for (int i = 0; i < count; i++) {
+			Observation o = new Observation();
+			o.setSubject(new Reference("Patient/testPrewarm" + i));
+			request.addEntry().setResource(o).getRequest().setMethod(HTTPVerb.POST).setUrl("Observation");
+		}
+
+		long hits = myForcedIdCacheSvc.getHitCount();
+		long misses = myForcedIdCacheSvc.getMissCount();
+		mySystemDao.transaction(mySrd, request);
+		assertEquals(misses, myForcedIdCacheSvc.getMissCount());
+		assertTrue(myForcedIdCacheSvc.getHitCount() >= hits + count);
+	}
+
+	@AfterClass
+	public static void afterClassClearContext() {
+		TestUtil.clearAllStaticFieldsForUnitTest();
+	}
+
+}
@@ -0,0 +1,125 @@
+package ca.uhn.fhir.jpa.dao.dstu3;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+
+import java.util.List;
+
+import org.hl7.fhir.dstu3.model.Bundle;
+import org.hl7.fhir.dstu3.model.Bundle.BundleType;
+import org.hl7.fhir.dstu3.model.Meta;
+import org.hl7.fhir.dstu3.model.Organization;
+import org.hl7.fhir.dstu3.model.Patient;
+import org.hl7.fhir.dstu3.model.Reference;
+import org.hl7.fhir.dstu3.model.Resource;
+import org.hl7.fhir.instance.model.api.IBaseResource;
+import org.hl7.fhir.instance.model.api.IIdType;
+import org.junit.After;
+import org.junit.AfterClass;
+import org.junit.Before;
+import org.junit.Test;
+
+import ca.uhn.fhir.jpa.dao.DaoConfig;
+import ca.uhn.fhir.jpa.dao.SearchParameterMap;
+import ca.uhn.fhir.jpa.entity.ResourceEncodingEnum;
+import ca.uhn.fhir.narrative.INarrativeGenerator;
+import ca.uhn.fhir.parser.LazyResourceBody;
+import ca.uhn.fhir.rest.param.StringParam;
+import ca.uhn.fhir.rest.server.IBundleProvider;
+import ca.uhn.fhir.rest.server.IPassThroughBundleProvider;
+import ca.uhn.fhir.util.TestUtil;
+
+public class FhirResourceDaoDstu3LazyBodyTest extends BaseJpaDstu3Test {
+	private static final org.slf4j.Logger ourLog = org.slf4j.LoggerFactory.getLogger(FhirResourceDaoDstu3LazyBodyTest.class);
+
+	private INarrativeGenerator myNarrativeGenerator;
+
+	@After
+	public void after() {
+		myDaoConfig.setResourceEncoding(new DaoConfig().getResourceEncoding());
+		myFhirCtx.setNarrativeGenerator(myNarrativeGenerator);
+	}
+
+	@Before
+	public void before() {
+		myNarrativeGenerator = myFhirCtx.getNarrativeGenerator();
+		myFhirCtx.setNarrativeGenerator(null);
+	}
+
+	private String encodeAsBundle(List<IBaseResource> theResources) {
+		Bundle bundle = new Bundle();
+		bundle.setId("bundle");
+		bundle.setType(BundleType.SEARCHSET);
+		for (IBaseResource next : theResources) {
+			bundle.addEntry().setResource((Resource) next);
+		}
+		return myFhirCtx.newJsonParser().encodeResourceToString(bundle);
+	}
+
+	@Test
+	public void testSearchWithLazyBodies() {
+		for (ResourceEncodingEnum next : ResourceEncodingEnum.values()) {
+			myDaoConfig.setResourceEncoding(next);
+
+			Organization org = new Organization();
+			org.setId("#org");
+			org.setName("Org");
+
+			Patient p = new Patient();
+			p.getMeta().addTag("http://example.com/tags", "created", null);
+			p.addName().setFamily("testSearchWithLazyBodies").addGiven(next.name());
+			p.getContained().add(org);
+			p.setManagingOrganization(new Reference("#org"));
+			IIdType id = myPatientDao.create(p, mySrd).getId().toUnqualifiedVersionless();
+
+			p.setId(id);
+			p.setActive(true);
+			myPatientDao.update(p, mySrd);
+
+			Meta meta = new Meta();
+			meta.addTag("http://example.com/tags", "added", null);
+			myPatientDao.metaAddOperation(id, meta, mySrd);
+		}
+
+		SearchParameterMap map = new SearchParameterMap();
+		map.add(Patient.SP_FAMILY, new StringParam("testSearchWithLazyBodies"));
+		IBundleProvider found = myPatientDao.search(map);
+		assertEquals(ResourceEncodingEnum.values().length, found.size());
+
+		List<IBaseResource> parsed = found.getResources(0, found.size());
+		List<IBaseResource> lazy = ((IPassThroughBundleProvider) found).getResourcesWithLazyBodies(0, found.size());
+		assertEquals(parsed.size(), lazy.size());
+
+		for (IBaseResource next : lazy) {
+			Patient patient = (Patient) next;
+			assertEquals("2", patient.getIdElement().getVersionIdPart());
+			assertEquals(2, patient.getMeta().getTag().size());
+			if (patient.hasName()) {
+				// Binary bodies are parsed right away
+				assertEquals(ResourceEncodingEnum.BJSON.name(), patient.getNameFirstRep().getGivenAsSingleString());
+				assertNull(LazyResourceBody.get(patient));
+			} else {
+				assertNotNull(LazyResourceBody.get(patient));
+			}
+		}
+
+		String expected = encodeAsBundle(parsed);
+		String actual = encodeAsBundle(lazy);
+		ourLog.info(actual);
+		assertEquals(expected, actual);
+
+		// Parsing the bodies produces the same resources as a normal search
+		for (int i = 0; i < lazy.size(); i++) {
+			LazyResourceBody.ensureParsed(myFhirCtx, lazy.get(i));
+			assertNull(LazyResourceBody.get(lazy.get(i)));
+			assertEquals(myFhirCtx.newJsonParser().encodeResourceToString(parsed.get(i)), myFhirCtx.newJsonParser().encodeResourceToString(lazy.get(i)));
+		}
+	}
+
+	@AfterClass
+	public static void afterClassClearContext() {
+		TestUtil.clearAllStaticFieldsForUnitTest();
+	}
+
+}
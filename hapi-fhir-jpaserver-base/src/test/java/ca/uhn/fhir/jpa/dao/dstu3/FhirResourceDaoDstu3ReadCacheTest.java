@@ -0,0 +1,200 @@
+package ca.uhn.fhir.jpa.dao.dstu3;
+
+import static org.junit.Assert.*;
+
+import org.hl7.fhir.dstu3.model.Meta;
+import org.hl7.fhir.dstu3.model.Patient;
+import org.hl7.fhir.instance.model.api.IIdType;
+import org.junit.After;
+import org.junit.AfterClass;
+import org.junit.Before;
+import org.junit.Test;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.transaction.TransactionStatus;
+import org.springframework.transaction.support.TransactionCallbackWithoutResult;
+import org.springframework.transaction.support.TransactionTemplate;
+
+import ca.uhn.fhir.jpa.dao.DaoConfig;
+import ca.uhn.fhir.jpa.dao.ResourceReadCacheSvc;
+import ca.uhn.fhir.rest.server.exceptions.ResourceGoneException;
+import ca.uhn.fhir.util.TestUtil;
+
+public class FhirResourceDaoDstu3ReadCacheTest extends BaseJpaDstu3Test {
+
+	@Autowired
+	private ResourceReadCacheSvc myResourceReadCacheSvc;
+
+	@After
+	public void after() {
+		myDaoConfig.setResourceReadCacheEnabled(new DaoConfig().isResourceReadCacheEnabled());
+		myDaoConfig.setResourceReadCacheClusterSafe(new DaoConfig().isResourceReadCacheClusterSafe());
+	}
+
+	@Before
+	public void before() {
+		myDaoConfig.setResourceReadCacheEnabled(true);
+		myResourceReadCacheSvc.clear();
+	}
+
+	private IIdType createPatient(String theFamily) {
+		Patient p = new Patient();
+		p.addName().setFamily(theFamily);
+		return myPatientDao.create(p, mySrd).getId();
+	}
+
+	private long hits() {
+		return myResourceReadCacheSvc.getStats().hitCount();
+	}
+
+	/**
+	 * Simulates another server updating the resource without this server's cache knowing about it
+	 */
+	private void incrementVersionBehindCache(final IIdType theId) {
+		new TransactionTemplate(myTxManager).execute(new TransactionCallbackWithoutResult() {
+			@Override
+			protected void doInTransactionWithoutResult(TransactionStatus theStatus) {
+				myEntityManager
+						.createQuery("UPDATE ResourceTable r SET r.myVersion = r.myVersion + 1 WHERE r.myId = :pid")
+						.setParameter("pid", theId.getIdPartAsLong())
+						.executeUpdate();
+			}
+		});
+	}
+
+	@Test
+	public void testClusterSafeDetectsChangesFromOtherServers() {
+		IIdType id = createPatient("testClusterSafe").toUnqualifiedVersionless();
+		assertEquals("1", myPatientDao.read(id, mySrd).getIdElement().getVersionIdPart());
+
+		incrementVersionBehindCache(id);
+
+		long hits = hits();
+		assertEquals("2", myPatientDao.read(id, mySrd).getIdElement().getVersionIdPart());
+		assertEquals(hits, hits());
+	}
+
+	@Test
+	public void testDeleteInvalidatesRead() {
+		IIdType id = createPatient("testDelete").toUnqualifiedVersionless();
+		myPatientDao.read(id, mySrd);
+		myPatientDao.delete(id, mySrd);
+		try {
+			myPatientDao.read(id, mySrd);
+			fail();
+		} catch (ResourceGoneException e) {
+			// good
+		}
+	}
+
+	@Test
+	public void testDisabled() {
+		myDaoConfig.setResourceReadCacheEnabled(false);
+		IIdType id = createPatient("testDisabled").toUnqualifiedVersionless();
+		myPatientDao.read(id, mySrd);
+		myPatientDao.read(id, mySrd);
+		assertEquals(0, myResourceReadCacheSvc.getSize());
+	}
+
+	@Test
+	public void testMetaAddInvalidatesRead() {
+		IIdType id = createPatient("testMetaAdd").toUnqualifiedVersionless();
+		myPatientDao.read(id, mySrd);
+
+		Meta meta = new Meta();
+		meta.addTag().setSystem("http://foo").setCode("bar");
+		myPatientDao.metaAddOperation(id, meta, mySrd);
+
+		Patient read = myPatientDao.read(id, mySrd);
+		assertEquals(1, read.getMeta().getTag().size());
+		assertEquals("bar", read.getMeta().getTag().get(0).getCode());
+	}
+
+	@Test
+	public void testMetaAddOnlyEvictsThatResource() {
+		IIdType id = createPatient("testMetaAddOnly1").toUnqualifiedVersionless();
+		IIdType id2 = createPatient("testMetaAddOnly2").toUnqualifiedVersionless();
+		assertEquals(2, myResourceReadCacheSvc.getSize());
+
+		Meta meta = new Meta();
+		meta.addTag().setSystem("http://foo").setCode("bar");
+		myPatientDao.metaAddOperation(id, meta, mySrd);
+		assertEquals(1, myResourceReadCacheSvc.getSize());
+
+		long hits = hits();
+		assertEquals("testMetaAddOnly2", myPatientDao.read(id2, mySrd).getNameFirstRep().getFamily());
+		assertEquals(hits + 1, hits());
+	}
+
+	@Test
+	public void testNonClusterSafeReadsWithoutDatabase() {
+		myDaoConfig.setResourceReadCacheClusterSafe(false);
+		IIdType id = createPatient("testNonClusterSafe").toUnqualifiedVersionless();
+
+		incrementVersionBehindCache(id);
+
+		// Changes made by other servers aren't seen, since the database isn't checked
+		long hits = hits();
+		Patient read = myPatientDao.read(id, mySrd);
+		assertEquals("1", read.getIdElement().getVersionIdPart());
+		assertEquals("testNonClusterSafe", read.getNameFirstRep().getFamily());
+		assertEquals(hits + 1, hits());
+	}
+
+	@Test
+	public void testReadIsServedFromCache() {
+		IIdType id = createPatient("testRead").toUnqualifiedVersionless();
+
+		long hits = hits();
+		Patient read = myPatientDao.read(id, mySrd);
+		assertEquals("testRead", read.getNameFirstRep().getFamily());
+		assertEquals(id.getValue(), read.getIdElement().toUnqualifiedVersionless().getValue());
+		assertEquals("1", read.getIdElement().getVersionIdPart());
+		assertNotNull(read.getMeta().getLastUpdated());
+		assertEquals(hits + 1, hits());
+
+		// A different instance is returned each time
+		read.getNameFirstRep().setFamily("modified");
+		assertEquals("testRead", myPatientDao.read(id, mySrd).getNameFirstRep().getFamily());
+		assertEquals(hits + 2, hits());
+	}
+
+	@Test
+	public void testReadWithForcedId() {
+		Patient p = new Patient();
+		p.setId("Patient/testReadWithForcedId");
+		p.addName().setFamily("forced");
+		IIdType id = myPatientDao.update(p, mySrd).getId().toUnqualifiedVersionless();
+
+		long hits = hits();
+		Patient read = myPatientDao.read(id, mySrd);
+		assertEquals("Patient/testReadWithForcedId", read.getIdElement().toUnqualifiedVersionless().getValue());
+		assertEquals(hits + 1, hits());
+	}
+
+	@Test
+	public void testUpdateInvalidatesReadButNotVread() {
+		IIdType id = createPatient("testUpdate").toUnqualifiedVersionless();
+		myPatientDao.read(id, mySrd);
+
+		Patient p = new Patient();
+		p.setId(id);
+		p.addName().setFamily("testUpdate2");
+		myPatientDao.update(p, mySrd);
+
+		Patient read = myPatientDao.read(id, mySrd);
+		assertEquals("2", read.getIdElement().getVersionIdPart());
+		assertEquals("testUpdate2", read.getNameFirstRep().getFamily());
+
+		long hits = hits();
+		read = myPatientDao.read(id.withVersion("1"), mySrd);
+		assertEquals("1", read.getIdElement().getVersionIdPart());
+		assertEquals("testUpdate", read.getNameFirstRep().getFamily());
+		assertEquals(hits + 1, hits());
+	}
+
+	@AfterClass
+	public static void afterClassClearContext() {
+		TestUtil.clearAllStaticFieldsForUnitTest();
+	}
+
+}
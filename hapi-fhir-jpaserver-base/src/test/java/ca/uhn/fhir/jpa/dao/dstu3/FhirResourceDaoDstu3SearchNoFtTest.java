@@ -1507,6 +1507,9 @@ public class FhirResourceDaoDstu3SearchNoFtTest extends BaseJpaDstu3Test {
 	public final void after() {
 		myDaoConfig.setExpireSearchResults(new DaoConfig().isExpireSearchResults());
 		myDaoConfig.setExpireSearchResultsAfterMillis(new DaoConfig().getExpireSearchResultsAfterMillis());
+		myDaoConfig.setStreamingSearchEnabled(new DaoConfig().isStreamingSearchEnabled());
+		myDaoConfig.setStreamingSearchFirstPageSize(new DaoConfig().getStreamingSearchFirstPageSize());
+		myDaoConfig.setResourceParsingThreadCount(new DaoConfig().getResourceParsingThreadCount());
 	}
 	
 	@Autowired
@@ -1634,6 +1637,59 @@ public class FhirResourceDaoDstu3SearchNoFtTest extends BaseJpaDstu3Test {
 
 	}
 
+	@Test
+	public void testSearchSortedLargePagePreservesOrder() {
+		List<String> ids = new ArrayList<String>();
+		for (int i = 0; i < 25; i++) {
+			Patient p = new Patient();
+			p.addIdentifier().setSystem("urn:system").setValue("testSearchSortedLargePage");
+			p.addName().setFamily(String.format("Family%02d", 24 - i));
+			ids.add(0, myPatientDao.create(p, mySrd).getId().toUnqualifiedVersionless().getValue());
+		}
+
+		SearchParameterMap map = new SearchParameterMap();
+		map.add(Patient.SP_IDENTIFIER, new TokenParam("urn:system", "testSearchSortedLargePage"));
+		map.setSort(new SortSpec(Patient.SP_FAMILY));
+		myDaoConfig.setResourceParsingThreadCount(4);
+		IBundleProvider found = myPatientDao.search(map);
+		assertEquals(ids, toUnqualifiedVersionlessIdValues(found));
+
+		myDaoConfig.setResourceParsingThreadCount(1);
+		found = myPatientDao.search(map);
+		assertEquals(ids, toUnqualifiedVersionlessIdValues(found));
+	}
+
+	@Test
+	public void testSearchStreaming() {
+		myDaoConfig.setStreamingSearchEnabled(true);
+		myDaoConfig.setStreamingSearchFirstPageSize(5);
+
+		List<String> ids = new ArrayList<String>();
+		for (int i = 0; i < 30; i++) {
+			Observation obs = new Observation();
+			obs.getCode().addCoding().setSystem("urn:system").setCode("testSearchStreaming");
+			ids.add(myObservationDao.create(obs, mySrd).getId().toUnqualifiedVersionless().getValue());
+		}
+
+		SearchParameterMap map = new SearchParameterMap();
+		map.add(Observation.SP_CODE, new TokenParam("urn:system", "testSearchStreaming"));
+		IBundleProvider found = myObservationDao.search(map);
+		assertEquals(30, found.size());
+		assertThat(toUnqualifiedVersionlessIdValues(found), containsInAnyOrder(ids.toArray(new String[ids.size()])));
+
+		// A second page which is not yet available should wait for the background load
+		map = new SearchParameterMap();
+		map.add(Observation.SP_CODE, new TokenParam("urn:system", "testSearchStreaming"));
+		found = myObservationDao.search(map);
+		assertEquals(10, found.getResources(20, 30).size());
+
+		// Results which fit in the first page are loaded synchronously
+		map = new SearchParameterMap();
+		map.add(Observation.SP_CODE, new TokenParam("urn:system", "foo"));
+		found = myObservationDao.search(map);
+		assertEquals(0, found.size());
+	}
+
 	@Test
 	public void testSearchTokenParam() {
 		Patient patient = new Patient();
@@ -143,6 +143,8 @@ public class FhirResourceDaoDstu3SearchWithLuceneDisabledTest extends BaseJpaTes
 	@Autowired
 	protected PlatformTransactionManager myTxManager;
 
+	@Autowired
+	private ForcedIdCacheSvc myForcedIdCacheSvc;
 	@Autowired
 	@Qualifier("myJpaValidationSupportChainDstu3")
 	private IValidationSupport myValidationSupport;
@@ -152,6 +154,7 @@ public class FhirResourceDaoDstu3SearchWithLuceneDisabledTest extends BaseJpaTes
 	public void beforePurgeDatabase() {
 		final EntityManager entityManager = this.myEntityManager;
 		purgeDatabase(entityManager, myTxManager);
+		myForcedIdCacheSvc.clear();
 	}
 
 	@Before
@@ -0,0 +1,163 @@
+package ca.uhn.fhir.jpa.dao.dstu3;
+
+import static org.hamcrest.Matchers.contains;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertThat;
+
+import java.util.List;
+
+import org.hl7.fhir.dstu3.model.Bundle;
+import org.hl7.fhir.dstu3.model.Bundle.BundleType;
+import org.hl7.fhir.dstu3.model.Bundle.HTTPVerb;
+import org.hl7.fhir.dstu3.model.DateType;
+import org.hl7.fhir.dstu3.model.Observation;
+import org.hl7.fhir.dstu3.model.Observation.ObservationStatus;
+import org.hl7.fhir.dstu3.model.Patient;
+import org.hl7.fhir.dstu3.model.Quantity;
+import org.hl7.fhir.dstu3.model.Reference;
+import org.hl7.fhir.dstu3.model.Subscription;
+import org.hl7.fhir.dstu3.model.Subscription.SubscriptionChannelType;
+import org.hl7.fhir.dstu3.model.Subscription.SubscriptionStatus;
+import org.hl7.fhir.instance.model.api.IBaseResource;
+import org.hl7.fhir.instance.model.api.IIdType;
+import org.junit.After;
+import org.junit.AfterClass;
+import org.junit.Before;
+import org.junit.Test;
+import org.springframework.beans.factory.annotation.Autowired;
+
+import ca.uhn.fhir.jpa.dao.DaoConfig;
+import ca.uhn.fhir.jpa.dao.SubscriptionMatcherSvc;
+import ca.uhn.fhir.util.TestUtil;
+
+/**
+ * Runs all of the subscription tests again with in-memory matching enabled
+ */
+public class FhirResourceDaoDstu3SubscriptionInMemoryTest extends FhirResourceDaoDstu3SubscriptionTest {
+
+	@Autowired
+	private SubscriptionMatcherSvc mySubscriptionMatcherSvc;
+
+	@After
+	public void afterDisableInMemoryMatching() {
+		myDaoConfig.setSubscriptionInMemoryMatchingEnabled(new DaoConfig().isSubscriptionInMemoryMatchingEnabled());
+	}
+
+	@Before
+	public void beforeEnableInMemoryMatching() {
+		myDaoConfig.setSubscriptionInMemoryMatchingEnabled(true);
+		mySubscriptionMatcherSvc.refreshSubscriptions();
+		mySubscriptionMatcherSvc.getAndResetFlaggedCount();
+	}
+
+	private Long createSubscription(String theCriteria) {
+		Subscription subs = new Subscription();
+		subs.getChannel().setType(SubscriptionChannelType.WEBSOCKET);
+		subs.setCriteria(theCriteria);
+		subs.setStatus(SubscriptionStatus.ACTIVE);
+		return mySubscriptionDao.getSubscriptionTablePidForSubscriptionResource(mySubscriptionDao.create(subs, mySrd).getId());
+	}
+
+	private IIdType createObservation(String theCode, IIdType theSubject, Double theValue) {
+		Observation obs = new Observation();
+		obs.setStatus(ObservationStatus.FINAL);
+		obs.getCode().addCoding().setSystem("http://loinc.org").setCode(theCode);
+		if (theSubject != null) {
+			obs.getSubject().setReferenceElement(theSubject);
+		}
+		if (theValue != null) {
+			obs.setValue(new Quantity(theValue));
+		}
+		return myObservationDao.create(obs, mySrd).getId().toUnqualifiedVersionless();
+	}
+
+	private IIdType createPatient(String theFamily, String theBirthDate) {
+		Patient p = new Patient();
+		p.addName().setFamily(theFamily);
+		p.setBirthDateElement(new DateType(theBirthDate));
+		return myPatientDao.create(p, mySrd).getId().toUnqualifiedVersionless();
+	}
+
+	@Test
+	public void testInMemoryMatchingStringAndDate() {
+		Long subsId = createSubscription("Patient?family=smi&birthdate=ge2000-01-01");
+		int databaseChecks = mySubscriptionMatcherSvc.getDatabaseCheckCount();
+
+		IIdType id1 = createPatient("Smith", "2001-02-03");
+		createPatient("Smithers", "1990-01-01");
+		createPatient("Jones", "2005-01-01");
+		IIdType id2 = createPatient("SMITHERS", "2000-01-01");
+
+		assertEquals(2, mySubscriptionDao.pollForNewUndeliveredResources());
+		assertEquals(databaseChecks, mySubscriptionMatcherSvc.getDatabaseCheckCount());
+
+		List<IBaseResource> results = mySubscriptionDao.getUndeliveredResourcesAndPurge(subsId);
+		assertThat(toUnqualifiedVersionlessIds(results), contains(id1, id2));
+	}
+
+	@Test
+	public void testInMemoryMatchingTokenAndReference() {
+		IIdType pId = createPatient("testInMemoryMatchingTokenAndReference", "2000-01-01");
+		IIdType otherPId = createPatient("testInMemoryMatchingTokenAndReference", "2000-01-01");
+		Long subsId = createSubscription("Observation?code=http://loinc.org|1234-5,http://loinc.org|2345-6&subject=Patient/" + pId.getIdPart());
+		int databaseChecks = mySubscriptionMatcherSvc.getDatabaseCheckCount();
+
+		IIdType id1 = createObservation("1234-5", pId, null);
+		createObservation("9999-9", pId, null);
+		createObservation("1234-5", otherPId, null);
+		createObservation("1234-5", null, null);
+		IIdType id2 = createObservation("2345-6", pId, null);
+
+		assertEquals(2, mySubscriptionDao.pollForNewUndeliveredResources());
+		assertEquals(databaseChecks, mySubscriptionMatcherSvc.getDatabaseCheckCount());
+
+		List<IBaseResource> results = mySubscriptionDao.getUndeliveredResourcesAndPurge(subsId);
+		assertThat(toUnqualifiedVersionlessIds(results), contains(id1, id2));
+	}
+
+	@Test
+	public void testInMemoryMatchingFallsBackToDatabase() {
+		Long subsId = createSubscription("Observation?code=http://loinc.org|1234-5&value-quantity=gt100");
+		int databaseChecks = mySubscriptionMatcherSvc.getDatabaseCheckCount();
+
+		IIdType id1 = createObservation("1234-5", null, 150.0);
+		createObservation("1234-5", null, 50.0);
+		createObservation("9999-9", null, 150.0);
+
+		assertEquals(1, mySubscriptionDao.pollForNewUndeliveredResources());
+
+		// The code is checked in memory, so only the observations with a matching code need the database
+		assertEquals(databaseChecks + 2, mySubscriptionMatcherSvc.getDatabaseCheckCount());
+
+		List<IBaseResource> results = mySubscriptionDao.getUndeliveredResourcesAndPurge(subsId);
+		assertThat(toUnqualifiedVersionlessIds(results), contains(id1));
+	}
+
+	@Test
+	public void testInMemoryMatchingTransaction() {
+		Long subsId = createSubscription("Observation?code=http://loinc.org|1234-5");
+
+		Bundle request = new Bundle();
+		request.setType(BundleType.TRANSACTION);
+		for (int i = 0; i < 3; i++) {
+			Patient patient = new Patient();
+			patient.addName().setFamily("testInMemoryMatchingTransaction");
+			request.addEntry().setFullUrl("urn:uuid:patient" + i).setResource(patient).getRequest().setMethod(HTTPVerb.POST).setUrl("Patient");
+
+			Observation obs = new Observation();
+			obs.getCode().addCoding().setSystem("http://loinc.org").setCode(i == 1 ? "9999-9" : "1234-5");
+			obs.setSubject(new Reference("urn:uuid:patient" + i));
+			request.addEntry().setResource(obs).getRequest().setMethod(HTTPVerb.POST).setUrl("Observation");
+		}
+		mySystemDao.transaction(mySrd, request);
+
+		assertEquals(2, mySubscriptionDao.pollForNewUndeliveredResources());
+		assertEquals(2, mySubscriptionDao.getUndeliveredResourcesAndPurge(subsId).size());
+	}
+
+	@AfterClass
+	public static void afterClassClearContext() {
+		TestUtil.clearAllStaticFieldsForUnitTest();
+	}
+
+}
@@ -86,15 +86,22 @@ import org.junit.AfterClass;
 import org.junit.Ignore;
 import org.junit.Test;
 import org.mockito.ArgumentCaptor;
+import org.springframework.beans.factory.annotation.Autowired;
 
 import com.google.common.collect.Lists;
 
 import ca.uhn.fhir.jpa.dao.BaseHapiFhirDao;
 import ca.uhn.fhir.jpa.dao.BaseHapiFhirResourceDao;
+import ca.uhn.fhir.jpa.dao.DaoConfig;
 import ca.uhn.fhir.jpa.dao.IFhirResourceDao;
 import ca.uhn.fhir.jpa.dao.SearchParameterMap;
+import ca.uhn.fhir.jpa.dao.data.IBinaryResourceSchemaDao;
+import ca.uhn.fhir.jpa.entity.BinaryResourceSchema;
+import ca.uhn.fhir.jpa.entity.ResourceEncodingEnum;
 import ca.uhn.fhir.jpa.entity.ResourceIndexedSearchParamString;
+import ca.uhn.fhir.jpa.entity.ResourceTable;
 import ca.uhn.fhir.jpa.entity.TagTypeEnum;
+import ca.uhn.fhir.jpa.util.BinaryResourceCodec;
 import ca.uhn.fhir.model.api.IQueryParameterType;
 import ca.uhn.fhir.model.api.Include;
 import ca.uhn.fhir.model.api.ResourceMetadataKeyEnum;
@@ -129,6 +136,9 @@ public class FhirResourceDaoDstu3Test extends BaseJpaDstu3Test {
 
 	private static final org.slf4j.Logger ourLog = org.slf4j.LoggerFactory.getLogger(FhirResourceDaoDstu3Test.class);
 
+	@Autowired
+	private IBinaryResourceSchemaDao myBinaryResourceSchemaDao;
+
 	private void assertGone(IIdType theId) {
 		try {
 			assertNotGone(theId);
@@ -474,6 +484,105 @@ public class FhirResourceDaoDstu3Test extends BaseJpaDstu3Test {
 		assertGone(id.toUnqualifiedVersionless());
 	}
 
+	@Test
+	public void testCreateAndReadWithBinaryEncoding() {
+		Patient p = new Patient();
+		p.addName().setFamily("testCreateAndReadWithBinaryEncoding").addGiven("JSONC");
+		IIdType id = myPatientDao.create(p, mySrd).getId();
+
+		myDaoConfig.setResourceEncoding(ResourceEncodingEnum.BJSON);
+		try {
+			p = new Patient();
+			p.setId(id.toUnqualifiedVersionless());
+			p.addName().setFamily("testCreateAndReadWithBinaryEncoding").addGiven("BJSON");
+			p.setActive(true);
+			IIdType id2 = myPatientDao.update(p, mySrd).getId();
+			assertEquals(ResourceEncodingEnum.BJSON, myResourceTableDao.findOne(id2.getIdPartAsLong()).getEncoding());
+
+			// Rows stored using the previous encoding are still readable
+			Patient read = myPatientDao.read(id.withVersion("1"), mySrd);
+			assertEquals("JSONC", read.getNameFirstRep().getGivenAsSingleString());
+
+			read = myPatientDao.read(id2.toUnqualifiedVersionless(), mySrd);
+			assertEquals("BJSON", read.getNameFirstRep().getGivenAsSingleString());
+			assertTrue(read.getActive());
+			assertEquals("2", read.getIdElement().getVersionIdPart());
+
+			IBundleProvider found = myPatientDao.search(Patient.SP_GIVEN, new StringParam("BJSON"));
+			assertEquals(1, found.size());
+			assertEquals(id2.toUnqualifiedVersionless().getValue(), found.getResources(0, 1).get(0).getIdElement().toUnqualifiedVersionless().getValue());
+		} finally {
+			myDaoConfig.setResourceEncoding(new DaoConfig().getResourceEncoding());
+		}
+	}
+
+	/**
+	 * Rows written using the binary encoding before an upgrade of the structures are read
+	 * using the schema which was stored when they were written
+	 */
+	@Test
+	public void testCreateAndReadWithBinaryEncodingWrittenUsingOtherStructures() {
+		myDaoConfig.setResourceEncoding(ResourceEncodingEnum.BJSON);
+		try {
+			Patient p = new Patient();
+			p.addName().setFamily("testCreateAndReadWithBinaryEncodingWrittenUsingOtherStructures");
+			p.setActive(true);
+			IIdType id = myPatientDao.create(p, mySrd).getId().toUnqualifiedVersionless();
+
+			BinaryResourceCodec codec = BinaryResourceCodec.forContext(myFhirCtx);
+			assertNotNull(myBinaryResourceSchemaDao.findOne(codec.getFingerprint()));
+
+			// Pretend that the row and its schema were written using different structures
+			int fingerprint = codec.getFingerprint() ^ 0x5A5A5A5A;
+			BinaryResourceSchema schema = new BinaryResourceSchema();
+			schema.setFingerprint(fingerprint);
+			schema.setSchema(withFingerprint(codec.getSchema(), fingerprint));
+			schema.setCreated(new Date());
+			myBinaryResourceSchemaDao.save(schema);
+
+			ResourceTable entity = myResourceTableDao.findOne(id.getIdPartAsLong());
+			entity.setResource(withFingerprint(entity.getResource(), fingerprint));
+			myResourceTableDao.save(entity);
+
+			Patient read = myPatientDao.read(id, mySrd);
+			assertEquals("testCreateAndReadWithBinaryEncodingWrittenUsingOtherStructures", read.getNameFirstRep().getFamily());
+			assertTrue(read.getActive());
+		} finally {
+			myDaoConfig.setResourceEncoding(new DaoConfig().getResourceEncoding());
+		}
+	}
+
+	private static byte[] withFingerprint(byte[] theEncoded, int theFingerprint) {
+		byte[] retVal = theEncoded.clone();
+		retVal[2] = (byte) (theFingerprint >>> 24);
+		retVal[3] = (byte) (theFingerprint >>> 16);
+		retVal[4] = (byte) (theFingerprint >>> 8);
+		retVal[5] = (byte) theFingerprint;
+		return retVal;
+	}
+
+	@Test
+	public void testCreateAndReadWithEachEncoding() {
+		List<IIdType> ids = new ArrayList<IIdType>();
+		try {
+			for (ResourceEncodingEnum next : ResourceEncodingEnum.values()) {
+				myDaoConfig.setResourceEncoding(next);
+				Patient p = new Patient();
+				p.addName().setFamily("testCreateAndReadWithEachEncoding").addGiven(next.name());
+				ids.add(myPatientDao.create(p, mySrd).getId().toUnqualifiedVersionless());
+			}
+		} finally {
+			myDaoConfig.setResourceEncoding(new DaoConfig().getResourceEncoding());
+		}
+
+		for (int i = 0; i < ids.size(); i++) {
+			ResourceEncodingEnum encoding = ResourceEncodingEnum.values()[i];
+			assertEquals(encoding, myResourceTableDao.findOne(ids.get(i).getIdPartAsLong()).getEncoding());
+			Patient read = myPatientDao.read(ids.get(i), mySrd);
+			assertEquals(encoding.name(), read.getNameFirstRep().getGivenAsSingleString());
+		}
+	}
+
 	@Test
 	@Ignore
 	public void testCreateBuiltInProfiles() throws Exception {
@@ -3,7 +3,9 @@ package ca.uhn.fhir.jpa.dao.dstu3;
 import static org.hamcrest.Matchers.contains;
 import static org.hamcrest.Matchers.containsInAnyOrder;
 import static org.hamcrest.Matchers.containsString;
+import static org.hamcrest.Matchers.empty;
 import static org.hamcrest.Matchers.endsWith;
+import static org.hamcrest.Matchers.greaterThan;
 import static org.hamcrest.Matchers.not;
 import static org.junit.Assert.assertEquals;
 import static org.junit.Assert.assertFalse;
@@ -24,6 +26,7 @@ import java.util.Set;
 import java.util.TimeZone;
 
 import org.hl7.fhir.dstu3.model.Coding;
+import org.hl7.fhir.dstu3.model.DateType;
 import org.hl7.fhir.dstu3.model.IdType;
 import org.hl7.fhir.dstu3.model.InstantType;
 import org.hl7.fhir.dstu3.model.Organization;
@@ -37,10 +40,14 @@ import org.junit.Ignore;
 import org.junit.Test;
 import org.mockito.ArgumentCaptor;
 
+import ca.uhn.fhir.jpa.dao.DaoMethodOutcome;
+import ca.uhn.fhir.jpa.dao.SearchParameterMap;
 import ca.uhn.fhir.model.primitive.InstantDt;
 import ca.uhn.fhir.rest.api.MethodOutcome;
 import ca.uhn.fhir.rest.api.RestOperationTypeEnum;
+import ca.uhn.fhir.rest.param.DateRangeParam;
 import ca.uhn.fhir.rest.param.StringParam;
+import ca.uhn.fhir.rest.param.TokenParam;
 import ca.uhn.fhir.rest.server.IBundleProvider;
 import ca.uhn.fhir.rest.server.exceptions.InvalidRequestException;
 import ca.uhn.fhir.rest.server.exceptions.ResourceGoneException;
@@ -58,6 +65,36 @@ public class FhirResourceDaoDstu3UpdateTest extends BaseJpaDstu3Test {
 	}
 
 
+	@Test
+	public void testUpdateOnlyChangesModifiedIndexRows() {
+		Patient patient = new Patient();
+		patient.addIdentifier().setSystem("urn:system").setValue("001");
+		patient.addName().setFamily("Tester").addGiven("Joe");
+		patient.setBirthDateElement(new DateType("2011-01-01"));
+		IIdType id = myPatientDao.create(patient, mySrd).getId().toUnqualifiedVersionless();
+
+		patient = myPatientDao.read(id, mySrd);
+		patient.getIdentifier().get(0).setValue("002");
+		DaoMethodOutcome outcome = myPatientDao.update(patient, mySrd);
+
+		assertEquals(1, outcome.getEntity().getIndexRowsAdded());
+		assertEquals(1, outcome.getEntity().getIndexRowsRemoved());
+		assertThat(outcome.getEntity().getIndexRowsKept(), greaterThan(0));
+
+		SearchParameterMap map = new SearchParameterMap();
+		map.add(Patient.SP_IDENTIFIER, new TokenParam("urn:system", "002"));
+		assertThat(toUnqualifiedVersionlessIdValues(myPatientDao.search(map)), contains(id.getValue()));
+		map = new SearchParameterMap();
+		map.add(Patient.SP_IDENTIFIER, new TokenParam("urn:system", "001"));
+		assertThat(toUnqualifiedVersionlessIdValues(myPatientDao.search(map)), empty());
+		map = new SearchParameterMap();
+		map.add(Patient.SP_FAMILY, new StringParam("Tester"));
+		assertThat(toUnqualifiedVersionlessIdValues(myPatientDao.search(map)), contains(id.getValue()));
+		map = new SearchParameterMap();
+		map.add(Patient.SP_BIRTHDATE, new DateRangeParam("2011-01-01", "2011-01-01"));
+		assertThat(toUnqualifiedVersionlessIdValues(myPatientDao.search(map)), contains(id.getValue()));
+	}
+
 	@Test
 	public void testUpdateAndGetHistoryResource() throws InterruptedException {
 		Patient patient = new Patient();
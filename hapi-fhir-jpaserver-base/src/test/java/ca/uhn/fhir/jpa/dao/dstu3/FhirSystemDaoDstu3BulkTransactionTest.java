@@ -0,0 +1,221 @@
+package ca.uhn.fhir.jpa.dao.dstu3;
+
+import static org.hamcrest.Matchers.lessThan;
+import static org.hamcrest.Matchers.startsWith;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertThat;
+
+import java.util.UUID;
+
+import org.hibernate.SessionFactory;
+import org.hibernate.stat.Statistics;
+import org.hl7.fhir.dstu3.model.Bundle;
+import org.hl7.fhir.dstu3.model.Bundle.BundleEntryComponent;
+import org.hl7.fhir.dstu3.model.Bundle.BundleType;
+import org.hl7.fhir.dstu3.model.Bundle.HTTPVerb;
+import org.hl7.fhir.dstu3.model.DateType;
+import org.hl7.fhir.dstu3.model.IdType;
+import org.hl7.fhir.dstu3.model.Observation;
+import org.hl7.fhir.dstu3.model.Patient;
+import org.hl7.fhir.dstu3.model.Quantity;
+import org.hl7.fhir.dstu3.model.Reference;
+import org.junit.After;
+import org.junit.AfterClass;
+import org.junit.Before;
+import org.junit.Test;
+
+import ca.uhn.fhir.jpa.dao.DaoConfig;
+import ca.uhn.fhir.jpa.dao.SearchParameterMap;
+import ca.uhn.fhir.rest.param.ReferenceParam;
+import ca.uhn.fhir.rest.param.StringParam;
+import ca.uhn.fhir.rest.param.TokenParam;
+import ca.uhn.fhir.util.TestUtil;
+
+public class FhirSystemDaoDstu3BulkTransactionTest extends BaseJpaDstu3SystemTest {
+	private static final org.slf4j.Logger ourLog = org.slf4j.LoggerFactory.getLogger(FhirSystemDaoDstu3BulkTransactionTest.class);
+
+	private Statistics myStatistics;
+
+	@After
+	public void after() {
+		myDaoConfig.setBulkTransactionEnabled(new DaoConfig().isBulkTransactionEnabled());
+		myDaoConfig.setAllowInlineMatchUrlReferences(new DaoConfig().isAllowInlineMatchUrlReferences());
+		myStatistics.setStatisticsEnabled(false);
+	}
+
+	@Before
+	public void beforeEnableStatistics() {
+		myStatistics = myEntityManager.getEntityManagerFactory().unwrap(SessionFactory.class).getStatistics();
+		myStatistics.setStatisticsEnabled(true);
+	}
+
+	/**
+	 * Creates a transaction with a conditionally created Patient, and an Observation referring
+	 * to it via a placeholder ID
+	 */
+	private Bundle createConditionalCreateTransaction(String theIdentifier) {
+		Bundle request = new Bundle();
+		request.setType(BundleType.TRANSACTION);
+		String patientId = "urn:uuid:" + UUID.randomUUID().toString();
+		Patient patient = new Patient();
+		patient.addIdentifier().setSystem("urn:system").setValue(theIdentifier);
+		request.addEntry().setFullUrl(patientId).setResource(patient).getRequest().setMethod(HTTPVerb.POST).setUrl("Patient").setIfNoneExist("Patient?identifier=urn%3Asystem%7C" + theIdentifier);
+
+		Observation obs = new Observation();
+		obs.getCode().addCoding().setSystem("http://loinc.org").setCode("8867-4");
+		obs.setSubject(new Reference(patientId));
+		request.addEntry().setResource(obs).getRequest().setMethod(HTTPVerb.POST).setUrl("Observation");
+		return request;
+	}
+
+	/**
+	 * Creates a transaction with a Patient and an Observation referring to it (via a
+	 * placeholder ID) for each index
+	 */
+	private Bundle createTransaction(String theFamily, int thePatients) {
+		Bundle request = new Bundle();
+		request.setType(BundleType.TRANSACTION);
+		for (int i = 0; i < thePatients; i++) {
+			String patientId = "urn:uuid:" + UUID.randomUUID().toString();
+			Patient patient = new Patient();
+			patient.addIdentifier().setSystem("http://example.com/mrn").setValue(theFamily + i);
+			patient.addName().setFamily(theFamily).addGiven("Given" + i);
+			patient.setBirthDateElement(new DateType("1980-01-01"));
+			request.addEntry().setFullUrl(patientId).setResource(patient).getRequest().setMethod(HTTPVerb.POST).setUrl("Patient");
+
+			Observation obs = new Observation();
+			obs.getCode().addCoding().setSystem("http://loinc.org").setCode("8867-4");
+			obs.setSubject(new Reference(patientId));
+			obs.setValue(new Quantity(60 + i % 40));
+			request.addEntry().setResource(obs).getRequest().setMethod(HTTPVerb.POST).setUrl("Observation");
+		}
+		return request;
+	}
+
+	private long executeTransaction(String theFamily, int thePatients) {
+		Bundle request = createTransaction(theFamily, thePatients);
+		myStatistics.clear();
+		long start = System.currentTimeMillis();
+		Bundle response = mySystemDao.transaction(mySrd, request);
+		long delay = System.currentTimeMillis() - start;
+
+		assertEquals(thePatients * 2, response.getEntry().size());
+		ourLog.info("{} - Transaction with {} entries took {}ms - {} statements - {} rows inserted - {} rows updated", new Object[] { myDaoConfig.isBulkTransactionEnabled() ? "Bulk" : "Standard", response.getEntry().size(), delay, myStatistics.getPrepareStatementCount(), myStatistics.getEntityInsertCount(), myStatistics.getEntityUpdateCount() });
+		return myStatistics.getPrepareStatementCount();
+	}
+
+	@Test
+	public void testBulkTransactionIsIndexed() {
+		myDaoConfig.setBulkTransactionEnabled(true);
+
+		Bundle request = createTransaction("testBulkTransactionIsIndexed", 3);
+		Patient patient = new Patient();
+		patient.setId("testBulkTransactionIsIndexed");
+		patient.addName().setFamily("testBulkTransactionIsIndexed");
+		request.addEntry().setResource(patient).getRequest().setMethod(HTTPVerb.PUT).setUrl("Patient/testBulkTransactionIsIndexed");
+		Observation obs = new Observation();
+		obs.getCode().addCoding().setSystem("http://loinc.org").setCode("8867-4");
+		obs.setSubject(new Reference("Patient/testBulkTransactionIsIndexed"));
+		request.addEntry().setResource(obs).getRequest().setMethod(HTTPVerb.POST).setUrl("Observation");
+
+		Bundle response = mySystemDao.transaction(mySrd, request);
+		assertEquals(8, response.getEntry().size());
+		for (BundleEntryComponent next : response.getEntry()) {
+			assertThat(next.getResponse().getStatus(), startsWith("201"));
+			assertEquals("1", new IdType(next.getResponse().getLocation()).getVersionIdPart());
+		}
+
+		SearchParameterMap map = new SearchParameterMap();
+		map.add(Patient.SP_FAMILY, new StringParam("testBulkTransactionIsIndexed"));
+		assertEquals(4, myPatientDao.search(map).size());
+
+		map = new SearchParameterMap();
+		map.add(Patient.SP_IDENTIFIER, new TokenParam("http://example.com/mrn", "testBulkTransactionIsIndexed1"));
+		IdType patientId = new IdType(myPatientDao.search(map).getResources(0, 1).get(0).getIdElement().toUnqualifiedVersionless().getValue());
+		assertEquals(new IdType(response.getEntry().get(2).getResponse().getLocation()).toUnqualifiedVersionless(), patientId);
+
+		map = new SearchParameterMap();
+		map.add(Observation.SP_SUBJECT, new ReferenceParam(patientId.getValue()));
+		assertEquals(1, myObservationDao.search(map).size());
+		assertEquals(1, myPatientDao.history(patientId, null, null, mySrd).size());
+
+		map = new SearchParameterMap();
+		map.add(Observation.SP_SUBJECT, new ReferenceParam("Patient/testBulkTransactionIsIndexed"));
+		assertEquals(1, myObservationDao.search(map).size());
+	}
+
+	@Test
+	public void testBulkTransactionUsesFewerStatements() {
+		// Warm up
+		executeTransaction("warmup", 10);
+
+		long standardStatements = executeTransaction("testBulkTransactionUsesFewerStatements", 500);
+		myDaoConfig.setBulkTransactionEnabled(true);
+		long bulkStatements = executeTransaction("testBulkTransactionUsesFewerStatements", 500);
+
+		assertThat(bulkStatements, lessThan(standardStatements / 4));
+	}
+
+	@Test
+	public void testBulkTransactionWithConditionalCreate() {
+		myDaoConfig.setBulkTransactionEnabled(true);
+		String methodName = "testBulkTransactionWithConditionalCreate";
+
+		Bundle response = mySystemDao.transaction(mySrd, createConditionalCreateTransaction(methodName));
+		assertThat(response.getEntry().get(0).getResponse().getStatus(), startsWith("201"));
+		IdType patientId = new IdType(response.getEntry().get(0).getResponse().getLocation()).toUnqualifiedVersionless();
+
+		// The second bundle matches the patient written by the first one, and doesn't fail the duplicate check
+		response = mySystemDao.transaction(mySrd, createConditionalCreateTransaction(methodName));
+		assertThat(response.getEntry().get(0).getResponse().getStatus(), startsWith("200"));
+		assertEquals(patientId, new IdType(response.getEntry().get(0).getResponse().getLocation()).toUnqualifiedVersionless());
+		assertThat(response.getEntry().get(1).getResponse().getStatus(), startsWith("201"));
+
+		SearchParameterMap map = new SearchParameterMap();
+		map.add(Patient.SP_IDENTIFIER, new TokenParam("urn:system", methodName));
+		assertEquals(1, myPatientDao.search(map).size());
+
+		map = new SearchParameterMap();
+		map.add(Observation.SP_SUBJECT, new ReferenceParam(patientId.getValue()));
+		assertEquals(2, myObservationDao.search(map).size());
+	}
+
+	/**
+	 * The index rows for the patient are still waiting to be written when the
+	 * observation's match URL is resolved
+	 */
+	@Test
+	public void testBulkTransactionWithInlineMatchUrlToEarlierEntry() {
+		myDaoConfig.setBulkTransactionEnabled(true);
+		myDaoConfig.setAllowInlineMatchUrlReferences(true);
+		String methodName = "testBulkTransactionWithInlineMatchUrlToEarlierEntry";
+
+		Bundle request = new Bundle();
+		request.setType(BundleType.TRANSACTION);
+		Patient patient = new Patient();
+		patient.addIdentifier().setSystem("urn:system").setValue(methodName);
+		request.addEntry().setResource(patient).getRequest().setMethod(HTTPVerb.POST).setUrl("Patient");
+
+		Observation obs = new Observation();
+		obs.getCode().addCoding().setSystem("http://loinc.org").setCode("8867-4");
+		obs.getSubject().setReference("Patient?identifier=urn%3Asystem%7C" + methodName);
+		request.addEntry().setResource(obs).getRequest().setMethod(HTTPVerb.POST).setUrl("Observation");
+
+		Bundle response = mySystemDao.transaction(mySrd, request);
+		assertEquals(2, response.getEntry().size());
+		IdType patientId = new IdType(response.getEntry().get(0).getResponse().getLocation()).toUnqualifiedVersionless();
+
+		obs = myObservationDao.read(new IdType(response.getEntry().get(1).getResponse().getLocation()), mySrd);
+		assertEquals(patientId.getValue(), obs.getSubject().getReference());
+
+		SearchParameterMap map = new SearchParameterMap();
+		map.add(Observation.SP_SUBJECT, new ReferenceParam(patientId.getValue()));
+		assertEquals(1, myObservationDao.search(map).size());
+	}
+
+	@AfterClass
+	public static void afterClassClearContext() {
+		TestUtil.clearAllStaticFieldsForUnitTest();
+	}
+
+}
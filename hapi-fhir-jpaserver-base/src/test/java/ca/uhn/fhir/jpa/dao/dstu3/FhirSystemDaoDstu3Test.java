@@ -75,6 +75,7 @@ public class FhirSystemDaoDstu3Test extends BaseJpaDstu3SystemTest {
 	public void after() {
 		myDaoConfig.setAllowInlineMatchUrlReferences(false);
 		myDaoConfig.setAllowMultipleDelete(new DaoConfig().isAllowMultipleDelete());
+		myDaoConfig.setBatchBundleThreadCount(new DaoConfig().getBatchBundleThreadCount());
 	}
 
 	@SuppressWarnings("unchecked")
@@ -315,6 +316,47 @@ public class FhirSystemDaoDstu3Test extends BaseJpaDstu3SystemTest {
 
 	}
 
+	@Test
+	public void testTransactionBatchInParallel() {
+		String methodName = "testTransactionBatchInParallel";
+		int entries = 100;
+
+		long sequentialMillis = executeBatchAndCheckResponseOrder(methodName + "Sequential", entries);
+		myDaoConfig.setBatchBundleThreadCount(4);
+		long parallelMillis = executeBatchAndCheckResponseOrder(methodName + "Parallel", entries);
+
+		ourLog.info("Batch with {} entries took {}ms sequentially and {}ms with 4 threads", new Object[] { entries * 2, sequentialMillis, parallelMillis });
+	}
+
+	private long executeBatchAndCheckResponseOrder(String theFamily, int theCount) {
+		Bundle request = new Bundle();
+		request.setType(BundleType.BATCH);
+		for (int i = 0; i < theCount; i++) {
+			Patient p = new Patient();
+			p.addName().setFamily(theFamily + i);
+			request.addEntry().setResource(p).getRequest().setMethod(HTTPVerb.POST);
+			request.addEntry().getRequest().setMethod(HTTPVerb.GET).setUrl("Patient/" + theFamily + "DOESNT_EXIST" + i);
+		}
+
+		long start = System.currentTimeMillis();
+		Bundle resp = mySystemDao.transaction(mySrd, request);
+		long retVal = System.currentTimeMillis() - start;
+
+		assertEquals(theCount * 2 + 1, resp.getEntry().size());
+		assertEquals(BundleType.BATCHRESPONSE, resp.getTypeElement().getValue());
+		for (int i = 0; i < theCount; i++) {
+			BundleEntryComponent created = resp.getEntry().get(i * 2 + 1);
+			assertEquals("201 Created", created.getResponse().getStatus());
+			Patient patient = myPatientDao.read(new IdType(created.getResponse().getLocation()), mySrd);
+			assertEquals(theFamily + i, patient.getNameFirstRep().getFamily());
+
+			BundleEntryComponent failed = resp.getEntry().get(i * 2 + 2);
+			assertEquals("404 Not Found", failed.getResponse().getStatus());
+			assertEquals("Resource Patient/" + theFamily + "DOESNT_EXIST" + i + " is not known", ((OperationOutcome) failed.getResource()).getIssue().get(0).getDiagnostics());
+		}
+		return retVal;
+	}
+
 	@Test
 	public void testTransactionBatchWithFailingRead() {
 		String methodName = "testTransactionBatchWithFailingRead";
@@ -1,15 +1,25 @@
 package ca.uhn.fhir.jpa.dao.dstu3;
 
+import static org.hamcrest.Matchers.hasItem;
+import static org.hamcrest.Matchers.hasItems;
 import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertThat;
 
-import java.util.Collection;
+import java.util.ArrayList;
 import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
 import java.util.Map;
+import java.util.Map.Entry;
 import java.util.Set;
 
 import org.hl7.fhir.dstu3.hapi.validation.DefaultProfileValidationSupport;
 import org.hl7.fhir.dstu3.hapi.validation.IValidationSupport;
+import org.hl7.fhir.dstu3.model.DateTimeType;
 import org.hl7.fhir.dstu3.model.Observation;
+import org.hl7.fhir.dstu3.model.Quantity;
+import org.hl7.fhir.dstu3.model.Reference;
+import org.hl7.fhir.instance.model.api.IBaseResource;
 import org.junit.AfterClass;
 import org.junit.BeforeClass;
 import org.junit.Test;
@@ -17,8 +27,11 @@ import org.junit.Test;
 import ca.uhn.fhir.context.FhirContext;
 import ca.uhn.fhir.context.RuntimeResourceDefinition;
 import ca.uhn.fhir.context.RuntimeSearchParam;
+import ca.uhn.fhir.jpa.dao.ExtractedSearchParams;
 import ca.uhn.fhir.jpa.dao.ISearchParamRegistry;
+import ca.uhn.fhir.jpa.dao.PathAndRef;
 import ca.uhn.fhir.jpa.entity.BaseResourceIndexedSearchParam;
+import ca.uhn.fhir.jpa.entity.ResourceIndexedSearchParamString;
 import ca.uhn.fhir.jpa.entity.ResourceIndexedSearchParamToken;
 import ca.uhn.fhir.jpa.entity.ResourceTable;
 import ca.uhn.fhir.util.TestUtil;
@@ -38,12 +51,95 @@ public class SearchParamExtractorDstu3Test {
 		ourValidationSupport = new DefaultProfileValidationSupport();
 	}
 	
+	@Test
+	public void testEachPathIsEvaluatedOncePerResource() {
+		final List<String> evaluated = new ArrayList<String>();
+		SearchParamExtractorDstu3 extractor = new SearchParamExtractorDstu3(ourCtx, ourValidationSupport, newSearchParamRegistry()) {
+			@Override
+			protected List<Object> doExtractValues(String thePaths, IBaseResource theResource) {
+				evaluated.add(thePaths);
+				return super.doExtractValues(thePaths, theResource);
+			}
+		};
+
+		Observation obs = new Observation();
+		obs.getSubject().setReference("Patient/123");
+		obs.getCode().addCoding().setSystem("SYSTEM").setCode("CODE");
+
+		ExtractedSearchParams params = extractor.extractSearchParams(new ResourceTable(), obs);
+		assertEquals(evaluated.toString(), new HashSet<String>(evaluated).size(), evaluated.size());
+
+		Set<String> refs = new HashSet<String>();
+		for (Entry<RuntimeSearchParam, List<PathAndRef>> next : params.getResourceLinks().entrySet()) {
+			for (PathAndRef nextRef : next.getValue()) {
+				refs.add(next.getKey().getName() + "|" + nextRef.getPath() + "|" + ((Reference) nextRef.getRef()).getReference());
+			}
+		}
+		assertThat(refs, hasItems("subject|Observation.subject|Patient/123", "patient|Observation.subject|Patient/123"));
+	}
+
 	@Test
 	public void testParamWithOrInPath() {
 		Observation obs = new Observation();
 		obs.addCategory().addCoding().setSystem("SYSTEM").setCode("CODE");
 		
-		ISearchParamRegistry searchParamRegistry = new ISearchParamRegistry() {
+		ISearchParamRegistry searchParamRegistry = newSearchParamRegistry();
+		SearchParamExtractorDstu3 extractor = new SearchParamExtractorDstu3(ourCtx, ourValidationSupport, searchParamRegistry);
+		Set<BaseResourceIndexedSearchParam> tokens = extractor.extractSearchParamTokens(new ResourceTable(), obs);
+		assertEquals(1, tokens.size());
+		ResourceIndexedSearchParamToken token = (ResourceIndexedSearchParamToken) tokens.iterator().next();
+		assertEquals("category", token.getParamName());
+		assertEquals("SYSTEM", token.getSystem());
+		assertEquals("CODE", token.getValue());
+	}
+
+	@Test
+	public void testParsedPathsAreReused() {
+		SearchParamExtractorDstu3 extractor = new SearchParamExtractorDstu3(ourCtx, ourValidationSupport, newSearchParamRegistry());
+
+		Observation obs = new Observation();
+		obs.addCategory().addCoding().setSystem("SYSTEM").setCode("CODE");
+		extractor.extractSearchParamTokens(new ResourceTable(), obs);
+		int parsedCount = extractor.getParsedPathCountForUnitTest();
+
+		obs = new Observation();
+		obs.addCategory().addCoding().setSystem("SYSTEM").setCode("CODE2");
+		Set<BaseResourceIndexedSearchParam> tokens = extractor.extractSearchParamTokens(new ResourceTable(), obs);
+		assertEquals(parsedCount, extractor.getParsedPathCountForUnitTest());
+		assertEquals(1, tokens.size());
+		assertEquals("CODE2", ((ResourceIndexedSearchParamToken) tokens.iterator().next()).getValue());
+	}
+
+	@Test
+	public void testExtractSearchParamsInSinglePass() {
+		SearchParamExtractorDstu3 extractor = new SearchParamExtractorDstu3(ourCtx, ourValidationSupport, newSearchParamRegistry());
+
+		Observation obs = new Observation();
+		obs.getCode().addCoding().setSystem("SYSTEM").setCode("CODE").setDisplay("DISPLAY");
+		obs.setValue(new Quantity().setValue(100).setSystem("http://unitsofmeasure.org").setCode("mg"));
+		obs.setEffective(new DateTimeType("2011-01-01"));
+
+		ExtractedSearchParams params = extractor.extractSearchParams(new ResourceTable(), obs);
+
+		Set<String> tokens = new HashSet<String>();
+		for (ResourceIndexedSearchParamToken next : params.getTokenParams()) {
+			tokens.add(next.getParamName() + "|" + next.getSystem() + "|" + next.getValue());
+		}
+		assertThat(tokens, hasItem("code|SYSTEM|CODE"));
+
+		Set<String> strings = new HashSet<String>();
+		for (ResourceIndexedSearchParamString next : params.getStringParams()) {
+			strings.add(next.getParamName() + "|" + next.getValueExact());
+		}
+		assertThat(strings, hasItem("code|DISPLAY"));
+
+		assertEquals(1, params.getQuantityParams().size());
+		assertEquals(1, params.getDateParams().size());
+		assertEquals(params.getTokenParams().size() + params.getStringParams().size(), extractor.extractSearchParamTokens(new ResourceTable(), obs).size());
+	}
+
+	private static ISearchParamRegistry newSearchParamRegistry() {
+		return new ISearchParamRegistry() {
 			@Override
 			public Map<String,RuntimeSearchParam> getActiveSearchParams(String theResourceName) {
 				RuntimeResourceDefinition nextResDef = ourCtx.getResourceDefinition(theResourceName);
@@ -64,14 +160,6 @@ public class SearchParamExtractorDstu3Test {
 				throw new UnsupportedOperationException();
 			}
 		};
-		
-		SearchParamExtractorDstu3 extractor = new SearchParamExtractorDstu3(ourCtx, ourValidationSupport, searchParamRegistry);
-		Set<BaseResourceIndexedSearchParam> tokens = extractor.extractSearchParamTokens(new ResourceTable(), obs);
-		assertEquals(1, tokens.size());
-		ResourceIndexedSearchParamToken token = (ResourceIndexedSearchParamToken) tokens.iterator().next();
-		assertEquals("category", token.getParamName());
-		assertEquals("SYSTEM", token.getSystem());
-		assertEquals("CODE", token.getValue());
 	}
-	
+
 }
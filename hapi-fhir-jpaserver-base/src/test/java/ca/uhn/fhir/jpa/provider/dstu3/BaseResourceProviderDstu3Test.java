@@ -48,7 +48,7 @@ public abstract class BaseResourceProviderDstu3Test extends BaseJpaDstu3Test {
 	protected static CloseableHttpClient ourHttpClient;
 	protected static int ourPort;
 	protected static RestfulServer ourRestServer;
-	private static Server ourServer;
+	protected static Server ourServer;
 	protected static String ourServerBase;
 	private static GenericWebApplicationContext ourWebApplicationContext;
 	private TerminologyUploaderProviderDstu3 myTerminologyUploaderProvider;
@@ -97,6 +97,7 @@ public abstract class BaseResourceProviderDstu3Test extends BaseJpaDstu3Test {
 	
 			ServletHolder servletHolder = new ServletHolder();
 			servletHolder.setServlet(ourRestServer);
+			servletHolder.setAsyncSupported(true);
 			proxyHandler.addServlet(servletHolder, "/fhir/context/*");
 	
 			ourWebApplicationContext = new GenericWebApplicationContext();
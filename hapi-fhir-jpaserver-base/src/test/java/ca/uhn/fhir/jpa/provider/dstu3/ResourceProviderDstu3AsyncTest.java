@@ -0,0 +1,408 @@
+package ca.uhn.fhir.jpa.provider.dstu3;
+
+import static org.hamcrest.Matchers.startsWith;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertThat;
+import static org.junit.Assert.assertTrue;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.InetSocketAddress;
+import java.net.Socket;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
+
+import org.apache.commons.io.IOUtils;
+import org.apache.http.client.methods.CloseableHttpResponse;
+import org.apache.http.client.methods.HttpGet;
+import org.apache.http.client.methods.HttpPost;
+import org.apache.http.client.methods.HttpRequestBase;
+import org.apache.http.entity.ContentType;
+import org.apache.http.entity.StringEntity;
+import org.apache.http.impl.client.CloseableHttpClient;
+import org.apache.http.impl.client.HttpClientBuilder;
+import org.eclipse.jetty.util.thread.QueuedThreadPool;
+import org.hl7.fhir.dstu3.model.Binary;
+import org.hl7.fhir.dstu3.model.Bundle;
+import org.hl7.fhir.dstu3.model.Bundle.BundleEntryComponent;
+import org.hl7.fhir.dstu3.model.Patient;
+import org.hl7.fhir.instance.model.api.IIdType;
+import org.junit.After;
+import org.junit.AfterClass;
+import org.junit.Test;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Qualifier;
+
+import ca.uhn.fhir.jpa.dao.IFhirResourceDao;
+import ca.uhn.fhir.jpa.dao.SearchParameterMap;
+import ca.uhn.fhir.rest.server.Constants;
+import ca.uhn.fhir.rest.param.StringParam;
+import ca.uhn.fhir.rest.server.RestfulServer;
+import ca.uhn.fhir.rest.server.interceptor.InterceptorAdapter;
+import ca.uhn.fhir.util.TestUtil;
+
+public class ResourceProviderDstu3AsyncTest extends BaseResourceProviderDstu3Test {
+
+	private static final int BINARY_SIZE = 8 * 1024 * 1024;
+	private static final org.slf4j.Logger ourLog = org.slf4j.LoggerFactory.getLogger(ResourceProviderDstu3AsyncTest.class);
+
+	@Autowired
+	@Qualifier("myBinaryDaoDstu3")
+	private IFhirResourceDao<Binary> myBinaryDao;
+
+	private MyInterceptor myInterceptor;
+
+	@Override
+	@After
+	public void after() throws Exception {
+		super.after();
+		ourRestServer.setAsyncRequestProcessing(false);
+		ourRestServer.setAsyncRequestTimeout(RestfulServer.DEFAULT_ASYNC_REQUEST_TIMEOUT);
+		ourRestServer.setAsyncRequestExecutor(null);
+		ourRestServer.unregisterInterceptor(myInterceptor);
+	}
+
+	@Override
+	public void before() throws Exception {
+		super.before();
+		myInterceptor = new MyInterceptor();
+		ourRestServer.registerInterceptor(myInterceptor);
+	}
+
+	private String execute(HttpRequestBase theRequest) throws IOException {
+		return execute(ourHttpClient, theRequest);
+	}
+
+	private String execute(CloseableHttpClient theClient, HttpRequestBase theRequest) throws IOException {
+		CloseableHttpResponse response = theClient.execute(theRequest);
+		try {
+			String responseContent = IOUtils.toString(response.getEntity().getContent(), "UTF-8");
+			assertEquals("true", response.getFirstHeader("X-Intercepted").getValue());
+			return response.getStatusLine().getStatusCode() + " " + response.getEntity().getContentType().getValue() + "\n" + responseContent;
+		} finally {
+			response.close();
+		}
+	}
+
+	private List<String> executeReads(IIdType theId) throws IOException {
+		List<String> retVal = new ArrayList<String>();
+		retVal.add(execute(new HttpGet(ourServerBase + "/Patient/" + theId.getIdPart())));
+		retVal.add(execute(new HttpGet(ourServerBase + "/Patient/" + theId.getIdPart() + "?_format=json&_pretty=true")));
+		retVal.add(execute(new HttpGet(ourServerBase + "/Patient/" + theId.getIdPart() + "/_history/1?_format=json")));
+		retVal.add(execute(new HttpGet(ourServerBase + "/Patient/AAAAAAAAA?_format=json")));
+		HttpGet gzip = new HttpGet(ourServerBase + "/Patient/" + theId.getIdPart());
+		gzip.addHeader("Accept-Encoding", "gzip");
+		retVal.add(execute(gzip));
+		return retVal;
+	}
+
+	private List<String> executeSearch(String theFamily) throws IOException {
+		return executeSearch(ourHttpClient, theFamily);
+	}
+
+	private List<String> executeSearch(CloseableHttpClient theClient, String theFamily) throws IOException {
+		String response = execute(theClient, new HttpGet(ourServerBase + "/Patient?family=" + theFamily + "&_format=json"));
+		assertThat(response, startsWith("200 "));
+		Bundle bundle = myFhirCtx.newJsonParser().parseResource(Bundle.class, response.substring(response.indexOf('\n') + 1));
+		List<String> retVal = new ArrayList<String>();
+		for (BundleEntryComponent next : bundle.getEntry()) {
+			retVal.add(next.getResource().getIdElement().toUnqualifiedVersionless().getValue());
+		}
+		return retVal;
+	}
+
+	/**
+	 * Opens connections which request a large Binary but don't read the response, and measures
+	 * how many container threads are busy while they wait and how long another request takes
+	 */
+	private void runSlowClientLoad(IIdType theBinaryId, boolean theAsync) throws Exception {
+		ourRestServer.setAsyncRequestProcessing(theAsync);
+		QueuedThreadPool threadPool = (QueuedThreadPool) ourServer.getThreadPool();
+		int slowClients = 4;
+
+		int idleBusyThreads = threadPool.getBusyThreads();
+		String request = "GET /fhir/context/Binary/" + theBinaryId.getIdPart() + " HTTP/1.1\r\nHost: localhost\r\nConnection: close\r\n\r\n";
+		List<Socket> sockets = new ArrayList<Socket>();
+		for (int i = 0; i < slowClients; i++) {
+			Socket socket = new Socket();
+			socket.setReceiveBufferSize(4096);
+			socket.connect(new InetSocketAddress("localhost", ourPort));
+			socket.getOutputStream().write(request.getBytes("US-ASCII"));
+			socket.getOutputStream().flush();
+			sockets.add(socket);
+		}
+		Thread.sleep(2000);
+		int busyThreads = threadPool.getBusyThreads() - idleBusyThreads;
+
+		long start = System.currentTimeMillis();
+		String fast = execute(new HttpGet(ourServerBase + "/Patient?_summary=count"));
+		long latency = System.currentTimeMillis() - start;
+		assertThat(fast, startsWith("200 "));
+
+		ExecutorService readers = Executors.newFixedThreadPool(slowClients);
+		List<Future<Long>> readCounts = new ArrayList<Future<Long>>();
+		for (final Socket next : sockets) {
+			readCounts.add(readers.submit(new Callable<Long>() {
+				@Override
+				public Long call() throws Exception {
+					InputStream inputStream = next.getInputStream();
+					byte[] buffer = new byte[65536];
+					long retVal = 0;
+					for (int count = inputStream.read(buffer); count != -1; count = inputStream.read(buffer)) {
+						retVal += count;
+					}
+					next.close();
+					return retVal;
+				}
+			}));
+		}
+		for (Future<Long> next : readCounts) {
+			assertTrue(next.get(60, TimeUnit.SECONDS) > BINARY_SIZE);
+		}
+		readers.shutdown();
+
+		ourLog.info("{} - {} slow clients - {} busy container threads - other request took {}ms", new Object[] { theAsync ? "Asynchronous" : "Synchronous", slowClients, busyThreads, latency });
+		if (theAsync) {
+			assertTrue("Busy threads: " + busyThreads, busyThreads < slowClients);
+		} else {
+			assertTrue("Busy threads: " + busyThreads, busyThreads >= slowClients);
+		}
+	}
+
+	@Test
+	public void testConcurrentRequests() throws Exception {
+		for (int i = 0; i < 10; i++) {
+			Patient patient = new Patient();
+			patient.addName().setFamily("testConcurrentRequests");
+			myPatientDao.create(patient, mySrd);
+		}
+
+		QueuedThreadPool threadPool = (QueuedThreadPool) ourServer.getThreadPool();
+		final CloseableHttpClient client = HttpClientBuilder.create().setMaxConnPerRoute(20).setMaxConnTotal(20).build();
+		for (boolean async : Arrays.asList(false, true)) {
+			ourRestServer.setAsyncRequestProcessing(async);
+
+			int requests = 40;
+			ExecutorService clients = Executors.newFixedThreadPool(20);
+			List<Future<Long>> latencies = new ArrayList<Future<Long>>();
+			for (int i = 0; i < requests; i++) {
+				latencies.add(clients.submit(new Callable<Long>() {
+					@Override
+					public Long call() throws Exception {
+						long start = System.currentTimeMillis();
+						assertEquals(10, executeSearch(client, "testConcurrentRequests").size());
+						return System.currentTimeMillis() - start;
+					}
+				}));
+			}
+			int maxBusyThreads = 0;
+			while (!latencies.get(requests - 1).isDone()) {
+				maxBusyThreads = Math.max(maxBusyThreads, threadPool.getBusyThreads());
+				Thread.sleep(5);
+			}
+
+			long maxLatency = 0;
+			long totalLatency = 0;
+			for (Future<Long> next : latencies) {
+				maxLatency = Math.max(maxLatency, next.get());
+				totalLatency += next.get();
+			}
+			clients.shutdown();
+
+			ourLog.info("{} - {} searches from 20 clients - {} max busy container threads - mean latency {}ms - max latency {}ms",
+					new Object[] { async ? "Asynchronous" : "Synchronous", requests, maxBusyThreads, totalLatency / requests, maxLatency });
+		}
+		client.close();
+	}
+
+	@Test
+	public void testCreateAndSearch() throws Exception {
+		ourRestServer.setAsyncRequestProcessing(true);
+
+		Patient patient = new Patient();
+		patient.addName().setFamily("testCreateAndSearch");
+		HttpPost post = new HttpPost(ourServerBase + "/Patient");
+		post.setEntity(new StringEntity(myFhirCtx.newJsonParser().encodeResourceToString(patient), ContentType.create(Constants.CT_FHIR_JSON, "UTF-8")));
+		CloseableHttpResponse response = ourHttpClient.execute(post);
+		try {
+			assertEquals(201, response.getStatusLine().getStatusCode());
+			assertThat(response.getFirstHeader(Constants.HEADER_LOCATION_LC).getValue(), startsWith(ourServerBase + "/Patient/"));
+		} finally {
+			response.close();
+		}
+		assertThat(myInterceptor.myThreadName, startsWith("request-processor-"));
+
+		List<String> found = executeSearch("testCreateAndSearch");
+		assertEquals(1, found.size());
+
+		ourRestServer.setAsyncRequestProcessing(false);
+		assertEquals(found, executeSearch("testCreateAndSearch"));
+		assertThat(myInterceptor.myThreadName, startsWith("qtp"));
+	}
+
+	@Test
+	public void testResponsesMatchSynchronousProcessing() throws Exception {
+		Patient patient = new Patient();
+		patient.addName().setFamily("testResponsesMatchSynchronousProcessing");
+		IIdType id = myPatientDao.create(patient, mySrd).getId();
+
+		List<String> expected = executeReads(id);
+		ourRestServer.setAsyncRequestProcessing(true);
+		List<String> actual = executeReads(id);
+		ourLog.info(actual.toString());
+		assertEquals(expected, actual);
+		assertThat(actual.get(3), startsWith("404 "));
+	}
+
+	@Test
+	public void testSlowClients() throws Exception {
+		byte[] content = new byte[BINARY_SIZE];
+		Arrays.fill(content, (byte) 'A');
+		Binary binary = new Binary();
+		binary.setContentType("application/octet-stream");
+		binary.setContent(content);
+		IIdType id = myBinaryDao.create(binary, mySrd).getId();
+
+		runSlowClientLoad(id, false);
+		runSlowClientLoad(id, true);
+	}
+
+	@Test
+	public void testTimeout() throws Exception {
+		ourRestServer.setAsyncRequestProcessing(true);
+		ourRestServer.setAsyncRequestTimeout(500);
+		myInterceptor.myDelayMillis = 3000;
+
+		long start = System.currentTimeMillis();
+		CloseableHttpResponse response = ourHttpClient.execute(new HttpGet(ourServerBase + "/Patient?_format=json"));
+		try {
+			assertEquals(500, response.getStatusLine().getStatusCode());
+		} finally {
+			response.close();
+		}
+		long latency = System.currentTimeMillis() - start;
+		assertTrue("Took " + latency + "ms", latency < 2500);
+
+		// The abandoned request finishes in the background without affecting later requests
+		myInterceptor.myDelayMillis = 0;
+		ourRestServer.setAsyncRequestTimeout(RestfulServer.DEFAULT_ASYNC_REQUEST_TIMEOUT);
+		assertThat(execute(new HttpGet(ourServerBase + "/Patient?_format=json")), startsWith("200 "));
+	}
+
+	/**
+	 * A request which times out while it is still queued is never processed, and requests are
+	 * rejected once the queue of the executor is full
+	 */
+	@Test
+	public void testTimedOutRequestIsNotProcessed() throws Exception {
+		ThreadPoolExecutor executor = new ThreadPoolExecutor(1, 1, 0L, TimeUnit.MILLISECONDS, new ArrayBlockingQueue<Runnable>(1));
+		ourRestServer.setAsyncRequestExecutor(executor);
+		ourRestServer.setAsyncRequestProcessing(true);
+		ourRestServer.setAsyncRequestTimeout(500);
+		myInterceptor.myLatch = new CountDownLatch(1);
+
+		final CloseableHttpClient client = HttpClientBuilder.create().setMaxConnPerRoute(5).setMaxConnTotal(5).build();
+		ExecutorService clients = Executors.newFixedThreadPool(2);
+		try {
+			// Occupies the only thread of the executor
+			Future<Integer> blocked = clients.submit(new Callable<Integer>() {
+				@Override
+				public Integer call() throws Exception {
+					return executeForStatus(client, new HttpGet(ourServerBase + "/Patient?_format=json"));
+				}
+			});
+			Thread.sleep(200);
+
+			// Waits in the queue until it times out
+			Patient patient = new Patient();
+			patient.addName().setFamily("testTimedOutRequestIsNotProcessed");
+			final HttpPost post = new HttpPost(ourServerBase + "/Patient");
+			post.setEntity(new StringEntity(myFhirCtx.newJsonParser().encodeResourceToString(patient), ContentType.create(Constants.CT_FHIR_JSON, "UTF-8")));
+			Future<Integer> queued = clients.submit(new Callable<Integer>() {
+				@Override
+				public Integer call() throws Exception {
+					return executeForStatus(client, post);
+				}
+			});
+			Thread.sleep(200);
+
+			assertEquals(503, executeForStatus(client, new HttpGet(ourServerBase + "/Patient?_format=json")));
+			assertEquals(500, queued.get(5, TimeUnit.SECONDS).intValue());
+			assertEquals(500, blocked.get(5, TimeUnit.SECONDS).intValue());
+		} finally {
+			myInterceptor.myLatch.countDown();
+			clients.shutdown();
+		}
+		executor.shutdown();
+		assertTrue(executor.awaitTermination(10, TimeUnit.SECONDS));
+		client.close();
+
+		SearchParameterMap map = new SearchParameterMap();
+		map.add(Patient.SP_FAMILY, new StringParam("testTimedOutRequestIsNotProcessed"));
+		assertEquals(0, myPatientDao.search(map).size());
+	}
+
+	private static int executeForStatus(CloseableHttpClient theClient, HttpRequestBase theRequest) throws IOException {
+		CloseableHttpResponse response = theClient.execute(theRequest);
+		try {
+			return response.getStatusLine().getStatusCode();
+		} finally {
+			response.close();
+		}
+	}
+
+	@AfterClass
+	public static void afterClassClearContext() {
+		TestUtil.clearAllStaticFieldsForUnitTest();
+	}
+
+	private static class MyInterceptor extends InterceptorAdapter {
+
+		private volatile long myDelayMillis;
+		private volatile CountDownLatch myLatch;
+		private volatile String myThreadName;
+
+		@Override
+		public boolean incomingRequestPreProcessed(HttpServletRequest theRequest, HttpServletResponse theResponse) {
+			theResponse.addHeader("X-Intercepted", "true");
+			myThreadName = Thread.currentThread().getName();
+			if (myDelayMillis > 0) {
+				try {
+					Thread.sleep(myDelayMillis);
+				} catch (InterruptedException e) {
+					Thread.currentThread().interrupt();
+				}
+			}
+			CountDownLatch latch = myLatch;
+			if (latch != null) {
+				// Keep the request thread busy, even if the request is cancelled
+				boolean interrupted = false;
+				while (latch.getCount() > 0) {
+					try {
+						latch.await();
+					} catch (InterruptedException e) {
+						interrupted = true;
+					}
+				}
+				if (interrupted) {
+					Thread.currentThread().interrupt();
+				}
+			}
+			return true;
+		}
+
+	}
+
+}
@@ -2,7 +2,9 @@ package ca.uhn.fhir.jpa.provider.dstu3;
 
 import static org.hamcrest.Matchers.blankOrNullString;
 import static org.hamcrest.Matchers.containsString;
+import static org.hamcrest.Matchers.greaterThanOrEqualTo;
 import static org.hamcrest.Matchers.not;
+import static org.junit.Assert.assertEquals;
 import static org.junit.Assert.assertNotNull;
 import static org.junit.Assert.assertThat;
 import static org.junit.Assert.fail;
@@ -13,9 +15,15 @@ import org.hl7.fhir.dstu3.model.Bundle.BundleLinkComponent;
 import org.hl7.fhir.dstu3.model.Patient;
 import org.junit.AfterClass;
 import org.junit.Test;
+import org.springframework.beans.factory.annotation.Autowired;
 
+import ca.uhn.fhir.jpa.dao.DaoConfig;
+import ca.uhn.fhir.jpa.dao.SearchParameterMap;
+import ca.uhn.fhir.jpa.dao.data.ISearchDao;
+import ca.uhn.fhir.jpa.dao.data.ISearchResultDao;
 import ca.uhn.fhir.rest.gclient.IClientExecutable;
 import ca.uhn.fhir.rest.gclient.IQuery;
+import ca.uhn.fhir.rest.param.StringParam;
 import ca.uhn.fhir.rest.server.exceptions.ResourceGoneException;
 import ca.uhn.fhir.rest.server.servlet.ServletRequestDetails;
 import ca.uhn.fhir.util.TestUtil;
@@ -24,11 +32,19 @@ public class StaleSearchDeletingSvcDstu3Test extends BaseResourceProviderDstu3Te
 
 	private static final org.slf4j.Logger ourLog = org.slf4j.LoggerFactory.getLogger(StaleSearchDeletingSvcDstu3Test.class);
 
+	@Autowired
+	private ISearchDao mySearchEntityDao;
+
+	@Autowired
+	private ISearchResultDao mySearchResultDao;
+
 	@Override
 	public void after() throws Exception {
 		super.after();
 
 		myDaoConfig.setExpireSearchResultsAfterMillis(DateUtils.MILLIS_PER_HOUR);
+		myDaoConfig.setExpireSearchResultsBatchSize(new DaoConfig().getExpireSearchResultsBatchSize());
+		myDaoConfig.setExpireSearchResultsRowBatchSize(new DaoConfig().getExpireSearchResultsRowBatchSize());
 	}
 
 	@AfterClass
@@ -85,4 +101,56 @@ public class StaleSearchDeletingSvcDstu3Test extends BaseResourceProviderDstu3Te
 		}
 	}
 
+	@Test
+	public void testExpireInChunks() throws Exception {
+		for (int i = 0; i < 5; i++) {
+			Patient pt1 = new Patient();
+			pt1.addName().setFamily("Chunks" + i);
+			myPatientDao.create(pt1, mySrd);
+		}
+
+		for (int i = 0; i < 5; i++) {
+			SearchParameterMap map = new SearchParameterMap();
+			map.add(Patient.SP_FAMILY, new StringParam("Chunks" + i));
+			assertEquals(1, myPatientDao.search(map).size());
+		}
+		long searchesBefore = mySearchEntityDao.count();
+		assertThat(searchesBefore, greaterThanOrEqualTo(5L));
+		long expiredBefore = myStaleSearchDeletingSvc.getExpiredSearchCount();
+
+		Thread.sleep(20);
+		myDaoConfig.setExpireSearchResultsBatchSize(2);
+		myDaoConfig.setExpireSearchResultsAfterMillis(10);
+		myStaleSearchDeletingSvc.pollForStaleSearches();
+
+		assertEquals(0, mySearchEntityDao.count());
+		assertEquals(0, mySearchResultDao.count());
+		assertEquals(searchesBefore, myStaleSearchDeletingSvc.getExpiredSearchCount() - expiredBefore);
+	}
+
+	@Test
+	public void testExpireResultsInRowBatches() throws Exception {
+		for (int i = 0; i < 7; i++) {
+			Patient pt1 = new Patient();
+			pt1.addName().setFamily("RowBatches");
+			myPatientDao.create(pt1, mySrd);
+		}
+
+		SearchParameterMap map = new SearchParameterMap();
+		map.add(Patient.SP_FAMILY, new StringParam("RowBatches"));
+		assertEquals(7, myPatientDao.search(map).size());
+		long resultsBefore = mySearchResultDao.count();
+		assertThat(resultsBefore, greaterThanOrEqualTo(7L));
+		long expiredBefore = myStaleSearchDeletingSvc.getExpiredSearchResultCount();
+
+		Thread.sleep(20);
+		myDaoConfig.setExpireSearchResultsRowBatchSize(2);
+		myDaoConfig.setExpireSearchResultsAfterMillis(10);
+		myStaleSearchDeletingSvc.pollForStaleSearches();
+
+		assertEquals(0, mySearchEntityDao.count());
+		assertEquals(0, mySearchResultDao.count());
+		assertEquals(resultsBefore, myStaleSearchDeletingSvc.getExpiredSearchResultCount() - expiredBefore);
+	}
+
 }
@@ -0,0 +1,33 @@
+package ca.uhn.fhir.jpa.provider.dstu3;
+
+import org.junit.After;
+import org.junit.AfterClass;
+import org.junit.Before;
+
+import ca.uhn.fhir.jpa.dao.DaoConfig;
+import ca.uhn.fhir.util.TestUtil;
+
+/**
+ * Runs the websocket subscription tests with resources pushed to the bound
+ * connections as they are matched instead of being polled for
+ */
+public class SubscriptionsPushDstu3Test extends SubscriptionsDstu3Test {
+
+	@After
+	public void afterDisablePush() {
+		myDaoConfig.setSubscriptionWebsocketPushEnabled(new DaoConfig().isSubscriptionWebsocketPushEnabled());
+		myDaoConfig.setSubscriptionInMemoryMatchingEnabled(new DaoConfig().isSubscriptionInMemoryMatchingEnabled());
+	}
+
+	@Before
+	public void beforeEnablePush() {
+		myDaoConfig.setSubscriptionInMemoryMatchingEnabled(true);
+		myDaoConfig.setSubscriptionWebsocketPushEnabled(true);
+	}
+
+	@AfterClass
+	public static void afterClassClearContext() {
+		TestUtil.clearAllStaticFieldsForUnitTest();
+	}
+
+}
@@ -0,0 +1,113 @@
+package ca.uhn.fhir.jpa.subscription;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import org.hl7.fhir.dstu3.model.Observation;
+import org.hl7.fhir.instance.model.api.IBaseResource;
+import org.junit.Test;
+
+public class SubscriptionDeliveryQueueTest {
+
+	private static Observation createObservation(String theId, String theVersion) {
+		Observation retVal = new Observation();
+		retVal.setId("Observation/" + theId + "/_history/" + theVersion);
+		return retVal;
+	}
+
+	private static List<String> drainAll(SubscriptionDeliveryQueue theQueue, int theMaxBatchSize, final List<Integer> theBatchSizes) {
+		final List<String> retVal = new ArrayList<String>();
+		theQueue.drain(theMaxBatchSize, new SubscriptionDeliveryQueue.IConsumer() {
+			@Override
+			public void deliver(List<IBaseResource> theResources) {
+				theBatchSizes.add(theResources.size());
+				for (IBaseResource next : theResources) {
+					retVal.add(next.getIdElement().getValue());
+				}
+			}
+		});
+		return retVal;
+	}
+
+	@Test
+	public void testCoalesceKeepsPosition() {
+		SubscriptionDeliveryQueue queue = new SubscriptionDeliveryQueue(10);
+		queue.offer(createObservation("A", "1"));
+		queue.offer(createObservation("B", "1"));
+		queue.offer(createObservation("A", "2"));
+
+		assertEquals(2, queue.getDepth());
+		assertEquals(1, queue.getCoalescedCount());
+		assertEquals(3, queue.getEnqueuedCount());
+
+		List<String> delivered = drainAll(queue, 10, new ArrayList<Integer>());
+		assertEquals("[Observation/A/_history/2, Observation/B/_history/1]", delivered.toString());
+		assertEquals(2, queue.getDeliveredCount());
+		assertEquals(0, queue.getDepth());
+	}
+
+	@Test
+	public void testDrainInBatches() {
+		SubscriptionDeliveryQueue queue = new SubscriptionDeliveryQueue(100);
+		for (int i = 0; i < 25; i++) {
+			queue.offer(createObservation("O" + i, "1"));
+		}
+
+		List<Integer> batchSizes = new ArrayList<Integer>();
+		List<String> delivered = drainAll(queue, 10, batchSizes);
+		assertEquals(25, delivered.size());
+		assertEquals("Observation/O0/_history/1", delivered.get(0));
+		assertEquals("Observation/O24/_history/1", delivered.get(24));
+		assertEquals("[10, 10, 5]", batchSizes.toString());
+		assertEquals(25, queue.getMaxDepth());
+	}
+
+	@Test
+	public void testDrainScheduledOnlyOnce() {
+		SubscriptionDeliveryQueue queue = new SubscriptionDeliveryQueue(10);
+		assertTrue(queue.offer(createObservation("A", "1")));
+		assertFalse(queue.offer(createObservation("B", "1")));
+
+		drainAll(queue, 10, new ArrayList<Integer>());
+		assertTrue(queue.offer(createObservation("C", "1")));
+	}
+
+	@Test
+	public void testDrainFailureAllowsReschedule() {
+		SubscriptionDeliveryQueue queue = new SubscriptionDeliveryQueue(10);
+		assertTrue(queue.offer(createObservation("A", "1")));
+		try {
+			queue.drain(10, new SubscriptionDeliveryQueue.IConsumer() {
+				@Override
+				public void deliver(List<IBaseResource> theResources) {
+					throw new IllegalStateException("FAILED");
+				}
+			});
+			fail();
+		} catch (IllegalStateException e) {
+			assertEquals("FAILED", e.getMessage());
+		}
+		assertTrue(queue.offer(createObservation("B", "1")));
+	}
+
+	@Test
+	public void testFullQueueDropsOldest() {
+		SubscriptionDeliveryQueue queue = new SubscriptionDeliveryQueue(3);
+		for (int i = 0; i < 5; i++) {
+			queue.offer(createObservation("O" + i, "1"));
+		}
+
+		assertEquals(3, queue.getDepth());
+		assertEquals(2, queue.getDroppedCount());
+		assertEquals(3, queue.getMaxDepth());
+
+		List<String> delivered = drainAll(queue, 10, new ArrayList<Integer>());
+		assertEquals("[Observation/O2/_history/1, Observation/O3/_history/1, Observation/O4/_history/1]", delivered.toString());
+	}
+
+}
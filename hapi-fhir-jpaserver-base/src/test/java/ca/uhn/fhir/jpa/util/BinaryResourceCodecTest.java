@@ -0,0 +1,264 @@
+package ca.uhn.fhir.jpa.util;
+
+import static org.hamcrest.Matchers.startsWith;
+import static org.junit.Assert.*;
+
+import java.io.IOException;
+import java.math.BigDecimal;
+import java.nio.charset.StandardCharsets;
+
+import org.apache.commons.io.IOUtils;
+import org.hl7.fhir.dstu3.model.Bundle;
+import org.hl7.fhir.dstu3.model.CodeableConcept;
+import org.hl7.fhir.dstu3.model.DateType;
+import org.hl7.fhir.dstu3.model.Enumerations.AdministrativeGender;
+import org.hl7.fhir.dstu3.model.Observation;
+import org.hl7.fhir.dstu3.model.Organization;
+import org.hl7.fhir.dstu3.model.Patient;
+import org.hl7.fhir.dstu3.model.Quantity;
+import org.hl7.fhir.dstu3.model.StringType;
+import org.hl7.fhir.instance.model.api.IBaseResource;
+import org.junit.AfterClass;
+import org.junit.Test;
+
+import ca.uhn.fhir.context.FhirContext;
+import ca.uhn.fhir.jpa.dao.GZipUtil;
+import ca.uhn.fhir.parser.DataFormatException;
+import ca.uhn.fhir.parser.IParser;
+import ca.uhn.fhir.util.TestUtil;
+
+public class BinaryResourceCodecTest {
+	private static final org.slf4j.Logger ourLog = org.slf4j.LoggerFactory.getLogger(BinaryResourceCodecTest.class);
+	private static FhirContext ourCtx = FhirContext.forDstu3();
+
+	private <T extends IBaseResource> T assertRoundTrip(T theResource) {
+		BinaryResourceCodec codec = BinaryResourceCodec.forContext(ourCtx);
+		byte[] bytes = codec.encode(theResource);
+		assertNotNull(bytes);
+
+		@SuppressWarnings("unchecked")
+		T parsed = (T) codec.decode(theResource.getClass(), bytes);
+		IParser parser = ourCtx.newJsonParser();
+		assertEquals(parser.encodeResourceToString(theResource), parser.encodeResourceToString(parsed));
+		return parsed;
+	}
+
+	private static byte[] withFingerprint(byte[] theEncoded, int theFingerprint) {
+		byte[] retVal = theEncoded.clone();
+		retVal[2] = (byte) (theFingerprint >>> 24);
+		retVal[3] = (byte) (theFingerprint >>> 16);
+		retVal[4] = (byte) (theFingerprint >>> 8);
+		retVal[5] = (byte) theFingerprint;
+		return retVal;
+	}
+
+	private Bundle loadBundle(String theClasspath) throws IOException {
+		String input = IOUtils.toString(getClass().getResourceAsStream(theClasspath), StandardCharsets.UTF_8);
+		return ourCtx.newJsonParser().parseResource(Bundle.class, input);
+	}
+
+	/**
+	 * Content written using other structure definitions is decoded once their schema has
+	 * been registered
+	 */
+	@Test
+	public void testDecodeUsingRegisteredSchema() throws IOException {
+		BinaryResourceCodec codec = BinaryResourceCodec.forContext(ourCtx);
+		int fingerprint = codec.getFingerprint() ^ 0x12345678;
+		Bundle bundle = loadBundle("/bug147-bundle-dstu3.json");
+		byte[] encoded = withFingerprint(codec.encode(bundle), fingerprint);
+		assertEquals(fingerprint, codec.getFingerprint(encoded));
+		assertFalse(codec.canDecode(fingerprint));
+
+		try {
+			codec.decode(Bundle.class, encoded);
+			fail();
+		} catch (DataFormatException e) {
+			assertThat(e.getMessage(), startsWith("Binary resource was encoded using different structure definitions"));
+		}
+
+		try {
+			codec.registerSchema(encoded);
+			fail();
+		} catch (DataFormatException e) {
+			assertEquals("Content is not a binary resource schema", e.getMessage());
+		}
+
+		codec.registerSchema(withFingerprint(codec.getSchema(), fingerprint));
+		assertTrue(codec.canDecode(fingerprint));
+
+		IParser parser = ourCtx.newJsonParser();
+		assertEquals(parser.encodeResourceToString(bundle), parser.encodeResourceToString(codec.decode(Bundle.class, encoded)));
+	}
+
+	@Test
+	public void testInvalidContent() {
+		BinaryResourceCodec codec = BinaryResourceCodec.forContext(ourCtx);
+		try {
+			codec.decode(Patient.class, "{\"resourceType\":\"Patient\"}".getBytes(StandardCharsets.UTF_8));
+			fail();
+		} catch (DataFormatException e) {
+			assertEquals("Content is not a binary encoded resource", e.getMessage());
+		}
+
+		byte[] bytes = codec.encode(new Patient().setActive(true));
+		byte[] changedFingerprint = bytes.clone();
+		changedFingerprint[5]++;
+		try {
+			codec.decode(Patient.class, changedFingerprint);
+			fail();
+		} catch (DataFormatException e) {
+			assertThat(e.getMessage(), startsWith("Binary resource was encoded using different structure definitions"));
+		}
+
+		byte[] truncated = new byte[bytes.length - 2];
+		System.arraycopy(bytes, 0, truncated, 0, truncated.length);
+		try {
+			codec.decode(Patient.class, truncated);
+			fail();
+		} catch (DataFormatException e) {
+			// good
+		}
+
+		try {
+			codec.decode(Observation.class, bytes);
+			fail();
+		} catch (DataFormatException e) {
+			assertThat(e.getMessage(), startsWith("Binary resource has type org.hl7.fhir.dstu3.model.Patient"));
+		}
+	}
+
+	@Test
+	public void testReferenceVersionsAreStripped() {
+		Patient p = new Patient();
+		p.getManagingOrganization().setReference("Organization/1/_history/2");
+
+		BinaryResourceCodec codec = BinaryResourceCodec.forContext(ourCtx);
+		Patient parsed = codec.decode(Patient.class, codec.encode(p));
+		assertEquals("Organization/1", parsed.getManagingOrganization().getReference());
+	}
+
+	@Test
+	public void testRoundTripBundles() throws IOException {
+		assertRoundTrip(loadBundle("/bug147-bundle-dstu3.json"));
+		assertRoundTrip(loadBundle("/document-bundle-dstu3.json"));
+	}
+
+	@Test
+	public void testRoundTripChoicesEnumerationsAndContained() {
+		Organization org = new Organization();
+		org.setId("#1");
+		org.setName("Contained Org");
+
+		Patient p = new Patient();
+		p.setGender(AdministrativeGender.FEMALE);
+		p.setBirthDateElement(new DateType("2011-02-03"));
+		p.getContained().add(org);
+		p.getManagingOrganization().setReference("#1");
+		p.addExtension().setUrl("http://foo").setValue(new CodeableConcept().setText("concept"));
+
+		Patient parsed = assertRoundTrip(p);
+		assertEquals(AdministrativeGender.FEMALE, parsed.getGender());
+		assertEquals("Contained Org", ((Organization) parsed.getContained().get(0)).getName());
+	}
+
+	@Test
+	public void testRoundTripDecimalPrecision() throws Exception {
+		Observation obs = new Observation();
+		obs.setValue(new Quantity().setValue(new BigDecimal("1.500")).setUnit("mg"));
+		obs.addComponent().setValue(new Quantity().setValue(new BigDecimal("-0.00001")));
+		obs.addComponent().setValue(new Quantity().setValue(new BigDecimal("12345678901234567890.1")));
+
+		Observation parsed = assertRoundTrip(obs);
+		assertEquals("1.500", parsed.getValueQuantity().getValueElement().getValueAsString());
+	}
+
+	@Test
+	public void testRoundTripExtensionsAndUnicode() {
+		Patient p = new Patient();
+		p.setId("Patient/123");
+		p.setActive(true);
+		p.addName().setFamily("é中文 family").addGiven("A").addGiven("B");
+		p.getNameFirstRep().getGiven().get(1).addExtension().setUrl("http://foo").setValue(new StringType("ext"));
+		p.getNameFirstRep().getGiven().get(1).setId("given-id");
+		p.addName().addGiven("A");
+		StringBuilder b = new StringBuilder();
+		for (int i = 0; i < 200; i++) {
+			b.append("long text ");
+		}
+		p.addAddress().addLine(b.toString()).addLine(b.toString());
+		p.addExtension().setUrl("http://bar").setValue(new StringType("bar"));
+
+		Patient parsed = assertRoundTrip(p);
+		assertEquals("123", parsed.getIdElement().getIdPart());
+		assertEquals("é中文 family", parsed.getNameFirstRep().getFamily());
+		assertEquals("given-id", parsed.getNameFirstRep().getGiven().get(1).getId());
+		assertEquals("ext", ((StringType) parsed.getNameFirstRep().getGiven().get(1).getExtension().get(0).getValue()).getValue());
+	}
+
+	/**
+	 * Encoded content must be smaller than the default JSONC encoding. Encode and parse
+	 * times are informational only, and are logged.
+	 */
+	@Test
+	public void testSmallerThanJsonc() throws IOException {
+		BinaryResourceCodec codec = BinaryResourceCodec.forContext(ourCtx);
+		IParser parser = ourCtx.newJsonParser();
+
+		for (String next : new String[] { "/bug147-bundle-dstu3.json", "/document-bundle-dstu3.json" }) {
+			Bundle bundle = loadBundle(next);
+			String json = parser.encodeResourceToString(bundle);
+			byte[] jsonc = GZipUtil.compress(json);
+			byte[] binary = codec.encode(bundle);
+			ourLog.info("{} encoded sizes - JSON: {} bytes, JSONC: {} bytes, BJSON: {} bytes", next, json.length(), jsonc.length, binary.length);
+			assertTrue(binary.length < jsonc.length);
+		}
+
+		Bundle bundle = loadBundle("/bug147-bundle-dstu3.json");
+		byte[] jsonc = GZipUtil.compress(parser.encodeResourceToString(bundle));
+		byte[] binary = codec.encode(bundle);
+
+		int passes = 200;
+		for (int i = 0; i < passes; i++) {
+			parser.parseResource(Bundle.class, GZipUtil.decompress(jsonc));
+			codec.decode(Bundle.class, binary);
+		}
+
+		StopWatch sw = new StopWatch();
+		for (int i = 0; i < passes; i++) {
+			GZipUtil.compress(parser.encodeResourceToString(bundle));
+		}
+		long jsoncEncode = sw.getMillisAndRestart();
+		for (int i = 0; i < passes; i++) {
+			codec.encode(bundle);
+		}
+		long binaryEncode = sw.getMillisAndRestart();
+		for (int i = 0; i < passes; i++) {
+			parser.parseResource(Bundle.class, GZipUtil.decompress(jsonc));
+		}
+		long jsoncParse = sw.getMillisAndRestart();
+		for (int i = 0; i < passes; i++) {
+			codec.decode(Bundle.class, binary);
+		}
+		long binaryParse = sw.getMillisAndRestart();
+
+		ourLog.info("{} passes - JSONC encode {}ms parse {}ms, BJSON encode {}ms parse {}ms", passes, jsoncEncode, jsoncParse, binaryEncode, binaryParse);
+	}
+
+	@Test
+	public void testUnsupportedContentIsNotEncoded() {
+		Patient p = new Patient();
+		p.getManagingOrganization().setResource(new Organization().setName("Org"));
+		assertNull(BinaryResourceCodec.forContext(ourCtx).encode(p));
+
+		ca.uhn.fhir.model.dstu2.resource.Patient dstu2Patient = new ca.uhn.fhir.model.dstu2.resource.Patient();
+		dstu2Patient.setActive(true);
+		assertNull(BinaryResourceCodec.forContext(FhirContext.forDstu2()).encode(dstu2Patient));
+	}
+
+	@AfterClass
+	public static void afterClassClearContext() {
+		TestUtil.clearAllStaticFieldsForUnitTest();
+	}
+
+}
@@ -0,0 +1,135 @@
+package ca.uhn.fhir.jpa.util;
+
+import static org.hamcrest.Matchers.containsInAnyOrder;
+import static org.junit.Assert.*;
+
+import java.util.*;
+
+import org.junit.Test;
+
+public class LongHashSetTest {
+	private static final org.slf4j.Logger ourLog = org.slf4j.LoggerFactory.getLogger(LongHashSetTest.class);
+
+	@Test
+	public void testAddContainsRemove() {
+		LongHashSet set = new LongHashSet();
+		assertTrue(set.isEmpty());
+		assertTrue(set.add(1L));
+		assertTrue(set.add(0L));
+		assertTrue(set.add(-5L));
+		assertFalse(set.add(1L));
+		assertFalse(set.add(0L));
+		assertEquals(3, set.size());
+
+		assertTrue(set.contains(0L));
+		assertTrue(set.contains(Long.valueOf(-5L)));
+		assertFalse(set.contains(2L));
+		assertFalse(set.contains("1"));
+		assertThat(set, containsInAnyOrder(0L, 1L, -5L));
+
+		assertTrue(set.remove(0L));
+		assertFalse(set.remove(0L));
+		assertTrue(set.remove(Long.valueOf(1L)));
+		assertEquals(1, set.size());
+		assertThat(set, containsInAnyOrder(-5L));
+
+		set.clear();
+		assertTrue(set.isEmpty());
+		assertFalse(set.contains(-5L));
+	}
+
+	/**
+	 * Compare against a HashSet using random operations, with a small value range so
+	 * that there are lots of collisions and removals from the middle of probe sequences
+	 */
+	@Test
+	public void testCompareWithHashSet() {
+		Random random = new Random(123);
+		LongHashSet set = new LongHashSet();
+		Set<Long> expected = new HashSet<Long>();
+
+		for (int i = 0; i < 100000; i++) {
+			long value = random.nextInt(2000);
+			if (random.nextInt(3) == 0) {
+				assertEquals(expected.remove(value), set.remove(value));
+			} else {
+				assertEquals(expected.add(value), set.add(value));
+			}
+			assertEquals(expected.size(), set.size());
+		}
+
+		for (long i = 0; i < 2000; i++) {
+			assertEquals(expected.contains(i), set.contains(i));
+		}
+		assertEquals(expected, set);
+		assertEquals(expected, new HashSet<Long>(set));
+	}
+
+	@Test
+	public void testRetainAddRemoveAll() {
+		LongHashSet set = new LongHashSet(Arrays.asList(1L, 2L, 3L, 4L));
+		LongHashSet other = new LongHashSet(Arrays.asList(2L, 4L, 6L));
+
+		assertTrue(set.retainAll(other));
+		assertThat(set, containsInAnyOrder(2L, 4L));
+		assertFalse(set.retainAll(other));
+
+		assertTrue(set.retainAll(Arrays.asList(4L, 5L)));
+		assertThat(set, containsInAnyOrder(4L));
+
+		assertTrue(set.addAll(other));
+		assertThat(set, containsInAnyOrder(2L, 4L, 6L));
+		assertFalse(set.addAll(Arrays.asList(2L, 6L)));
+
+		assertTrue(set.removeAll(Arrays.asList(2L, 7L)));
+		assertThat(set, containsInAnyOrder(4L, 6L));
+
+		long[] array = set.toLongArray();
+		Arrays.sort(array);
+		assertArrayEquals(new long[] { 4L, 6L }, array);
+	}
+
+	@Test(expected = UnsupportedOperationException.class)
+	public void testIteratorRemoveNotSupported() {
+		Iterator<Long> iter = new LongHashSet(Arrays.asList(1L)).iterator();
+		iter.next();
+		iter.remove();
+	}
+
+	/**
+	 * Not a real benchmark, but logs the approximate heap used by a boxed
+	 * HashSet versus a LongHashSet holding the same PIDs
+	 */
+	@Test
+	public void testMemoryUsageComparedWithHashSet() {
+		int count = 500000;
+
+		long before = usedMemory();
+		Set<Long> boxed = new HashSet<Long>();
+		for (long i = 0; i < count; i++) {
+			boxed.add(i * 7);
+		}
+		long boxedBytes = usedMemory() - before;
+		assertEquals(count, boxed.size());
+		boxed = null;
+
+		before = usedMemory();
+		LongHashSet primitive = new LongHashSet();
+		for (long i = 0; i < count; i++) {
+			primitive.add(i * 7);
+		}
+		long primitiveBytes = usedMemory() - before;
+		assertEquals(count, primitive.size());
+
+		ourLog.info("{} PIDs use approximately {} bytes in a HashSet and {} bytes in a LongHashSet", new Object[] { count, boxedBytes, primitiveBytes });
+	}
+
+	private static long usedMemory() {
+		Runtime runtime = Runtime.getRuntime();
+		for (int i = 0; i < 3; i++) {
+			System.gc();
+		}
+		return runtime.totalMemory() - runtime.freeMemory();
+	}
+
+}
@@ -0,0 +1,139 @@
+package ca.uhn.fhir.jpa.util.compress;
+
+import static org.junit.Assert.*;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+
+import org.apache.commons.io.IOUtils;
+import org.hl7.fhir.dstu3.model.Bundle;
+import org.hl7.fhir.dstu3.model.Bundle.BundleEntryComponent;
+import org.hl7.fhir.dstu3.model.Patient;
+import org.junit.AfterClass;
+import org.junit.BeforeClass;
+import org.junit.Test;
+
+import ca.uhn.fhir.context.FhirContext;
+import ca.uhn.fhir.jpa.dao.GZipUtil;
+import ca.uhn.fhir.parser.DataFormatException;
+import ca.uhn.fhir.parser.IParser;
+import ca.uhn.fhir.util.TestUtil;
+
+public class ResourceCompressionCodecTest {
+	private static final org.slf4j.Logger ourLog = org.slf4j.LoggerFactory.getLogger(ResourceCompressionCodecTest.class);
+	private static FhirContext ourCtx = FhirContext.forDstu3();
+	private static List<String> ourSamples;
+
+	private IResourceCompressionCodec[] allCodecs() {
+		return new IResourceCompressionCodec[] { new GZipCompressionCodec(), new SnappyCompressionCodec(), new DeflateDictionaryCompressionCodec() };
+	}
+
+	@Test
+	public void testDictionaryIdMismatch() {
+		byte[] compressed = new DeflateDictionaryCompressionCodec().compress("{\"resourceType\":\"Patient\"}");
+		DeflateDictionaryCompressionCodec other = new DeflateDictionaryCompressionCodec((byte) 2, "other".getBytes(StandardCharsets.UTF_8), 1);
+		try {
+			other.decompress(compressed);
+			fail();
+		} catch (DataFormatException e) {
+			assertEquals("Failed to decompress contents", e.getMessage());
+		}
+	}
+
+	@Test
+	public void testEmptyAndInvalid() {
+		for (IResourceCompressionCodec next : allCodecs()) {
+			assertEquals("", next.decompress(next.compress("")));
+			try {
+				next.decompress(new byte[] { 1, 2, 3 });
+				fail(next.getClass().getSimpleName());
+			} catch (DataFormatException e) {
+				// good
+			}
+		}
+	}
+
+	@Test
+	public void testGZipCompatibleWithExistingRows() {
+		String input = ourSamples.get(0);
+		assertEquals(input, new GZipCompressionCodec().decompress(GZipUtil.compress(input)));
+		assertEquals(input, GZipUtil.decompress(new GZipCompressionCodec().compress(input)));
+	}
+
+	@Test
+	public void testMetrics() {
+		GZipCompressionCodec codec = new GZipCompressionCodec();
+		codec.decompress(codec.compress(ourSamples.get(0)));
+		codec.compress(ourSamples.get(1));
+
+		CompressionCodecMetrics metrics = codec.getMetrics();
+		assertEquals(2, metrics.getCompressCount());
+		assertEquals(1, metrics.getDecompressCount());
+		assertEquals(ourSamples.get(0).length() + ourSamples.get(1).length(), metrics.getUncompressedBytes());
+		assertTrue(metrics.getCompressionRatio() > 1.0);
+
+		metrics.reset();
+		assertEquals(0, metrics.getCompressCount());
+		assertEquals(0.0, metrics.getCompressionRatio(), 0.0);
+	}
+
+	@Test
+	public void testRoundTrip() {
+		for (IResourceCompressionCodec next : allCodecs()) {
+			for (String nextSample : ourSamples) {
+				assertEquals(next.getClass().getSimpleName(), nextSample, next.decompress(next.compress(nextSample)));
+			}
+			assertEquals("é中文", next.decompress(next.compress("é中文")));
+		}
+	}
+
+	/**
+	 * Logs the ratio and timing of each codec over the sample resources. This is
+	 * informational only.
+	 */
+	@Test
+	public void testThroughput() {
+		for (IResourceCompressionCodec next : allCodecs()) {
+			for (int pass = 0; pass < 50; pass++) {
+				for (String nextSample : ourSamples) {
+					next.decompress(next.compress(nextSample));
+				}
+			}
+			next.getMetrics().reset();
+			for (int pass = 0; pass < 200; pass++) {
+				for (String nextSample : ourSamples) {
+					next.decompress(next.compress(nextSample));
+				}
+			}
+			ourLog.info("{} - {}", next.getClass().getSimpleName(), next.getMetrics());
+		}
+	}
+
+	@AfterClass
+	public static void afterClassClearContext() {
+		TestUtil.clearAllStaticFieldsForUnitTest();
+	}
+
+	/**
+	 * Samples are the individual (small) resources from a search result bundle, since
+	 * that is what gets stored
+	 */
+	@BeforeClass
+	public static void beforeClass() throws IOException {
+		IParser parser = ourCtx.newJsonParser();
+		ourSamples = new ArrayList<String>();
+		for (String nextFile : new String[] { "/david_big_bundle.json", "/bug147-bundle-dstu3.json" }) {
+			String input = IOUtils.toString(ResourceCompressionCodecTest.class.getResourceAsStream(nextFile), StandardCharsets.UTF_8);
+			Bundle bundle = parser.parseResource(Bundle.class, input);
+			for (BundleEntryComponent next : bundle.getEntry()) {
+				ourSamples.add(parser.encodeResourceToString(next.getResource()));
+			}
+		}
+		Patient patient = new Patient();
+		patient.addName().setFamily("Smith").addGiven("John");
+		ourSamples.add(parser.encodeResourceToString(patient));
+	}
+
+}
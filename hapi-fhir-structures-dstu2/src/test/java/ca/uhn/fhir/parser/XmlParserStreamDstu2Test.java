@@ -0,0 +1,107 @@
+package ca.uhn.fhir.parser;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.nio.charset.StandardCharsets;
+
+import org.junit.AfterClass;
+import org.junit.Test;
+
+import ca.uhn.fhir.context.FhirContext;
+import ca.uhn.fhir.model.api.ExtensionDt;
+import ca.uhn.fhir.model.dstu2.resource.Bundle;
+import ca.uhn.fhir.model.dstu2.resource.Patient;
+import ca.uhn.fhir.model.dstu2.valueset.AdministrativeGenderEnum;
+import ca.uhn.fhir.model.dstu2.valueset.BundleTypeEnum;
+import ca.uhn.fhir.model.dstu2.valueset.NarrativeStatusEnum;
+import ca.uhn.fhir.model.primitive.DateDt;
+import ca.uhn.fhir.model.primitive.StringDt;
+import ca.uhn.fhir.util.TestUtil;
+
+public class XmlParserStreamDstu2Test {
+	private static FhirContext ourCtx = FhirContext.forDstu2();
+	private static final org.slf4j.Logger ourLog = org.slf4j.LoggerFactory.getLogger(XmlParserStreamDstu2Test.class);
+
+	private Bundle createBundle(int theCount) {
+		Bundle bundle = new Bundle();
+		bundle.setType(BundleTypeEnum.SEARCH_RESULTS);
+		for (int i = 0; i < theCount; i++) {
+			Patient patient = new Patient();
+			patient.setId("Patient/" + i);
+			patient.getText().setStatus(NarrativeStatusEnum.GENERATED);
+			patient.getText().setDiv("<div>Patient <b>" + i + "</b> &amp; family</div>");
+			patient.addIdentifier().setSystem("http://example.com/mrn").setValue("MRN" + i);
+			patient.addName().addFamily("Family\u00e9" + i).addGiven("Given" + i);
+			patient.setGender(AdministrativeGenderEnum.FEMALE);
+			patient.setBirthDate(new DateDt("1970-01-01"));
+			patient.getBirthDateElement().addUndeclaredExtension(new ExtensionDt(false, "http://example.com/birthTime", new StringDt("12:00")));
+			bundle.addEntry().setFullUrl("http://example.com/fhir/Patient/" + i).setResource(patient);
+		}
+		return bundle;
+	}
+
+	@Test
+	public void testBenchmarkParseAndEncode() throws Exception {
+		String input = ourCtx.newXmlParser().encodeResourceToString(createBundle(2000));
+		byte[] bytes = input.getBytes(StandardCharsets.UTF_8);
+		ourLog.info("Input size: {} bytes", bytes.length);
+
+		IParser parser = ourCtx.newXmlParser();
+		Bundle bundle = parser.parseResource(Bundle.class, input);
+		for (int pass = 0; pass < 2; pass++) {
+			int passes = 5;
+
+			long start = System.nanoTime();
+			for (int i = 0; i < passes; i++) {
+				parser.parseResource(Bundle.class, input);
+			}
+			long parseStringMillis = (System.nanoTime() - start) / 1000000 / passes;
+
+			start = System.nanoTime();
+			for (int i = 0; i < passes; i++) {
+				parser.parseResource(Bundle.class, new ByteArrayInputStream(bytes));
+			}
+			long parseBytesMillis = (System.nanoTime() - start) / 1000000 / passes;
+
+			start = System.nanoTime();
+			for (int i = 0; i < passes; i++) {
+				parser.encodeResourceToString(bundle);
+			}
+			long encodeStringMillis = (System.nanoTime() - start) / 1000000 / passes;
+
+			start = System.nanoTime();
+			for (int i = 0; i < passes; i++) {
+				parser.encodeResourceToOutputStream(bundle, new ByteArrayOutputStream());
+			}
+			long encodeBytesMillis = (System.nanoTime() - start) / 1000000 / passes;
+
+			ourLog.info("Parse - String: {}ms - Bytes: {}ms - Encode - String: {}ms - Bytes: {}ms", parseStringMillis, parseBytesMillis, encodeStringMillis, encodeBytesMillis);
+		}
+	}
+
+	@Test
+	public void testRoundTripBytes() throws Exception {
+		Bundle bundle = createBundle(5);
+		for (boolean nextPrettyPrint : new boolean[] { false, true }) {
+			IParser parser = ourCtx.newXmlParser().setPrettyPrint(nextPrettyPrint);
+			String expected = parser.encodeResourceToString(bundle);
+
+			ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+			parser.encodeResourceToOutputStream(bundle, bytes);
+			assertArrayEquals(expected.getBytes(StandardCharsets.UTF_8), bytes.toByteArray());
+
+			Bundle fromString = parser.parseResource(Bundle.class, expected);
+			Bundle fromBytes = parser.parseResource(Bundle.class, new ByteArrayInputStream(bytes.toByteArray()));
+			assertEquals(parser.encodeResourceToString(fromString), parser.encodeResourceToString(fromBytes));
+		}
+	}
+
+	@AfterClass
+	public static void afterClassClearContext() {
+		TestUtil.clearAllStaticFieldsForUnitTest();
+	}
+
+}
@@ -1,6 +1,8 @@
 package ca.uhn.fhir.context;
 
 import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
 
 import org.hl7.fhir.dstu3.model.Enumerations.AdministrativeGender;
 import org.hl7.fhir.dstu3.model.Patient;
@@ -22,6 +24,34 @@ public class FhirContextDstu3Test {
 		TestUtil.clearAllStaticFieldsForUnitTest();
 	}
 		
+	@Test
+	public void testBenchmarkStartup() {
+		for (int i = 0; i < 4; i++) {
+			long start = System.nanoTime();
+			FhirContext ctx = FhirContext.forDstu3();
+			ctx.getElementDefinition("string");
+			long datatypesMillis = (System.nanoTime() - start) / 1000000;
+
+			for (String next : FhirVersionEnum.DSTU3.getModelTypes().getResourceNameToType().keySet()) {
+				ctx.getResourceDefinition(next);
+			}
+			long totalMillis = (System.nanoTime() - start) / 1000000;
+			ourLog.info("Context {} - Datatypes scanned in {}ms - All resource types scanned in {}ms", i, datatypesMillis, totalMillis);
+		}
+	}
+
+	@Test
+	public void testModelTypesAreShared() {
+		VersionModelTypes modelTypes = FhirVersionEnum.DSTU3.getModelTypes();
+		assertSame(modelTypes, FhirVersionEnum.DSTU3.getModelTypes());
+		assertEquals(Patient.class, modelTypes.getResourceNameToType().get("patient"));
+		assertTrue(modelTypes.getScannableDatatypes().contains(Reference.class));
+
+		FhirContext ctx = FhirContext.forDstu3();
+		assertEquals(Patient.class, ctx.getResourceDefinition("Patient").getImplementingClass());
+		assertEquals(Reference.class, ctx.getElementDefinition("Reference").getImplementingClass());
+	}
+
 	@SuppressWarnings("deprecation")
 	@Test
 	public void testAutoDetectVersion() {
@@ -0,0 +1,146 @@
+package ca.uhn.fhir.context;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertTrue;
+
+import java.io.File;
+import java.nio.charset.StandardCharsets;
+import java.util.Date;
+
+import org.apache.commons.io.FileUtils;
+import org.hl7.fhir.dstu3.model.Bundle;
+import org.hl7.fhir.dstu3.model.Bundle.BundleType;
+import org.hl7.fhir.dstu3.model.DateTimeType;
+import org.hl7.fhir.dstu3.model.DateType;
+import org.hl7.fhir.dstu3.model.Enumerations.AdministrativeGender;
+import org.hl7.fhir.dstu3.model.HumanName;
+import org.hl7.fhir.dstu3.model.Observation;
+import org.hl7.fhir.dstu3.model.Observation.ObservationStatus;
+import org.hl7.fhir.dstu3.model.Patient;
+import org.hl7.fhir.dstu3.model.Quantity;
+import org.hl7.fhir.dstu3.model.Reference;
+import org.hl7.fhir.dstu3.model.StringType;
+import org.hl7.fhir.instance.model.api.IBaseResource;
+import org.junit.AfterClass;
+import org.junit.Test;
+
+import ca.uhn.fhir.parser.IParser;
+import ca.uhn.fhir.util.FhirTerser;
+import ca.uhn.fhir.util.TestUtil;
+
+public class GeneratedAccessorsDstu3Test {
+	private static FhirContext ourCtx = FhirContext.forDstu3();
+	private static FhirContext ourGeneratedCtx;
+	private static final org.slf4j.Logger ourLog = org.slf4j.LoggerFactory.getLogger(GeneratedAccessorsDstu3Test.class);
+
+	static {
+		ourGeneratedCtx = FhirContext.forDstu3();
+		ourGeneratedCtx.setPerformanceOptions(PerformanceOptionsEnum.GENERATED_ACCESSORS);
+	}
+
+	private Bundle createBundle(int theCount) {
+		Bundle bundle = new Bundle();
+		bundle.setType(BundleType.SEARCHSET);
+		for (int i = 0; i < theCount; i++) {
+			Patient patient = new Patient();
+			patient.setId("Patient/" + i);
+			patient.addIdentifier().setSystem("http://example.com/mrn").setValue("MRN" + i);
+			patient.addName().setFamily("Family" + i).addGiven("Given" + i);
+			patient.setGender(AdministrativeGender.MALE);
+			patient.setBirthDateElement(new DateType("1970-01-01"));
+			patient.getBirthDateElement().addExtension().setUrl("http://example.com/birthTime").setValue(new StringType("12:00"));
+			bundle.addEntry().setResource(patient);
+
+			Observation obs = new Observation();
+			obs.setId("Observation/" + i);
+			obs.setStatus(ObservationStatus.FINAL);
+			obs.getCode().addCoding().setSystem("http://loinc.org").setCode("8867-4");
+			obs.setSubject(new Reference("Patient/" + i));
+			obs.setEffective(new DateTimeType(new Date()));
+			obs.setValue(new Quantity().setValue(60).setUnit("beats/minute"));
+			bundle.addEntry().setResource(obs);
+		}
+		return bundle;
+	}
+
+	@Test
+	public void testAccessorsAreGenerated() throws Exception {
+		ourGeneratedCtx.getResourceDefinition(Patient.class);
+		assertNotNull(Class.forName(Patient.class.getName() + "$$HapiFieldAccess$name"));
+
+		Patient patient = new Patient();
+		BaseRuntimeChildDefinition child = ourGeneratedCtx.getResourceDefinition(patient).getChildByName("name");
+		child.getMutator().addValue(patient, new HumanName().setFamily("A"));
+		child.getMutator().addValue(patient, new HumanName().setFamily("B"));
+		assertEquals(2, child.getAccessor().getValues(patient).size());
+		assertEquals("B", patient.getName().get(1).getFamily());
+
+		child = ourGeneratedCtx.getResourceDefinition(patient).getChildByName("birthDate");
+		assertEquals(0, child.getAccessor().getValues(patient).size());
+		child.getMutator().setValue(patient, new DateType("2011-01-01"));
+		assertEquals(1, child.getAccessor().getValues(patient).size());
+
+		assertEquals(1, ourGeneratedCtx.newTerser().getAllPopulatedChildElementsOfType(patient, DateType.class).size());
+	}
+
+	@Test
+	public void testBenchmarkParseAndEncode() {
+		String input = ourCtx.newJsonParser().encodeResourceToString(createBundle(2000));
+		ourLog.info("Input size: {} bytes", input.length());
+
+		for (int pass = 0; pass < 2; pass++) {
+			for (FhirContext nextCtx : new FhirContext[] { ourCtx, ourGeneratedCtx }) {
+				IParser parser = nextCtx.newJsonParser();
+				FhirTerser terser = nextCtx.newTerser();
+				int passes = 5;
+				long parseNanos = 0;
+				long encodeNanos = 0;
+				long terserNanos = 0;
+				for (int i = 0; i < passes; i++) {
+					long start = System.nanoTime();
+					Bundle bundle = parser.parseResource(Bundle.class, input);
+					parseNanos += System.nanoTime() - start;
+
+					start = System.nanoTime();
+					parser.encodeResourceToString(bundle);
+					encodeNanos += System.nanoTime() - start;
+
+					start = System.nanoTime();
+					terser.getAllPopulatedChildElementsOfType(bundle, StringType.class);
+					terserNanos += System.nanoTime() - start;
+				}
+				ourLog.info("Generated={} - Parse: {}ms - Encode: {}ms - Terser: {}ms", nextCtx == ourGeneratedCtx, parseNanos / 1000000 / passes, encodeNanos / 1000000 / passes, terserNanos / 1000000 / passes);
+			}
+		}
+	}
+
+	@Test
+	public void testSampleFilesRoundTripTheSame() throws Exception {
+		int count = 0;
+		for (File next : FileUtils.listFiles(new File("src/test/resources"), new String[] { "json" }, true)) {
+			String input = FileUtils.readFileToString(next, StandardCharsets.UTF_8);
+			IBaseResource reflective;
+			try {
+				reflective = ourCtx.newJsonParser().parseResource(input);
+			} catch (Exception e) {
+				// Not a valid DSTU3 resource
+				continue;
+			}
+			IBaseResource generated = ourGeneratedCtx.newJsonParser().parseResource(input);
+
+			String expected = ourCtx.newXmlParser().encodeResourceToString(reflective);
+			assertEquals(next.getName(), expected, ourGeneratedCtx.newXmlParser().encodeResourceToString(generated));
+			assertEquals(next.getName(), expected, ourGeneratedCtx.newXmlParser().encodeResourceToString(reflective));
+			count++;
+		}
+		ourLog.info("Compared {} files", count);
+		assertTrue(count > 5);
+	}
+
+	@AfterClass
+	public static void afterClassClearContext() {
+		TestUtil.clearAllStaticFieldsForUnitTest();
+	}
+
+}
@@ -0,0 +1,197 @@
+package ca.uhn.fhir.parser;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.StringWriter;
+import java.math.BigDecimal;
+import java.nio.charset.StandardCharsets;
+
+import org.apache.commons.io.FileUtils;
+import org.apache.commons.lang3.StringUtils;
+import org.hl7.fhir.dstu3.model.Bundle;
+import org.hl7.fhir.dstu3.model.Bundle.BundleType;
+import org.hl7.fhir.dstu3.model.Bundle.SearchEntryMode;
+import org.hl7.fhir.dstu3.model.DateType;
+import org.hl7.fhir.dstu3.model.Enumerations.AdministrativeGender;
+import org.hl7.fhir.dstu3.model.Patient;
+import org.hl7.fhir.dstu3.model.StringType;
+import org.hl7.fhir.instance.model.api.IBaseResource;
+import org.junit.AfterClass;
+import org.junit.Test;
+
+import ca.uhn.fhir.context.FhirContext;
+import ca.uhn.fhir.parser.json.DirectJsonWriter;
+import ca.uhn.fhir.parser.json.GsonWriter;
+import ca.uhn.fhir.parser.json.JsonLikeWriter;
+import ca.uhn.fhir.util.TestUtil;
+
+public class JsonParserDirectWriterDstu3Test {
+	private static FhirContext ourCtx = FhirContext.forDstu3();
+	private static final org.slf4j.Logger ourLog = org.slf4j.LoggerFactory.getLogger(JsonParserDirectWriterDstu3Test.class);
+
+	private void assertEncodesTheSame(IBaseResource theResource) throws IOException {
+		for (boolean nextPrettyPrint : new boolean[] { false, true }) {
+			JsonParser parser = (JsonParser) ourCtx.newJsonParser().setPrettyPrint(nextPrettyPrint);
+
+			StringWriter expected = new StringWriter();
+			parser.encodeResourceToJsonLikeWriter(theResource, new GsonWriter(expected));
+
+			StringWriter actual = new StringWriter();
+			parser.encodeResourceToJsonLikeWriter(theResource, new DirectJsonWriter(actual));
+			assertEquals(expected.toString(), actual.toString());
+
+			ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+			parser.encodeResourceToOutputStream(theResource, bytes);
+			assertArrayEquals(expected.toString().getBytes(StandardCharsets.UTF_8), bytes.toByteArray());
+		}
+	}
+
+	private Bundle createSearchBundle(int theCount) {
+		Bundle bundle = new Bundle();
+		bundle.setType(BundleType.SEARCHSET);
+		bundle.setTotal(theCount);
+		bundle.addLink().setRelation("self").setUrl("http://example.com/fhir/Patient?_count=" + theCount);
+		for (int i = 0; i < theCount; i++) {
+			Patient patient = new Patient();
+			patient.setId("Patient/" + i + "/_history/1");
+			patient.getMeta().setVersionId("1").addProfile("http://example.com/StructureDefinition/patient");
+			patient.addIdentifier().setSystem("http://example.com/mrn").setValue("MRN" + i);
+			patient.addName().setFamily("Family" + i).addGiven("Given" + i).addGiven("Middle \u00e9\u4e2d");
+			patient.setGender(AdministrativeGender.FEMALE);
+			patient.setBirthDateElement(new DateType("1970-01-01"));
+			patient.getBirthDateElement().addExtension().setUrl("http://example.com/birthTime").setValue(new StringType("12:00"));
+			patient.addAddress().addLine("123 Main Street").setCity("Toronto").setPostalCode("M5V 1A1");
+			bundle.addEntry().setFullUrl("http://example.com/fhir/Patient/" + i).setResource(patient).getSearch().setMode(SearchEntryMode.MATCH);
+		}
+		return bundle;
+	}
+
+	@Test
+	public void testBenchmarkSearchBundle() throws IOException {
+		Bundle bundle = createSearchBundle(2000);
+		assertEncodesTheSame(bundle);
+
+		JsonParser parser = (JsonParser) ourCtx.newJsonParser();
+		for (int pass = 0; pass < 2; pass++) {
+			int passes = 10;
+
+			long start = System.nanoTime();
+			for (int i = 0; i < passes; i++) {
+				parser.encodeResourceToJsonLikeWriter(bundle, new GsonWriter(new StringWriter()));
+			}
+			long gsonMillis = (System.nanoTime() - start) / 1000000 / passes;
+
+			start = System.nanoTime();
+			for (int i = 0; i < passes; i++) {
+				parser.encodeResourceToJsonLikeWriter(bundle, new DirectJsonWriter(new StringWriter()));
+			}
+			long directMillis = (System.nanoTime() - start) / 1000000 / passes;
+
+			start = System.nanoTime();
+			for (int i = 0; i < passes; i++) {
+				parser.encodeResourceToOutputStream(bundle, new ByteArrayOutputStream());
+			}
+			long streamMillis = (System.nanoTime() - start) / 1000000 / passes;
+
+			ourLog.info("Encode time - Gson writer: {}ms - Direct writer: {}ms - Direct to stream: {}ms", gsonMillis, directMillis, streamMillis);
+		}
+	}
+
+	@Test
+	public void testEncodeSampleFiles() throws Exception {
+		int count = 0;
+		for (File next : FileUtils.listFiles(new File("src/test/resources"), new String[] { "json" }, true)) {
+			IBaseResource resource;
+			try {
+				resource = ourCtx.newJsonParser().parseResource(FileUtils.readFileToString(next, StandardCharsets.UTF_8));
+			} catch (Exception e) {
+				// Not a valid DSTU3 resource
+				continue;
+			}
+			assertEncodesTheSame(resource);
+			count++;
+		}
+		ourLog.info("Compared {} files", count);
+		assertTrue(count > 5);
+	}
+
+	@Test
+	public void testEncodeSpecialCharacters() throws IOException {
+		StringBuilder value = new StringBuilder();
+		for (char i = 1; i < 0x80; i++) {
+			value.append(i);
+		}
+		value.append("\u00e9\u4e2d\u2028\u2029\ud83d\ude00");
+
+		Patient patient = new Patient();
+		patient.addName().setFamily(value.toString());
+		patient.addName().setFamily(StringUtils.repeat(value.toString(), 200));
+		assertEncodesTheSame(patient);
+	}
+
+	@Test
+	public void testSurrogatePairAcrossBufferBoundary() throws IOException {
+		// Move a surrogate pair across every position around the end of the scratch buffer
+		for (int i = 8170; i < 8200; i++) {
+			String value = StringUtils.repeat('a', i) + "\ud83d\ude00";
+
+			ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+			JsonLikeWriter writer = new DirectJsonWriter(bytes);
+			writer.init();
+			writer.beginObject();
+			writer.write("value", value);
+			writer.endObject();
+			writer.flush();
+
+			assertEquals("{\"value\":\"" + value + "\"}", new String(bytes.toByteArray(), StandardCharsets.UTF_8));
+		}
+	}
+
+	@Test
+	public void testWriteValues() throws IOException {
+		for (boolean nextPrettyPrint : new boolean[] { false, true }) {
+			StringWriter expected = new StringWriter();
+			writeValues(new GsonWriter(expected), nextPrettyPrint);
+			StringWriter actual = new StringWriter();
+			writeValues(new DirectJsonWriter(actual), nextPrettyPrint);
+			assertEquals(expected.toString(), actual.toString());
+		}
+	}
+
+	private void writeValues(JsonLikeWriter theWriter, boolean thePrettyPrint) throws IOException {
+		theWriter.setPrettyPrint(thePrettyPrint);
+		theWriter.init();
+		theWriter.beginObject();
+		theWriter.write("string", "a\"b\\c");
+		theWriter.write("decimal", new BigDecimal("1.50"));
+		theWriter.write("long", 123L);
+		theWriter.write("double", 1.5d);
+		theWriter.write("boolean", true);
+		theWriter.write("nullBoolean", (Boolean) null);
+		theWriter.writeNull("null");
+		theWriter.beginObject("emptyObject");
+		theWriter.endObject();
+		theWriter.beginArray("emptyArray");
+		theWriter.endArray();
+		theWriter.beginArray("array");
+		theWriter.write("a");
+		theWriter.writeNull();
+		theWriter.beginObject();
+		theWriter.write("b", 2L);
+		theWriter.endBlock();
+		theWriter.endBlock();
+		theWriter.endObject();
+		theWriter.flush();
+	}
+
+	@AfterClass
+	public static void afterClassClearContext() {
+		TestUtil.clearAllStaticFieldsForUnitTest();
+	}
+
+}
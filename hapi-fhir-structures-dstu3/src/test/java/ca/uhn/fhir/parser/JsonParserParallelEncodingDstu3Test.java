@@ -0,0 +1,209 @@
+package ca.uhn.fhir.parser;
+
+import static org.junit.Assert.assertEquals;
+
+import java.util.Collections;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+import org.hl7.fhir.dstu3.model.Bundle;
+import org.hl7.fhir.dstu3.model.Bundle.BundleType;
+import org.hl7.fhir.dstu3.model.Enumerations.AdministrativeGender;
+import org.hl7.fhir.dstu3.model.Narrative.NarrativeStatus;
+import org.hl7.fhir.dstu3.model.Observation;
+import org.hl7.fhir.dstu3.model.Organization;
+import org.hl7.fhir.dstu3.model.Patient;
+import org.hl7.fhir.dstu3.model.Reference;
+import org.hl7.fhir.dstu3.model.StringType;
+import org.junit.AfterClass;
+import org.junit.Before;
+import org.junit.BeforeClass;
+import org.junit.Test;
+
+import ca.uhn.fhir.context.FhirContext;
+import ca.uhn.fhir.util.TestUtil;
+
+public class JsonParserParallelEncodingDstu3Test {
+	private static FhirContext ourCtx = FhirContext.forDstu3();
+	private static ExecutorService ourExecutor;
+	private static final org.slf4j.Logger ourLog = org.slf4j.LoggerFactory.getLogger(JsonParserParallelEncodingDstu3Test.class);
+
+	private BundleEncodingMetrics myMetrics;
+
+	@Before
+	public void before() {
+		myMetrics = new BundleEncodingMetrics();
+	}
+
+	private Bundle createBundle(int theCount) {
+		Bundle bundle = new Bundle();
+		bundle.setId("bundle");
+		bundle.setType(BundleType.SEARCHSET);
+		bundle.setTotal(theCount);
+		for (int i = 0; i < theCount; i++) {
+			if (i % 5 == 4) {
+				Observation obs = new Observation();
+				obs.setId("Observation/" + i + "/_history/1");
+				obs.setSubject(new Reference("Patient/" + (i - 1)));
+				obs.setValue(new StringType("Value \u00e9 " + i));
+				bundle.addEntry().setFullUrl("http://example.com/fhir/Observation/" + i).setResource(obs);
+				continue;
+			}
+
+			Organization org = new Organization();
+			org.setId("#org");
+			org.setName("Org " + i);
+
+			Patient patient = new Patient();
+			patient.setId("Patient/" + i + "/_history/2");
+			patient.getMeta().addTag("http://example.com/tags", "tag", null);
+			patient.getText().setStatus(NarrativeStatus.GENERATED).setDivAsString("<div>Patient <b>" + i + "</b></div>");
+			patient.addExtension().setUrl("http://example.com/ext").setValue(new StringType("ext " + i));
+			patient.addIdentifier().setSystem("http://example.com/mrn").setValue("MRN" + i);
+			patient.addName().setFamily("Family" + i).addGiven("Given" + i);
+			patient.setGender(AdministrativeGender.MALE);
+			patient.getContained().add(org);
+			patient.setManagingOrganization(new Reference("#org"));
+			bundle.addEntry().setFullUrl("http://example.com/fhir/Patient/" + i).setResource(patient);
+		}
+		return bundle;
+	}
+
+	private IParser newParallelParser(int theThreshold) {
+		JsonParser retVal = (JsonParser) ourCtx.newJsonParser();
+		retVal.setEncodingMetrics(myMetrics);
+		retVal.setParallelEncoding(ourExecutor, theThreshold);
+		return retVal;
+	}
+
+	@Test
+	public void testBenchmarkEncodeBundle() {
+		Bundle bundle = createBundle(2000);
+		IParser sequential = ourCtx.newJsonParser();
+		IParser parallel = newParallelParser(10);
+
+		for (int pass = 0; pass < 2; pass++) {
+			int passes = 5;
+
+			long start = System.nanoTime();
+			for (int i = 0; i < passes; i++) {
+				sequential.encodeResourceToString(bundle);
+			}
+			long sequentialMillis = (System.nanoTime() - start) / 1000000 / passes;
+
+			start = System.nanoTime();
+			for (int i = 0; i < passes; i++) {
+				parallel.encodeResourceToString(bundle);
+			}
+			long parallelMillis = (System.nanoTime() - start) / 1000000 / passes;
+
+			ourLog.info("Sequential: {}ms - Parallel: {}ms", sequentialMillis, parallelMillis);
+		}
+
+		ourLog.info("Metrics: {}", myMetrics);
+		assertEquals(10, myMetrics.getParallelBundleCount());
+	}
+
+	@Test
+	public void testEncodeBelowThreshold() {
+		Bundle bundle = createBundle(9);
+		String expected = ourCtx.newJsonParser().encodeResourceToString(bundle);
+		assertEquals(expected, newParallelParser(10).encodeResourceToString(bundle));
+
+		assertEquals(1, myMetrics.getBundleCount());
+		assertEquals(0, myMetrics.getParallelBundleCount());
+		assertEquals(0, myMetrics.getParallelEntryCount());
+	}
+
+	@Test
+	public void testEncodeInParallel() {
+		Bundle bundle = createBundle(100);
+		String expected = ourCtx.newJsonParser().encodeResourceToString(bundle);
+
+		String actual = newParallelParser(10).encodeResourceToString(bundle);
+		ourLog.info(actual);
+		assertEquals(expected, actual);
+
+		assertEquals(1, myMetrics.getBundleCount());
+		assertEquals(1, myMetrics.getParallelBundleCount());
+		assertEquals(100, myMetrics.getParallelEntryCount());
+
+		// Resources other than Bundles aren't counted
+		newParallelParser(10).encodeResourceToString(bundle.getEntry().get(0).getResource());
+		assertEquals(1, myMetrics.getBundleCount());
+	}
+
+	@Test
+	public void testEncodeInParallelWithOptions() {
+		Bundle bundle = createBundle(50);
+
+		IParser parser = newParallelParser(10).setSummaryMode(true);
+		assertEquals(ourCtx.newJsonParser().setSummaryMode(true).encodeResourceToString(bundle), parser.encodeResourceToString(bundle));
+
+		parser = newParallelParser(10).setSuppressNarratives(true).setServerBaseUrl("http://example.com/fhir");
+		assertEquals(ourCtx.newJsonParser().setSuppressNarratives(true).setServerBaseUrl("http://example.com/fhir").encodeResourceToString(bundle), parser.encodeResourceToString(bundle));
+
+		parser = newParallelParser(10).setOmitResourceId(true);
+		assertEquals(ourCtx.newJsonParser().setOmitResourceId(true).encodeResourceToString(bundle), parser.encodeResourceToString(bundle));
+
+		assertEquals(3, myMetrics.getParallelBundleCount());
+	}
+
+	@Test
+	public void testEncodeOnCallingThreadWhenNotPossibleInParallel() {
+		Bundle bundle = createBundle(50);
+
+		IParser parser = newParallelParser(10).setPrettyPrint(true);
+		assertEquals(ourCtx.newJsonParser().setPrettyPrint(true).encodeResourceToString(bundle), parser.encodeResourceToString(bundle));
+
+		parser = newParallelParser(10);
+		parser.setEncodeElements(Collections.singleton("Patient.name"));
+		IParser expectedParser = ourCtx.newJsonParser();
+		expectedParser.setEncodeElements(Collections.singleton("Patient.name"));
+		assertEquals(expectedParser.encodeResourceToString(bundle), parser.encodeResourceToString(bundle));
+
+		assertEquals(2, myMetrics.getBundleCount());
+		assertEquals(0, myMetrics.getParallelBundleCount());
+	}
+
+	@Test
+	public void testEncodeWithShutDownExecutor() {
+		Bundle bundle = createBundle(50);
+		String expected = ourCtx.newJsonParser().encodeResourceToString(bundle);
+
+		ExecutorService executor = Executors.newFixedThreadPool(1);
+		executor.shutdown();
+		JsonParser parser = (JsonParser) ourCtx.newJsonParser();
+		parser.setEncodingMetrics(myMetrics);
+		parser.setParallelEncoding(executor, 10);
+
+		assertEquals(expected, parser.encodeResourceToString(bundle));
+		assertEquals(1, myMetrics.getBundleCount());
+		assertEquals(0, myMetrics.getParallelBundleCount());
+	}
+
+	@Test
+	public void testMetricsClear() {
+		newParallelParser(10).encodeResourceToString(createBundle(20));
+		assertEquals(1, myMetrics.getBundleCount());
+
+		myMetrics.clear();
+		assertEquals(0, myMetrics.getBundleCount());
+		assertEquals(0, myMetrics.getParallelBundleCount());
+		assertEquals(0, myMetrics.getParallelEntryCount());
+		assertEquals(0, myMetrics.getEncodingTimeMillis());
+		assertEquals(0, myMetrics.getParallelEntryEncodingTimeMillis());
+	}
+
+	@AfterClass
+	public static void afterClassClearContext() {
+		ourExecutor.shutdown();
+		TestUtil.clearAllStaticFieldsForUnitTest();
+	}
+
+	@BeforeClass
+	public static void beforeClass() {
+		ourExecutor = Executors.newFixedThreadPool(4);
+	}
+
+}
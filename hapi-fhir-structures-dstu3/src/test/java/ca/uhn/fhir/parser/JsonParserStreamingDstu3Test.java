@@ -0,0 +1,221 @@
+package ca.uhn.fhir.parser;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertThat;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+import static org.hamcrest.Matchers.containsString;
+
+import java.io.File;
+import java.lang.management.ManagementFactory;
+import java.lang.management.ThreadMXBean;
+import java.nio.charset.StandardCharsets;
+import java.util.Date;
+
+import org.apache.commons.io.FileUtils;
+import org.hl7.fhir.dstu3.model.Bundle;
+import org.hl7.fhir.dstu3.model.Bundle.BundleType;
+import org.hl7.fhir.dstu3.model.Bundle.HTTPVerb;
+import org.hl7.fhir.dstu3.model.DateTimeType;
+import org.hl7.fhir.dstu3.model.DateType;
+import org.hl7.fhir.dstu3.model.Enumerations.AdministrativeGender;
+import org.hl7.fhir.dstu3.model.Observation;
+import org.hl7.fhir.dstu3.model.Observation.ObservationStatus;
+import org.hl7.fhir.dstu3.model.Patient;
+import org.hl7.fhir.dstu3.model.Quantity;
+import org.hl7.fhir.dstu3.model.Reference;
+import org.hl7.fhir.dstu3.model.StringType;
+import org.hl7.fhir.instance.model.api.IBaseResource;
+import org.junit.AfterClass;
+import org.junit.Test;
+
+import ca.uhn.fhir.context.FhirContext;
+import ca.uhn.fhir.context.ParserOptions;
+import ca.uhn.fhir.util.TestUtil;
+
+public class JsonParserStreamingDstu3Test {
+	private static FhirContext ourCtx = FhirContext.forDstu3();
+	private static final org.slf4j.Logger ourLog = org.slf4j.LoggerFactory.getLogger(JsonParserStreamingDstu3Test.class);
+	private static FhirContext ourStreamingCtx;
+
+	static {
+		ourStreamingCtx = FhirContext.forDstu3();
+		ourStreamingCtx.setParserOptions(new ParserOptions().setStreamingJsonParsing(true));
+	}
+
+	private void assertParsesTheSame(String theInput) {
+		IBaseResource tree = ourCtx.newJsonParser().parseResource(theInput);
+		IBaseResource streamed = ourStreamingCtx.newJsonParser().parseResource(theInput);
+		String expected = ourCtx.newJsonParser().setPrettyPrint(true).encodeResourceToString(tree);
+		String actual = ourCtx.newJsonParser().setPrettyPrint(true).encodeResourceToString(streamed);
+		assertEquals(expected, actual);
+	}
+
+	private Bundle createTransactionBundle(int theMinimumSize) {
+		Bundle bundle = new Bundle();
+		bundle.setType(BundleType.TRANSACTION);
+		int size = 0;
+		for (int i = 0; size < theMinimumSize; i++) {
+			Patient patient = new Patient();
+			patient.setId("urn:uuid:patient-" + i);
+			patient.addIdentifier().setSystem("http://example.com/mrn").setValue("MRN" + i);
+			patient.addName().setFamily("Family" + i).addGiven("Given" + i).addGiven("Middle" + i);
+			patient.setGender(AdministrativeGender.FEMALE);
+			patient.setBirthDateElement(new DateType("1970-01-01"));
+			patient.getBirthDateElement().addExtension().setUrl("http://example.com/birthTime").setValue(new StringType("12:00"));
+			patient.addAddress().addLine("123 Main Street").setCity("Toronto").setPostalCode("M5V 1A1");
+			bundle.addEntry().setFullUrl(patient.getId()).setResource(patient).getRequest().setMethod(HTTPVerb.POST).setUrl("Patient");
+
+			for (int j = 0; j < 3; j++) {
+				Observation obs = new Observation();
+				obs.setStatus(ObservationStatus.FINAL);
+				obs.getCode().addCoding().setSystem("http://loinc.org").setCode("8867-4").setDisplay("Heart rate");
+				obs.setSubject(new Reference(patient.getId()));
+				obs.setEffective(new DateTimeType(new Date()));
+				obs.setValue(new Quantity().setValue(60 + j).setUnit("beats/minute").setSystem("http://unitsofmeasure.org").setCode("/min"));
+				bundle.addEntry().setResource(obs).getRequest().setMethod(HTTPVerb.POST).setUrl("Observation");
+			}
+
+			if (i % 500 == 0) {
+				size = ourCtx.newJsonParser().encodeResourceToString(bundle).length();
+			}
+		}
+		return bundle;
+	}
+
+	private static long getAllocatedBytes(ThreadMXBean theBean) {
+		if (theBean instanceof com.sun.management.ThreadMXBean) {
+			return ((com.sun.management.ThreadMXBean) theBean).getThreadAllocatedBytes(Thread.currentThread().getId());
+		}
+		return -1;
+	}
+
+	@Test
+	public void testBenchmarkLargeTransactionBundle() {
+		String input = ourCtx.newJsonParser().encodeResourceToString(createTransactionBundle(10 * 1024 * 1024));
+		ourLog.info("Input size: {} bytes", input.length());
+		assertParsesTheSame(input);
+
+		ThreadMXBean bean = ManagementFactory.getThreadMXBean();
+		for (FhirContext nextCtx : new FhirContext[] { ourCtx, ourStreamingCtx, ourCtx, ourStreamingCtx }) {
+			IParser parser = nextCtx.newJsonParser();
+			long allocated = getAllocatedBytes(bean);
+			long start = System.nanoTime();
+			int passes = 3;
+			for (int i = 0; i < passes; i++) {
+				parser.parseResource(Bundle.class, input);
+			}
+			long millis = (System.nanoTime() - start) / 1000000 / passes;
+			allocated = (getAllocatedBytes(bean) - allocated) / passes;
+			ourLog.info("Streaming={} - Parse time: {}ms - Allocated: {} bytes per parse", nextCtx.getParserOptions().isStreamingJsonParsing(), millis, allocated);
+		}
+	}
+
+	@Test
+	public void testElementPropertyBeforeAndAfterPrimitive() {
+		String input = "{\"resourceType\":\"Patient\"," +
+			"\"_birthDate\":{\"id\":\"bd\",\"extension\":[{\"url\":\"http://foo\",\"valueString\":\"A\"}]}," +
+			"\"birthDate\":\"2011-01-01\"," +
+			"\"name\":[{\"given\":[\"G1\",null,\"G3\"],\"family\":\"F\",\"_given\":[null,{\"extension\":[{\"url\":\"http://bar\",\"valueString\":\"B\"}]},{\"id\":\"g3\"}]}]," +
+			"\"gender\":\"male\"," +
+			"\"_gender\":{\"extension\":[{\"url\":\"http://baz\",\"valueCode\":\"C\"}]}," +
+			"\"_active\":{\"extension\":[{\"url\":\"http://qux\",\"valueString\":\"D\"}]}" +
+			"}";
+		assertParsesTheSame(input);
+
+		Patient patient = ourStreamingCtx.newJsonParser().parseResource(Patient.class, input);
+		assertEquals("bd", patient.getBirthDateElement().getId());
+		assertEquals(1, patient.getBirthDateElement().getExtension().size());
+		assertEquals(3, patient.getNameFirstRep().getGiven().size());
+		assertEquals("http://bar", patient.getNameFirstRep().getGiven().get(1).getExtension().get(0).getUrl());
+		assertEquals("g3", patient.getNameFirstRep().getGiven().get(2).getId());
+		assertEquals(1, patient.getGenderElement().getExtension().size());
+		assertEquals(1, patient.getActiveElement().getExtension().size());
+	}
+
+	@Test
+	public void testExtensionWithUrlNotFirst() {
+		String input = "{\"resourceType\":\"Patient\",\"extension\":[" +
+			"{\"valueString\":\"A\",\"url\":\"http://foo\"}," +
+			"{\"url\":\"http://bar\",\"extension\":[{\"valueString\":\"B\",\"url\":\"http://baz\"}]}" +
+			"],\"modifierExtension\":[{\"url\":\"http://qux\",\"valueBoolean\":true}]}";
+		assertParsesTheSame(input);
+
+		Patient patient = ourStreamingCtx.newJsonParser().parseResource(Patient.class, input);
+		assertEquals(2, patient.getExtension().size());
+		assertEquals("http://foo", patient.getExtension().get(0).getUrl());
+		assertEquals("A", ((StringType) patient.getExtension().get(0).getValue()).getValue());
+		assertEquals("http://baz", patient.getExtension().get(1).getExtension().get(0).getUrl());
+		assertEquals(1, patient.getModifierExtension().size());
+	}
+
+	@Test
+	public void testInvalidContent() {
+		String[] inputs = { "", "  ", "[]", "{\"resourceType\":\"Patient\"", "{\"resourceType\":\"Patient\"} {}", "{\"birthDate\":\"2011-01-01\"}", "{\"resourceType\":\"Patient\",\"extension\":{}}" };
+		for (String next : inputs) {
+			try {
+				ourStreamingCtx.newJsonParser().parseResource(next);
+				fail(next);
+			} catch (DataFormatException e) {
+				ourLog.info("Input {} failed with: {}", next, e.getMessage());
+			}
+		}
+	}
+
+	@Test
+	public void testParseSampleFiles() throws Exception {
+		int count = 0;
+		for (File next : FileUtils.listFiles(new File("src/test/resources"), new String[] { "json" }, true)) {
+			String input = FileUtils.readFileToString(next, StandardCharsets.UTF_8);
+
+			String expected;
+			try {
+				expected = ourCtx.newJsonParser().encodeResourceToString(ourCtx.newJsonParser().parseResource(input));
+			} catch (Exception e) {
+				// Not a valid DSTU3 resource, so the streaming parser should also reject it
+				try {
+					ourStreamingCtx.newJsonParser().parseResource(input);
+					fail(next.getName());
+				} catch (DataFormatException e2) {
+					// good
+				} catch (IllegalArgumentException e2) {
+					// good
+				}
+				continue;
+			}
+
+			String actual = ourCtx.newJsonParser().encodeResourceToString(ourStreamingCtx.newJsonParser().parseResource(input));
+			assertEquals(next.getName(), expected, actual);
+			count++;
+		}
+		ourLog.info("Compared {} files", count);
+		assertTrue(count > 5);
+	}
+
+	@Test
+	public void testResourceTypeNotFirst() {
+		String input = "{\"id\":\"A\",\"resourceType\":\"Patient\",\"contained\":[{\"id\":\"org\",\"name\":\"Org\",\"resourceType\":\"Organization\"}],\"managingOrganization\":{\"reference\":\"#org\"}}";
+		assertParsesTheSame(input);
+
+		Patient patient = ourStreamingCtx.newJsonParser().parseResource(Patient.class, input);
+		assertEquals("A", patient.getIdElement().getIdPart());
+		assertEquals(1, patient.getContained().size());
+	}
+
+	@Test
+	public void testUnknownElementReportedToErrorHandler() {
+		String input = "{\"resourceType\":\"Patient\",\"foo\":\"bar\"}";
+		try {
+			ourStreamingCtx.newJsonParser().setParserErrorHandler(new StrictErrorHandler()).parseResource(input);
+			fail();
+		} catch (DataFormatException e) {
+			assertThat(e.getMessage(), containsString("foo"));
+		}
+	}
+
+	@AfterClass
+	public static void afterClassClearContext() {
+		TestUtil.clearAllStaticFieldsForUnitTest();
+	}
+
+}
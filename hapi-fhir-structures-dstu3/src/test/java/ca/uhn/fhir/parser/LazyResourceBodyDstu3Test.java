@@ -0,0 +1,240 @@
+package ca.uhn.fhir.parser;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import java.util.ArrayList;
+import java.util.Date;
+import java.util.List;
+
+import org.hl7.fhir.dstu3.model.Bundle;
+import org.hl7.fhir.dstu3.model.Bundle.BundleType;
+import org.hl7.fhir.dstu3.model.Coding;
+import org.hl7.fhir.dstu3.model.Enumerations.AdministrativeGender;
+import org.hl7.fhir.dstu3.model.Narrative.NarrativeStatus;
+import org.hl7.fhir.dstu3.model.Organization;
+import org.hl7.fhir.dstu3.model.Patient;
+import org.hl7.fhir.dstu3.model.Reference;
+import org.hl7.fhir.dstu3.model.StringType;
+import org.hl7.fhir.instance.model.api.IBaseResource;
+import org.junit.AfterClass;
+import org.junit.Test;
+
+import ca.uhn.fhir.context.FhirContext;
+import ca.uhn.fhir.util.TestUtil;
+
+public class LazyResourceBodyDstu3Test {
+	private static FhirContext ourCtx = FhirContext.forDstu3();
+	private static final org.slf4j.Logger ourLog = org.slf4j.LoggerFactory.getLogger(LazyResourceBodyDstu3Test.class);
+	private static final Date UPDATED = new Date(1480000000000L);
+
+	private Bundle createBundle(List<? extends IBaseResource> theResources) {
+		Bundle bundle = new Bundle();
+		bundle.setId("bundle");
+		bundle.setType(BundleType.SEARCHSET);
+		for (IBaseResource next : theResources) {
+			bundle.addEntry().setFullUrl("http://example.com/fhir/" + next.getIdElement().toVersionless().getValue()).setResource((Patient) next);
+		}
+		return bundle;
+	}
+
+	/**
+	 * Creates a placeholder the way a server would, with the ID and meta it manages
+	 */
+	private Patient createPlaceholder(int theIndex, String theStoredBody) {
+		Patient retVal = new Patient();
+		populateMeta(retVal, theIndex);
+		LazyResourceBody.attach(retVal, new MyLazyResourceBody(theStoredBody, theIndex));
+		return retVal;
+	}
+
+	private Patient createStoredPatient(int theIndex) {
+		Organization org = new Organization();
+		org.setId("#org");
+		org.setName("Org " + theIndex);
+
+		Patient patient = new Patient();
+		patient.getMeta().setVersionId("1").addTag("http://example.com/tags", "stale", null);
+		patient.getText().setStatus(NarrativeStatus.GENERATED).setDivAsString("<div>Patient <b>" + theIndex + "</b> &amp; \"family\"</div>");
+		patient.addExtension().setUrl("http://example.com/ext").setValue(new StringType("ext \\ " + theIndex));
+		patient.addIdentifier().setSystem("http://example.com/mrn").setValue("MRN" + theIndex);
+		patient.addName().setFamily("Family\u00e9" + theIndex).addGiven("Given" + theIndex);
+		patient.setGender(AdministrativeGender.FEMALE);
+		patient.setActive(true);
+		patient.getContained().add(org);
+		patient.setManagingOrganization(new Reference("#org"));
+		patient.addGeneralPractitioner(new Reference("Practitioner/" + theIndex));
+		patient.addGeneralPractitioner(new Reference("http://example.com/fhir/Practitioner/" + theIndex));
+		return patient;
+	}
+
+	private List<Patient> createPlaceholders(int theCount) {
+		List<Patient> retVal = new ArrayList<Patient>();
+		for (int i = 0; i < theCount; i++) {
+			retVal.add(createPlaceholder(i, encodeStored(createStoredPatient(i))));
+		}
+		return retVal;
+	}
+
+	private String encodeStored(Patient thePatient) {
+		return ourCtx.newJsonParser().encodeResourceToString(thePatient);
+	}
+
+	/**
+	 * The resources a server would have returned by parsing each stored body
+	 */
+	private List<Patient> parseAll(List<Patient> thePlaceholders) {
+		List<Patient> retVal = new ArrayList<Patient>();
+		for (int i = 0; i < thePlaceholders.size(); i++) {
+			String body = LazyResourceBody.get(thePlaceholders.get(i)).getJson();
+			Patient parsed = ourCtx.newJsonParser().parseResource(Patient.class, body);
+			populateMeta(parsed, i);
+			retVal.add(parsed);
+		}
+		return retVal;
+	}
+
+	@Test
+	public void testBenchmarkEncodeBundle() {
+		List<Patient> placeholders = createPlaceholders(2000);
+		IParser parser = ourCtx.newJsonParser();
+
+		for (int pass = 0; pass < 2; pass++) {
+			int passes = 5;
+
+			long start = System.nanoTime();
+			for (int i = 0; i < passes; i++) {
+				parser.encodeResourceToString(createBundle(parseAll(placeholders)));
+			}
+			long parseMillis = (System.nanoTime() - start) / 1000000 / passes;
+
+			start = System.nanoTime();
+			for (int i = 0; i < passes; i++) {
+				parser.encodeResourceToString(createBundle(placeholders));
+			}
+			long lazyMillis = (System.nanoTime() - start) / 1000000 / passes;
+
+			ourLog.info("Parse and encode: {}ms - Write stored bodies: {}ms", parseMillis, lazyMillis);
+		}
+
+		assertNotNull(LazyResourceBody.get(placeholders.get(0)));
+	}
+
+	@Test
+	public void testEncodeJsonWritesStoredBody() {
+		List<Patient> placeholders = createPlaceholders(5);
+		String expected = ourCtx.newJsonParser().encodeResourceToString(createBundle(parseAll(placeholders)));
+
+		String actual = ourCtx.newJsonParser().encodeResourceToString(createBundle(placeholders));
+		ourLog.info(actual);
+		assertEquals(expected, actual);
+
+		// The bodies were written without being parsed
+		for (Patient next : placeholders) {
+			assertNotNull(LazyResourceBody.get(next));
+			assertTrue(next.getName().isEmpty());
+		}
+
+		// Placeholders encoded on their own also match
+		assertEquals(ourCtx.newJsonParser().encodeResourceToString(parseAll(placeholders).get(1)), ourCtx.newJsonParser().encodeResourceToString(placeholders.get(1)));
+	}
+
+	@Test
+	public void testEncodeXmlParsesBody() {
+		List<Patient> placeholders = createPlaceholders(3);
+		String expected = ourCtx.newXmlParser().encodeResourceToString(createBundle(parseAll(placeholders)));
+		assertEquals(expected, ourCtx.newXmlParser().encodeResourceToString(createBundle(placeholders)));
+		assertNull(LazyResourceBody.get(placeholders.get(0)));
+	}
+
+	@Test
+	public void testEncodeWithOptionsParsesBody() {
+		List<IParser> parsers = new ArrayList<IParser>();
+		parsers.add(ourCtx.newJsonParser().setPrettyPrint(true));
+		parsers.add(ourCtx.newJsonParser().setSummaryMode(true));
+		parsers.add(ourCtx.newJsonParser().setSuppressNarratives(true));
+		parsers.add(ourCtx.newJsonParser().setServerBaseUrl("http://example.com/fhir"));
+
+		for (IParser next : parsers) {
+			List<Patient> placeholders = createPlaceholders(3);
+			String expected = next.encodeResourceToString(createBundle(parseAll(placeholders)));
+			assertEquals(expected, next.encodeResourceToString(createBundle(placeholders)));
+			assertNull(LazyResourceBody.get(placeholders.get(0)));
+		}
+
+		// A server base which doesn't appear in the bodies doesn't need them to be parsed
+		List<Patient> placeholders = createPlaceholders(3);
+		IParser parser = ourCtx.newJsonParser().setServerBaseUrl("http://other.example.com/fhir");
+		String expected = parser.encodeResourceToString(createBundle(parseAll(placeholders)));
+		assertEquals(expected, parser.encodeResourceToString(createBundle(placeholders)));
+		assertNotNull(LazyResourceBody.get(placeholders.get(0)));
+	}
+
+	@Test
+	public void testEncodeWithUnmanagedMetaParsesBody() {
+		Patient stored = createStoredPatient(0);
+		stored.getMeta().addExtension().setUrl("http://example.com/metaExt").setValue(new StringType("meta"));
+		List<Patient> placeholders = new ArrayList<Patient>();
+		placeholders.add(createPlaceholder(0, encodeStored(stored)));
+
+		String expected = ourCtx.newJsonParser().encodeResourceToString(createBundle(parseAll(placeholders)));
+		String actual = ourCtx.newJsonParser().encodeResourceToString(createBundle(placeholders));
+		assertEquals(expected, actual);
+		assertTrue(actual, actual.contains("http://example.com/metaExt"));
+		assertNull(LazyResourceBody.get(placeholders.get(0)));
+	}
+
+	@Test
+	public void testEnsureParsed() {
+		Patient placeholder = createPlaceholders(1).get(0);
+		Patient expected = parseAll(createPlaceholders(1)).get(0);
+		assertEquals("0", placeholder.getIdElement().getIdPart());
+		assertFalse(placeholder.hasGender());
+
+		LazyResourceBody.ensureParsed(ourCtx, placeholder);
+
+		assertNull(LazyResourceBody.get(placeholder));
+		assertEquals(AdministrativeGender.FEMALE, placeholder.getGender());
+		assertEquals("Family\u00e90", placeholder.getNameFirstRep().getFamily());
+		assertEquals("2", placeholder.getMeta().getVersionId());
+		assertEquals(1, placeholder.getMeta().getTag().size());
+		assertEquals("current", placeholder.getMeta().getTagFirstRep().getCode());
+		assertEquals("Org 0", ((Organization) placeholder.getManagingOrganization().getResource()).getName());
+		assertEquals(ourCtx.newJsonParser().encodeResourceToString(expected), ourCtx.newJsonParser().encodeResourceToString(placeholder));
+
+		// Does nothing the second time
+		LazyResourceBody.ensureParsed(ourCtx, placeholder);
+		assertEquals(ourCtx.newJsonParser().encodeResourceToString(expected), ourCtx.newJsonParser().encodeResourceToString(placeholder));
+	}
+
+	@AfterClass
+	public static void afterClassClearContext() {
+		TestUtil.clearAllStaticFieldsForUnitTest();
+	}
+
+	private static void populateMeta(Patient thePatient, int theIndex) {
+		thePatient.getMeta().getTag().clear();
+		thePatient.setId("Patient/" + theIndex + "/_history/2");
+		thePatient.getMeta().setVersionId("2");
+		thePatient.getMeta().setLastUpdated(UPDATED);
+		thePatient.getMeta().getTag().add(new Coding("http://example.com/tags", "current", null));
+	}
+
+	private static class MyLazyResourceBody extends LazyResourceBody {
+		private final int myIndex;
+
+		MyLazyResourceBody(String theJson, int theIndex) {
+			super(theJson);
+			myIndex = theIndex;
+		}
+
+		@Override
+		protected void populateParsedResource(IBaseResource theParsed) {
+			populateMeta((Patient) theParsed, myIndex);
+		}
+	}
+
+}
@@ -0,0 +1,208 @@
+package ca.uhn.fhir.parser;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import java.util.Arrays;
+import java.util.Date;
+import java.util.HashSet;
+import java.util.Set;
+
+import org.hl7.fhir.dstu3.model.Bundle;
+import org.hl7.fhir.dstu3.model.Bundle.BundleType;
+import org.hl7.fhir.dstu3.model.DateTimeType;
+import org.hl7.fhir.dstu3.model.DateType;
+import org.hl7.fhir.dstu3.model.Enumerations.AdministrativeGender;
+import org.hl7.fhir.dstu3.model.Observation;
+import org.hl7.fhir.dstu3.model.Observation.ObservationStatus;
+import org.hl7.fhir.dstu3.model.Organization;
+import org.hl7.fhir.dstu3.model.Patient;
+import org.hl7.fhir.dstu3.model.Quantity;
+import org.hl7.fhir.dstu3.model.Reference;
+import org.hl7.fhir.dstu3.model.StringType;
+import org.hl7.fhir.instance.model.api.IBaseResource;
+import org.junit.AfterClass;
+import org.junit.Test;
+
+import ca.uhn.fhir.context.FhirContext;
+import ca.uhn.fhir.context.ParserOptions;
+import ca.uhn.fhir.util.TestUtil;
+
+public class ParseElementsDstu3Test {
+	private static FhirContext ourCtx = FhirContext.forDstu3();
+	private static final org.slf4j.Logger ourLog = org.slf4j.LoggerFactory.getLogger(ParseElementsDstu3Test.class);
+	private static FhirContext ourStreamingCtx;
+
+	static {
+		ourStreamingCtx = FhirContext.forDstu3();
+		ourStreamingCtx.setParserOptions(new ParserOptions().setStreamingJsonParsing(true));
+	}
+
+	/**
+	 * Parses the resource from JSON, streamed JSON and XML, checks that all three agree and returns the JSON result
+	 */
+	private <T extends IBaseResource> T parseAllWays(Class<T> theType, IBaseResource theInput, String... theParseElements) {
+		Set<String> parseElements = new HashSet<String>(Arrays.asList(theParseElements));
+		String json = ourCtx.newJsonParser().encodeResourceToString(theInput);
+		String xml = ourCtx.newXmlParser().encodeResourceToString(theInput);
+
+		T fromJson = ourCtx.newJsonParser().setParseElements(parseElements).setParserErrorHandler(new StrictErrorHandler()).parseResource(theType, json);
+		T fromStream = ourStreamingCtx.newJsonParser().setParseElements(parseElements).setParserErrorHandler(new StrictErrorHandler()).parseResource(theType, json);
+		T fromXml = ourCtx.newXmlParser().setParseElements(parseElements).setParserErrorHandler(new StrictErrorHandler()).parseResource(theType, xml);
+
+		String expected = ourCtx.newJsonParser().setPrettyPrint(true).encodeResourceToString(fromJson);
+		ourLog.info("Parsed with {}:\n{}", parseElements, expected);
+		assertEquals(expected, ourCtx.newJsonParser().setPrettyPrint(true).encodeResourceToString(fromStream));
+		assertEquals(expected, ourCtx.newJsonParser().setPrettyPrint(true).encodeResourceToString(fromXml));
+		return fromJson;
+	}
+
+	private Observation createObservation(int theIndex) {
+		Observation obs = new Observation();
+		obs.setId("Observation/" + theIndex);
+		obs.getMeta().setVersionId("1");
+		obs.setStatus(ObservationStatus.FINAL);
+		obs.getCode().addCoding().setSystem("http://loinc.org").setCode("8867-4").setDisplay("Heart rate");
+		obs.setSubject(new Reference("Patient/" + theIndex));
+		obs.setEffective(new DateTimeType(new Date()));
+		obs.setValue(new Quantity().setValue(60 + theIndex).setUnit("beats/minute").setSystem("http://unitsofmeasure.org").setCode("/min"));
+		obs.getText().setDivAsString("<div>Heart rate " + theIndex + "</div>");
+		obs.addComponent().getCode().setText("Component");
+		return obs;
+	}
+
+	private Patient createPatient() {
+		Organization org = new Organization();
+		org.setId("#org");
+		org.setName("Org");
+
+		Patient patient = new Patient();
+		patient.setId("Patient/123/_history/2");
+		patient.getMeta().setVersionId("2").addProfile("http://example.com/StructureDefinition/patient");
+		patient.addExtension().setUrl("http://example.com/ext").setValue(new StringType("ext"));
+		patient.addIdentifier().setSystem("http://example.com/mrn").setValue("MRN");
+		patient.addName().setFamily("Family").addGiven("Given").setId("name0");
+		patient.getNameFirstRep().getFamilyElement().addExtension().setUrl("http://example.com/familyExt").setValue(new StringType("F"));
+		patient.setGender(AdministrativeGender.FEMALE);
+		patient.setBirthDateElement(new DateType("1970-01-01"));
+		patient.getContained().add(org);
+		patient.setManagingOrganization(new Reference("#org"));
+		return patient;
+	}
+
+	@Test
+	public void testBenchmarkLargeBundle() {
+		Bundle bundle = new Bundle();
+		bundle.setType(BundleType.SEARCHSET);
+		for (int i = 0; i < 2000; i++) {
+			bundle.addEntry().setFullUrl("http://example.com/fhir/Observation/" + i).setResource(createObservation(i));
+		}
+		String json = ourCtx.newJsonParser().encodeResourceToString(bundle);
+		String xml = ourCtx.newXmlParser().encodeResourceToString(bundle);
+		Set<String> parseElements = new HashSet<String>(Arrays.asList("Observation.code", "Observation.value"));
+
+		for (int pass = 0; pass < 2; pass++) {
+			for (FhirContext nextCtx : new FhirContext[] { ourCtx, ourStreamingCtx }) {
+				for (Set<String> nextParseElements : Arrays.asList(null, parseElements)) {
+					int passes = 3;
+					long start = System.nanoTime();
+					for (int i = 0; i < passes; i++) {
+						nextCtx.newJsonParser().setParseElements(nextParseElements).parseResource(Bundle.class, json);
+					}
+					long jsonMillis = (System.nanoTime() - start) / 1000000 / passes;
+
+					start = System.nanoTime();
+					for (int i = 0; i < passes; i++) {
+						nextCtx.newXmlParser().setParseElements(nextParseElements).parseResource(Bundle.class, xml);
+					}
+					long xmlMillis = (System.nanoTime() - start) / 1000000 / passes;
+
+					ourLog.info("Streaming={} - Parse elements={} - JSON: {}ms - XML: {}ms", nextCtx.getParserOptions().isStreamingJsonParsing(), nextParseElements, jsonMillis, xmlMillis);
+				}
+			}
+		}
+	}
+
+	@Test
+	public void testParseBundleFiltersEntriesByType() {
+		Bundle bundle = new Bundle();
+		bundle.setType(BundleType.SEARCHSET);
+		bundle.setTotal(2);
+		bundle.addEntry().setFullUrl("http://example.com/fhir/Observation/1").setResource(createObservation(1));
+		bundle.addEntry().setFullUrl("http://example.com/fhir/Patient/123").setResource(createPatient());
+
+		Bundle parsed = parseAllWays(Bundle.class, bundle, "Observation.code", "Observation.value");
+
+		// No paths apply to Bundle or Patient, so they are parsed completely
+		assertEquals(BundleType.SEARCHSET, parsed.getType());
+		assertEquals(2, parsed.getTotal());
+		assertEquals("http://example.com/fhir/Observation/1", parsed.getEntry().get(0).getFullUrl());
+		Patient patient = (Patient) parsed.getEntry().get(1).getResource();
+		assertEquals(AdministrativeGender.FEMALE, patient.getGender());
+		assertEquals(1, patient.getContained().size());
+
+		Observation obs = (Observation) parsed.getEntry().get(0).getResource();
+		assertEquals("Observation/1", obs.getIdElement().toUnqualifiedVersionless().getValue());
+		assertEquals("8867-4", obs.getCode().getCodingFirstRep().getCode());
+		assertEquals("61", ((Quantity) obs.getValue()).getValueElement().getValueAsString());
+		assertNull(obs.getStatus());
+		assertTrue(obs.getSubject().isEmpty());
+		assertTrue(obs.getText().isEmpty());
+		assertTrue(obs.getComponent().isEmpty());
+		assertTrue(obs.getMeta().isEmpty());
+	}
+
+	@Test
+	public void testParseChoiceByTypedName() {
+		Observation parsed = parseAllWays(Observation.class, createObservation(1), "Observation.valueQuantity.value");
+		assertEquals("61", ((Quantity) parsed.getValue()).getValueElement().getValueAsString());
+		assertNull(((Quantity) parsed.getValue()).getUnit());
+		assertTrue(parsed.getCode().isEmpty());
+	}
+
+	@Test
+	public void testParseNestedPaths() {
+		Patient parsed = parseAllWays(Patient.class, createPatient(), "Patient.name.family", "*.meta");
+
+		assertEquals("123", parsed.getIdElement().getIdPart());
+		assertEquals("2", parsed.getMeta().getVersionId());
+		assertEquals(1, parsed.getName().size());
+		assertEquals("name0", parsed.getNameFirstRep().getId());
+		assertEquals("Family", parsed.getNameFirstRep().getFamily());
+		assertEquals(1, parsed.getNameFirstRep().getFamilyElement().getExtension().size());
+		assertTrue(parsed.getNameFirstRep().getGiven().isEmpty());
+		assertTrue(parsed.getIdentifier().isEmpty());
+		assertTrue(parsed.getExtension().isEmpty());
+		assertTrue(parsed.getContained().isEmpty());
+		assertTrue(parsed.getManagingOrganization().isEmpty());
+		assertNull(parsed.getGender());
+		assertFalse(parsed.hasBirthDate());
+	}
+
+	@Test
+	public void testParseWholeResource() {
+		Patient input = createPatient();
+		Patient parsed = parseAllWays(Patient.class, input, "Patient", "Observation.code");
+		String expected = ourCtx.newJsonParser().encodeResourceToString(ourCtx.newJsonParser().parseResource(ourCtx.newJsonParser().encodeResourceToString(input)));
+		assertEquals(expected, ourCtx.newJsonParser().encodeResourceToString(parsed));
+	}
+
+	@Test
+	public void testParseExtensionsAndContained() {
+		Patient parsed = parseAllWays(Patient.class, createPatient(), "Patient.extension", "Patient.contained", "Organization.name");
+
+		assertEquals(1, parsed.getExtension().size());
+		assertEquals("http://example.com/ext", parsed.getExtension().get(0).getUrl());
+		assertEquals(1, parsed.getContained().size());
+		assertEquals("Org", ((Organization) parsed.getContained().get(0)).getName());
+		assertTrue(parsed.getName().isEmpty());
+	}
+
+	@AfterClass
+	public static void afterClassClearContext() {
+		TestUtil.clearAllStaticFieldsForUnitTest();
+	}
+
+}
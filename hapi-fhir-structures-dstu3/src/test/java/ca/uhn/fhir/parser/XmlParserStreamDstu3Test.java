@@ -0,0 +1,160 @@
+package ca.uhn.fhir.parser;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.StringReader;
+import java.nio.charset.StandardCharsets;
+
+import javax.xml.stream.XMLEventReader;
+import javax.xml.stream.XMLStreamReader;
+
+import org.apache.commons.io.FileUtils;
+import org.hl7.fhir.dstu3.model.Bundle;
+import org.hl7.fhir.dstu3.model.Bundle.BundleType;
+import org.hl7.fhir.dstu3.model.DateType;
+import org.hl7.fhir.dstu3.model.Enumerations.AdministrativeGender;
+import org.hl7.fhir.dstu3.model.Narrative.NarrativeStatus;
+import org.hl7.fhir.dstu3.model.Patient;
+import org.hl7.fhir.dstu3.model.StringType;
+import org.hl7.fhir.instance.model.api.IBaseResource;
+import org.junit.AfterClass;
+import org.junit.Test;
+
+import ca.uhn.fhir.context.FhirContext;
+import ca.uhn.fhir.util.TestUtil;
+import ca.uhn.fhir.util.XmlUtil;
+
+public class XmlParserStreamDstu3Test {
+	private static FhirContext ourCtx = FhirContext.forDstu3();
+	private static final org.slf4j.Logger ourLog = org.slf4j.LoggerFactory.getLogger(XmlParserStreamDstu3Test.class);
+
+	private Bundle createBundle(int theCount) {
+		Bundle bundle = new Bundle();
+		bundle.setType(BundleType.SEARCHSET);
+		for (int i = 0; i < theCount; i++) {
+			Patient patient = new Patient();
+			patient.setId("Patient/" + i);
+			patient.getText().setStatus(NarrativeStatus.GENERATED).setDivAsString("<div>Patient <b>" + i + "</b> &amp; family</div>");
+			patient.addIdentifier().setSystem("http://example.com/mrn").setValue("MRN" + i);
+			patient.addName().setFamily("Family\u00e9" + i).addGiven("Given" + i);
+			patient.setGender(AdministrativeGender.FEMALE);
+			patient.setBirthDateElement(new DateType("1970-01-01"));
+			patient.getBirthDateElement().addExtension().setUrl("http://example.com/birthTime").setValue(new StringType("12:00"));
+			bundle.addEntry().setFullUrl("http://example.com/fhir/Patient/" + i).setResource(patient);
+		}
+		return bundle;
+	}
+
+	@Test
+	public void testBenchmarkParseAndEncode() throws Exception {
+		String input = ourCtx.newXmlParser().encodeResourceToString(createBundle(2000));
+		byte[] bytes = input.getBytes(StandardCharsets.UTF_8);
+		ourLog.info("Input size: {} bytes", bytes.length);
+
+		IParser parser = ourCtx.newXmlParser();
+		Bundle bundle = parser.parseResource(Bundle.class, input);
+		for (int pass = 0; pass < 2; pass++) {
+			int passes = 5;
+
+			long start = System.nanoTime();
+			for (int i = 0; i < passes; i++) {
+				XMLEventReader reader = XmlUtil.createXmlReader(new StringReader(input));
+				while (reader.hasNext()) {
+					reader.nextEvent();
+				}
+			}
+			long eventScanMillis = (System.nanoTime() - start) / 1000000 / passes;
+
+			start = System.nanoTime();
+			for (int i = 0; i < passes; i++) {
+				XMLStreamReader reader = XmlUtil.createXmlStreamReader(new StringReader(input));
+				while (reader.hasNext()) {
+					reader.next();
+				}
+			}
+			long cursorScanMillis = (System.nanoTime() - start) / 1000000 / passes;
+
+			start = System.nanoTime();
+			for (int i = 0; i < passes; i++) {
+				parser.parseResource(Bundle.class, input);
+			}
+			long parseStringMillis = (System.nanoTime() - start) / 1000000 / passes;
+
+			start = System.nanoTime();
+			for (int i = 0; i < passes; i++) {
+				parser.parseResource(Bundle.class, new ByteArrayInputStream(bytes));
+			}
+			long parseBytesMillis = (System.nanoTime() - start) / 1000000 / passes;
+
+			start = System.nanoTime();
+			for (int i = 0; i < passes; i++) {
+				parser.encodeResourceToString(bundle);
+			}
+			long encodeStringMillis = (System.nanoTime() - start) / 1000000 / passes;
+
+			start = System.nanoTime();
+			for (int i = 0; i < passes; i++) {
+				parser.encodeResourceToOutputStream(bundle, new ByteArrayOutputStream());
+			}
+			long encodeBytesMillis = (System.nanoTime() - start) / 1000000 / passes;
+
+			ourLog.info("Token scan - Event: {}ms - Cursor: {}ms", eventScanMillis, cursorScanMillis);
+			ourLog.info("Parse - String: {}ms - Bytes: {}ms - Encode - String: {}ms - Bytes: {}ms", parseStringMillis, parseBytesMillis, encodeStringMillis, encodeBytesMillis);
+		}
+	}
+
+	@Test
+	public void testEncodeToOutputStream() throws Exception {
+		Bundle bundle = createBundle(5);
+		for (boolean nextPrettyPrint : new boolean[] { false, true }) {
+			IParser parser = ourCtx.newXmlParser().setPrettyPrint(nextPrettyPrint);
+			ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+			parser.encodeResourceToOutputStream(bundle, bytes);
+			assertArrayEquals(parser.encodeResourceToString(bundle).getBytes(StandardCharsets.UTF_8), bytes.toByteArray());
+		}
+	}
+
+	@Test
+	public void testParseBytesWithDeclaredEncoding() {
+		String input = "<?xml version=\"1.0\" encoding=\"ISO-8859-1\"?><Patient xmlns=\"http://hl7.org/fhir\"><name><family value=\"Fran\u00e7ois\"/></name></Patient>";
+		Patient patient = ourCtx.newXmlParser().parseResource(Patient.class, new ByteArrayInputStream(input.getBytes(StandardCharsets.ISO_8859_1)));
+		assertEquals("Fran\u00e7ois", patient.getNameFirstRep().getFamily());
+
+		input = "<Patient xmlns=\"http://hl7.org/fhir\"><name><family value=\"Fran\u00e7ois\"/></name></Patient>";
+		patient = ourCtx.newXmlParser().parseResource(Patient.class, new ByteArrayInputStream(input.getBytes(StandardCharsets.UTF_8)));
+		assertEquals("Fran\u00e7ois", patient.getNameFirstRep().getFamily());
+	}
+
+	@Test
+	public void testParseSampleFilesFromBytes() throws Exception {
+		int count = 0;
+		for (File next : FileUtils.listFiles(new File("src/test/resources"), new String[] { "xml" }, true)) {
+			byte[] bytes = FileUtils.readFileToByteArray(next);
+			IBaseResource fromString;
+			try {
+				fromString = ourCtx.newXmlParser().parseResource(new String(bytes, StandardCharsets.UTF_8));
+			} catch (Exception e) {
+				// Not a valid DSTU3 resource
+				continue;
+			}
+			IBaseResource fromBytes = ourCtx.newXmlParser().parseResource(null, new ByteArrayInputStream(bytes));
+
+			String expected = ourCtx.newXmlParser().encodeResourceToString(fromString);
+			assertEquals(next.getName(), expected, ourCtx.newXmlParser().encodeResourceToString(fromBytes));
+			count++;
+		}
+		ourLog.info("Compared {} files", count);
+		assertTrue(count > 5);
+	}
+
+	@AfterClass
+	public static void afterClassClearContext() {
+		TestUtil.clearAllStaticFieldsForUnitTest();
+	}
+
+}
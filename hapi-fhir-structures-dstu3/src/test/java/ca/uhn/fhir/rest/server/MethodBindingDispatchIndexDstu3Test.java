@@ -0,0 +1,485 @@
+package ca.uhn.fhir.rest.server;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import java.lang.reflect.Method;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import org.hl7.fhir.dstu3.model.IdType;
+import org.hl7.fhir.dstu3.model.Parameters;
+import org.hl7.fhir.dstu3.model.Patient;
+import org.hl7.fhir.instance.model.api.IBaseResource;
+import org.junit.AfterClass;
+import org.junit.BeforeClass;
+import org.junit.Test;
+
+import ca.uhn.fhir.context.FhirContext;
+import ca.uhn.fhir.rest.annotation.Create;
+import ca.uhn.fhir.rest.annotation.Delete;
+import ca.uhn.fhir.rest.annotation.History;
+import ca.uhn.fhir.rest.annotation.IdParam;
+import ca.uhn.fhir.rest.annotation.Operation;
+import ca.uhn.fhir.rest.annotation.OptionalParam;
+import ca.uhn.fhir.rest.annotation.Read;
+import ca.uhn.fhir.rest.annotation.RequiredParam;
+import ca.uhn.fhir.rest.annotation.ResourceParam;
+import ca.uhn.fhir.rest.annotation.Search;
+import ca.uhn.fhir.rest.annotation.Update;
+import ca.uhn.fhir.rest.api.MethodOutcome;
+import ca.uhn.fhir.rest.api.RequestTypeEnum;
+import ca.uhn.fhir.rest.method.BaseMethodBinding;
+import ca.uhn.fhir.rest.param.StringParam;
+import ca.uhn.fhir.rest.server.servlet.ServletRequestDetails;
+import ca.uhn.fhir.util.TestUtil;
+
+public class MethodBindingDispatchIndexDstu3Test {
+
+	private static ResourceBinding ourBinding;
+	private static FhirContext ourCtx = FhirContext.forDstu3();
+	private static final org.slf4j.Logger ourLog = org.slf4j.LoggerFactory.getLogger(MethodBindingDispatchIndexDstu3Test.class);
+
+	private List<ServletRequestDetails> createRequests() {
+		List<ServletRequestDetails> retVal = new ArrayList<ServletRequestDetails>();
+		for (RequestTypeEnum nextType : RequestTypeEnum.values()) {
+			for (String nextOperation : new String[] { null, "", "_search", "_history", "$everything", "$unknown" }) {
+				for (String nextId : new String[] { null, "123", "123/_history/2" }) {
+					retVal.add(createRequest(nextType, nextOperation, nextId));
+					retVal.add(createRequest(nextType, nextOperation, nextId, "name", "_count"));
+					for (int i = 0; i < 50; i += 7) {
+						retVal.add(createRequest(nextType, nextOperation, nextId, String.format("p%02d", i)));
+						retVal.add(createRequest(nextType, nextOperation, nextId, String.format("p%02d:exact", i), "name"));
+						retVal.add(createRequest(nextType, nextOperation, nextId, String.format("p%02d", i), "p49", "unknown"));
+					}
+					retVal.add(createRequest(nextType, nextOperation, nextId, "family", "given"));
+					retVal.add(createRequest(nextType, nextOperation, nextId, "family"));
+				}
+			}
+		}
+		return retVal;
+	}
+
+	private ServletRequestDetails createRequest(RequestTypeEnum theRequestType, String theOperation, String theId, String... theParams) {
+		ServletRequestDetails retVal = new ServletRequestDetails() {
+			@Override
+			public String getHeader(String theName) {
+				return null;
+			}
+		};
+		retVal.setRequestType(theRequestType);
+		retVal.setResourceName("Patient");
+		retVal.setOperation(theOperation);
+		if (theId != null) {
+			retVal.setId(new IdType("Patient/" + theId));
+		}
+		Map<String, String[]> params = new HashMap<String, String[]>();
+		for (String next : theParams) {
+			params.put(next, new String[] { "value" });
+		}
+		retVal.setParameters(params);
+		return retVal;
+	}
+
+	private String describe(ServletRequestDetails theRequest) {
+		return theRequest.getRequestType() + " " + theRequest.getOperation() + " " + theRequest.getId() + " " + theRequest.getParameters().keySet();
+	}
+
+	@Test
+	public void testBenchmarkDispatch() {
+		List<ServletRequestDetails> requests = new ArrayList<ServletRequestDetails>();
+		for (int i = 0; i < 50; i++) {
+			requests.add(createRequest(RequestTypeEnum.GET, null, null, String.format("p%02d", i), "name"));
+		}
+		requests.add(createRequest(RequestTypeEnum.GET, null, "123"));
+		requests.add(createRequest(RequestTypeEnum.GET, "$everything", "123"));
+		requests.add(createRequest(RequestTypeEnum.PUT, null, "123"));
+
+		for (int pass = 0; pass < 3; pass++) {
+			int passes = 200;
+
+			long start = System.nanoTime();
+			for (int i = 0; i < passes; i++) {
+				for (ServletRequestDetails next : requests) {
+					assertNotNull(MethodBindingDispatchIndex.findFirstMatch(ourBinding.getMethodBindings(), next));
+				}
+			}
+			long scanMicros = (System.nanoTime() - start) / 1000 / (passes * requests.size());
+
+			start = System.nanoTime();
+			for (int i = 0; i < passes; i++) {
+				for (ServletRequestDetails next : requests) {
+					assertNotNull(ourBinding.getMethod(next));
+				}
+			}
+			long indexMicros = (System.nanoTime() - start) / 1000 / (passes * requests.size());
+
+			ourLog.info("Dispatching across {} methods - Scan: {}us/request - Index: {}us/request", new Object[] { ourBinding.getMethodBindings().size(), scanMicros, indexMicros });
+		}
+	}
+
+	@Test
+	public void testIndexSelectsSameMethodAsScan() {
+		int matched = 0;
+		for (ServletRequestDetails next : createRequests()) {
+			BaseMethodBinding<?> expected = MethodBindingDispatchIndex.findFirstMatch(ourBinding.getMethodBindings(), next);
+			BaseMethodBinding<?> actual = ourBinding.getMethod(next);
+			assertEquals(describe(next), expected, actual);
+			if (actual != null) {
+				matched++;
+			}
+		}
+		ourLog.info("Matched {} requests", matched);
+		assertTrue(matched > 100);
+	}
+
+	@Test
+	public void testSelectedMethods() {
+		assertEquals("search07", ourBinding.getMethod(createRequest(RequestTypeEnum.GET, null, null, "p07")).getMethod().getName());
+		assertEquals("search07", ourBinding.getMethod(createRequest(RequestTypeEnum.POST, "_search", null, "p07:exact", "name")).getMethod().getName());
+		assertEquals("searchByFamilyAndGiven", ourBinding.getMethod(createRequest(RequestTypeEnum.GET, null, null, "given", "family")).getMethod().getName());
+		assertEquals("searchAll", ourBinding.getMethod(createRequest(RequestTypeEnum.GET, null, null, "_count")).getMethod().getName());
+		assertEquals("read", ourBinding.getMethod(createRequest(RequestTypeEnum.GET, null, "123")).getMethod().getName());
+		assertEquals("read", ourBinding.getMethod(createRequest(RequestTypeEnum.GET, "_history", "123/_history/2")).getMethod().getName());
+		assertEquals("history", ourBinding.getMethod(createRequest(RequestTypeEnum.GET, "_history", "123")).getMethod().getName());
+		assertEquals("everything", ourBinding.getMethod(createRequest(RequestTypeEnum.POST, "$everything", "123")).getMethod().getName());
+		assertEquals("update", ourBinding.getMethod(createRequest(RequestTypeEnum.PUT, null, "123")).getMethod().getName());
+		assertNull(ourBinding.getMethod(createRequest(RequestTypeEnum.GET, null, null, "p07", "p08")));
+		assertNull(ourBinding.getMethod(createRequest(RequestTypeEnum.GET, "$unknown", null)));
+	}
+
+	@Test
+	public void testMethodAddedAfterIndexIsBuilt() throws Exception {
+		ResourceBinding binding = new ResourceBinding("Patient", new ArrayList<BaseMethodBinding<?>>());
+		binding.buildDispatchIndex();
+		assertNull(binding.getMethod(createRequest(RequestTypeEnum.GET, null, null, "p07")));
+
+		DummyPatientResourceProvider provider = new DummyPatientResourceProvider();
+		binding.addMethod(BaseMethodBinding.bindMethod(DummyPatientResourceProvider.class.getMethod("search07", StringParam.class, StringParam.class), ourCtx, provider));
+		assertEquals("search07", binding.getMethod(createRequest(RequestTypeEnum.GET, null, null, "p07")).getMethod().getName());
+	}
+
+	@AfterClass
+	public static void afterClassClearContext() {
+		TestUtil.clearAllStaticFieldsForUnitTest();
+	}
+
+	@BeforeClass
+	public static void beforeClass() {
+		DummyPatientResourceProvider provider = new DummyPatientResourceProvider();
+		List<BaseMethodBinding<?>> methods = new ArrayList<BaseMethodBinding<?>>();
+		for (Method next : DummyPatientResourceProvider.class.getDeclaredMethods()) {
+			BaseMethodBinding<?> binding = BaseMethodBinding.bindMethod(next, ourCtx, provider);
+			if (binding != null) {
+				methods.add(binding);
+			}
+		}
+		ourBinding = new ResourceBinding("Patient", methods);
+		ourBinding.buildDispatchIndex();
+		ourLog.info("Bound {} methods", methods.size());
+	}
+
+	public static class DummyPatientResourceProvider implements IResourceProvider {
+
+		@Create
+		public MethodOutcome create(@ResourceParam Patient thePatient) {
+			return null;
+		}
+
+		@Delete
+		public MethodOutcome delete(@IdParam IdType theId) {
+			return null;
+		}
+
+		@Operation(name = "$everything", idempotent = true)
+		public Parameters everything(@IdParam IdType theId) {
+			return null;
+		}
+
+		@Override
+		public Class<? extends IBaseResource> getResourceType() {
+			return Patient.class;
+		}
+
+		@History
+		public List<Patient> history(@IdParam IdType theId) {
+			return null;
+		}
+
+		@Read(version = true)
+		public Patient read(@IdParam IdType theId) {
+			return null;
+		}
+
+		@Search
+		public List<Patient> searchAll() {
+			return null;
+		}
+
+		@Search
+		public List<Patient> search00(@RequiredParam(name = "p00") StringParam theRequired, @OptionalParam(name = "name") StringParam theName) {
+			return null;
+		}
+
+		@Search
+		public List<Patient> search01(@RequiredParam(name = "p01") StringParam theRequired, @OptionalParam(name = "name") StringParam theName) {
+			return null;
+		}
+
+		@Search
+		public List<Patient> search02(@RequiredParam(name = "p02") StringParam theRequired, @OptionalParam(name = "name") StringParam theName) {
+			return null;
+		}
+
+		@Search
+		public List<Patient> search03(@RequiredParam(name = "p03") StringParam theRequired, @OptionalParam(name = "name") StringParam theName) {
+			return null;
+		}
+
+		@Search
+		public List<Patient> search04(@RequiredParam(name = "p04") StringParam theRequired, @OptionalParam(name = "name") StringParam theName) {
+			return null;
+		}
+
+		@Search
+		public List<Patient> search05(@RequiredParam(name = "p05") StringParam theRequired, @OptionalParam(name = "name") StringParam theName) {
+			return null;
+		}
+
+		@Search
+		public List<Patient> search06(@RequiredParam(name = "p06") StringParam theRequired, @OptionalParam(name = "name") StringParam theName) {
+			return null;
+		}
+
+		@Search
+		public List<Patient> search07(@RequiredParam(name = "p07") StringParam theRequired, @OptionalParam(name = "name") StringParam theName) {
+			return null;
+		}
+
+		@Search
+		public List<Patient> search08(@RequiredParam(name = "p08") StringParam theRequired, @OptionalParam(name = "name") StringParam theName) {
+			return null;
+		}
+
+		@Search
+		public List<Patient> search09(@RequiredParam(name = "p09") StringParam theRequired, @OptionalParam(name = "name") StringParam theName) {
+			return null;
+		}
+
+		@Search
+		public List<Patient> search10(@RequiredParam(name = "p10") StringParam theRequired, @OptionalParam(name = "name") StringParam theName) {
+			return null;
+		}
+
+		@Search
+		public List<Patient> search11(@RequiredParam(name = "p11") StringParam theRequired, @OptionalParam(name = "name") StringParam theName) {
+			return null;
+		}
+
+		@Search
+		public List<Patient> search12(@RequiredParam(name = "p12") StringParam theRequired, @OptionalParam(name = "name") StringParam theName) {
+			return null;
+		}
+
+		@Search
+		public List<Patient> search13(@RequiredParam(name = "p13") StringParam theRequired, @OptionalParam(name = "name") StringParam theName) {
+			return null;
+		}
+
+		@Search
+		public List<Patient> search14(@RequiredParam(name = "p14") StringParam theRequired, @OptionalParam(name = "name") StringParam theName) {
+			return null;
+		}
+
+		@Search
+		public List<Patient> search15(@RequiredParam(name = "p15") StringParam theRequired, @OptionalParam(name = "name") StringParam theName) {
+			return null;
+		}
+
+		@Search
+		public List<Patient> search16(@RequiredParam(name = "p16") StringParam theRequired, @OptionalParam(name = "name") StringParam theName) {
+			return null;
+		}
+
+		@Search
+		public List<Patient> search17(@RequiredParam(name = "p17") StringParam theRequired, @OptionalParam(name = "name") StringParam theName) {
+			return null;
+		}
+
+		@Search
+		public List<Patient> search18(@RequiredParam(name = "p18") StringParam theRequired, @OptionalParam(name = "name") StringParam theName) {
+			return null;
+		}
+
+		@Search
+		public List<Patient> search19(@RequiredParam(name = "p19") StringParam theRequired, @OptionalParam(name = "name") StringParam theName) {
+			return null;
+		}
+
+		@Search
+		public List<Patient> search20(@RequiredParam(name = "p20") StringParam theRequired, @OptionalParam(name = "name") StringParam theName) {
+			return null;
+		}
+
+		@Search
+		public List<Patient> search21(@RequiredParam(name = "p21") StringParam theRequired, @OptionalParam(name = "name") StringParam theName) {
+			return null;
+		}
+
+		@Search
+		public List<Patient> search22(@RequiredParam(name = "p22") StringParam theRequired, @OptionalParam(name = "name") StringParam theName) {
+			return null;
+		}
+
+		@Search
+		public List<Patient> search23(@RequiredParam(name = "p23") StringParam theRequired, @OptionalParam(name = "name") StringParam theName) {
+			return null;
+		}
+
+		@Search
+		public List<Patient> search24(@RequiredParam(name = "p24") StringParam theRequired, @OptionalParam(name = "name") StringParam theName) {
+			return null;
+		}
+
+		@Search
+		public List<Patient> search25(@RequiredParam(name = "p25") StringParam theRequired, @OptionalParam(name = "name") StringParam theName) {
+			return null;
+		}
+
+		@Search
+		public List<Patient> search26(@RequiredParam(name = "p26") StringParam theRequired, @OptionalParam(name = "name") StringParam theName) {
+			return null;
+		}
+
+		@Search
+		public List<Patient> search27(@RequiredParam(name = "p27") StringParam theRequired, @OptionalParam(name = "name") StringParam theName) {
+			return null;
+		}
+
+		@Search
+		public List<Patient> search28(@RequiredParam(name = "p28") StringParam theRequired, @OptionalParam(name = "name") StringParam theName) {
+			return null;
+		}
+
+		@Search
+		public List<Patient> search29(@RequiredParam(name = "p29") StringParam theRequired, @OptionalParam(name = "name") StringParam theName) {
+			return null;
+		}
+
+		@Search
+		public List<Patient> search30(@RequiredParam(name = "p30") StringParam theRequired, @OptionalParam(name = "name") StringParam theName) {
+			return null;
+		}
+
+		@Search
+		public List<Patient> search31(@RequiredParam(name = "p31") StringParam theRequired, @OptionalParam(name = "name") StringParam theName) {
+			return null;
+		}
+
+		@Search
+		public List<Patient> search32(@RequiredParam(name = "p32") StringParam theRequired, @OptionalParam(name = "name") StringParam theName) {
+			return null;
+		}
+
+		@Search
+		public List<Patient> search33(@RequiredParam(name = "p33") StringParam theRequired, @OptionalParam(name = "name") StringParam theName) {
+			return null;
+		}
+
+		@Search
+		public List<Patient> search34(@RequiredParam(name = "p34") StringParam theRequired, @OptionalParam(name = "name") StringParam theName) {
+			return null;
+		}
+
+		@Search
+		public List<Patient> search35(@RequiredParam(name = "p35") StringParam theRequired, @OptionalParam(name = "name") StringParam theName) {
+			return null;
+		}
+
+		@Search
+		public List<Patient> search36(@RequiredParam(name = "p36") StringParam theRequired, @OptionalParam(name = "name") StringParam theName) {
+			return null;
+		}
+
+		@Search
+		public List<Patient> search37(@RequiredParam(name = "p37") StringParam theRequired, @OptionalParam(name = "name") StringParam theName) {
+			return null;
+		}
+
+		@Search
+		public List<Patient> search38(@RequiredParam(name = "p38") StringParam theRequired, @OptionalParam(name = "name") StringParam theName) {
+			return null;
+		}
+
+		@Search
+		public List<Patient> search39(@RequiredParam(name = "p39") StringParam theRequired, @OptionalParam(name = "name") StringParam theName) {
+			return null;
+		}
+
+		@Search
+		public List<Patient> search40(@RequiredParam(name = "p40") StringParam theRequired, @OptionalParam(name = "name") StringParam theName) {
+			return null;
+		}
+
+		@Search
+		public List<Patient> search41(@RequiredParam(name = "p41") StringParam theRequired, @OptionalParam(name = "name") StringParam theName) {
+			return null;
+		}
+
+		@Search
+		public List<Patient> search42(@RequiredParam(name = "p42") StringParam theRequired, @OptionalParam(name = "name") StringParam theName) {
+			return null;
+		}
+
+		@Search
+		public List<Patient> search43(@RequiredParam(name = "p43") StringParam theRequired, @OptionalParam(name = "name") StringParam theName) {
+			return null;
+		}
+
+		@Search
+		public List<Patient> search44(@RequiredParam(name = "p44") StringParam theRequired, @OptionalParam(name = "name") StringParam theName) {
+			return null;
+		}
+
+		@Search
+		public List<Patient> search45(@RequiredParam(name = "p45") StringParam theRequired, @OptionalParam(name = "name") StringParam theName) {
+			return null;
+		}
+
+		@Search
+		public List<Patient> search46(@RequiredParam(name = "p46") StringParam theRequired, @OptionalParam(name = "name") StringParam theName) {
+			return null;
+		}
+
+		@Search
+		public List<Patient> search47(@RequiredParam(name = "p47") StringParam theRequired, @OptionalParam(name = "name") StringParam theName) {
+			return null;
+		}
+
+		@Search
+		public List<Patient> search48(@RequiredParam(name = "p48") StringParam theRequired, @OptionalParam(name = "name") StringParam theName) {
+			return null;
+		}
+
+		@Search
+		public List<Patient> search49(@RequiredParam(name = "p49") StringParam theRequired, @OptionalParam(name = "name") StringParam theName) {
+			return null;
+		}
+
+		@Search
+		public List<Patient> searchByFamilyAndGiven(@RequiredParam(name = "family") StringParam theFamily, @RequiredParam(name = "given") StringParam theGiven) {
+			return null;
+		}
+
+		@Update
+		public MethodOutcome update(@IdParam IdType theId, @ResourceParam Patient thePatient) {
+			return null;
+		}
+
+	}
+
+}
@@ -0,0 +1,158 @@
+package ca.uhn.fhir.rest.server;
+
+import static org.junit.Assert.assertEquals;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import org.apache.commons.io.IOUtils;
+import org.apache.http.client.methods.CloseableHttpResponse;
+import org.apache.http.client.methods.HttpGet;
+import org.apache.http.impl.client.CloseableHttpClient;
+import org.apache.http.impl.client.HttpClientBuilder;
+import org.apache.http.impl.conn.PoolingHttpClientConnectionManager;
+import org.eclipse.jetty.server.Server;
+import org.eclipse.jetty.servlet.ServletHandler;
+import org.eclipse.jetty.servlet.ServletHolder;
+import org.hl7.fhir.dstu3.model.Bundle;
+import org.hl7.fhir.dstu3.model.Patient;
+import org.hl7.fhir.instance.model.api.IBaseResource;
+import org.junit.After;
+import org.junit.AfterClass;
+import org.junit.Before;
+import org.junit.BeforeClass;
+import org.junit.Test;
+
+import ca.uhn.fhir.context.FhirContext;
+import ca.uhn.fhir.rest.annotation.Search;
+import ca.uhn.fhir.util.PortUtil;
+import ca.uhn.fhir.util.TestUtil;
+
+public class ParallelBundleEncodingDstu3Test {
+
+	private static CloseableHttpClient ourClient;
+	private static FhirContext ourCtx = FhirContext.forDstu3();
+	private static final org.slf4j.Logger ourLog = org.slf4j.LoggerFactory.getLogger(ParallelBundleEncodingDstu3Test.class);
+	private static int ourPort;
+	private static Server ourServer;
+	private static RestfulServer ourServlet;
+
+	@After
+	public void after() {
+		ourServlet.setParallelBundleEncodingThreshold(0);
+	}
+
+	@Before
+	public void before() {
+		ourServlet.getBundleEncodingMetrics().clear();
+	}
+
+	private String executeSearch(String theParams) throws Exception {
+		HttpGet httpGet = new HttpGet("http://localhost:" + ourPort + "/Patient?" + theParams);
+		CloseableHttpResponse status = ourClient.execute(httpGet);
+		try {
+			String responseContent = IOUtils.toString(status.getEntity().getContent(), "UTF-8");
+			assertEquals(200, status.getStatusLine().getStatusCode());
+			return responseContent;
+		} finally {
+			IOUtils.closeQuietly(status.getEntity().getContent());
+		}
+	}
+
+	private void assertSameEntries(String theExpected, String theActual) {
+		Bundle expected = ourCtx.newJsonParser().parseResource(Bundle.class, theExpected);
+		Bundle actual = ourCtx.newJsonParser().parseResource(Bundle.class, theActual);
+		assertEquals(expected.getEntry().size(), actual.getEntry().size());
+		for (int i = 0; i < expected.getEntry().size(); i++) {
+			String expectedEntry = ourCtx.newJsonParser().encodeResourceToString(expected.getEntry().get(i).getResource());
+			String actualEntry = ourCtx.newJsonParser().encodeResourceToString(actual.getEntry().get(i).getResource());
+			assertEquals(expectedEntry, actualEntry);
+		}
+	}
+
+	@Test
+	public void testSearchEncodedInParallel() throws Exception {
+		String expected = executeSearch("_format=json");
+		assertEquals(1, ourServlet.getBundleEncodingMetrics().getBundleCount());
+		assertEquals(0, ourServlet.getBundleEncodingMetrics().getParallelBundleCount());
+
+		ourServlet.setParallelBundleEncodingThreshold(10);
+		String actual = executeSearch("_format=json");
+		ourLog.info(actual);
+		assertSameEntries(expected, actual);
+
+		assertEquals(2, ourServlet.getBundleEncodingMetrics().getBundleCount());
+		assertEquals(1, ourServlet.getBundleEncodingMetrics().getParallelBundleCount());
+		assertEquals(100, ourServlet.getBundleEncodingMetrics().getParallelEntryCount());
+	}
+
+	@Test
+	public void testSearchNotEncodedInParallel() throws Exception {
+		ourServlet.setParallelBundleEncodingThreshold(10);
+
+		// XML
+		executeSearch("");
+		// Pretty printed
+		assertSameEntries(executeSearch("_format=json"), executeSearch("_format=json&_pretty=true"));
+		// Too few entries
+		executeSearch("_format=json&_count=5");
+
+		assertEquals(3, ourServlet.getBundleEncodingMetrics().getBundleCount());
+		assertEquals(1, ourServlet.getBundleEncodingMetrics().getParallelBundleCount());
+	}
+
+	@AfterClass
+	public static void afterClassClearContext() throws Exception {
+		ourServer.stop();
+		TestUtil.clearAllStaticFieldsForUnitTest();
+	}
+
+	@BeforeClass
+	public static void beforeClass() throws Exception {
+		ourPort = PortUtil.findFreePort();
+		ourServer = new Server(ourPort);
+
+		DummyPatientResourceProvider patientProvider = new DummyPatientResourceProvider();
+
+		ServletHandler proxyHandler = new ServletHandler();
+		ourServlet = new RestfulServer(ourCtx);
+		ourServlet.setPagingProvider(new FifoMemoryPagingProvider(10).setDefaultPageSize(100).setMaximumPageSize(100));
+
+		ourServlet.setResourceProviders(patientProvider);
+		ServletHolder servletHolder = new ServletHolder(ourServlet);
+		proxyHandler.addServletWithMapping(servletHolder, "/*");
+		ourServer.setHandler(proxyHandler);
+		ourServer.start();
+
+		PoolingHttpClientConnectionManager connectionManager = new PoolingHttpClientConnectionManager(5000, TimeUnit.MILLISECONDS);
+		HttpClientBuilder builder = HttpClientBuilder.create();
+		builder.setConnectionManager(connectionManager);
+		ourClient = builder.build();
+
+	}
+
+	public static class DummyPatientResourceProvider implements IResourceProvider {
+
+		@Override
+		public Class<? extends IBaseResource> getResourceType() {
+			return Patient.class;
+		}
+
+		@Search
+		public List<Patient> search() {
+			ArrayList<Patient> retVal = new ArrayList<Patient>();
+			for (int i = 0; i < 100; i++) {
+				Patient patient = new Patient();
+				patient.setId("Patient/" + i);
+				patient.getText().setDivAsString("<div>Patient " + i + "</div>");
+				patient.addName().setFamily("Family" + i).addGiven("Given" + i);
+				patient.addIdentifier().setSystem("http://example.com/mrn").setValue("MRN" + i);
+				retVal.add(patient);
+			}
+			return retVal;
+		}
+
+	}
+
+}